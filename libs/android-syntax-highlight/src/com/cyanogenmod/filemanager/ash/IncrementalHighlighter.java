@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.ash;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.ForegroundColorSpan;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A class that highlights a document incrementally, through the
+ * {@link SyntaxHighlightProcessor#processLine} method of an incremental processor.
+ * <br/>
+ * Only the visible lines of the document (plus a margin of {@link #MARGIN_LINES} lines) are
+ * highlighted. The state of the lexer at the start of every line is cached, so an edit only
+ * lexes from the edited line until the states converge with the ones before the edit, and the
+ * cost of a keystroke doesn't depend on the size of the document. The lines are lexed in a
+ * background thread over a copy of the painted range, and the spans are applied in the main
+ * thread, reusing the spans removed from the repainted lines.
+ * <br/>
+ * Lines are separated by <code>\n</code>. All the methods must be called from the main thread.
+ */
+public class IncrementalHighlighter {
+
+    /**
+     * The number of lines highlighted above and below the visible lines
+     */
+    public static final int MARGIN_LINES = 50;
+
+    // The maximum number of recycled spans of the same color
+    private static final int MAX_POOLED_SPANS = 1024;
+
+    // The listener of the lines lexed only to know their states
+    private static final SyntaxHighlightProcessor.TokenListener NO_TOKENS =
+            new SyntaxHighlightProcessor.TokenListener() {
+        @Override
+        public void onToken(int start, int end, int color) {
+            // The line isn't painted
+        }
+    };
+
+    private final SyntaxHighlightProcessor mProcessor;
+    private final Executor mBackgroundExecutor;
+    private final Executor mForegroundExecutor;
+    private ExecutorService mOwnExecutor;
+    private final LineStateCache mCache;
+    private final SparseArray<ArrayList<ForegroundColorSpan>> mSpanPool;
+
+    private Spannable mText;
+    private int mVisibleStart;
+    private int mVisibleEnd;
+    private HighlightJob mJob;
+
+    // The lines painted since the last change of the text (-1 if none)
+    private int mPaintedFirst;
+    private int mPaintedLast;
+
+    /**
+     * Constructor of <code>IncrementalHighlighter</code>. The lines are lexed in a own
+     * thread that is stopped by {@link #release()}.
+     *
+     * @param processor An incremental syntax highlight processor
+     * @see SyntaxHighlightProcessor#isIncremental()
+     */
+    public IncrementalHighlighter(SyntaxHighlightProcessor processor) {
+        this(processor, Executors.newSingleThreadExecutor(), new Executor() {
+            private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(Runnable command) {
+                this.mHandler.post(command);
+            }
+        });
+        this.mOwnExecutor = (ExecutorService)this.mBackgroundExecutor;
+    }
+
+    /**
+     * Constructor of <code>IncrementalHighlighter</code>.
+     *
+     * @param processor An incremental syntax highlight processor
+     * @param backgroundExecutor The executor where the lines are lexed
+     * @param foregroundExecutor The executor of the main thread, where the spans are applied
+     * @see SyntaxHighlightProcessor#isIncremental()
+     */
+    public IncrementalHighlighter(SyntaxHighlightProcessor processor,
+            Executor backgroundExecutor, Executor foregroundExecutor) {
+        super();
+        if (!processor.isIncremental()) {
+            throw new IllegalArgumentException("processor isn't incremental"); //$NON-NLS-1$
+        }
+        this.mProcessor = processor;
+        this.mBackgroundExecutor = backgroundExecutor;
+        this.mForegroundExecutor = foregroundExecutor;
+        this.mCache = new LineStateCache();
+        this.mSpanPool = new SparseArray<ArrayList<ForegroundColorSpan>>();
+        this.mPaintedFirst = -1;
+        this.mPaintedLast = -1;
+    }
+
+    /**
+     * Method that sets the document to highlight. The current spans of the document are
+     * removed, and the visible lines are highlighted.
+     *
+     * @param text The document
+     */
+    public void setText(Spannable text) {
+        cancelJob();
+        this.mText = text;
+        this.mCache.reset(text);
+        this.mPaintedFirst = -1;
+        this.mPaintedLast = -1;
+        clearSpans();
+        highlight();
+    }
+
+    /**
+     * Method that must be called when the document changes. The parameters are the same as
+     * the ones of <code>TextWatcher.onTextChanged</code>.
+     *
+     * @param start The start of the change
+     * @param before The length of the replaced text
+     * @param count The length of the new text
+     */
+    public void onTextChanged(int start, int before, int count) {
+        if (this.mText == null) {
+            return;
+        }
+        this.mCache.onTextChanged(this.mText, start, before, count);
+        this.mPaintedFirst = -1;
+        this.mPaintedLast = -1;
+        highlight();
+    }
+
+    /**
+     * Method that sets the range of the document that is visible. The visible lines are
+     * highlighted if they weren't highlighted yet.
+     *
+     * @param start The first visible char
+     * @param end The last visible char
+     */
+    public void setVisibleRange(int start, int end) {
+        this.mVisibleStart = start;
+        this.mVisibleEnd = end;
+        if (this.mText == null || this.mJob != null || isPainted()) {
+            // A pending job checks again the visible range when it ends
+            return;
+        }
+        highlight();
+    }
+
+    /**
+     * Method that highlights the visible lines of the document. A pending highlight is
+     * cancelled.
+     */
+    public void highlight() {
+        if (this.mText == null) {
+            return;
+        }
+        cancelJob();
+
+        // The lines to paint
+        LineStateCache cache = this.mCache;
+        int lineCount = cache.getLineCount();
+        int len = this.mText.length();
+        int first = cache.getLineOf(Math.max(0, Math.min(this.mVisibleStart, len)));
+        int last = cache.getLineOf(Math.max(0, Math.min(this.mVisibleEnd, len)));
+        int paintFirst = Math.max(0, first - MARGIN_LINES);
+        int paintLast = Math.min(lineCount - 1, last + MARGIN_LINES);
+
+        // The lexer must start at a line with an exact state
+        int lexFirst = Math.min(paintFirst, cache.getExactLines() - 1);
+        int lines = paintLast - lexFirst + 1;
+        int textStart = cache.getLineStart(lexFirst);
+        int textEnd = paintLast + 1 < lineCount ? cache.getLineStart(paintLast + 1) - 1 : len;
+
+        HighlightJob job = new HighlightJob(lexFirst, paintFirst, paintLast, textStart);
+        for (int i = 0; i < lines; i++) {
+            int line = lexFirst + i;
+            job.mStarts[i] = cache.getLineStart(line) - textStart;
+            job.mEnds[i] = (line + 1 < lineCount
+                    ? cache.getLineStart(line + 1) - 1 : len) - textStart;
+            // States are never negative, so a missing hint never converges
+            job.mHints[i] = cache.isHint(line) ? cache.getState(line) : -1;
+        }
+        job.mStates[0] = cache.getState(lexFirst);
+        job.mHintEnd = cache.getHintEnd();
+
+        // A copy of the text, so the lexer doesn't access the document from other thread
+        char[] chars = new char[textEnd - textStart];
+        TextUtils.getChars(this.mText, textStart, textEnd, chars, 0);
+        job.mText = new String(chars);
+
+        this.mJob = job;
+        this.mBackgroundExecutor.execute(job);
+    }
+
+    /**
+     * Method that cancels the pending highlight
+     */
+    public void cancel() {
+        cancelJob();
+    }
+
+    /**
+     * Method that removes the highlight of the document and stops highlighting it
+     */
+    public void clear() {
+        cancelJob();
+        clearSpans();
+        this.mText = null;
+        this.mPaintedFirst = -1;
+        this.mPaintedLast = -1;
+    }
+
+    /**
+     * Method that releases the highlighter. The highlighter can't be used anymore.
+     */
+    public void release() {
+        cancelJob();
+        this.mText = null;
+        this.mSpanPool.clear();
+        if (this.mOwnExecutor != null) {
+            this.mOwnExecutor.shutdownNow();
+            this.mOwnExecutor = null;
+        }
+    }
+
+    /**
+     * Method that cancels the pending job
+     */
+    private void cancelJob() {
+        if (this.mJob != null) {
+            this.mJob.mCancelled = true;
+            this.mJob = null;
+        }
+    }
+
+    /**
+     * Method that returns if the visible lines (and half of the margin) were painted since
+     * the last change of the text
+     *
+     * @return boolean If the visible lines are painted
+     */
+    private boolean isPainted() {
+        if (this.mPaintedFirst == -1) {
+            return false;
+        }
+        int len = this.mText.length();
+        int first = this.mCache.getLineOf(Math.max(0, Math.min(this.mVisibleStart, len)));
+        int last = this.mCache.getLineOf(Math.max(0, Math.min(this.mVisibleEnd, len)));
+        return (this.mPaintedFirst == 0 || first - this.mPaintedFirst >= MARGIN_LINES / 2)
+                && (this.mPaintedLast == this.mCache.getLineCount() - 1
+                    || this.mPaintedLast - last >= MARGIN_LINES / 2);
+    }
+
+    /**
+     * Method that applies the result of a job to the document (in the main thread)
+     *
+     * @param job The job
+     */
+    void onJobDone(HighlightJob job) {
+        if (job != this.mJob) {
+            // Cancelled or outdated
+            return;
+        }
+        this.mJob = null;
+        Spannable text = this.mText;
+        this.mCache.setStates(job.mLexFirst, job.mStates, job.mStates.length);
+
+        // Remove the spans of the painted lines
+        int offset = job.mTextStart;
+        int lines = job.mPaintLast - job.mLexFirst + 1;
+        int start = offset + job.mStarts[job.mPaintFirst - job.mLexFirst];
+        int end = offset + job.mEnds[lines - 1];
+        ForegroundColorSpan[] spans = text.getSpans(start, end, ForegroundColorSpan.class);
+        int cc = spans.length;
+        for (int i = 0; i < cc; i++) {
+            text.removeSpan(spans[i]);
+            recycleSpan(spans[i]);
+        }
+
+        // And paint the tokens
+        int[] tokens = job.mTokens;
+        cc = job.mTokenCount;
+        for (int i = 0; i < cc; i += 3) {
+            text.setSpan(obtainSpan(tokens[i + 2]), offset + tokens[i], offset + tokens[i + 1],
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        this.mPaintedFirst = job.mPaintFirst;
+        this.mPaintedLast = job.mPaintLast;
+
+        // The view could be scrolled meanwhile
+        if (!isPainted()) {
+            highlight();
+        }
+    }
+
+    /**
+     * Method that removes all the spans of the document
+     */
+    private void clearSpans() {
+        if (this.mText == null) {
+            return;
+        }
+        ForegroundColorSpan[] spans =
+                this.mText.getSpans(0, this.mText.length(), ForegroundColorSpan.class);
+        int cc = spans.length;
+        for (int i = 0; i < cc; i++) {
+            this.mText.removeSpan(spans[i]);
+            recycleSpan(spans[i]);
+        }
+    }
+
+    /**
+     * Method that returns a span of a color, reusing a recycled span if possible
+     *
+     * @param color The color
+     * @return ForegroundColorSpan The span
+     */
+    private ForegroundColorSpan obtainSpan(int color) {
+        ArrayList<ForegroundColorSpan> pool = this.mSpanPool.get(color);
+        if (pool != null && !pool.isEmpty()) {
+            return pool.remove(pool.size() - 1);
+        }
+        return new ForegroundColorSpan(color);
+    }
+
+    /**
+     * Method that recycles a span removed from the document
+     *
+     * @param span The span
+     */
+    private void recycleSpan(ForegroundColorSpan span) {
+        int color = span.getForegroundColor();
+        ArrayList<ForegroundColorSpan> pool = this.mSpanPool.get(color);
+        if (pool == null) {
+            pool = new ArrayList<ForegroundColorSpan>();
+            this.mSpanPool.put(color, pool);
+        }
+        if (pool.size() < MAX_POOLED_SPANS) {
+            pool.add(span);
+        }
+    }
+
+    /**
+     * The lexing of a range of lines, in the background thread
+     */
+    private class HighlightJob implements Runnable, SyntaxHighlightProcessor.TokenListener {
+        final int mLexFirst;
+        final int mPaintFirst;
+        final int mPaintLast;
+        final int mTextStart;
+        final int[] mStarts;
+        final int[] mEnds;
+        final int[] mHints;
+        final int[] mStates;
+        int mHintEnd;
+        String mText;
+        volatile boolean mCancelled;
+
+        // The tokens of the painted lines (start, end and color)
+        int[] mTokens;
+        int mTokenCount;
+
+        HighlightJob(int lexFirst, int paintFirst, int paintLast, int textStart) {
+            super();
+            int lines = paintLast - lexFirst + 1;
+            this.mLexFirst = lexFirst;
+            this.mPaintFirst = paintFirst;
+            this.mPaintLast = paintLast;
+            this.mTextStart = textStart;
+            this.mStarts = new int[lines];
+            this.mEnds = new int[lines];
+            this.mHints = new int[lines];
+            this.mStates = new int[lines + 1];
+            this.mTokens = new int[(paintLast - paintFirst + 1) * 12];
+        }
+
+        @Override
+        public void run() {
+            SyntaxHighlightProcessor processor = IncrementalHighlighter.this.mProcessor;
+            int lines = this.mStarts.length;
+            int i = 0;
+            while (i < lines) {
+                if (this.mCancelled) {
+                    return;
+                }
+                int line = this.mLexFirst + i;
+                if (line < this.mPaintFirst) {
+                    if (i > 0 && this.mHints[i] == this.mStates[i]) {
+                        // The states converged, so the hints are exact up to their end
+                        int to = Math.min(this.mPaintFirst, this.mHintEnd - 1);
+                        if (to > line) {
+                            for (int j = i + 1; j <= to - this.mLexFirst; j++) {
+                                this.mStates[j] = this.mHints[j];
+                            }
+                            i = to - this.mLexFirst;
+                            continue;
+                        }
+                    }
+                    this.mStates[i + 1] = processor.processLine(this.mText,
+                            this.mStarts[i], this.mEnds[i], this.mStates[i], NO_TOKENS);
+                } else {
+                    this.mStates[i + 1] = processor.processLine(this.mText,
+                            this.mStarts[i], this.mEnds[i], this.mStates[i], this);
+                }
+                i++;
+            }
+            this.mText = null;
+
+            IncrementalHighlighter.this.mForegroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onJobDone(HighlightJob.this);
+                }
+            });
+        }
+
+        @Override
+        public void onToken(int start, int end, int color) {
+            if (this.mTokenCount + 3 > this.mTokens.length) {
+                int[] tokens = new int[this.mTokens.length * 2 + 3];
+                System.arraycopy(this.mTokens, 0, tokens, 0, this.mTokenCount);
+                this.mTokens = tokens;
+            }
+            this.mTokens[this.mTokenCount++] = start;
+            this.mTokens[this.mTokenCount++] = end;
+            this.mTokens[this.mTokenCount++] = color;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.ash;
+
+/**
+ * A cache of the lines of a document and of the state of the lexer at the start of every
+ * line, for the incremental highlight.
+ * <br/>
+ * The states of the first {@link #getExactLines()} lines are exact. After an edit, the
+ * states of the lines that follow the edited lines are kept as hints: when the lexer
+ * reaches one of those lines with the same state as its hint, the text below didn't change
+ * since the hint was computed, so all the hints are exact again (the state converged) and
+ * the lexer can stop. Only the lines and states are updated on an edit, never the whole
+ * document.
+ * <br/>
+ * Lines are separated by <code>\n</code>. The cache isn't thread safe.
+ */
+final class LineStateCache {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int[] mLineStarts;
+    private int[] mStates;
+    private int mLineCount;
+    private int mExactLines;
+    private int mHintFrom;
+    private int mHintTo;
+
+    /**
+     * Constructor of <code>LineStateCache</code>.
+     */
+    LineStateCache() {
+        super();
+        this.mLineStarts = new int[INITIAL_CAPACITY];
+        this.mStates = new int[INITIAL_CAPACITY];
+        reset(""); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that resets the cache for a new document. Only the lines are computed.
+     *
+     * @param text The document
+     */
+    void reset(CharSequence text) {
+        this.mLineCount = 1;
+        this.mLineStarts[0] = 0;
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) == '\n') {
+                ensureCapacity(this.mLineCount + 1);
+                this.mLineStarts[this.mLineCount++] = i + 1;
+            }
+        }
+        this.mStates[0] = SyntaxHighlightProcessor.STATE_INITIAL;
+        this.mExactLines = 1;
+        this.mHintFrom = 1;
+        this.mHintTo = 1;
+    }
+
+    /**
+     * Method that updates the lines after an edit of the document. The parameters are the
+     * same as the ones of <code>TextWatcher.onTextChanged</code>.
+     *
+     * @param text The document, after the edit
+     * @param start The start of the edit
+     * @param before The length of the replaced text
+     * @param count The length of the new text
+     */
+    void onTextChanged(CharSequence text, int start, int before, int count) {
+        int line = getLineOf(start);
+
+        // The lines that started inside the replaced text
+        int removed = 0;
+        while (line + 1 + removed < this.mLineCount
+                && this.mLineStarts[line + 1 + removed] <= start + before) {
+            removed++;
+        }
+
+        // The lines that start inside the new text
+        int added = 0;
+        for (int i = start; i < start + count; i++) {
+            if (text.charAt(i) == '\n') {
+                added++;
+            }
+        }
+
+        // The states of the lines after the edit are still valid as hints
+        int oldFirst = line + removed + 1;
+        int hintFrom;
+        int hintTo;
+        if (this.mExactLines > oldFirst) {
+            hintFrom = oldFirst;
+            hintTo = this.mHintFrom == this.mExactLines && this.mHintTo > this.mHintFrom
+                    ? this.mHintTo : this.mExactLines;
+        } else {
+            hintFrom = Math.max(this.mHintFrom, oldFirst);
+            hintTo = this.mHintTo;
+        }
+
+        // Replace the lines
+        int delta = added - removed;
+        ensureCapacity(this.mLineCount + delta);
+        int tail = this.mLineCount - oldFirst;
+        System.arraycopy(this.mLineStarts, oldFirst, this.mLineStarts, oldFirst + delta, tail);
+        System.arraycopy(this.mStates, oldFirst, this.mStates, oldFirst + delta, tail);
+        this.mLineCount += delta;
+        int shift = count - before;
+        for (int i = oldFirst + delta; i < this.mLineCount; i++) {
+            this.mLineStarts[i] += shift;
+        }
+        int next = line + 1;
+        for (int i = start; i < start + count; i++) {
+            if (text.charAt(i) == '\n') {
+                this.mLineStarts[next++] = i + 1;
+            }
+        }
+
+        // Only the state of the edited line is still exact
+        this.mExactLines = Math.min(this.mExactLines, line + 1);
+        if (hintTo > hintFrom) {
+            this.mHintFrom = hintFrom + delta;
+            this.mHintTo = hintTo + delta;
+        } else {
+            this.mHintFrom = this.mExactLines;
+            this.mHintTo = this.mExactLines;
+        }
+    }
+
+    /**
+     * Method that saves the exact states computed by the lexer for a range of lines. If
+     * one of the states is the same as the hint of its line, all the hints are exact.
+     *
+     * @param first The first line of the range (its state must be exact)
+     * @param states The states of the lines, starting with the state of the first line
+     * @param count The number of states
+     */
+    void setStates(int first, int[] states, int count) {
+        count = Math.min(count, this.mLineCount - first);
+        int exact = first + count;
+        for (int i = 1; i < count; i++) {
+            int line = first + i;
+            if (line >= this.mHintFrom && line < this.mHintTo
+                    && this.mStates[line] == states[i]) {
+                exact = Math.max(exact, this.mHintTo);
+            }
+        }
+        System.arraycopy(states, 0, this.mStates, first, count);
+
+        this.mExactLines = Math.max(this.mExactLines, exact);
+        if (this.mExactLines >= this.mHintTo) {
+            this.mHintFrom = this.mExactLines;
+            this.mHintTo = this.mExactLines;
+        } else {
+            this.mHintFrom = Math.max(this.mHintFrom, this.mExactLines);
+        }
+    }
+
+    /**
+     * Method that returns if the state of a line is a hint that can be checked to know if
+     * the states converged
+     *
+     * @param line The line
+     * @return boolean If the state of the line is a hint
+     */
+    boolean isHint(int line) {
+        return line >= this.mHintFrom && line < this.mHintTo;
+    }
+
+    /**
+     * Method that returns the end of the hints (the lines from a converged hint up to here
+     * have exact states)
+     *
+     * @return int The line after the last hint
+     */
+    int getHintEnd() {
+        return this.mHintTo;
+    }
+
+    /**
+     * Method that returns the number of lines, from the first one, with exact states
+     *
+     * @return int The number of lines with exact states
+     */
+    int getExactLines() {
+        return this.mExactLines;
+    }
+
+    /**
+     * Method that returns the number of lines of the document
+     *
+     * @return int The number of lines
+     */
+    int getLineCount() {
+        return this.mLineCount;
+    }
+
+    /**
+     * Method that returns the start of a line
+     *
+     * @param line The line
+     * @return int The offset of the first character of the line
+     */
+    int getLineStart(int line) {
+        return this.mLineStarts[line];
+    }
+
+    /**
+     * Method that returns the state of the lexer at the start of a line
+     *
+     * @param line The line
+     * @return int The state (exact or hint, see {@link #getExactLines()})
+     */
+    int getState(int line) {
+        return this.mStates[line];
+    }
+
+    /**
+     * Method that returns the line of an offset
+     *
+     * @param offset The offset
+     * @return int The line that contains the offset
+     */
+    int getLineOf(int offset) {
+        int lo = 0;
+        int hi = this.mLineCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (this.mLineStarts[mid] <= offset) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Method that grows the arrays of the cache
+     *
+     * @param capacity The minimum number of lines
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.mLineStarts.length) {
+            int size = Math.max(capacity, this.mLineStarts.length * 2);
+            int[] lineStarts = new int[size];
+            System.arraycopy(this.mLineStarts, 0, lineStarts, 0, this.mLineCount);
+            this.mLineStarts = lineStarts;
+            int[] states = new int[size];
+            System.arraycopy(this.mStates, 0, states, 0, this.mLineCount);
+            this.mStates = states;
+        }
+    }
+}
@@ -16,7 +16,12 @@
 
 package com.cyanogenmod.filemanager.ash;
 
+import com.cyanogenmod.filemanager.ash.spi.IniSyntaxHighlightProcessor;
+import com.cyanogenmod.filemanager.ash.spi.JavaSyntaxHighlightProcessor;
+import com.cyanogenmod.filemanager.ash.spi.JsonSyntaxHighlightProcessor;
 import com.cyanogenmod.filemanager.ash.spi.PropertiesSyntaxHighlightProcessor;
+import com.cyanogenmod.filemanager.ash.spi.ShellSyntaxHighlightProcessor;
+import com.cyanogenmod.filemanager.ash.spi.XmlSyntaxHighlightProcessor;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -90,7 +95,13 @@ public class SyntaxHighlightFactory {
         // TODO Read all processors classes of the SPI package
         // For now we add all known syntax highlight processors
         SyntaxHighlightFactory factory = new SyntaxHighlightFactory();
+        // (the ini processor handles the android properties files before the properties one)
+        factory.mProcessors.add(new IniSyntaxHighlightProcessor(resolver));
         factory.mProcessors.add(new PropertiesSyntaxHighlightProcessor(resolver));
+        factory.mProcessors.add(new XmlSyntaxHighlightProcessor(resolver));
+        factory.mProcessors.add(new JsonSyntaxHighlightProcessor(resolver));
+        factory.mProcessors.add(new ShellSyntaxHighlightProcessor(resolver));
+        factory.mProcessors.add(new JavaSyntaxHighlightProcessor(resolver));
         return factory;
     }
 }
@@ -27,6 +27,26 @@ import java.io.File;
  */
 public abstract class SyntaxHighlightProcessor {
 
+    /**
+     * The state of the lexer at the start of a document
+     */
+    public static final int STATE_INITIAL = 0;
+
+    /**
+     * The listener of the tokens found by {@link SyntaxHighlightProcessor#processLine}
+     */
+    public interface TokenListener {
+        /**
+         * Method invoked when a token is found. The tokens of a line are reported in the
+         * order they must be painted (a token can be painted over a previous one).
+         *
+         * @param start The start of the token
+         * @param end The end of the token
+         * @param color The color of the token
+         */
+        void onToken(int start, int end, int color);
+    }
+
     protected final ISyntaxHighlightResourcesResolver mResourcesResolver;
 
     /**
@@ -71,6 +91,34 @@ public abstract class SyntaxHighlightProcessor {
      */
     public abstract void process(Spannable spanable, int start, int end);
 
+    /**
+     * Method that returns if the processor can lex the document line by line through
+     * {@link #processLine}, so the document can be highlighted incrementally.
+     *
+     * @return boolean If the processor supports the incremental highlight
+     */
+    public boolean isIncremental() {
+        return false;
+    }
+
+    /**
+     * Method that lexes one line of a document. The method must not keep any state
+     * between calls (all the state is passed and returned) and must not allocate per token,
+     * so it can be called from any thread, over any line, as many times as needed.
+     *
+     * @param text The document
+     * @param start The start of the line
+     * @param end The end of the line (without the line separator)
+     * @param state The state of the lexer at the start of the line
+     * @param listener The listener of the tokens of the line
+     * @return int The state of the lexer at the start of the next line
+     * @see #isIncremental()
+     */
+    public int processLine(
+            CharSequence text, int start, int end, int state, TokenListener listener) {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * Method that cancels the active processor
      */
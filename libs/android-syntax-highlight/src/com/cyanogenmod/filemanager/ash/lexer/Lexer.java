@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.ash.lexer;
+
+import com.cyanogenmod.filemanager.ash.SyntaxHighlightProcessor.TokenListener;
+
+/**
+ * A table driven lexer, compiled from the rules of a {@link LexerBuilder}.
+ * <br/>
+ * The rules of all the states of the lexer are compiled into one DFA over classes of
+ * characters. Every token is the longest match of the rules of the current state (the
+ * first rule wins between matches of the same length), so lexing a char is a lookup in the
+ * class map plus a lookup in the transition table, and the lexer never allocates. The chars
+ * that don't match any rule are skipped.
+ * <br/>
+ * The lexer works line by line: the state returned for a line is the state at the start of
+ * the next line. The lexer is immutable and thread safe.
+ */
+public final class Lexer {
+
+    // The class of all the chars outside of ASCII
+    static final int NON_ASCII = 128;
+
+    private final int[] mClassMap;
+    private final int mClasses;
+    private final int[] mTransitions;
+    private final int[] mAccept;
+    private final int[] mStarts;
+    private final int[] mRuleColors;
+    private final int[] mRuleNextStates;
+    private final String[] mRuleTrailing;
+    private final int[] mLineEndStates;
+
+    /**
+     * Constructor of <code>Lexer</code>.
+     *
+     * @param classMap The class of every ASCII char, plus the class of the others
+     * @param classes The number of classes
+     * @param transitions The next DFA state for every DFA state and class (-1 if none)
+     * @param accept The rule accepted by every DFA state (-1 if none)
+     * @param starts The start DFA states of every lexer state, in the middle and at the start
+     * of a line
+     * @param ruleColors The color (ordinal of <code>HighlightColors</code>) of every rule, or
+     * -1 if the tokens of the rule aren't highlighted
+     * @param ruleNextStates The lexer state after a token of every rule, or -1 if the rule
+     * doesn't change the state
+     * @param ruleTrailing The trailing chars excluded from the tokens of every rule, or null
+     * @param lineEndStates The lexer state after the end of a line in every lexer state, or -1
+     * if the state continues in the next line
+     */
+    Lexer(int[] classMap, int classes, int[] transitions, int[] accept, int[] starts,
+            int[] ruleColors, int[] ruleNextStates, String[] ruleTrailing, int[] lineEndStates) {
+        super();
+        this.mClassMap = classMap;
+        this.mClasses = classes;
+        this.mTransitions = transitions;
+        this.mAccept = accept;
+        this.mStarts = starts;
+        this.mRuleColors = ruleColors;
+        this.mRuleNextStates = ruleNextStates;
+        this.mRuleTrailing = ruleTrailing;
+        this.mLineEndStates = lineEndStates;
+    }
+
+    /**
+     * Method that returns the number of states of the lexer
+     *
+     * @return int The number of states
+     */
+    public int getStateCount() {
+        return this.mLineEndStates.length;
+    }
+
+    /**
+     * Method that returns the number of states of the DFA
+     *
+     * @return int The number of states of the DFA
+     */
+    public int getDfaStateCount() {
+        return this.mAccept.length;
+    }
+
+    /**
+     * Method that lexes one line of a text.
+     *
+     * @param text The text
+     * @param start The start of the line
+     * @param end The end of the line (without the line separator)
+     * @param state The state of the lexer at the start of the line
+     * @param colors The color of every <code>HighlightColors</code>, by ordinal
+     * @param listener The listener of the highlighted tokens
+     * @return int The state of the lexer at the start of the next line
+     */
+    public int lex(CharSequence text, int start, int end, int state, int[] colors,
+            TokenListener listener) {
+        final int[] classMap = this.mClassMap;
+        final int[] transitions = this.mTransitions;
+        final int[] accept = this.mAccept;
+        final int classes = this.mClasses;
+        final int nonAscii = classMap[NON_ASCII];
+
+        int lexState = state >= 0 && state < this.mLineEndStates.length ? state : 0;
+        int pos = start;
+        while (pos < end) {
+            // Find the longest match
+            int dfaState = this.mStarts[(lexState << 1) + (pos == start ? 1 : 0)];
+            int rule = -1;
+            int tokenEnd = pos;
+            int p = pos;
+            while (p < end) {
+                char c = text.charAt(p);
+                int cls = c < NON_ASCII ? classMap[c] : nonAscii;
+                dfaState = transitions[dfaState * classes + cls];
+                if (dfaState < 0) {
+                    break;
+                }
+                p++;
+                if (accept[dfaState] >= 0) {
+                    rule = accept[dfaState];
+                    tokenEnd = p;
+                }
+            }
+            if (rule == -1) {
+                // Skip the char
+                pos++;
+                continue;
+            }
+
+            String trailing = this.mRuleTrailing[rule];
+            if (trailing != null) {
+                while (tokenEnd > pos + 1 && trailing.indexOf(text.charAt(tokenEnd - 1)) != -1) {
+                    tokenEnd--;
+                }
+            }
+            int color = this.mRuleColors[rule];
+            if (color >= 0) {
+                listener.onToken(pos, tokenEnd, colors[color]);
+            }
+            if (this.mRuleNextStates[rule] >= 0) {
+                lexState = this.mRuleNextStates[rule];
+            }
+            pos = tokenEnd;
+        }
+
+        if (this.mLineEndStates[lexState] >= 0) {
+            lexState = this.mLineEndStates[lexState];
+        }
+        return lexState;
+    }
+}
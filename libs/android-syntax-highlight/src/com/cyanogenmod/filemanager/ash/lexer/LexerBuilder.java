@@ -0,0 +1,653 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.ash.lexer;
+
+import com.cyanogenmod.filemanager.ash.HighlightColors;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class that compiles the declarative rules of a grammar into a {@link Lexer}.
+ * <br/>
+ * A grammar is a list of states, and every state is a list of rules. A rule is a pattern, the
+ * color of its tokens and, optionally, the state after its tokens. The first declared state
+ * is the initial state. The patterns are a subset of the regular expressions:
+ * <ul>
+ * <li>Chars, escaped chars (<code>\.</code>) and <code>\t</code></li>
+ * <li>Classes (<code>[a-z_]</code>, <code>[^"]</code>), <code>.</code>, <code>\d</code>,
+ * <code>\w</code> (includes the non ASCII chars) and <code>\s</code></li>
+ * <li>Groups (<code>(...)</code>, <code>(?:...)</code>) and alternations
+ * (<code>a|b</code>)</li>
+ * <li>The quantifiers <code>*</code>, <code>+</code> and <code>?</code></li>
+ * </ul>
+ * There are no anchors: the patterns never match the line separator, so <code>.*</code>
+ * matches up to the end of the line, and {@link #atLineStart()} restricts a rule to the
+ * start of the lines.
+ * <pre>
+ * Lexer lexer = new LexerBuilder()
+ *         .state("code")
+ *         .rule("//.*", HighlightColors.SINGLE_LINE_COMMENT)
+ *         .rule("/\\*", HighlightColors.MULTILINE_LINE_COMMENT, "comment")
+ *         .state("comment")
+ *         .rule("\\*&#47;", HighlightColors.MULTILINE_LINE_COMMENT, "code")
+ *         .rule("[^*]+|\\*", HighlightColors.MULTILINE_LINE_COMMENT)
+ *         .build();
+ * </pre>
+ */
+public final class LexerBuilder {
+
+    private final List<String> mStates;
+    private final List<String> mLineEndStates;
+    private final List<Rule> mRules;
+
+    // The states of the NFA, while building the lexer
+    private List<NfaState> mNfa;
+
+    /**
+     * Constructor of <code>LexerBuilder</code>.
+     */
+    public LexerBuilder() {
+        super();
+        this.mStates = new ArrayList<String>();
+        this.mLineEndStates = new ArrayList<String>();
+        this.mRules = new ArrayList<Rule>();
+    }
+
+    /**
+     * Method that declares a new state. The next rules belong to this state.
+     *
+     * @param name The name of the state
+     * @return LexerBuilder This builder
+     */
+    public LexerBuilder state(String name) {
+        return state(name, null);
+    }
+
+    /**
+     * Method that declares a new state that ends with the line. The next rules belong to
+     * this state.
+     *
+     * @param name The name of the state
+     * @param lineEndState The state after the end of a line, or null if the state continues
+     * in the next line
+     * @return LexerBuilder This builder
+     */
+    public LexerBuilder state(String name, String lineEndState) {
+        if (this.mStates.contains(name)) {
+            throw new IllegalArgumentException("Duplicated state: " + name); //$NON-NLS-1$
+        }
+        this.mStates.add(name);
+        this.mLineEndStates.add(lineEndState);
+        return this;
+    }
+
+    /**
+     * Method that adds a rule to the current state
+     *
+     * @param pattern The pattern of the tokens
+     * @param color The color of the tokens, or null if they aren't highlighted
+     * @return LexerBuilder This builder
+     */
+    public LexerBuilder rule(String pattern, HighlightColors color) {
+        return rule(pattern, color, null);
+    }
+
+    /**
+     * Method that adds a rule to the current state
+     *
+     * @param pattern The pattern of the tokens
+     * @param color The color of the tokens, or null if they aren't highlighted
+     * @param nextState The state after a token, or null to keep the current state
+     * @return LexerBuilder This builder
+     */
+    public LexerBuilder rule(String pattern, HighlightColors color, String nextState) {
+        if (this.mStates.isEmpty()) {
+            throw new IllegalStateException("No state declared"); //$NON-NLS-1$
+        }
+        Rule rule = new Rule();
+        rule.mState = this.mStates.size() - 1;
+        rule.mPattern = pattern;
+        rule.mColor = color;
+        rule.mNextState = nextState;
+        this.mRules.add(rule);
+        return this;
+    }
+
+    /**
+     * Method that restricts the last rule to the start of the lines
+     *
+     * @return LexerBuilder This builder
+     */
+    public LexerBuilder atLineStart() {
+        getLastRule().mLineStart = true;
+        return this;
+    }
+
+    /**
+     * Method that excludes from the tokens of the last rule the trailing chars that are part
+     * of a set. The chars are only needed to match the rule (like a lookahead).
+     *
+     * @param chars The trailing chars
+     * @return LexerBuilder This builder
+     */
+    public LexerBuilder trailing(String chars) {
+        getLastRule().mTrailing = chars;
+        return this;
+    }
+
+    /**
+     * Method that compiles the rules into a lexer
+     *
+     * @return Lexer The lexer
+     * @throws IllegalArgumentException If a pattern isn't valid, or a state doesn't exist
+     */
+    public Lexer build() {
+        int states = this.mStates.size();
+        int rules = this.mRules.size();
+
+        // Build the NFA of every rule
+        this.mNfa = new ArrayList<NfaState>();
+        NfaState[] ruleStarts = new NfaState[rules];
+        int[] ruleColors = new int[rules];
+        int[] ruleNextStates = new int[rules];
+        String[] ruleTrailing = new String[rules];
+        for (int i = 0; i < rules; i++) {
+            Rule rule = this.mRules.get(i);
+            Fragment fragment = new PatternParser(rule.mPattern).parse();
+            fragment.mEnd.mAccept = i;
+            ruleStarts[i] = fragment.mStart;
+            ruleColors[i] = rule.mColor != null ? rule.mColor.ordinal() : -1;
+            ruleNextStates[i] = rule.mNextState != null ? getState(rule.mNextState) : -1;
+            ruleTrailing[i] = rule.mTrailing;
+        }
+        int[] lineEndStates = new int[states];
+        for (int i = 0; i < states; i++) {
+            String lineEndState = this.mLineEndStates.get(i);
+            lineEndStates[i] = lineEndState != null ? getState(lineEndState) : -1;
+        }
+
+        // Split the chars in classes of chars that are never distinguished
+        int[] classMap = new int[Lexer.NON_ASCII + 1];
+        int classes = 1;
+        for (NfaState state : this.mNfa) {
+            if (state.mChars != null) {
+                classes = splitClasses(classMap, classes, state.mChars);
+            }
+        }
+        int[] classChars = new int[classes];
+        for (int c = Lexer.NON_ASCII; c >= 0; c--) {
+            classChars[classMap[c]] = c;
+        }
+
+        // And build the DFA from the start states of every lexer state (subset construction)
+        Map<BitSet, Integer> dfaStates = new HashMap<BitSet, Integer>();
+        List<BitSet> pending = new ArrayList<BitSet>();
+        int[] starts = new int[states * 2];
+        for (int i = 0; i < states; i++) {
+            for (int lineStart = 0; lineStart < 2; lineStart++) {
+                BitSet set = new BitSet();
+                for (int j = 0; j < rules; j++) {
+                    Rule rule = this.mRules.get(j);
+                    if (rule.mState == i && (lineStart == 1 || !rule.mLineStart)) {
+                        set.set(ruleStarts[j].mId);
+                    }
+                }
+                if (set.isEmpty()) {
+                    throw new IllegalArgumentException(
+                            "State without rules: " + this.mStates.get(i)); //$NON-NLS-1$
+                }
+                starts[(i << 1) + lineStart] = getDfaState(closure(set), dfaStates, pending);
+            }
+        }
+        IntArray transitions = new IntArray();
+        IntArray accept = new IntArray();
+        for (int i = 0; i < pending.size(); i++) {
+            BitSet set = pending.get(i);
+            int rule = -1;
+            for (int n = set.nextSetBit(0); n >= 0; n = set.nextSetBit(n + 1)) {
+                int a = this.mNfa.get(n).mAccept;
+                if (a != -1 && (rule == -1 || a < rule)) {
+                    rule = a;
+                }
+            }
+            accept.add(rule);
+            for (int cls = 0; cls < classes; cls++) {
+                BitSet next = new BitSet();
+                for (int n = set.nextSetBit(0); n >= 0; n = set.nextSetBit(n + 1)) {
+                    NfaState state = this.mNfa.get(n);
+                    if (state.mChars != null && state.mChars.get(classChars[cls])) {
+                        next.set(state.mNext.mId);
+                    }
+                }
+                transitions.add(next.isEmpty()
+                        ? -1 : getDfaState(closure(next), dfaStates, pending));
+            }
+        }
+        this.mNfa = null;
+
+        return new Lexer(classMap, classes, transitions.toArray(), accept.toArray(), starts,
+                ruleColors, ruleNextStates, ruleTrailing, lineEndStates);
+    }
+
+    /**
+     * Method that returns the last declared rule
+     *
+     * @return Rule The last rule
+     */
+    private Rule getLastRule() {
+        if (this.mRules.isEmpty()) {
+            throw new IllegalStateException("No rule declared"); //$NON-NLS-1$
+        }
+        return this.mRules.get(this.mRules.size() - 1);
+    }
+
+    /**
+     * Method that returns the index of a state
+     *
+     * @param name The name of the state
+     * @return int The index of the state
+     */
+    private int getState(String name) {
+        int state = this.mStates.indexOf(name);
+        if (state == -1) {
+            throw new IllegalArgumentException("Unknown state: " + name); //$NON-NLS-1$
+        }
+        return state;
+    }
+
+    /**
+     * Method that splits the classes of chars, so the chars of a class are all inside or
+     * all outside of a set
+     *
+     * @param classMap The class of every char
+     * @param classes The number of classes
+     * @param chars The set of chars
+     * @return int The new number of classes
+     */
+    private static int splitClasses(int[] classMap, int classes, BitSet chars) {
+        // The new class of the chars of every class that are inside of the set
+        int[] split = new int[classes];
+        boolean[] outside = new boolean[classes];
+        for (int c = 0; c <= Lexer.NON_ASCII; c++) {
+            if (!chars.get(c)) {
+                outside[classMap[c]] = true;
+            }
+        }
+        int count = classes;
+        for (int i = 0; i < classes; i++) {
+            split[i] = -1;
+        }
+        for (int c = 0; c <= Lexer.NON_ASCII; c++) {
+            int cls = classMap[c];
+            if (chars.get(c) && outside[cls]) {
+                if (split[cls] == -1) {
+                    split[cls] = count++;
+                }
+                classMap[c] = split[cls];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method that returns the DFA state of a set of NFA states, registering it if it's new
+     *
+     * @param set The set of NFA states
+     * @param dfaStates The DFA states
+     * @param pending The sets of NFA states of the DFA states, by index
+     * @return int The DFA state
+     */
+    private static int getDfaState(BitSet set, Map<BitSet, Integer> dfaStates,
+            List<BitSet> pending) {
+        Integer state = dfaStates.get(set);
+        if (state == null) {
+            state = Integer.valueOf(pending.size());
+            dfaStates.put(set, state);
+            pending.add(set);
+        }
+        return state.intValue();
+    }
+
+    /**
+     * Method that adds to a set of NFA states all the states reachable without chars
+     *
+     * @param set The set of NFA states
+     * @return BitSet The same set
+     */
+    private BitSet closure(BitSet set) {
+        int[] stack = new int[this.mNfa.size()];
+        int top = 0;
+        for (int n = set.nextSetBit(0); n >= 0; n = set.nextSetBit(n + 1)) {
+            stack[top++] = n;
+        }
+        while (top > 0) {
+            NfaState state = this.mNfa.get(stack[--top]);
+            int cc = state.mEpsilons.size();
+            for (int i = 0; i < cc; i++) {
+                int id = state.mEpsilons.get(i).mId;
+                if (!set.get(id)) {
+                    set.set(id);
+                    stack[top++] = id;
+                }
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Method that creates a new state of the NFA
+     *
+     * @return NfaState The state
+     */
+    NfaState newState() {
+        NfaState state = new NfaState(this.mNfa.size());
+        this.mNfa.add(state);
+        return state;
+    }
+
+    /**
+     * A rule of the grammar
+     */
+    private static class Rule {
+        int mState;
+        String mPattern;
+        HighlightColors mColor;
+        String mNextState;
+        boolean mLineStart;
+        String mTrailing;
+
+        Rule() {
+            super();
+        }
+    }
+
+    /**
+     * A state of the NFA. A state has a transition over a set of chars, or transitions
+     * without chars (or none if it's the end of a rule).
+     */
+    static class NfaState {
+        final int mId;
+        final List<NfaState> mEpsilons;
+        BitSet mChars;
+        NfaState mNext;
+        int mAccept;
+
+        NfaState(int id) {
+            super();
+            this.mId = id;
+            this.mEpsilons = new ArrayList<NfaState>(2);
+            this.mAccept = -1;
+        }
+    }
+
+    /**
+     * A fragment of the NFA, with one start state and one end state
+     */
+    static class Fragment {
+        final NfaState mStart;
+        final NfaState mEnd;
+
+        Fragment(NfaState start, NfaState end) {
+            super();
+            this.mStart = start;
+            this.mEnd = end;
+        }
+    }
+
+    /**
+     * A parser of a pattern into a fragment of the NFA (Thompson's construction)
+     */
+    private class PatternParser {
+        private final String mPattern;
+        private int mPos;
+
+        PatternParser(String pattern) {
+            super();
+            this.mPattern = pattern;
+        }
+
+        Fragment parse() {
+            Fragment fragment = parseAlternation();
+            if (this.mPos < this.mPattern.length()) {
+                throw error();
+            }
+            return fragment;
+        }
+
+        private Fragment parseAlternation() {
+            Fragment fragment = parseSequence();
+            while (this.mPos < this.mPattern.length() && this.mPattern.charAt(this.mPos) == '|') {
+                this.mPos++;
+                Fragment other = parseSequence();
+                NfaState start = newState();
+                NfaState end = newState();
+                start.mEpsilons.add(fragment.mStart);
+                start.mEpsilons.add(other.mStart);
+                fragment.mEnd.mEpsilons.add(end);
+                other.mEnd.mEpsilons.add(end);
+                fragment = new Fragment(start, end);
+            }
+            return fragment;
+        }
+
+        private Fragment parseSequence() {
+            NfaState start = newState();
+            NfaState end = start;
+            while (this.mPos < this.mPattern.length()) {
+                char c = this.mPattern.charAt(this.mPos);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                Fragment fragment = parseRepetition();
+                end.mEpsilons.add(fragment.mStart);
+                end = fragment.mEnd;
+            }
+            return new Fragment(start, end);
+        }
+
+        private Fragment parseRepetition() {
+            Fragment fragment = parseAtom();
+            while (this.mPos < this.mPattern.length()) {
+                char c = this.mPattern.charAt(this.mPos);
+                if (c != '*' && c != '+' && c != '?') {
+                    break;
+                }
+                this.mPos++;
+                NfaState start = newState();
+                NfaState end = newState();
+                start.mEpsilons.add(fragment.mStart);
+                if (c != '+') {
+                    start.mEpsilons.add(end);
+                }
+                if (c != '?') {
+                    fragment.mEnd.mEpsilons.add(fragment.mStart);
+                }
+                fragment.mEnd.mEpsilons.add(end);
+                fragment = new Fragment(start, end);
+            }
+            return fragment;
+        }
+
+        private Fragment parseAtom() {
+            char c = this.mPattern.charAt(this.mPos++);
+            BitSet chars;
+            switch (c) {
+                case '(':
+                    if (this.mPattern.startsWith("?:", this.mPos)) { //$NON-NLS-1$
+                        this.mPos += 2;
+                    }
+                    Fragment fragment = parseAlternation();
+                    if (this.mPos >= this.mPattern.length()
+                            || this.mPattern.charAt(this.mPos) != ')') {
+                        throw error();
+                    }
+                    this.mPos++;
+                    return fragment;
+                case '[':
+                    chars = parseClass();
+                    break;
+                case '.':
+                    chars = new BitSet();
+                    chars.set(0, Lexer.NON_ASCII + 1);
+                    chars.clear('\n');
+                    break;
+                case '\\':
+                    chars = parseEscape(false);
+                    break;
+                case '*':
+                case '+':
+                case '?':
+                case ')':
+                    throw error();
+                default:
+                    if (c >= Lexer.NON_ASCII) {
+                        // Only the class of all the non ASCII chars is supported
+                        throw error();
+                    }
+                    chars = new BitSet();
+                    chars.set(c);
+                    break;
+            }
+            NfaState start = newState();
+            NfaState end = newState();
+            start.mChars = chars;
+            start.mNext = end;
+            return new Fragment(start, end);
+        }
+
+        private BitSet parseClass() {
+            BitSet chars = new BitSet();
+            boolean negated = false;
+            if (this.mPos < this.mPattern.length() && this.mPattern.charAt(this.mPos) == '^') {
+                negated = true;
+                this.mPos++;
+            }
+            boolean first = true;
+            while (true) {
+                if (this.mPos >= this.mPattern.length()) {
+                    throw error();
+                }
+                char c = this.mPattern.charAt(this.mPos++);
+                if (c == ']' && !first) {
+                    break;
+                }
+                first = false;
+                if (c == '\\') {
+                    BitSet escaped = parseEscape(true);
+                    if (escaped.cardinality() != 1) {
+                        chars.or(escaped);
+                        continue;
+                    }
+                    c = (char)escaped.nextSetBit(0);
+                }
+                char to = c;
+                if (this.mPos + 1 < this.mPattern.length()
+                        && this.mPattern.charAt(this.mPos) == '-'
+                        && this.mPattern.charAt(this.mPos + 1) != ']') {
+                    this.mPos++;
+                    to = this.mPattern.charAt(this.mPos++);
+                    if (to == '\\') {
+                        to = (char)parseEscape(true).nextSetBit(0);
+                    }
+                }
+                if (c > to || to > Lexer.NON_ASCII) {
+                    throw error();
+                }
+                chars.set(c, to + 1);
+            }
+            if (negated) {
+                chars.flip(0, Lexer.NON_ASCII + 1);
+                chars.clear('\n');
+            }
+            return chars;
+        }
+
+        private BitSet parseEscape(boolean inClass) {
+            if (this.mPos >= this.mPattern.length()) {
+                throw error();
+            }
+            char c = this.mPattern.charAt(this.mPos++);
+            BitSet chars = new BitSet();
+            switch (c) {
+                case 'd':
+                    chars.set('0', '9' + 1);
+                    break;
+                case 'w':
+                    chars.set('a', 'z' + 1);
+                    chars.set('A', 'Z' + 1);
+                    chars.set('0', '9' + 1);
+                    chars.set('_');
+                    chars.set(Lexer.NON_ASCII);
+                    break;
+                case 's':
+                    chars.set(' ');
+                    chars.set('\t');
+                    chars.set('\f');
+                    chars.set('\r');
+                    chars.set(0x0B);
+                    break;
+                case 't':
+                    chars.set('\t');
+                    break;
+                default:
+                    if (Character.isLetterOrDigit(c) || c >= Lexer.NON_ASCII) {
+                        // Not supported
+                        throw error();
+                    }
+                    chars.set(c);
+                    break;
+            }
+            return chars;
+        }
+
+        private IllegalArgumentException error() {
+            return new IllegalArgumentException("Invalid pattern at " //$NON-NLS-1$
+                    + this.mPos + ": " + this.mPattern); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * A growable array of ints
+     */
+    private static class IntArray {
+        private int[] mData = new int[256];
+        private int mSize;
+
+        IntArray() {
+            super();
+        }
+
+        void add(int value) {
+            if (this.mSize == this.mData.length) {
+                int[] data = new int[this.mSize * 2];
+                System.arraycopy(this.mData, 0, data, 0, this.mSize);
+                this.mData = data;
+            }
+            this.mData[this.mSize++] = value;
+        }
+
+        int[] toArray() {
+            int[] data = new int[this.mSize];
+            System.arraycopy(this.mData, 0, data, 0, this.mSize);
+            return data;
+        }
+    }
+}
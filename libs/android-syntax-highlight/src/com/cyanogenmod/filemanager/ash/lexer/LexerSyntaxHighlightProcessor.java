@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.ash.lexer;
+
+import android.text.Spannable;
+
+import com.cyanogenmod.filemanager.ash.HighlightColors;
+import com.cyanogenmod.filemanager.ash.ISyntaxHighlightResourcesResolver;
+import com.cyanogenmod.filemanager.ash.SyntaxHighlightProcessor;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * The base class of the syntax highlight processors built over a table driven
+ * {@link Lexer}. The subclasses only declare the grammar and the files they accept.
+ * <br/>
+ * The processors are incremental and stateless, so they can be used from any thread.
+ */
+public abstract class LexerSyntaxHighlightProcessor extends SyntaxHighlightProcessor {
+
+    private final String[] mExtensions;
+    private final int[] mColors;
+
+    /**
+     * Constructor of <code>LexerSyntaxHighlightProcessor</code>
+     *
+     * @param resolver A class for resolve resources
+     * @param extensions The extensions of the accepted files (lower case, without the dot)
+     */
+    public LexerSyntaxHighlightProcessor(
+            ISyntaxHighlightResourcesResolver resolver, String[] extensions) {
+        super(resolver);
+        this.mExtensions = extensions;
+        this.mColors = new int[HighlightColors.values().length];
+        initialize();
+    }
+
+    /**
+     * Method that returns the lexer of the grammar of the processor. The lexer should be
+     * compiled only once, the first time is needed.
+     *
+     * @return Lexer The lexer
+     */
+    protected abstract Lexer getLexer();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean accept(File file) {
+        if (file == null) return false;
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        int cc = this.mExtensions.length;
+        for (int i = 0; i < cc; i++) {
+            String ext = this.mExtensions[i];
+            if (name.length() > ext.length() && name.endsWith(ext)
+                    && name.charAt(name.length() - ext.length() - 1) == '.') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initialize() {
+        HighlightColors[] colors = HighlightColors.values();
+        for (int i = 0; i < colors.length; i++) {
+            if (this.mResourcesResolver != null) {
+                this.mColors[i] = this.mResourcesResolver.getColor(
+                        colors[i].getId(), colors[i].getResId(), colors[i].getDefault());
+            } else {
+                this.mColors[i] = colors[i].getDefault();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void process(final Spannable spanable) {
+        clear(spanable);
+        TokenListener listener = new TokenListener() {
+            @Override
+            public void onToken(int start, int end, int color) {
+                setSpan(spanable, color, start, end);
+            }
+        };
+        Lexer lexer = getLexer();
+        int len = spanable.length();
+        int state = STATE_INITIAL;
+        int start = 0;
+        while (start <= len) {
+            int end = start;
+            while (end < len && spanable.charAt(end) != '\n') {
+                end++;
+            }
+            state = lexer.lex(spanable, start, end, state, this.mColors, listener);
+            start = end + 1;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br/>
+     * The state of the lexer after the change isn't known, so the whole document is
+     * processed again. Use an <code>IncrementalHighlighter</code> to process only the
+     * changes.
+     */
+    @Override
+    public void process(final Spannable spanable, final int start, final int end) {
+        process(spanable);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cancel() {
+        // Not needed by this processor
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int processLine(
+            CharSequence text, int start, int end, int state, TokenListener listener) {
+        return getLexer().lex(text, start, end, state, this.mColors, listener);
+    }
+}
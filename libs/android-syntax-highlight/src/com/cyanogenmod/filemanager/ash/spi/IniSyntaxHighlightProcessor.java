@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.ash.spi;
+
+import com.cyanogenmod.filemanager.ash.HighlightColors;
+import com.cyanogenmod.filemanager.ash.ISyntaxHighlightResourcesResolver;
+import com.cyanogenmod.filemanager.ash.lexer.Lexer;
+import com.cyanogenmod.filemanager.ash.lexer.LexerBuilder;
+import com.cyanogenmod.filemanager.ash.lexer.LexerSyntaxHighlightProcessor;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * An <b>ini</b> highlight processor class, also for the android system properties files
+ * (<code>build.prop</code>, <code>default.prop</code>, ...).</br>
+ * </br>
+ * The behaviour of this class is:</br>
+ * <ul>
+ * <li>Comments start with # or ; (only spaces are allowed prior to comment)</li>
+ * <li>Sections are enclosed in [] at the start of the line</li>
+ * <li>Assignment character (=) separates key from value</li>
+ * </ul>
+ */
+public class IniSyntaxHighlightProcessor extends LexerSyntaxHighlightProcessor {
+
+    private static final String[] EXTENSIONS =
+            {"ini", "cfg", "conf", "inf"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    // The android system properties files (the properties processor handles the others)
+    private static final String[] PROPERTIES_FILES = {
+        "build.prop", "default.prop", "local.prop" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    };
+
+    /**
+     * Constructor of <code>IniSyntaxHighlightProcessor</code>
+     *
+     * @param resolver A class for resolve resources
+     */
+    public IniSyntaxHighlightProcessor(ISyntaxHighlightResourcesResolver resolver) {
+        super(resolver, EXTENSIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean accept(File file) {
+        if (file == null) return false;
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        for (String propertiesFile : PROPERTIES_FILES) {
+            if (name.equals(propertiesFile)) {
+                return true;
+            }
+        }
+        return super.accept(file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Lexer getLexer() {
+        return LexerHolder.LEXER;
+    }
+
+    /**
+     * The lexer of the grammar, compiled the first time is used
+     */
+    private static class LexerHolder {
+        static final Lexer LEXER = new LexerBuilder()
+                .state("key") //$NON-NLS-1$
+                .rule("[ \\t]*[#;].*", HighlightColors.SINGLE_LINE_COMMENT) //$NON-NLS-1$
+                .atLineStart()
+                .rule("[ \\t]*\\[[^\\]]*\\]?", HighlightColors.KEYWORD) //$NON-NLS-1$
+                .atLineStart()
+                .rule("[^=#;\\[ \\t][^=]*", HighlightColors.TEXT) //$NON-NLS-1$
+                .rule("=", HighlightColors.ASSIGNMENT, "value") //$NON-NLS-1$ //$NON-NLS-2$
+                .state("value", "key") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule(".+", HighlightColors.VARIABLE) //$NON-NLS-1$
+                .build();
+    }
+}
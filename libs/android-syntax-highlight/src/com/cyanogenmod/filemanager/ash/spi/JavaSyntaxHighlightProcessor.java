@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.ash.spi;
+
+import com.cyanogenmod.filemanager.ash.HighlightColors;
+import com.cyanogenmod.filemanager.ash.ISyntaxHighlightResourcesResolver;
+import com.cyanogenmod.filemanager.ash.lexer.Lexer;
+import com.cyanogenmod.filemanager.ash.lexer.LexerBuilder;
+import com.cyanogenmod.filemanager.ash.lexer.LexerSyntaxHighlightProcessor;
+
+/**
+ * A <b>java</b> highlight processor class.</br>
+ * </br>
+ * Highlights the comments, the strings and chars, the keywords and the annotations.
+ */
+public class JavaSyntaxHighlightProcessor extends LexerSyntaxHighlightProcessor {
+
+    private static final String[] EXTENSIONS = {"java"}; //$NON-NLS-1$
+
+    private static final String KEYWORDS =
+            "abstract|assert|boolean|break|byte|case|catch|char|class|const|" + //$NON-NLS-1$
+            "continue|default|do|double|else|enum|extends|final|finally|float|" + //$NON-NLS-1$
+            "for|goto|if|implements|import|instanceof|int|interface|long|native|" + //$NON-NLS-1$
+            "new|package|private|protected|public|return|short|static|strictfp|" + //$NON-NLS-1$
+            "super|switch|synchronized|this|throw|throws|transient|try|void|" + //$NON-NLS-1$
+            "volatile|while|true|false|null"; //$NON-NLS-1$
+
+    /**
+     * Constructor of <code>JavaSyntaxHighlightProcessor</code>
+     *
+     * @param resolver A class for resolve resources
+     */
+    public JavaSyntaxHighlightProcessor(ISyntaxHighlightResourcesResolver resolver) {
+        super(resolver, EXTENSIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Lexer getLexer() {
+        return LexerHolder.LEXER;
+    }
+
+    /**
+     * The lexer of the grammar, compiled the first time is used
+     */
+    private static class LexerHolder {
+        static final Lexer LEXER = new LexerBuilder()
+                .state("code") //$NON-NLS-1$
+                .rule("//.*", HighlightColors.SINGLE_LINE_COMMENT) //$NON-NLS-1$
+                .rule("/\\*", //$NON-NLS-1$
+                        HighlightColors.MULTILINE_LINE_COMMENT, "comment") //$NON-NLS-1$
+                .rule("\"(\\\\.|[^\"\\\\])*\"?", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .rule("'(\\\\.|[^'\\\\])*'?", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .rule("@[A-Za-z_$][\\w$]*", HighlightColors.VARIABLE) //$NON-NLS-1$
+                .rule(KEYWORDS, HighlightColors.KEYWORD)
+                .rule("[\\w$]+", null) //$NON-NLS-1$
+                .state("comment") //$NON-NLS-1$
+                .rule("\\*/", //$NON-NLS-1$
+                        HighlightColors.MULTILINE_LINE_COMMENT, "code") //$NON-NLS-1$
+                .rule("[^*]+|\\*", HighlightColors.MULTILINE_LINE_COMMENT) //$NON-NLS-1$
+                .build();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.ash.spi;
+
+import com.cyanogenmod.filemanager.ash.HighlightColors;
+import com.cyanogenmod.filemanager.ash.ISyntaxHighlightResourcesResolver;
+import com.cyanogenmod.filemanager.ash.lexer.Lexer;
+import com.cyanogenmod.filemanager.ash.lexer.LexerBuilder;
+import com.cyanogenmod.filemanager.ash.lexer.LexerSyntaxHighlightProcessor;
+
+/**
+ * A <b>json</b> highlight processor class.</br>
+ * </br>
+ * Highlights the keys, the strings, the numbers and the literals.
+ */
+public class JsonSyntaxHighlightProcessor extends LexerSyntaxHighlightProcessor {
+
+    private static final String[] EXTENSIONS = {"json"}; //$NON-NLS-1$
+
+    /**
+     * Constructor of <code>JsonSyntaxHighlightProcessor</code>
+     *
+     * @param resolver A class for resolve resources
+     */
+    public JsonSyntaxHighlightProcessor(ISyntaxHighlightResourcesResolver resolver) {
+        super(resolver, EXTENSIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Lexer getLexer() {
+        return LexerHolder.LEXER;
+    }
+
+    /**
+     * The lexer of the grammar, compiled the first time is used
+     */
+    private static class LexerHolder {
+        static final Lexer LEXER = new LexerBuilder()
+                .state("value") //$NON-NLS-1$
+                // A key is a string followed by a colon
+                .rule("\"(\\\\.|[^\"\\\\])*\"\\s*:", HighlightColors.VARIABLE) //$NON-NLS-1$
+                .trailing(" \t\f\r\u000B:") //$NON-NLS-1$
+                .rule("\"(\\\\.|[^\"\\\\])*\"?", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .rule("true|false|null", HighlightColors.KEYWORD) //$NON-NLS-1$
+                .rule("-?\\d+(\\.\\d+)?([eE][+\\-]?\\d+)?", HighlightColors.KEYWORD) //$NON-NLS-1$
+                .rule("\\w+", null) //$NON-NLS-1$
+                .rule(":", HighlightColors.ASSIGNMENT) //$NON-NLS-1$
+                .build();
+    }
+}
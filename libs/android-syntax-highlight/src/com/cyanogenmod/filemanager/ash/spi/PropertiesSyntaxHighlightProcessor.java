@@ -27,8 +27,6 @@ import com.cyanogenmod.filemanager.ash.scanners.NewLineScanner;
 import com.cyanogenmod.filemanager.ash.scanners.NewLineScanner.NewLineScannerListener;
 
 import java.io.File;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A <b>properties</b> highlight processor class.</br>
@@ -50,10 +48,8 @@ public class PropertiesSyntaxHighlightProcessor extends SyntaxHighlightProcessor
     private static final String EXT_PROP = "prop"; //$NON-NLS-1$
     private static final String EXT_PROPERTIES = "properties"; //$NON-NLS-1$
 
-    private static final Pattern COMMENT = Pattern.compile("^\\s*#.*"); //$NON-NLS-1$
-    private static final Pattern MULTILINE = Pattern.compile(".*\\\\\\s*$"); //$NON-NLS-1$
-    private static final Pattern ASSIGNMENT = Pattern.compile("="); //$NON-NLS-1$
-    private static final Pattern ARGUMENT = Pattern.compile("\\{\\d+\\}"); //$NON-NLS-1$
+    // The state of a line that continues the value of the previous line
+    private static final int STATE_MULTILINE = 1;
 
     protected Spannable mSpannable;
     private boolean mMultiLine;
@@ -64,6 +60,13 @@ public class PropertiesSyntaxHighlightProcessor extends SyntaxHighlightProcessor
     private int mValueColor;
     private int mArgumentColor;
 
+    private final TokenListener mSpanListener = new TokenListener() {
+        @Override
+        public void onToken(int start, int end, int color) {
+            setSpan(PropertiesSyntaxHighlightProcessor.this.mSpannable, color, start, end);
+        }
+    };
+
     /**
      * Constructor of <code>PropertiesSyntaxHighlightProcessor</code>
      *
@@ -133,7 +136,7 @@ public class PropertiesSyntaxHighlightProcessor extends SyntaxHighlightProcessor
         NewLineScanner scanner = new NewLineScanner(spanable, new NewLineScannerListener() {
             @Override
             public boolean onNewLine(CharSequence newline, int start, int end, CharSequence sep) {
-                processNewLine(newline, start, end);
+                processNewLine(start, end);
                 return true;
             }
 
@@ -168,14 +171,13 @@ public class PropertiesSyntaxHighlightProcessor extends SyntaxHighlightProcessor
             int s2 = RegExpUtil.getLastMatch(RegExpUtil.NEWLINE_PATTERN, seqs, true);
             CharSequence seqnl = spanable.subSequence(0, s2);
             int snl = RegExpUtil.getLastMatch(RegExpUtil.NEWLINE_PATTERN, seqnl, false);
-            Matcher mlm = MULTILINE.matcher(
-                    spanable.subSequence(snl != RegExpUtil.NO_MATCH ? snl : 0, s2));
-            this.mMultiLine = mlm.matches();
+            this.mMultiLine =
+                    isMultiLine(spanable, snl != RegExpUtil.NO_MATCH ? snl : 0, s2);
         }
 
         // Process the new line
         if (s1 != e1) {
-            processNewLine(spanable.subSequence(s1, e1), s1, e1);
+            processNewLine(s1, e1);
         }
 
         // Now, multiline again (next line). We check always the next line, because we
@@ -190,7 +192,7 @@ public class PropertiesSyntaxHighlightProcessor extends SyntaxHighlightProcessor
             } else {
                 e2 += e1;
             }
-            processNewLine(spanable.subSequence(e1, e2), e1, e2);
+            processNewLine(e1, e2);
         }
 
         this.mSpannable = null;
@@ -204,15 +206,85 @@ public class PropertiesSyntaxHighlightProcessor extends SyntaxHighlightProcessor
         // Not needed by this processor
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int processLine(
+            CharSequence text, int start, int end, int state, TokenListener listener) {
+        // Find comment (only spaces are allowed prior to comment)
+        int i = start;
+        while (i < end && isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        if (i < end && text.charAt(i) == '#') {
+            // All the line is a comment
+            onToken(listener, this.mCommentColor, start, end);
+            return STATE_INITIAL;
+        }
+
+        // Has multiline
+        boolean ml = isMultiLine(text, start, end);
+
+        // Find the assignment
+        int v = start;
+        if (state != STATE_MULTILINE) {
+            int a = start;
+            while (a < end && text.charAt(a) != '=') {
+                a++;
+            }
+            if (a == end) {
+                // All the string is a key
+                onToken(listener, this.mKeyColor, start, end);
+                return ml ? STATE_MULTILINE : STATE_INITIAL;
+            }
+            onToken(listener, this.mKeyColor, start, a);
+            onToken(listener, this.mAssignmentColor, a, a + 1);
+            v = a + 1;
+        }
+
+        // Value
+        onToken(listener, this.mValueColor, v, end);
+
+        // Arguments ({digits})
+        int s = v;
+        while (s < end) {
+            if (text.charAt(s) != '{') {
+                s++;
+                continue;
+            }
+            int e = s + 1;
+            while (e < end && text.charAt(e) >= '0' && text.charAt(e) <= '9') {
+                e++;
+            }
+            if (e > s + 1 && e < end && text.charAt(e) == '}') {
+                onToken(listener, this.mArgumentColor, s, e + 1);
+                s = e + 1;
+            } else {
+                s = e;
+            }
+        }
+
+        // Multiline?
+        return ml ? STATE_MULTILINE : STATE_INITIAL;
+    }
+
     /**
      * A method to process every new line
      *
-     * @param newline The newline
      * @param start The start position of the line
      * @param end The end position of the line
      * @hide
      */
-    void processNewLine(CharSequence newline, int start, int end) {
+    void processNewLine(int start, int end) {
         // Remove all spannable of the line (this processor doesn't multiline spans and
         // only uses ForegroundColorSpan spans)
         ForegroundColorSpan[] spans =
@@ -222,60 +294,50 @@ public class PropertiesSyntaxHighlightProcessor extends SyntaxHighlightProcessor
             this.mSpannable.removeSpan(spans[i]);
         }
 
-        // Find comment
-        Matcher cm = COMMENT.matcher(newline);
-        if (cm.matches()) {
-            // All the line is a comment
-            setSpan(this.mSpannable, this.mCommentColor, start, end);
-            this.mMultiLine = false;
-            return;
-        }
-
-        // Has multiline
-        Matcher mlm = MULTILINE.matcher(newline);
-        boolean ml = mlm.matches();
+        int state = processLine(this.mSpannable, start, end,
+                this.mMultiLine ? STATE_MULTILINE : STATE_INITIAL, this.mSpanListener);
+        this.mMultiLine = state == STATE_MULTILINE;
+    }
 
-        //Find the assignment
-        int k = this.mMultiLine ? -1 : start;
-        int v = start;
-        int v2 = 0;
-        int a = -1;
-        if (!this.mMultiLine) {
-            Matcher am = ASSIGNMENT.matcher(newline);
-            if (am.find()) {
-                // Assignment found
-                v2 = am.start() + 1;
-                a = start + am.start();
-                v = a + 1;
-            }
+    /**
+     * Method that returns if a line continues in the next line (it ends with the char "\",
+     * optionally followed by spaces)
+     *
+     * @param text The text
+     * @param start The start of the line
+     * @param end The end of the line
+     * @return boolean If the line continues in the next line
+     */
+    private static boolean isMultiLine(CharSequence text, int start, int end) {
+        int i = end;
+        while (i > start && isWhitespace(text.charAt(i - 1))) {
+            i--;
         }
+        return i > start && text.charAt(i - 1) == '\\';
+    }
 
-        // All the string is a key
-        if (!this.mMultiLine && a == -1) {
-            setSpan(this.mSpannable, this.mKeyColor, start, end);
+    /**
+     * Method that returns if a char is a space, in the same way as the <code>\s</code>
+     * class of the regular expressions
+     *
+     * @param c The char
+     * @return boolean If the char is a space
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
 
-        } else {
-            // Key
-            if (!this.mMultiLine) {
-                setSpan(this.mSpannable, this.mKeyColor, k, a);
-            }
-            // Assignment
-            if (!this.mMultiLine) {
-                setSpan(this.mSpannable, this.mAssignmentColor, a, a + 1);
-            }
-            // Value
-            setSpan(this.mSpannable, this.mValueColor, v, end);
-            // Argument
-            Matcher argm = ARGUMENT.matcher(newline);
-            while (argm.find(v2)) {
-                int s = start + argm.start();
-                int e = start + argm.end();
-                setSpan(this.mSpannable, this.mArgumentColor, s, e);
-                v2 = argm.end();
-            }
+    /**
+     * Method that reports a non empty token
+     *
+     * @param listener The listener of the tokens
+     * @param color The color of the token
+     * @param start The start of the token
+     * @param end The end of the token
+     */
+    private static void onToken(TokenListener listener, int color, int start, int end) {
+        if (start < end) {
+            listener.onToken(start, end, color);
         }
-
-        // Multiline?
-        this.mMultiLine = ml;
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.ash.spi;
+
+import com.cyanogenmod.filemanager.ash.HighlightColors;
+import com.cyanogenmod.filemanager.ash.ISyntaxHighlightResourcesResolver;
+import com.cyanogenmod.filemanager.ash.lexer.Lexer;
+import com.cyanogenmod.filemanager.ash.lexer.LexerBuilder;
+import com.cyanogenmod.filemanager.ash.lexer.LexerSyntaxHighlightProcessor;
+
+/**
+ * A <b>shell script</b> highlight processor class.</br>
+ * </br>
+ * Highlights the comments, the keywords, the variables, the assignments and the quoted
+ * strings (with the variables inside the double quoted ones). Quoted strings can span
+ * several lines.
+ */
+public class ShellSyntaxHighlightProcessor extends LexerSyntaxHighlightProcessor {
+
+    private static final String[] EXTENSIONS =
+            {"sh", "bash", "ksh", "zsh"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    private static final String KEYWORDS =
+            "if|then|else|elif|fi|case|esac|for|select|while|until|do|done|in|" + //$NON-NLS-1$
+            "function|time|return|local|export|readonly|unset|shift|break|" + //$NON-NLS-1$
+            "continue|exit"; //$NON-NLS-1$
+
+    // $name, ${...} and the special parameters
+    private static final String VARIABLE =
+            "\\$[A-Za-z_]\\w*|\\$\\{[^}]*\\}?|\\$[0-9#?@*$!\\-]"; //$NON-NLS-1$
+
+    /**
+     * Constructor of <code>ShellSyntaxHighlightProcessor</code>
+     *
+     * @param resolver A class for resolve resources
+     */
+    public ShellSyntaxHighlightProcessor(ISyntaxHighlightResourcesResolver resolver) {
+        super(resolver, EXTENSIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Lexer getLexer() {
+        return LexerHolder.LEXER;
+    }
+
+    /**
+     * The lexer of the grammar, compiled the first time is used
+     */
+    private static class LexerHolder {
+        static final Lexer LEXER = new LexerBuilder()
+                .state("code") //$NON-NLS-1$
+                .rule("#.*", HighlightColors.SINGLE_LINE_COMMENT) //$NON-NLS-1$
+                .rule(KEYWORDS, HighlightColors.KEYWORD)
+                .rule("[\\w./\\-+:@%,][\\w./\\-+:@%,#]*|\\\\.", null) //$NON-NLS-1$
+                .rule("[A-Za-z_]\\w*=", HighlightColors.VARIABLE) //$NON-NLS-1$
+                .trailing("=") //$NON-NLS-1$
+                .rule("=", HighlightColors.ASSIGNMENT) //$NON-NLS-1$
+                .rule(VARIABLE, HighlightColors.VARIABLE)
+                .rule("'[^']*'", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .rule("'[^']*", //$NON-NLS-1$
+                        HighlightColors.QUOTED_STRING, "single-quoted") //$NON-NLS-1$
+                .rule("\"", //$NON-NLS-1$
+                        HighlightColors.QUOTED_STRING, "double-quoted") //$NON-NLS-1$
+                .state("single-quoted") //$NON-NLS-1$
+                .rule("[^']*'", HighlightColors.QUOTED_STRING, "code") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("[^']+", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .state("double-quoted") //$NON-NLS-1$
+                .rule("\"", HighlightColors.QUOTED_STRING, "code") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("(\\\\.|[^\"\\\\$])+|\\\\|\\$", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .rule(VARIABLE, HighlightColors.VARIABLE)
+                .build();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.ash.spi;
+
+import com.cyanogenmod.filemanager.ash.HighlightColors;
+import com.cyanogenmod.filemanager.ash.ISyntaxHighlightResourcesResolver;
+import com.cyanogenmod.filemanager.ash.lexer.Lexer;
+import com.cyanogenmod.filemanager.ash.lexer.LexerBuilder;
+import com.cyanogenmod.filemanager.ash.lexer.LexerSyntaxHighlightProcessor;
+
+/**
+ * A <b>xml</b> highlight processor class.</br>
+ * </br>
+ * Highlights the tags, the attributes and their values, the entities, the comments and the
+ * CDATA sections. Comments, CDATA sections and tags can span several lines.
+ */
+public class XmlSyntaxHighlightProcessor extends LexerSyntaxHighlightProcessor {
+
+    private static final String[] EXTENSIONS = {
+        "xml", "xsd", "xsl", "xslt", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        "svg", "plist" //$NON-NLS-1$ //$NON-NLS-2$
+    };
+
+    /**
+     * Constructor of <code>XmlSyntaxHighlightProcessor</code>
+     *
+     * @param resolver A class for resolve resources
+     */
+    public XmlSyntaxHighlightProcessor(ISyntaxHighlightResourcesResolver resolver) {
+        super(resolver, EXTENSIONS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Lexer getLexer() {
+        return LexerHolder.LEXER;
+    }
+
+    /**
+     * The lexer of the grammar, compiled the first time is used
+     */
+    private static class LexerHolder {
+        static final Lexer LEXER = new LexerBuilder()
+                .state("content") //$NON-NLS-1$
+                .rule("<!--", //$NON-NLS-1$
+                        HighlightColors.MULTILINE_LINE_COMMENT, "comment") //$NON-NLS-1$
+                .rule("<!\\[CDATA\\[", HighlightColors.KEYWORD, "cdata") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("</?[\\w:.\\-]+|<![A-Za-z]+|<\\?[\\w:.\\-]*", //$NON-NLS-1$
+                        HighlightColors.KEYWORD, "tag") //$NON-NLS-1$
+                .rule("&[#\\w]+;", HighlightColors.VARIABLE) //$NON-NLS-1$
+                .rule("[^<&]+", null) //$NON-NLS-1$
+                .state("tag") //$NON-NLS-1$
+                .rule("/?>|\\?>", HighlightColors.KEYWORD, "content") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("[\\w:.\\-]+", HighlightColors.VARIABLE) //$NON-NLS-1$
+                .rule("=", HighlightColors.ASSIGNMENT) //$NON-NLS-1$
+                .rule("\"[^\"]*\"|'[^']*'", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .rule("\"[^\"]*", //$NON-NLS-1$
+                        HighlightColors.QUOTED_STRING, "double-quoted") //$NON-NLS-1$
+                .rule("'[^']*", //$NON-NLS-1$
+                        HighlightColors.QUOTED_STRING, "single-quoted") //$NON-NLS-1$
+                .state("double-quoted") //$NON-NLS-1$
+                .rule("[^\"]*\"", HighlightColors.QUOTED_STRING, "tag") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("[^\"]+", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .state("single-quoted") //$NON-NLS-1$
+                .rule("[^']*'", HighlightColors.QUOTED_STRING, "tag") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("[^']+", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .state("comment") //$NON-NLS-1$
+                .rule("-->", //$NON-NLS-1$
+                        HighlightColors.MULTILINE_LINE_COMMENT, "content") //$NON-NLS-1$
+                .rule("[^\\-]+|-", HighlightColors.MULTILINE_LINE_COMMENT) //$NON-NLS-1$
+                .state("cdata") //$NON-NLS-1$
+                .rule("\\]\\]>", HighlightColors.KEYWORD, "content") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("[^\\]]+|\\]", null) //$NON-NLS-1$
+                .build();
+    }
+}
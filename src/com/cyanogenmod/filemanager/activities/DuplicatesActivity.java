@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.activities;
+
+import android.app.ActionBar;
+import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemClickListener;
+import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import com.cyanogenmod.filemanager.R;
+import com.cyanogenmod.filemanager.adapters.DuplicatesAdapter;
+import com.cyanogenmod.filemanager.commands.AsyncResultExecutable;
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.model.DuplicateGroup;
+import com.cyanogenmod.filemanager.preferences.FileManagerSettings;
+import com.cyanogenmod.filemanager.ui.ThemeManager;
+import com.cyanogenmod.filemanager.ui.ThemeManager.Theme;
+import com.cyanogenmod.filemanager.util.CommandHelper;
+import com.cyanogenmod.filemanager.util.ExceptionUtil;
+import com.cyanogenmod.filemanager.util.FileHelper;
+
+import java.io.File;
+
+/**
+ * An activity that shows the duplicated files of a directory tree. The groups of
+ * duplicated files are shown as soon as they are found.
+ */
+public class DuplicatesActivity extends Activity implements OnItemClickListener {
+
+    private static final String TAG = "DuplicatesActivity"; //$NON-NLS-1$
+
+    /**
+     * Intent extra parameter for the directory where to find the duplicated files.
+     */
+    public static final String EXTRA_DUPLICATES_DIRECTORY =
+            "extra_duplicates_directory";  //$NON-NLS-1$
+
+    private final BroadcastReceiver mNotificationReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent != null &&
+                    intent.getAction().compareTo(FileManagerSettings.INTENT_THEME_CHANGED) == 0) {
+                applyTheme();
+            }
+        }
+    };
+
+    private final AsyncResultListener mAsyncListener = new AsyncResultListener() {
+        @Override
+        public void onAsyncStart() {/**NON BLOCK**/}
+
+        @Override
+        public void onAsyncEnd(final boolean cancelled) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    DuplicatesActivity.this.mExecutable = null;
+                    DuplicatesActivity.this.mWaiting.setVisibility(View.GONE);
+                    updateStatus(true);
+                }
+            });
+        }
+
+        @Override
+        public void onAsyncExitCode(int exitCode) {/**NON BLOCK**/}
+
+        @Override
+        public void onPartialResult(final Object result) {
+            if (!(result instanceof DuplicateGroup)) {
+                return;
+            }
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    DuplicatesActivity.this.mAdapter.addGroup((DuplicateGroup)result);
+                    updateStatus(false);
+                }
+            });
+        }
+
+        @Override
+        public void onException(final Exception cause) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    ExceptionUtil.translateException(DuplicatesActivity.this, cause);
+                }
+            });
+        }
+    };
+
+    /**
+     * @hide
+     */
+    AsyncResultExecutable mExecutable;
+    /**
+     * @hide
+     */
+    DuplicatesAdapter mAdapter;
+    /**
+     * @hide
+     */
+    ProgressBar mWaiting;
+
+    private String mDirectory;
+    private ListView mListView;
+    private View mEmptyMsg;
+    private TextView mSummary;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onCreate(Bundle state) {
+        // Register the broadcast receiver
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(FileManagerSettings.INTENT_THEME_CHANGED);
+        registerReceiver(this.mNotificationReceiver, filter);
+
+        // Set the theme before setContentView
+        Theme theme = ThemeManager.getCurrentTheme(this);
+        theme.setBaseTheme(this, false);
+
+        //Set the main layout of the activity
+        setContentView(R.layout.duplicates);
+
+        this.mDirectory = getIntent().getStringExtra(EXTRA_DUPLICATES_DIRECTORY);
+        if (this.mDirectory == null) {
+            this.mDirectory = FileHelper.ROOT_DIRECTORY;
+        }
+
+        //Initialize action bars and components
+        initTitleActionBar();
+        initComponents();
+
+        // Apply current theme
+        applyTheme();
+
+        // Start the search
+        findDuplicates();
+
+        super.onCreate(state);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onDestroy() {
+        // Unregister the receiver
+        try {
+            unregisterReceiver(this.mNotificationReceiver);
+        } catch (Throwable ex) {
+            /**NON BLOCK**/
+        }
+
+        // Stop the search
+        if (this.mExecutable != null) {
+            try {
+                this.mExecutable.end();
+            } catch (Throwable ex) {
+                /**NON BLOCK**/
+            }
+        }
+
+        super.onDestroy();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+       switch (item.getItemId()) {
+          case android.R.id.home:
+              finish();
+              return true;
+          default:
+             return super.onOptionsItemSelected(item);
+       }
+    }
+
+    /**
+     * Method that initializes the titlebar of the activity.
+     */
+    private void initTitleActionBar() {
+        final ActionBar actionBar = getActionBar();
+        actionBar.setDisplayShowTitleEnabled(false);
+        actionBar.setBackgroundDrawable(
+                getResources().getDrawable(R.drawable.bg_material_titlebar));
+        actionBar.setDisplayOptions(ActionBar.DISPLAY_SHOW_CUSTOM);
+        actionBar.setDisplayHomeAsUpEnabled(true);
+
+        View customTitle = getLayoutInflater().inflate(R.layout.simple_customtitle, null, false);
+        TextView title = (TextView)customTitle.findViewById(R.id.customtitle_title);
+        title.setText(R.string.duplicates);
+        title.setContentDescription(getString(R.string.duplicates));
+        actionBar.setCustomView(customTitle);
+    }
+
+    /**
+     * Method that initializes the component of the activity.
+     */
+    private void initComponents() {
+        this.mEmptyMsg = findViewById(R.id.duplicates_empty_msg);
+        this.mWaiting = (ProgressBar)findViewById(R.id.duplicates_waiting);
+        this.mSummary = (TextView)findViewById(R.id.duplicates_status_summary);
+        this.mSummary.setText(R.string.duplicates_searching_msg);
+        TextView directory = (TextView)findViewById(R.id.duplicates_status_directory);
+        directory.setText(this.mDirectory);
+
+        this.mAdapter = new DuplicatesAdapter(this);
+        this.mListView = (ListView)findViewById(R.id.duplicates_listview);
+        this.mListView.setAdapter(this.mAdapter);
+        this.mListView.setOnItemClickListener(this);
+    }
+
+    /**
+     * Method that starts the search of the duplicated files
+     */
+    private void findDuplicates() {
+        try {
+            this.mExecutable = CommandHelper.findDuplicates(
+                    this, this.mDirectory, this.mAsyncListener, null);
+        } catch (Exception ex) {
+            Log.e(TAG, "Failed to find duplicates in " + this.mDirectory, ex); //$NON-NLS-1$
+            this.mWaiting.setVisibility(View.GONE);
+            updateStatus(true);
+            ExceptionUtil.translateException(this, ex);
+        }
+    }
+
+    /**
+     * Method that updates the summary of the search
+     *
+     * @param finished If the search has finished
+     */
+    void updateStatus(boolean finished) {
+        int groups = this.mAdapter.getGroupCount();
+        if (groups > 0) {
+            this.mSummary.setText(getString(R.string.duplicates_summary,
+                    Integer.valueOf(groups),
+                    FileHelper.getHumanReadableSize(this.mAdapter.getWastedSize())));
+        } else if (finished) {
+            this.mSummary.setText(R.string.duplicates_no_results_msg);
+        }
+        this.mEmptyMsg.setVisibility(finished && groups == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        String file = this.mAdapter.getFile(position);
+        if (file == null) {
+            return;
+        }
+
+        // Navigate to the folder of the file
+        Intent intent = new Intent(this, NavigationActivity.class);
+        intent.putExtra(NavigationActivity.EXTRA_NAVIGATE_TO, new File(file).getParent());
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        startActivity(intent);
+        finish();
+    }
+
+    /**
+     * Method that applies the current theme to the activity
+     * @hide
+     */
+    void applyTheme() {
+        Theme theme = ThemeManager.getCurrentTheme(this);
+        theme.setBaseTheme(this, false);
+
+        //- ActionBar
+        View v = getActionBar().getCustomView().findViewById(R.id.customtitle_title);
+        theme.setTextColor(this, (TextView)v, "action_bar_text_color"); //$NON-NLS-1$
+        // ContentView
+        theme.setBackgroundDrawable(
+                this, getWindow().getDecorView(), "background_drawable"); //$NON-NLS-1$
+        //- StatusBar
+        v = findViewById(R.id.duplicates_status);
+        theme.setBackgroundDrawable(this, v, "statusbar_drawable"); //$NON-NLS-1$
+        v = findViewById(R.id.duplicates_status_summary);
+        theme.setTextColor(this, (TextView)v, "action_bar_text_color"); //$NON-NLS-1$
+        v = findViewById(R.id.duplicates_status_directory);
+        theme.setTextColor(this, (TextView)v, "action_bar_text_color"); //$NON-NLS-1$
+        v = findViewById(R.id.duplicates_empty_msg);
+        theme.setTextColor(this, (TextView)v, "text_color"); //$NON-NLS-1$
+
+        //ListView
+        this.mAdapter.notifyDataSetChanged();
+        this.mListView.setDivider(
+                theme.getDrawable(this, "horizontal_divider_drawable")); //$NON-NLS-1$
+        this.mListView.invalidate();
+    }
+}
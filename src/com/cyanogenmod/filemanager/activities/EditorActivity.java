@@ -34,42 +34,49 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.preference.PreferenceActivity;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
 import android.text.Editable;
 import android.text.InputType;
+import android.text.Layout;
 import android.text.SpannableStringBuilder;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.KeyEvent;
-import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.ListPopupWindow;
 import android.widget.ListView;
 import android.widget.ProgressBar;
+import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.TextView.BufferType;
 import android.widget.Toast;
 
-import com.android.internal.util.HexDump;
 import com.cyanogenmod.filemanager.R;
 import com.cyanogenmod.filemanager.activities.preferences.EditorPreferenceFragment;
 import com.cyanogenmod.filemanager.activities.preferences.EditorSHColorSchemePreferenceFragment;
 import com.cyanogenmod.filemanager.activities.preferences.SettingsPreferences;
+import com.cyanogenmod.filemanager.adapters.HexDumpAdapter;
 import com.cyanogenmod.filemanager.adapters.HighlightedSimpleMenuListAdapter;
 import com.cyanogenmod.filemanager.adapters.SimpleMenuListAdapter;
 import com.cyanogenmod.filemanager.ash.HighlightColors;
 import com.cyanogenmod.filemanager.ash.ISyntaxHighlightResourcesResolver;
+import com.cyanogenmod.filemanager.ash.IncrementalHighlighter;
 import com.cyanogenmod.filemanager.ash.SyntaxHighlightFactory;
 import com.cyanogenmod.filemanager.ash.SyntaxHighlightProcessor;
 import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.WriteExecutable;
 import com.cyanogenmod.filemanager.console.ConsoleBuilder;
+import com.cyanogenmod.filemanager.console.VirtualMountPointConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureConsole;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.preferences.FileManagerSettings;
 import com.cyanogenmod.filemanager.preferences.Preferences;
@@ -84,22 +91,29 @@ import com.cyanogenmod.filemanager.util.ExceptionUtil;
 import com.cyanogenmod.filemanager.util.ExceptionUtil.OnRelaunchCommandResult;
 import com.cyanogenmod.filemanager.util.FileHelper;
 import com.cyanogenmod.filemanager.util.MediaHelper;
+import com.cyanogenmod.filemanager.util.PagedByteSource;
+import com.cyanogenmod.filemanager.util.PieceTable;
 import com.cyanogenmod.filemanager.util.ResourcesHelper;
 import com.cyanogenmod.filemanager.util.StringHelper;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.UUID;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 /**
  * An internal activity for view and edit files.
+ * <br/>
+ * Text files are kept in a {@link PieceTable} over a {@link PagedByteSource} (the file
+ * memory mapped, or read from the secure storage), and the editor only holds a window of
+ * two pages of the document. The window slides when the user scrolls near its edges, and
+ * the edits of the window are saved as pieces of the document when it slides, so opening
+ * a file only reads its first pages, whatever its size. Saving streams the document to a
+ * temporary file that replaces the file, or is copied over it, when it's complete.
  */
 public class EditorActivity extends Activity implements TextWatcher {
 
@@ -109,6 +123,18 @@ public class EditorActivity extends Activity implements TextWatcher {
 
     private static final int WRITE_RETRIES = 3;
 
+    // The suffix of the temporary files where the documents are saved
+    private static final String TEMP_FILE_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+    // The permission bits of a file mode
+    private static final int PERMISSIONS_MASK = 07777;
+
+    // The size of the pages of the document. The editor holds two pages
+    private static final int PAGE_SIZE = 64 * 1024;
+
+    // The bytes checked to know if a file is binary
+    private static final int BINARY_CHECK_SIZE = 10 * 1024;
+
     private final BroadcastReceiver mNotificationReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -204,57 +230,6 @@ public class EditorActivity extends Activity implements TextWatcher {
         }
     };
 
-    private class HexDumpAdapter extends ArrayAdapter<String> {
-        private class ViewHolder {
-            TextView mTextView;
-        }
-
-        public HexDumpAdapter(Context context, List<String> data) {
-            super(context, R.layout.hexdump_line, data);
-        }
-
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            View v = convertView;
-            if (v == null) {
-                final Context context = getContext();
-                LayoutInflater inflater = LayoutInflater.from(context);
-                Theme theme = ThemeManager.getCurrentTheme(context);
-
-                v = inflater.inflate(R.layout.hexdump_line, parent, false);
-                ViewHolder viewHolder = new EditorActivity.HexDumpAdapter.ViewHolder();
-                viewHolder.mTextView = (TextView)v.findViewById(android.R.id.text1);
-
-                viewHolder.mTextView.setTextAppearance(context, R.style.hexeditor_text_appearance);
-                viewHolder.mTextView.setTypeface(mHexTypeface);
-                theme.setTextColor(context, viewHolder.mTextView, "text_color"); //$NON-NLS-1$
-
-                v.setTag(viewHolder);
-            }
-
-            String text = getItem(position);
-            ViewHolder viewHolder = (ViewHolder)v.getTag();
-            viewHolder.mTextView.setText(text);
-
-            return v;
-        }
-
-        /**
-         * Return the view as a document
-         *
-         * @return StringBuilder a buffer to the document
-         */
-        public StringBuilder toStringDocument() {
-            StringBuilder sb = new StringBuilder();
-            int c = getCount();
-            for (int i = 0; i < c; i++) {
-                sb.append(getItem(i));
-                sb.append("\n");
-            }
-            return sb;
-        }
-    }
-
     /**
      * Internal interface to notify progress update
      */
@@ -269,8 +244,6 @@ public class EditorActivity extends Activity implements TextWatcher {
 
         final Object mSync = new Object();
         ByteArrayOutputStream mByteBuffer = null;
-        ArrayList<String> mBinaryBuffer = null;
-        SpannableStringBuilder mBuffer = null;
         Exception mCause;
         long mSize;
         FileSystemObject mReadFso;
@@ -296,12 +269,7 @@ public class EditorActivity extends Activity implements TextWatcher {
          * {@inheritDoc}
          */
         @Override
-        public void onAsyncEnd(boolean cancelled) {
-            if (!cancelled && StringHelper.isBinaryData(mByteBuffer.toByteArray())) {
-                EditorActivity.this.mBinary = true;
-                EditorActivity.this.mReadOnly = true;
-            }
-        }
+        public void onAsyncEnd(boolean cancelled) {/**NON BLOCK**/}
 
         /**
          * {@inheritDoc}
@@ -479,6 +447,17 @@ public class EditorActivity extends Activity implements TextWatcher {
      */
     FileSystemObject mFso;
 
+    /**
+     * @hide
+     */
+    PieceTable mDocument;
+    // The window of the document in the editor (two pages)
+    private long mPageStart;
+    private long mPageMid;
+    private long mPageEnd;
+    private boolean mPageDirty;
+    private boolean mLoadingPage;
+
     private int mBufferSize;
     private long mMaxFileSize;
 
@@ -551,6 +530,8 @@ public class EditorActivity extends Activity implements TextWatcher {
      * @hide
      */
     SyntaxHighlightProcessor mSyntaxHighlightProcessor;
+    // The highlighter of the visible lines (only for incremental processors)
+    private IncrementalHighlighter mHighlighter;
     private int mEditStart;
     private int mEditEnd;
 
@@ -565,13 +546,13 @@ public class EditorActivity extends Activity implements TextWatcher {
      */
     Handler mHandler;
 
-    /**
-     * @hide
-     */
-    String mHexLineSeparator;
-
     private boolean mHexDump;
 
+    // The search of bytes in the hex dump
+    private AsyncTask<Void, Void, Long> mFindBytesTask;
+    private String mFindBytesQuery;
+    private long mFindBytesMatch = -1;
+
     /**
      * Intent extra parameter for the path of the file to open.
      */
@@ -603,9 +584,6 @@ public class EditorActivity extends Activity implements TextWatcher {
         filter.addAction(FileManagerSettings.INTENT_SETTING_CHANGED);
         registerReceiver(this.mNotificationReceiver, filter);
 
-        // Generate a random separator
-        this.mHexLineSeparator = UUID.randomUUID().toString() + UUID.randomUUID().toString();
-
         // Set the theme before setContentView
         Theme theme = ThemeManager.getCurrentTheme(this);
         theme.setBaseTheme(this, false);
@@ -652,6 +630,15 @@ public class EditorActivity extends Activity implements TextWatcher {
             /**NON BLOCK**/
         }
 
+        // Release the document
+        if (this.mFindBytesTask != null) {
+            this.mFindBytesTask.cancel(true);
+        }
+        if (this.mHighlighter != null) {
+            this.mHighlighter.release();
+        }
+        closeDocument();
+
         //All destroy. Continue
         super.onDestroy();
     }
@@ -709,6 +696,14 @@ public class EditorActivity extends Activity implements TextWatcher {
         this.mEditor.setText(null);
         this.mEditor.addTextChangedListener(this);
         this.mEditor.setEnabled(false);
+        this.mEditor.getViewTreeObserver().addOnScrollChangedListener(
+                new ViewTreeObserver.OnScrollChangedListener() {
+            @Override
+            public void onScrollChanged() {
+                onEditorScrolled();
+                updateHighlightRange();
+            }
+        });
         this.mWordWrapView = (ViewGroup)findViewById(R.id.editor_word_wrap_view);
         this.mNoWordWrapView = (ViewGroup)findViewById(R.id.editor_no_word_wrap_view);
         this.mWordWrapView.setVisibility(View.VISIBLE);
@@ -801,7 +796,13 @@ public class EditorActivity extends Activity implements TextWatcher {
             if (this.mSyntaxHighlightProcessor != null) {
                 try {
                     if (this.mSyntaxHighlight) {
+                        if (this.mHighlighter != null) {
+                            this.mHighlighter.clear();
+                        }
                         this.mSyntaxHighlightProcessor.clear(this.mEditor.getText());
+                    } else if (this.mHighlighter != null) {
+                        this.mHighlighter.setText(this.mEditor.getText());
+                        updateHighlightRange();
                     } else {
                         this.mSyntaxHighlightProcessor.process(this.mEditor.getText());
                     }
@@ -824,7 +825,12 @@ public class EditorActivity extends Activity implements TextWatcher {
             if (this.mSyntaxHighlightProcessor != null) {
                 try {
                     this.mSyntaxHighlightProcessor.initialize();
-                    this.mSyntaxHighlightProcessor.process(this.mEditor.getText());
+                    if (this.mHighlighter != null) {
+                        this.mHighlighter.setText(this.mEditor.getText());
+                        updateHighlightRange();
+                    } else {
+                        this.mSyntaxHighlightProcessor.process(this.mEditor.getText());
+                    }
                 } catch (Exception ex) {
                     // An error in a syntax library, should not break down app.
                     Log.e(TAG, "Syntax highlight failed.", ex); //$NON-NLS-1$
@@ -891,6 +897,10 @@ public class EditorActivity extends Activity implements TextWatcher {
                 wordWrap.setChecked(this.mWordWrap);
             }
         }
+        if (!this.mBinary || !this.mHexDump) {
+            adapter.getMenu().removeItem(R.id.mnu_go_to_offset);
+            adapter.getMenu().removeItem(R.id.mnu_find_bytes);
+        }
         MenuItem syntaxHighlight = adapter.getMenu().findItem(R.id.mnu_syntax_highlight);
         if (syntaxHighlight != null) {
             if (this.mBinary) {
@@ -918,6 +928,12 @@ public class EditorActivity extends Activity implements TextWatcher {
                     case R.id.mnu_syntax_highlight:
                         toggleSyntaxHighlight();
                         break;
+                    case R.id.mnu_go_to_offset:
+                        showGoToOffsetDialog();
+                        break;
+                    case R.id.mnu_find_bytes:
+                        showFindBytesDialog();
+                        break;
                     case R.id.mnu_settings:
                         //Settings
                         Intent settings = new Intent(EditorActivity.this, SettingsPreferences.class);
@@ -933,6 +949,154 @@ public class EditorActivity extends Activity implements TextWatcher {
         popup.show();
     }
 
+    /**
+     * Method that shows a dialog that asks the offset of the hex dump where to go
+     */
+    private void showGoToOffsetDialog() {
+        showHexInputDialog(R.string.menu_go_to_offset, R.string.editor_go_to_offset_label,
+                null, new OnHexInputListener() {
+            @Override
+            public void onInput(String text) {
+                long offset = HexDumpAdapter.parseOffset(text);
+                if (offset < 0 || offset >= EditorActivity.this.mDocument.length()) {
+                    DialogHelper.showToast(EditorActivity.this,
+                            R.string.editor_invalid_offset_msg, Toast.LENGTH_SHORT);
+                    return;
+                }
+                goToOffset(offset);
+            }
+        });
+    }
+
+    /**
+     * Method that shows a dialog that asks the bytes to find in the hex dump
+     */
+    private void showFindBytesDialog() {
+        showHexInputDialog(R.string.menu_find_bytes, R.string.editor_find_bytes_label,
+                this.mFindBytesQuery, new OnHexInputListener() {
+            @Override
+            public void onInput(String text) {
+                findBytes(text);
+            }
+        });
+    }
+
+    /**
+     * Internal interface to notify the text typed in a dialog of the hex dump
+     */
+    private interface OnHexInputListener {
+        void onInput(String text);
+    }
+
+    /**
+     * Method that shows a dialog that asks a text for the hex dump
+     *
+     * @param title The title of the dialog
+     * @param label The label of the text
+     * @param text The initial text, or <code>null</code>
+     * @param listener The listener notified with the text when the user accepts it
+     */
+    private void showHexInputDialog(
+            int title, int label, String text, final OnHexInputListener listener) {
+        View v = getLayoutInflater().inflate(R.layout.input_name_dialog, null);
+        TextView labelView = (TextView)v.findViewById(R.id.input_name_dialog_label);
+        labelView.setText(label);
+        final EditText edit = (EditText)v.findViewById(R.id.input_name_dialog_edit);
+        edit.setTypeface(this.mHexTypeface);
+        if (text != null) {
+            edit.setText(text);
+        }
+
+        // Apply the current theme
+        Theme theme = ThemeManager.getCurrentTheme(this);
+        theme.setBackgroundDrawable(this, v, "background_drawable"); //$NON-NLS-1$
+        theme.setTextColor(this, labelView, "text_color"); //$NON-NLS-1$
+
+        AlertDialog dialog = DialogHelper.createDialog(this, 0, title, v);
+        dialog.setButton(
+                DialogInterface.BUTTON_POSITIVE,
+                getString(android.R.string.ok),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface d, int which) {
+                        listener.onInput(edit.getText().toString());
+                    }
+                });
+        dialog.setButton(
+                DialogInterface.BUTTON_NEGATIVE,
+                getString(android.R.string.cancel),
+                (DialogInterface.OnClickListener)null);
+        DialogHelper.delegateDialogShow(this, dialog);
+    }
+
+    /**
+     * Method that scrolls the hex dump to the line of an offset
+     *
+     * @param offset The offset
+     * @hide
+     */
+    void goToOffset(long offset) {
+        HexDumpAdapter adapter = (HexDumpAdapter)this.mBinaryEditor.getAdapter();
+        if (adapter != null) {
+            this.mBinaryEditor.setSelection(adapter.getPosition(offset));
+        }
+    }
+
+    /**
+     * Method that finds the next occurrence of some bytes in the hex dump, in background.
+     * The search starts after the last occurrence found (if the same bytes are searched
+     * again) or at the first visible line.
+     *
+     * @param query The bytes to find, as typed by the user
+     */
+    private void findBytes(String query) {
+        final byte[] pattern = HexDumpAdapter.parsePattern(query);
+        if (pattern == null || this.mDocument == null) {
+            return;
+        }
+        final long from;
+        if (query.equals(this.mFindBytesQuery) && this.mFindBytesMatch >= 0) {
+            from = this.mFindBytesMatch + 1;
+        } else {
+            from = HexDumpAdapter.getOffset(this.mBinaryEditor.getFirstVisiblePosition());
+        }
+        this.mFindBytesQuery = query;
+        this.mFindBytesMatch = -1;
+        if (this.mFindBytesTask != null) {
+            this.mFindBytesTask.cancel(true);
+        }
+
+        final PagedByteSource source = this.mDocument.getOriginal();
+        this.mFindBytesTask = new AsyncTask<Void, Void, Long>() {
+            @Override
+            protected Long doInBackground(Void... params) {
+                try {
+                    return Long.valueOf(source.indexOf(pattern, from));
+                } catch (IOException ex) {
+                    if (!isCancelled()) {
+                        Log.e(TAG, "Failed to find the bytes", ex); //$NON-NLS-1$
+                    }
+                    return Long.valueOf(-1);
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Long result) {
+                final EditorActivity activity = EditorActivity.this;
+                activity.mFindBytesTask = null;
+                long match = result.longValue();
+                if (match < 0) {
+                    DialogHelper.showToast(activity,
+                            R.string.editor_find_bytes_not_found_msg, Toast.LENGTH_SHORT);
+                    return;
+                }
+                activity.mFindBytesMatch = match;
+                activity.goToOffset(match);
+            }
+        };
+        this.mFindBytesTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
     /**
      * Method invoked when an action item is clicked.
      *
@@ -947,9 +1111,10 @@ public class EditorActivity extends Activity implements TextWatcher {
 
             case R.id.ab_button1:
                 // Print the file
-                StringBuilder sb = mBinary
-                        ? ((HexDumpAdapter)mBinaryEditor.getAdapter()).toStringDocument()
-                        : new StringBuilder(mEditor.getText().toString());
+                StringBuilder sb = mBinary && mHexDump
+                        ? ((HexDumpAdapter)mBinaryEditor.getAdapter()).toStringDocument(
+                                this.mMaxFileSize / 2)
+                        : toStringDocument();
                 PrintActionPolicy.printStringDocument(this, mFso, sb);
                 break;
 
@@ -1027,19 +1192,15 @@ public class EditorActivity extends Activity implements TextWatcher {
             return;
         }
 
-        // Check that we can handle the length of the file (by device)
-        if (this.mMaxFileSize < this.mFso.getSize()) {
-            DialogHelper.showToast(
-                    this, R.string.editor_file_exceed_size_msg, Toast.LENGTH_SHORT);
-            return;
-        }
-
         // Get the syntax highlight processor
         SyntaxHighlightFactory shpFactory =
                 SyntaxHighlightFactory.getDefaultFactory(new ResourcesResolver());
         this.mSyntaxHighlightProcessor = shpFactory.getSyntaxHighlightProcessor(f);
         if (this.mSyntaxHighlightProcessor != null) {
             this.mSyntaxHighlightProcessor.initialize();
+            if (this.mHighlighter == null && this.mSyntaxHighlightProcessor.isIncremental()) {
+                this.mHighlighter = new IncrementalHighlighter(this.mSyntaxHighlightProcessor);
+            }
         }
 
         // Check that we have read access
@@ -1085,6 +1246,8 @@ public class EditorActivity extends Activity implements TextWatcher {
 
             private Exception mCause;
             private AsyncReader mReader;
+            private boolean mExceedSize;
+            private String mText;
             private boolean changeToBinaryMode;
             private boolean changeToDisplaying;
 
@@ -1104,9 +1267,17 @@ public class EditorActivity extends Activity implements TextWatcher {
                 FileSystemObject fso = params[0];
                 this.mCause = null;
 
-                // Read the file in an async listener
                 try {
-                    while (true) {
+                    // Map the file (or read it from the secure storage). Otherwise, read
+                    // the whole file through the console
+                    PagedByteSource source = activity.openSource(fso);
+                    if (source == null) {
+                        // Check that we can handle the length of the file (by device)
+                        if (activity.mMaxFileSize < fso.getSize()) {
+                            this.mExceedSize = true;
+                            return Boolean.FALSE;
+                        }
+
                         // Configure the reader
                         this.mReader = new AsyncReader();
                         this.mReader.mReadFso = fso;
@@ -1134,30 +1305,29 @@ public class EditorActivity extends Activity implements TextWatcher {
                             this.mCause = this.mReader.mCause;
                             return Boolean.FALSE;
                         }
-                        break;
+                        source = PagedByteSource.wrap(this.mReader.mByteBuffer.toByteArray());
+                        this.mReader.mByteBuffer = null;
+                    }
+                    activity.mDocument = new PieceTable(source);
+
+                    // Is a binary file?
+                    byte[] head = new byte[(int)Math.min(source.length(), BINARY_CHECK_SIZE)];
+                    source.readFully(0, head, 0, head.length);
+                    if (StringHelper.isBinaryData(head)) {
+                        activity.mBinary = true;
+                        activity.mReadOnly = true;
                     }
 
-                    // Now we have the byte array with all the data. is a binary file?
-                    // Then dump them byte array to hex dump string (only if users settings
-                    // to dump file)
+                    // Is a binary file? Then show it as a hex dump (only if users settings to
+                    // dump file). The lines of the dump are formatted when they are shown
                     if (activity.mBinary && mHexDump) {
-                        // we do not use the Hexdump helper class, because we need to show the
-                        // progress of the dump process
-                        final String data = toHexPrintableString(toHexDump(
-                                this.mReader.mByteBuffer.toByteArray()));
-                        this.mReader.mBinaryBuffer = new ArrayList<String>();
-                        BufferedReader reader = new BufferedReader(new StringReader(data));
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            this.mReader.mBinaryBuffer.add(line);
-                        }
-                        Log.i(TAG, "Bytes read: " + data.length()); //$NON-NLS-1$
+                        this.changeToBinaryMode = true;
+                        publishProgress(Integer.valueOf(100));
                     } else {
-                        final String data = new String(this.mReader.mByteBuffer.toByteArray());
-                        this.mReader.mBuffer = new SpannableStringBuilder(data);
-                        Log.i(TAG, "Bytes read: " + data.getBytes().length); //$NON-NLS-1$
+                        // Only the first pages are read
+                        this.mText = activity.readWindow(0);
+                        Log.i(TAG, "Bytes read: " + activity.mPageEnd); //$NON-NLS-1$
                     }
-                    this.mReader.mByteBuffer = null;
 
                     // 100%
                     this.changeToDisplaying = true;
@@ -1182,7 +1352,11 @@ public class EditorActivity extends Activity implements TextWatcher {
                 final EditorActivity activity = EditorActivity.this;
                 // Is error?
                 if (!result.booleanValue()) {
-                    if (this.mCause != null) {
+                    if (this.mExceedSize) {
+                        DialogHelper.showToast(
+                                activity, R.string.editor_file_exceed_size_msg,
+                                Toast.LENGTH_SHORT);
+                    } else if (this.mCause != null) {
                         ExceptionUtil.translateException(activity, this.mCause);
                         activity.mEditor.setEnabled(false);
                     }
@@ -1190,29 +1364,13 @@ public class EditorActivity extends Activity implements TextWatcher {
                     // Now we have the buffer, set the text of the editor
                     if (activity.mBinary && mHexDump) {
                         HexDumpAdapter adapter = new HexDumpAdapter(EditorActivity.this,
-                                this.mReader.mBinaryBuffer);
+                                activity.mDocument.getOriginal(), mHexTypeface);
                         mBinaryEditor.setAdapter(adapter);
-
-                        // Cleanup
-                        this.mReader.mBinaryBuffer = null;
                     } else {
-                        activity.mEditor.setText(
-                                this.mReader.mBuffer, BufferType.EDITABLE);
-
-                        // Highlight editor text syntax
-                        if (activity.mSyntaxHighlight &&
-                            activity.mSyntaxHighlightProcessor != null) {
-                            try {
-                                activity.mSyntaxHighlightProcessor.process(
-                                        activity.mEditor.getText());
-                            } catch (Exception ex) {
-                                // An error in a syntax library, should not break down app.
-                                Log.e(TAG, "Syntax highlight failed.", ex); //$NON-NLS-1$
-                            }
-                        }
+                        activity.setWindowText(this.mText);
 
                         //Cleanup
-                        this.mReader.mBuffer = null;
+                        this.mText = null;
                     }
 
                     setDirty(false);
@@ -1263,71 +1421,6 @@ public class EditorActivity extends Activity implements TextWatcher {
                     this.changeToDisplaying = false;
                 }
             }
-
-            /**
-             * Create a hex dump of the data while show progress to user
-             *
-             * @param data The data to hex dump
-             * @return StringBuilder The hex dump buffer
-             */
-            private String toHexDump(byte[] data) {
-                //Change to binary mode
-                this.changeToBinaryMode = true;
-
-                // Start progress
-                publishProgress(Integer.valueOf(0));
-
-                // Calculate max dir size
-                int length = data.length;
-
-                final int DISPLAY_SIZE = 16;  // Bytes per line
-                ByteArrayInputStream bais = new ByteArrayInputStream(data);
-                byte[] line = new byte[DISPLAY_SIZE];
-                int read = 0;
-                int offset = 0;
-                StringBuilder sb = new StringBuilder();
-                while ((read = bais.read(line, 0, DISPLAY_SIZE)) != -1) {
-                    //offset   dump(16)   data\n
-                    String linedata = new String(line, 0, read);
-                    sb.append(HexDump.toHexString(offset));
-                    sb.append(" "); //$NON-NLS-1$
-                    String hexDump = HexDump.toHexString(line, 0, read);
-                    if (hexDump.length() != (DISPLAY_SIZE * 2)) {
-                        char[] array = new char[(DISPLAY_SIZE * 2) - hexDump.length()];
-                        Arrays.fill(array, ' ');
-                        hexDump += new String(array);
-                    }
-                    sb.append(hexDump);
-                    sb.append(" "); //$NON-NLS-1$
-                    sb.append(linedata);
-                    sb.append(EditorActivity.this.mHexLineSeparator);
-                    offset += DISPLAY_SIZE;
-                    if (offset % 5 == 0) {
-                        publishProgress(Integer.valueOf((offset * 100) / length));
-                    }
-                }
-
-                // End of the dump process
-                publishProgress(Integer.valueOf(100));
-
-                return sb.toString();
-            }
-
-            /**
-             * Method that converts to a visual printable hex string
-             *
-             * @param string The string to check
-             */
-            private String toHexPrintableString(String string) {
-                // Remove characters without visual representation
-                final String REPLACED_SYMBOL = "."; //$NON-NLS-1$
-                final String NEWLINE = System.getProperty("line.separator"); //$NON-NLS-1$
-                String printable = string.replaceAll("\\p{Cntrl}", REPLACED_SYMBOL); //$NON-NLS-1$
-                printable = printable.replaceAll("[^\\p{Print}]", REPLACED_SYMBOL); //$NON-NLS-1$
-                printable = printable.replaceAll("\\p{C}", REPLACED_SYMBOL); //$NON-NLS-1$
-                printable = printable.replaceAll(EditorActivity.this.mHexLineSeparator, NEWLINE);
-                return printable;
-            }
         };
         mReadTask.execute(this.mFso);
     }
@@ -1368,14 +1461,17 @@ public class EditorActivity extends Activity implements TextWatcher {
      */
     void ensureSyncWrite() {
         try {
+            // The document is streamed from its source and its edits, so the length of the
+            // document isn't limited by the memory of the device
+            commitWindow();
+
             for (int i = 0; i < WRITE_RETRIES; i++) {
                 // Configure the writer
                 AsyncWriter writer = new AsyncWriter();
 
                 // Write to disk
-                final byte[] data = this.mEditor.getText().toString().getBytes();
-                long expected = data.length;
-                syncWrite(writer, data);
+                long expected = this.mDocument.length();
+                syncWrite(writer);
 
                 // Sleep a bit
                 Thread.sleep(150L);
@@ -1418,6 +1514,14 @@ public class EditorActivity extends Activity implements TextWatcher {
                         this, R.string.editor_successfully_saved, Toast.LENGTH_SHORT);
                 setDirty(false);
 
+                // The document is now the saved file. If the file can only be read through
+                // the console, the current document (its source is in memory) is still valid
+                PagedByteSource source = openSource(this.mFso);
+                if (source != null) {
+                    closeDocument();
+                    this.mDocument = new PieceTable(source);
+                }
+
                 // Send a message that allow other activities to update his data
                 Intent intent = new Intent(FileManagerSettings.INTENT_FILE_CHANGED);
                 intent.putExtra(
@@ -1437,37 +1541,88 @@ public class EditorActivity extends Activity implements TextWatcher {
     }
 
     /**
-     * Method that write the file.
+     * Method that write the file. The file is never truncated before the whole document was
+     * written: the document is written to a temporary file in the directory of the target
+     * of the file (symlinks are resolved), that replaces the file when it's complete. A file
+     * with several hard links is overwritten in place from the temporary file instead, so
+     * the links are kept.
+     * <br/>
+     * The files that only can be written through the console are also overwritten in place,
+     * because a file moved over them by the console wouldn't keep their SELinux label and
+     * their extended attributes. The document is written first to a private temporary
+     * file, so the write doesn't read from the file that is being overwritten.
+     *
+     * @param writer The command listener
+     * @throws Exception If something was wrong
+     */
+    private void syncWrite(AsyncWriter writer) throws Exception {
+        String path = this.mFso.getFullPath();
+        if (VirtualMountPointConsole.getVirtualConsoleForPath(path) != null) {
+            // Virtual consoles (the secure storage) replace the content of a file only
+            // when the write is complete
+            consoleWrite(writer, path, null);
+            return;
+        }
+
+        // Write the target of the file, not a symlink to it
+        File file = getTarget(new File(path));
+        File parent = file.getParentFile();
+        if (file.canWrite() && parent != null && parent.canWrite()) {
+            try {
+                directWrite(file);
+            } catch (IOException ex) {
+                writer.onException(ex);
+            }
+            return;
+        }
+
+        // Only the console can write the file
+        File tmp = FileHelper.createTempFilename(this, false);
+        try {
+            writeTempFile(tmp);
+            consoleWrite(writer, file.getAbsolutePath(), tmp);
+        } catch (IOException ex) {
+            writer.onException(ex);
+        } finally {
+            if (!tmp.delete()) {
+                Log.w(TAG, "Can't delete " + tmp); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Method that streams the document, or a file, through a write command of the console.
      *
      * @param writer The command listener
-     * @param bytes The bytes to write
+     * @param path The path where to write the document
+     * @param src The file to write instead of the document, or <code>null</code> to write
+     * the document
      * @throws Exception If something was wrong
      */
-    private void syncWrite(AsyncWriter writer, byte[] bytes) throws Exception {
+    private void consoleWrite(AsyncWriter writer, String path, File src) throws Exception {
         // Create the writable command
-        WriteExecutable cmd =
-                CommandHelper.write(this, this.mFso.getFullPath(), writer, null);
+        WriteExecutable cmd = CommandHelper.write(this, path, writer, null);
 
         // Obtain access to the buffer (IMP! don't close the buffer here, it's manage
         // by the command)
         OutputStream os = cmd.createOutputStream();
         try {
-            // Retrieve the text from the editor
-            ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-            try {
-                // Buffered write
-                byte[] data = new byte[this.mBufferSize];
-                int read = 0, written = 0;
-                while ((read = bais.read(data, 0, this.mBufferSize)) != -1) {
-                    os.write(data, 0, read);
-                    written += read;
-                }
-                Log.i(TAG, "Bytes written: " + written); //$NON-NLS-1$
-            } finally {
+            byte[] buffer = new byte[this.mBufferSize];
+            if (src == null) {
+                // Buffered write of the pieces of the document
+                this.mDocument.writeTo(os, buffer);
+            } else {
+                FileInputStream fis = new FileInputStream(src);
                 try {
-                    bais.close();
-                } catch (Exception e) {/**NON BLOCK**/}
+                    int read;
+                    while ((read = fis.read(buffer)) != -1) {
+                        os.write(buffer, 0, read);
+                    }
+                } finally {
+                    fis.close();
+                }
             }
+            Log.i(TAG, "Bytes written: " + this.mDocument.length()); //$NON-NLS-1$
 
         } finally {
             // Ok. Data is written or ensure buffer close
@@ -1475,6 +1630,362 @@ public class EditorActivity extends Activity implements TextWatcher {
         }
     }
 
+    /**
+     * Method that writes the document to a file accessible by the app. The document is
+     * written to a temporary file in the same directory, that is flushed to disk and then
+     * replaces the file. If the file has other hard links, the temporary file is copied
+     * over the file instead.
+     *
+     * @param file The file. It must not be a symlink.
+     * @throws IOException If the file can't be written
+     */
+    private void directWrite(File file) throws IOException {
+        File tmp = getTempFile(file);
+        boolean done = false;
+        try {
+            writeTempFile(tmp);
+
+            StructStat st = null;
+            try {
+                st = Os.stat(file.getAbsolutePath());
+            } catch (ErrnoException ex) {
+                Log.w(TAG, "Can't stat " + file, ex); //$NON-NLS-1$
+            }
+            if (st != null && st.st_nlink > 1) {
+                // Replacing the file would split it from its other links
+                overwrite(tmp, file);
+                Log.i(TAG, "Bytes written: " + this.mDocument.length()); //$NON-NLS-1$
+                return;
+            }
+
+            // Keep the permissions of the file
+            if (st != null) {
+                try {
+                    Os.chmod(tmp.getAbsolutePath(), st.st_mode & PERMISSIONS_MASK);
+                } catch (ErrnoException ex) {
+                    Log.w(TAG, "Can't preserve the permissions of " + file, ex); //$NON-NLS-1$
+                }
+            }
+
+            if (!tmp.renameTo(file)) {
+                throw new IOException(
+                        "can't rename " + tmp + " to " + file); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            done = true;
+            Log.i(TAG, "Bytes written: " + this.mDocument.length()); //$NON-NLS-1$
+        } finally {
+            if (!done) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Method that writes the document to a temporary file and flushes it to disk. The
+     * unchanged regions of the document are transferred from the original file without
+     * copy them through the heap.
+     *
+     * @param tmp The temporary file
+     * @throws IOException If the file can't be written
+     */
+    private void writeTempFile(File tmp) throws IOException {
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = fos.getChannel();
+            this.mDocument.writeTo(channel);
+            channel.force(true);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Method that overwrites a file in place with the content of other file, and flushes
+     * it to disk
+     *
+     * @param src The file with the new content
+     * @param dst The file to overwrite
+     * @throws IOException If the file can't be written
+     */
+    private static void overwrite(File src, File dst) throws IOException {
+        FileInputStream fis = new FileInputStream(src);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(dst, "rw"); //$NON-NLS-1$
+            try {
+                FileChannel in = fis.getChannel();
+                FileChannel out = raf.getChannel();
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    long count = in.transferTo(position, size - position, out);
+                    if (count <= 0) {
+                        throw new IOException("can't overwrite " + dst); //$NON-NLS-1$
+                    }
+                    position += count;
+                }
+                raf.setLength(size);
+                out.force(true);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Method that returns the file that a path refers to, resolving its symlinks
+     *
+     * @param file The file
+     * @return File The target of the file, or the file if it can't be resolved
+     */
+    private static File getTarget(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException ex) {
+            Log.w(TAG, "Can't resolve " + file, ex); //$NON-NLS-1$
+            return file;
+        }
+    }
+
+    /**
+     * Method that returns the temporary file where to write a file before replace it
+     *
+     * @param file The file
+     * @return File The temporary file (hidden, in the same directory)
+     */
+    private static File getTempFile(File file) {
+        return new File(file.getParentFile(),
+                "." + file.getName() + TEMP_FILE_SUFFIX); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that opens the source of the document of a file, if the file can be read
+     * without load it in memory.
+     *
+     * @param fso The file
+     * @return PagedByteSource The source, or <code>null</code> if the file can only be read
+     * through the console
+     * @throws IOException If the file can't be opened
+     * @hide
+     */
+    PagedByteSource openSource(FileSystemObject fso) throws IOException {
+        String path = fso.getFullPath();
+        VirtualMountPointConsole vc = VirtualMountPointConsole.getVirtualConsoleForPath(path);
+        if (vc != null) {
+            if (vc instanceof SecureConsole && vc.isMounted()) {
+                return PagedByteSource.wrap(((SecureConsole)vc).openRandomReader(path));
+            }
+            return null;
+        }
+        File file = new File(path);
+        if (file.isFile() && file.canRead()) {
+            return PagedByteSource.open(file);
+        }
+        return null;
+    }
+
+    /**
+     * Method that releases the source of the document
+     * @hide
+     */
+    void closeDocument() {
+        if (this.mDocument != null) {
+            try {
+                this.mDocument.getOriginal().close();
+            } catch (IOException ex) {
+                /**NON BLOCK**/
+            }
+            this.mDocument = null;
+        }
+    }
+
+    /**
+     * Method that reads the window of the document that starts at a position. The window
+     * has two pages.
+     *
+     * @param start The start of the window
+     * @return String The text of the window
+     * @throws IOException If the document can't be read
+     * @hide
+     */
+    String readWindow(long start) throws IOException {
+        long mid = this.mDocument.findPageEnd(start, PAGE_SIZE);
+        long end = this.mDocument.findPageEnd(mid, PAGE_SIZE);
+        byte[] data = new byte[(int)(end - start)];
+        this.mDocument.read(start, data, 0, data.length);
+        this.mPageStart = start;
+        this.mPageMid = mid;
+        this.mPageEnd = end;
+        this.mPageDirty = false;
+        return new String(data);
+    }
+
+    /**
+     * Method that sets the text of the window in the editor
+     *
+     * @param text The text of the window
+     * @hide
+     */
+    void setWindowText(String text) {
+        this.mLoadingPage = true;
+        try {
+            this.mEditor.setText(new SpannableStringBuilder(text), BufferType.EDITABLE);
+        } finally {
+            this.mLoadingPage = false;
+        }
+
+        // Highlight editor text syntax
+        if (this.mSyntaxHighlight && this.mSyntaxHighlightProcessor != null) {
+            try {
+                if (this.mHighlighter != null) {
+                    // Only the visible lines
+                    this.mHighlighter.setText(this.mEditor.getText());
+                    updateHighlightRange();
+                } else {
+                    this.mSyntaxHighlightProcessor.process(this.mEditor.getText());
+                }
+            } catch (Exception ex) {
+                // An error in a syntax library, should not break down app.
+                Log.e(TAG, "Syntax highlight failed.", ex); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Method that saves the edits of the window in the document
+     *
+     * @throws IOException If the document can't be read
+     * @hide
+     */
+    void commitWindow() throws IOException {
+        if (!this.mPageDirty) {
+            return;
+        }
+        byte[] data = this.mEditor.getText().toString().getBytes();
+        this.mDocument.replace(this.mPageStart, this.mPageEnd - this.mPageStart, data);
+        this.mPageEnd = this.mPageStart + data.length;
+        this.mPageMid = Math.min(
+                this.mDocument.findPageEnd(this.mPageStart, PAGE_SIZE), this.mPageEnd);
+        this.mPageDirty = false;
+    }
+
+    /**
+     * Method invoked when the editor is scrolled. Slides the window of the document if
+     * the editor is near one of its edges.
+     * @hide
+     */
+    void onEditorScrolled() {
+        if (this.mDocument == null || this.mLoadingPage || (this.mBinary && this.mHexDump)
+                || this.mEditor.getLayout() == null) {
+            return;
+        }
+        ScrollView scroller = getEditorScroller();
+        int viewport = scroller.getHeight();
+        int scrollY = scroller.getScrollY();
+        try {
+            if (this.mPageEnd < this.mDocument.length()
+                    && scrollY + 2 * viewport >= this.mEditor.getHeight()) {
+                // Drop the first page and read the next one
+                slideWindow(this.mPageMid);
+            } else if (this.mPageStart > 0 && scrollY <= viewport) {
+                // Drop the last page and read the previous one
+                slideWindow(this.mDocument.findPageStart(this.mPageStart, PAGE_SIZE));
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed to read the document", ex); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method that passes the lines visible in the editor to the incremental highlighter
+     */
+    void updateHighlightRange() {
+        Layout layout = this.mEditor.getLayout();
+        if (this.mHighlighter == null || layout == null) {
+            return;
+        }
+        ScrollView scroller = getEditorScroller();
+        int top = Math.max(0, scroller.getScrollY() - this.mEditor.getTop());
+        int start = layout.getLineStart(layout.getLineForVertical(top));
+        int end = layout.getLineEnd(layout.getLineForVertical(top + scroller.getHeight()));
+        this.mHighlighter.setVisibleRange(start, end);
+    }
+
+    /**
+     * Method that moves the window of the document, keeping the scroll and the selection
+     * over the same text
+     *
+     * @param start The new start of the window
+     * @throws IOException If the document can't be read
+     */
+    private void slideWindow(long start) throws IOException {
+        commitWindow();
+        long oldStart = this.mPageStart;
+        final ScrollView scroller = getEditorScroller();
+        Layout layout = this.mEditor.getLayout();
+        int top = layout.getLineStart(layout.getLineForVertical(
+                Math.max(0, scroller.getScrollY() - this.mEditor.getTop())));
+        int selection = this.mEditor.getSelectionStart();
+
+        // The characters removed from (or added to) the head of the window
+        long from = Math.min(oldStart, start);
+        byte[] head = new byte[(int)(Math.max(oldStart, start) - from)];
+        this.mDocument.read(from, head, 0, head.length);
+        int shift = new String(head).length() * (start > oldStart ? -1 : 1);
+
+        String text = readWindow(start);
+        setWindowText(text);
+        final int newTop = Math.max(0, Math.min(text.length(), top + shift));
+        int newSelection = selection + shift;
+        this.mEditor.setSelection(newSelection >= 0 && newSelection <= text.length()
+                ? newSelection : newTop);
+        scroller.post(new Runnable() {
+            @Override
+            public void run() {
+                Layout l = EditorActivity.this.mEditor.getLayout();
+                if (l != null) {
+                    scroller.scrollTo(scroller.getScrollX(),
+                            EditorActivity.this.mEditor.getTop()
+                                + l.getLineTop(l.getLineForOffset(newTop)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Method that returns the vertical scroll of the editor
+     *
+     * @return ScrollView The vertical scroll of the editor
+     */
+    private ScrollView getEditorScroller() {
+        return (ScrollView)(this.mWordWrap
+                ? this.mWordWrapView : this.mNoWordWrapView.getChildAt(0));
+    }
+
+    /**
+     * Method that returns the text of the document, or the text of the window if the
+     * document is too big
+     *
+     * @return StringBuilder The text
+     */
+    private StringBuilder toStringDocument() {
+        if (this.mDocument == null) {
+            return new StringBuilder(this.mEditor.getText());
+        }
+        try {
+            commitWindow();
+            if (this.mDocument.length() <= this.mMaxFileSize) {
+                byte[] data = new byte[(int)this.mDocument.length()];
+                this.mDocument.read(0, data, 0, data.length);
+                return new StringBuilder(new String(data));
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed to read the document", ex); //$NON-NLS-1$
+        }
+        return new StringBuilder(this.mEditor.getText());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1489,6 +2000,9 @@ public class EditorActivity extends Activity implements TextWatcher {
     public void onTextChanged(CharSequence s, int start, int before, int count) {
         this.mEditStart = start;
         this.mEditEnd = start + count;
+        if (!this.mLoadingPage && this.mSyntaxHighlight && this.mHighlighter != null) {
+            this.mHighlighter.onTextChanged(start, before, count);
+        }
     }
 
     /**
@@ -1496,8 +2010,12 @@ public class EditorActivity extends Activity implements TextWatcher {
      */
     @Override
     public void afterTextChanged(Editable s) {
+        if (this.mLoadingPage) {
+            return;
+        }
+        this.mPageDirty = true;
         setDirty(true);
-        if (this.mSyntaxHighlightProcessor != null) {
+        if (this.mSyntaxHighlightProcessor != null && this.mHighlighter == null) {
             this.mSyntaxHighlightProcessor.process(s, this.mEditStart, this.mEditEnd);
         }
     }
@@ -1901,7 +1901,9 @@ public class NavigationActivity extends Activity
      */
     @Override
     public void onNavigateTo(Object o) {
-        // Ignored
+        if (o instanceof FileSystemObject) {
+            getCurrentNavigationView().open((FileSystemObject) o);
+        }
     }
 
     /**
@@ -26,6 +26,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Configuration;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.preference.PreferenceActivity;
@@ -67,7 +68,9 @@ import com.cyanogenmod.filemanager.model.Symlink;
 import com.cyanogenmod.filemanager.parcelables.SearchInfoParcelable;
 import com.cyanogenmod.filemanager.preferences.AccessMode;
 import com.cyanogenmod.filemanager.preferences.FileManagerSettings;
+import com.cyanogenmod.filemanager.preferences.ObjectStringIdentifier;
 import com.cyanogenmod.filemanager.preferences.Preferences;
+import com.cyanogenmod.filemanager.preferences.SearchSortResultMode;
 import com.cyanogenmod.filemanager.providers.RecentSearchesContentProvider;
 import com.cyanogenmod.filemanager.tasks.SearchResultDrawingAsyncTask;
 import com.cyanogenmod.filemanager.ui.ThemeManager;
@@ -80,6 +83,7 @@ import com.cyanogenmod.filemanager.ui.widgets.ButtonItem;
 import com.cyanogenmod.filemanager.ui.widgets.FlingerListView;
 import com.cyanogenmod.filemanager.ui.widgets.FlingerListView.OnItemFlingerListener;
 import com.cyanogenmod.filemanager.ui.widgets.FlingerListView.OnItemFlingerResponder;
+import com.cyanogenmod.filemanager.util.BoundedSearchResultHeap;
 import com.cyanogenmod.filemanager.util.CommandHelper;
 import com.cyanogenmod.filemanager.util.DialogHelper;
 import com.cyanogenmod.filemanager.util.ExceptionUtil;
@@ -89,6 +93,7 @@ import com.cyanogenmod.filemanager.util.MimeTypeHelper;
 import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
 import com.cyanogenmod.filemanager.util.StorageHelper;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.List;
@@ -125,6 +130,9 @@ public class SearchActivity extends Activity
      */
     public static final String EXTRA_SEARCH_MIMETYPE = "extra_search_mimetype";  //$NON-NLS-1$
 
+    // The cache directory where the spilled results of a search are written
+    private static final String SEARCH_SPILL_DIR = "search"; //$NON-NLS-1$
+
     //Minimum characters to allow query
     private static final int MIN_CHARS_SEARCH = 3;
 
@@ -247,6 +255,13 @@ public class SearchActivity extends Activity
                             SearchActivity.this.mDialog.dismiss();
                         }
 
+                        // In limited mode, the results are the best results of the heap,
+                        // merged in background
+                        if (SearchActivity.this.mResultHeap != null) {
+                            loadTopResults(SearchActivity.this.mResultHeap);
+                            return;
+                        }
+
                         // Resolve the symlinks
                         FileHelper.resolveSymlinks(
                                 SearchActivity.this, SearchActivity.this.mResultList);
@@ -268,19 +283,21 @@ public class SearchActivity extends Activity
         @SuppressWarnings("unchecked")
         public void onConcurrentPartialResult(final Object partialResults) {
             //Saved in the global result list, for save at the end
+            //The mime/type category restriction is evaluated by the find command.
+            //In limited mode, only the best results are kept in memory
+            final BoundedSearchResultHeap heap = SearchActivity.this.mResultHeap;
             if (partialResults instanceof FileSystemObject) {
-                FileSystemObject fso = (FileSystemObject) partialResults;
-                if (mMimeTypeCategory == null || mMimeTypeCategory == MimeTypeHelper
-                        .getCategory(SearchActivity.this, fso)) {
+                if (heap != null) {
+                    heap.add((FileSystemObject) partialResults);
+                } else {
                     SearchActivity.this.mResultList.add((FileSystemObject) partialResults);
                 }
             } else {
-                List<FileSystemObject> fsoList = (List<FileSystemObject>) partialResults;
-                for (FileSystemObject fso : fsoList) {
-                    if (mMimeTypeCategory == null || mMimeTypeCategory == MimeTypeHelper
-                            .getCategory(SearchActivity.this, fso)) {
-                        SearchActivity.this.mResultList.add(fso);
-                    }
+                if (heap != null) {
+                    heap.addAll((List<FileSystemObject>) partialResults);
+                } else {
+                    SearchActivity.this.mResultList.addAll(
+                            (List<FileSystemObject>) partialResults);
                 }
             }
 
@@ -289,8 +306,7 @@ public class SearchActivity extends Activity
                 @Override
                 public void run() {
                     if (SearchActivity.this.mDialog != null) {
-                        int progress = SearchActivity.this.mResultList.size();
-                        setProgressMsg(progress);
+                        setProgressMsg(getFoundItemsCount());
                     }
                 }
             });
@@ -361,6 +377,13 @@ public class SearchActivity extends Activity
 
     private SearchResultDrawingAsyncTask mDrawingSearchResultTask;
 
+    /**
+     * The best results of the search (only in limited mode)
+     * @hide
+     */
+    BoundedSearchResultHeap mResultHeap;
+    private View mLoadMore;
+
     /**
      * @hide
      */
@@ -444,6 +467,9 @@ public class SearchActivity extends Activity
             /**NON BLOCK**/
         }
 
+        // Remove the spilled results
+        disposeResultHeap();
+
         //All destroy. Continue
         super.onDestroy();
     }
@@ -584,6 +610,13 @@ public class SearchActivity extends Activity
         this.mSearchTerms.setText(
                 Html.fromHtml(getString(R.string.search_terms, ""))); //$NON-NLS-1$
         this.mMimeTypeSpinner = (Spinner) findViewById(R.id.search_status_type_spinner);
+        this.mLoadMore = findViewById(R.id.search_load_more);
+        this.mLoadMore.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                loadMoreResults();
+            }
+        });
     }
 
     /**
@@ -657,7 +690,9 @@ public class SearchActivity extends Activity
                 (voiceQuery) ? filterQuery(userQueries) : userQueries;
 
         //Create the queries
-        this.mQuery = new Query().fillSlots(filteredUserQueries);
+        this.mQuery = new Query()
+                .fillSlots(filteredUserQueries)
+                .setMimeTypeCategory(mMimeTypeCategory);
         List<String> queries = this.mQuery.getQueries();
 
         boolean ask = false;
@@ -751,6 +786,16 @@ public class SearchActivity extends Activity
             ((SearchResultAdapter)this.mSearchListView.getAdapter()).dispose();
         }
         this.mResultList = new ArrayList<FileSystemObject>();
+        disposeResultHeap();
+        boolean limitResults = Preferences.getSharedPreferences().getBoolean(
+                FileManagerSettings.SETTINGS_LIMIT_SEARCH_RESULTS.getId(),
+                ((Boolean) FileManagerSettings.SETTINGS_LIMIT_SEARCH_RESULTS.
+                        getDefaultValue()).booleanValue());
+        if (limitResults) {
+            this.mResultHeap = new BoundedSearchResultHeap(
+                    new File(getCacheDir(), SEARCH_SPILL_DIR),
+                    query, getSortResultMode(), BoundedSearchResultHeap.DEFAULT_CAPACITY);
+        }
         SearchResultAdapter adapter =
                 new SearchResultAdapter(this,
                         new ArrayList<SearchResult>(), R.layout.search_item, this.mQuery);
@@ -1282,7 +1327,9 @@ public class SearchActivity extends Activity
     void drawResults() {
         //Toggle results
         this.toggleResults(this.mResultList.size() > 0, true);
-        setFoundItems(this.mResultList.size(), this.mSearchDirectory);
+        setFoundItems(getFoundItemsCount(), this.mSearchDirectory);
+        this.mLoadMore.setVisibility(
+                this.mResultHeap != null && this.mResultHeap.hasMore() ? View.VISIBLE : View.GONE);
 
         //Create the task for drawing the data
         this.mDrawingSearchResultTask =
@@ -1294,6 +1341,137 @@ public class SearchActivity extends Activity
         this.mDrawingSearchResultTask.execute();
     }
 
+    /**
+     * Method that merges the results of a finished search and draws the best results (only
+     * in limited mode). The merge reads the results spilled to disk, so it's done in
+     * background.
+     *
+     * @param heap The heap of results of the search
+     * @hide
+     */
+    void loadTopResults(final BoundedSearchResultHeap heap) {
+        new AsyncTask<Void, Void, List<FileSystemObject>>() {
+            @Override
+            protected List<FileSystemObject> doInBackground(Void... params) {
+                try {
+                    heap.finish();
+                    List<FileSystemObject> files = toFiles(heap.getTopResults());
+                    FileHelper.resolveSymlinks(SearchActivity.this, files);
+                    return files;
+                } catch (Throwable ex) {
+                    Log.e(TAG, "Failed to load the search results", ex); //$NON-NLS-1$
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<FileSystemObject> files) {
+                if (files == null || heap != SearchActivity.this.mResultHeap) {
+                    // Failed, or a new search was started
+                    return;
+                }
+                SearchActivity.this.mResultList = files;
+                drawResults();
+            }
+        }.execute();
+    }
+
+    /**
+     * Method that loads the next results of the search from the heap (only in
+     * limited mode).
+     * @hide
+     */
+    void loadMoreResults() {
+        final BoundedSearchResultHeap heap = this.mResultHeap;
+        if (heap == null || !heap.hasMore()) {
+            return;
+        }
+        this.mLoadMore.setEnabled(false);
+        new AsyncTask<Void, Void, List<FileSystemObject>>() {
+            @Override
+            protected List<FileSystemObject> doInBackground(Void... params) {
+                List<FileSystemObject> files =
+                        toFiles(heap.loadMore(BoundedSearchResultHeap.DEFAULT_CAPACITY));
+                FileHelper.resolveSymlinks(SearchActivity.this, files);
+                return files;
+            }
+
+            @Override
+            protected void onPostExecute(List<FileSystemObject> files) {
+                SearchActivity.this.mLoadMore.setEnabled(true);
+                if (heap != SearchActivity.this.mResultHeap) {
+                    // A new search was started
+                    return;
+                }
+                SearchActivity.this.mResultList.addAll(files);
+                int pos = SearchActivity.this.mSearchListView.getFirstVisiblePosition();
+                drawResults();
+                SearchActivity.this.mSearchListView.setSelection(pos);
+            }
+        }.execute();
+    }
+
+    /**
+     * Method that releases the heap of results of the current search. The heap could be
+     * merging its results, so it's released in background, after the merge.
+     */
+    private void disposeResultHeap() {
+        final BoundedSearchResultHeap heap = this.mResultHeap;
+        if (heap != null) {
+            this.mResultHeap = null;
+            new AsyncTask<Void, Void, Void>() {
+                @Override
+                protected Void doInBackground(Void... params) {
+                    heap.dispose();
+                    return null;
+                }
+            }.execute();
+        }
+    }
+
+    /**
+     * Method that returns the number of items found by the current search.
+     *
+     * @return int The number of items found
+     * @hide
+     */
+    int getFoundItemsCount() {
+        if (this.mResultHeap != null) {
+            return this.mResultHeap.getTotalCount();
+        }
+        return this.mResultList.size();
+    }
+
+    /**
+     * Method that returns the sort mode of the search results.
+     *
+     * @return SearchSortResultMode The sort mode
+     */
+    private static SearchSortResultMode getSortResultMode() {
+        String defaultValue = ((ObjectStringIdentifier)FileManagerSettings.
+                SETTINGS_SORT_SEARCH_RESULTS_MODE.getDefaultValue()).getId();
+        String value = Preferences.getSharedPreferences().getString(
+                            FileManagerSettings.SETTINGS_SORT_SEARCH_RESULTS_MODE.getId(),
+                            defaultValue);
+        return SearchSortResultMode.fromId(value);
+    }
+
+    /**
+     * Method that converts a list of search results to a list of file system objects.
+     *
+     * @param results The search results
+     * @return List<FileSystemObject> The file system objects
+     * @hide
+     */
+    static List<FileSystemObject> toFiles(List<SearchResult> results) {
+        int cc = results.size();
+        List<FileSystemObject> files = new ArrayList<FileSystemObject>(cc);
+        for (int i = 0; i < cc; i++) {
+            files.add(results.get(i).getFso());
+        }
+        return files;
+    }
+
     /**
      * Method that creates a {@link SearchInfoParcelable} reference from
      * the current data.
@@ -1346,6 +1524,8 @@ public class SearchActivity extends Activity
         theme.setTextColor(this, (TextView)v, "action_bar_text_color"); //$NON-NLS-1$
         v = findViewById(R.id.search_status_query_terms);
         theme.setTextColor(this, (TextView)v, "action_bar_text_color"); //$NON-NLS-1$
+        v = findViewById(R.id.search_load_more);
+        theme.setTextColor(this, (TextView)v, "text_color"); //$NON-NLS-1$
 
         //ListView
         if (this.mSearchListView.getAdapter() != null) {
@@ -51,6 +51,7 @@ public class SearchPreferenceFragment extends TitlePreferenceFragment {
     private SwitchPreference mHighlightTerms;
     private SwitchPreference mShowRelevanceWidget;
     private ListPreference mSortSearchResultMode;
+    private SwitchPreference mLimitSearchResults;
     private SwitchPreference mSaveSearchTerms;
     private Preference mRemoveSearchTerms;
 
@@ -159,6 +160,12 @@ public class SearchPreferenceFragment extends TitlePreferenceFragment {
                                 defaultValue);
         this.mOnChangeListener.onPreferenceChange(this.mSortSearchResultMode, value);
 
+        // Limit search results
+        this.mLimitSearchResults =
+                (SwitchPreference)findPreference(
+                        FileManagerSettings.SETTINGS_LIMIT_SEARCH_RESULTS.getId());
+        this.mLimitSearchResults.setOnPreferenceChangeListener(this.mOnChangeListener);
+
         // Saved search terms
         this.mSaveSearchTerms =
                 (SwitchPreference)findPreference(
@@ -167,9 +167,8 @@ public class StoragePreferenceFragment extends TitlePreferenceFragment {
     /**
      * Check the preferences status
      */
-    @SuppressWarnings("deprecation")
     private void updatePreferences() {
-        boolean secureStorageExists = SecureConsole.getSecureStorageRoot().getFile().exists();
+        boolean secureStorageExists = SecureConsole.isSecureStorageCreated();
         if (mResetPassword != null) {
             mResetPassword.setEnabled(secureStorageExists);
         }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.adapters;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.cyanogenmod.filemanager.R;
+import com.cyanogenmod.filemanager.model.DuplicateGroup;
+import com.cyanogenmod.filemanager.ui.ThemeManager;
+import com.cyanogenmod.filemanager.ui.ThemeManager.Theme;
+import com.cyanogenmod.filemanager.util.FileHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An implementation of {@link BaseAdapter} for display groups of duplicated files.
+ * <br/>
+ * Every group is shown as a header row followed by a row per file. The groups are
+ * appended as they are found, so the rows are kept flattened.
+ */
+public class DuplicatesAdapter extends BaseAdapter {
+
+    private static final int TYPE_GROUP = 0;
+    private static final int TYPE_FILE = 1;
+
+    private final Context mContext;
+    private final LayoutInflater mInflater;
+
+    // The rows: a DuplicateGroup for the headers, the path for the files
+    private final List<Object> mRows;
+    private int mGroups;
+    private long mWastedSize;
+
+    /**
+     * Constructor of <code>DuplicatesAdapter</code>.
+     *
+     * @param context The current context
+     */
+    public DuplicatesAdapter(Context context) {
+        super();
+        this.mContext = context;
+        this.mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        this.mRows = new ArrayList<Object>();
+    }
+
+    /**
+     * Method that appends a group of duplicated files.
+     *
+     * @param group The group of duplicated files
+     */
+    public void addGroup(DuplicateGroup group) {
+        this.mRows.add(group);
+        this.mRows.addAll(group.getFiles());
+        this.mGroups++;
+        this.mWastedSize += group.getWastedSize();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Method that returns the number of groups of duplicated files.
+     *
+     * @return int The number of groups
+     */
+    public int getGroupCount() {
+        return this.mGroups;
+    }
+
+    /**
+     * Method that returns the space that could be reclaimed from all the groups.
+     *
+     * @return long The wasted space, in bytes
+     */
+    public long getWastedSize() {
+        return this.mWastedSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCount() {
+        return this.mRows.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getItem(int position) {
+        return this.mRows.get(position);
+    }
+
+    /**
+     * Method that returns the path of the file of a row.
+     *
+     * @param position The position of the row
+     * @return String The path of the file, or <code>null</code> if the row is a header
+     */
+    public String getFile(int position) {
+        Object row = this.mRows.get(position);
+        return row instanceof String ? (String)row : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getItemViewType(int position) {
+        return this.mRows.get(position) instanceof DuplicateGroup ? TYPE_GROUP : TYPE_FILE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean areAllItemsEnabled() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEnabled(int position) {
+        return getItemViewType(position) == TYPE_FILE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        Theme theme = ThemeManager.getCurrentTheme(this.mContext);
+        Object row = this.mRows.get(position);
+
+        if (row instanceof DuplicateGroup) {
+            DuplicateGroup group = (DuplicateGroup)row;
+            TextView v = (TextView)convertView;
+            if (v == null) {
+                v = (TextView)this.mInflater.inflate(
+                        R.layout.duplicates_group_item, parent, false);
+            }
+            v.setText(this.mContext.getString(R.string.duplicates_group_header,
+                    Integer.valueOf(group.getFiles().size()),
+                    FileHelper.getHumanReadableSize(group.getSize())));
+            theme.setTextColor(this.mContext, v, "text_color"); //$NON-NLS-1$
+            return v;
+        }
+
+        View v = convertView;
+        if (v == null) {
+            v = this.mInflater.inflate(R.layout.duplicates_item, parent, false);
+        }
+        File file = new File((String)row);
+        TextView name = (TextView)v.findViewById(R.id.duplicates_item_name);
+        TextView parentDir = (TextView)v.findViewById(R.id.duplicates_item_parent_dir);
+        name.setText(file.getName());
+        parentDir.setText(file.getParent());
+        theme.setTextColor(this.mContext, name, "text_color"); //$NON-NLS-1$
+        theme.setTextColor(this.mContext, parentDir, "text_color"); //$NON-NLS-1$
+        return v;
+    }
+}
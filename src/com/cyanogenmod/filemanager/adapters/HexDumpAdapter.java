@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.adapters;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.cyanogenmod.filemanager.R;
+import com.cyanogenmod.filemanager.ui.ThemeManager;
+import com.cyanogenmod.filemanager.ui.ThemeManager.Theme;
+import com.cyanogenmod.filemanager.util.PagedByteSource;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * An adapter that shows a {@link PagedByteSource} as a hex dump, one line of
+ * {@link #BYTES_PER_LINE} bytes per row.
+ * <pre>
+ * 00000010 000102030405060708090A0B0C0D0E0F ................
+ * </pre>
+ * The lines are never stored: every row is read from the source and formatted when the list
+ * binds it, into buffers owned by the recycled view. So the memory used by the adapter only
+ * depends on the visible rows, and creating it doesn't read the source.
+ */
+public class HexDumpAdapter extends BaseAdapter {
+
+    private static final String TAG = "HexDumpAdapter"; //$NON-NLS-1$
+
+    /**
+     * The bytes shown in every line
+     */
+    public static final int BYTES_PER_LINE = 16;
+
+    // The digits of the offsets of the files smaller than 4GB
+    private static final int OFFSET_DIGITS = 8;
+    // The digits of the offsets of the bigger files
+    private static final int LONG_OFFSET_DIGITS = 16;
+
+    // The maximum length of a line
+    private static final int MAX_LINE_LENGTH =
+            LONG_OFFSET_DIGITS + 1 + (BYTES_PER_LINE * 2) + 1 + BYTES_PER_LINE;
+
+    private static final char[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    /**
+     * A class that conforms with the ViewHolder pattern to performance
+     * the list view rendering. It owns the buffers of the line that shows.
+     */
+    private static class ViewHolder {
+        /**
+         * @hide
+         */
+        public ViewHolder() {
+            super();
+        }
+        TextView mTextView;
+        final byte[] mData = new byte[BYTES_PER_LINE];
+        final char[] mLine = new char[MAX_LINE_LENGTH];
+    }
+
+    private final Context mContext;
+    private final PagedByteSource mSource;
+    private final Typeface mTypeface;
+    private final int mOffsetDigits;
+    private final int mCount;
+
+    /**
+     * Constructor of <code>HexDumpAdapter</code>.
+     *
+     * @param context The current context
+     * @param source The source to show
+     * @param typeface The (monospace) typeface of the lines
+     */
+    public HexDumpAdapter(Context context, PagedByteSource source, Typeface typeface) {
+        super();
+        this.mContext = context;
+        this.mSource = source;
+        this.mTypeface = typeface;
+        long length = source.length();
+        this.mOffsetDigits = length > 0xFFFFFFFFL ? LONG_OFFSET_DIGITS : OFFSET_DIGITS;
+        this.mCount = (int)Math.min(Integer.MAX_VALUE,
+                (length + BYTES_PER_LINE - 1) / BYTES_PER_LINE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCount() {
+        return this.mCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return Long The offset of the line
+     */
+    @Override
+    public Object getItem(int position) {
+        return Long.valueOf(getOffset(position));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /**
+     * Method that returns the offset of the first byte of a line
+     *
+     * @param position The position of the line
+     * @return long The offset of the line
+     */
+    public static long getOffset(int position) {
+        return (long)position * BYTES_PER_LINE;
+    }
+
+    /**
+     * Method that returns the line that shows the byte at an offset
+     *
+     * @param offset The offset
+     * @return int The position of the line
+     */
+    public int getPosition(long offset) {
+        if (this.mCount == 0) {
+            return 0;
+        }
+        return (int)Math.max(0, Math.min(this.mCount - 1, offset / BYTES_PER_LINE));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View v = convertView;
+        if (v == null) {
+            final Context context = this.mContext;
+            LayoutInflater inflater = LayoutInflater.from(context);
+            Theme theme = ThemeManager.getCurrentTheme(context);
+
+            v = inflater.inflate(R.layout.hexdump_line, parent, false);
+            ViewHolder viewHolder = new ViewHolder();
+            viewHolder.mTextView = (TextView)v.findViewById(android.R.id.text1);
+
+            viewHolder.mTextView.setTextAppearance(context, R.style.hexeditor_text_appearance);
+            viewHolder.mTextView.setTypeface(this.mTypeface);
+            theme.setTextColor(context, viewHolder.mTextView, "text_color"); //$NON-NLS-1$
+
+            v.setTag(viewHolder);
+        }
+
+        ViewHolder viewHolder = (ViewHolder)v.getTag();
+        int len = formatLine(position, viewHolder.mData, viewHolder.mLine);
+        viewHolder.mTextView.setText(viewHolder.mLine, 0, len);
+
+        return v;
+    }
+
+    /**
+     * Method that returns the hex dump of the source as a document
+     *
+     * @param maxLength The maximum characters of the document. The document ends with the
+     * last line that fits
+     * @return StringBuilder a buffer to the document
+     */
+    public StringBuilder toStringDocument(long maxLength) {
+        byte[] data = new byte[BYTES_PER_LINE];
+        char[] line = new char[MAX_LINE_LENGTH];
+        StringBuilder sb = new StringBuilder();
+        int c = getCount();
+        for (int i = 0; i < c; i++) {
+            int len = formatLine(i, data, line);
+            if (sb.length() + len + 1 > maxLength) {
+                break;
+            }
+            sb.append(line, 0, len);
+            sb.append("\n"); //$NON-NLS-1$
+        }
+        return sb;
+    }
+
+    /**
+     * Method that reads and formats a line of the source
+     *
+     * @param position The position of the line
+     * @param data The buffer where to read the bytes of the line
+     * @param out The buffer where to format the line
+     * @return int The length of the line
+     */
+    private int formatLine(int position, byte[] data, char[] out) {
+        long offset = getOffset(position);
+        int read = 0;
+        try {
+            read = this.mSource.readFully(offset, data, 0, BYTES_PER_LINE);
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed to read the line at " + offset, ex); //$NON-NLS-1$
+        }
+        return formatLine(offset, this.mOffsetDigits, data, read, out);
+    }
+
+    /**
+     * Method that formats a line of the hex dump: the offset, the bytes in hex and the
+     * bytes as text (the bytes that aren't printable ASCII characters are shown as dots)
+     *
+     * @param offset The offset of the line
+     * @param offsetDigits The digits of the offset
+     * @param data The bytes of the line
+     * @param len The number of bytes of the line (up to {@link #BYTES_PER_LINE})
+     * @param out The buffer where to format the line
+     * @return int The length of the line
+     */
+    public static int formatLine(long offset, int offsetDigits, byte[] data, int len, char[] out) {
+        int pos = 0;
+        for (int i = offsetDigits - 1; i >= 0; i--) {
+            out[pos++] = HEX_DIGITS[(int)(offset >>> (i * 4)) & 0x0f];
+        }
+        out[pos++] = ' ';
+        for (int i = 0; i < BYTES_PER_LINE; i++) {
+            if (i < len) {
+                out[pos++] = HEX_DIGITS[(data[i] >> 4) & 0x0f];
+                out[pos++] = HEX_DIGITS[data[i] & 0x0f];
+            } else {
+                out[pos++] = ' ';
+                out[pos++] = ' ';
+            }
+        }
+        out[pos++] = ' ';
+        for (int i = 0; i < len; i++) {
+            int b = data[i] & 0xff;
+            out[pos++] = b >= 0x20 && b < 0x7f ? (char)b : '.';
+        }
+        return pos;
+    }
+
+    /**
+     * Method that parses an offset typed by the user, in hex (with or without the
+     * <code>0x</code> prefix, like the offsets of the hex dump)
+     *
+     * @param text The text typed by the user
+     * @return long The offset, or <code>-1</code> if the text isn't a valid offset
+     */
+    public static long parseOffset(String text) {
+        String s = text.trim();
+        if (s.startsWith("0x") || s.startsWith("0X")) { //$NON-NLS-1$ //$NON-NLS-2$
+            s = s.substring(2);
+        }
+        if (s.length() == 0 || s.length() > LONG_OFFSET_DIGITS - 1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(s, 16);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Method that parses a pattern of bytes typed by the user. The pattern is a sequence
+     * of hex bytes (optionally separated by spaces, like <code>CA FE BA BE</code>), or
+     * otherwise a text that is searched as UTF-8.
+     *
+     * @param text The text typed by the user
+     * @return byte[] The bytes of the pattern, or <code>null</code> if the text is empty
+     */
+    public static byte[] parsePattern(String text) {
+        if (text.length() == 0) {
+            return null;
+        }
+        String hex = text.replace(" ", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        if (hex.length() > 0 && hex.length() % 2 == 0) {
+            byte[] pattern = new byte[hex.length() / 2];
+            int i = 0;
+            for (; i < pattern.length; i++) {
+                int hi = Character.digit(hex.charAt(i * 2), 16);
+                int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+                if (hi < 0 || lo < 0) {
+                    break;
+                }
+                pattern[i] = (byte)((hi << 4) | lo);
+            }
+            if (i == pattern.length) {
+                return pattern;
+            }
+        }
+        return text.getBytes(Charset.forName("UTF-8")); //$NON-NLS-1$
+    }
+}
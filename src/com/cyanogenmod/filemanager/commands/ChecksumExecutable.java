@@ -28,17 +28,42 @@ public interface ChecksumExecutable extends AsyncResultExecutable {
         /**
          * MD5 digest algorithm
          */
-        MD5,
+        MD5("MD5"), //$NON-NLS-1$
         /**
          * SHA-1 digest algorithm
          */
-        SHA1
+        SHA1("SHA-1"), //$NON-NLS-1$
+        /**
+         * SHA-256 digest algorithm
+         */
+        SHA256("SHA-256"), //$NON-NLS-1$
+        /**
+         * CRC32 checksum (not a message digest)
+         */
+        CRC32(null);
+
+        private final String mAlgorithm;
+
+        private CHECKSUMS(String algorithm) {
+            this.mAlgorithm = algorithm;
+        }
+
+        /**
+         * Method that returns the name of the message digest algorithm
+         *
+         * @return String The name of the algorithm, or <code>null</code> if the checksum
+         * is not a message digest
+         */
+        public String getAlgorithm() {
+            return this.mAlgorithm;
+        }
     }
 
     /**
-     * Method that returns the calculated MD5 [0] and SHA-1 [1] digests
+     * Method that returns the calculated digests, indexed by the ordinal of its
+     * {@link CHECKSUMS}. A digest not supported by the console is <code>null</code>.
      *
-     * @return String[] The calculated MD5 [0] and SHA-1 [1] digests
+     * @return String[] The calculated digests
      */
     String[] getResult();
 
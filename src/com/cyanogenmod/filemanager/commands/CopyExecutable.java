@@ -18,9 +18,14 @@ package com.cyanogenmod.filemanager.commands;
 
 /**
  * An interface that represents an executable for copy a file system object to
- * other file system object.
+ * other file system object.<br/>
+ * <br/>
+ * The executable runs in background and returns its progress as
+ * {@link com.cyanogenmod.filemanager.model.TransferProgress} partial results. Anyway, like
+ * any other {@link WritableExecutable}, {@link com.cyanogenmod.filemanager.util.CommandHelper}
+ * waits for the end of the operation before return.
  */
-public interface CopyExecutable extends WritableExecutable {
+public interface CopyExecutable extends WritableExecutable, AsyncResultExecutable {
 
     /**
      * {@inheritDoc}
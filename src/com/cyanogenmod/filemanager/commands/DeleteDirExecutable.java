@@ -17,7 +17,12 @@
 package com.cyanogenmod.filemanager.commands;
 
 /**
- * An interface that represents an executable for delete a new directory.
+ * An interface that represents an executable for delete a new directory.<br/>
+ * <br/>
+ * Implementations that also implement {@link AsyncResultExecutable} run in background and
+ * return its progress as {@link com.cyanogenmod.filemanager.model.DeleteProgress} partial
+ * results. Anyway, {@link com.cyanogenmod.filemanager.util.CommandHelper} waits for the end of
+ * the operation before return.
  */
 public interface DeleteDirExecutable extends WritableExecutable {
 
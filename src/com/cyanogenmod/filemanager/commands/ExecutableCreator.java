@@ -69,13 +69,16 @@ public interface ExecutableCreator {
      *
      * @param src The absolute path to the source file system object
      * @param dst The absolute path to the destination file system object
+     * @param asyncResultListener The listener of the progress of the operation
      * @return CopyExecutable A {@link CopyExecutable} executable implementation reference
      * @throws CommandNotFoundException If the executable can't be created
      * @throws NoSuchFileOrDirectory If the file or directory was not found
      * @throws InsufficientPermissionsException If an operation requires elevated permissions
      */
-    CopyExecutable createCopyExecutable(String src, String dst) throws CommandNotFoundException,
-    NoSuchFileOrDirectory, InsufficientPermissionsException;
+    CopyExecutable createCopyExecutable(
+            String src, String dst, AsyncResultListener asyncResultListener)
+            throws CommandNotFoundException, NoSuchFileOrDirectory,
+            InsufficientPermissionsException;
 
     /**
      * Method that creates an executable for create a new directory.
@@ -108,14 +111,18 @@ public interface ExecutableCreator {
      * Method that creates an executable for delete a directory.
      *
      * @param dir The absolute path to the directory to be deleted
+     * @param asyncResultListener The listener of the progress of the operation (only used
+     * by the executables that run in background)
      * @return DeleteDirExecutable A {@link DeleteDirExecutable} executable implementation
      * reference
      * @throws CommandNotFoundException If the executable can't be created
      * @throws NoSuchFileOrDirectory If the file or directory was not found
      * @throws InsufficientPermissionsException If an operation requires elevated permissions
      */
-    DeleteDirExecutable createDeleteDirExecutable(String dir) throws CommandNotFoundException,
-            NoSuchFileOrDirectory, InsufficientPermissionsException;
+    DeleteDirExecutable createDeleteDirExecutable(
+            String dir, AsyncResultListener asyncResultListener)
+            throws CommandNotFoundException, NoSuchFileOrDirectory,
+            InsufficientPermissionsException;
 
     /**
      * Method that creates an executable for delete a file.
@@ -314,13 +321,16 @@ public interface ExecutableCreator {
      *
      * @param src The absolute path to the source file system object
      * @param dst The absolute path to the destination file system object
+     * @param asyncResultListener The listener of the progress of the operation
      * @return MoveExecutable A {@link MoveExecutable} executable implementation reference
      * @throws CommandNotFoundException If the executable can't be created
      * @throws NoSuchFileOrDirectory If the file or directory was not found
      * @throws InsufficientPermissionsException If an operation requires elevated permissions
      */
-    MoveExecutable createMoveExecutable(String src, String dst) throws CommandNotFoundException,
-            NoSuchFileOrDirectory, InsufficientPermissionsException;
+    MoveExecutable createMoveExecutable(
+            String src, String dst, AsyncResultListener asyncResultListener)
+            throws CommandNotFoundException, NoSuchFileOrDirectory,
+            InsufficientPermissionsException;
 
     /**
      * Method that creates an executable for retrieve the parent directory
@@ -533,4 +543,20 @@ public interface ExecutableCreator {
             throws CommandNotFoundException,
             NoSuchFileOrDirectory, InsufficientPermissionsException;
 
+    /**
+     * Method that creates an executable for find the duplicated files of a directory tree.
+     *
+     * @param directory The directory where to search
+     * @param asyncResultListener The listener where to return partial results
+     * @return DuplicatesExecutable A {@link DuplicatesExecutable} executable implementation
+     * reference
+     * @throws CommandNotFoundException If the executable can't be created
+     * @throws NoSuchFileOrDirectory If the file or directory was not found
+     * @throws InsufficientPermissionsException If an operation requires elevated permissions
+     */
+    DuplicatesExecutable createDuplicatesExecutable(
+            String directory, AsyncResultListener asyncResultListener)
+            throws CommandNotFoundException,
+            NoSuchFileOrDirectory, InsufficientPermissionsException;
+
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.commands.archive;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.CopyExecutable;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.console.archive.ArchiveConsole;
+import com.cyanogenmod.filemanager.console.archive.ArchiveIndex;
+import com.cyanogenmod.filemanager.model.MountPoint;
+import com.cyanogenmod.filemanager.util.TransferProgressTracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+
+/**
+ * A class for copy a file or directory out of an archive.<br/>
+ * <br/>
+ * The destination must be outside the archives (they are read-only). Only the bytes of the
+ * copied entries are read from the archive. The progress is returned as
+ * {@link com.cyanogenmod.filemanager.model.TransferProgress} partial results.
+ */
+public class CopyCommand extends Program implements CopyExecutable {
+
+    private static final String TAG = "CopyCommand"; //$NON-NLS-1$
+
+    private final String mSrc;
+    private final String mDst;
+    private final AsyncResultListener mAsyncResultListener;
+    private Boolean mResult;
+
+    private boolean mCancelled;
+    private final Object mSync = new Object();
+
+    /**
+     * Constructor of <code>CopyCommand</code>.
+     *
+     * @param console The archive console
+     * @param src The name of the file or directory to be copied
+     * @param dst The name of the file or directory in which copy the source file or directory
+     * @param asyncResultListener The partial result listener
+     */
+    public CopyCommand(ArchiveConsole console, String src, String dst,
+            AsyncResultListener asyncResultListener) {
+        super(console);
+        this.mSrc = src;
+        this.mDst = dst;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mResult = Boolean.FALSE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getWritePath() {
+        return getConsole().isArchiveResource(this.mDst) ? this.mDst : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Boolean getResult() {
+        return this.mResult;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() throws NoSuchFileOrDirectory, ExecutionException {
+        if (isTrace()) {
+            Log.v(TAG,
+                    String.format("Copying from %s to %s", //$NON-NLS-1$
+                            this.mSrc, this.mDst));
+        }
+
+        try {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncStart();
+            }
+
+            String name = getConsole().getArchiveName(this.mSrc);
+            ArchiveIndex index = name == null ? null : getConsole().getArchive(name);
+            int entry = index == null ? -1 : index.lookup(getConsole().getEntryPath(this.mSrc));
+            if (entry == -1) {
+                if (isTrace()) {
+                    Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+                }
+                throw new NoSuchFileOrDirectory(this.mSrc);
+            }
+
+            TransferProgressTracker tracker = new TransferProgressTracker(
+                    this.mAsyncResultListener, getTotalBytes(index, entry));
+            copy(index, entry, new File(this.mDst), tracker, new byte[getBufferSize()]);
+            tracker.flush();
+
+            this.mResult = Boolean.TRUE;
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncEnd(false);
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncExitCode(0);
+            }
+
+            if (isTrace()) {
+                Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+            }
+
+        } catch (InterruptedIOException iioe) {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncEnd(true);
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncExitCode(143);
+            }
+
+            if (isTrace()) {
+                Log.v(TAG, "Result: CANCELLED"); //$NON-NLS-1$
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG,
+                    String.format("Fail to copy from %s to %s", //$NON-NLS-1$
+                            this.mSrc, this.mDst), e);
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(e);
+            }
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL"); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Method that copies recursively an entry to the destination, notifying the progress
+     *
+     * @param index The index of the archive
+     * @param entry The entry to copy
+     * @param dst The destination file or folder
+     * @param tracker The progress tracker
+     * @param buffer The copy buffer
+     * @throws InterruptedIOException If the operation was cancelled
+     * @throws ExecutionException If a problem was detected in the operation
+     */
+    private void copy(ArchiveIndex index, int entry, File dst,
+            TransferProgressTracker tracker, byte[] buffer)
+            throws InterruptedIOException, ExecutionException {
+        checkCancelled();
+
+        int src = entry;
+        if (index.getType(src) == ArchiveIndex.TYPE_SYMLINK) {
+            // Copy the content of the target of the link
+            src = index.resolveLink(src);
+            if (src == -1) {
+                Log.w(TAG, String.format("Ignoring unresolved link %s", //$NON-NLS-1$
+                        index.getPath(entry)));
+                return;
+            }
+        }
+
+        if (index.isDirectory(src)) {
+            if (!dst.isDirectory() && !dst.mkdirs()) {
+                throw new ExecutionException(
+                        String.format("Failed to create directory %s", dst)); //$NON-NLS-1$
+            }
+            int first = index.getFirstChild(src);
+            int last = first + index.getChildCount(src);
+            for (int i = first; i < last; i++) {
+                copy(index, i, new File(dst, index.getName(i)), tracker, buffer);
+            }
+        } else {
+            tracker.setCurrentFile(dst.getAbsolutePath());
+            boolean copied = false;
+            InputStream is = null;
+            OutputStream os = null;
+            try {
+                is = index.openEntry(src);
+                os = new FileOutputStream(dst);
+                int read = 0;
+                while ((read = is.read(buffer, 0, buffer.length)) != -1) {
+                    os.write(buffer, 0, read);
+                    tracker.addBytes(read);
+                    checkCancelled();
+                }
+                os.close();
+                os = null;
+                copied = true;
+            } catch (InterruptedIOException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                throw new ExecutionException(
+                        String.format("Failed to copy %s", index.getPath(src)), ex); //$NON-NLS-1$
+            } finally {
+                try {
+                    if (is != null) {
+                        is.close();
+                    }
+                } catch (Throwable _throw) {/**NON BLOCK**/}
+                try {
+                    if (os != null) {
+                        os.close();
+                    }
+                } catch (Throwable _throw) {/**NON BLOCK**/}
+                if (!copied) {
+                    // Don't leave a partial file
+                    dst.delete();
+                }
+            }
+            if ((index.getMode(src) & 0111) != 0) {
+                dst.setExecutable(true, (index.getMode(src) & 0011) == 0);
+            }
+        }
+        if (index.getTime(src) > 0) {
+            dst.setLastModified(index.getTime(src));
+        }
+    }
+
+    /**
+     * Method that returns the uncompressed bytes of an entry and its descendants
+     *
+     * @param index The index of the archive
+     * @param entry The entry
+     * @return long The total bytes to copy
+     */
+    private static long getTotalBytes(ArchiveIndex index, int entry) {
+        int src = entry;
+        if (index.getType(src) == ArchiveIndex.TYPE_SYMLINK) {
+            src = index.resolveLink(src);
+            if (src == -1) {
+                return 0;
+            }
+        }
+        if (!index.isDirectory(src)) {
+            return index.getSize(src);
+        }
+        long total = 0;
+        int first = index.getFirstChild(src);
+        int last = first + index.getChildCount(src);
+        for (int i = first; i < last; i++) {
+            total += getTotalBytes(index, i);
+        }
+        return total;
+    }
+
+    /**
+     * Method that checks if the operation was cancelled
+     *
+     * @throws InterruptedIOException If the operation was cancelled
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        synchronized (this.mSync) {
+            if (this.mCancelled) {
+                throw new InterruptedIOException("cancelled"); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        synchronized (this.mSync) {
+            this.mCancelled = true;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        return cancel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Archive console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Archive console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MountPoint getSrcWritableMountPoint() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MountPoint getDstWritableMountPoint() {
+        return null;
+    }
+}
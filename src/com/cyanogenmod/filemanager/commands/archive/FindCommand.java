@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.archive;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.ConcurrentAsyncResultListener;
+import com.cyanogenmod.filemanager.commands.FindExecutable;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.console.archive.ArchiveConsole;
+import com.cyanogenmod.filemanager.console.archive.ArchiveIndex;
+import com.cyanogenmod.filemanager.model.FileSystemObject;
+import com.cyanogenmod.filemanager.model.Query;
+import com.cyanogenmod.filemanager.util.SearchHelper;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A class for search files.
+ * <br/>
+ * The search walks the index of the mounted archives, so the archives are never read.
+ */
+public class FindCommand extends Program implements FindExecutable {
+
+    private static final String TAG = "FindCommand"; //$NON-NLS-1$
+
+    private final String mDirectory;
+    private final Query mQuery;
+    private final String[] mQueryRegExp;
+    private final ConcurrentAsyncResultListener mAsyncResultListener;
+
+    private boolean mCancelled;
+    private boolean mEnded;
+    private final Object mSync = new Object();
+
+    /**
+     * Constructor of <code>FindCommand</code>.
+     *
+     * @param console The archive console
+     * @param directory The absolute directory where start the search
+     * @param query The terms to be searched
+     * @param asyncResultListener The partial result listener
+     */
+    public FindCommand(ArchiveConsole console, String directory, Query query,
+            ConcurrentAsyncResultListener asyncResultListener) {
+        super(console);
+        // This command should start the search in the root directory or in a descendent folder
+        if (!getConsole().isArchiveResource(directory)) {
+            this.mDirectory = getConsole().getVirtualMountPoint().getAbsolutePath();
+        } else {
+            this.mDirectory = directory;
+        }
+        this.mQuery = query;
+        this.mQueryRegExp = createRegexp(directory, query);
+        this.mAsyncResultListener = asyncResultListener;
+        if (mAsyncResultListener instanceof ConcurrentAsyncResultListener) {
+            ((ConcurrentAsyncResultListener) mAsyncResultListener).onRegister();
+        }
+        this.mCancelled = false;
+        this.mEnded = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() throws NoSuchFileOrDirectory, ExecutionException {
+        if (isTrace()) {
+            Log.v(TAG,
+                    String.format("Finding in %s the query %s", //$NON-NLS-1$
+                            this.mDirectory, Arrays.toString(this.mQueryRegExp)));
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncStart();
+        }
+
+        // Find the data in every mounted archive below the directory
+        String name = getConsole().getArchiveName(this.mDirectory);
+        if (name == null) {
+            for (String archive : getConsole().getMountedArchives()) {
+                if (!find(archive, 0)) {
+                    break;
+                }
+            }
+        } else {
+            ArchiveIndex index = getConsole().getArchive(name);
+            int entry = index == null
+                    ? -1 : index.lookup(getConsole().getEntryPath(this.mDirectory));
+            if (entry == -1) {
+                if (isTrace()) {
+                    Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+                }
+                if (this.mAsyncResultListener != null) {
+                    this.mAsyncResultListener.onException(
+                            new NoSuchFileOrDirectory(this.mDirectory));
+                }
+            } else if (!index.isDirectory(entry)) {
+                if (isTrace()) {
+                    Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+                }
+                if (this.mAsyncResultListener != null) {
+                    this.mAsyncResultListener.onException(
+                            new ExecutionException("path exists but it's not a folder")); //$NON-NLS-1$
+                }
+            } else {
+                find(name, entry);
+            }
+        }
+
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncEnd(this.mCancelled);
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncExitCode(0);
+        }
+
+        if (isTrace()) {
+            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method that search the descendants of a directory of an archive
+     *
+     * @param name The mount name of the archive
+     * @param dir The directory where to start the search
+     * @return boolean If the search must continue
+     */
+    private boolean find(String name, int dir) {
+        ArchiveIndex index = getConsole().getArchive(name);
+        if (index == null) {
+            return true;
+        }
+
+        // The descendants of a directory are the entries of its subtree. Walk it
+        // level by level, using the contiguous ranges of children of the index
+        int[] pending = new int[16];
+        int count = 0;
+        pending[count++] = dir;
+        while (count > 0) {
+            int parent = pending[--count];
+            int first = index.getFirstChild(parent);
+            int last = first + index.getChildCount(parent);
+            for (int i = first; i < last; i++) {
+                if (index.isDirectory(i)) {
+                    if (count == pending.length) {
+                        int[] grow = new int[pending.length * 2];
+                        System.arraycopy(pending, 0, grow, 0, count);
+                        pending = grow;
+                    }
+                    pending[count++] = i;
+                }
+
+                // Check if the file or folder matches the regexp and the constraints
+                // of the query. Only matched objects are converted to file system objects
+                try {
+                    String entryName = index.getName(i);
+                    boolean matches = false;
+                    int ccc = this.mQueryRegExp.length;
+                    for (int j = 0; j < ccc; j++) {
+                        if (entryName.matches(this.mQueryRegExp[j])) {
+                            matches = true;
+                            break;
+                        }
+                    }
+                    if (matches) {
+                        FileSystemObject fso = createFileSystemObject(name, index, i);
+                        if (SearchHelper.matchesConstraints(this.mQuery, fso)) {
+                            if (isTrace()) {
+                                Log.v(TAG, String.valueOf(fso));
+                            }
+                            if (this.mAsyncResultListener != null) {
+                                this.mAsyncResultListener.onPartialResult(fso);
+                            }
+                        }
+                    }
+                } catch (Exception e) {/**NON-BLOCK**/}
+
+                // Check if the process was cancelled
+                try {
+                    synchronized (this.mSync) {
+                        if (this.mCancelled  || this.mEnded || (mAsyncResultListener != null
+                                && mAsyncResultListener.isCancelled())) {
+                            this.mSync.notify();
+                            return false;
+                        }
+                    }
+                } catch (Exception e) {/**NON BLOCK**/}
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        try {
+            synchronized (this.mSync) {
+                this.mCancelled = true;
+                this.mSync.wait(5000L);
+            }
+        } catch (Exception e) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        try {
+            synchronized (this.mSync) {
+                this.mEnded = true;
+                this.mSync.wait(5000L);
+            }
+        } catch (Exception e) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. archive console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. archive console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+
+    /**
+     * Method that create the regexp of this command, using the directory and
+     * arguments and creating the regular expressions of the search.
+     *
+     * @param directory The directory where to search
+     * @param query The query make for user
+     * @return String[] The regexp for filtering files
+     */
+    private static String[] createRegexp(String directory, Query query) {
+        List<String> queries = query.getQueries();
+        String[] args = new String[queries.size()];
+        int cc = queries.size();
+        for (int i = 0; i < cc; i++) {
+            args[i] = SearchHelper.toIgnoreCaseRegExp(queries.get(i), true);
+        }
+        return args;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.commands.archive;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.ListExecutable;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.console.archive.ArchiveConsole;
+import com.cyanogenmod.filemanager.console.archive.ArchiveIndex;
+import com.cyanogenmod.filemanager.model.Directory;
+import com.cyanogenmod.filemanager.model.FileSystemObject;
+import com.cyanogenmod.filemanager.model.Identity;
+import com.cyanogenmod.filemanager.model.ParentDirectory;
+import com.cyanogenmod.filemanager.model.Permissions;
+import com.cyanogenmod.filemanager.util.FileHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+
+/**
+ * A class for list information about files and directories.
+ * <br/>
+ * The entries are read from the index of the archive, so the archive is never read.
+ */
+public class ListCommand extends Program implements ListExecutable {
+
+    private static final String TAG = "ListCommand"; //$NON-NLS-1$
+
+    private final String mSrc;
+    private final LIST_MODE mMode;
+    private final List<FileSystemObject> mFiles;
+
+    /**
+     * Constructor of <code>ListCommand</code>. List mode.
+     *
+     * @param console The archive console
+     * @param src The file system object to be listed
+     * @param mode The mode of listing
+     */
+    public ListCommand(ArchiveConsole console, String src, LIST_MODE mode) {
+        super(console);
+        this.mSrc = src;
+        this.mMode = mode;
+        this.mFiles = new ArrayList<FileSystemObject>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<FileSystemObject> getResult() {
+        return this.mFiles;
+    }
+
+    /**
+     * Method that returns a single result of the program invocation.
+     * Only must be called within a <code>FILEINFO</code> mode listing.
+     *
+     * @return FileSystemObject The file system object reference
+     */
+    public FileSystemObject getSingleResult() {
+        return this.mFiles.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() throws NoSuchFileOrDirectory, ExecutionException {
+        if (isTrace()) {
+            Log.v(TAG,
+                    String.format("Listing %s. Mode: %s", //$NON-NLS-1$
+                            this.mSrc, this.mMode));
+        }
+
+        String name = getConsole().getArchiveName(this.mSrc);
+        if (name == null) {
+            // The virtual mount point. The directories are the mounted archives
+            listMountPoint();
+        } else {
+            ArchiveIndex index = getConsole().getArchive(name);
+            int entry = index == null ? -1 : index.lookup(getConsole().getEntryPath(this.mSrc));
+            if (entry == -1) {
+                if (isTrace()) {
+                    Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+                }
+                throw new NoSuchFileOrDirectory(this.mSrc);
+            }
+
+            if (this.mMode.compareTo(LIST_MODE.DIRECTORY) == 0) {
+                if (!index.isDirectory(entry)) {
+                    if (isTrace()) {
+                        Log.v(TAG, "Result: FAIL. ExecutionException"); //$NON-NLS-1$
+                    }
+                    throw new ExecutionException("path exists but it's not a folder"); //$NON-NLS-1$
+                }
+
+                // The children of a directory are contiguous in the index
+                int first = index.getFirstChild(entry);
+                int last = first + index.getChildCount(entry);
+                for (int i = first; i < last; i++) {
+                    addFile(createFileSystemObject(name, index, i));
+                }
+            } else {
+                addFile(createFileSystemObject(name, index, entry));
+            }
+        }
+
+        //Now if not is the root directory, add the parent directory
+        if (this.mSrc.compareTo(FileHelper.ROOT_DIRECTORY) != 0 &&
+                this.mMode.compareTo(LIST_MODE.DIRECTORY) == 0) {
+            this.mFiles.add(0, new ParentDirectory(new File(this.mSrc).getParent()));
+        }
+
+        if (isTrace()) {
+            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method that lists the virtual mount point of the console
+     */
+    private void listMountPoint() {
+        if (this.mMode.compareTo(LIST_MODE.DIRECTORY) == 0) {
+            for (String name : getConsole().getMountedArchives()) {
+                ArchiveIndex index = getConsole().getArchive(name);
+                if (index != null) {
+                    addFile(createFileSystemObject(name, index, 0));
+                }
+            }
+        } else {
+            File mp = getConsole().getVirtualMountPoint();
+            Identity identity = getConsole().getIdentity();
+            Date date = new Date(System.currentTimeMillis());
+            addFile(new Directory(mp.getName(), mp.getParent(),
+                    identity != null ? identity.getUser() : null,
+                    identity != null ? identity.getGroup() : null,
+                    Permissions.createDefaultFolderPermissions(), date, date, date));
+        }
+    }
+
+    /**
+     * Method that adds a file system object to the result
+     *
+     * @param fso The file system object
+     */
+    private void addFile(FileSystemObject fso) {
+        if (isTrace()) {
+            Log.v(TAG, String.valueOf(fso));
+        }
+        this.mFiles.add(fso);
+    }
+}
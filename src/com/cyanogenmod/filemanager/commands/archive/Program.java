@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.commands.archive;
+
+import com.cyanogenmod.filemanager.commands.Executable;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.console.archive.ArchiveConsole;
+import com.cyanogenmod.filemanager.console.archive.ArchiveIndex;
+import com.cyanogenmod.filemanager.model.Directory;
+import com.cyanogenmod.filemanager.model.FileSystemObject;
+import com.cyanogenmod.filemanager.model.Group;
+import com.cyanogenmod.filemanager.model.Identity;
+import com.cyanogenmod.filemanager.model.Permissions;
+import com.cyanogenmod.filemanager.model.RegularFile;
+import com.cyanogenmod.filemanager.model.Symlink;
+import com.cyanogenmod.filemanager.model.User;
+
+import java.io.File;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Locale;
+
+
+/**
+ * An abstract base class for all archive executables.
+ */
+public abstract class Program implements Executable {
+
+    private final ArchiveConsole mConsole;
+    private boolean mTrace;
+    private int mBufferSize;
+
+    /**
+     * Constructor of <code>Program</code>
+     *
+     * @param console The archive console
+     */
+    public Program(ArchiveConsole console) {
+        super();
+        this.mConsole = console;
+    }
+
+    /**
+     * Method that return if the command has to trace his operations
+     *
+     * @return boolean If the command has to trace
+     */
+    public boolean isTrace() {
+        return this.mTrace;
+    }
+
+    /**
+     * Method that sets if the command has to trace his operations
+     *
+     * @param trace If the command has to trace
+     */
+    public void setTrace(boolean trace) {
+        this.mTrace = trace;
+    }
+
+    /**
+     * Method that return the buffer size of the program
+     *
+     * @return int The buffer size of the program
+     */
+    public int getBufferSize() {
+        return this.mBufferSize;
+    }
+
+    /**
+     * Method that sets the buffer size of the program
+     *
+     * @param bufferSize The buffer size of the program
+     */
+    public void setBufferSize(int bufferSize) {
+        this.mBufferSize = bufferSize;
+    }
+
+    /**
+     * Method that returns the current console of the program
+     *
+     * @return ArchiveConsole The current console
+     */
+    public ArchiveConsole getConsole() {
+        return this.mConsole;
+    }
+
+    /**
+     * Method that returns if this program uses an asynchronous model. <code>false</code>
+     * by default.
+     *
+     * @return boolean If this program uses an asynchronous model
+     */
+    @SuppressWarnings("static-method")
+    public boolean isAsynchronous() {
+        return false;
+    }
+
+    /**
+     * Method that returns the path inside the archives that the program writes. Archives
+     * are mounted read-only, so the console refuses to execute these programs.
+     *
+     * @return String The path that the program writes, or <code>null</code> if the program
+     * doesn't write inside the archives
+     */
+    public String getWritePath() {
+        return null;
+    }
+
+    /**
+     * Method that executes the program
+     *
+     * @throws NoSuchFileOrDirectory If the file or directory was not found
+     * @throws ExecutionException If the operation returns a invalid exit code
+     */
+    public abstract void execute()
+            throws NoSuchFileOrDirectory, ExecutionException;
+
+    /**
+     * Method that creates the file system object of an entry of a mounted archive
+     *
+     * @param name The mount name of the archive
+     * @param index The index of the archive
+     * @param entry The entry
+     * @return FileSystemObject The file system object of the entry, with its virtual path
+     */
+    protected FileSystemObject createFileSystemObject(
+            String name, ArchiveIndex index, int entry) {
+        String mountPath = getConsole().getMountPath(name);
+        String fsoName;
+        String parent;
+        if (entry == 0) {
+            // The root directory of the archive is named as the archive
+            fsoName = name;
+            parent = getConsole().getVirtualMountPoint().getAbsolutePath();
+        } else {
+            fsoName = index.getName(entry);
+            int p = index.getParent(entry);
+            parent = p == 0 ? mountPath : mountPath + File.separator + index.getPath(p);
+        }
+
+        Identity identity = getConsole().getIdentity();
+        User user = identity != null ? identity.getUser() : null;
+        Group group = identity != null ? identity.getGroup() : null;
+        Date date = new Date(index.getTime(entry));
+        switch (index.getType(entry)) {
+            case ArchiveIndex.TYPE_DIRECTORY:
+                return new Directory(fsoName, parent, user, group,
+                        toPermissions(index.getMode(entry), true), date, date, date);
+
+            case ArchiveIndex.TYPE_SYMLINK:
+                Symlink symlink = new Symlink(fsoName, index.getLink(entry), parent, user, group,
+                        toPermissions(index.getMode(entry), false), date, date, date);
+                int target = index.resolveLink(entry);
+                if (target != -1) {
+                    symlink.setLinkRef(createFileSystemObject(name, index, target));
+                }
+                return symlink;
+
+            default:
+                return new RegularFile(fsoName, parent, user, group,
+                        toPermissions(index.getMode(entry), false), index.getSize(entry),
+                        date, date, date);
+        }
+    }
+
+    /**
+     * Method that converts the mode of an entry to permissions
+     *
+     * @param mode The mode of the entry
+     * @param directory If the entry is a directory
+     * @return Permissions The permissions of the entry
+     */
+    private static Permissions toPermissions(int mode, boolean directory) {
+        if ((mode & 0777) != 0) {
+            try {
+                return Permissions.fromOctalString(
+                        String.format(Locale.ROOT, "%04o", //$NON-NLS-1$
+                                Integer.valueOf(mode & 07777)));
+            } catch (ParseException ex) {
+                // Use the default permissions
+            }
+        }
+        // The archive doesn't have the permissions of the entry
+        return directory
+                ? Permissions.createDefaultFolderPermissions()
+                : Permissions.createDefaultFilePermissions();
+    }
+}
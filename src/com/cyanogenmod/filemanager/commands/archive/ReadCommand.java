@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2012 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.archive;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.ReadExecutable;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.console.archive.ArchiveConsole;
+import com.cyanogenmod.filemanager.console.archive.ArchiveIndex;
+
+import java.io.InputStream;
+
+/**
+ * A class for read a file.
+ * <br/>
+ * Only the bytes of the entry are read from the archive.
+ */
+public class ReadCommand extends Program implements ReadExecutable {
+
+    private static final String TAG = "ReadCommand"; //$NON-NLS-1$
+
+    private final String mFile;
+    private final AsyncResultListener mAsyncResultListener;
+
+    private boolean mCancelled;
+    private boolean mEnded;
+    private final Object mSync = new Object();
+
+    /**
+     * Constructor of <code>ReadCommand</code>.
+     *
+     * @param console The archive console
+     * @param file The file to read
+     * @param asyncResultListener The partial result listener
+     */
+    public ReadCommand(ArchiveConsole console, String file,
+            AsyncResultListener asyncResultListener) {
+        super(console);
+        this.mFile = file;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mCancelled = false;
+        this.mEnded = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() throws NoSuchFileOrDirectory, ExecutionException {
+        if (isTrace()) {
+            Log.v(TAG,
+                    String.format("Reading file %s", this.mFile)); //$NON-NLS-1$
+
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncStart();
+        }
+
+        String name = getConsole().getArchiveName(this.mFile);
+        ArchiveIndex index = name == null ? null : getConsole().getArchive(name);
+        int entry = index == null ? -1 : index.lookup(getConsole().getEntryPath(this.mFile));
+        if (entry != -1 && index.getType(entry) == ArchiveIndex.TYPE_SYMLINK) {
+            entry = index.resolveLink(entry);
+        }
+        if (entry == -1) {
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(new NoSuchFileOrDirectory(this.mFile));
+            }
+        } else if (index.getType(entry) != ArchiveIndex.TYPE_FILE) {
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(
+                        new ExecutionException("path exists but it's not a file")); //$NON-NLS-1$
+            }
+        } else {
+            // Read the file
+            read(index, entry);
+        }
+
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncEnd(this.mCancelled);
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncExitCode(0);
+        }
+
+        if (isTrace()) {
+            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method that read the file
+     *
+     * @param index The index of the archive
+     * @param entry The entry to read
+     */
+    private void read(ArchiveIndex index, int entry) {
+        // Read the file
+        InputStream is = null;
+        try {
+            is = index.openEntry(entry);
+            int read = 0;
+            byte[] data = new byte[getBufferSize()];
+            while ((read = is.read(data, 0, getBufferSize())) != -1) {
+                if (this.mAsyncResultListener != null) {
+                    byte[] readData = new byte[read];
+                    System.arraycopy(data, 0, readData, 0, read);
+                    this.mAsyncResultListener.onPartialResult(readData);
+
+                    // Check if the process was cancelled
+                    try {
+                        synchronized (this.mSync) {
+                            if (this.mCancelled  || this.mEnded) {
+                                this.mSync.notify();
+                                break;
+                            }
+                        }
+                    } catch (Exception e) {/**NON BLOCK**/}
+                }
+            }
+
+        } catch (Exception e) {
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL. ExecutionException"); //$NON-NLS-1$
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(new ExecutionException(
+                        "failed to read file", e));
+            }
+
+        } finally {
+            try {
+                if (is != null) {
+                    is.close();
+                }
+            } catch (Throwable _throw) {/**NON BLOCK**/}
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        try {
+            synchronized (this.mSync) {
+                this.mCancelled = true;
+                this.mSync.wait(5000L);
+            }
+        } catch (Exception e) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        try {
+            synchronized (this.mSync) {
+                this.mEnded = true;
+                this.mSync.wait(5000L);
+            }
+        } catch (Exception e) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+}
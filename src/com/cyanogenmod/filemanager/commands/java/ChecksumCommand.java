@@ -18,34 +18,48 @@ package com.cyanogenmod.filemanager.commands.java;
 
 import android.util.Log;
 
-import com.android.internal.util.HexDump;
 import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.ChecksumExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.model.ByteProgress;
+
+import com.cyanogenmod.filemanager.util.MultiDigest;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStream;
-import java.security.MessageDigest;
-import java.util.Locale;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 /**
- * A class for calculate MD5 and SHA-1 checksums of a file system object.<br />
+ * A class for calculate MD5, SHA-1, SHA-256 and CRC32 checksums of a file system object.<br />
  * <br />
- * Partial results are returned in order (MD5 -> SHA1)
+ * The file is read only once and every read buffer feeds all the checksums. The progress is
+ * returned as {@link ByteProgress} partial results; then the checksums are returned in
+ * order (MD5 -> SHA1 -> SHA256 -> CRC32)
  */
 public class ChecksumCommand extends Program implements ChecksumExecutable {
 
     private static final String TAG = "ChecksumCommand"; //$NON-NLS-1$
 
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    // The windows stay mapped until they are collected, so bigger files are read instead
+    // of mapped (the address space of a 32-bit process is easily exhausted)
+    private static final long MAP_MAX_SIZE = 4 * MAP_WINDOW_SIZE;
+    private static final int UPDATE_SIZE = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL = 250L;
+
     private final File mSrc;
     private final String[] mChecksums;
     private final AsyncResultListener mAsyncResultListener;
 
     private boolean mCancelled;
     private final Object mSync = new Object();
+    private long mLastProgress;
 
     /**
      * Constructor of <code>ChecksumCommand</code>.
@@ -57,7 +71,7 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
             String src, AsyncResultListener asyncResultListener) {
         super();
         this.mAsyncResultListener = asyncResultListener;
-        this.mChecksums = new String[]{null, null};
+        this.mChecksums = new String[CHECKSUMS.values().length];
         this.mSrc = new File(src);
     }
 
@@ -89,16 +103,13 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
             throw new NoSuchFileOrDirectory(this.mSrc.getAbsolutePath());
         }
 
-        CHECKSUMS checksum = CHECKSUMS.MD5;
         try {
             if (this.mAsyncResultListener != null) {
                 this.mAsyncResultListener.onAsyncStart();
             }
 
             // Calculate digests
-            calculateDigest(checksum);
-            checksum = CHECKSUMS.SHA1;
-            calculateDigest(checksum);
+            calculateDigests();
 
             if (this.mAsyncResultListener != null) {
                 this.mAsyncResultListener.onAsyncEnd(false);
@@ -126,8 +137,7 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
         } catch (Exception e) {
             Log.e(TAG,
                     String.format(
-                            "Fail to calculate %s checksum of file %s", //$NON-NLS-1$
-                            checksum.name(),
+                            "Fail to calculate checksums of file %s", //$NON-NLS-1$
                             this.mSrc.getAbsolutePath()),
                     e);
             if (this.mAsyncResultListener != null) {
@@ -219,45 +229,129 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
     }
 
     /**
-     * Method that calculate a digest of the file for the source file
+     * Method that calculates all the digests of the source file reading it only once
      *
-     * @param type The type of digest to obtain
      * @throws InterruptedException If the operation was cancelled
      * @throws Exception If an error occurs
      */
-    private void calculateDigest(CHECKSUMS type) throws InterruptedException, Exception {
-
-        InputStream is = null;
+    private void calculateDigests() throws InterruptedException, Exception {
+        long total = this.mSrc.length();
+        MultiDigest digest = new MultiDigest(
+                CHECKSUMS.values(), MultiDigest.isParallelWorth(total));
+        FileInputStream fis = null;
         try {
-            MessageDigest md = MessageDigest.getInstance(type.name());
-            is = new FileInputStream(this.mSrc);
-
-            // Start digesting
-            byte[] data = new byte[getBufferSize()];
-            int read = 0;
-            while ((read = is.read(data, 0, getBufferSize())) != -1) {
-                checkCancelled();
-                md.update(data, 0, read);
+            fis = new FileInputStream(this.mSrc);
+            FileChannel channel = fis.getChannel();
+
+            // Map the file by windows. Special files, big files (or a failed map) are
+            // read through a direct buffer
+            long position = 0;
+            boolean mapped = total > 0 && total <= MAP_MAX_SIZE;
+            try {
+                while (mapped && position < total) {
+                    long len = Math.min(MAP_WINDOW_SIZE, total - position);
+                    ByteBuffer window = channel.map(MapMode.READ_ONLY, position, len);
+                    consume(digest, window, position, total);
+                    position += len;
+                }
+            } catch (IOException ioex) {
+                if (isTrace()) {
+                    Log.v(TAG, "Failed to map the file. Reading it", ioex); //$NON-NLS-1$
+                }
+                mapped = false;
+            } catch (OutOfMemoryError oom) {
+                // No address space left to map the window
+                if (isTrace()) {
+                    Log.v(TAG, "Failed to map the file. Reading it", oom); //$NON-NLS-1$
+                }
+                mapped = false;
+            }
+            if (!mapped) {
+                channel.position(position);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+                int read = 0;
+                while ((read = channel.read(buffer)) != -1) {
+                    buffer.flip();
+                    consume(digest, buffer, position, total);
+                    position += read;
+                    buffer.clear();
+                }
             }
             checkCancelled();
 
             // Finally digest
-            this.mChecksums[type.ordinal()] =
-                    HexDump.toHexString(md.digest()).toLowerCase(Locale.ROOT);
-            checkCancelled();
-            if (this.mAsyncResultListener != null) {
-                this.mAsyncResultListener.onPartialResult(this.mChecksums[type.ordinal()]);
-            }
+            notifyProgress(position, total, true);
+            setDigests(digest.digest());
 
         } finally {
+            digest.release();
             try {
-                if (is != null) {
-                    is.close();
+                if (fis != null) {
+                    fis.close();
                 }
             } catch (Exception e) {/**NON BLOCK**/}
         }
     }
 
+    /**
+     * Method that feeds the digests with a buffer, in slices, checking for cancellation
+     * and notifying the progress
+     *
+     * @param digest The digests
+     * @param buffer The buffer
+     * @param position The position of the buffer in the file
+     * @param total The size of the file
+     * @throws InterruptedException If the operation was cancelled
+     */
+    private void consume(MultiDigest digest, ByteBuffer buffer, long position, long total)
+            throws InterruptedException {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        while (buffer.position() < limit) {
+            checkCancelled();
+            buffer.limit(Math.min(limit, buffer.position() + UPDATE_SIZE));
+            digest.update(buffer);
+            notifyProgress(position + buffer.position() - start, total, false);
+        }
+    }
+
+    /**
+     * Method that stores the digests and returns them as partial results
+     *
+     * @param digests The digests, in the order of {@link CHECKSUMS}
+     * @throws InterruptedException If the operation was cancelled
+     */
+    private void setDigests(String[] digests) throws InterruptedException {
+        for (int i = 0; i < digests.length; i++) {
+            this.mChecksums[i] = digests[i];
+        }
+        for (int i = 0; i < digests.length; i++) {
+            checkCancelled();
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onPartialResult(digests[i]);
+            }
+        }
+    }
+
+    /**
+     * Method that notifies the progress, at most once per {@link #PROGRESS_INTERVAL}
+     * milliseconds
+     *
+     * @param read The bytes read
+     * @param total The total bytes
+     * @param force Notify regardless the time of the last notification
+     */
+    private void notifyProgress(long read, long total, boolean force) {
+        if (this.mAsyncResultListener == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (force || now - this.mLastProgress >= PROGRESS_INTERVAL) {
+            this.mLastProgress = now;
+            this.mAsyncResultListener.onPartialResult(new ByteProgress(read, total));
+        }
+    }
+
     /**
      * Checks if the operation was cancelled
      *
@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.commands.java;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultExecutable;
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.CompressExecutable;
+import com.cyanogenmod.filemanager.console.CancelledOperationException;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.preferences.CompressionMode;
+import com.cyanogenmod.filemanager.util.BZip2OutputStream;
+import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.ParallelGzipOutputStream;
+import com.cyanogenmod.filemanager.util.ParallelZipOutputStream;
+import com.cyanogenmod.filemanager.util.TarOutputStream;
+import com.cyanogenmod.filemanager.util.TransferProgressTracker;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class for compress file system objects.<br/>
+ * <br/>
+ * The archives are written in one pass, streaming the content of the files straight to the
+ * compressor (without temporary files). Gzip, bzip2 and zip compress blocks of the data in
+ * parallel. The names of the archived entries are returned as partial results (in the same
+ * way as the shell command), along with the progress of the operation as
+ * {@link com.cyanogenmod.filemanager.model.TransferProgress} partial results.
+ */
+public class CompressCommand extends Program
+        implements CompressExecutable, AsyncResultExecutable {
+
+    private static final String TAG = "CompressCommand"; //$NON-NLS-1$
+
+    // The size of the buffer used to read the files and to write the archive
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final CompressionMode mMode;
+    private final String mOutFile;
+    private final String[] mSrc;
+    private final AsyncResultListener mAsyncResultListener;
+    private Boolean mResult;
+
+    private boolean mCancelled;
+    private final Object mSync = new Object();
+
+    /**
+     * Constructor of <code>CompressCommand</code>. This method creates an archive-compressed
+     * file from one or various file system objects.
+     *
+     * @param mode The compression mode
+     * @param dst The absolute path of the new compress file
+     * @param src An array of file system objects to compress
+     * @param asyncResultListener The partial result listener
+     */
+    public CompressCommand(
+            CompressionMode mode, String dst, String[] src,
+            AsyncResultListener asyncResultListener) {
+        super();
+        this.mMode = mode;
+        this.mOutFile = dst;
+        this.mSrc = src;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mResult = Boolean.FALSE;
+    }
+
+    /**
+     * Constructor of <code>CompressCommand</code>. This method creates a compressed
+     * file from one file.
+     *
+     * @param mode The compression mode
+     * @param src The file to compress
+     * @param asyncResultListener The partial result listener
+     */
+    public CompressCommand(
+            CompressionMode mode, String src, AsyncResultListener asyncResultListener) {
+        super();
+        this.mMode = mode;
+        this.mOutFile = String.format("%s.%s", src, mode.mExtension); //$NON-NLS-1$
+        this.mSrc = new String[]{src};
+        this.mAsyncResultListener = asyncResultListener;
+        this.mResult = Boolean.FALSE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Boolean getResult() {
+        return this.mResult;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getOutCompressedFile() {
+        return this.mOutFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute()
+            throws InsufficientPermissionsException, NoSuchFileOrDirectory, ExecutionException {
+        if (isTrace()) {
+            Log.v(TAG,
+                    String.format("Compressing to %s (%s)", //$NON-NLS-1$
+                            this.mOutFile, this.mMode));
+        }
+
+        File out = new File(this.mOutFile);
+        boolean created = false;
+        try {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncStart();
+            }
+
+            // Collect the entries first, for an accurate progress
+            List<Entry> entries = new ArrayList<Entry>();
+            long total = 0;
+            String parent = out.getParent() != null ? out.getParent() : File.separator;
+            for (String src : this.mSrc) {
+                File f = new File(src);
+                String name = this.mMode.mArchive
+                        ? toEntryName(FileHelper.toRelativePath(src, parent))
+                        : f.getName();
+                total += collect(f, name, entries);
+            }
+            if (!this.mMode.mArchive
+                    && (entries.size() != 1 || entries.get(0).mLink != null)) {
+                throw new ExecutionException(
+                        "the path is not a regular file: " + this.mSrc[0]); //$NON-NLS-1$
+            }
+
+            TransferProgressTracker tracker =
+                    new TransferProgressTracker(this.mAsyncResultListener, total);
+            created = true;
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(out), BUFFER_SIZE);
+            try {
+                write(os, entries, tracker);
+            } finally {
+                os.close();
+            }
+            tracker.flush();
+
+            if (isCancelled()) {
+                deleteQuietly(out);
+            } else if (!this.mMode.mArchive) {
+                // The shell commands replace the file with the compressed file
+                if (!new File(this.mSrc[0]).delete()) {
+                    Log.w(TAG, String.format(
+                            "Fail to delete the compressed file %s", //$NON-NLS-1$
+                            this.mSrc[0]));
+                }
+            }
+
+            this.mResult = Boolean.valueOf(!isCancelled());
+            notifyEnd();
+
+        } catch (CancelledOperationException e) {
+            deleteQuietly(out);
+            notifyEnd();
+
+        } catch (Exception e) {
+            Log.e(TAG,
+                    String.format("Fail to compress to %s", this.mOutFile), e); //$NON-NLS-1$
+            if (created) {
+                deleteQuietly(out);
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(e);
+            }
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL"); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Method that writes the entries to the compressed file
+     *
+     * @param os The stream of the compressed file
+     * @param entries The entries to write
+     * @param tracker The progress tracker
+     * @throws IOException If an I/O error occurs
+     */
+    private void write(OutputStream os, List<Entry> entries, TransferProgressTracker tracker)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        if (this.mMode == CompressionMode.A_ZIP) {
+            ParallelZipOutputStream zos = new ParallelZipOutputStream(os);
+            try {
+                for (Entry entry : entries) {
+                    checkCancelled();
+                    onEntry(entry, tracker);
+                    if (entry.mLink != null) {
+                        zos.putSymlink(entry.mName, entry.mLink, entry.mTime);
+                    } else if (entry.mDirectory) {
+                        zos.putDirectory(entry.mName, entry.mMode, entry.mTime);
+                    } else {
+                        zos.putFile(entry.mName, entry.mMode, entry.mTime, entry.mSize);
+                        copy(entry.mFile, zos, buffer, tracker);
+                        zos.closeEntry();
+                    }
+                }
+                zos.finish();
+            } finally {
+                zos.release();
+            }
+            return;
+        }
+
+        // Gzip and bzip2 compress the file or the tar archive
+        OutputStream cos = os;
+        if (this.mMode == CompressionMode.AC_GZIP || this.mMode == CompressionMode.AC_GZIP2
+                || this.mMode == CompressionMode.C_GZIP) {
+            cos = new ParallelGzipOutputStream(os);
+        } else if (this.mMode == CompressionMode.AC_BZIP
+                || this.mMode == CompressionMode.C_BZIP) {
+            cos = new BZip2OutputStream(os);
+        }
+        try {
+            if (!this.mMode.mArchive) {
+                Entry entry = entries.get(0);
+                tracker.setCurrentFile(entry.mFile.getAbsolutePath());
+                copy(entry.mFile, cos, buffer, tracker);
+            } else {
+                TarOutputStream tar = new TarOutputStream(cos);
+                for (Entry entry : entries) {
+                    checkCancelled();
+                    onEntry(entry, tracker);
+                    if (entry.mLink != null) {
+                        tar.putEntry(entry.mName, TarOutputStream.TYPE_SYMLINK,
+                                0777, 0, entry.mTime, entry.mLink);
+                    } else if (entry.mDirectory) {
+                        tar.putEntry(entry.mName, TarOutputStream.TYPE_DIRECTORY,
+                                entry.mMode, 0, entry.mTime, null);
+                    } else {
+                        tar.putEntry(entry.mName, TarOutputStream.TYPE_FILE,
+                                entry.mMode, entry.mSize, entry.mTime, null);
+                        copy(entry.mFile, tar, buffer, tracker);
+                    }
+                    tar.closeEntry();
+                }
+                tar.finish();
+            }
+            // Complete the compressed stream
+            cos.close();
+        } finally {
+            if (cos instanceof ParallelGzipOutputStream) {
+                ((ParallelGzipOutputStream)cos).release();
+            } else if (cos instanceof BZip2OutputStream) {
+                ((BZip2OutputStream)cos).release();
+            }
+        }
+    }
+
+    /**
+     * Method that copies the content of a file to the archive. The file must have the
+     * same size that when the entries were collected.
+     *
+     * @param file The file
+     * @param os The stream of the archive
+     * @param buffer The buffer
+     * @param tracker The progress tracker
+     * @throws IOException If an I/O error occurs
+     */
+    private void copy(File file, OutputStream os, byte[] buffer, TransferProgressTracker tracker)
+            throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                checkCancelled();
+                os.write(buffer, 0, read);
+                tracker.addBytes(read);
+            }
+        } finally {
+            try {
+                is.close();
+            } catch (Throwable _throw) {/**NON BLOCK**/}
+        }
+    }
+
+    /**
+     * Method that notifies an entry being archived
+     *
+     * @param entry The entry
+     * @param tracker The progress tracker
+     */
+    private void onEntry(Entry entry, TransferProgressTracker tracker) {
+        tracker.setCurrentFile(entry.mFile.getAbsolutePath());
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onPartialResult(entry.mName);
+        }
+    }
+
+    /**
+     * Method that collects the entries of a file system object (recursively, but without
+     * following the symbolic links)
+     *
+     * @param file The file system object
+     * @param name The name of the entry
+     * @param entries The list where to add the entries
+     * @return long The size of the files
+     * @throws IOException If the file system object can't be read
+     * @throws NoSuchFileOrDirectory If the file system object doesn't exists
+     * @throws InsufficientPermissionsException If the folder can't be listed
+     */
+    private long collect(File file, String name, List<Entry> entries)
+            throws IOException, NoSuchFileOrDirectory, InsufficientPermissionsException {
+        checkCancelled();
+        StructStat st;
+        try {
+            st = Os.lstat(file.getAbsolutePath());
+        } catch (ErrnoException ex) {
+            throw new NoSuchFileOrDirectory(file.getAbsolutePath());
+        }
+
+        Entry entry = new Entry(file, name, st);
+        if (OsConstants.S_ISLNK(st.st_mode)) {
+            try {
+                entry.mLink = Os.readlink(file.getAbsolutePath());
+            } catch (ErrnoException ex) {
+                throw new IOException(ex);
+            }
+            entries.add(entry);
+            return 0;
+        }
+        if (OsConstants.S_ISREG(st.st_mode)) {
+            entries.add(entry);
+            return entry.mSize;
+        }
+        if (!OsConstants.S_ISDIR(st.st_mode)) {
+            // Devices, pipes and sockets are not archived
+            return 0;
+        }
+
+        entry.mDirectory = true;
+        entry.mName = name + File.separator;
+        entries.add(entry);
+        String[] children = file.list();
+        if (children == null) {
+            throw new InsufficientPermissionsException();
+        }
+        long total = 0;
+        for (String child : children) {
+            total += collect(new File(file, child), entry.mName + child, entries);
+        }
+        return total;
+    }
+
+    /**
+     * Method that throws a {@link CancelledOperationException} if the operation was cancelled
+     *
+     * @throws CancelledOperationException If the operation was cancelled
+     */
+    private void checkCancelled() throws CancelledOperationException {
+        if (isCancelled()) {
+            throw new CancelledOperationException();
+        }
+    }
+
+    /**
+     * Method that converts a relative path to an archive entry name, removing the leading
+     * parent references (in the same way as <code>tar</code>)
+     *
+     * @param path The relative path
+     * @return String The name of the entry
+     */
+    private static String toEntryName(String path) {
+        String name = path;
+        while (name.startsWith(File.separator) || name.startsWith(".." + File.separator)) { //$NON-NLS-1$
+            name = name.substring(name.indexOf(File.separator) + 1);
+        }
+        return name;
+    }
+
+    /**
+     * Method that deletes a file, ignoring any error
+     *
+     * @param file The file to delete
+     */
+    private static void deleteQuietly(File file) {
+        try {
+            if (!file.delete()) {
+                Log.w(TAG, String.format(
+                        "Fail to delete the partial file %s", file)); //$NON-NLS-1$
+            }
+        } catch (Throwable _throw) {/**NON BLOCK**/}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        synchronized (this.mSync) {
+            this.mCancelled = true;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        return cancel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+
+    /**
+     * Method that notifies the end of the operation
+     */
+    private void notifyEnd() {
+        boolean cancelled = isCancelled();
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncEnd(cancelled);
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncExitCode(cancelled ? 143 : 0);
+        }
+        if (isTrace()) {
+            Log.v(TAG, cancelled ? "Result: CANCELLED" : "Result: OK"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * An entry of the archive
+     */
+    private static class Entry {
+        final File mFile;
+        String mName;
+        final int mMode;
+        final long mSize;
+        final long mTime;
+        boolean mDirectory;
+        String mLink;
+
+        Entry(File file, String name, StructStat st) {
+            super();
+            this.mFile = file;
+            this.mName = name;
+            this.mMode = st.st_mode & 07777;
+            this.mSize = st.st_size;
+            this.mTime = st.st_mtime * 1000L;
+        }
+    }
+}
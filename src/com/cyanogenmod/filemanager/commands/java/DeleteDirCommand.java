@@ -18,34 +18,58 @@ package com.cyanogenmod.filemanager.commands.java;
 
 import android.util.Log;
 
+import com.cyanogenmod.filemanager.commands.AsyncResultExecutable;
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.DeleteDirExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.model.MountPoint;
-import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.DeleteProgressTracker;
+import com.cyanogenmod.filemanager.util.DeleteScheduler;
 import com.cyanogenmod.filemanager.util.MountPointHelper;
 
 import java.io.File;
 
 
 /**
- * A class for delete a folder.
+ * A class for delete a folder.<br/>
+ * <br/>
+ * The folder is deleted with a pool of workers (see {@link DeleteScheduler}) and the progress
+ * is returned as {@link com.cyanogenmod.filemanager.model.DeleteProgress} partial results.
  */
-public class DeleteDirCommand extends Program implements DeleteDirExecutable {
+public class DeleteDirCommand extends Program
+        implements DeleteDirExecutable, AsyncResultExecutable {
 
     private static final String TAG = "DeleteDirCommand"; //$NON-NLS-1$
 
     private final String mPath;
+    private final AsyncResultListener mAsyncResultListener;
+    private Boolean mResult;
+
+    private boolean mCancelled;
+    private DeleteScheduler mScheduler;
+    private final Object mSync = new Object();
 
     /**
      * Constructor of <code>DeleteDirCommand</code>.
      *
      * @param path The name of the new folder
+     * @param asyncResultListener The partial result listener
      */
-    public DeleteDirCommand(String path) {
+    public DeleteDirCommand(String path, AsyncResultListener asyncResultListener) {
         super();
         this.mPath = path;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mResult = Boolean.FALSE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
     }
 
     /**
@@ -53,7 +77,7 @@ public class DeleteDirCommand extends Program implements DeleteDirExecutable {
      */
     @Override
     public Boolean getResult() {
-        return Boolean.TRUE;
+        return this.mResult;
     }
 
     /**
@@ -67,33 +91,138 @@ public class DeleteDirCommand extends Program implements DeleteDirExecutable {
                     String.format("Deleting directory: %s", this.mPath)); //$NON-NLS-1$
         }
 
-        File f = new File(this.mPath);
-        if (!f.exists()) {
-            if (isTrace()) {
-                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+        try {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncStart();
             }
-            throw new NoSuchFileOrDirectory(this.mPath);
-        }
 
-        // Check that if the path exist, it need to be a folder. Otherwise something is
-        // wrong
-        if (f.exists() && !f.isDirectory()) {
-            if (isTrace()) {
-                Log.v(TAG, "Result: FAIL. ExecutionException"); //$NON-NLS-1$
+            File f = new File(this.mPath);
+            if (!f.exists()) {
+                if (isTrace()) {
+                    Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+                }
+                throw new NoSuchFileOrDirectory(this.mPath);
             }
-            throw new ExecutionException("the path exists but is not a folder"); //$NON-NLS-1$
-        }
 
-        // Delete the file
-        if (!FileHelper.deleteFolder(f)) {
+            // Check that if the path exist, it need to be a folder. Otherwise something is
+            // wrong
+            if (f.exists() && !f.isDirectory()) {
+                if (isTrace()) {
+                    Log.v(TAG, "Result: FAIL. ExecutionException"); //$NON-NLS-1$
+                }
+                throw new ExecutionException("the path exists but is not a folder"); //$NON-NLS-1$
+            }
+
+            // Delete the folder
+            DeleteProgressTracker tracker = new DeleteProgressTracker(this.mAsyncResultListener);
+            DeleteScheduler scheduler = new DeleteScheduler(tracker);
+            boolean cancelled;
+            synchronized (this.mSync) {
+                cancelled = this.mCancelled;
+                this.mScheduler = scheduler;
+            }
+            if (!cancelled && !scheduler.delete(f) && !scheduler.isCancelled()) {
+                if (isTrace()) {
+                    Log.v(TAG, "Result: FAIL. InsufficientPermissionsException"); //$NON-NLS-1$
+                }
+                throw new InsufficientPermissionsException();
+            }
+            tracker.flush();
+
+            this.mResult = Boolean.valueOf(!isCancelled());
+            notifyEnd();
+
+        } catch (Exception e) {
+            Log.e(TAG,
+                    String.format("Fail to delete directory %s", this.mPath), e); //$NON-NLS-1$
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(e);
+            }
             if (isTrace()) {
-                Log.v(TAG, "Result: FAIL. InsufficientPermissionsException"); //$NON-NLS-1$
+                Log.v(TAG, "Result: FAIL"); //$NON-NLS-1$
             }
-            throw new InsufficientPermissionsException();
         }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        try {
+            synchronized (this.mSync) {
+                this.mCancelled = true;
+                if (this.mScheduler != null) {
+                    this.mScheduler.cancel();
+                }
+            }
+        } catch (Throwable _throw) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        return cancel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+
+    /**
+     * Method that notifies the end of the operation
+     */
+    private void notifyEnd() {
+        boolean cancelled = isCancelled();
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncEnd(cancelled);
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncExitCode(cancelled ? 143 : 0);
+        }
         if (isTrace()) {
-            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+            Log.v(TAG, cancelled ? "Result: CANCELLED" : "Result: OK"); //$NON-NLS-1$ //$NON-NLS-2$
         }
     }
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.java;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.DuplicatesExecutable;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.model.DuplicateGroup;
+import com.cyanogenmod.filemanager.util.DuplicateFinder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A class for find the duplicated files of a directory tree.
+ *
+ * @see DuplicateFinder
+ */
+public class DuplicatesCommand extends Program implements DuplicatesExecutable {
+
+    private static final String TAG = "DuplicatesCommand"; //$NON-NLS-1$
+
+    private final String mDirectory;
+    private final AsyncResultListener mAsyncResultListener;
+    private final DuplicateFinder mFinder;
+
+    private boolean mCancelled;
+    private boolean mEnded;
+    private final Object mSync = new Object();
+
+    /**
+     * Constructor of <code>DuplicatesCommand</code>.
+     *
+     * @param directory The absolute directory where start the search
+     * @param asyncResultListener The partial result listener
+     */
+    public DuplicatesCommand(String directory, AsyncResultListener asyncResultListener) {
+        super();
+        this.mDirectory = directory;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mFinder = new DuplicateFinder(new DuplicateFinder.OnDuplicatesListener() {
+            @Override
+            public void onDuplicates(DuplicateGroup group) {
+                if (isTrace()) {
+                    Log.v(TAG, String.valueOf(group));
+                }
+                if (DuplicatesCommand.this.mAsyncResultListener != null) {
+                    DuplicatesCommand.this.mAsyncResultListener.onPartialResult(group);
+                }
+            }
+        }) {
+            @Override
+            protected InputStream openFile(File file) throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+        this.mCancelled = false;
+        this.mEnded = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute()
+            throws InsufficientPermissionsException, NoSuchFileOrDirectory, ExecutionException {
+        if (isTrace()) {
+            Log.v(TAG,
+                    String.format("Finding duplicates in %s", this.mDirectory)); //$NON-NLS-1$
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncStart();
+        }
+
+        File f = new File(this.mDirectory);
+        if (!f.exists()) {
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(new NoSuchFileOrDirectory(this.mDirectory));
+            }
+        } else if (!f.isDirectory()) {
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(
+                        new ExecutionException("path exists but it's not a folder")); //$NON-NLS-1$
+            }
+        } else {
+            // Find the duplicates
+            this.mFinder.find(f);
+        }
+
+        synchronized (this.mSync) {
+            this.mEnded = true;
+            this.mSync.notify();
+        }
+
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncEnd(this.mCancelled);
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncExitCode(0);
+        }
+
+        if (isTrace()) {
+            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        try {
+            synchronized (this.mSync) {
+                if (this.mEnded || this.mCancelled) {
+                    this.mCancelled = true;
+                    return true;
+                }
+                this.mCancelled = true;
+                this.mFinder.cancel();
+                this.mSync.wait(5000L);
+            }
+        } catch (Exception e) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        try {
+            synchronized (this.mSync) {
+                if (this.mEnded) {
+                    return true;
+                }
+                this.mEnded = true;
+                this.mFinder.cancel();
+                this.mSync.wait(5000L);
+            }
+        } catch (Exception e) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+}
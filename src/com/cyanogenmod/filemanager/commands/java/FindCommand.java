@@ -31,6 +31,7 @@ import com.cyanogenmod.filemanager.util.SearchHelper;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * A class for search files.
@@ -40,6 +41,7 @@ public class FindCommand extends Program implements FindExecutable {
     private static final String TAG = "FindCommand"; //$NON-NLS-1$
 
     private final String mDirectory;
+    private final Query mQuery;
     private final String[] mQueryRegExp;
     private final ConcurrentAsyncResultListener mAsyncResultListener;
 
@@ -58,6 +60,7 @@ public class FindCommand extends Program implements FindExecutable {
             ConcurrentAsyncResultListener asyncResultListener) {
         super();
         this.mDirectory = directory;
+        this.mQuery = query;
         this.mQueryRegExp = createRegexp(directory, query);
         this.mAsyncResultListener = asyncResultListener;
         if (mAsyncResultListener instanceof ConcurrentAsyncResultListener) {
@@ -133,24 +136,33 @@ public class FindCommand extends Program implements FindExecutable {
         if (files != null) {
             int cc = files.length;
             for (int i = 0; i < cc; i++) {
-                if (files[i].isDirectory()) {
+                boolean isDirectory = files[i].isDirectory();
+                if (isDirectory) {
                     findRecursive(files[i]);
                 }
 
-                // Check if the file or folder matches the regexp
+                // Check if the file or folder matches the regexp and the constraints
+                // of the query. Only matched objects are converted to file system objects
                 try {
+                    String name = files[i].getName();
+                    boolean matches = false;
                     int ccc = this.mQueryRegExp.length;
                     for (int j = 0; j < ccc; j++) {
-                        if (files[i].getName().matches(this.mQueryRegExp[j])) {
-                            FileSystemObject fso =
-                                    FileHelper.createFileSystemObject(files[i]);
-                            if (fso != null) {
-                                if (isTrace()) {
-                                    Log.v(TAG, String.valueOf(fso));
-                                }
-                                if (this.mAsyncResultListener != null) {
-                                    this.mAsyncResultListener.onPartialResult(fso);
-                                }
+                        if (name.matches(this.mQueryRegExp[j])) {
+                            matches = true;
+                            break;
+                        }
+                    }
+                    if (matches && SearchHelper.matchesConstraints(
+                            this.mQuery, files[i], isDirectory)) {
+                        FileSystemObject fso =
+                                FileHelper.createFileSystemObject(files[i]);
+                        if (fso != null) {
+                            if (isTrace()) {
+                                Log.v(TAG, String.valueOf(fso));
+                            }
+                            if (this.mAsyncResultListener != null) {
+                                this.mAsyncResultListener.onPartialResult(fso);
                             }
                         }
                     }
@@ -249,10 +261,11 @@ public class FindCommand extends Program implements FindExecutable {
      * @return String[] The regexp for filtering files
      */
     private static String[] createRegexp(String directory, Query query) {
-        String[] args = new String[query.getSlotsCount()];
-        int cc = query.getSlotsCount();
+        List<String> queries = query.getQueries();
+        String[] args = new String[queries.size()];
+        int cc = queries.size();
         for (int i = 0; i < cc; i++) {
-            args[i] = SearchHelper.toIgnoreCaseRegExp(query.getSlot(i), true);
+            args[i] = SearchHelper.toIgnoreCaseRegExp(queries.get(i), true);
         }
         return args;
     }
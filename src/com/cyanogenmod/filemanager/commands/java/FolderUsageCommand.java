@@ -18,24 +18,41 @@ package com.cyanogenmod.filemanager.commands.java;
 
 import android.util.Log;
 
+import com.cyanogenmod.filemanager.FileManagerApplication;
 import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.FolderUsageExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.model.FolderUsage;
+import com.cyanogenmod.filemanager.util.FolderUsageCache;
 import com.cyanogenmod.filemanager.util.MimeTypeHelper;
 import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A class for retrieve the disk usage of a folder.
+ * <br/>
+ * The tree is walked in parallel and the direct content of every directory is kept in a
+ * {@link FolderUsageCache}, so only the directories modified since the last computation
+ * are listed again.
  */
 public class FolderUsageCommand extends Program implements FolderUsageExecutable {
 
     private static final String TAG = "FolderUsage"; //$NON-NLS-1$
 
+    private static final int MIN_THREADS = 2;
+    private static final int MAX_THREADS = 4;
+    private static final long PARTIAL_RESULT_INTERVAL = 250L;
+
     private final String mDirectory;
     private final AsyncResultListener mAsyncResultListener;
     private final FolderUsage mFolderUsage;
@@ -44,6 +61,14 @@ public class FolderUsageCommand extends Program implements FolderUsageExecutable
     private boolean mEnded;
     private final Object mSync = new Object();
 
+    private ExecutorService mExecutor;
+    private int mPending;
+    private final Object mPendingSync = new Object();
+    private Map<String, FolderUsageCache.Entry> mCachedEntries;
+    private List<FolderUsageCache.Entry> mChangedEntries;
+    private List<String> mRemovedFolders;
+    private long mLastPartialResult;
+
     /**
      * Constructor of <code>FolderUsageCommand</code>.
      *
@@ -110,8 +135,8 @@ public class FolderUsageCommand extends Program implements FolderUsageExecutable
             }
         }
 
-        // Compute data recursively
-        computeRecursive(f);
+        // Compute data in parallel
+        computeParallel(f);
 
         synchronized (this.mSync) {
             this.mEnded = true;
@@ -131,55 +156,201 @@ public class FolderUsageCommand extends Program implements FolderUsageExecutable
     }
 
     /**
-     * Method that computes the folder usage recursively
+     * Method that computes the folder usage of a tree in parallel. Every directory is a task
+     * in the pool; its direct content is taken from the cache if the directory wasn't modified
+     * since the last computation, or listed otherwise.
      *
      * @param folder The folder where to start the computation
      */
-    private void computeRecursive(File folder) {
-        // Obtains the files and folders of the folders
+    private void computeParallel(File folder) {
+        final FolderUsageCache cache = FolderUsageCache.getInstance(
+                FileManagerApplication.getInstance().getApplicationContext());
+        this.mCachedEntries = cache.load(folder.getAbsolutePath());
+        this.mChangedEntries = new ArrayList<FolderUsageCache.Entry>();
+        this.mRemovedFolders = new ArrayList<String>();
+
+        int threads = Math.max(MIN_THREADS,
+                Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        this.mExecutor = Executors.newFixedThreadPool(threads);
         try {
-            File[] files = folder.listFiles();
-            int c = 0;
-            if (files != null) {
-                int cc = files.length;
-                for (int i = 0; i < cc; i++) {
-                    if (files[i].isDirectory()) {
-                        this.mFolderUsage.addFolder();
-                        computeRecursive(files[i]);
-                    } else {
-                        this.mFolderUsage.addFile();
-                        // Compute statistics and size
-                        MimeTypeCategory category =
-                                MimeTypeHelper.getCategory(null, files[i]);
-                        this.mFolderUsage.addFileToCategory(category);
-                        this.mFolderUsage.addSize(files[i].length());
+            submit(folder);
+
+            // Wait for all the pending directories
+            synchronized (this.mPendingSync) {
+                while (this.mPending > 0) {
+                    try {
+                        this.mPendingSync.wait();
+                    } catch (InterruptedException ie) {
+                        break;
                     }
+                }
+            }
+        } finally {
+            this.mExecutor.shutdownNow();
+        }
+
+        // Every computed entry is still valid even if the process was cancelled
+        synchronized (this.mChangedEntries) {
+            cache.save(this.mChangedEntries, this.mRemovedFolders);
+        }
+
+        //If a listener is defined, then send the partial result
+        notifyPartialResult(true);
+    }
 
-                    // Partial notification
-                    if (c % 5 == 0) {
-                        //If a listener is defined, then send the partial result
-                        if (getAsyncResultListener() != null) {
-                            getAsyncResultListener().onPartialResult(this.mFolderUsage);
+    /**
+     * Method that enqueues the computation of a directory
+     *
+     * @param folder The directory to compute
+     */
+    private void submit(final File folder) {
+        synchronized (this.mPendingSync) {
+            this.mPending++;
+        }
+        try {
+            this.mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!isFinished()) {
+                            computeFolder(folder);
                         }
+                    } catch (Throwable t) {
+                        Log.w(TAG, "Failed to compute " + folder, t); //$NON-NLS-1$
+                    } finally {
+                        releasePending();
                     }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // The pool was shutdown
+            releasePending();
+        }
+    }
 
-                    // Check if the process was cancelled
-                    try {
-                        synchronized (this.mSync) {
-                            if (this.mCancelled  || this.mEnded) {
-                                this.mSync.notify();
-                                break;
-                            }
+    /**
+     * Method that marks a pending directory as computed
+     */
+    void releasePending() {
+        synchronized (this.mPendingSync) {
+            this.mPending--;
+            if (this.mPending <= 0) {
+                this.mPendingSync.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Method that computes the direct content of a directory and enqueues its subdirectories
+     *
+     * @param folder The directory to compute
+     */
+    void computeFolder(File folder) {
+        String path = folder.getAbsolutePath();
+        long lastModified = folder.lastModified();
+        FolderUsageCache.Entry entry = this.mCachedEntries.get(path);
+        if (entry == null || lastModified == 0 || entry.mLastModified != lastModified) {
+            FolderUsageCache.Entry old = entry;
+            entry = listFolder(folder, path, lastModified);
+            if (entry == null) {
+                return;
+            }
+            synchronized (this.mChangedEntries) {
+                this.mChangedEntries.add(entry);
+                if (old != null) {
+                    // Forget the subtrees that don't exist anymore
+                    List<String> children = Arrays.asList(entry.mChildren);
+                    for (String child : old.mChildren) {
+                        if (!children.contains(child)) {
+                            this.mRemovedFolders.add(new File(folder, child).getAbsolutePath());
                         }
-                    } catch (Exception e) {/**NON BLOCK**/}
+                    }
                 }
             }
-        } finally {
-            //If a listener is defined, then send the partial result
-            if (getAsyncResultListener() != null) {
-                getAsyncResultListener().onPartialResult(this.mFolderUsage);
+        }
+
+        synchronized (this.mFolderUsage) {
+            this.mFolderUsage.add(entry.mUsage);
+        }
+        notifyPartialResult(false);
+
+        // The content of a subdirectory doesn't change the modification time of its parent,
+        // so every subdirectory must be checked
+        for (String child : entry.mChildren) {
+            if (isFinished()) {
+                break;
+            }
+            submit(new File(folder, child));
+        }
+    }
+
+    /**
+     * Method that lists a directory and computes the usage of its direct content
+     *
+     * @param folder The directory to list
+     * @param path The absolute path of the directory
+     * @param lastModified The last modification time of the directory
+     * @return FolderUsageCache.Entry The direct content of the directory or <code>null</code>
+     * if the directory couldn't be listed
+     */
+    private static FolderUsageCache.Entry listFolder(
+            File folder, String path, long lastModified) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return null;
+        }
+        FolderUsage usage = new FolderUsage(path);
+        List<String> children = new ArrayList<String>();
+        int cc = files.length;
+        for (int i = 0; i < cc; i++) {
+            if (files[i].isDirectory()) {
+                usage.addFolder();
+                children.add(files[i].getName());
+            } else {
+                usage.addFile();
+                // Compute statistics and size
+                MimeTypeCategory category = MimeTypeHelper.getCategory(null, files[i]);
+                long size = files[i].length();
+                usage.addFileToCategory(category);
+                usage.addSizeToCategory(category, size);
+                usage.addSize(size);
             }
         }
+        return new FolderUsageCache.Entry(path, lastModified, usage,
+                children.toArray(new String[children.size()]));
+    }
+
+    /**
+     * Method that sends the current folder usage to the listener, at most once
+     * per {@link #PARTIAL_RESULT_INTERVAL} milliseconds
+     *
+     * @param force Send the result regardless the time of the last notification
+     */
+    private void notifyPartialResult(boolean force) {
+        //If a listener is defined, then send the partial result
+        if (getAsyncResultListener() == null) {
+            return;
+        }
+        synchronized (this.mFolderUsage) {
+            long now = System.currentTimeMillis();
+            if (!force && now - this.mLastPartialResult < PARTIAL_RESULT_INTERVAL) {
+                return;
+            }
+            this.mLastPartialResult = now;
+            // The listener must copy the usage before return
+            getAsyncResultListener().onPartialResult(this.mFolderUsage);
+        }
+    }
+
+    /**
+     * Method that returns if the process was cancelled or ended
+     *
+     * @return boolean If the process was cancelled or ended
+     */
+    boolean isFinished() {
+        synchronized (this.mSync) {
+            return this.mCancelled || this.mEnded;
+        }
     }
 
     /**
@@ -29,6 +29,7 @@ import com.cyanogenmod.filemanager.commands.CreateFileExecutable;
 import com.cyanogenmod.filemanager.commands.DeleteDirExecutable;
 import com.cyanogenmod.filemanager.commands.DeleteFileExecutable;
 import com.cyanogenmod.filemanager.commands.DiskUsageExecutable;
+import com.cyanogenmod.filemanager.commands.DuplicatesExecutable;
 import com.cyanogenmod.filemanager.commands.EchoExecutable;
 import com.cyanogenmod.filemanager.commands.ExecExecutable;
 import com.cyanogenmod.filemanager.commands.ExecutableCreator;
@@ -99,9 +100,10 @@ public class JavaExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public CopyExecutable createCopyExecutable(String src, String dst)
+    public CopyExecutable createCopyExecutable(
+            String src, String dst, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
-        return new CopyCommand(src, dst);
+        return new CopyCommand(src, dst, asyncResultListener);
     }
 
     /**
@@ -126,9 +128,10 @@ public class JavaExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public DeleteDirExecutable createDeleteDirExecutable(String dir)
+    public DeleteDirExecutable createDeleteDirExecutable(
+            String dir, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
-        return new DeleteDirCommand(dir);
+        return new DeleteDirCommand(dir, asyncResultListener);
     }
 
     /**
@@ -263,9 +266,10 @@ public class JavaExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public MoveExecutable createMoveExecutable(String src, String dst)
+    public MoveExecutable createMoveExecutable(
+            String src, String dst, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
-        return new MoveCommand(src, dst);
+        return new MoveCommand(src, dst, asyncResultListener);
     }
 
     /**
@@ -367,7 +371,7 @@ public class JavaExecutableCreator implements ExecutableCreator {
             CompressionMode mode, String dst, String[] src,
             AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
-        throw new CommandNotFoundException("Not implemented"); //$NON-NLS-1$
+        return new CompressCommand(mode, dst, src, asyncResultListener);
     }
 
     /**
@@ -378,7 +382,7 @@ public class JavaExecutableCreator implements ExecutableCreator {
             CompressionMode mode, String src,
             AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
-        throw new CommandNotFoundException("Not implemented"); //$NON-NLS-1$
+        return new CompressCommand(mode, src, asyncResultListener);
     }
 
     /**
@@ -389,7 +393,7 @@ public class JavaExecutableCreator implements ExecutableCreator {
             String src, String dst,
             AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
-        throw new CommandNotFoundException("Not implemented"); //$NON-NLS-1$
+        return new UncompressCommand(src, dst, asyncResultListener);
     }
 
     /**
@@ -402,4 +406,14 @@ public class JavaExecutableCreator implements ExecutableCreator {
         return new ChecksumCommand(src, asyncResultListener);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DuplicatesExecutable createDuplicatesExecutable(
+            String directory, AsyncResultListener asyncResultListener)
+            throws CommandNotFoundException {
+        return new DuplicatesCommand(directory, asyncResultListener);
+    }
+
 }
@@ -18,19 +18,26 @@ package com.cyanogenmod.filemanager.commands.java;
 
 import android.util.Log;
 
+import com.cyanogenmod.filemanager.FileManagerApplication;
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.MoveExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.model.MountPoint;
+import com.cyanogenmod.filemanager.util.CopyScheduler;
 import com.cyanogenmod.filemanager.util.FileHelper;
 import com.cyanogenmod.filemanager.util.MountPointHelper;
+import com.cyanogenmod.filemanager.util.TransferProgressTracker;
 
 import java.io.File;
 
 
 /**
- * A class for move a file or directory.
+ * A class for move a file or directory.<br/>
+ * <br/>
+ * The progress is returned as {@link com.cyanogenmod.filemanager.model.TransferProgress}
+ * partial results.
  */
 public class MoveCommand extends Program implements MoveExecutable {
 
@@ -38,17 +45,34 @@ public class MoveCommand extends Program implements MoveExecutable {
 
     private final String mSrc;
     private final String mDst;
+    private final AsyncResultListener mAsyncResultListener;
+    private Boolean mResult;
+
+    private boolean mCancelled;
+    private CopyScheduler mScheduler;
+    private final Object mSync = new Object();
 
     /**
      * Constructor of <code>MoveCommand</code>.
      *
      * @param src The name of the file or directory to be moved
      * @param dst The name of the file or directory in which move the source file or directory
+     * @param asyncResultListener The partial result listener
      */
-    public MoveCommand(String src, String dst) {
+    public MoveCommand(String src, String dst, AsyncResultListener asyncResultListener) {
         super();
         this.mSrc = src;
         this.mDst = dst;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mResult = Boolean.FALSE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
     }
 
     /**
@@ -56,7 +80,7 @@ public class MoveCommand extends Program implements MoveExecutable {
      */
     @Override
     public Boolean getResult() {
-        return Boolean.TRUE;
+        return this.mResult;
     }
 
     /**
@@ -67,50 +91,165 @@ public class MoveCommand extends Program implements MoveExecutable {
             throws InsufficientPermissionsException, NoSuchFileOrDirectory, ExecutionException {
         if (isTrace()) {
             Log.v(TAG,
-                    String.format("Creating from %s to %s", this.mSrc, this.mDst)); //$NON-NLS-1$
+                    String.format("Moving from %s to %s", //$NON-NLS-1$
+                            this.mSrc, this.mDst));
         }
 
-        File s = new File(this.mSrc);
-        File d = new File(this.mDst);
-        if (!s.exists()) {
-            if (isTrace()) {
-                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+        try {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncStart();
             }
-            throw new NoSuchFileOrDirectory(this.mSrc);
-        }
 
-        //Move or copy recursively
-        if (d.exists()) {
-            if (!FileHelper.copyRecursive(s, d, getBufferSize())) {
-                if (isTrace()) {
-                    Log.v(TAG, "Result: FAIL. InsufficientPermissionsException"); //$NON-NLS-1$
-                }
-                throw new InsufficientPermissionsException();
-            }
-            if (!FileHelper.deleteFolder(s)) {
+            File s = new File(this.mSrc);
+            File d = new File(this.mDst);
+            if (!s.exists()) {
                 if (isTrace()) {
-                    Log.v(TAG, "Result: OK. WARNING. Source not deleted."); //$NON-NLS-1$
+                    Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
                 }
+                throw new NoSuchFileOrDirectory(this.mSrc);
             }
-        } else {
+
+            //Move or copy recursively
             // Move between filesystem is not allow. If rename fails then use copy operation
-            if (!s.renameTo(d)) {
-                if (!FileHelper.copyRecursive(s, d, getBufferSize())) {
+            if (d.exists() || !s.renameTo(d)) {
+                // The total size is computed first, for an accurate progress
+                long total = CopyScheduler.getTotalBytes(s);
+                TransferProgressTracker tracker =
+                        new TransferProgressTracker(this.mAsyncResultListener, total);
+                if (!copy(s, d, total, tracker)) {
                     if (isTrace()) {
                         Log.v(TAG, "Result: FAIL. InsufficientPermissionsException"); //$NON-NLS-1$
                     }
                     throw new InsufficientPermissionsException();
                 }
-                if (!FileHelper.deleteFolder(s)) {
+                tracker.flush();
+                if (!isCancelled() && !FileHelper.deleteFolder(s)) {
                     if (isTrace()) {
                         Log.v(TAG, "Result: OK. WARNING. Source not deleted."); //$NON-NLS-1$
                     }
                 }
             }
+
+            this.mResult = Boolean.valueOf(!isCancelled());
+            notifyEnd();
+
+        } catch (Exception e) {
+            Log.e(TAG,
+                    String.format("Fail to move from %s to %s", //$NON-NLS-1$
+                            this.mSrc, this.mDst), e);
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(e);
+            }
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL"); //$NON-NLS-1$
+            }
         }
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        try {
+            synchronized (this.mSync) {
+                this.mCancelled = true;
+                if (this.mScheduler != null) {
+                    this.mScheduler.cancel();
+                }
+            }
+        } catch (Throwable _throw) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        return cancel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+
+    /**
+     * Method that copies recursively the source to the destination, notifying the progress.
+     * Big copies are journaled, so they can be resumed if they are interrupted.
+     *
+     * @param s The source file or folder
+     * @param d The destination file or folder
+     * @param total The size of the source
+     * @param tracker The progress of the operation
+     * @return boolean If the operation complete successfully (or was cancelled)
+     * @throws ExecutionException If a problem was detected in the operation
+     */
+    private boolean copy(File s, File d, long total, TransferProgressTracker tracker)
+            throws ExecutionException {
+        CopyScheduler scheduler = new CopyScheduler(getBufferSize(), tracker);
+        synchronized (this.mSync) {
+            if (this.mCancelled) {
+                return true;
+            }
+            this.mScheduler = scheduler;
+        }
+
+        return CopyScheduler.journaledCopy(
+                FileManagerApplication.getInstance(), scheduler, s, d, total);
+    }
+
+    /**
+     * Method that notifies the end of the operation
+     */
+    private void notifyEnd() {
+        boolean cancelled = isCancelled();
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncEnd(cancelled);
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncExitCode(cancelled ? 143 : 0);
+        }
         if (isTrace()) {
-            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+            Log.v(TAG, cancelled ? "Result: CANCELLED" : "Result: OK"); //$NON-NLS-1$ //$NON-NLS-2$
         }
     }
 
@@ -129,5 +268,4 @@ public class MoveCommand extends Program implements MoveExecutable {
     public MountPoint getDstWritableMountPoint() {
         return MountPointHelper.getMountPointFromDirectory(this.mDst);
     }
-
 }
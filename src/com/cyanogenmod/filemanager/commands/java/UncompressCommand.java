@@ -0,0 +1,645 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.commands.java;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultExecutable;
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.UncompressExecutable;
+import com.cyanogenmod.filemanager.console.CancelledOperationException;
+import com.cyanogenmod.filemanager.console.CommandNotFoundException;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.preferences.UncompressionMode;
+import com.cyanogenmod.filemanager.util.BZip2InputStream;
+import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.LzmaInputStream;
+import com.cyanogenmod.filemanager.util.ParallelZipExtractor;
+import com.cyanogenmod.filemanager.util.TarInputStream;
+import com.cyanogenmod.filemanager.util.TransferProgressTracker;
+import com.cyanogenmod.filemanager.util.XZInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A class for uncompress file system objects.<br/>
+ * <br/>
+ * Zip archives are extracted reading its central directory once and inflating the entries
+ * in parallel. The rest of the formats are decompressed streaming the data straight to the
+ * extracted files (without temporary files). The names of the extracted entries are returned
+ * as partial results (in the same way as the shell command), along with the progress of the
+ * operation as {@link com.cyanogenmod.filemanager.model.TransferProgress} partial results.
+ */
+public class UncompressCommand extends Program
+        implements UncompressExecutable, AsyncResultExecutable {
+
+    private static final String TAG = "UncompressCommand"; //$NON-NLS-1$
+
+    // The size of the buffer used to read the archive and to write the files
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final String mSrc;
+    private final String mOutFile;
+    private final UncompressionMode mMode;
+    private final AsyncResultListener mAsyncResultListener;
+    private Boolean mResult;
+
+    private boolean mCancelled;
+    private final Object mSync = new Object();
+
+    /**
+     * Constructor of <code>UncompressCommand</code>.<br/>
+     * <br/>
+     * <ul>
+     * <li>For archive and archive-compressed files, the file is extracted in a directory
+     * of the current location of the file with the name of the file without the extension.</li>
+     * <li>For compressed files, the file is extracted in the same directory in a file without
+     * the extension, and the source file is deleted.</li>
+     * </ul>
+     *
+     * @param src The archive-compressed file
+     * @param dst The destination file of folder (if null this method resolve with the best
+     * fit based on the src)
+     * @param asyncResultListener The partial result listener
+     * @throws CommandNotFoundException If the format of the file is not supported
+     */
+    public UncompressCommand(
+            String src, String dst, AsyncResultListener asyncResultListener)
+            throws CommandNotFoundException {
+        super();
+        this.mMode = getMode(src);
+        if (this.mMode == null) {
+            throw new CommandNotFoundException("Unsupported uncompress mode"); //$NON-NLS-1$
+        }
+        this.mSrc = src;
+        this.mOutFile = dst != null ? dst : resolveOutputFile(src);
+        this.mAsyncResultListener = asyncResultListener;
+        this.mResult = Boolean.FALSE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Boolean getResult() {
+        return this.mResult;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getOutUncompressedFile() {
+        return this.mOutFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean IsArchive() {
+        return this.mMode.mArchive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute()
+            throws InsufficientPermissionsException, NoSuchFileOrDirectory, ExecutionException {
+        if (isTrace()) {
+            Log.v(TAG,
+                    String.format("Uncompressing %s to %s (%s)", //$NON-NLS-1$
+                            this.mSrc, this.mOutFile, this.mMode));
+        }
+
+        File src = new File(this.mSrc);
+        File out = new File(this.mOutFile);
+        boolean created = false;
+        try {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncStart();
+            }
+            if (!src.isFile()) {
+                throw new NoSuchFileOrDirectory(this.mSrc);
+            }
+
+            if (this.mMode == UncompressionMode.A_UNZIP) {
+                unzip(src, out);
+            } else {
+                TransferProgressTracker tracker =
+                        new TransferProgressTracker(this.mAsyncResultListener, src.length());
+                InputStream is = new ProgressInputStream(
+                        new BufferedInputStream(new FileInputStream(src), BUFFER_SIZE),
+                        tracker);
+                try {
+                    is = createDecompressor(is);
+                    if (this.mMode.mArchive) {
+                        untar(new TarInputStream(is), out, tracker);
+                    } else {
+                        tracker.setCurrentFile(out.getAbsolutePath());
+                        created = true;
+                        write(is, out, -1);
+                    }
+                    // The padding of the archive may not be read
+                    tracker.setBytes(src.length());
+                } finally {
+                    try {
+                        is.close();
+                    } catch (Throwable _throw) {/**NON BLOCK**/}
+                }
+                tracker.flush();
+            }
+
+            if (isCancelled()) {
+                if (created) {
+                    deleteQuietly(out);
+                }
+            } else if (!this.mMode.mArchive) {
+                // The shell commands replace the compressed file with the file
+                if (!src.delete()) {
+                    Log.w(TAG, String.format(
+                            "Fail to delete the compressed file %s", //$NON-NLS-1$
+                            this.mSrc));
+                }
+            }
+
+            this.mResult = Boolean.valueOf(!isCancelled());
+            notifyEnd();
+
+        } catch (CancelledOperationException e) {
+            if (created) {
+                deleteQuietly(out);
+            }
+            notifyEnd();
+
+        } catch (Exception e) {
+            Log.e(TAG,
+                    String.format("Fail to uncompress %s", this.mSrc), e); //$NON-NLS-1$
+            if (created) {
+                deleteQuietly(out);
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(e);
+            }
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL"); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Method that extracts a zip archive, inflating its entries in parallel
+     *
+     * @param src The zip archive
+     * @param dst The directory where to extract the archive
+     * @throws IOException If an I/O error occurs or the archive is corrupted
+     */
+    private void unzip(File src, File dst) throws IOException {
+        ParallelZipExtractor extractor = new ParallelZipExtractor(src);
+        try {
+            final TransferProgressTracker tracker = new TransferProgressTracker(
+                    this.mAsyncResultListener, extractor.getUncompressedSize());
+            extractor.extract(dst, new ParallelZipExtractor.OnExtractListener() {
+                @Override
+                public void onEntry(String name, File file) {
+                    // The tracker serializes the partial results of all the threads
+                    synchronized (tracker) {
+                        tracker.setCurrentFile(file.getAbsolutePath());
+                        if (UncompressCommand.this.mAsyncResultListener != null) {
+                            UncompressCommand.this.mAsyncResultListener.onPartialResult(name);
+                        }
+                    }
+                }
+
+                @Override
+                public void onBytes(long bytes) {
+                    tracker.addBytes(bytes);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return UncompressCommand.this.isCancelled();
+                }
+            });
+            tracker.flush();
+        } finally {
+            extractor.close();
+        }
+    }
+
+    /**
+     * Method that extracts a tar archive
+     *
+     * @param tar The tar archive
+     * @param dst The directory where to extract the archive
+     * @param tracker The progress tracker
+     * @throws IOException If an I/O error occurs or the archive is corrupted
+     */
+    private void untar(TarInputStream tar, File dst, TransferProgressTracker tracker)
+            throws IOException {
+        if (!dst.isDirectory() && !dst.mkdirs()) {
+            throw new IOException("Can't create the directory " + dst); //$NON-NLS-1$
+        }
+
+        // The symbolic links are created at the end, so no entry can be extracted
+        // through them. The directories are also updated at the end, because the
+        // extraction of their children changes their modification time
+        List<TarInputStream.Entry> links = new ArrayList<TarInputStream.Entry>();
+        List<TarInputStream.Entry> dirs = new ArrayList<TarInputStream.Entry>();
+        List<File> linkFiles = new ArrayList<File>();
+        List<File> dirFiles = new ArrayList<File>();
+        TarInputStream.Entry entry;
+        while ((entry = tar.getNextEntry()) != null) {
+            checkCancelled();
+            String path = FileHelper.toSafeArchivePath(entry.getName());
+            if (path.length() == 0) {
+                continue;
+            }
+            File file = new File(dst, path);
+            File parent = entry.isDirectory() ? file : file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Can't create the directory " + parent); //$NON-NLS-1$
+            }
+            if (entry.isDirectory()) {
+                onEntry(entry.getName(), file, tracker);
+                dirs.add(entry);
+                dirFiles.add(file);
+
+            } else if (entry.isSymlink()) {
+                links.add(entry);
+                linkFiles.add(file);
+
+            } else if (entry.isHardLink()) {
+                // Hard links are extracted as copies of the already extracted file
+                onEntry(entry.getName(), file, tracker);
+                File target = new File(dst, FileHelper.toSafeArchivePath(entry.getLinkName()));
+                if (!target.isFile()) {
+                    throw new IOException("Invalid hard link: " + entry.getName()); //$NON-NLS-1$
+                }
+                InputStream is = new FileInputStream(target);
+                try {
+                    write(is, file, entry.getMode());
+                } finally {
+                    is.close();
+                }
+                file.setLastModified(entry.getTime());
+
+            } else if (entry.isFile()) {
+                onEntry(entry.getName(), file, tracker);
+                write(tar, file, entry.getMode());
+                file.setLastModified(entry.getTime());
+            }
+            // Devices, pipes and sockets are not extracted
+        }
+
+        int cc = links.size();
+        for (int i = 0; i < cc; i++) {
+            checkCancelled();
+            entry = links.get(i);
+            File file = linkFiles.get(i);
+            onEntry(entry.getName(), file, tracker);
+            file.delete();
+            try {
+                Os.symlink(entry.getLinkName(), file.getAbsolutePath());
+            } catch (ErrnoException ex) {
+                // The file system may not support symbolic links
+                Log.w(TAG, String.format("Fail to create the symbolic link %s", //$NON-NLS-1$
+                        file), ex);
+            }
+        }
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            chmod(dirFiles.get(i), dirs.get(i).getMode());
+            dirFiles.get(i).setLastModified(dirs.get(i).getTime());
+        }
+    }
+
+    /**
+     * Method that writes a stream to a file
+     *
+     * @param is The stream
+     * @param file The file
+     * @param mode The permissions of the file, or <code>-1</code> to use the default ones
+     * @throws IOException If an I/O error occurs
+     */
+    private void write(InputStream is, File file, int mode) throws IOException {
+        if (file.isDirectory()) {
+            throw new IOException("A directory exists with the same name: " + file); //$NON-NLS-1$
+        }
+        // Don't write through an existing symbolic link
+        file.delete();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        OutputStream os = new FileOutputStream(file);
+        try {
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                checkCancelled();
+                os.write(buffer, 0, read);
+            }
+        } finally {
+            os.close();
+        }
+        if (mode != -1) {
+            chmod(file, mode);
+        }
+    }
+
+    /**
+     * Method that creates the decompressor of the archive-compressed or compressed file
+     *
+     * @param is The stream of the file
+     * @return InputStream The decompressed stream
+     * @throws IOException If the file is not a valid compressed file
+     */
+    private InputStream createDecompressor(InputStream is) throws IOException {
+        switch (this.mMode) {
+            case AC_GUNZIP:
+            case AC_GUNZIP2:
+            case C_GUNZIP:
+                return new GZIPInputStream(is, BUFFER_SIZE);
+            case AC_BUNZIP:
+            case C_BUNZIP:
+                return new BZip2InputStream(is);
+            case AC_UNLZMA:
+            case C_UNLZMA:
+                // Some tools write xz streams with the lzma extension
+                return isXz(is) ? new XZInputStream(is) : new LzmaInputStream(is);
+            case C_UNXZ:
+                return new XZInputStream(is);
+            default:
+                return is;
+        }
+    }
+
+    /**
+     * Method that checks if a stream starts with the magic bytes of the xz format. The
+     * stream is not consumed.
+     *
+     * @param is The stream (must support mark)
+     * @return boolean If the stream is a xz stream
+     * @throws IOException If an I/O error occurs
+     */
+    private static boolean isXz(InputStream is) throws IOException {
+        final byte[] MAGIC = {(byte)0xfd, '7', 'z', 'X', 'Z', 0};
+        byte[] header = new byte[MAGIC.length];
+        is.mark(MAGIC.length);
+        int read = 0;
+        try {
+            while (read < header.length) {
+                int count = is.read(header, read, header.length - read);
+                if (count <= 0) {
+                    return false;
+                }
+                read += count;
+            }
+        } finally {
+            is.reset();
+        }
+        return Arrays.equals(MAGIC, header);
+    }
+
+    /**
+     * Method that notifies an entry being extracted
+     *
+     * @param name The name of the entry
+     * @param file The output file of the entry
+     * @param tracker The progress tracker
+     */
+    private void onEntry(String name, File file, TransferProgressTracker tracker) {
+        tracker.setCurrentFile(file.getAbsolutePath());
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onPartialResult(name);
+        }
+    }
+
+    /**
+     * Method that throws a {@link CancelledOperationException} if the operation was cancelled
+     *
+     * @throws CancelledOperationException If the operation was cancelled
+     */
+    private void checkCancelled() throws CancelledOperationException {
+        if (isCancelled()) {
+            throw new CancelledOperationException();
+        }
+    }
+
+    /**
+     * Method that changes the permissions of a file, ignoring any error (not all the
+     * file systems support permissions)
+     *
+     * @param file The file
+     * @param mode The permissions
+     */
+    private static void chmod(File file, int mode) {
+        try {
+            Os.chmod(file.getAbsolutePath(), mode);
+        } catch (ErrnoException ex) {/**NON BLOCK**/}
+    }
+
+    /**
+     * Method that deletes a file, ignoring any error
+     *
+     * @param file The file to delete
+     */
+    private static void deleteQuietly(File file) {
+        try {
+            if (!file.delete()) {
+                Log.w(TAG, String.format(
+                        "Fail to delete the partial file %s", file)); //$NON-NLS-1$
+            }
+        } catch (Throwable _throw) {/**NON BLOCK**/}
+    }
+
+    /**
+     * Method that resolves the output path of the uncompressed file
+     *
+     * @param src The compressed file
+     * @return String The output path of the uncompressed file
+     */
+    private static String resolveOutputFile(String src) {
+        String name = new File(FileHelper.getName(src)).getName();
+        File dst = new File(new File(src).getParent(), name);
+        return dst.getAbsolutePath();
+    }
+
+    /**
+     * Method that returns the uncompression mode from the compressed file
+     *
+     * @param src The compressed file
+     * @return UncompressionMode The uncompression mode. <code>null</code> if the mode
+     * is not supported
+     */
+    private static UncompressionMode getMode(String src) {
+        String extension = FileHelper.getExtension(src);
+        if (extension == null) {
+            return null;
+        }
+        UncompressionMode[] modes = UncompressionMode.values();
+        int cc = modes.length;
+        for (int i = 0; i < cc; i++) {
+            UncompressionMode mode = modes[i];
+            if (mode.mExtension.compareToIgnoreCase(extension) == 0) {
+                // Unix compress and rar are not implemented
+                if (mode == UncompressionMode.C_UNCOMPRESS || mode == UncompressionMode.C_UNRAR) {
+                    return null;
+                }
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        synchronized (this.mSync) {
+            this.mCancelled = true;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        return cancel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+
+    /**
+     * Method that notifies the end of the operation
+     */
+    private void notifyEnd() {
+        boolean cancelled = isCancelled();
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncEnd(cancelled);
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncExitCode(cancelled ? 143 : 0);
+        }
+        if (isTrace()) {
+            Log.v(TAG, cancelled ? "Result: CANCELLED" : "Result: OK"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * A stream that reports the bytes read from the compressed file
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+        private final TransferProgressTracker mTracker;
+
+        ProgressInputStream(InputStream in, TransferProgressTracker tracker) {
+            super(in);
+            this.mTracker = tracker;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                this.mTracker.addBytes(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                this.mTracker.addBytes(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                this.mTracker.addBytes(skipped);
+            }
+            return skipped;
+        }
+    }
+}
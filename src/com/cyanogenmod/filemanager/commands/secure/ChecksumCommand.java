@@ -18,36 +18,39 @@ package com.cyanogenmod.filemanager.commands.secure;
 
 import android.util.Log;
 
-import com.android.internal.util.HexDump;
 import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.ChecksumExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
-
-import de.schlichtherle.truezip.file.TFile;
-import de.schlichtherle.truezip.file.TFileInputStream;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
+import com.cyanogenmod.filemanager.model.ByteProgress;
+import com.cyanogenmod.filemanager.util.MultiDigest;
 
 import java.io.File;
 import java.io.InputStream;
-import java.security.MessageDigest;
-import java.util.Locale;
 
 /**
- * A class for calculate MD5 and SHA-1 checksums of a file system object.<br />
+ * A class for calculate MD5, SHA-1, SHA-256 and CRC32 checksums of a file system object.<br />
  * <br />
- * Partial results are returned in order (MD5 -> SHA1)
+ * The file is read only once and every read buffer feeds all the checksums. The progress is
+ * returned as {@link ByteProgress} partial results; then the checksums are returned in
+ * order (MD5 -> SHA1 -> SHA256 -> CRC32)
  */
 public class ChecksumCommand extends Program implements ChecksumExecutable {
 
     private static final String TAG = "ChecksumCommand"; //$NON-NLS-1$
 
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL = 250L;
+
     private final File mSrc;
     private final String[] mChecksums;
     private final AsyncResultListener mAsyncResultListener;
 
     private boolean mCancelled;
     private final Object mSync = new Object();
+    private long mLastProgress;
 
     /**
      * Constructor of <code>ChecksumCommand</code>.
@@ -60,7 +63,7 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
             AsyncResultListener asyncResultListener) {
         super(console);
         this.mAsyncResultListener = asyncResultListener;
-        this.mChecksums = new String[]{null, null};
+        this.mChecksums = new String[CHECKSUMS.values().length];
         this.mSrc = new File(src);
     }
 
@@ -84,7 +87,7 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
         }
 
         // Check that the file exists
-        TFile f = getConsole().buildRealFile(this.mSrc.getAbsolutePath());
+        SecureFile f = getConsole().buildRealFile(this.mSrc.getAbsolutePath());
         if (!f.exists()) {
             if (isTrace()) {
                 Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
@@ -92,16 +95,13 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
             throw new NoSuchFileOrDirectory(this.mSrc.getAbsolutePath());
         }
 
-        CHECKSUMS checksum = CHECKSUMS.MD5;
         try {
             if (this.mAsyncResultListener != null) {
                 this.mAsyncResultListener.onAsyncStart();
             }
 
             // Calculate digests
-            calculateDigest(checksum, f);
-            checksum = CHECKSUMS.SHA1;
-            calculateDigest(checksum, f);
+            calculateDigests(f);
 
             if (this.mAsyncResultListener != null) {
                 this.mAsyncResultListener.onAsyncEnd(false);
@@ -129,8 +129,7 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
         } catch (Exception e) {
             Log.e(TAG,
                     String.format(
-                            "Fail to calculate %s checksum of file %s", //$NON-NLS-1$
-                            checksum.name(),
+                            "Fail to calculate checksums of file %s", //$NON-NLS-1$
                             this.mSrc.getAbsolutePath()),
                     e);
             if (this.mAsyncResultListener != null) {
@@ -222,39 +221,38 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
     }
 
     /**
-     * Method that calculate a digest of the file for the source file
+     * Method that calculates all the digests of the source file reading it only once
      *
-     * @param type The type of digest to obtain
-     * @pa
+     * @param file The source file
      * @throws InterruptedException If the operation was cancelled
      * @throws Exception If an error occurs
      */
-    private void calculateDigest(CHECKSUMS type, TFile file)
-            throws InterruptedException, Exception {
-
+    private void calculateDigests(SecureFile file) throws InterruptedException, Exception {
+        long total = file.length();
+        MultiDigest digest = new MultiDigest(
+                CHECKSUMS.values(), MultiDigest.isParallelWorth(total));
         InputStream is = null;
         try {
-            MessageDigest md = MessageDigest.getInstance(type.name());
-            is = new TFileInputStream(file);
+            is = file.openInputStream();
 
             // Start digesting
-            byte[] data = new byte[getBufferSize()];
+            byte[] data = new byte[READ_BUFFER_SIZE];
+            long position = 0;
             int read = 0;
-            while ((read = is.read(data, 0, getBufferSize())) != -1) {
+            while ((read = is.read(data, 0, data.length)) != -1) {
                 checkCancelled();
-                md.update(data, 0, read);
+                digest.update(data, 0, read);
+                position += read;
+                notifyProgress(position, total, false);
             }
             checkCancelled();
 
             // Finally digest
-            this.mChecksums[type.ordinal()] =
-                    HexDump.toHexString(md.digest()).toLowerCase(Locale.ROOT);
-            checkCancelled();
-            if (this.mAsyncResultListener != null) {
-                this.mAsyncResultListener.onPartialResult(this.mChecksums[type.ordinal()]);
-            }
+            notifyProgress(position, total, true);
+            setDigests(digest.digest());
 
         } finally {
+            digest.release();
             try {
                 if (is != null) {
                     is.close();
@@ -263,6 +261,43 @@ public class ChecksumCommand extends Program implements ChecksumExecutable {
         }
     }
 
+    /**
+     * Method that stores the digests and returns them as partial results
+     *
+     * @param digests The digests, in the order of {@link CHECKSUMS}
+     * @throws InterruptedException If the operation was cancelled
+     */
+    private void setDigests(String[] digests) throws InterruptedException {
+        for (int i = 0; i < digests.length; i++) {
+            this.mChecksums[i] = digests[i];
+        }
+        for (int i = 0; i < digests.length; i++) {
+            checkCancelled();
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onPartialResult(digests[i]);
+            }
+        }
+    }
+
+    /**
+     * Method that notifies the progress, at most once per {@link #PROGRESS_INTERVAL}
+     * milliseconds
+     *
+     * @param read The bytes read
+     * @param total The total bytes
+     * @param force Notify regardless the time of the last notification
+     */
+    private void notifyProgress(long read, long total, boolean force) {
+        if (this.mAsyncResultListener == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (force || now - this.mLastProgress >= PROGRESS_INTERVAL) {
+            this.mLastProgress = now;
+            this.mAsyncResultListener.onPartialResult(new ByteProgress(read, total));
+        }
+    }
+
     /**
      * Checks if the operation was cancelled
      *
@@ -18,19 +18,23 @@ package com.cyanogenmod.filemanager.commands.secure;
 
 import android.util.Log;
 
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.CopyExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.MountPoint;
+import com.cyanogenmod.filemanager.util.TransferProgressTracker;
 
-import de.schlichtherle.truezip.file.TFile;
-
-import java.io.IOException;
+import java.io.InterruptedIOException;
 
 
 /**
- * A class for copy a file or directory.
+ * A class for copy a file or directory.<br/>
+ * <br/>
+ * The progress is returned as {@link com.cyanogenmod.filemanager.model.TransferProgress}
+ * partial results.
  */
 public class CopyCommand extends Program implements CopyExecutable {
 
@@ -38,6 +42,12 @@ public class CopyCommand extends Program implements CopyExecutable {
 
     private final String mSrc;
     private final String mDst;
+    private final AsyncResultListener mAsyncResultListener;
+    private Boolean mResult;
+
+    private boolean mCancelled;
+    private SecureFileCopier mCopier;
+    private final Object mSync = new Object();
 
     /**
      * Constructor of <code>CopyCommand</code>.
@@ -45,11 +55,23 @@ public class CopyCommand extends Program implements CopyExecutable {
      * @param console The current console
      * @param src The name of the file or directory to be copied
      * @param dst The name of the file or directory in which copy the source file or directory
+     * @param asyncResultListener The partial result listener
      */
-    public CopyCommand(SecureConsole console, String src, String dst) {
+    public CopyCommand(SecureConsole console, String src, String dst,
+            AsyncResultListener asyncResultListener) {
         super(console);
         this.mSrc = src;
         this.mDst = dst;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mResult = Boolean.FALSE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
     }
 
     /**
@@ -65,7 +87,7 @@ public class CopyCommand extends Program implements CopyExecutable {
      */
     @Override
     public Boolean getResult() {
-        return Boolean.TRUE;
+        return this.mResult;
     }
 
     /**
@@ -75,28 +97,156 @@ public class CopyCommand extends Program implements CopyExecutable {
     public void execute() throws NoSuchFileOrDirectory, ExecutionException {
         if (isTrace()) {
             Log.v(TAG,
-                    String.format("Moving from %s to %s", //$NON-NLS-1$
+                    String.format("Copying from %s to %s", //$NON-NLS-1$
                             this.mSrc, this.mDst));
         }
 
-        TFile s = getConsole().buildRealFile(this.mSrc);
-        TFile d = getConsole().buildRealFile(this.mDst);
-        if (!s.exists()) {
+        try {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncStart();
+            }
+
+            SecureFile s = getConsole().buildRealFile(this.mSrc);
+            SecureFile d = getConsole().buildRealFile(this.mDst);
+            if (!s.exists()) {
+                if (isTrace()) {
+                    Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+                }
+                throw new NoSuchFileOrDirectory(this.mSrc);
+            }
+
+            copy(s, d);
+
+            this.mResult = Boolean.TRUE;
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncEnd(false);
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncExitCode(0);
+            }
+
+            if (isTrace()) {
+                Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+            }
+
+        } catch (InterruptedIOException iioe) {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncEnd(true);
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncExitCode(143);
+            }
+
             if (isTrace()) {
-                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+                Log.v(TAG, "Result: CANCELLED"); //$NON-NLS-1$
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG,
+                    String.format("Fail to copy from %s to %s", //$NON-NLS-1$
+                            this.mSrc, this.mDst), e);
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(e);
+            }
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL"); //$NON-NLS-1$
             }
-            throw new NoSuchFileOrDirectory(this.mSrc);
         }
+    }
 
-        try {
-            TFile.cp_r(s, d, SecureConsole.DETECTOR, SecureConsole.DETECTOR);
-        } catch (IOException ex) {
-            throw new ExecutionException("Failed to copy file or directory", ex);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
         }
+    }
 
-        if (isTrace()) {
-            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        try {
+            synchronized (this.mSync) {
+                this.mCancelled = true;
+                if (this.mCopier != null) {
+                    this.mCopier.cancel();
+                }
+            }
+        } catch (Throwable _throw) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        return cancel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+
+    /**
+     * Method that copies recursively the source to the destination, notifying the progress
+     *
+     * @param s The source file or folder
+     * @param d The destination file or folder
+     * @throws InterruptedIOException If the operation was cancelled
+     * @throws ExecutionException If a problem was detected in the operation
+     */
+    private void copy(SecureFile s, SecureFile d)
+            throws InterruptedIOException, ExecutionException {
+        TransferProgressTracker tracker = new TransferProgressTracker(
+                this.mAsyncResultListener, SecureFileCopier.getTotalBytes(s));
+        SecureFileCopier copier = new SecureFileCopier(getBufferSize(), tracker);
+        synchronized (this.mSync) {
+            if (this.mCancelled) {
+                throw new InterruptedIOException("cancelled"); //$NON-NLS-1$
+            }
+            this.mCopier = copier;
+        }
+        try {
+            copier.copy(s, d);
+        } catch (InterruptedIOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ExecutionException("Failed to copy file or directory", ex);
         }
+        tracker.flush();
     }
 
     /**
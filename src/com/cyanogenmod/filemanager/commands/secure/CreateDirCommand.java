@@ -22,10 +22,9 @@ import com.cyanogenmod.filemanager.commands.CreateDirExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.MountPoint;
 
-import de.schlichtherle.truezip.file.TFile;
-
 
 /**
  * A class for create a directory.
@@ -73,7 +72,7 @@ public class CreateDirCommand extends Program implements CreateDirExecutable {
                     String.format("Creating directory: %s", this.mPath)); //$NON-NLS-1$
         }
 
-        TFile f = getConsole().buildRealFile(this.mPath);
+        SecureFile f = getConsole().buildRealFile(this.mPath);
         // Check that if the path exist, it need to be a directory. Otherwise something is
         // wrong
         if (f.exists() && !f.isDirectory()) {
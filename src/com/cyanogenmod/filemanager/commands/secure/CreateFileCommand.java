@@ -22,10 +22,9 @@ import com.cyanogenmod.filemanager.commands.CreateFileExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.MountPoint;
 
-import de.schlichtherle.truezip.file.TFile;
-
 import java.io.IOException;
 
 
@@ -77,7 +76,7 @@ public class CreateFileCommand extends Program implements CreateFileExecutable {
                     String.format("Creating file: %s", this.mPath)); //$NON-NLS-1$
         }
 
-        TFile f = getConsole().buildRealFile(this.mPath);
+        SecureFile f = getConsole().buildRealFile(this.mPath);
         // Check that if the path exist, it need to be a file. Otherwise
         // something is wrong
         if (f.exists() && !f.isFile()) {
@@ -22,11 +22,10 @@ import com.cyanogenmod.filemanager.commands.DeleteDirExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.MountPoint;
 import com.cyanogenmod.filemanager.util.FileHelper;
 
-import de.schlichtherle.truezip.file.TFile;
-
 
 /**
  * A class for delete a folder.
@@ -74,7 +73,7 @@ public class DeleteDirCommand extends Program implements DeleteDirExecutable {
                     String.format("Deleting directory: %s", this.mPath)); //$NON-NLS-1$
         }
 
-        TFile f = getConsole().buildRealFile(this.mPath);
+        SecureFile f = getConsole().buildRealFile(this.mPath);
         if (!f.exists()) {
             if (isTrace()) {
                 Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
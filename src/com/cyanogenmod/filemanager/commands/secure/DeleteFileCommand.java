@@ -22,12 +22,9 @@ import com.cyanogenmod.filemanager.commands.DeleteFileExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.MountPoint;
 
-import de.schlichtherle.truezip.file.TFile;
-
-import java.io.IOException;
-
 
 /**
  * A class for delete a file.
@@ -75,7 +72,7 @@ public class DeleteFileCommand extends Program implements DeleteFileExecutable {
                     String.format("Deleting file: %s", this.mPath)); //$NON-NLS-1$
         }
 
-        TFile f = getConsole().buildRealFile(this.mPath);
+        SecureFile f = getConsole().buildRealFile(this.mPath);
         if (!f.exists()) {
             if (isTrace()) {
                 Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
@@ -93,13 +90,11 @@ public class DeleteFileCommand extends Program implements DeleteFileExecutable {
         }
 
         // Delete the file
-        try {
-            TFile.rm(f);
-        } catch (IOException ex) {
+        if (!f.delete()) {
             if (isTrace()) {
-                Log.v(TAG, "Result: FAIL. IOException"); //$NON-NLS-1$
+                Log.v(TAG, "Result: FAIL. ExecutionException"); //$NON-NLS-1$
             }
-            throw new ExecutionException("Failed to delete file", ex);
+            throw new ExecutionException("Failed to delete file");
         }
 
         if (isTrace()) {
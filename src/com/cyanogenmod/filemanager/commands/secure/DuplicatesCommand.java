@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.secure;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.DuplicatesExecutable;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
+import com.cyanogenmod.filemanager.model.DuplicateGroup;
+import com.cyanogenmod.filemanager.util.DuplicateFinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A class for find the duplicated files of a directory tree of the secure storage.
+ *
+ * @see DuplicateFinder
+ */
+public class DuplicatesCommand extends Program implements DuplicatesExecutable {
+
+    private static final String TAG = "DuplicatesCommand"; //$NON-NLS-1$
+
+    private final String mDirectory;
+    private final AsyncResultListener mAsyncResultListener;
+    private final DuplicateFinder mFinder;
+
+    private boolean mCancelled;
+    private boolean mEnded;
+    private final Object mSync = new Object();
+
+    /**
+     * Constructor of <code>DuplicatesCommand</code>.
+     *
+     * @param console The secure console
+     * @param directory The absolute directory where start the search
+     * @param asyncResultListener The partial result listener
+     */
+    public DuplicatesCommand(SecureConsole console, String directory,
+            AsyncResultListener asyncResultListener) {
+        super(console);
+        this.mDirectory = directory;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mFinder = new DuplicateFinder(new DuplicateFinder.OnDuplicatesListener() {
+            @Override
+            public void onDuplicates(DuplicateGroup group) {
+                if (isTrace()) {
+                    Log.v(TAG, String.valueOf(group));
+                }
+                if (DuplicatesCommand.this.mAsyncResultListener != null) {
+                    DuplicatesCommand.this.mAsyncResultListener.onPartialResult(group);
+                }
+            }
+        }) {
+            @Override
+            protected InputStream openFile(File file) throws IOException {
+                return ((SecureFile) file).openInputStream();
+            }
+
+            @Override
+            protected String getPath(File file) {
+                // Report the virtual paths
+                return getConsole().buildVirtualPath(file);
+            }
+
+            @Override
+            protected boolean isSymlink(File file) {
+                // The secure storage doesn't support links
+                return false;
+            }
+        };
+        this.mCancelled = false;
+        this.mEnded = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() throws NoSuchFileOrDirectory, ExecutionException {
+        if (isTrace()) {
+            Log.v(TAG,
+                    String.format("Finding duplicates in %s", this.mDirectory)); //$NON-NLS-1$
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncStart();
+        }
+
+        SecureFile f = getConsole().buildRealFile(this.mDirectory);
+        if (!f.exists()) {
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(new NoSuchFileOrDirectory(this.mDirectory));
+            }
+        } else if (!f.isDirectory()) {
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(
+                        new ExecutionException("path exists but it's not a folder")); //$NON-NLS-1$
+            }
+        } else {
+            // Find the duplicates
+            this.mFinder.find(f);
+        }
+
+        synchronized (this.mSync) {
+            this.mEnded = true;
+            this.mSync.notify();
+        }
+
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncEnd(this.mCancelled);
+        }
+        if (this.mAsyncResultListener != null) {
+            this.mAsyncResultListener.onAsyncExitCode(0);
+        }
+
+        if (isTrace()) {
+            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        try {
+            synchronized (this.mSync) {
+                if (this.mEnded || this.mCancelled) {
+                    this.mCancelled = true;
+                    return true;
+                }
+                this.mCancelled = true;
+                this.mFinder.cancel();
+                this.mSync.wait(5000L);
+            }
+        } catch (Exception e) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        try {
+            synchronized (this.mSync) {
+                if (this.mEnded) {
+                    return true;
+                }
+                this.mEnded = true;
+                this.mFinder.cancel();
+                this.mSync.wait(5000L);
+            }
+        } catch (Exception e) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. secure console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. secure console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+}
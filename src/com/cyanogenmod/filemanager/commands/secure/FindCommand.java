@@ -24,14 +24,14 @@ import com.cyanogenmod.filemanager.commands.FindExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.model.Query;
 import com.cyanogenmod.filemanager.util.FileHelper;
 import com.cyanogenmod.filemanager.util.SearchHelper;
 
-import de.schlichtherle.truezip.file.TFile;
-
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * A class for search files.
@@ -41,6 +41,7 @@ public class FindCommand extends Program implements FindExecutable {
     private static final String TAG = "FindCommand"; //$NON-NLS-1$
 
     private final String mDirectory;
+    private final Query mQuery;
     private final String[] mQueryRegExp;
     private final ConcurrentAsyncResultListener mAsyncResultListener;
 
@@ -65,6 +66,7 @@ public class FindCommand extends Program implements FindExecutable {
         } else {
             this.mDirectory = directory;
         }
+        this.mQuery = query;
         this.mQueryRegExp = createRegexp(directory, query);
         this.mAsyncResultListener = asyncResultListener;
         if (mAsyncResultListener instanceof ConcurrentAsyncResultListener) {
@@ -96,7 +98,7 @@ public class FindCommand extends Program implements FindExecutable {
             this.mAsyncResultListener.onAsyncStart();
         }
 
-        TFile f = getConsole().buildRealFile(mDirectory);
+        SecureFile f = getConsole().buildRealFile(mDirectory);
         if (!f.exists()) {
             if (isTrace()) {
                 Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
@@ -135,34 +137,43 @@ public class FindCommand extends Program implements FindExecutable {
      *
      * @param folder The folder where to start the search
      */
-    private void findRecursive(TFile folder) {
+    private void findRecursive(SecureFile folder) {
         // Obtains the files and folders of the folders
-        TFile[] files = folder.listFiles();
+        SecureFile[] files = folder.listFiles();
         if (files != null) {
             int cc = files.length;
             for (int i = 0; i < cc; i++) {
-                if (files[i].isDirectory()) {
+                boolean isDirectory = files[i].isDirectory();
+                if (isDirectory) {
                     findRecursive(files[i]);
                 }
 
-                // Check if the file or folder matches the regexp
+                // Check if the file or folder matches the regexp and the constraints
+                // of the query. Only matched objects are converted to file system objects
                 try {
+                    String name = files[i].getName();
+                    boolean matches = false;
                     int ccc = this.mQueryRegExp.length;
                     for (int j = 0; j < ccc; j++) {
-                        if (files[i].getName().matches(this.mQueryRegExp[j])) {
-                            FileSystemObject fso = FileHelper.createFileSystemObject(files[i]);
-                            if (fso != null) {
-                                // Convert to virtual
-                                fso.setParent(getConsole().buildVirtualPath(
-                                        files[i].getParentFile()));
-                                fso.setSecure(true);
+                        if (name.matches(this.mQueryRegExp[j])) {
+                            matches = true;
+                            break;
+                        }
+                    }
+                    if (matches && SearchHelper.matchesConstraints(
+                            this.mQuery, files[i], isDirectory)) {
+                        FileSystemObject fso = FileHelper.createFileSystemObject(files[i]);
+                        if (fso != null) {
+                            // Convert to virtual
+                            fso.setParent(getConsole().buildVirtualPath(
+                                    files[i].getParentFile()));
+                            fso.setSecure(true);
 
-                                if (isTrace()) {
-                                    Log.v(TAG, String.valueOf(fso));
-                                }
-                                if (this.mAsyncResultListener != null) {
-                                    this.mAsyncResultListener.onPartialResult(fso);
-                                }
+                            if (isTrace()) {
+                                Log.v(TAG, String.valueOf(fso));
+                            }
+                            if (this.mAsyncResultListener != null) {
+                                this.mAsyncResultListener.onPartialResult(fso);
                             }
                         }
                     }
@@ -261,10 +272,11 @@ public class FindCommand extends Program implements FindExecutable {
      * @return String[] The regexp for filtering files
      */
     private static String[] createRegexp(String directory, Query query) {
-        String[] args = new String[query.getSlotsCount()];
-        int cc = query.getSlotsCount();
+        List<String> queries = query.getQueries();
+        String[] args = new String[queries.size()];
+        int cc = queries.size();
         for (int i = 0; i < cc; i++) {
-            args[i] = SearchHelper.toIgnoreCaseRegExp(query.getSlot(i), true);
+            args[i] = SearchHelper.toIgnoreCaseRegExp(queries.get(i), true);
         }
         return args;
     }
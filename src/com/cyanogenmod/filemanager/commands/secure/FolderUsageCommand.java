@@ -23,11 +23,11 @@ import com.cyanogenmod.filemanager.commands.FolderUsageExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.FolderUsage;
 import com.cyanogenmod.filemanager.util.MimeTypeHelper;
 import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
 
-import de.schlichtherle.truezip.file.TFile;
 
 /**
  * A class for retrieve the disk usage of a folder.
@@ -91,7 +91,7 @@ public class FolderUsageCommand extends Program implements FolderUsageExecutable
             this.mAsyncResultListener.onAsyncStart();
         }
 
-        TFile f = getConsole().buildRealFile(mDirectory);
+        SecureFile f = getConsole().buildRealFile(mDirectory);
         if (!f.exists()) {
             if (isTrace()) {
                 Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
@@ -135,10 +135,10 @@ public class FolderUsageCommand extends Program implements FolderUsageExecutable
      *
      * @param folder The folder where to start the computation
      */
-    private void computeRecursive(TFile folder) {
+    private void computeRecursive(SecureFile folder) {
         // Obtains the files and folders of the folders
         try {
-            TFile[] files = folder.listFiles();
+            SecureFile[] files = folder.listFiles();
             int c = 0;
             if (files != null) {
                 int cc = files.length;
@@ -22,13 +22,12 @@ import com.cyanogenmod.filemanager.commands.ListExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.Directory;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.model.ParentDirectory;
 import com.cyanogenmod.filemanager.util.FileHelper;
 
-import de.schlichtherle.truezip.file.TFile;
-
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
@@ -99,7 +98,7 @@ public class ListCommand extends Program implements ListExecutable {
                             this.mSrc, this.mMode));
         }
 
-        TFile f = getConsole().buildRealFile(mSrc);
+        SecureFile f = getConsole().buildRealFile(mSrc);
         boolean isSecureStorage = SecureConsole.isSecureStorageDir(f);
         File javaFile = f.getFile();
         if (!isSecureStorage && !f.exists()) {
@@ -110,7 +109,7 @@ public class ListCommand extends Program implements ListExecutable {
         }
         if (this.mMode.compareTo(LIST_MODE.DIRECTORY) == 0) {
             // List files in directory
-            TFile[] files = f.listFiles();
+            SecureFile[] files = f.listFiles();
             if (files != null) {
                 for (int i = 0; i < files.length; i++) {
                     FileSystemObject fso = FileHelper.createFileSystemObject(files[i]);
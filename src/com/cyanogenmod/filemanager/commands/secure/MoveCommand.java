@@ -18,21 +18,24 @@ package com.cyanogenmod.filemanager.commands.secure;
 
 import android.util.Log;
 
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.MoveExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 import com.cyanogenmod.filemanager.model.MountPoint;
 import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.TransferProgressTracker;
 
-import java.io.IOException;
-
-import de.schlichtherle.truezip.file.TFile;
-
+import java.io.InterruptedIOException;
 
 
 /**
- * A class for move a file or directory.
+ * A class for move a file or directory.<br/>
+ * <br/>
+ * The progress is returned as {@link com.cyanogenmod.filemanager.model.TransferProgress}
+ * partial results.
  */
 public class MoveCommand extends Program implements MoveExecutable {
 
@@ -40,6 +43,12 @@ public class MoveCommand extends Program implements MoveExecutable {
 
     private final String mSrc;
     private final String mDst;
+    private final AsyncResultListener mAsyncResultListener;
+    private Boolean mResult;
+
+    private boolean mCancelled;
+    private SecureFileCopier mCopier;
+    private final Object mSync = new Object();
 
     /**
      * Constructor of <code>MoveCommand</code>.
@@ -47,11 +56,23 @@ public class MoveCommand extends Program implements MoveExecutable {
      * @param console The current console
      * @param src The name of the file or directory to be moved
      * @param dst The name of the file or directory in which move the source file or directory
+     * @param asyncResultListener The partial result listener
      */
-    public MoveCommand(SecureConsole console, String src, String dst) {
+    public MoveCommand(SecureConsole console, String src, String dst,
+            AsyncResultListener asyncResultListener) {
         super(console);
         this.mSrc = src;
         this.mDst = dst;
+        this.mAsyncResultListener = asyncResultListener;
+        this.mResult = Boolean.FALSE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return true;
     }
 
     /**
@@ -67,7 +88,7 @@ public class MoveCommand extends Program implements MoveExecutable {
      */
     @Override
     public Boolean getResult() {
-        return Boolean.TRUE;
+        return this.mResult;
     }
 
     /**
@@ -77,45 +98,172 @@ public class MoveCommand extends Program implements MoveExecutable {
     public void execute() throws NoSuchFileOrDirectory, ExecutionException {
         if (isTrace()) {
             Log.v(TAG,
-                    String.format("Creating from %s to %s", this.mSrc, this.mDst)); //$NON-NLS-1$
+                    String.format("Moving from %s to %s", //$NON-NLS-1$
+                            this.mSrc, this.mDst));
         }
 
-        TFile s = getConsole().buildRealFile(this.mSrc);
-        TFile d = getConsole().buildRealFile(this.mDst);
-        if (!s.exists()) {
-            if (isTrace()) {
-                Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+        try {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncStart();
             }
-            throw new NoSuchFileOrDirectory(this.mSrc);
-        }
 
-        //Move or copy recursively
-        if (d.exists()) {
-            try {
-                TFile.cp_r(s, d, SecureConsole.DETECTOR, SecureConsole.DETECTOR);
-            } catch (IOException ex) {
-                throw new ExecutionException("Failed to move file or directory", ex);
-            }
-            if (!FileHelper.deleteFolder(s)) {
+            SecureFile s = getConsole().buildRealFile(this.mSrc);
+            SecureFile d = getConsole().buildRealFile(this.mDst);
+            if (!s.exists()) {
                 if (isTrace()) {
-                    Log.v(TAG, "Result: OK. WARNING. Source not deleted."); //$NON-NLS-1$
+                    Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
+                }
+                throw new NoSuchFileOrDirectory(this.mSrc);
+            }
+
+            //Move or copy recursively
+            if (d.exists()) {
+                copy(s, d);
+                if (!FileHelper.deleteFolder(s)) {
+                    if (isTrace()) {
+                        Log.v(TAG, "Result: OK. WARNING. Source not deleted."); //$NON-NLS-1$
+                    }
+                }
+            } else {
+                // Use rename. We are not cross filesystem with this console, so this operation
+                // should be safe
+                if (!s.renameTo(d)) {
+                    throw new ExecutionException("Failed to rename file or directory");
                 }
             }
-        } else {
-            // Use rename. We are not cross filesystem with this console, so this operation
-            // should be safe
-            try {
-                TFile.mv(s, d, SecureConsole.DETECTOR);
-            } catch (IOException ex) {
-                throw new ExecutionException("Failed to rename file or directory", ex);
+
+            this.mResult = Boolean.TRUE;
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncEnd(false);
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncExitCode(0);
+            }
+
+            if (isTrace()) {
+                Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+            }
+
+        } catch (InterruptedIOException iioe) {
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncEnd(true);
+            }
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onAsyncExitCode(143);
+            }
+
+            if (isTrace()) {
+                Log.v(TAG, "Result: CANCELLED"); //$NON-NLS-1$
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG,
+                    String.format("Fail to move from %s to %s", //$NON-NLS-1$
+                            this.mSrc, this.mDst), e);
+            if (this.mAsyncResultListener != null) {
+                this.mAsyncResultListener.onException(e);
+            }
+            if (isTrace()) {
+                Log.v(TAG, "Result: FAIL"); //$NON-NLS-1$
             }
         }
+    }
 
-        if (isTrace()) {
-            Log.v(TAG, "Result: OK"); //$NON-NLS-1$
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        synchronized (this.mSync) {
+            return this.mCancelled;
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean cancel() {
+        try {
+            synchronized (this.mSync) {
+                this.mCancelled = true;
+                if (this.mCopier != null) {
+                    this.mCopier.cancel();
+                }
+            }
+        } catch (Throwable _throw) {/**NON BLOCK**/}
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean end() {
+        return cancel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnEndListener(OnEndListener onEndListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setOnCancelListener(OnCancelListener onCancelListener) {
+        //Ignore. Java console don't use this
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancellable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AsyncResultListener getAsyncResultListener() {
+        return this.mAsyncResultListener;
+    }
+
+    /**
+     * Method that copies recursively the source to the destination, notifying the progress
+     *
+     * @param s The source file or folder
+     * @param d The destination file or folder
+     * @throws InterruptedIOException If the operation was cancelled
+     * @throws ExecutionException If a problem was detected in the operation
+     */
+    private void copy(SecureFile s, SecureFile d)
+            throws InterruptedIOException, ExecutionException {
+        TransferProgressTracker tracker = new TransferProgressTracker(
+                this.mAsyncResultListener, SecureFileCopier.getTotalBytes(s));
+        SecureFileCopier copier = new SecureFileCopier(getBufferSize(), tracker);
+        synchronized (this.mSync) {
+            if (this.mCancelled) {
+                throw new InterruptedIOException("cancelled"); //$NON-NLS-1$
+            }
+            this.mCopier = copier;
+        }
+        try {
+            copier.copy(s, d);
+        } catch (InterruptedIOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ExecutionException("Failed to move file or directory", ex);
+        }
+        tracker.flush();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -131,5 +279,4 @@ public class MoveCommand extends Program implements MoveExecutable {
     public MountPoint getDstWritableMountPoint() {
         return null;
     }
-
 }
@@ -23,7 +23,7 @@ import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
 
-import de.schlichtherle.truezip.file.TFile;
+import java.io.File;
 
 
 /**
@@ -67,7 +67,7 @@ public class ParentDirCommand extends Program implements ParentDirExecutable {
         }
 
         // Build the source file information
-        TFile f = getConsole().buildRealFile(mSrc).getParentFile();
+        File f = getConsole().buildRealFile(mSrc).getParentFile();
         boolean isSecureStorage = SecureConsole.isSecureStorageDir(f);
         if (isSecureStorage) {
             this.mParentDir = getConsole().getVirtualMountPoint().getAbsolutePath();
@@ -104,6 +104,16 @@ public abstract class Program implements Executable {
         return false;
     }
 
+    /**
+     * Method that returns if the program modifies the underlying storage. Programs that
+     * modify the storage run alone, while the rest of programs can run in parallel.
+     *
+     * @return boolean If the program modifies the underlying storage
+     */
+    public boolean isWriter() {
+        return requiresSync();
+    }
+
     /**
      * Method that returns if the program requires that the file system is mounted
      *
@@ -23,9 +23,7 @@ import com.cyanogenmod.filemanager.commands.ReadExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
-
-import de.schlichtherle.truezip.file.TFile;
-import de.schlichtherle.truezip.file.TFileInputStream;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 
 import java.io.BufferedInputStream;
 
@@ -81,7 +79,7 @@ public class ReadCommand extends Program implements ReadExecutable {
             this.mAsyncResultListener.onAsyncStart();
         }
 
-        TFile f = getConsole().buildRealFile(mFile);
+        SecureFile f = getConsole().buildRealFile(mFile);
         if (!f.exists()) {
             if (isTrace()) {
                 Log.v(TAG, "Result: FAIL. NoSuchFileOrDirectory"); //$NON-NLS-1$
@@ -120,11 +118,11 @@ public class ReadCommand extends Program implements ReadExecutable {
      *
      * @param file The file to read
      */
-    private void read(TFile file) {
+    private void read(SecureFile file) {
         // Read the file
         BufferedInputStream bis = null;
         try {
-            bis = new BufferedInputStream(new TFileInputStream(file), getBufferSize());
+            bis = new BufferedInputStream(file.openInputStream(), getBufferSize());
             int read = 0;
             byte[] data = new byte[getBufferSize()];
             while ((read = bis.read(data, 0, getBufferSize())) != -1) {
@@ -28,6 +28,7 @@ import com.cyanogenmod.filemanager.commands.CreateFileExecutable;
 import com.cyanogenmod.filemanager.commands.DeleteDirExecutable;
 import com.cyanogenmod.filemanager.commands.DeleteFileExecutable;
 import com.cyanogenmod.filemanager.commands.DiskUsageExecutable;
+import com.cyanogenmod.filemanager.commands.DuplicatesExecutable;
 import com.cyanogenmod.filemanager.commands.EchoExecutable;
 import com.cyanogenmod.filemanager.commands.ExecExecutable;
 import com.cyanogenmod.filemanager.commands.ExecutableCreator;
@@ -98,9 +99,10 @@ public class SecureExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public CopyExecutable createCopyExecutable(String src, String dst)
+    public CopyExecutable createCopyExecutable(
+            String src, String dst, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
-        return new CopyCommand(mConsole, src, dst);
+        return new CopyCommand(mConsole, src, dst, asyncResultListener);
     }
 
     /**
@@ -125,7 +127,8 @@ public class SecureExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public DeleteDirExecutable createDeleteDirExecutable(String dir)
+    public DeleteDirExecutable createDeleteDirExecutable(
+            String dir, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
         return new DeleteDirCommand(mConsole, dir);
     }
@@ -259,9 +262,10 @@ public class SecureExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public MoveExecutable createMoveExecutable(String src, String dst)
+    public MoveExecutable createMoveExecutable(
+            String src, String dst, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
-        return new MoveCommand(mConsole, src, dst);
+        return new MoveCommand(mConsole, src, dst, asyncResultListener);
     }
 
     /**
@@ -398,4 +402,14 @@ public class SecureExecutableCreator implements ExecutableCreator {
         return new ChecksumCommand(mConsole, src, asyncResultListener);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DuplicatesExecutable createDuplicatesExecutable(
+            String directory, AsyncResultListener asyncResultListener)
+            throws CommandNotFoundException {
+        return new DuplicatesCommand(mConsole, directory, asyncResultListener);
+    }
+
 }
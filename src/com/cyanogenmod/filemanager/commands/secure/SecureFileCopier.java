@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.secure;
+
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
+import com.cyanogenmod.filemanager.util.TransferProgressTracker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A class that copies files and directories inside the secure storage, reporting the
+ * progress of every buffer to a {@link TransferProgressTracker}.<br/>
+ * <br/>
+ * The tree is walked here, buffer by buffer, so the copy reports its progress and
+ * can be cancelled.
+ */
+final class SecureFileCopier {
+
+    private final TransferProgressTracker mTracker;
+    private final byte[] mBuffer;
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructor of <code>SecureFileCopier</code>.
+     *
+     * @param bufferSize The size of the copy buffer
+     * @param tracker The progress of the operation
+     */
+    SecureFileCopier(int bufferSize, TransferProgressTracker tracker) {
+        super();
+        this.mTracker = tracker;
+        this.mBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * Method that returns the total size of the files of a tree
+     *
+     * @param src The file or directory
+     * @return long The total size in bytes
+     */
+    static long getTotalBytes(SecureFile src) {
+        if (!src.isDirectory()) {
+            return src.length();
+        }
+        long total = 0;
+        SecureFile[] files = src.listFiles();
+        if (files != null) {
+            for (SecureFile file : files) {
+                total += getTotalBytes(file);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Method that cancels the copy. The copy stops at the next buffer.
+     */
+    void cancel() {
+        this.mCancelled = true;
+    }
+
+    /**
+     * Method that returns if the copy was cancelled
+     *
+     * @return boolean If the copy was cancelled
+     */
+    boolean isCancelled() {
+        return this.mCancelled;
+    }
+
+    /**
+     * Method that copies recursively a file or directory
+     *
+     * @param src The source file or directory
+     * @param dst The destination file or directory
+     * @throws IOException If the copy fails or was cancelled
+     */
+    void copy(SecureFile src, SecureFile dst) throws IOException {
+        checkCancelled();
+        if (src.isDirectory()) {
+            if (!dst.isDirectory() && !dst.mkdir()) {
+                throw new IOException("Failed to create " + dst); //$NON-NLS-1$
+            }
+            SecureFile[] files = src.listFiles();
+            if (files != null) {
+                for (SecureFile file : files) {
+                    copy(file, new SecureFile(dst, file.getName()));
+                }
+            }
+            return;
+        }
+
+        if (this.mTracker != null) {
+            this.mTracker.setCurrentFile(src.getPath());
+        }
+        InputStream is = null;
+        OutputStream os = null;
+        try {
+            is = src.openInputStream();
+            os = dst.openOutputStream();
+            int read;
+            while ((read = is.read(this.mBuffer)) != -1) {
+                checkCancelled();
+                os.write(this.mBuffer, 0, read);
+                if (this.mTracker != null) {
+                    this.mTracker.addBytes(read);
+                }
+            }
+        } finally {
+            try {
+                if (is != null) {
+                    is.close();
+                }
+            } catch (Throwable _throw) {/**NON BLOCK**/}
+            if (os != null) {
+                os.close();
+            }
+        }
+    }
+
+    /**
+     * Method that stops the copy if it was cancelled
+     *
+     * @throws InterruptedIOException If the copy was cancelled
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if (this.mCancelled) {
+            throw new InterruptedIOException("cancelled"); //$NON-NLS-1$
+        }
+    }
+}
@@ -23,9 +23,7 @@ import com.cyanogenmod.filemanager.commands.WriteExecutable;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
-
-import de.schlichtherle.truezip.file.TFile;
-import de.schlichtherle.truezip.file.TFileOutputStream;
+import com.cyanogenmod.filemanager.console.secure.SecureFile;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
@@ -47,6 +45,7 @@ public class WriteCommand extends Program implements WriteExecutable {
     private final AsyncResultListener mAsyncResultListener;
 
     private boolean mCancelled;
+    private boolean mEnded;
     private final Object mSync = new Object();
 
     private static final long TIMEOUT = 1000L;
@@ -67,6 +66,7 @@ public class WriteCommand extends Program implements WriteExecutable {
         this.mFile = file;
         this.mAsyncResultListener = asyncResultListener;
         this.mCancelled = false;
+        this.mEnded = false;
         this.mReady = false;
     }
 
@@ -78,6 +78,14 @@ public class WriteCommand extends Program implements WriteExecutable {
         return true;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean requiresSync() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -92,8 +100,8 @@ public class WriteCommand extends Program implements WriteExecutable {
                     } catch (Exception e) {/**NON BLOCK**/}
                 }
             }
-            TFile f = getConsole().buildRealFile(mFile);
-            this.mBuffer = new BufferedOutputStream(new TFileOutputStream(f), getBufferSize());
+            SecureFile f = getConsole().buildRealFile(mFile);
+            this.mBuffer = new BufferedOutputStream(f.openOutputStream(), getBufferSize());
             return this.mBuffer;
         } catch (IOException ioEx) {
             if (isTrace()) {
@@ -108,9 +116,9 @@ public class WriteCommand extends Program implements WriteExecutable {
      */
     @Override
     public void execute() throws NoSuchFileOrDirectory, ExecutionException {
-        synchronized (this.mSync) {
+        synchronized (this.mWriteSync) {
             this.mReady = true;
-            this.mSync.notify();
+            this.mWriteSync.notifyAll();
         }
 
         if (isTrace()) {
@@ -125,7 +133,9 @@ public class WriteCommand extends Program implements WriteExecutable {
         // Wait the finalization
         try {
             synchronized (this.mSync) {
-                this.mSync.wait();
+                while (!this.mEnded && !this.mCancelled) {
+                    this.mSync.wait();
+                }
             }
         } catch (Throwable _throw) {/**NON BLOCK**/}
 
@@ -157,9 +167,9 @@ public class WriteCommand extends Program implements WriteExecutable {
     @Override
     public boolean cancel() {
         closeBuffer();
-        this.mCancelled = true;
         try {
             synchronized (this.mSync) {
+                this.mCancelled = true;
                 this.mSync.notify();
             }
         } catch (Throwable _throw) {/**NON BLOCK**/}
@@ -174,6 +184,7 @@ public class WriteCommand extends Program implements WriteExecutable {
         closeBuffer();
         try {
             synchronized (this.mSync) {
+                this.mEnded = true;
                 this.mSync.notify();
             }
         } catch (Throwable _throw) {/**NON BLOCK**/}
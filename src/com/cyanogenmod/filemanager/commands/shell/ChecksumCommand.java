@@ -26,9 +26,10 @@ import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
 import java.io.File;
 
 /**
- * A class for calculate MD5 and SHA-1 checksums of a file system object.<br />
+ * A class for calculate MD5, SHA-1 and SHA-256 checksums of a file system object.<br />
  * <br />
- * Partial results are returned in order (MD5 -> SHA1)
+ * Partial results are returned in order (MD5 -> SHA1 -> SHA256). There isn't a shell tool
+ * for CRC32, so its checksum is not computed.
  *
  * {@link "http://unixhelp.ed.ac.uk/CGI/man-cgi?md5sum"}
  * {@link "http://unixhelp.ed.ac.uk/CGI/man-cgi?sha1sum"}
@@ -53,7 +54,7 @@ public class ChecksumCommand extends AsyncResultProgram implements ChecksumExecu
     public ChecksumCommand(String src, AsyncResultListener asyncResultListener)
             throws InvalidCommandDefinitionException {
         super(ID, asyncResultListener, src);
-        this.mChecksums = new String[]{null, null};
+        this.mChecksums = new String[CHECKSUMS.values().length];
         this.mName = new File(src).getName();
     }
 
@@ -62,8 +63,9 @@ public class ChecksumCommand extends AsyncResultProgram implements ChecksumExecu
      */
     @Override
     public void onStartParsePartialResult() {
-        this.mChecksums[0] = null;
-        this.mChecksums[1] = null;
+        for (int i = 0; i < this.mChecksums.length; i++) {
+            this.mChecksums[i] = null;
+        }
         this.mChecksumsCounter = 0;
         this.mPartial = ""; //$NON-NLS-1$
     }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.shell;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.DuplicatesExecutable;
+import com.cyanogenmod.filemanager.commands.SIGNAL;
+import com.cyanogenmod.filemanager.console.CommandNotFoundException;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
+import com.cyanogenmod.filemanager.model.DuplicateGroup;
+import com.cyanogenmod.filemanager.util.FileHelper;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class for find the duplicated files of a directory tree.
+ * <br/>
+ * The whole size, partial checksum and full checksum pipeline runs in the shell: the files
+ * are grouped by size with <code>sort</code> and <code>awk</code>, only the files that share the
+ * size are partially hashed (first and last 64KB), and only the files that share the partial
+ * checksum are fully hashed. Every line of the output is a candidate file
+ * (<code>size:partial full path</code>), sorted by the partial key, so a group is complete when
+ * the key changes.
+ *
+ * {@link "http://unixhelp.ed.ac.uk/CGI/man-cgi?find"}
+ */
+public class DuplicatesCommand extends AsyncResultProgram implements DuplicatesExecutable {
+
+    private static final String TAG = "DuplicatesCommand"; //$NON-NLS-1$
+
+    private static final String ID = "duplicates"; //$NON-NLS-1$
+
+    private String mKey;
+    private final List<String[]> mCandidates;
+
+    /**
+     * Constructor of <code>DuplicatesCommand</code>.
+     *
+     * @param directory The absolute directory where start the search
+     * @param asyncResultListener The partial result listener
+     * @throws InvalidCommandDefinitionException If the command has an invalid definition
+     */
+    public DuplicatesCommand(String directory, AsyncResultListener asyncResultListener)
+            throws InvalidCommandDefinitionException {
+        super(ID, asyncResultListener, FileHelper.addTrailingSlash(directory));
+        this.mCandidates = new ArrayList<String[]>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStartParsePartialResult() {
+        this.mKey = null;
+        this.mCandidates.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEndParsePartialResult(boolean cancelled) {
+        if (!cancelled) {
+            flushCandidates();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onParsePartialResult(final String partialIn) {
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new StringReader(partialIn));
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                int keyEnd = line.indexOf(' ');
+                int checksumEnd = line.indexOf(' ', keyEnd + 1);
+                if (keyEnd <= 0 || checksumEnd == -1 || checksumEnd == line.length() - 1) {
+                    continue;
+                }
+                String key = line.substring(0, keyEnd);
+                if (this.mKey == null || this.mKey.compareTo(key) != 0) {
+                    flushCandidates();
+                    this.mKey = key;
+                }
+                this.mCandidates.add(new String[]{
+                        line.substring(keyEnd + 1, checksumEnd),
+                        line.substring(checksumEnd + 1)});
+            }
+
+        } catch (Exception ex) {
+            Log.w(TAG, "Partial result fails", ex); //$NON-NLS-1$
+
+        } finally {
+            try {
+                if (br != null) {
+                    br.close();
+                }
+            } catch (Throwable ex) {
+                /**NON BLOCK**/
+            }
+        }
+    }
+
+    /**
+     * Method that groups the candidates of the current partial key by its full checksum
+     * and notifies the groups of duplicated files
+     */
+    private void flushCandidates() {
+        if (this.mKey == null || this.mCandidates.size() < 2) {
+            this.mCandidates.clear();
+            return;
+        }
+        try {
+            long size = Long.parseLong(this.mKey.substring(0, this.mKey.indexOf(':')));
+            Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+            for (String[] candidate : this.mCandidates) {
+                List<String> files = groups.get(candidate[0]);
+                if (files == null) {
+                    files = new ArrayList<String>(2);
+                    groups.put(candidate[0], files);
+                }
+                files.add(candidate[1]);
+            }
+            for (Map.Entry<String, List<String>> entry : groups.entrySet()) {
+                if (entry.getValue().size() > 1) {
+                    DuplicateGroup group =
+                            new DuplicateGroup(size, entry.getKey(), entry.getValue());
+                    if (isTrace()) {
+                        Log.v(TAG, String.valueOf(group));
+                    }
+                    if (getAsyncResultListener() != null) {
+                        getAsyncResultListener().onPartialResult(group);
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to parse the key " + this.mKey, ex); //$NON-NLS-1$
+        }
+        this.mCandidates.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onParseErrorPartialResult(String partialErr) {/**NON BLOCK**/}
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SIGNAL onRequestEnd() {
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isIgnoreShellStdErrCheck() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void checkExitCode(int exitCode)
+            throws InsufficientPermissionsException, CommandNotFoundException, ExecutionException {
+
+        //Access a subdirectory without permissions returns 1, but this
+        //not must be treated as an error
+        //Ignore exit code 143 (cancelled)
+        //Ignore exit code 137 (kill -9)
+        if (exitCode != 0 && exitCode != 1 && exitCode != 143 && exitCode != 137) {
+            throw new ExecutionException(
+                        "exitcode != 0 && != 1 && != 143 && != 137"); //$NON-NLS-1$
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.cyanogenmod.filemanager.commands.shell;
 
 import android.util.Log;
 
+import com.cyanogenmod.filemanager.FileManagerApplication;
 import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.FindExecutable;
 import com.cyanogenmod.filemanager.commands.SIGNAL;
@@ -27,8 +28,11 @@ import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.model.Query;
 import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.MimeTypeHelper;
+import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
 import com.cyanogenmod.filemanager.util.ParseHelper;
 import com.cyanogenmod.filemanager.util.SearchHelper;
+import com.cyanogenmod.filemanager.util.ShellHelper;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -47,7 +51,10 @@ public class FindCommand extends AsyncResultProgram implements FindExecutable {
 
     private static final String ID = "find";  //$NON-NLS-1$
 
+    private static final long MILLIS_PER_MINUTE = 60000L;
+
     private final File mDirectory;
+    private final Query mQuery;
 
     /**
      * Constructor of <code>FindCommand</code>.
@@ -60,8 +67,10 @@ public class FindCommand extends AsyncResultProgram implements FindExecutable {
     public FindCommand(
             String directory, Query query, AsyncResultListener asyncResultListener)
             throws InvalidCommandDefinitionException {
-        super(ID, asyncResultListener, createArgs(FileHelper.addTrailingSlash(directory), query));
+        super(ID, asyncResultListener, FileHelper.addTrailingSlash(directory));
+        addExpandedArguments(createExpression(query));
         this.mDirectory = new File(directory);
+        this.mQuery = query;
     }
 
     /**
@@ -105,8 +114,12 @@ public class FindCommand extends AsyncResultProgram implements FindExecutable {
                 try {
                     FileSystemObject fso = ParseHelper.parseStatOutput(line);
 
-                    // Search directory is not part of the search
-                    if (fso.getFullPath().compareTo(this.mDirectory.getAbsolutePath()) != 0) {
+                    // Search directory is not part of the search. The find expression
+                    // already filtered the constraints, but some of them (the mime/type
+                    // category or the time range) are only an approximation, so check
+                    // them again prior to publish the result
+                    if (fso.getFullPath().compareTo(this.mDirectory.getAbsolutePath()) != 0
+                            && SearchHelper.matchesConstraints(this.mQuery, fso)) {
                         partialFiles.add(fso);
                     }
 
@@ -180,20 +193,114 @@ public class FindCommand extends AsyncResultProgram implements FindExecutable {
     }
 
     /**
-     * Method that create the arguments of this command, using the directory and
-     * arguments and creating the regular expressions of the search.
+     * Method that create the find expression of this command, creating a disjunction
+     * of the regular expressions of the terms of the search (there is no limit in the
+     * number of terms), followed by the expressions of the constraints of the query.
      *
-     * @param directory The directory where to search
      * @param query The query make for user
-     * @return String[] The arguments of the command
+     * @return String The find expression (already prepared)
      */
-    private static String[] createArgs(String directory, Query query) {
-        String[] args = new String[query.getSlotsCount() + 1];
-        args[0] = directory;
-        int cc = query.getSlotsCount();
+    private static String createExpression(Query query) {
+        StringBuilder sb = new StringBuilder();
+        List<String> queries = query.getQueries();
+        int cc = queries.size();
+        if (cc > 0) {
+            sb.append("\\( "); //$NON-NLS-1$
+            for (int i = 0; i < cc; i++) {
+                if (i > 0) {
+                    sb.append("-o "); //$NON-NLS-1$
+                }
+                sb.append("-name \"") //$NON-NLS-1$
+                  .append(ShellHelper.prepareArgument(
+                          SearchHelper.toIgnoreCaseRegExp(queries.get(i), false)))
+                  .append("\" "); //$NON-NLS-1$
+            }
+            sb.append("\\) "); //$NON-NLS-1$
+        }
+        String[] constraints = createConstraintArgs(query);
+        cc = constraints.length;
         for (int i = 0; i < cc; i++) {
-            args[i + 1] = SearchHelper.toIgnoreCaseRegExp(query.getSlot(i), false);
+            sb.append(constraints[i]).append(" "); //$NON-NLS-1$
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Method that create the find expressions that evaluates the constraints of the
+     * query (size, modification time, type and mime/type category), so non-matching
+     * objects are never returned by the command.
+     *
+     * @param query The query make for user
+     * @return String[] The find expressions
+     */
+    private static String[] createConstraintArgs(Query query) {
+        List<String> args = new ArrayList<String>();
+        if (!query.hasConstraints()) {
+            return args.toArray(new String[args.size()]);
+        }
+
+        // Type
+        switch (query.getObjectType()) {
+            case FILES_ONLY:
+                args.add("! -type d"); //$NON-NLS-1$
+                break;
+            case DIRECTORIES_ONLY:
+                args.add("-type d"); //$NON-NLS-1$
+                break;
+            default:
+                break;
+        }
+
+        // Mime/type category. Only categories resolved by extension or system files
+        // can be expressed as a find expression
+        MimeTypeCategory category = query.getMimeTypeCategory();
+        if (category != null) {
+            if (category.compareTo(MimeTypeCategory.SYSTEM) == 0) {
+                args.add("\\( -type b -o -type c -o -type p -o -type s \\)"); //$NON-NLS-1$
+            } else if (category.compareTo(MimeTypeCategory.NONE) != 0) {
+                List<String> extensions = MimeTypeHelper.getExtensionsOfCategory(
+                        FileManagerApplication.getInstance(), category);
+                StringBuilder sb = new StringBuilder("\\("); //$NON-NLS-1$
+                int cc = extensions.size();
+                for (int i = 0; i < cc; i++) {
+                    if (i > 0) {
+                        sb.append(" -o"); //$NON-NLS-1$
+                    }
+                    sb.append(" -iname '*.") //$NON-NLS-1$
+                      .append(extensions.get(i))
+                      .append("'"); //$NON-NLS-1$
+                }
+                sb.append(" \\)"); //$NON-NLS-1$
+                if (cc > 0) {
+                    args.add("! -type d"); //$NON-NLS-1$
+                    args.add(sb.toString());
+                }
+            }
+        }
+
+        // Size (in bytes)
+        if (query.getMinSize() > 0) {
+            args.add(String.format("-size +%dc", //$NON-NLS-1$
+                    Long.valueOf(query.getMinSize() - 1)));
+        }
+        if (query.getMaxSize() != Query.NO_LIMIT) {
+            args.add(String.format("-size -%dc", //$NON-NLS-1$
+                    Long.valueOf(query.getMaxSize() + 1)));
+        }
+
+        // Modification time. find only deals with minutes of age, so the expressions
+        // are relaxed to one minute more than the needed range
+        long now = System.currentTimeMillis();
+        if (query.getMinLastModified() != Query.NO_LIMIT) {
+            long minutes = ((now - query.getMinLastModified()) / MILLIS_PER_MINUTE) + 2;
+            args.add(String.format("-mmin -%d", Long.valueOf(minutes))); //$NON-NLS-1$
+        }
+        if (query.getMaxLastModified() != Query.NO_LIMIT) {
+            long minutes = ((now - query.getMaxLastModified()) / MILLIS_PER_MINUTE) - 1;
+            if (minutes >= 0) {
+                args.add(String.format("-mmin +%d", Long.valueOf(minutes))); //$NON-NLS-1$
+            }
         }
-        return args;
+        return args.toArray(new String[args.size()]);
     }
 }
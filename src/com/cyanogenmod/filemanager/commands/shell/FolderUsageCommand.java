@@ -24,21 +24,7 @@ import com.cyanogenmod.filemanager.commands.SIGNAL;
 import com.cyanogenmod.filemanager.console.CommandNotFoundException;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
-import com.cyanogenmod.filemanager.model.BlockDevice;
-import com.cyanogenmod.filemanager.model.CharacterDevice;
-import com.cyanogenmod.filemanager.model.Directory;
-import com.cyanogenmod.filemanager.model.DomainSocket;
 import com.cyanogenmod.filemanager.model.FolderUsage;
-import com.cyanogenmod.filemanager.model.NamedPipe;
-import com.cyanogenmod.filemanager.model.Symlink;
-import com.cyanogenmod.filemanager.util.FileHelper;
-import com.cyanogenmod.filemanager.util.MimeTypeHelper;
-import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
-
-import java.io.BufferedReader;
-import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A class for retrieve the disk usage of a folder
@@ -53,6 +39,7 @@ public class FolderUsageCommand extends AsyncResultProgram implements FolderUsag
 
     private final String mDirectory;
     private FolderUsage mFolderUsage;
+    private FolderUsageParser mParser;
 
     /**
      * Constructor of <code>FolderUsageCommand</code>.
@@ -66,6 +53,7 @@ public class FolderUsageCommand extends AsyncResultProgram implements FolderUsag
             throws InvalidCommandDefinitionException {
         super(ID, asyncResultListener, new String[]{directory});
         this.mFolderUsage = new FolderUsage(directory);
+        this.mParser = new FolderUsageParser(this.mFolderUsage);
         this.mDirectory = directory;
     }
 
@@ -75,6 +63,7 @@ public class FolderUsageCommand extends AsyncResultProgram implements FolderUsag
     @Override
     public void onStartParsePartialResult() {
         this.mFolderUsage = new FolderUsage(this.mDirectory);
+        this.mParser = new FolderUsageParser(this.mFolderUsage);
     }
 
     /**
@@ -90,132 +79,27 @@ public class FolderUsageCommand extends AsyncResultProgram implements FolderUsag
      */
     @Override
     public void onParsePartialResult(final String partialIn) {
-
-        // Check the in buffer to extract information
-        BufferedReader br = null;
         try {
-            // Parse the line. We expect a ls -l output line
-            // -rw-r--r-- root     root            7 2012-12-30 00:49 test.txt
-            //
-            // (1) permissions
-            // (2) number of links and directories
-            // (3) owner
-            // (4) group
-            // (5) size
-            // (6) date
-            // (7) name
-
-            //Partial contains full lines
-            br = new BufferedReader(new StringReader(partialIn));
-
-            //Add all lines to an array
-            List<String> lines = new ArrayList<String>();
-            String line = null;
-            while ((line = br.readLine()) != null) {
-                // Discard empty, paths, and folder links
-                if (line.length() == 0 ||
-                    line.startsWith(FileHelper.ROOT_DIRECTORY) ||
-                    line.startsWith(FileHelper.CURRENT_DIRECTORY) ||
-                    line.startsWith(FileHelper.PARENT_DIRECTORY)) {
-                    continue;
-                }
-                lines.add(line);
-            }
-
-            int c = 0;
-            try {
-                while (lines.size() > 0) {
-                    // Retrieve the info
-                    String szLine = lines.remove(0).trim();
-                    try {
-                        // Clean the line (we don't care about names, only need the extension)
-                        // so remove spaces is safe here
-                        while (szLine.indexOf("  ") != -1) { //$NON-NLS-1$
-                            szLine = szLine.replaceAll("  ", " "); //$NON-NLS-1$ //$NON-NLS-2$
-                        }
-
-                        // Don't compute . and ..
-                        // This is not secure, but we don't need a exact precission on this
-                        // method
-                        if (szLine.length() == 0 ||
-                            szLine.endsWith(" " + FileHelper.CURRENT_DIRECTORY) || //$NON-NLS-1$
-                            szLine.endsWith(" " + FileHelper.PARENT_DIRECTORY)) { //$NON-NLS-1$
-                            c++;
-                            continue;
-                        }
-
-                        char type = szLine.charAt(0);
-                        if (type == Symlink.UNIX_ID ||
-                                type == BlockDevice.UNIX_ID ||
-                                type == CharacterDevice.UNIX_ID ||
-                                type == DomainSocket.UNIX_ID ||
-                                type == NamedPipe.UNIX_ID) {
-                            // File + Category
-                            this.mFolderUsage.addFile();
-                            if (type == Symlink.UNIX_ID) {
-                                this.mFolderUsage.addFileToCategory(MimeTypeCategory.NONE);
-                            } else {
-                                this.mFolderUsage.addFileToCategory(MimeTypeCategory.SYSTEM);
-                            }
-
-                        } else if (type == Directory.UNIX_ID) {
-                            // Folder
-                            this.mFolderUsage.addFolder();
-
-                        } else {
-                            // File + Category + Size
-                            try {
-                                // we need a valid line
-                                String[] fields = szLine.split(" "); //$NON-NLS-1$
-                                if (fields.length < 8) {
-                                    continue;
-                                }
-
-                                long size = Long.parseLong(fields[4]);
-                                String name = fields[fields.length-1];// We only need the extension
-                                String ext = FileHelper.getExtension(name);
-                                MimeTypeCategory category =
-                                        MimeTypeHelper.getCategoryFromExt(null, ext);
-                                this.mFolderUsage.addFile();
-                                this.mFolderUsage.addFileToCategory(category);
-                                this.mFolderUsage.addSize(size);
-                            } catch (Exception e) {/**NON BLOCK**/}
-                        }
-                        c++;
-
-                    } catch (Exception e) {
-                        // Ignore.
-                    }
-
-                    // Partial notification
-                    if (c % 5 == 0) {
-                        //If a listener is defined, then send the partial result
-                        if (getAsyncResultListener() != null) {
-                            getAsyncResultListener().onPartialResult(this.mFolderUsage);
-                        }
-                    }
-                }
-            } catch (Exception ex) { /**NON BLOCK **/ }
-
-            //If a listener is defined, then send the partial result
-            if (getAsyncResultListener() != null) {
-                getAsyncResultListener().onPartialResult(this.mFolderUsage);
-            }
-
+            // The parser keeps the state of incomplete lines between partial results
+            this.mParser.parse(partialIn);
         } catch (Exception ex) {
             Log.w(TAG, "Partial result fails", ex); //$NON-NLS-1$
+        }
 
-        } finally {
-            try {
-                if (br != null) {
-                    br.close();
-                }
-            } catch (Throwable ex) {
-                /**NON BLOCK**/
-            }
+        //If a listener is defined, then send the partial result
+        if (getAsyncResultListener() != null) {
+            getAsyncResultListener().onPartialResult(this.mFolderUsage);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean parseOnlyCompleteLines() {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
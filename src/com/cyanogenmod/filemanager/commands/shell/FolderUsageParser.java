@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.shell;
+
+import com.cyanogenmod.filemanager.model.BlockDevice;
+import com.cyanogenmod.filemanager.model.CharacterDevice;
+import com.cyanogenmod.filemanager.model.Directory;
+import com.cyanogenmod.filemanager.model.DomainSocket;
+import com.cyanogenmod.filemanager.model.FolderUsage;
+import com.cyanogenmod.filemanager.model.NamedPipe;
+import com.cyanogenmod.filemanager.model.Symlink;
+import com.cyanogenmod.filemanager.util.MimeTypeHelper;
+import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
+
+/**
+ * A streaming parser of the output of <code>ls -alR</code>.
+ * <br/>
+ * The parser is a state machine fed with arbitrary chunks of the output (the chunks don't need
+ * to contain complete lines). Every character is consumed only once and the lines are never
+ * split into strings: the type, the size and the name of every entry are extracted in place
+ * and accumulated straight into a {@link FolderUsage}. The only allocations are the strings of
+ * the extensions not seen before.
+ * <pre>
+ * /data/app:
+ * total 16
+ * drwxr-xr-x    2 system   system        4096 Dec 30 00:49 .
+ * -rw-r--r--    1 root     root             7 Dec 30 00:49 test.txt
+ * </pre>
+ */
+class FolderUsageParser {
+
+    // The states of the machine
+    private static final int STATE_LINE_START = 0;
+    private static final int STATE_ENTRY = 1;
+    private static final int STATE_SKIP_LINE = 2;
+
+    // The fields of a "ls -l" line
+    private static final int FIELD_SIZE = 4;
+    private static final int MIN_FIELDS = 8;
+
+    private static final int MAX_NAME_LENGTH = 1024;
+    private static final int EXTENSION_CACHE_SIZE = 64;
+
+    private static final char[] TAR = {'t', 'a', 'r'};
+    private static final char[][] COMPRESSED_TAR_EXTENSIONS = {
+        {'g', 'z'}, {'b', 'z', '2'}, {'l', 'z', 'm', 'a'}
+    };
+
+    private final FolderUsage mFolderUsage;
+
+    private int mState;
+    private char mType;
+    private int mFields;
+    private boolean mInField;
+    private long mSize;
+    private boolean mValidSize;
+
+    // The last field of the line (the name, or its last word if it contains spaces)
+    private final char[] mName;
+    private int mNameLength;
+
+    // Direct mapped cache of the resolved extensions
+    private final String[] mExtensions;
+    private final MimeTypeCategory[] mCategories;
+
+    /**
+     * Constructor of <code>FolderUsageParser</code>.
+     *
+     * @param folderUsage The folder usage where to accumulate the parsed entries
+     */
+    FolderUsageParser(FolderUsage folderUsage) {
+        super();
+        this.mFolderUsage = folderUsage;
+        this.mName = new char[MAX_NAME_LENGTH];
+        this.mExtensions = new String[EXTENSION_CACHE_SIZE];
+        this.mCategories = new MimeTypeCategory[EXTENSION_CACHE_SIZE];
+        this.mState = STATE_LINE_START;
+    }
+
+    /**
+     * Method that returns the folder usage where the entries are accumulated
+     *
+     * @return FolderUsage The folder usage
+     */
+    FolderUsage getFolderUsage() {
+        return this.mFolderUsage;
+    }
+
+    /**
+     * Method that parses a chunk of the output
+     *
+     * @param data The chunk of the output
+     */
+    void parse(CharSequence data) {
+        int cc = data.length();
+        for (int i = 0; i < cc; i++) {
+            char c = data.charAt(i);
+            if (c == '\n') {
+                if (this.mState == STATE_ENTRY) {
+                    onEndOfEntry();
+                }
+                this.mState = STATE_LINE_START;
+                continue;
+            }
+            if (c == '\r') {
+                continue;
+            }
+
+            switch (this.mState) {
+                case STATE_LINE_START:
+                    if (c == ' ' || c == '\t') {
+                        // Leading spaces
+                        break;
+                    }
+                    if (c == '/' || c == '.') {
+                        // Directory header (absolute or relative)
+                        this.mState = STATE_SKIP_LINE;
+                        break;
+                    }
+                    this.mState = STATE_ENTRY;
+                    this.mType = c;
+                    this.mFields = 0;
+                    this.mInField = true;
+                    break;
+
+                case STATE_ENTRY:
+                    if (c == ' ' || c == '\t') {
+                        if (this.mInField) {
+                            this.mInField = false;
+                            this.mFields++;
+                        }
+                        break;
+                    }
+                    if (!this.mInField) {
+                        this.mInField = true;
+                        this.mNameLength = 0;
+                        if (this.mFields == FIELD_SIZE) {
+                            this.mSize = 0;
+                            this.mValidSize = true;
+                        }
+                    }
+                    if (this.mFields == FIELD_SIZE) {
+                        if (c >= '0' && c <= '9') {
+                            this.mSize = this.mSize * 10 + (c - '0');
+                        } else {
+                            this.mValidSize = false;
+                        }
+                    }
+                    if (this.mNameLength < MAX_NAME_LENGTH) {
+                        this.mName[this.mNameLength] = c;
+                    }
+                    this.mNameLength++;
+                    break;
+
+                default:
+                    // Skip the rest of the line
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Method that accumulates the entry of the current line
+     */
+    private void onEndOfEntry() {
+        int fields = this.mFields + (this.mInField ? 1 : 0);
+
+        // Don't compute . and ..
+        if (fields > 1 && isDotEntry()) {
+            return;
+        }
+
+        char type = this.mType;
+        if (type == Symlink.UNIX_ID ||
+                type == BlockDevice.UNIX_ID ||
+                type == CharacterDevice.UNIX_ID ||
+                type == DomainSocket.UNIX_ID ||
+                type == NamedPipe.UNIX_ID) {
+            // File + Category
+            this.mFolderUsage.addFile();
+            if (type == Symlink.UNIX_ID) {
+                this.mFolderUsage.addFileToCategory(MimeTypeCategory.NONE);
+            } else {
+                this.mFolderUsage.addFileToCategory(MimeTypeCategory.SYSTEM);
+            }
+
+        } else if (type == Directory.UNIX_ID) {
+            // Folder
+            this.mFolderUsage.addFolder();
+
+        } else if (fields >= MIN_FIELDS && this.mValidSize) {
+            // File + Category + Size (discard "total" and other non entry lines)
+            MimeTypeCategory category = getCategory();
+            this.mFolderUsage.addFile();
+            this.mFolderUsage.addFileToCategory(category);
+            this.mFolderUsage.addSizeToCategory(category, this.mSize);
+            this.mFolderUsage.addSize(this.mSize);
+        }
+    }
+
+    /**
+     * Method that returns if the name of the current entry is . or ..
+     *
+     * @return boolean If the name of the current entry is . or ..
+     */
+    private boolean isDotEntry() {
+        int len = this.mNameLength;
+        return (len == 1 && this.mName[0] == '.') ||
+                (len == 2 && this.mName[0] == '.' && this.mName[1] == '.');
+    }
+
+    /**
+     * Method that returns the category of the current entry from the extension of its name.
+     * The extension is extracted in the same way as <code>FileHelper.getExtension</code>.
+     *
+     * @return MimeTypeCategory The category of the current entry
+     */
+    private MimeTypeCategory getCategory() {
+        int len = this.mNameLength;
+        if (len > MAX_NAME_LENGTH) {
+            // Too long to be a real name
+            return MimeTypeCategory.NONE;
+        }
+        char[] name = this.mName;
+        int dot = len - 1;
+        while (dot >= 0 && name[dot] != '.') {
+            dot--;
+        }
+        if (dot <= 0) {
+            // Hidden files doesn't have extensions
+            return MimeTypeCategory.NONE;
+        }
+        int start = dot + 1;
+        if (dot >= TAR.length + 1 && name[dot - TAR.length - 1] == '.'
+                && regionMatches(name, dot - TAR.length, TAR)) {
+            for (char[] ext : COMPRESSED_TAR_EXTENSIONS) {
+                if (len - start == ext.length && regionMatches(name, start, ext)) {
+                    start = dot - TAR.length;
+                    break;
+                }
+            }
+        }
+
+        // Lookup the extension in the cache
+        int hash = 0;
+        for (int i = start; i < len; i++) {
+            hash = 31 * hash + name[i];
+        }
+        int slot = (hash & 0x7fffffff) % EXTENSION_CACHE_SIZE;
+        String cached = this.mExtensions[slot];
+        if (cached != null && cached.length() == len - start) {
+            int i = 0;
+            while (i < len - start && cached.charAt(i) == name[start + i]) {
+                i++;
+            }
+            if (i == len - start) {
+                return this.mCategories[slot];
+            }
+        }
+
+        String ext = new String(name, start, len - start);
+        MimeTypeCategory category = MimeTypeHelper.getCategoryFromExt(null, ext);
+        this.mExtensions[slot] = ext;
+        this.mCategories[slot] = category;
+        return category;
+    }
+
+    /**
+     * Method that checks if a region of a buffer matches the passed characters
+     *
+     * @param buffer The buffer
+     * @param offset The start of the region
+     * @param chars The characters to match
+     * @return boolean If the region matches the characters
+     */
+    private static boolean regionMatches(char[] buffer, int offset, char[] chars) {
+        for (int i = 0; i < chars.length; i++) {
+            if (buffer[offset + i] != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -16,48 +16,118 @@
 
 package com.cyanogenmod.filemanager.commands.shell;
 
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.MoveExecutable;
+import com.cyanogenmod.filemanager.commands.SIGNAL;
 import com.cyanogenmod.filemanager.console.CommandNotFoundException;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
 import com.cyanogenmod.filemanager.model.MountPoint;
 import com.cyanogenmod.filemanager.util.MountPointHelper;
-
-import java.text.ParseException;
+import com.cyanogenmod.filemanager.util.TransferProgressTracker;
 
 
 /**
- * A class for move a file or directory.
+ * A class for move a file or directory.<br/>
+ * <br/>
+ * There isn't a shell tool that reports the progress of a copy, so the command prints the
+ * size in bytes of the files of the source (<code>T:&lt;size&gt;</code>), and then copies
+ * the tree file by file, printing the size and the name of every file copied
+ * (<code>P:&lt;size&gt; &lt;name&gt;</code>). The progress is returned as
+ * {@link com.cyanogenmod.filemanager.model.TransferProgress} partial results.
+ * A move inside the same filesystem is only a rename, so it doesn't report any progress.
  *
  * {@link "http://unixhelp.ed.ac.uk/CGI/man-cgi?mv"}
  */
-public class MoveCommand extends SyncResultProgram implements MoveExecutable {
+public class MoveCommand extends AsyncResultProgram implements MoveExecutable {
 
     private static final String ID = "mv";  //$NON-NLS-1$
+
+    private static final String TOTAL_PREFIX = "T:"; //$NON-NLS-1$
+    private static final String PROGRESS_PREFIX = "P:"; //$NON-NLS-1$
+
     private Boolean mRet;
     private final String mSrc;
     private final String mDst;
+    private final TransferProgressTracker mTracker;
+    private String mPartial;
 
     /**
      * Constructor of <code>MoveCommand</code>.
      *
      * @param src The name of the file or directory to be moved
      * @param dst The name of the file or directory in which move the source file or directory
+     * @param asyncResultListener The partial result listener
      * @throws InvalidCommandDefinitionException If the command has an invalid definition
      */
-    public MoveCommand(String src, String dst) throws InvalidCommandDefinitionException {
-        super(ID, src, dst);
+    public MoveCommand(String src, String dst, AsyncResultListener asyncResultListener)
+            throws InvalidCommandDefinitionException {
+        super(ID, asyncResultListener, src, dst);
         this.mSrc = src;
         this.mDst = dst;
+        this.mTracker = new TransferProgressTracker(asyncResultListener, -1);
+        this.mRet = Boolean.FALSE;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void parse(String in, String err) throws ParseException {
-        //Release the return object
-        this.mRet = Boolean.TRUE;
+    public void onStartParsePartialResult() {
+        this.mTracker.setCurrentFile(this.mSrc);
+        this.mPartial = ""; //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEndParsePartialResult(boolean cancelled) {
+        if (!cancelled) {
+            this.mTracker.flush();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onParsePartialResult(final String partialIn) {
+        if (partialIn == null || partialIn.length() == 0) return;
+        boolean endsWithNewLine = partialIn.endsWith("\n"); //$NON-NLS-1$
+        String[] lines = partialIn.split("\n"); //$NON-NLS-1$
+
+        // Append the pending data to the first line
+        lines[0] = this.mPartial + lines[0];
+
+        // Parse all the lines, except the last if it's not complete
+        int cc = endsWithNewLine ? lines.length : lines.length - 1;
+        for (int i = 0; i < cc; i++) {
+            parseLine(lines[i]);
+        }
+        this.mPartial = endsWithNewLine ? "" : lines[lines.length - 1]; //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onParseErrorPartialResult(String partialErr) {/**NON BLOCK**/}
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SIGNAL onRequestEnd() {
+        try {
+            if (this.getProgramListener().getOutputStream() != null) {
+                this.getProgramListener().getOutputStream().flush();
+            }
+        } catch (Exception ex) {/**NON BLOCK**/}
+        try {
+            Thread.yield();
+        } catch (Exception ex) {/**NON BLOCK**/}
+        return null;
     }
 
     /**
@@ -74,9 +144,15 @@ public class MoveCommand extends SyncResultProgram implements MoveExecutable {
     @Override
     public void checkExitCode(int exitCode)
             throws InsufficientPermissionsException, CommandNotFoundException, ExecutionException {
+        //Ignore exit code 143 (cancelled) and 137 (kill -9) only if the operation was
+        //cancelled. A cp killed by anyone else is a failure
+        if (isCancelled()) {
+            return;
+        }
         if (exitCode != 0) {
             throw new ExecutionException("exitcode != 0"); //$NON-NLS-1$
         }
+        this.mRet = Boolean.TRUE;
     }
 
     /**
@@ -96,10 +172,24 @@ public class MoveCommand extends SyncResultProgram implements MoveExecutable {
     }
 
     /**
-     * {@inheritDoc}
+     * Method that parses a line of the progress of the copy
+     *
+     * @param line The line
      */
-    @Override
-    public boolean isIndefinitelyWait() {
-        return true;
+    private void parseLine(String line) {
+        try {
+            if (line.startsWith(TOTAL_PREFIX)) {
+                this.mTracker.setTotalBytes(
+                        Long.parseLong(line.substring(TOTAL_PREFIX.length()).trim()));
+            } else if (line.startsWith(PROGRESS_PREFIX)) {
+                int pos = line.indexOf(' ');
+                if (pos == -1) {
+                    return;
+                }
+                this.mTracker.setCurrentFile(line.substring(pos + 1));
+                this.mTracker.addBytes(
+                        Long.parseLong(line.substring(PROGRESS_PREFIX.length(), pos)));
+            }
+        } catch (NumberFormatException nfex) {/**NON BLOCK**/}
     }
 }
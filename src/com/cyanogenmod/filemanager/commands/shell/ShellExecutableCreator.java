@@ -28,6 +28,7 @@ import com.cyanogenmod.filemanager.commands.CreateFileExecutable;
 import com.cyanogenmod.filemanager.commands.DeleteDirExecutable;
 import com.cyanogenmod.filemanager.commands.DeleteFileExecutable;
 import com.cyanogenmod.filemanager.commands.DiskUsageExecutable;
+import com.cyanogenmod.filemanager.commands.DuplicatesExecutable;
 import com.cyanogenmod.filemanager.commands.EchoExecutable;
 import com.cyanogenmod.filemanager.commands.ExecExecutable;
 import com.cyanogenmod.filemanager.commands.ExecutableCreator;
@@ -107,10 +108,11 @@ public class ShellExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public CopyExecutable createCopyExecutable(String src, String dst)
+    public CopyExecutable createCopyExecutable(
+            String src, String dst, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
         try {
-            return new CopyCommand(src, dst);
+            return new CopyCommand(src, dst, asyncResultListener);
         } catch (InvalidCommandDefinitionException icdEx) {
             throw new CommandNotFoundException("CopyCommand", icdEx); //$NON-NLS-1$
         }
@@ -146,7 +148,8 @@ public class ShellExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public DeleteDirExecutable createDeleteDirExecutable(String dir)
+    public DeleteDirExecutable createDeleteDirExecutable(
+            String dir, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
         try {
             return new DeleteDirCommand(dir);
@@ -339,10 +342,11 @@ public class ShellExecutableCreator implements ExecutableCreator {
      * {@inheritDoc}
      */
     @Override
-    public MoveExecutable createMoveExecutable(String src, String dst)
+    public MoveExecutable createMoveExecutable(
+            String src, String dst, AsyncResultListener asyncResultListener)
             throws CommandNotFoundException {
         try {
-            return new MoveCommand(src, dst);
+            return new MoveCommand(src, dst, asyncResultListener);
         } catch (InvalidCommandDefinitionException icdEx) {
             throw new CommandNotFoundException("MoveCommand", icdEx); //$NON-NLS-1$
         }
@@ -539,4 +543,18 @@ public class ShellExecutableCreator implements ExecutableCreator {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DuplicatesExecutable createDuplicatesExecutable(
+            String directory, AsyncResultListener asyncResultListener)
+            throws CommandNotFoundException {
+        try {
+            return new DuplicatesCommand(directory, asyncResultListener);
+        } catch (InvalidCommandDefinitionException icdEx) {
+            throw new CommandNotFoundException("DuplicatesCommand", icdEx); //$NON-NLS-1$
+        }
+    }
+
 }
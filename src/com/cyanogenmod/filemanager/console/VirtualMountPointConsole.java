@@ -22,6 +22,7 @@ import android.os.SystemClock;
 
 import com.cyanogenmod.filemanager.FileManagerApplication;
 import com.cyanogenmod.filemanager.R;
+import com.cyanogenmod.filemanager.console.archive.ArchiveConsole;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
 import com.cyanogenmod.filemanager.model.Directory;
 import com.cyanogenmod.filemanager.model.DiskUsage;
@@ -128,6 +129,7 @@ public abstract class VirtualMountPointConsole extends VirtualConsole {
 
         // Register every known virtual mountable console
         sVirtualConsoles.add(SecureConsole.getInstance(context, bufferSize));
+        sVirtualConsoles.add(ArchiveConsole.getInstance(context, bufferSize));
         // TODO Add remote consoles. Not ready for now.
         // sVirtualConsoles.add(new RemoteConsole(context));
     }
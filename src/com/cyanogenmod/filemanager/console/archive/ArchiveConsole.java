@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.archive;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.Executable;
+import com.cyanogenmod.filemanager.commands.ExecutableFactory;
+import com.cyanogenmod.filemanager.commands.MountExecutable;
+import com.cyanogenmod.filemanager.commands.archive.ArchiveExecutableFactory;
+import com.cyanogenmod.filemanager.commands.archive.Program;
+import com.cyanogenmod.filemanager.console.AuthenticationFailedException;
+import com.cyanogenmod.filemanager.console.CancelledOperationException;
+import com.cyanogenmod.filemanager.console.CommandNotFoundException;
+import com.cyanogenmod.filemanager.console.ConsoleAllocException;
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
+import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.console.OperationTimeoutException;
+import com.cyanogenmod.filemanager.console.ReadOnlyFilesystemException;
+import com.cyanogenmod.filemanager.console.VirtualMountPointConsole;
+import com.cyanogenmod.filemanager.model.DiskUsage;
+import com.cyanogenmod.filemanager.model.Identity;
+import com.cyanogenmod.filemanager.model.MountPoint;
+import com.cyanogenmod.filemanager.util.AIDHelper;
+import com.cyanogenmod.filemanager.util.FileHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only implementation of a {@link VirtualMountPointConsole} that mounts zip and tar
+ * archives as directories, so they can be browsed without extract them.
+ * <br/>
+ * Every mounted archive is a directory of the virtual mount point, named as the archive.
+ * The entries are served from an {@link ArchiveIndex}, so listing a directory never reads
+ * the archive, and reading an entry only reads the bytes of that entry.
+ */
+public class ArchiveConsole extends VirtualMountPointConsole {
+
+    private static final String TAG = "ArchiveConsole"; //$NON-NLS-1$
+
+    // The maximum number of archives mounted at the same time
+    private static final int MAX_MOUNTED_ARCHIVES = 8;
+
+    private static ArchiveConsole sConsole = null;
+
+    private final int mBufferSize;
+    private final Identity mIdentity;
+
+    // The mounted archives by mount name, in access order
+    private final Map<String, ArchiveIndex> mArchives;
+
+    /**
+     * Return an instance of the current console
+     *
+     * @param ctx The current context
+     * @param bufferSize The buffer size of the programs
+     * @return ArchiveConsole The archive console
+     */
+    public static synchronized ArchiveConsole getInstance(Context ctx, int bufferSize) {
+        if (sConsole == null) {
+            sConsole = new ArchiveConsole(ctx, bufferSize);
+        }
+        return sConsole;
+    }
+
+    /**
+     * Constructor of <code>ArchiveConsole</code>
+     *
+     * @param ctx The current context
+     * @param bufferSize The buffer size of the programs
+     */
+    private ArchiveConsole(Context ctx, int bufferSize) {
+        super(ctx);
+        this.mBufferSize = bufferSize;
+        this.mIdentity = AIDHelper.createVirtualIdentity();
+        this.mArchives = new LinkedHashMap<String, ArchiveIndex>(
+                MAX_MOUNTED_ARCHIVES, 0.75f, true) {
+            private static final long serialVersionUID = -1430617318385364262L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArchiveIndex> eldest) {
+                return size() > MAX_MOUNTED_ARCHIVES;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return "Archive"; //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getMountPointName() {
+        return "archive"; //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isMounted() {
+        return !this.mArchives.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean unmount() {
+        this.mArchives.clear();
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized List<MountPoint> getMountPoints() {
+        List<MountPoint> mountPoints = new ArrayList<MountPoint>();
+        for (String name : this.mArchives.keySet()) {
+            mountPoints.add(createMountPoint(name));
+        }
+        return mountPoints;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized List<DiskUsage> getDiskUsage() {
+        List<DiskUsage> diskUsage = new ArrayList<DiskUsage>();
+        for (Map.Entry<String, ArchiveIndex> archive : this.mArchives.entrySet()) {
+            diskUsage.add(createDiskUsage(archive.getKey(), archive.getValue()));
+        }
+        return diskUsage;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized DiskUsage getDiskUsage(String path) {
+        String name = getArchiveName(path);
+        if (name != null) {
+            ArchiveIndex index = this.mArchives.get(name);
+            if (index != null) {
+                return createDiskUsage(name, index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ExecutableFactory getExecutableFactory() {
+        return new ArchiveExecutableFactory(this);
+    }
+
+    /**
+     * Method that returns the identity of the entries of the archives
+     *
+     * @return Identity The identity of the entries
+     */
+    public Identity getIdentity() {
+        return this.mIdentity;
+    }
+
+    /**
+     * Method that mounts an archive. If the archive is already mounted, the current mount
+     * is reused (or refreshed if the archive changed).
+     *
+     * @param ctx The current context
+     * @param archive The path of the archive
+     * @return String The virtual path of the root directory of the archive
+     * @throws IOException If the archive can't be read or isn't supported
+     */
+    public String mount(Context ctx, String archive) throws IOException {
+        File file = new File(archive).getAbsoluteFile();
+        synchronized (this) {
+            for (Map.Entry<String, ArchiveIndex> mounted : this.mArchives.entrySet()) {
+                ArchiveIndex index = mounted.getValue();
+                if (index.getArchive().equals(file) && !index.isStale()) {
+                    // Refresh the access order
+                    this.mArchives.get(mounted.getKey());
+                    return getMountPath(mounted.getKey());
+                }
+            }
+        }
+
+        // Index the archive outside the lock, it could take a while the first time
+        ArchiveIndex index = ArchiveIndex.open(file, ctx.getCacheDir());
+        synchronized (this) {
+            // Remove a stale mount of the same archive
+            Iterator<Map.Entry<String, ArchiveIndex>> it = this.mArchives.entrySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getValue().getArchive().equals(file)) {
+                    it.remove();
+                }
+            }
+
+            String name = file.getName();
+            for (int i = 2; this.mArchives.containsKey(name); i++) {
+                name = String.format("%s (%d)", file.getName(), Integer.valueOf(i)); //$NON-NLS-1$
+            }
+            this.mArchives.put(name, index);
+            Log.i(TAG, String.format("Mounted %s at %s (%d entries)", //$NON-NLS-1$
+                    file, name, Integer.valueOf(index.getCount())));
+            return getMountPath(name);
+        }
+    }
+
+    /**
+     * Method that returns the names of the mounted archives
+     *
+     * @return List<String> The mount names of the archives
+     */
+    public synchronized List<String> getMountedArchives() {
+        return new ArrayList<String>(this.mArchives.keySet());
+    }
+
+    /**
+     * Method that returns the index of a mounted archive
+     *
+     * @param name The mount name of the archive
+     * @return ArchiveIndex The index of the archive, or <code>null</code> if the archive
+     * isn't mounted
+     */
+    public synchronized ArchiveIndex getArchive(String name) {
+        return this.mArchives.get(name);
+    }
+
+    /**
+     * Method that returns the index of the mounted archive of a virtual path
+     *
+     * @param path The virtual path
+     * @return ArchiveIndex The index of the archive, or <code>null</code> if the path
+     * isn't inside a mounted archive
+     */
+    public synchronized ArchiveIndex getArchiveForPath(String path) {
+        String name = getArchiveName(path);
+        return name == null ? null : this.mArchives.get(name);
+    }
+
+    /**
+     * Method that returns the mount name of the archive of a virtual path
+     *
+     * @param path The virtual path
+     * @return String The mount name, or <code>null</code> if the path is the virtual mount
+     * point or doesn't belong to this console
+     */
+    public String getArchiveName(String path) {
+        String relative = getRelativePath(path);
+        if (relative == null || relative.length() == 0) {
+            return null;
+        }
+        int pos = relative.indexOf('/');
+        return pos == -1 ? relative : relative.substring(0, pos);
+    }
+
+    /**
+     * Method that returns the path of an entry inside its archive
+     *
+     * @param path The virtual path
+     * @return String The path relative to the root of the archive (an empty string for the
+     * root of the archive), or <code>null</code> if the path isn't inside an archive
+     */
+    public String getEntryPath(String path) {
+        String relative = getRelativePath(path);
+        if (relative == null || relative.length() == 0) {
+            return null;
+        }
+        int pos = relative.indexOf('/');
+        return pos == -1 ? "" : relative.substring(pos + 1); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that returns the virtual path of a mounted archive
+     *
+     * @param name The mount name of the archive
+     * @return String The virtual path of the root directory of the archive
+     */
+    public String getMountPath(String name) {
+        return new File(getVirtualMountPoint(), name).getAbsolutePath();
+    }
+
+    /**
+     * Method that returns if the path is a resource of this console
+     *
+     * @param path The path to check
+     * @return boolean If the path belongs to the virtual mount point of this console
+     */
+    public boolean isArchiveResource(String path) {
+        return FileHelper.belongsToDirectory(new File(path), getVirtualMountPoint());
+    }
+
+    /**
+     * Method that returns the path relative to the virtual mount point
+     *
+     * @param path The virtual path
+     * @return String The relative path, or <code>null</code> if the path doesn't belong
+     * to this console
+     */
+    private String getRelativePath(String path) {
+        String mp = getVirtualMountPoint().getAbsolutePath();
+        String abs = new File(path).getAbsolutePath();
+        if (abs.equals(mp)) {
+            return ""; //$NON-NLS-1$
+        }
+        if (!abs.startsWith(mp + File.separator)) {
+            return null;
+        }
+        return abs.substring(mp.length() + 1);
+    }
+
+    /**
+     * Method that creates the mount point of a mounted archive
+     *
+     * @param name The mount name of the archive
+     * @return MountPoint The read-only mount point of the archive
+     */
+    private MountPoint createMountPoint(String name) {
+        ArchiveIndex index = this.mArchives.get(name);
+        String type = index != null && index.getFormat() == ArchiveIndex.FORMAT_TAR
+                ? "tarfs" : "zipfs"; //$NON-NLS-1$ //$NON-NLS-2$
+        String device = index != null ? index.getArchive().getAbsolutePath() : name;
+        return new MountPoint(getMountPath(name), device, type,
+                MountExecutable.READONLY, 0, 0, false, false);
+    }
+
+    /**
+     * Method that creates the disk usage of a mounted archive. The archive is full and
+     * has the size of the archive file.
+     *
+     * @param name The mount name of the archive
+     * @param index The index of the archive
+     * @return DiskUsage The disk usage of the archive
+     */
+    private DiskUsage createDiskUsage(String name, ArchiveIndex index) {
+        long size = index.getArchive().length();
+        return new DiskUsage(getMountPath(name), size, size, 0);
+    }
+
+    /**
+     * Method that returns the read-only mount point of a virtual path
+     *
+     * @param path The virtual path
+     * @return MountPoint The mount point of the path
+     */
+    public synchronized MountPoint getMountPointForPath(String path) {
+        String name = getArchiveName(path);
+        if (name == null) {
+            return new MountPoint(getVirtualMountPoint().getAbsolutePath(), "archive", //$NON-NLS-1$
+                    "archivefs", MountExecutable.READONLY, 0, 0, false, false); //$NON-NLS-1$
+        }
+        return createMountPoint(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Executable executable, Context ctx)
+            throws ConsoleAllocException, InsufficientPermissionsException, NoSuchFileOrDirectory,
+            OperationTimeoutException, ExecutionException, CommandNotFoundException,
+            ReadOnlyFilesystemException, CancelledOperationException,
+            AuthenticationFailedException {
+        // Check that the program is an archive program
+        try {
+            Program p = (Program) executable;
+            p.setBufferSize(this.mBufferSize);
+        } catch (Throwable e) {
+            Log.e(TAG, String.format("Failed to resolve program: %s", //$NON-NLS-1$
+                    executable.getClass().toString()), e);
+            throw new CommandNotFoundException("executable is not a program", e); //$NON-NLS-1$
+        }
+
+        //Auditing program execution
+        if (isTrace()) {
+            Log.v(TAG, String.format("Executing program: %s", //$NON-NLS-1$
+                    executable.getClass().toString()));
+        }
+
+        final Program program = (Program) executable;
+
+        // Archives are read-only
+        String writePath = program.getWritePath();
+        if (writePath != null) {
+            throw new ReadOnlyFilesystemException(getMountPointForPath(writePath));
+        }
+
+        // Execute the program
+        program.setTrace(isTrace());
+        if (program.isAsynchronous()) {
+            // Execute in a thread
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        program.execute();
+                    } catch (Exception e) {
+                        // Program must use onException to communicate exceptions
+                        Log.v(TAG,
+                                String.format("Async execute failed program: %s", //$NON-NLS-1$
+                                program.getClass().toString()));
+                    }
+                }
+            };
+            t.start();
+
+        } else {
+            // Synchronous execution
+            program.execute();
+        }
+    }
+}
@@ -0,0 +1,1146 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.archive;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.ParallelZipExtractor;
+import com.cyanogenmod.filemanager.util.TarInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact and immutable index of the entries of a zip or tar archive.
+ * <br/>
+ * The index is built once from the central directory of a zip archive or from the headers
+ * of a tar archive (the content of the entries is never read), and is stored in parallel
+ * arrays in breadth-first order, so the children of every directory are contiguous and
+ * sorted by name. Listing a directory is a range of the arrays, and a path is resolved
+ * with a binary search per component. The index is cached on disk, keyed by the path and
+ * the modification time of the archive, so an archive is only parsed again if it changed.
+ * <br/>
+ * The content of an entry is read straight from its position in the archive, so reading an
+ * entry only touches the bytes of that entry.
+ */
+public class ArchiveIndex {
+
+    private static final String TAG = "ArchiveIndex"; //$NON-NLS-1$
+
+    /**
+     * A zip archive (or a zip based format, like jar or apk)
+     */
+    public static final int FORMAT_ZIP = 0;
+    /**
+     * An uncompressed tar archive
+     */
+    public static final int FORMAT_TAR = 1;
+
+    /**
+     * The entry is a directory
+     */
+    public static final int TYPE_DIRECTORY = 0;
+    /**
+     * The entry is a regular file
+     */
+    public static final int TYPE_FILE = 1;
+    /**
+     * The entry is a symbolic link
+     */
+    public static final int TYPE_SYMLINK = 2;
+
+    private static final String[] ZIP_EXTENSIONS = {"zip", "jar", "apk"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    private static final String[] TAR_EXTENSIONS = {"tar"}; //$NON-NLS-1$
+
+    // The format of the cache files
+    private static final int CACHE_MAGIC = 0x43414958;
+    private static final int CACHE_VERSION = 1;
+    private static final String CACHE_DIR = "archives"; //$NON-NLS-1$
+    private static final String CACHE_EXTENSION = ".idx"; //$NON-NLS-1$
+    private static final int MAX_CACHE_FILES = 16;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File mArchive;
+    private final long mArchiveTime;
+    private final long mArchiveLength;
+    private final int mFormat;
+
+    private final int mCount;
+    private final String[] mNames;
+    private final int[] mParents;
+    private final int[] mFirstChild;
+    private final int[] mChildCount;
+    private final byte[] mTypes;
+    private final int[] mModes;
+    private final long[] mSizes;
+    private final long[] mTimes;
+    private final long[] mOffsets;
+    private final long[] mCompressedSizes;
+    private final byte[] mMethods;
+    private final int[] mCrcs;
+    private final String[] mLinks;
+
+    /**
+     * Constructor of <code>ArchiveIndex</code>.
+     *
+     * @param archive The archive
+     * @param archiveTime The modification time of the archive when it was indexed
+     * @param archiveLength The length of the archive when it was indexed
+     * @param format The format of the archive
+     * @param count The number of entries (including the root directory)
+     */
+    private ArchiveIndex(File archive, long archiveTime, long archiveLength, int format,
+            int count) {
+        super();
+        this.mArchive = archive;
+        this.mArchiveTime = archiveTime;
+        this.mArchiveLength = archiveLength;
+        this.mFormat = format;
+        this.mCount = count;
+        this.mNames = new String[count];
+        this.mParents = new int[count];
+        this.mFirstChild = new int[count];
+        this.mChildCount = new int[count];
+        this.mTypes = new byte[count];
+        this.mModes = new int[count];
+        this.mSizes = new long[count];
+        this.mTimes = new long[count];
+        this.mOffsets = new long[count];
+        this.mCompressedSizes = new long[count];
+        this.mMethods = new byte[count];
+        this.mCrcs = new int[count];
+        this.mLinks = new String[count];
+    }
+
+    /**
+     * Method that returns the format of an archive from its name.
+     *
+     * @param name The name of the archive
+     * @return int The format of the archive, or <code>-1</code> if the archive can't be indexed
+     */
+    public static int getFormat(String name) {
+        String ext = FileHelper.getExtension(name);
+        if (ext == null) {
+            return -1;
+        }
+        for (String zip : ZIP_EXTENSIONS) {
+            if (zip.equalsIgnoreCase(ext)) {
+                return FORMAT_ZIP;
+            }
+        }
+        for (String tar : TAR_EXTENSIONS) {
+            if (tar.equalsIgnoreCase(ext)) {
+                return FORMAT_TAR;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method that returns if an archive can be browsed without extract it. Only the formats
+     * with random access to the entries are supported (compressed tar archives need to be
+     * decompressed from the start to reach an entry).
+     *
+     * @param name The name of the archive
+     * @return boolean If the archive can be browsed
+     */
+    public static boolean isSupported(String name) {
+        return getFormat(name) != -1;
+    }
+
+    /**
+     * Method that returns the index of an archive, from the disk cache if the archive
+     * didn't change since it was indexed, or parsing the archive otherwise.
+     *
+     * @param archive The archive
+     * @param cacheDir The cache directory of the application
+     * @return ArchiveIndex The index of the archive
+     * @throws IOException If the archive can't be read or is corrupted
+     */
+    public static ArchiveIndex open(File archive, File cacheDir) throws IOException {
+        int format = getFormat(archive.getName());
+        if (format == -1 || !archive.isFile()) {
+            throw new IOException("Unsupported archive: " + archive); //$NON-NLS-1$
+        }
+        File dir = new File(cacheDir, CACHE_DIR);
+        File cache = new File(dir, getCacheName(archive));
+        if (cache.isFile()) {
+            try {
+                ArchiveIndex index = load(cache, archive);
+                if (index != null) {
+                    // Mark as recently used
+                    cache.setLastModified(System.currentTimeMillis());
+                    return index;
+                }
+            } catch (IOException ex) {
+                Log.w(TAG, "Discarding the cached index " + cache, ex); //$NON-NLS-1$
+            }
+            cache.delete();
+        }
+
+        ArchiveIndex index = build(archive, format);
+        try {
+            if (dir.isDirectory() || dir.mkdirs()) {
+                index.save(cache);
+                trimCache(dir);
+            }
+        } catch (IOException ex) {
+            // The index is still valid, it only can't be reused
+            Log.w(TAG, "Failed to cache the index of " + archive, ex); //$NON-NLS-1$
+        }
+        return index;
+    }
+
+    /**
+     * Method that returns the archive of this index
+     *
+     * @return File The archive
+     */
+    public File getArchive() {
+        return this.mArchive;
+    }
+
+    /**
+     * Method that returns the format of the archive
+     *
+     * @return int The format of the archive
+     */
+    public int getFormat() {
+        return this.mFormat;
+    }
+
+    /**
+     * Method that returns if the archive changed since it was indexed
+     *
+     * @return boolean If the index doesn't match the archive
+     */
+    public boolean isStale() {
+        return this.mArchive.lastModified() != this.mArchiveTime
+                || this.mArchive.length() != this.mArchiveLength;
+    }
+
+    /**
+     * Method that returns the number of entries of the index, including the root directory
+     *
+     * @return int The number of entries
+     */
+    public int getCount() {
+        return this.mCount;
+    }
+
+    /**
+     * Method that resolves a path inside the archive.
+     *
+     * @param path The path relative to the root of the archive (an empty path or
+     * "/" is the root directory)
+     * @return int The entry of the path, or <code>-1</code> if the path doesn't exist
+     */
+    public int lookup(String path) {
+        int entry = 0;
+        int start = 0;
+        int len = path.length();
+        while (start < len) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = len;
+            }
+            if (end > start) {
+                entry = findChild(entry, path.substring(start, end));
+                if (entry == -1) {
+                    return -1;
+                }
+            }
+            start = end + 1;
+        }
+        return entry;
+    }
+
+    /**
+     * Method that search a child of a directory by name
+     *
+     * @param dir The directory
+     * @param name The name of the child
+     * @return int The child, or <code>-1</code> if the directory hasn't a child with that name
+     */
+    private int findChild(int dir, String name) {
+        int low = this.mFirstChild[dir];
+        int high = low + this.mChildCount[dir] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = this.mNames[mid].compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method that returns the path of an entry relative to the root of the archive
+     *
+     * @param entry The entry
+     * @return String The path of the entry (an empty string for the root directory)
+     */
+    public String getPath(int entry) {
+        if (entry == 0) {
+            return ""; //$NON-NLS-1$
+        }
+        StringBuilder sb = new StringBuilder(this.mNames[entry]);
+        int parent = this.mParents[entry];
+        while (parent != 0) {
+            sb.insert(0, '/').insert(0, this.mNames[parent]);
+            parent = this.mParents[parent];
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Method that returns the name of an entry
+     *
+     * @param entry The entry
+     * @return String The name of the entry
+     */
+    public String getName(int entry) {
+        return this.mNames[entry];
+    }
+
+    /**
+     * Method that returns the parent directory of an entry
+     *
+     * @param entry The entry
+     * @return int The parent directory, or <code>-1</code> for the root directory
+     */
+    public int getParent(int entry) {
+        return this.mParents[entry];
+    }
+
+    /**
+     * Method that returns the first child of a directory
+     *
+     * @param entry The directory
+     * @return int The first child. The children of a directory are contiguous
+     */
+    public int getFirstChild(int entry) {
+        return this.mFirstChild[entry];
+    }
+
+    /**
+     * Method that returns the number of children of a directory
+     *
+     * @param entry The directory
+     * @return int The number of children
+     */
+    public int getChildCount(int entry) {
+        return this.mChildCount[entry];
+    }
+
+    /**
+     * Method that returns the type of an entry
+     *
+     * @param entry The entry
+     * @return int The type of the entry
+     */
+    public int getType(int entry) {
+        return this.mTypes[entry];
+    }
+
+    /**
+     * Method that returns if an entry is a directory
+     *
+     * @param entry The entry
+     * @return boolean If the entry is a directory
+     */
+    public boolean isDirectory(int entry) {
+        return this.mTypes[entry] == TYPE_DIRECTORY;
+    }
+
+    /**
+     * Method that returns the permissions of an entry
+     *
+     * @param entry The entry
+     * @return int The permissions, or <code>0</code> if the archive doesn't have them
+     */
+    public int getMode(int entry) {
+        return this.mModes[entry];
+    }
+
+    /**
+     * Method that returns the uncompressed size of an entry
+     *
+     * @param entry The entry
+     * @return long The size of the entry
+     */
+    public long getSize(int entry) {
+        return this.mSizes[entry];
+    }
+
+    /**
+     * Method that returns the modification time of an entry
+     *
+     * @param entry The entry
+     * @return long The modification time, in milliseconds
+     */
+    public long getTime(int entry) {
+        return this.mTimes[entry];
+    }
+
+    /**
+     * Method that returns the target of a symbolic link
+     *
+     * @param entry The entry
+     * @return String The target of the link, or <code>null</code> if the entry isn't a link
+     */
+    public String getLink(int entry) {
+        return this.mLinks[entry];
+    }
+
+    /**
+     * Method that resolves the target of a symbolic link inside the archive
+     *
+     * @param entry The symbolic link
+     * @return int The target of the link, or <code>-1</code> if the target is outside
+     * the archive or doesn't exist
+     */
+    public int resolveLink(int entry) {
+        int target = entry;
+        // Don't loop forever with circular links
+        for (int i = 0; i < 8 && this.mTypes[target] == TYPE_SYMLINK; i++) {
+            String link = this.mLinks[target];
+            if (link == null || link.startsWith("/")) { //$NON-NLS-1$
+                return -1;
+            }
+            String path = normalize(getPath(this.mParents[target]), link);
+            if (path == null) {
+                return -1;
+            }
+            target = lookup(path);
+            if (target == -1) {
+                return -1;
+            }
+        }
+        return this.mTypes[target] == TYPE_SYMLINK ? -1 : target;
+    }
+
+    /**
+     * Method that normalizes a relative link, resolving the . and .. components
+     *
+     * @param base The directory of the link
+     * @param link The relative target of the link
+     * @return String The normalized path, or <code>null</code> if the link goes
+     * outside the archive
+     */
+    private static String normalize(String base, String link) {
+        List<String> components = new ArrayList<String>();
+        String path = base.length() == 0 ? link : base + "/" + link; //$NON-NLS-1$
+        for (String component : path.split("/")) { //$NON-NLS-1$
+            if (component.length() == 0 || component.equals(".")) { //$NON-NLS-1$
+                continue;
+            }
+            if (component.equals("..")) { //$NON-NLS-1$
+                if (components.isEmpty()) {
+                    return null;
+                }
+                components.remove(components.size() - 1);
+                continue;
+            }
+            components.add(component);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String component : components) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(component);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Method that opens the content of an entry. Only the bytes of the entry are read.
+     *
+     * @param entry The entry
+     * @return InputStream The content of the entry
+     * @throws IOException If the entry can't be read
+     */
+    public InputStream openEntry(int entry) throws IOException {
+        if (this.mTypes[entry] != TYPE_FILE) {
+            throw new IOException("Not a file: " + getPath(entry)); //$NON-NLS-1$
+        }
+        return openData(this.mArchive, this.mFormat, this.mOffsets[entry], this.mSizes[entry],
+                this.mCompressedSizes[entry], this.mMethods[entry], this.mCrcs[entry]);
+    }
+
+    /**
+     * Method that opens the data of an entry
+     *
+     * @param archive The archive
+     * @param format The format of the archive
+     * @param offset The position of the data (the local header for zip archives)
+     * @param size The uncompressed size of the data
+     * @param compressedSize The compressed size of the data
+     * @param method The compression method of the data
+     * @param crc The CRC32 of the uncompressed data (only zip archives)
+     * @return InputStream The uncompressed data
+     * @throws IOException If the data can't be read
+     */
+    private static InputStream openData(File archive, int format, long offset, long size,
+            long compressedSize, byte method, int crc) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(archive, "r"); //$NON-NLS-1$
+        try {
+            long start = offset;
+            long length = size;
+            boolean deflated = false;
+            if (format == FORMAT_ZIP) {
+                // The data follows the local header, which has its own name and extra fields
+                byte[] header = new byte[ParallelZipExtractor.LOCAL_HEADER_SIZE];
+                raf.seek(offset);
+                raf.readFully(header);
+                if (header[0] != 0x50 || header[1] != 0x4b
+                        || header[2] != 0x03 || header[3] != 0x04) {
+                    throw new IOException("Invalid local header"); //$NON-NLS-1$
+                }
+                int nameLength = (header[26] & 0xff) | ((header[27] & 0xff) << 8);
+                int extraLength = (header[28] & 0xff) | ((header[29] & 0xff) << 8);
+                start += ParallelZipExtractor.LOCAL_HEADER_SIZE + nameLength + extraLength;
+                length = compressedSize;
+                deflated = method == ParallelZipExtractor.METHOD_DEFLATED;
+            }
+
+            InputStream in = new RegionInputStream(raf, start, length);
+            if (deflated) {
+                in = new EntryInflaterInputStream(in);
+            }
+            return new EntryInputStream(in, size, format == FORMAT_ZIP, crc);
+
+        } catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Method that returns the name of the cache file of an archive
+     *
+     * @param archive The archive
+     * @return String The name of the cache file
+     */
+    private static String getCacheName(File archive) {
+        String key = archive.getAbsolutePath() + "@" + archive.lastModified(); //$NON-NLS-1$
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+            byte[] hash = digest.digest(key.getBytes("UTF-8")); //$NON-NLS-1$
+            StringBuilder sb = new StringBuilder(hash.length * 2 + CACHE_EXTENSION.length());
+            for (byte b : hash) {
+                sb.append(String.format(Locale.ROOT, "%02x", Integer.valueOf(b & 0xff))); //$NON-NLS-1$
+            }
+            return sb.append(CACHE_EXTENSION).toString();
+        } catch (NoSuchAlgorithmException ex) {
+            return String.format(Locale.ROOT, "%08x%s", //$NON-NLS-1$
+                    Integer.valueOf(key.hashCode()), CACHE_EXTENSION);
+        } catch (IOException ex) {
+            return String.format(Locale.ROOT, "%08x%s", //$NON-NLS-1$
+                    Integer.valueOf(key.hashCode()), CACHE_EXTENSION);
+        }
+    }
+
+    /**
+     * Method that removes the least recently used cache files
+     *
+     * @param dir The cache directory
+     */
+    private static void trimCache(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= MAX_CACHE_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? 1 : (l > r ? -1 : 0);
+            }
+        });
+        for (int i = MAX_CACHE_FILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Method that loads an index from the disk cache
+     *
+     * @param cache The cache file
+     * @param archive The archive
+     * @return ArchiveIndex The index, or <code>null</code> if the cache doesn't match the archive
+     * @throws IOException If the cache can't be read
+     */
+    private static ArchiveIndex load(File cache, File archive) throws IOException {
+        DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(cache), BUFFER_SIZE));
+        try {
+            if (dis.readInt() != CACHE_MAGIC || dis.readInt() != CACHE_VERSION) {
+                return null;
+            }
+            String path = dis.readUTF();
+            long time = dis.readLong();
+            long length = dis.readLong();
+            if (!path.equals(archive.getAbsolutePath())
+                    || time != archive.lastModified() || length != archive.length()) {
+                return null;
+            }
+            int format = dis.readInt();
+            int count = dis.readInt();
+            if (count <= 0) {
+                return null;
+            }
+            ArchiveIndex index = new ArchiveIndex(archive, time, length, format, count);
+            for (int i = 0; i < count; i++) {
+                index.mNames[i] = dis.readUTF();
+                index.mParents[i] = dis.readInt();
+                index.mFirstChild[i] = dis.readInt();
+                index.mChildCount[i] = dis.readInt();
+                index.mTypes[i] = dis.readByte();
+                index.mModes[i] = dis.readInt();
+                index.mSizes[i] = dis.readLong();
+                index.mTimes[i] = dis.readLong();
+                index.mOffsets[i] = dis.readLong();
+                index.mCompressedSizes[i] = dis.readLong();
+                index.mMethods[i] = dis.readByte();
+                index.mCrcs[i] = dis.readInt();
+                if (dis.readBoolean()) {
+                    index.mLinks[i] = dis.readUTF();
+                }
+            }
+            return index;
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Method that saves the index in the disk cache. The cache file is written in a temporary
+     * file that replaces the cache file at the end, so a partial file is never loaded.
+     *
+     * @param cache The cache file
+     * @throws IOException If the cache can't be written
+     */
+    private void save(File cache) throws IOException {
+        File tmp = new File(cache.getParentFile(), cache.getName() + ".tmp"); //$NON-NLS-1$
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE));
+        try {
+            dos.writeInt(CACHE_MAGIC);
+            dos.writeInt(CACHE_VERSION);
+            dos.writeUTF(this.mArchive.getAbsolutePath());
+            dos.writeLong(this.mArchiveTime);
+            dos.writeLong(this.mArchiveLength);
+            dos.writeInt(this.mFormat);
+            dos.writeInt(this.mCount);
+            for (int i = 0; i < this.mCount; i++) {
+                dos.writeUTF(this.mNames[i]);
+                dos.writeInt(this.mParents[i]);
+                dos.writeInt(this.mFirstChild[i]);
+                dos.writeInt(this.mChildCount[i]);
+                dos.writeByte(this.mTypes[i]);
+                dos.writeInt(this.mModes[i]);
+                dos.writeLong(this.mSizes[i]);
+                dos.writeLong(this.mTimes[i]);
+                dos.writeLong(this.mOffsets[i]);
+                dos.writeLong(this.mCompressedSizes[i]);
+                dos.writeByte(this.mMethods[i]);
+                dos.writeInt(this.mCrcs[i]);
+                dos.writeBoolean(this.mLinks[i] != null);
+                if (this.mLinks[i] != null) {
+                    dos.writeUTF(this.mLinks[i]);
+                }
+            }
+        } catch (IOException ex) {
+            dos.close();
+            tmp.delete();
+            throw ex;
+        }
+        dos.close();
+        if (!tmp.renameTo(cache)) {
+            tmp.delete();
+            throw new IOException("Failed to write " + cache); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method that builds the index parsing the archive
+     *
+     * @param archive The archive
+     * @param format The format of the archive
+     * @return ArchiveIndex The index
+     * @throws IOException If the archive can't be read or is corrupted
+     */
+    private static ArchiveIndex build(File archive, int format) throws IOException {
+        long time = archive.lastModified();
+        long length = archive.length();
+        Node root = new Node(""); //$NON-NLS-1$
+        root.mTime = time;
+        if (format == FORMAT_ZIP) {
+            addZipEntries(archive, root);
+        } else {
+            addTarEntries(archive, root);
+        }
+
+        // Flatten the tree in breadth-first order, so the children of every directory
+        // are contiguous
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+        Comparator<Node> comparator = new Comparator<Node>() {
+            @Override
+            public int compare(Node lhs, Node rhs) {
+                return lhs.mName.compareTo(rhs.mName);
+            }
+        };
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            node.mIndex = i;
+            node.mFirstChild = nodes.size();
+            if (node.mChildren != null) {
+                List<Node> children = new ArrayList<Node>(node.mChildren.values());
+                Collections.sort(children, comparator);
+                nodes.addAll(children);
+                node.mChildCount = children.size();
+            }
+        }
+
+        int count = nodes.size();
+        ArchiveIndex index = new ArchiveIndex(archive, time, length, format, count);
+        for (int i = 0; i < count; i++) {
+            Node node = nodes.get(i);
+            index.mNames[i] = node.mName;
+            index.mParents[i] = node.mParent == null ? -1 : node.mParent.mIndex;
+            index.mFirstChild[i] = node.mFirstChild;
+            index.mChildCount[i] = node.mChildCount;
+            index.mTypes[i] = node.mType;
+            index.mModes[i] = node.mMode;
+            index.mSizes[i] = node.mSize;
+            index.mTimes[i] = node.mTime;
+            index.mOffsets[i] = node.mOffset;
+            index.mCompressedSizes[i] = node.mCompressedSize;
+            index.mMethods[i] = node.mMethod;
+            index.mCrcs[i] = node.mCrc;
+            index.mLinks[i] = node.mLink;
+        }
+        return index;
+    }
+
+    /**
+     * Method that adds the entries of the central directory of a zip archive
+     *
+     * @param archive The archive
+     * @param root The root directory
+     * @throws IOException If the archive can't be read or is corrupted
+     */
+    private static void addZipEntries(File archive, Node root) throws IOException {
+        ParallelZipExtractor zip = new ParallelZipExtractor(archive);
+        try {
+            for (ParallelZipExtractor.Entry entry : zip.getEntries()) {
+                int type = entry.isDirectory() ? TYPE_DIRECTORY
+                        : (entry.isSymlink() ? TYPE_SYMLINK : TYPE_FILE);
+                Node node = addNode(root, entry.getName(), type, entry.getTime());
+                if (node == null) {
+                    continue;
+                }
+                node.mMode = entry.getMode();
+                node.mSize = entry.getSize();
+                node.mOffset = entry.getOffset();
+                node.mCompressedSize = entry.getCompressedSize();
+                node.mMethod = (byte) entry.getMethod();
+                node.mCrc = (int) entry.getCrc();
+            }
+        } finally {
+            zip.close();
+        }
+
+        // The targets of the symbolic links are the content of the entries. They are
+        // small and only read once, while the index is built
+        resolveZipLinks(archive, root);
+    }
+
+    /**
+     * Method that reads the targets of the symbolic links of a zip archive
+     *
+     * @param archive The archive
+     * @param root The root directory
+     */
+    private static void resolveZipLinks(File archive, Node root) {
+        List<Node> pending = new ArrayList<Node>();
+        pending.add(root);
+        List<Node> links = new ArrayList<Node>();
+        while (!pending.isEmpty()) {
+            Node node = pending.remove(pending.size() - 1);
+            if (node.mType == TYPE_SYMLINK) {
+                links.add(node);
+            }
+            if (node.mChildren != null) {
+                pending.addAll(node.mChildren.values());
+            }
+        }
+        if (links.isEmpty()) {
+            return;
+        }
+
+        for (Node link : links) {
+            try {
+                InputStream in = openData(archive, FORMAT_ZIP, link.mOffset, link.mSize,
+                        link.mCompressedSize, link.mMethod, link.mCrc);
+                try {
+                    byte[] data = new byte[(int) Math.min(link.mSize, 4096)];
+                    int read = 0;
+                    while (read < data.length) {
+                        int count = in.read(data, read, data.length - read);
+                        if (count == -1) {
+                            break;
+                        }
+                        read += count;
+                    }
+                    link.mLink = new String(data, 0, read, "UTF-8"); //$NON-NLS-1$
+                } finally {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                Log.w(TAG, "Failed to read the link " + link.mName, ex); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Method that adds the entries of the headers of a tar archive
+     *
+     * @param archive The archive
+     * @param root The root directory
+     * @throws IOException If the archive can't be read or is corrupted
+     */
+    private static void addTarEntries(File archive, Node root) throws IOException {
+        // The content of the entries is skipped, so only the headers are read
+        TarInputStream tar = new TarInputStream(
+                new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE));
+        try {
+            Map<String, Node> files = new HashMap<String, Node>();
+            TarInputStream.Entry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                int type;
+                if (entry.isDirectory()) {
+                    type = TYPE_DIRECTORY;
+                } else if (entry.isSymlink()) {
+                    type = TYPE_SYMLINK;
+                } else if (entry.isFile() || entry.isHardLink()) {
+                    type = TYPE_FILE;
+                } else {
+                    // Devices, fifos, ...
+                    continue;
+                }
+                Node node = addNode(root, entry.getName(), type, entry.getTime());
+                if (node == null) {
+                    continue;
+                }
+                node.mMode = entry.getMode();
+                if (entry.isHardLink()) {
+                    // Share the content of the target
+                    Node target = files.get(FileHelper.toSafeArchivePath(entry.getLinkName()));
+                    if (target != null) {
+                        node.mSize = target.mSize;
+                        node.mOffset = target.mOffset;
+                    }
+                } else {
+                    node.mSize = entry.isSymlink() ? 0 : entry.getSize();
+                    node.mOffset = entry.getOffset();
+                    node.mLink = entry.isSymlink() ? entry.getLinkName() : null;
+                }
+                node.mCompressedSize = node.mSize;
+                if (type == TYPE_FILE) {
+                    files.put(FileHelper.toSafeArchivePath(entry.getName()), node);
+                }
+            }
+        } finally {
+            tar.close();
+        }
+    }
+
+    /**
+     * Method that adds an entry to the tree, creating its parent directories if the
+     * archive doesn't have them.
+     *
+     * @param root The root directory
+     * @param name The name of the entry in the archive
+     * @param type The type of the entry
+     * @param time The modification time of the entry
+     * @return Node The node of the entry, or <code>null</code> if the entry must be ignored
+     */
+    private static Node addNode(Node root, String name, int type, long time) {
+        String path = FileHelper.toSafeArchivePath(name);
+        if (path.length() == 0) {
+            return null;
+        }
+        Node parent = root;
+        String[] components = path.split("/"); //$NON-NLS-1$
+        int last = components.length - 1;
+        for (int i = 0; i < last; i++) {
+            Node dir = parent.getChild(components[i]);
+            if (dir == null) {
+                dir = new Node(components[i]);
+                dir.mTime = time;
+                parent.addChild(dir);
+            } else if (dir.mType != TYPE_DIRECTORY) {
+                // A file can't have children. Convert it to a directory
+                dir.mType = TYPE_DIRECTORY;
+                dir.mSize = 0;
+                dir.mLink = null;
+            }
+            parent = dir;
+        }
+
+        Node node = parent.getChild(components[last]);
+        if (node == null) {
+            node = new Node(components[last]);
+            parent.addChild(node);
+        } else if (node.mChildren != null && type != TYPE_DIRECTORY) {
+            // Don't replace a directory with children by a file
+            return null;
+        }
+        node.mType = (byte) type;
+        node.mTime = time;
+        return node;
+    }
+
+    /**
+     * A node of the tree of entries, only used while the index is built
+     */
+    private static class Node {
+        final String mName;
+        Node mParent;
+        Map<String, Node> mChildren;
+        byte mType = TYPE_DIRECTORY;
+        int mMode;
+        long mSize;
+        long mTime;
+        long mOffset;
+        long mCompressedSize;
+        byte mMethod;
+        int mCrc;
+        String mLink;
+        int mIndex;
+        int mFirstChild;
+        int mChildCount;
+
+        Node(String name) {
+            super();
+            this.mName = name;
+        }
+
+        Node getChild(String name) {
+            return this.mChildren == null ? null : this.mChildren.get(name);
+        }
+
+        void addChild(Node child) {
+            if (this.mChildren == null) {
+                this.mChildren = new HashMap<String, Node>();
+            }
+            child.mParent = this;
+            this.mChildren.put(child.mName, child);
+        }
+    }
+
+    /**
+     * A stream over a region of the archive
+     */
+    private static class RegionInputStream extends InputStream {
+        private final RandomAccessFile mFile;
+        private long mPosition;
+        private long mRemaining;
+
+        RegionInputStream(RandomAccessFile file, long offset, long length) {
+            super();
+            this.mFile = file;
+            this.mPosition = offset;
+            this.mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.mRemaining <= 0) {
+                return -1;
+            }
+            int count = (int) Math.min(len, this.mRemaining);
+            this.mFile.seek(this.mPosition);
+            int read = this.mFile.read(b, off, count);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of the archive"); //$NON-NLS-1$
+            }
+            this.mPosition += read;
+            this.mRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = Math.max(0, Math.min(n, this.mRemaining));
+            this.mPosition += count;
+            this.mRemaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, this.mRemaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.mFile.close();
+        }
+    }
+
+    /**
+     * A raw deflate stream that releases its inflater when is closed
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean mEof;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (this.mEof) {
+                throw new EOFException("Unexpected end of the deflated data"); //$NON-NLS-1$
+            }
+            this.len = this.in.read(this.buf, 0, this.buf.length);
+            if (this.len == -1) {
+                // A raw inflater may need an extra byte to finish
+                this.buf[0] = 0;
+                this.len = 1;
+                this.mEof = true;
+            }
+            this.inf.setInput(this.buf, 0, this.len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                this.inf.end();
+            }
+        }
+    }
+
+    /**
+     * A stream that checks the size and the CRC of the content of an entry
+     */
+    private static class EntryInputStream extends FilterInputStream {
+        private final long mSize;
+        private final boolean mCheckCrc;
+        private final int mCrc;
+        private final CRC32 mCrc32;
+        private long mRead;
+
+        EntryInputStream(InputStream in, long size, boolean checkCrc, int crc) {
+            super(in);
+            this.mSize = size;
+            this.mCheckCrc = checkCrc;
+            this.mCrc = crc;
+            this.mCrc32 = checkCrc ? new CRC32() : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = this.in.read(b, off, len);
+            if (read == -1) {
+                if (this.mRead != this.mSize) {
+                    throw new EOFException("Unexpected end of the entry"); //$NON-NLS-1$
+                }
+                if (this.mCheckCrc && (int) this.mCrc32.getValue() != this.mCrc) {
+                    throw new IOException("CRC mismatch"); //$NON-NLS-1$
+                }
+                return -1;
+            }
+            if (this.mCheckCrc) {
+                this.mCrc32.update(b, off, read);
+            }
+            this.mRead += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped data can't be checked
+            byte[] b = new byte[(int) Math.min(BUFFER_SIZE, Math.max(0, n))];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(b, 0, (int) Math.min(b.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
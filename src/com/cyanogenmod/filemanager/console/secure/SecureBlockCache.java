@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.secure;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A bounded cache of the decrypted chunks of a {@link SecureStorage}.
+ * <br/>
+ * Chunks are never modified (a write creates new chunks with new ids), so a cached chunk is
+ * never stale and the cache is keyed by the id of the chunk. The least recently used chunks
+ * are evicted when the cache exceeds its capacity. A chunk is decrypted only once even if
+ * it's requested by several threads at the same time (for example, a reader and the
+ * read-ahead of the same reader).
+ */
+final class SecureBlockCache {
+
+    /**
+     * The default capacity of the cache, in bytes
+     */
+    static final long DEFAULT_CAPACITY = 8L * 1024 * 1024;
+
+    /**
+     * The loader of the chunks
+     */
+    interface ChunkLoader {
+        /**
+         * Method that reads and decrypts a chunk
+         *
+         * @param id The id of the chunk
+         * @param len The length of the plain data
+         * @return byte[] The plain data
+         * @throws IOException If the chunk can't be read
+         */
+        byte[] loadChunk(long id, int len) throws IOException;
+    }
+
+    /**
+     * A chunk of the cache, which is decrypted by the first thread that requests it
+     */
+    private static final class Block extends FutureTask<byte[]> {
+        final int mLength;
+
+        Block(Callable<byte[]> callable, int length) {
+            super(callable);
+            this.mLength = length;
+        }
+    }
+
+    private final ChunkLoader mLoader;
+    private final long mCapacity;
+    private final LinkedHashMap<Long, Block> mBlocks;
+    private long mBytes;
+    private ExecutorService mReadAheadExecutor;
+
+    /**
+     * Constructor of <code>SecureBlockCache</code>.
+     *
+     * @param loader The loader of the chunks
+     * @param capacity The maximum bytes of the cache
+     */
+    SecureBlockCache(ChunkLoader loader, long capacity) {
+        super();
+        this.mLoader = loader;
+        this.mCapacity = capacity;
+        this.mBlocks = new LinkedHashMap<Long, Block>(16, 0.75f, true);
+    }
+
+    /**
+     * Method that returns a decrypted chunk, reading it if it isn't in the cache. The
+     * returned array must not be modified.
+     *
+     * @param id The id of the chunk
+     * @param len The length of the plain data
+     * @return byte[] The plain data
+     * @throws IOException If the chunk can't be read
+     */
+    byte[] get(long id, int len) throws IOException {
+        Block block;
+        synchronized (this) {
+            block = this.mBlocks.get(Long.valueOf(id));
+            if (block == null) {
+                block = createBlock(id, len);
+            }
+        }
+        // Decrypt the chunk in this thread, unless it's being decrypted or was decrypted
+        // by other thread (a read-ahead still queued is done here)
+        block.run();
+        try {
+            return block.get();
+        } catch (ExecutionException ex) {
+            // Don't cache the failure
+            remove(id, block);
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Method that decrypts a chunk in background, if it isn't in the cache
+     *
+     * @param id The id of the chunk
+     * @param len The length of the plain data
+     */
+    synchronized void readAhead(long id, int len) {
+        if (this.mBlocks.containsKey(Long.valueOf(id))) {
+            return;
+        }
+        final Block block = createBlock(id, len);
+        if (this.mReadAheadExecutor == null) {
+            this.mReadAheadExecutor = Executors.newSingleThreadExecutor();
+        }
+        this.mReadAheadExecutor.execute(block);
+    }
+
+    /**
+     * Method that returns the bytes held by the cache
+     *
+     * @return long The bytes held by the cache
+     */
+    synchronized long getSize() {
+        return this.mBytes;
+    }
+
+    /**
+     * Method that discards all the chunks and stops the read-ahead
+     */
+    synchronized void clear() {
+        this.mBlocks.clear();
+        this.mBytes = 0;
+        if (this.mReadAheadExecutor != null) {
+            this.mReadAheadExecutor.shutdownNow();
+            this.mReadAheadExecutor = null;
+        }
+    }
+
+    /**
+     * Method that adds a new block to the cache and evicts the least recently used blocks
+     * that exceed the capacity. Must be called with the monitor held.
+     *
+     * @param id The id of the chunk
+     * @param len The length of the plain data
+     * @return Block The new block
+     */
+    private Block createBlock(final long id, final int len) {
+        Block block = new Block(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return SecureBlockCache.this.mLoader.loadChunk(id, len);
+            }
+        }, len);
+        this.mBlocks.put(Long.valueOf(id), block);
+        this.mBytes += len;
+
+        // Evict (never the new block, which is the most recently used)
+        Iterator<Map.Entry<Long, Block>> it = this.mBlocks.entrySet().iterator();
+        while (this.mBytes > this.mCapacity && this.mBlocks.size() > 1) {
+            this.mBytes -= it.next().getValue().mLength;
+            it.remove();
+        }
+        return block;
+    }
+
+    /**
+     * Method that removes a block from the cache, if it is still there
+     *
+     * @param id The id of the chunk
+     * @param block The block
+     */
+    private synchronized void remove(long id, Block block) {
+        Long key = Long.valueOf(id);
+        if (this.mBlocks.get(key) == block) {
+            this.mBlocks.remove(key);
+            this.mBytes -= block.mLength;
+        }
+    }
+}
@@ -58,49 +58,85 @@ import org.apache.http.auth.AuthenticationException;
 import de.schlichtherle.truezip.crypto.raes.RaesAuthenticationException;
 import de.schlichtherle.truezip.file.TArchiveDetector;
 import de.schlichtherle.truezip.file.TFile;
-import de.schlichtherle.truezip.file.TVFS;
 import de.schlichtherle.truezip.key.CancelledOperation;
-import static de.schlichtherle.truezip.fs.FsSyncOption.CLEAR_CACHE;
-import static de.schlichtherle.truezip.fs.FsSyncOption.FORCE_CLOSE_INPUT;
-import static de.schlichtherle.truezip.fs.FsSyncOption.FORCE_CLOSE_OUTPUT;
-import de.schlichtherle.truezip.util.BitField;
+import de.schlichtherle.truezip.key.UnknownKeyException;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A secure implementation of a {@link VirtualMountPointConsole} that uses a
- * secure filesystem backend
+ * secure filesystem backend.
+ * <br/>
+ * The files are kept in a {@link SecureStorage}. Storages created by previous versions (a
+ * single RAES encrypted archive managed by TrueZIP) are migrated the first time they are
+ * mounted.
+ * <br/>
+ * Programs are run under a read/write lock of the storage: the programs that only read the
+ * storage run in parallel (the asynchronous ones in a bounded pool), and the programs that
+ * modify it run alone, one after the other. Syncs take the read lock, so they wait for the
+ * active writers but not for the readers.
  */
 public class SecureConsole extends VirtualMountPointConsole {
 
     public static final String TAG = "SecureConsole";
 
-    /** The singleton TArchiveDetector which enclosure this driver **/
+    /** The singleton TArchiveDetector of the legacy secure storage archive **/
     public static final TArchiveDetector DETECTOR = new TArchiveDetector(
             SecureStorageDriverProvider.SINGLETON, SecureStorageDriverProvider.SINGLETON.get());
 
     public static String getSecureStorageName() {
+        return String.format("storage.%s.store",
+                String.valueOf(UserHandle.myUserId()));
+    }
+
+    public static File getSecureStorageRoot() {
+        return new File(FileManagerApplication.getInstance().getExternalFilesDir(null),
+                getSecureStorageName());
+    }
+
+    static String getLegacySecureStorageName() {
         return String.format("storage.%s.%s",
                 String.valueOf(UserHandle.myUserId()),
                 SecureStorageDriverProvider.SECURE_STORAGE_SCHEME);
     }
 
-    public static TFile getSecureStorageRoot() {
+    static TFile getLegacySecureStorageRoot() {
         return new TFile(FileManagerApplication.getInstance().getExternalFilesDir(null),
-                getSecureStorageName(), DETECTOR);
+                getLegacySecureStorageName(), DETECTOR);
     }
 
+    /**
+     * Method that returns the uri that identifies the key of the secure storage in the
+     * key manager. It's the uri of the legacy archive, so both storages share the key.
+     *
+     * @return URI The uri of the key
+     */
     public static URI getSecureStorageRootUri() {
         return new File(FileManagerApplication.getInstance().getExternalFilesDir(null),
-                getSecureStorageName()).toURI();
+                getLegacySecureStorageName()).toURI();
+    }
+
+    /**
+     * Method that returns if the secure storage was created (in the current or in the
+     * legacy format)
+     *
+     * @return boolean If the secure storage exists
+     */
+    @SuppressWarnings("deprecation")
+    public static boolean isSecureStorageCreated() {
+        return SecureStorage.exists(getSecureStorageRoot())
+                || getLegacySecureStorageRoot().getFile().exists();
     }
 
     private static SecureConsole sConsole = null;
@@ -108,7 +144,7 @@ public class SecureConsole extends VirtualMountPointConsole {
     public final Handler mSyncHandler;
 
     private boolean mIsMounted;
-    private boolean mRequiresSync;
+    private volatile boolean mRequiresSync;
 
     private final int mBufferSize;
 
@@ -118,6 +154,16 @@ public class SecureConsole extends VirtualMountPointConsole {
 
     private final ExecutorService mExecutorService = Executors.newFixedThreadPool(1);
 
+    // The maximum number of asynchronous readers running in parallel
+    private static final int MAX_READERS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final ReentrantReadWriteLock mStorageLock = new ReentrantReadWriteLock();
+    // Held by the asynchronous writers while they run, so unmount can wait for them
+    private final Lock mTransferLock = new ReentrantLock();
+    private final ExecutorService mReadersExecutor = Executors.newFixedThreadPool(MAX_READERS);
+    private final ExecutorService mWritersExecutor = Executors.newSingleThreadExecutor();
+
     private final Callback mSyncCallback = new Callback() {
         @Override
         public boolean handleMessage(Message msg) {
@@ -149,8 +195,11 @@ public class SecureConsole extends VirtualMountPointConsole {
         return sConsole;
     }
 
-    private final TFile mStorageRoot;
-    private final String mStorageName;
+    private final File mStorageRoot;
+    private final File mMigrationRoot;
+    private final TFile mLegacyStorageRoot;
+    private final String mLegacyStorageName;
+    private volatile SecureStorage mStorage;
 
     /**
      * Constructor of <code>SecureConsole</code>
@@ -163,7 +212,10 @@ public class SecureConsole extends VirtualMountPointConsole {
         mBufferSize = bufferSize;
         mSyncHandler = new Handler(mSyncCallback);
         mStorageRoot = getSecureStorageRoot();
-        mStorageName = getSecureStorageName();
+        mMigrationRoot = new File(mStorageRoot.getParentFile(),
+                mStorageRoot.getName() + ".migration"); //$NON-NLS-1$
+        mLegacyStorageRoot = getLegacySecureStorageRoot();
+        mLegacyStorageName = getLegacySecureStorageName();
 
         // Save a copy of the console. This has a unique instance for all the app
         if (sConsole != null) {
@@ -221,15 +273,16 @@ public class SecureConsole extends VirtualMountPointConsole {
      * {@inheritDoc}
      */
     @Override
-    @SuppressWarnings("deprecation")
     public List<DiskUsage> getDiskUsage() {
         // This console only has one mountpoint, and is fully usage
         List<DiskUsage> diskUsage = new ArrayList<DiskUsage>();
-        File mp = mStorageRoot.getFile();
+        File mp = mStorageRoot;
+        SecureStorage storage = mStorage;
+        long used = storage != null ? storage.getTotalSize() : 0;
         diskUsage.add(new DiskUsage(mp.getAbsolutePath(),
                 mp.getTotalSpace(),
-                mp.length(),
-                mp.getTotalSpace() - mp.length()));
+                used,
+                mp.getTotalSpace() - used));
         return diskUsage;
     }
 
@@ -295,20 +348,15 @@ public class SecureConsole extends VirtualMountPointConsole {
                 try {
                     SecureStorageKeyManagerProvider.SINGLETON.reset();
 
-                    // Mount with the new key
+                    // Mount with the old key
                     mount(ctx);
 
-                    // In order to claim a write, we need to be sure that an operation is
-                    // done to disk before unmount the device.
-                    try {
-                        String testName = UUID.randomUUID().toString();
-                        TFile test = new TFile(getSecureStorageRoot(), testName);
-                        test.createNewFile();
-                        test.rm();
-                        result = true;
-                    } catch (IOException ex) {
-                        ExceptionUtil.translateException(ctx, ex);
-                    }
+                    // Wrap the keys of the storage with the new key. Only the index of the
+                    // storage is written again
+                    mStorage.setPassword(
+                            SecureStorageKeyManagerProvider.SINGLETON.getWritePassword());
+                    mRequiresSync = true;
+                    result = sync();
 
                 } catch (Exception ex) {
                     ExceptionUtil.translateException(ctx, ex);
@@ -334,7 +382,6 @@ public class SecureConsole extends VirtualMountPointConsole {
     /**
      * Method that request a delete of the current password
      */
-    @SuppressWarnings("deprecation")
     public void requestDelete(final Context ctx) {
         AsyncTask<Void, Void, Boolean> task = new AsyncTask<Void, Void, Boolean>() {
             @Override
@@ -353,7 +400,7 @@ public class SecureConsole extends VirtualMountPointConsole {
                     unmount();
 
                     // Password is valid. Delete the storage
-                    mStorageRoot.getFile().delete();
+                    FileHelper.deleteFolder(mStorageRoot);
 
                     // Send an broadcast to notify that the mount state of this filesystem changed
                     Intent intent = new Intent(FileManagerSettings.INTENT_MOUNT_STATUS_CHANGED);
@@ -387,13 +434,29 @@ public class SecureConsole extends VirtualMountPointConsole {
      * {@inheritDoc}
      */
     public boolean unmount() {
-        // Unmount the filesystem and cancel the cached key
-        mRequiresSync = true;
-        boolean ret = sync();
-        if (ret) {
-            SecureStorageKeyManagerProvider.SINGLETON.unmount();
+        // Wait for the running programs (first the writers that only lock their changes)
+        mTransferLock.lock();
+        Lock lock = mStorageLock.writeLock();
+        lock.lock();
+        try {
+            // Unmount the filesystem and cancel the cached key
+            mRequiresSync = true;
+            boolean ret = sync();
+            if (ret) {
+                SecureStorageKeyManagerProvider.SINGLETON.unmount();
+
+                // Discard the keys. If the sync failed, the storage is kept to retry on
+                // next mount
+                if (mStorage != null) {
+                    mStorage.close();
+                    mStorage = null;
+                }
+            }
+            mIsMounted = false;
+        } finally {
+            lock.unlock();
+            mTransferLock.unlock();
         }
-        mIsMounted = false;
 
         // Send an broadcast to notify that the mount state of this filesystem changed
         Intent intent = new Intent(FileManagerSettings.INTENT_MOUNT_STATUS_CHANGED);
@@ -418,19 +481,32 @@ public class SecureConsole extends VirtualMountPointConsole {
             throws CancelledOperationException, AuthenticationFailedException,
             NoSuchFileOrDirectory {
         if (!mIsMounted) {
-            File root = mStorageRoot.getFile();
             try {
-                boolean newStorage = !root.exists();
-                mStorageRoot.mount();
-                if (newStorage) {
-                    // Force a synchronization
-                    mRequiresSync = true;
-                    sync();
-                } else {
-                    // Remove any previous cache files (if not sync invoked)
-                    clearCache(ctx);
+                if (mStorage == null) {
+                    // A migration interrupted before complete is restarted from the legacy
+                    // storage, which isn't deleted until the new storage is in place
+                    if (mMigrationRoot.exists()) {
+                        FileHelper.deleteFolder(mMigrationRoot);
+                    }
+                    if (SecureStorage.exists(mStorageRoot)) {
+                        mStorage = SecureStorage.open(mStorageRoot,
+                                SecureStorageKeyManagerProvider.SINGLETON.getReadPassword(false));
+                        if (mLegacyStorageRoot.getFile().exists()) {
+                            // The migration was completed, but the legacy storage wasn't deleted
+                            deleteLegacyStorage();
+                        }
+                    } else if (mLegacyStorageRoot.getFile().exists()) {
+                        mStorage = migrateLegacyStorage();
+                    } else {
+                        mStorage = SecureStorage.create(mStorageRoot,
+                                SecureStorageKeyManagerProvider.SINGLETON.getWritePassword());
+                    }
+                    mStorage.setChangeLock(mStorageLock);
                 }
 
+                // Remove any previous cache files of the legacy storage
+                clearCache(ctx);
+
                 // The device is mounted
                 mIsMounted = true;
 
@@ -441,20 +517,82 @@ public class SecureConsole extends VirtualMountPointConsole {
                 intent.putExtra(FileManagerSettings.EXTRA_STATUS, MountExecutable.READWRITE);
                 getCtx().sendBroadcast(intent);
 
+            } catch (UnknownKeyException ex) {
+                if (ex instanceof CancelledOperation) {
+                    throw new CancelledOperationException();
+                }
+                Log.e(TAG, String.format("Failed to open secure storage: %s", mStorageRoot, ex));
+                throw new NoSuchFileOrDirectory();
+            } catch (SecureStorage.AuthenticationException ex) {
+                // Forget the invalid key, so it will be prompted again
+                SecureStorageKeyManagerProvider.SINGLETON.unmount();
+                throw new AuthenticationFailedException(ctx.getString(
+                        R.string.secure_storage_unlock_failed));
             } catch (IOException ex) {
                 if (ex.getCause() != null && ex.getCause() instanceof CancelledOperation) {
                     throw new CancelledOperationException();
                 }
                 if (ex.getCause() != null && ex.getCause() instanceof RaesAuthenticationException) {
+                    SecureStorageKeyManagerProvider.SINGLETON.unmount();
                     throw new AuthenticationFailedException(ctx.getString(
                             R.string.secure_storage_unlock_failed));
                 }
-                Log.e(TAG, String.format("Failed to open secure storage: %s", root, ex));
+                Log.e(TAG, String.format("Failed to open secure storage: %s", mStorageRoot, ex));
                 throw new NoSuchFileOrDirectory();
             }
         }
     }
 
+    /**
+     * Method that moves the content of the legacy secure storage to a new storage, with
+     * the same key, and deletes the legacy storage.<br/>
+     * <br/>
+     * The new storage is built in a temporary directory, and only moved to the root of the
+     * storage once it's complete and synced. A migration killed in the middle never leaves a
+     * partial storage in place of the legacy one.
+     *
+     * @return SecureStorage The new storage
+     * @throws IOException If the legacy storage can't be read or the new one can't be written
+     * @throws UnknownKeyException If the key is not known
+     */
+    @SuppressWarnings("deprecation")
+    private SecureStorage migrateLegacyStorage() throws IOException, UnknownKeyException {
+        // Mount the legacy storage first, so the key is validated before create the new one
+        mLegacyStorageRoot.mount();
+        char[] password = SecureStorageKeyManagerProvider.SINGLETON.getReadPassword(false);
+        SecureStorage storage = SecureStorage.create(mMigrationRoot, password);
+        try {
+            SecureStorageMigrator.migrate(mLegacyStorageRoot, storage);
+        } catch (IOException ex) {
+            storage.close();
+            FileHelper.deleteFolder(mMigrationRoot);
+            throw ex;
+        }
+        storage.close();
+
+        // A root without an index (never synced) doesn't hold any storage
+        if (mStorageRoot.exists()) {
+            FileHelper.deleteFolder(mStorageRoot);
+        }
+        if (!mMigrationRoot.renameTo(mStorageRoot)) {
+            throw new IOException("can't move the migrated storage to " //$NON-NLS-1$
+                    + mStorageRoot);
+        }
+        deleteLegacyStorage();
+        return SecureStorage.open(mStorageRoot, password);
+    }
+
+    /**
+     * Method that deletes the legacy secure storage, once its content was migrated
+     */
+    @SuppressWarnings("deprecation")
+    private void deleteLegacyStorage() {
+        if (!mLegacyStorageRoot.getFile().delete()) {
+            Log.w(TAG, String.format("Failed to delete legacy secure storage: %s",
+                    mLegacyStorageRoot));
+        }
+    }
+
     /**
      * Method that returns if the path is the real secure storage file
      *
@@ -475,7 +613,7 @@ public class SecureConsole extends VirtualMountPointConsole {
      * @param path The path to check
      * @return boolean If the path is the secure storage
      */
-    public static boolean isSecureStorageDir(TFile path) {
+    public static boolean isSecureStorageDir(File path) {
         return getSecureStorageRoot().equals(path);
     }
 
@@ -483,22 +621,44 @@ public class SecureConsole extends VirtualMountPointConsole {
      * Method that build a real file from a virtual path
      *
      * @param path The path from build the real file
-     * @return TFile The real file
+     * @return SecureFile The real file
      */
-    public TFile buildRealFile(String path) {
+    public SecureFile buildRealFile(String path) {
         String real = mStorageRoot.toString();
         String virtual = getVirtualMountPoint().toString();
         String src = path.replace(virtual, real);
-        return new TFile(src, DETECTOR);
+        return new SecureFile(mStorage, mStorageRoot, src);
+    }
+
+    /**
+     * Method that opens a file of the mounted storage for read at any position. The reader
+     * doesn't take the lock of the storage: it pins the chunks of the file instead, so it
+     * never waits for a writer (for example, a save of the same file).
+     *
+     * @param path The virtual path of the file
+     * @return SecureRandomReader The reader of the file
+     * @throws FileNotFoundException If the storage isn't mounted or the file doesn't exist
+     */
+    public SecureRandomReader openRandomReader(String path) throws FileNotFoundException {
+        SecureStorage storage = mStorage;
+        if (storage == null || !mIsMounted) {
+            throw new FileNotFoundException(path);
+        }
+        SecureFile file = buildRealFile(path);
+        String entry = file.getEntryPath();
+        if (entry == null) {
+            throw new FileNotFoundException(path);
+        }
+        return storage.openRandomReader(entry);
     }
 
     /**
      * Method that build a virtual file from a real path
      *
      * @param path The path from build the virtual file
-     * @return TFile The virtual file
+     * @return String The virtual file
      */
-    public String buildVirtualPath(TFile path) {
+    public String buildVirtualPath(File path) {
         String real = mStorageRoot.toString();
         String virtual = getVirtualMountPoint().toString();
         String dst = path.toString().replace(real, virtual);
@@ -509,7 +669,7 @@ public class SecureConsole extends VirtualMountPointConsole {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void execute(Executable executable, Context ctx)
+    public void execute(Executable executable, Context ctx)
             throws ConsoleAllocException, InsufficientPermissionsException, NoSuchFileOrDirectory,
             OperationTimeoutException, ExecutionException, CommandNotFoundException,
             ReadOnlyFilesystemException, CancelledOperationException,
@@ -538,29 +698,47 @@ public class SecureConsole extends VirtualMountPointConsole {
             mount(ctx);
         }
 
-        // Execute the program
+        // Execute the program. The asynchronous writers (long transfers) don't hold the write
+        // lock while they run: the storage takes it for every change (see
+        // SecureStorage.setChangeLock), so the readers can run between the changes
         program.setTrace(isTrace());
+        final Lock lock;
+        if (!program.isWriter()) {
+            lock = mStorageLock.readLock();
+        } else if (program.isAsynchronous()) {
+            lock = mTransferLock;
+        } else {
+            lock = mStorageLock.writeLock();
+        }
         if (program.isAsynchronous()) {
-            // Execute in a thread
-            Thread t = new Thread() {
+            // Execute in the pool of readers or in the writers thread
+            ExecutorService executor = program.isWriter() ? mWritersExecutor : mReadersExecutor;
+            executor.execute(new Runnable() {
                 @Override
                 public void run() {
+                    lock.lock();
                     try {
                         program.execute();
-                        requestSync(program);
                     } catch (Exception e) {
                         // Program must use onException to communicate exceptions
                         Log.v(TAG,
                                 String.format("Async execute failed program: %s", //$NON-NLS-1$
                                 program.getClass().toString()));
+                    } finally {
+                        lock.unlock();
                     }
+                    requestSync(program);
                 }
-            };
-            t.start();
+            });
 
         } else {
             // Synchronous execution
-            program.execute();
+            lock.lock();
+            try {
+                program.execute();
+            } finally {
+                lock.unlock();
+            }
             requestSync(program);
         }
     }
@@ -600,23 +778,35 @@ public class SecureConsole extends VirtualMountPointConsole {
      *
      * @retun boolean If the unmount success
      */
-    public synchronized boolean sync() {
-        if (mRequiresSync) {
-            Log.i(TAG, "Syncing underlaying storage");
-            mRequiresSync = false;
-            // Sync the underlying storage
-            try {
-                TVFS.sync(mStorageRoot,
-                        BitField.of(CLEAR_CACHE)
-                                .set(FORCE_CLOSE_INPUT, true)
-                                .set(FORCE_CLOSE_OUTPUT, true));
+    public boolean sync() {
+        // Wait until no change is being applied. Readers don't modify the storage, so they
+        // can continue while the index is written
+        Lock lock = mStorageLock.readLock();
+        lock.lock();
+        try {
+            synchronized (this) {
+                if (mRequiresSync) {
+                    Log.i(TAG, "Syncing underlaying storage");
+                    mRequiresSync = false;
+                    SecureStorage storage = mStorage;
+                    if (storage == null) {
+                        return true;
+                    }
+                    // Sync the underlying storage (only the index and the released chunks)
+                    try {
+                        storage.sync();
+                        return true;
+                    } catch (IOException e) {
+                        Log.e(TAG, String.format("Failed to sync secure storage: %s",
+                                mStorageRoot, e));
+                        return false;
+                    }
+                }
                 return true;
-            } catch (IOException e) {
-                Log.e(TAG, String.format("Failed to sync secure storage: %s", mStorageRoot, e));
-                return false;
             }
+        } finally {
+            lock.unlock();
         }
-        return true;
     }
 
     /**
@@ -629,7 +819,7 @@ public class SecureConsole extends VirtualMountPointConsole {
         File[] cacheFiles = filesDir.listFiles(new FilenameFilter() {
             @Override
             public boolean accept(File dir, String filename) {
-                return filename.startsWith(mStorageName)
+                return filename.startsWith(mLegacyStorageName)
                         && filename.endsWith(".tmp");
             }
         });
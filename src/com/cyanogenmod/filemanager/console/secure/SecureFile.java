@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.secure;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A file of the secure storage.
+ * <br/>
+ * The path of a <code>SecureFile</code> is the real path of the entry, inside the directory of
+ * the {@link SecureStorage}, but all the operations are resolved against the storage, in the
+ * same way as <code>TFile</code> does with the files of an archive. So, the secure files can
+ * be passed to the helpers that work with {@link File}.
+ */
+public class SecureFile extends File {
+
+    private static final long serialVersionUID = -2305725011567036493L;
+
+    private final transient SecureStorage mStorage;
+    private final String mRoot;
+
+    /**
+     * Constructor of <code>SecureFile</code>.
+     *
+     * @param storage The storage, or <code>null</code> if the storage isn't mounted
+     * @param root The directory of the storage
+     * @param path The real path of the entry
+     */
+    public SecureFile(SecureStorage storage, File root, String path) {
+        super(path);
+        this.mStorage = storage;
+        this.mRoot = root.getAbsolutePath();
+    }
+
+    /**
+     * Constructor of <code>SecureFile</code>.
+     *
+     * @param parent The parent directory
+     * @param name The name of the entry
+     */
+    public SecureFile(SecureFile parent, String name) {
+        super(parent, name);
+        this.mStorage = parent.mStorage;
+        this.mRoot = parent.mRoot;
+    }
+
+    /**
+     * Method that returns the path of the entry inside the storage
+     *
+     * @return String The path inside the storage (the root is the empty path), or
+     * <code>null</code> if the file isn't inside the storage
+     */
+    public String getEntryPath() {
+        String path = getAbsolutePath();
+        if (path.equals(this.mRoot)) {
+            return ""; //$NON-NLS-1$
+        }
+        if (!path.startsWith(this.mRoot + File.separator)) {
+            return null;
+        }
+        return path.substring(this.mRoot.length() + 1);
+    }
+
+    /**
+     * Method that returns the file in the real filesystem
+     *
+     * @return File The real file
+     */
+    public File getFile() {
+        return new File(getPath());
+    }
+
+    /**
+     * Method that returns if the storage is mounted and the file is inside the storage
+     *
+     * @return boolean If the file can be resolved against the storage
+     */
+    private boolean isResolvable() {
+        return this.mStorage != null && getEntryPath() != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean exists() {
+        return isResolvable() && this.mStorage.exists(getEntryPath());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDirectory() {
+        return isResolvable() && this.mStorage.isDirectory(getEntryPath());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isFile() {
+        return isResolvable() && this.mStorage.isFile(getEntryPath());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isHidden() {
+        return getName().startsWith("."); //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canRead() {
+        return exists();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canWrite() {
+        return exists();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean canExecute() {
+        return isDirectory();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long length() {
+        return isResolvable() ? this.mStorage.length(getEntryPath()) : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lastModified() {
+        return isResolvable() ? this.mStorage.lastModified(getEntryPath()) : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean setLastModified(long time) {
+        return isResolvable() && this.mStorage.setLastModified(getEntryPath(), time);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] list() {
+        return isResolvable() ? this.mStorage.list(getEntryPath()) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] list(FilenameFilter filter) {
+        String[] names = list();
+        if (names == null || filter == null) {
+            return names;
+        }
+        List<String> filtered = new ArrayList<String>(names.length);
+        for (String name : names) {
+            if (filter.accept(this, name)) {
+                filtered.add(name);
+            }
+        }
+        return filtered.toArray(new String[filtered.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SecureFile[] listFiles() {
+        String[] names = list();
+        if (names == null) {
+            return null;
+        }
+        SecureFile[] files = new SecureFile[names.length];
+        for (int i = 0; i < names.length; i++) {
+            files[i] = new SecureFile(this, names[i]);
+        }
+        return files;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SecureFile[] listFiles(FilenameFilter filter) {
+        String[] names = list(filter);
+        if (names == null) {
+            return null;
+        }
+        SecureFile[] files = new SecureFile[names.length];
+        for (int i = 0; i < names.length; i++) {
+            files[i] = new SecureFile(this, names[i]);
+        }
+        return files;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SecureFile[] listFiles(FileFilter filter) {
+        SecureFile[] files = listFiles();
+        if (files == null || filter == null) {
+            return files;
+        }
+        List<SecureFile> filtered = new ArrayList<SecureFile>(files.length);
+        for (SecureFile file : files) {
+            if (filter.accept(file)) {
+                filtered.add(file);
+            }
+        }
+        return filtered.toArray(new SecureFile[filtered.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br/>
+     * The parent of the root of the storage is a real file.
+     */
+    @Override
+    public File getParentFile() {
+        String parent = getParent();
+        if (parent == null) {
+            return null;
+        }
+        String entry = getEntryPath();
+        if (entry == null || entry.length() == 0) {
+            return new File(parent);
+        }
+        return new SecureFile(this.mStorage, new File(this.mRoot), parent);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean mkdir() {
+        return isResolvable() && this.mStorage.mkdir(getEntryPath());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean mkdirs() {
+        if (exists()) {
+            return false;
+        }
+        File parent = getParentFile();
+        if (parent instanceof SecureFile && !parent.exists()) {
+            parent.mkdirs();
+        }
+        return mkdir();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean createNewFile() {
+        return isResolvable() && this.mStorage.createNewFile(getEntryPath());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean delete() {
+        return isResolvable() && this.mStorage.delete(getEntryPath());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br/>
+     * Only renames inside the same storage are supported.
+     */
+    @Override
+    public boolean renameTo(File dest) {
+        if (!(dest instanceof SecureFile) || !isResolvable()) {
+            return false;
+        }
+        SecureFile d = (SecureFile) dest;
+        if (d.mStorage != this.mStorage || d.getEntryPath() == null) {
+            return false;
+        }
+        return this.mStorage.rename(getEntryPath(), d.getEntryPath());
+    }
+
+    /**
+     * Method that opens the file for read
+     *
+     * @return InputStream The content of the file
+     * @throws FileNotFoundException If the file doesn't exist
+     */
+    public InputStream openInputStream() throws FileNotFoundException {
+        if (!isResolvable()) {
+            throw new FileNotFoundException(getPath());
+        }
+        return this.mStorage.openInputStream(getEntryPath());
+    }
+
+    /**
+     * Method that opens the file for write. The content of the file is replaced when
+     * the stream is closed.
+     *
+     * @return OutputStream The stream where to write the content of the file
+     * @throws FileNotFoundException If the file can't be written
+     */
+    public OutputStream openOutputStream() throws FileNotFoundException {
+        if (!isResolvable()) {
+            throw new FileNotFoundException(getPath());
+        }
+        return this.mStorage.openOutputStream(getEntryPath());
+    }
+}
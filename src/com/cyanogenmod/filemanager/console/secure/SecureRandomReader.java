@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.secure;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A reader of a file of a {@link SecureStorage} that can read at any position.
+ * <br/>
+ * Only the chunks that contain the requested data are decrypted, and they are kept in the
+ * bounded cache of the storage, so seeking back and forth doesn't decrypt the same chunk
+ * twice while it's in the cache. When the file is read sequentially the next chunks are
+ * decrypted in background (the window grows with every sequential read, up to
+ * {@link #MAX_READ_AHEAD} chunks), and a seek closes the window.
+ * <br/>
+ * The reader pins the chunks of the file while it's open: if the file is replaced or deleted
+ * in the meantime, the reader keeps reading the old content, and the storage doesn't delete
+ * those chunks until the reader is closed. So readers never wait for writers.
+ */
+public class SecureRandomReader implements Closeable {
+
+    /**
+     * The maximum chunks decrypted ahead of a sequential reader
+     */
+    public static final int MAX_READ_AHEAD = 8;
+
+    private final SecureStorage mStorage;
+    private final SecureBlockCache mCache;
+    private final long[] mChunks;
+    private final long mSize;
+
+    private int mLastChunk;
+    private int mReadAhead;
+    private int mReadAheadEnd;
+    private boolean mClosed;
+
+    /**
+     * Constructor of <code>SecureRandomReader</code>.
+     *
+     * @param storage The storage that pinned the chunks
+     * @param cache The cache of decrypted chunks
+     * @param chunks The chunks of the file
+     * @param size The size of the file
+     */
+    SecureRandomReader(
+            SecureStorage storage, SecureBlockCache cache, long[] chunks, long size) {
+        super();
+        this.mStorage = storage;
+        this.mCache = cache;
+        this.mChunks = chunks;
+        this.mSize = size;
+        this.mLastChunk = -1;
+    }
+
+    /**
+     * Method that returns the size of the file
+     *
+     * @return long The size of the file
+     */
+    public long length() {
+        return this.mSize;
+    }
+
+    /**
+     * Method that reads data of the file at a position
+     *
+     * @param position The position of the file
+     * @param b The buffer where to read the data
+     * @param off The offset of the buffer
+     * @param len The maximum bytes to read
+     * @return int The bytes read, or <code>-1</code> if the position is at the end of file
+     * @throws IOException If the data can't be read
+     */
+    public synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+        if (this.mClosed) {
+            throw new IOException("reader is closed"); //$NON-NLS-1$
+        }
+        if (position >= this.mSize) {
+            return -1;
+        }
+        len = (int) Math.min(len, this.mSize - position);
+        int read = 0;
+        while (read < len) {
+            long pos = position + read;
+            int chunk = (int) (pos / SecureStorage.CHUNK_SIZE);
+            int chunkPos = (int) (pos % SecureStorage.CHUNK_SIZE);
+            byte[] data = this.mCache.get(this.mChunks[chunk], getChunkLength(chunk));
+            int n = Math.min(len - read, data.length - chunkPos);
+            System.arraycopy(data, chunkPos, b, off + read, n);
+            read += n;
+            onChunkRead(chunk);
+        }
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() {
+        if (!this.mClosed) {
+            this.mClosed = true;
+            this.mStorage.unpinChunks(this.mChunks);
+        }
+    }
+
+    /**
+     * Method that updates the read-ahead window after read a chunk
+     *
+     * @param chunk The chunk read
+     */
+    private void onChunkRead(int chunk) {
+        if (chunk == this.mLastChunk) {
+            return;
+        }
+        if (chunk == this.mLastChunk + 1) {
+            // Sequential read. Grow the window
+            this.mReadAhead = Math.min(MAX_READ_AHEAD, Math.max(1, this.mReadAhead * 2));
+        } else {
+            // Seek. Don't read ahead until the reader is sequential again
+            this.mReadAhead = 0;
+            this.mReadAheadEnd = chunk + 1;
+        }
+        this.mLastChunk = chunk;
+
+        int end = Math.min(this.mChunks.length, chunk + 1 + this.mReadAhead);
+        for (int i = Math.max(this.mReadAheadEnd, chunk + 1); i < end; i++) {
+            this.mCache.readAhead(this.mChunks[i], getChunkLength(i));
+        }
+        this.mReadAheadEnd = Math.max(this.mReadAheadEnd, end);
+    }
+
+    /**
+     * Method that returns the length of the plain data of a chunk
+     *
+     * @param chunk The index of the chunk in the file
+     * @return int The length of the chunk
+     */
+    private int getChunkLength(int chunk) {
+        return (int) Math.min(SecureStorage.CHUNK_SIZE,
+                this.mSize - (long) chunk * SecureStorage.CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,1325 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.secure;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The encrypted storage of the secure console.
+ * <br/>
+ * The content of every file is split in chunks of {@link #CHUNK_SIZE} bytes, and every chunk
+ * is encrypted and authenticated on its own and saved in its own blob. The tree of the
+ * storage (names, dates, sizes and the chunks of every file) is saved in an encrypted index.
+ * Chunks are never modified: writing a file creates new chunks and releases the old ones,
+ * so a {@link #sync()} only has to write the index and delete the released chunks. The cost
+ * of a sync is proportional to the data changed, not to the size of the storage.
+ * <pre>
+ * storage/index                     The encrypted index
+ * storage/chunks/3f/000000000000013f  A chunk
+ * </pre>
+ * Chunks and index are encrypted with AES in CTR mode with a random IV and authenticated with
+ * HMAC-SHA256 (encrypt-then-MAC). The keys are random and are saved in the index wrapped
+ * with a key derived from the password, so changing the password only rewrites the index.
+ * <br/>
+ * Paths are relative to the root of the storage, separated by <code>/</code>. The root is
+ * the empty path.
+ * <br/>
+ * Files can also be read at any position with a {@link SecureRandomReader}. The chunks
+ * decrypted by the readers are kept in a bounded cache shared by all of them. The chunks of
+ * an open reader are pinned: a sync doesn't delete them, even if they were released, until
+ * the reader is closed. The same applies to the streams opened for read.
+ * <br/>
+ * The changes of the index can take the write lock of a {@link ReentrantReadWriteLock}
+ * (see {@link #setChangeLock(ReentrantReadWriteLock)}), so a long write only blocks the
+ * holders of the read lock while its changes are applied, not while its data is written.
+ */
+public class SecureStorage {
+
+    private static final String TAG = "SecureStorage"; //$NON-NLS-1$
+
+    /**
+     * The size of the chunks of the files
+     */
+    public static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * An exception thrown when the password doesn't unlock the storage
+     */
+    public static class AuthenticationException extends IOException {
+        private static final long serialVersionUID = -4171362528406187327L;
+
+        /**
+         * Constructor of <code>AuthenticationException</code>.
+         */
+        public AuthenticationException() {
+            super("invalid password"); //$NON-NLS-1$
+        }
+    }
+
+    private static final String INDEX_NAME = "index"; //$NON-NLS-1$
+    private static final String INDEX_TMP_NAME = "index.tmp"; //$NON-NLS-1$
+    private static final String CHUNKS_NAME = "chunks"; //$NON-NLS-1$
+
+    private static final int MAGIC = 0x434d5353; // CMSS
+    private static final int VERSION = 1;
+
+    private static final String CIPHER = "AES/CTR/NoPadding"; //$NON-NLS-1$
+    private static final String CIPHER_KEY = "AES"; //$NON-NLS-1$
+    private static final String MAC = "HmacSHA256"; //$NON-NLS-1$
+    private static final String KDF = "PBKDF2WithHmacSHA1"; //$NON-NLS-1$
+    private static final int KDF_ITERATIONS = 10000;
+
+    private static final int SALT_SIZE = 16;
+    private static final int IV_SIZE = 16;
+    private static final int MAC_SIZE = 32;
+    private static final int CIPHER_KEY_SIZE = 16;
+    private static final int MAC_KEY_SIZE = 32;
+    private static final int KEYS_SIZE = CIPHER_KEY_SIZE + MAC_KEY_SIZE;
+
+    // The size of the header of the index (magic, version, salt, iterations and wrapped keys)
+    private static final int HEADER_SIZE = 4 + 4 + SALT_SIZE + 4 + IV_SIZE + KEYS_SIZE + MAC_SIZE;
+
+    private static final int TYPE_DIRECTORY = 0;
+    private static final int TYPE_FILE = 1;
+
+    private static final long[] NO_CHUNKS = new long[0];
+
+    /**
+     * An entry of the tree of the storage
+     */
+    private static final class Node {
+        final boolean mDirectory;
+        Node mParent;
+        String mName;
+        long mTime;
+        long mSize;
+        long[] mChunks;
+        TreeMap<String, Node> mChildren;
+        int mOrdinal;
+
+        Node(boolean directory, long time) {
+            super();
+            this.mDirectory = directory;
+            this.mTime = time;
+            if (directory) {
+                this.mChildren = new TreeMap<String, Node>();
+            } else {
+                this.mChunks = NO_CHUNKS;
+            }
+        }
+    }
+
+    private final File mRoot;
+    private final File mChunksDir;
+    private final SecureRandom mRandom;
+
+    private SecretKeySpec mCipherKey;
+    private SecretKeySpec mMacKey;
+    private byte[] mKeys;
+    private byte[] mHeader;
+
+    private final Node mRootNode;
+    private long mNextChunkId;
+    private long mTotalSize;
+    private boolean mDirty;
+    private final List<Long> mReleasedChunks;
+    private final List<long[]> mPinnedChunks;
+    private final SecureBlockCache mBlockCache;
+    private volatile ReentrantReadWriteLock mChangeLock;
+
+    /**
+     * Constructor of <code>SecureStorage</code>.
+     *
+     * @param root The directory of the storage
+     */
+    private SecureStorage(File root) {
+        super();
+        this.mRoot = root;
+        this.mChunksDir = new File(root, CHUNKS_NAME);
+        this.mRandom = new SecureRandom();
+        this.mRootNode = new Node(true, System.currentTimeMillis());
+        this.mRootNode.mName = ""; //$NON-NLS-1$
+        this.mReleasedChunks = new ArrayList<Long>();
+        this.mPinnedChunks = new ArrayList<long[]>();
+        this.mBlockCache = new SecureBlockCache(new SecureBlockCache.ChunkLoader() {
+            @Override
+            public byte[] loadChunk(long id, int len) throws IOException {
+                if (SecureStorage.this.mCipherKey == null) {
+                    throw new IOException("storage is closed"); //$NON-NLS-1$
+                }
+                byte[] data = new byte[len];
+                readChunk(id, len, data);
+                return data;
+            }
+        }, SecureBlockCache.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Method that returns if a storage exists in a directory
+     *
+     * @param root The directory of the storage
+     * @return boolean If the storage exists
+     */
+    public static boolean exists(File root) {
+        return new File(root, INDEX_NAME).isFile();
+    }
+
+    /**
+     * Method that creates a new empty storage. The storage is saved before return.
+     *
+     * @param root The directory of the storage
+     * @param password The password of the storage
+     * @return SecureStorage The storage
+     * @throws IOException If the storage couldn't be created
+     */
+    public static SecureStorage create(File root, char[] password) throws IOException {
+        if (exists(root)) {
+            throw new IOException("storage already exists: " + root); //$NON-NLS-1$
+        }
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("can't create " + root); //$NON-NLS-1$
+        }
+        SecureStorage storage = new SecureStorage(root);
+        byte[] keys = new byte[KEYS_SIZE];
+        storage.mRandom.nextBytes(keys);
+        storage.setKeys(keys);
+        storage.setPassword(password);
+        storage.sync();
+        return storage;
+    }
+
+    /**
+     * Method that opens an existing storage.
+     *
+     * @param root The directory of the storage
+     * @param password The password of the storage
+     * @return SecureStorage The storage
+     * @throws AuthenticationException If the password doesn't unlock the storage
+     * @throws IOException If the storage couldn't be read or is corrupted
+     */
+    public static SecureStorage open(File root, char[] password) throws IOException {
+        SecureStorage storage = new SecureStorage(root);
+        storage.load(password);
+        storage.removeOrphanChunks();
+        return storage;
+    }
+
+    /**
+     * Method that changes the password of the storage. Only the keys saved in the index are
+     * encrypted again, the change is saved in the next sync.
+     *
+     * @param password The new password
+     * @throws IOException If the key can't be derived from the password
+     */
+    public synchronized void setPassword(char[] password) throws IOException {
+        byte[] salt = new byte[SALT_SIZE];
+        this.mRandom.nextBytes(salt);
+        byte[] iv = new byte[IV_SIZE];
+        this.mRandom.nextBytes(iv);
+        byte[] kek = deriveKey(password, salt, KDF_ITERATIONS);
+        try {
+            SecretKeySpec kekCipher = new SecretKeySpec(kek, 0, CIPHER_KEY_SIZE, CIPHER_KEY);
+            SecretKeySpec kekMac = new SecretKeySpec(kek, CIPHER_KEY_SIZE, MAC_KEY_SIZE, MAC);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(HEADER_SIZE);
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.write(salt);
+            dos.writeInt(KDF_ITERATIONS);
+            dos.write(iv);
+            dos.write(crypt(kekCipher, iv, this.mKeys, 0, KEYS_SIZE));
+            dos.write(mac(kekMac, baos.toByteArray(), 0, baos.size()));
+            dos.flush();
+            this.mHeader = baos.toByteArray();
+            this.mDirty = true;
+        } finally {
+            Arrays.fill(kek, (byte) 0);
+        }
+    }
+
+    /**
+     * Method that returns the total size of the files of the storage
+     *
+     * @return long The total size in bytes
+     */
+    public synchronized long getTotalSize() {
+        return this.mTotalSize;
+    }
+
+    /**
+     * Method that saves the index of the storage, if it was changed, and deletes the
+     * chunks not used anymore. The index is replaced atomically, so the storage on disk is
+     * always consistent.
+     *
+     * @return boolean If the index was written
+     * @throws IOException If the index couldn't be written
+     */
+    public synchronized boolean sync() throws IOException {
+        boolean written = this.mDirty;
+        if (written) {
+            writeIndex();
+            this.mDirty = false;
+        }
+
+        // The chunks are not referenced by the saved index anymore. The chunks pinned by
+        // a reader are deleted in a later sync
+        Iterator<Long> it = this.mReleasedChunks.iterator();
+        while (it.hasNext()) {
+            long id = it.next().longValue();
+            if (!isPinned(id)) {
+                getChunkFile(id).delete();
+                it.remove();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Method that discards the keys of the storage. The storage can't be used after this call.
+     */
+    public synchronized void close() {
+        this.mBlockCache.clear();
+        if (this.mKeys != null) {
+            Arrays.fill(this.mKeys, (byte) 0);
+        }
+        this.mKeys = null;
+        this.mCipherKey = null;
+        this.mMacKey = null;
+    }
+
+    /**
+     * Method that returns if an entry exists
+     *
+     * @param path The path of the entry
+     * @return boolean If the entry exists
+     */
+    public synchronized boolean exists(String path) {
+        return lookup(path) != null;
+    }
+
+    /**
+     * Method that returns if an entry is a directory
+     *
+     * @param path The path of the entry
+     * @return boolean If the entry exists and is a directory
+     */
+    public synchronized boolean isDirectory(String path) {
+        Node node = lookup(path);
+        return node != null && node.mDirectory;
+    }
+
+    /**
+     * Method that returns if an entry is a file
+     *
+     * @param path The path of the entry
+     * @return boolean If the entry exists and is a file
+     */
+    public synchronized boolean isFile(String path) {
+        Node node = lookup(path);
+        return node != null && !node.mDirectory;
+    }
+
+    /**
+     * Method that returns the size of a file
+     *
+     * @param path The path of the file
+     * @return long The size of the file, or 0 if it isn't a file
+     */
+    public synchronized long length(String path) {
+        Node node = lookup(path);
+        return node != null && !node.mDirectory ? node.mSize : 0;
+    }
+
+    /**
+     * Method that returns the last modification time of an entry
+     *
+     * @param path The path of the entry
+     * @return long The last modification time, or 0 if it doesn't exist
+     */
+    public synchronized long lastModified(String path) {
+        Node node = lookup(path);
+        return node != null ? node.mTime : 0;
+    }
+
+    /**
+     * Method that sets the last modification time of an entry
+     *
+     * @param path The path of the entry
+     * @param time The last modification time
+     * @return boolean If the time was set
+     */
+    public boolean setLastModified(String path, long time) {
+        Lock lock = lockChange();
+        try {
+            synchronized (this) {
+                Node node = lookup(path);
+                if (node == null) {
+                    return false;
+                }
+                node.mTime = time;
+                this.mDirty = true;
+                return true;
+            }
+        } finally {
+            unlockChange(lock);
+        }
+    }
+
+    /**
+     * Method that returns the names of the children of a directory, sorted.
+     *
+     * @param path The path of the directory
+     * @return String[] The names of the children, or <code>null</code> if it isn't a directory
+     */
+    public synchronized String[] list(String path) {
+        Node node = lookup(path);
+        if (node == null || !node.mDirectory) {
+            return null;
+        }
+        return node.mChildren.keySet().toArray(new String[node.mChildren.size()]);
+    }
+
+    /**
+     * Method that creates a directory. The parent directory must exist.
+     *
+     * @param path The path of the directory
+     * @return boolean If the directory was created
+     */
+    public boolean mkdir(String path) {
+        Lock lock = lockChange();
+        try {
+            synchronized (this) {
+                return addNode(path, true) != null;
+            }
+        } finally {
+            unlockChange(lock);
+        }
+    }
+
+    /**
+     * Method that creates an empty file. The parent directory must exist.
+     *
+     * @param path The path of the file
+     * @return boolean If the file was created
+     */
+    public boolean createNewFile(String path) {
+        Lock lock = lockChange();
+        try {
+            synchronized (this) {
+                return addNode(path, false) != null;
+            }
+        } finally {
+            unlockChange(lock);
+        }
+    }
+
+    /**
+     * Method that deletes a file or an empty directory
+     *
+     * @param path The path of the entry
+     * @return boolean If the entry was deleted
+     */
+    public boolean delete(String path) {
+        Lock lock = lockChange();
+        try {
+            synchronized (this) {
+                Node node = lookup(path);
+                if (node == null || node == this.mRootNode
+                        || (node.mDirectory && !node.mChildren.isEmpty())) {
+                    return false;
+                }
+                node.mParent.mChildren.remove(node.mName);
+                node.mParent.mTime = System.currentTimeMillis();
+                if (!node.mDirectory) {
+                    releaseChunks(node.mChunks);
+                    this.mTotalSize -= node.mSize;
+                }
+                this.mDirty = true;
+                return true;
+            }
+        } finally {
+            unlockChange(lock);
+        }
+    }
+
+    /**
+     * Method that renames a file or a directory. Only the index is changed.
+     *
+     * @param src The path of the entry
+     * @param dst The new path of the entry. It must not exist and its parent must exist
+     * @return boolean If the entry was renamed
+     */
+    public boolean rename(String src, String dst) {
+        Lock lock = lockChange();
+        try {
+            synchronized (this) {
+                Node node = lookup(src);
+                if (node == null || node == this.mRootNode || lookup(dst) != null) {
+                    return false;
+                }
+                Node parent = lookup(getParentPath(dst));
+                if (parent == null || !parent.mDirectory) {
+                    return false;
+                }
+                // A directory can't be moved inside itself
+                for (Node p = parent; p != null; p = p.mParent) {
+                    if (p == node) {
+                        return false;
+                    }
+                }
+                long now = System.currentTimeMillis();
+                node.mParent.mChildren.remove(node.mName);
+                node.mParent.mTime = now;
+                node.mName = getName(dst);
+                node.mParent = parent;
+                parent.mChildren.put(node.mName, node);
+                parent.mTime = now;
+                this.mDirty = true;
+                return true;
+            }
+        } finally {
+            unlockChange(lock);
+        }
+    }
+
+    /**
+     * Method that opens a file for read. The stream reads the content of the file at the
+     * time of this call: its chunks are pinned until the stream is closed.
+     *
+     * @param path The path of the file
+     * @return InputStream The decrypted content of the file
+     * @throws FileNotFoundException If the file doesn't exist
+     */
+    public synchronized InputStream openInputStream(String path) throws FileNotFoundException {
+        Node node = lookup(path);
+        if (node == null || node.mDirectory) {
+            throw new FileNotFoundException(path);
+        }
+        this.mPinnedChunks.add(node.mChunks);
+        return new ChunkInputStream(node.mChunks, node.mSize);
+    }
+
+    /**
+     * Method that opens a file for read at any position. The reader reads the content of
+     * the file at the time of this call: its chunks are pinned until the reader is closed.
+     *
+     * @param path The path of the file
+     * @return SecureRandomReader The reader of the file
+     * @throws FileNotFoundException If the file doesn't exist
+     */
+    public synchronized SecureRandomReader openRandomReader(String path)
+            throws FileNotFoundException {
+        Node node = lookup(path);
+        if (node == null || node.mDirectory) {
+            throw new FileNotFoundException(path);
+        }
+        this.mPinnedChunks.add(node.mChunks);
+        return new SecureRandomReader(this, this.mBlockCache, node.mChunks, node.mSize);
+    }
+
+    /**
+     * Method that releases the chunks pinned by a reader
+     *
+     * @param chunks The chunks of the reader
+     */
+    synchronized void unpinChunks(long[] chunks) {
+        int cc = this.mPinnedChunks.size();
+        for (int i = 0; i < cc; i++) {
+            if (this.mPinnedChunks.get(i) == chunks) {
+                this.mPinnedChunks.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method that returns if a chunk is pinned by an open reader
+     *
+     * @param id The id of the chunk
+     * @return boolean If the chunk is pinned
+     */
+    private boolean isPinned(long id) {
+        for (long[] chunks : this.mPinnedChunks) {
+            for (long chunk : chunks) {
+                if (chunk == id) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method that opens a file for write. The file is created if it doesn't exist and
+     * its content is replaced when the stream is closed.
+     *
+     * @param path The path of the file
+     * @return OutputStream The stream where to write the content of the file
+     * @throws FileNotFoundException If the parent directory doesn't exist or the path
+     * is a directory
+     */
+    public synchronized OutputStream openOutputStream(String path)
+            throws FileNotFoundException {
+        Node node = lookup(path);
+        if (node != null && node.mDirectory) {
+            throw new FileNotFoundException(path);
+        }
+        Node parent = lookup(getParentPath(path));
+        if (parent == null || !parent.mDirectory) {
+            throw new FileNotFoundException(path);
+        }
+        return new ChunkOutputStream(path);
+    }
+
+    /**
+     * Method that returns the node of a path
+     *
+     * @param path The path
+     * @return Node The node, or <code>null</code> if it doesn't exist
+     */
+    private Node lookup(String path) {
+        Node node = this.mRootNode;
+        int start = 0;
+        int len = path.length();
+        while (start < len) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = len;
+            }
+            if (end > start) {
+                if (!node.mDirectory) {
+                    return null;
+                }
+                node = node.mChildren.get(path.substring(start, end));
+                if (node == null) {
+                    return null;
+                }
+            }
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * Method that adds a new entry to its parent directory
+     *
+     * @param path The path of the entry
+     * @param directory If the entry is a directory
+     * @return Node The new node, or <code>null</code> if the entry exists or the parent
+     * directory doesn't exist
+     */
+    private Node addNode(String path, boolean directory) {
+        String name = getName(path);
+        Node parent = lookup(getParentPath(path));
+        if (name.length() == 0 || parent == null || !parent.mDirectory
+                || parent.mChildren.containsKey(name)) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Node node = new Node(directory, now);
+        node.mName = name;
+        node.mParent = parent;
+        parent.mChildren.put(name, node);
+        parent.mTime = now;
+        this.mDirty = true;
+        return node;
+    }
+
+    /**
+     * Method that replaces the content of a file with the chunks written by a stream
+     *
+     * @param path The path of the file
+     * @param chunks The new chunks of the file
+     * @param size The new size of the file
+     * @throws IOException If the file can't be created
+     */
+    void commitFile(String path, long[] chunks, long size) throws IOException {
+        Lock lock = lockChange();
+        try {
+            synchronized (this) {
+                Node node = lookup(path);
+                if (node == null) {
+                    node = addNode(path, false);
+                }
+                if (node == null || node.mDirectory) {
+                    releaseChunks(chunks);
+                    throw new FileNotFoundException(path);
+                }
+                releaseChunks(node.mChunks);
+                this.mTotalSize += size - node.mSize;
+                node.mChunks = chunks;
+                node.mSize = size;
+                node.mTime = System.currentTimeMillis();
+                this.mDirty = true;
+            }
+        } finally {
+            unlockChange(lock);
+        }
+    }
+
+    /**
+     * Method that sets the lock of the changes of the storage. Every change of the index
+     * (including the commit of a written file) takes its write lock, so the holders of the
+     * read lock never see the storage change. A thread that holds the read lock makes its
+     * changes without the write lock (it can't be upgraded).
+     *
+     * @param lock The lock, or <code>null</code> to not lock the changes
+     */
+    void setChangeLock(ReentrantReadWriteLock lock) {
+        this.mChangeLock = lock;
+    }
+
+    /**
+     * Method that takes the write lock of the changes, if any. It must be called before
+     * take the monitor of the storage, because the holders of the read lock also use it.
+     *
+     * @return Lock The lock taken, or <code>null</code> if none
+     */
+    private Lock lockChange() {
+        ReentrantReadWriteLock lock = this.mChangeLock;
+        if (lock == null || lock.getReadHoldCount() > 0) {
+            return null;
+        }
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        return writeLock;
+    }
+
+    /**
+     * Method that releases the write lock of the changes
+     *
+     * @param lock The lock taken by {@link #lockChange()}, or <code>null</code>
+     */
+    private static void unlockChange(Lock lock) {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Method that marks chunks to be deleted in the next sync
+     *
+     * @param chunks The chunks
+     */
+    synchronized void releaseChunks(long[] chunks) {
+        for (long id : chunks) {
+            this.mReleasedChunks.add(Long.valueOf(id));
+        }
+    }
+
+    /**
+     * Method that reserves the id of a new chunk
+     *
+     * @return long The id of the chunk
+     */
+    private synchronized long nextChunkId() {
+        return this.mNextChunkId++;
+    }
+
+    /**
+     * Method that returns the file of a chunk
+     *
+     * @param id The id of the chunk
+     * @return File The file of the chunk
+     */
+    private File getChunkFile(long id) {
+        String dir = String.format(Locale.ROOT, "%02x", Long.valueOf(id & 0xff)); //$NON-NLS-1$
+        String name = String.format(Locale.ROOT, "%016x", Long.valueOf(id)); //$NON-NLS-1$
+        return new File(new File(this.mChunksDir, dir), name);
+    }
+
+    /**
+     * Method that encrypts and writes a chunk. The chunk is synced to disk before return,
+     * so the index never references a chunk that is not saved.
+     *
+     * @param id The id of the chunk
+     * @param data The plain data
+     * @param len The length of the data
+     * @throws IOException If the chunk can't be written
+     */
+    private void writeChunk(long id, byte[] data, int len) throws IOException {
+        byte[] iv = new byte[IV_SIZE];
+        this.mRandom.nextBytes(iv);
+        byte[] encrypted = crypt(this.mCipherKey, iv, data, 0, len);
+        byte[] mac = chunkMac(id, iv, encrypted);
+
+        File file = getChunkFile(id);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can't create " + dir); //$NON-NLS-1$
+        }
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(iv);
+            fos.write(encrypted);
+            fos.write(mac);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Method that reads, authenticates and decrypts a chunk
+     *
+     * @param id The id of the chunk
+     * @param len The expected length of the plain data
+     * @param out Where to write the plain data
+     * @throws IOException If the chunk can't be read or was modified
+     */
+    private void readChunk(long id, int len, byte[] out) throws IOException {
+        byte[] data = new byte[IV_SIZE + len + MAC_SIZE];
+        FileInputStream fis = new FileInputStream(getChunkFile(id));
+        try {
+            new DataInputStream(fis).readFully(data);
+        } catch (EOFException ex) {
+            throw new IOException("truncated chunk " + id, ex); //$NON-NLS-1$
+        } finally {
+            fis.close();
+        }
+        byte[] iv = Arrays.copyOfRange(data, 0, IV_SIZE);
+        byte[] encrypted = Arrays.copyOfRange(data, IV_SIZE, IV_SIZE + len);
+        byte[] mac = Arrays.copyOfRange(data, IV_SIZE + len, data.length);
+        if (!MessageDigest.isEqual(mac, chunkMac(id, iv, encrypted))) {
+            throw new IOException("corrupted chunk " + id); //$NON-NLS-1$
+        }
+        byte[] plain = crypt(this.mCipherKey, iv, encrypted, 0, len);
+        System.arraycopy(plain, 0, out, 0, len);
+    }
+
+    /**
+     * Method that computes the MAC of a chunk. The id is part of the MAC, so a chunk can't
+     * be replaced with another one.
+     *
+     * @param id The id of the chunk
+     * @param iv The IV of the chunk
+     * @param encrypted The encrypted data
+     * @return byte[] The MAC
+     * @throws IOException If the MAC can't be computed
+     */
+    private byte[] chunkMac(long id, byte[] iv, byte[] encrypted) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(MAC);
+            mac.init(this.mMacKey);
+            for (int i = 7; i >= 0; i--) {
+                mac.update((byte) (id >>> (i * 8)));
+            }
+            mac.update(iv);
+            mac.update(encrypted);
+            return mac.doFinal();
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Method that writes the index atomically: it is written to a temporary file, synced
+     * and renamed over the previous one.
+     *
+     * @throws IOException If the index can't be written
+     */
+    private void writeIndex() throws IOException {
+        // Serialize the tree (preorder, every node references the position of its parent)
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeLong(this.mNextChunkId);
+        List<Node> nodes = new ArrayList<Node>();
+        collect(this.mRootNode, nodes);
+        int cc = nodes.size();
+        dos.writeInt(cc);
+        for (int i = 0; i < cc; i++) {
+            Node node = nodes.get(i);
+            node.mOrdinal = i;
+            dos.writeInt(node.mParent != null ? node.mParent.mOrdinal : -1);
+            dos.writeByte(node.mDirectory ? TYPE_DIRECTORY : TYPE_FILE);
+            dos.writeUTF(node.mName);
+            dos.writeLong(node.mTime);
+            if (!node.mDirectory) {
+                dos.writeLong(node.mSize);
+                dos.writeInt(node.mChunks.length);
+                for (long id : node.mChunks) {
+                    dos.writeLong(id);
+                }
+            }
+        }
+        dos.flush();
+        byte[] body = baos.toByteArray();
+
+        // Header + iv + encrypted body + mac
+        byte[] iv = new byte[IV_SIZE];
+        this.mRandom.nextBytes(iv);
+        byte[] encrypted = crypt(this.mCipherKey, iv, body, 0, body.length);
+        baos = new ByteArrayOutputStream(HEADER_SIZE + IV_SIZE + 4 + encrypted.length + MAC_SIZE);
+        dos = new DataOutputStream(baos);
+        dos.write(this.mHeader);
+        dos.write(iv);
+        dos.writeInt(encrypted.length);
+        dos.write(encrypted);
+        dos.flush();
+        dos.write(mac(this.mMacKey, baos.toByteArray(), 0, baos.size()));
+        dos.flush();
+
+        File tmp = new File(this.mRoot, INDEX_TMP_NAME);
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            baos.writeTo(fos);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tmp.renameTo(new File(this.mRoot, INDEX_NAME))) {
+            tmp.delete();
+            throw new IOException("can't replace the index of " + this.mRoot); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method that collects the nodes of a tree in preorder. The parent of every node is
+     * always before the node.
+     *
+     * @param node The root of the tree
+     * @param nodes Where to collect the nodes
+     */
+    private static void collect(Node node, List<Node> nodes) {
+        // Use an explicit stack, trees can be deep
+        List<Node> stack = new ArrayList<Node>();
+        stack.add(node);
+        while (!stack.isEmpty()) {
+            Node n = stack.remove(stack.size() - 1);
+            nodes.add(n);
+            if (n.mDirectory) {
+                stack.addAll(n.mChildren.descendingMap().values());
+            }
+        }
+    }
+
+    /**
+     * Method that reads, authenticates and decrypts the index
+     *
+     * @param password The password of the storage
+     * @throws IOException If the index can't be read or is corrupted
+     */
+    private void load(char[] password) throws IOException {
+        File file = new File(this.mRoot, INDEX_NAME);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getAbsolutePath());
+        }
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            new DataInputStream(fis).readFully(data);
+        } finally {
+            fis.close();
+        }
+        if (data.length < HEADER_SIZE + IV_SIZE + 4 + MAC_SIZE) {
+            throw new IOException("truncated index " + file); //$NON-NLS-1$
+        }
+
+        // Header: unwrap the keys with the password
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+            throw new IOException("unknown storage format " + file); //$NON-NLS-1$
+        }
+        byte[] salt = new byte[SALT_SIZE];
+        dis.readFully(salt);
+        int iterations = dis.readInt();
+        byte[] keysIv = new byte[IV_SIZE];
+        dis.readFully(keysIv);
+        byte[] wrappedKeys = new byte[KEYS_SIZE];
+        dis.readFully(wrappedKeys);
+        byte[] keysMac = new byte[MAC_SIZE];
+        dis.readFully(keysMac);
+        byte[] kek = deriveKey(password, salt, iterations);
+        try {
+            SecretKeySpec kekCipher = new SecretKeySpec(kek, 0, CIPHER_KEY_SIZE, CIPHER_KEY);
+            SecretKeySpec kekMac = new SecretKeySpec(kek, CIPHER_KEY_SIZE, MAC_KEY_SIZE, MAC);
+            if (!MessageDigest.isEqual(keysMac,
+                    mac(kekMac, data, 0, HEADER_SIZE - MAC_SIZE))) {
+                throw new AuthenticationException();
+            }
+            setKeys(crypt(kekCipher, keysIv, wrappedKeys, 0, KEYS_SIZE));
+        } finally {
+            Arrays.fill(kek, (byte) 0);
+        }
+        this.mHeader = Arrays.copyOf(data, HEADER_SIZE);
+
+        // Body: authenticate and decrypt the tree
+        byte[] iv = new byte[IV_SIZE];
+        dis.readFully(iv);
+        int len = dis.readInt();
+        if (len < 0 || HEADER_SIZE + IV_SIZE + 4 + len + MAC_SIZE != data.length) {
+            throw new IOException("corrupted index " + file); //$NON-NLS-1$
+        }
+        byte[] mac = Arrays.copyOfRange(data, data.length - MAC_SIZE, data.length);
+        if (!MessageDigest.isEqual(mac,
+                mac(this.mMacKey, data, 0, data.length - MAC_SIZE))) {
+            throw new IOException("corrupted index " + file); //$NON-NLS-1$
+        }
+        byte[] body = crypt(this.mCipherKey, iv, data, HEADER_SIZE + IV_SIZE + 4, len);
+
+        dis = new DataInputStream(new ByteArrayInputStream(body));
+        this.mNextChunkId = dis.readLong();
+        int cc = dis.readInt();
+        Node[] nodes = new Node[cc];
+        for (int i = 0; i < cc; i++) {
+            int parent = dis.readInt();
+            boolean directory = dis.readByte() == TYPE_DIRECTORY;
+            String name = dis.readUTF();
+            Node node = new Node(directory, dis.readLong());
+            node.mName = name;
+            if (!directory) {
+                node.mSize = dis.readLong();
+                long[] chunks = new long[dis.readInt()];
+                for (int j = 0; j < chunks.length; j++) {
+                    chunks[j] = dis.readLong();
+                }
+                node.mChunks = chunks;
+                this.mTotalSize += node.mSize;
+            }
+            if (i == 0) {
+                this.mRootNode.mTime = node.mTime;
+                nodes[i] = this.mRootNode;
+                continue;
+            }
+            if (parent < 0 || parent >= i || !nodes[parent].mDirectory) {
+                throw new IOException("corrupted index " + file); //$NON-NLS-1$
+            }
+            node.mParent = nodes[parent];
+            node.mParent.mChildren.put(name, node);
+            nodes[i] = node;
+        }
+    }
+
+    /**
+     * Method that deletes the chunks not referenced by the index: the chunks written after
+     * the last sync of a previous session (their ids will be reused) and the released chunks
+     * that were pinned by a reader when the previous session ended.
+     */
+    private void removeOrphanChunks() {
+        File[] dirs = this.mChunksDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        Set<Long> referenced = new HashSet<Long>();
+        collectChunks(this.mRootNode, referenced);
+        for (File dir : dirs) {
+            File[] chunks = dir.listFiles();
+            if (chunks == null) {
+                continue;
+            }
+            for (File chunk : chunks) {
+                try {
+                    long id = Long.parseLong(chunk.getName(), 16);
+                    if (!referenced.contains(Long.valueOf(id))) {
+                        chunk.delete();
+                    }
+                } catch (NumberFormatException ex) {
+                    Log.w(TAG, "Unknown file in secure storage: " + chunk); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that collects the chunks of all the files of a tree
+     *
+     * @param node The root of the tree
+     * @param chunks The set where to add the chunks
+     */
+    private static void collectChunks(Node node, Set<Long> chunks) {
+        if (!node.mDirectory) {
+            for (long id : node.mChunks) {
+                chunks.add(Long.valueOf(id));
+            }
+            return;
+        }
+        for (Node child : node.mChildren.values()) {
+            collectChunks(child, chunks);
+        }
+    }
+
+    /**
+     * Method that sets the keys of the storage
+     *
+     * @param keys The cipher key followed by the MAC key
+     */
+    private void setKeys(byte[] keys) {
+        this.mKeys = keys;
+        this.mCipherKey = new SecretKeySpec(keys, 0, CIPHER_KEY_SIZE, CIPHER_KEY);
+        this.mMacKey = new SecretKeySpec(keys, CIPHER_KEY_SIZE, MAC_KEY_SIZE, MAC);
+    }
+
+    /**
+     * Method that derives the key that encrypts the keys of the storage from the password
+     *
+     * @param password The password
+     * @param salt The salt
+     * @param iterations The iterations of the derivation
+     * @return byte[] The cipher key followed by the MAC key
+     * @throws IOException If the key can't be derived
+     */
+    private static byte[] deriveKey(char[] password, byte[] salt, int iterations)
+            throws IOException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEYS_SIZE * 8);
+        try {
+            return SecretKeyFactory.getInstance(KDF).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Method that encrypts or decrypts (CTR is symmetric) a region of an array
+     *
+     * @param key The cipher key
+     * @param iv The IV
+     * @param data The data
+     * @param offset The offset of the data
+     * @param len The length of the data
+     * @return byte[] The result
+     * @throws IOException If the cipher isn't available
+     */
+    private static byte[] crypt(SecretKeySpec key, byte[] iv, byte[] data, int offset, int len)
+            throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+            return cipher.doFinal(data, offset, len);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Method that computes the MAC of a region of an array
+     *
+     * @param key The MAC key
+     * @param data The data
+     * @param offset The offset of the data
+     * @param len The length of the data
+     * @return byte[] The MAC
+     * @throws IOException If the MAC isn't available
+     */
+    private static byte[] mac(SecretKeySpec key, byte[] data, int offset, int len)
+            throws IOException {
+        try {
+            Mac mac = Mac.getInstance(MAC);
+            mac.init(key);
+            mac.update(data, offset, len);
+            return mac.doFinal();
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Method that returns the name of a path
+     *
+     * @param path The path
+     * @return String The name
+     */
+    private static String getName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Method that returns the parent of a path
+     *
+     * @param path The path
+     * @return String The parent path (the root is the empty path)
+     */
+    private static String getParentPath(String path) {
+        int pos = path.lastIndexOf('/');
+        return pos == -1 ? "" : path.substring(0, pos); //$NON-NLS-1$
+    }
+
+    /**
+     * A stream that reads the chunks of a file. Skipping is done by chunks, without read
+     * the skipped data.
+     */
+    private class ChunkInputStream extends InputStream {
+        private final long[] mChunks;
+        private final long mSize;
+        private final byte[] mBuffer;
+        private long mPosition;
+        private int mChunk;
+        private boolean mClosed;
+
+        ChunkInputStream(long[] chunks, long size) {
+            super();
+            this.mChunks = chunks;
+            this.mSize = size;
+            this.mBuffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(size, 1))];
+            this.mChunk = -1;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.mPosition >= this.mSize) {
+                return -1;
+            }
+            int chunk = (int) (this.mPosition / CHUNK_SIZE);
+            if (chunk != this.mChunk) {
+                int chunkLen = (int) Math.min(CHUNK_SIZE, this.mSize - (long) chunk * CHUNK_SIZE);
+                readChunk(this.mChunks[chunk], chunkLen, this.mBuffer);
+                this.mChunk = chunk;
+            }
+            int pos = (int) (this.mPosition % CHUNK_SIZE);
+            int chunkLen = (int) Math.min(CHUNK_SIZE, this.mSize - (long) chunk * CHUNK_SIZE);
+            int n = Math.min(len, chunkLen - pos);
+            System.arraycopy(this.mBuffer, pos, b, off, n);
+            this.mPosition += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, this.mSize - this.mPosition));
+            this.mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, this.mSize - this.mPosition);
+        }
+
+        @Override
+        public void close() {
+            if (!this.mClosed) {
+                this.mClosed = true;
+                unpinChunks(this.mChunks);
+            }
+        }
+    }
+
+    /**
+     * A stream that writes the content of a file in new chunks. The file is only changed
+     * when the stream is closed.
+     */
+    private class ChunkOutputStream extends OutputStream {
+        private final String mPath;
+        private final byte[] mBuffer;
+        private int mCount;
+        private long[] mChunks;
+        private int mChunkCount;
+        private long mSize;
+        private boolean mClosed;
+
+        ChunkOutputStream(String path) {
+            super();
+            this.mPath = path;
+            this.mBuffer = new byte[CHUNK_SIZE];
+            this.mChunks = new long[8];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (this.mClosed) {
+                throw new IOException("stream closed"); //$NON-NLS-1$
+            }
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE - this.mCount);
+                System.arraycopy(b, off, this.mBuffer, this.mCount, n);
+                this.mCount += n;
+                this.mSize += n;
+                off += n;
+                len -= n;
+                if (this.mCount == CHUNK_SIZE) {
+                    flushChunk();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.mClosed) {
+                return;
+            }
+            this.mClosed = true;
+            if (this.mCount > 0) {
+                flushChunk();
+            }
+            commitFile(this.mPath, Arrays.copyOf(this.mChunks, this.mChunkCount), this.mSize);
+        }
+
+        private void flushChunk() throws IOException {
+            long id = nextChunkId();
+            try {
+                writeChunk(id, this.mBuffer, this.mCount);
+            } catch (IOException ex) {
+                // Discard the chunks already written
+                this.mClosed = true;
+                releaseChunks(Arrays.copyOf(this.mChunks, this.mChunkCount));
+                releaseChunks(new long[]{id});
+                throw ex;
+            }
+            if (this.mChunkCount == this.mChunks.length) {
+                this.mChunks = Arrays.copyOf(this.mChunks, this.mChunkCount * 2);
+            }
+            this.mChunks[this.mChunkCount++] = id;
+            this.mCount = 0;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import de.schlichtherle.truezip.key.AbstractKeyManagerProvider;
 import de.schlichtherle.truezip.key.KeyManager;
 import de.schlichtherle.truezip.key.PromptingKeyManager;
 import de.schlichtherle.truezip.key.PromptingKeyProvider;
+import de.schlichtherle.truezip.key.UnknownKeyException;
 
 /**
  * The SecureStorage KeyManager provider
@@ -74,6 +75,31 @@ public class SecureStorageKeyManagerProvider extends AbstractKeyManagerProvider
         getKeyProvider().setKey(null);
     }
 
+    /**
+     * Method that returns the password to read the secure storage, prompting the user
+     * if it isn't known yet
+     *
+     * @param invalid If the last returned password was invalid
+     * @return char[] The password
+     * @throws UnknownKeyException If the user cancelled the prompt
+     * @hide
+     */
+    char[] getReadPassword(boolean invalid) throws UnknownKeyException {
+        return getKeyProvider().getReadKey(invalid).getPassword();
+    }
+
+    /**
+     * Method that returns the password to write the secure storage, prompting the user
+     * if it isn't known yet
+     *
+     * @return char[] The password
+     * @throws UnknownKeyException If the user cancelled the prompt
+     * @hide
+     */
+    char[] getWritePassword() throws UnknownKeyException {
+        return getKeyProvider().getWriteKey().getPassword();
+    }
+
     @SuppressWarnings("unchecked")
     private static PromptingKeyProvider<AesCipherParameters> getKeyProvider() {
         PromptingKeyManager<AesCipherParameters> keyManager =
@@ -95,9 +95,8 @@ public class SecureStorageKeyPromptDialog
         protected void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
 
-            // Check with java.io.File instead of TFile because TFile#exists() will
-            // check for password key, which is currently locked
-            mNewStorage = !SecureConsole.getSecureStorageRoot().getFile().exists();
+            // Check the files of the storage, the storage is currently locked
+            mNewStorage = !SecureConsole.isSecureStorageCreated();
             mResetPassword = sResetInProgress;
             mDeleteStorage = sDeleteInProgress;
 
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.secure;
+
+import android.util.Log;
+
+import de.schlichtherle.truezip.file.TFile;
+import de.schlichtherle.truezip.file.TFileInputStream;
+import de.schlichtherle.truezip.file.TVFS;
+import static de.schlichtherle.truezip.fs.FsSyncOption.CLEAR_CACHE;
+import static de.schlichtherle.truezip.fs.FsSyncOption.FORCE_CLOSE_INPUT;
+import static de.schlichtherle.truezip.fs.FsSyncOption.FORCE_CLOSE_OUTPUT;
+import de.schlichtherle.truezip.util.BitField;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A class that moves the content of the old secure storage (a single RAES encrypted zip
+ * archive handled by TrueZIP) to a {@link SecureStorage}.
+ */
+final class SecureStorageMigrator {
+
+    private static final String TAG = "SecureStorageMigrator"; //$NON-NLS-1$
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** You cannot instantiate this class. */
+    private SecureStorageMigrator() {
+    }
+
+    /**
+     * Method that copies the tree of the old secure storage to a new storage. The old
+     * storage must be mounted (it uses the same key provider, so the user isn't prompted
+     * again). The new storage is synced, but the old storage is not deleted.
+     *
+     * @param legacy The root of the old secure storage
+     * @param storage The new storage
+     * @throws IOException If the copy fails
+     */
+    static void migrate(TFile legacy, SecureStorage storage) throws IOException {
+        long start = System.currentTimeMillis();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            copy(legacy, storage, "", buffer); //$NON-NLS-1$
+        } finally {
+            // Release the old archive
+            TVFS.sync(legacy,
+                    BitField.of(CLEAR_CACHE)
+                            .set(FORCE_CLOSE_INPUT, true)
+                            .set(FORCE_CLOSE_OUTPUT, true));
+        }
+        storage.sync();
+        Log.i(TAG, String.format("Migrated %d bytes in %d ms", //$NON-NLS-1$
+                Long.valueOf(storage.getTotalSize()),
+                Long.valueOf(System.currentTimeMillis() - start)));
+    }
+
+    /**
+     * Method that copies recursively the children of a directory of the old storage
+     *
+     * @param dir The directory of the old storage
+     * @param storage The new storage
+     * @param path The path of the directory in the new storage
+     * @param buffer The copy buffer
+     * @throws IOException If the copy fails
+     */
+    private static void copy(TFile dir, SecureStorage storage, String path, byte[] buffer)
+            throws IOException {
+        TFile[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (TFile file : files) {
+            String dst = file.getName();
+            if (path.length() > 0) {
+                dst = path + "/" + dst; //$NON-NLS-1$
+            }
+            if (file.isDirectory()) {
+                if (!storage.mkdir(dst)) {
+                    throw new IOException("Failed to create " + dst); //$NON-NLS-1$
+                }
+                copy(file, storage, dst, buffer);
+            } else {
+                InputStream is = new TFileInputStream(file);
+                try {
+                    OutputStream os = storage.openOutputStream(dst);
+                    try {
+                        int read;
+                        while ((read = is.read(buffer)) != -1) {
+                            os.write(buffer, 0, read);
+                        }
+                    } finally {
+                        os.close();
+                    }
+                } finally {
+                    is.close();
+                }
+            }
+            storage.setLastModified(dst, file.lastModified());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.model;
+
+import java.io.Serializable;
+
+/**
+ * A class that holds the progress of an operation over a known amount of bytes.
+ */
+public class ByteProgress implements Serializable {
+
+    private static final long serialVersionUID = 4503120960917328613L;
+
+    private final long mBytes;
+    private final long mTotalBytes;
+
+    /**
+     * Constructor of <code>ByteProgress</code>.
+     *
+     * @param bytes The bytes processed
+     * @param totalBytes The total bytes to process, or <code>-1</code> if unknown
+     */
+    public ByteProgress(long bytes, long totalBytes) {
+        super();
+        this.mBytes = bytes;
+        this.mTotalBytes = totalBytes;
+    }
+
+    /**
+     * Method that returns the bytes processed.
+     *
+     * @return long The bytes processed
+     */
+    public long getBytes() {
+        return this.mBytes;
+    }
+
+    /**
+     * Method that returns the total bytes to process.
+     *
+     * @return long The total bytes to process, or <code>-1</code> if unknown
+     */
+    public long getTotalBytes() {
+        return this.mTotalBytes;
+    }
+
+    /**
+     * Method that returns the percentage of bytes processed.
+     *
+     * @return int The percentage (0-100), or <code>-1</code> if the total is unknown
+     */
+    public int getPercentage() {
+        if (this.mTotalBytes <= 0) {
+            return -1;
+        }
+        return (int)Math.min(100, (this.mBytes * 100) / this.mTotalBytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ByteProgress [bytes=" + this.mBytes + //$NON-NLS-1$
+                ", totalBytes=" + this.mTotalBytes + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
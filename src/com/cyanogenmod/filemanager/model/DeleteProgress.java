@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.model;
+
+import java.io.Serializable;
+
+/**
+ * A class that holds the progress of a delete operation.
+ */
+public class DeleteProgress implements Serializable {
+
+    private static final long serialVersionUID = -7140520846521503712L;
+
+    private final int mEntries;
+    private final String mCurrentFile;
+    private final long mEntriesPerSecond;
+
+    /**
+     * Constructor of <code>DeleteProgress</code>.
+     *
+     * @param entries The files and folders deleted
+     * @param currentFile The last deleted file
+     * @param entriesPerSecond The current throughput, or <code>0</code> if unknown
+     */
+    public DeleteProgress(int entries, String currentFile, long entriesPerSecond) {
+        super();
+        this.mEntries = entries;
+        this.mCurrentFile = currentFile;
+        this.mEntriesPerSecond = entriesPerSecond;
+    }
+
+    /**
+     * Method that returns the files and folders deleted.
+     *
+     * @return int The files and folders deleted
+     */
+    public int getEntries() {
+        return this.mEntries;
+    }
+
+    /**
+     * Method that returns the last deleted file.
+     *
+     * @return String The last deleted file
+     */
+    public String getCurrentFile() {
+        return this.mCurrentFile;
+    }
+
+    /**
+     * Method that returns the current throughput.
+     *
+     * @return long The files and folders deleted per second, or <code>0</code> if unknown
+     */
+    public long getEntriesPerSecond() {
+        return this.mEntriesPerSecond;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "DeleteProgress [entries=" + this.mEntries + //$NON-NLS-1$
+                ", currentFile=" + this.mCurrentFile + //$NON-NLS-1$
+                ", entriesPerSecond=" + this.mEntriesPerSecond + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A class that represents a group of files with the same content.
+ */
+public class DuplicateGroup implements Serializable {
+
+    private static final long serialVersionUID = -2907640735512370848L;
+
+    private final long mSize;
+    private final String mChecksum;
+    private final List<String> mFiles;
+
+    /**
+     * Constructor of <code>DuplicateGroup</code>.
+     *
+     * @param size The size of every file of the group
+     * @param checksum The checksum of the content of the files
+     * @param files The absolute paths of the files
+     */
+    public DuplicateGroup(long size, String checksum, List<String> files) {
+        super();
+        this.mSize = size;
+        this.mChecksum = checksum;
+        this.mFiles = new ArrayList<String>(files);
+        Collections.sort(this.mFiles);
+    }
+
+    /**
+     * Method that returns the size of every file of the group.
+     *
+     * @return long The size of every file of the group
+     */
+    public long getSize() {
+        return this.mSize;
+    }
+
+    /**
+     * Method that returns the checksum of the content of the files.
+     *
+     * @return String The checksum of the content of the files
+     */
+    public String getChecksum() {
+        return this.mChecksum;
+    }
+
+    /**
+     * Method that returns the absolute paths of the files, sorted by path.
+     *
+     * @return List<String> The absolute paths of the files
+     */
+    public List<String> getFiles() {
+        return Collections.unmodifiableList(this.mFiles);
+    }
+
+    /**
+     * Method that returns the space that could be reclaimed keeping only one of the files.
+     *
+     * @return long The wasted space, in bytes
+     */
+    public long getWastedSize() {
+        return this.mSize * (this.mFiles.size() - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "DuplicateGroup [size=" + this.mSize + //$NON-NLS-1$
+                ", checksum=" + this.mChecksum + //$NON-NLS-1$
+                ", files=" + this.mFiles + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
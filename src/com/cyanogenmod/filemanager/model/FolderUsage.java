@@ -27,13 +27,14 @@ import java.io.Serializable;
  */
 public class FolderUsage implements Serializable, Cloneable {
 
-    private static final long serialVersionUID = -8830510087518648692L;
+    private static final long serialVersionUID = -3154086372818524731L;
 
     private final String mFolder;
     private int mNumberOfFolders;
     private int mNumberOfFiles;
     private long mTotalSize;
     private SparseArray<Long> mStatistics;
+    private SparseArray<Long> mCategorySizes;
 
     /**
      * Constructor of <code>FolderUsage</code>.
@@ -52,9 +53,11 @@ public class FolderUsage implements Serializable, Cloneable {
         // Fill the array of statistics
         MimeTypeCategory[] categories = MimeTypeCategory.values();
         this.mStatistics = new SparseArray<Long>(categories.length-1);
+        this.mCategorySizes = new SparseArray<Long>(categories.length-1);
         int cc = categories.length;
         for (int i = 0; i < cc; i++) {
             this.mStatistics.put(categories[i].ordinal(), Long.valueOf(0));
+            this.mCategorySizes.put(categories[i].ordinal(), Long.valueOf(0));
         }
     }
 
@@ -92,6 +95,37 @@ public class FolderUsage implements Serializable, Cloneable {
         this.mStatistics.put(category.ordinal(), Long.valueOf(count));
     }
 
+    /**
+     * Method that adds to the size of the files of a category
+     *
+     * @param category The category
+     * @param size The size to add to the category
+     */
+    public void addSizeToCategory(MimeTypeCategory category, long size) {
+        long total = this.mCategorySizes.get(category.ordinal()).longValue();
+        total += size;
+        this.mCategorySizes.put(category.ordinal(), Long.valueOf(total));
+    }
+
+    /**
+     * Method that adds the counts, sizes and statistics of other folder usage to this one.
+     *
+     * @param other The folder usage to add
+     */
+    public void add(FolderUsage other) {
+        this.mNumberOfFolders += other.mNumberOfFolders;
+        this.mNumberOfFiles += other.mNumberOfFiles;
+        this.mTotalSize += other.mTotalSize;
+        int cc = this.mStatistics.size();
+        for (int i = 0; i < cc; i++) {
+            int key = this.mStatistics.keyAt(i);
+            this.mStatistics.put(key, Long.valueOf(this.mStatistics.valueAt(i).longValue()
+                    + other.mStatistics.get(key).longValue()));
+            this.mCategorySizes.put(key, Long.valueOf(this.mCategorySizes.get(key).longValue()
+                    + other.mCategorySizes.get(key).longValue()));
+        }
+    }
+
     /**
      * Method that returns the folder of which retrieve the usage.
      *
@@ -110,6 +144,15 @@ public class FolderUsage implements Serializable, Cloneable {
         return this.mNumberOfFolders;
     }
 
+    /**
+     * Method sets the total number of folders.
+     *
+     * @param numberOfFolders The total number of folders
+     */
+    public void setNumberOfFolders(int numberOfFolders) {
+        this.mNumberOfFolders = numberOfFolders;
+    }
+
     /**
      * Method that returns the total number of files.
      *
@@ -119,6 +162,15 @@ public class FolderUsage implements Serializable, Cloneable {
         return this.mNumberOfFiles;
     }
 
+    /**
+     * Method sets the total number of files.
+     *
+     * @param numberOfFiles The total number of files
+     */
+    public void setNumberOfFiles(int numberOfFiles) {
+        this.mNumberOfFiles = numberOfFiles;
+    }
+
     /**
      * Method that returns the total size.
      *
@@ -147,6 +199,28 @@ public class FolderUsage implements Serializable, Cloneable {
         return this.mStatistics.get(category.ordinal()).longValue();
     }
 
+    /**
+     * Method that returns the size of the files for a {@link MimeTypeCategory}.
+     *
+     * @param category The category
+     * @return long The size of the files of the category
+     */
+    public long getSizeForCategory(MimeTypeCategory category) {
+        return this.mCategorySizes.get(category.ordinal()).longValue();
+    }
+
+    /**
+     * Method that sets the number and the size of the files for a {@link MimeTypeCategory}.
+     *
+     * @param category The category
+     * @param count The number of files of the category
+     * @param size The size of the files of the category
+     */
+    public void setStatisticsForCategory(MimeTypeCategory category, long count, long size) {
+        this.mStatistics.put(category.ordinal(), Long.valueOf(count));
+        this.mCategorySizes.put(category.ordinal(), Long.valueOf(size));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -159,6 +233,8 @@ public class FolderUsage implements Serializable, Cloneable {
         result = prime * result + this.mNumberOfFolders;
         result = prime * result
                 + ((this.mStatistics == null) ? 0 : this.mStatistics.hashCode());
+        result = prime * result
+                + ((this.mCategorySizes == null) ? 0 : this.mCategorySizes.hashCode());
         result = prime * result + (int) (this.mTotalSize ^ (this.mTotalSize >>> 32));
         return result;
     }
@@ -189,6 +265,11 @@ public class FolderUsage implements Serializable, Cloneable {
                 return false;
         } else if (!this.mStatistics.equals(other.mStatistics))
             return false;
+        if (this.mCategorySizes == null) {
+            if (other.mCategorySizes != null)
+                return false;
+        } else if (!this.mCategorySizes.equals(other.mCategorySizes))
+            return false;
         if (this.mTotalSize != other.mTotalSize)
             return false;
         return true;
@@ -204,7 +285,8 @@ public class FolderUsage implements Serializable, Cloneable {
         other.mNumberOfFiles = this.mNumberOfFiles;
         other.mTotalSize = this.mTotalSize;
         other.mStatistics = this.mStatistics.clone();
-        return super.clone();
+        other.mCategorySizes = this.mCategorySizes.clone();
+        return other;
     }
 
     /**
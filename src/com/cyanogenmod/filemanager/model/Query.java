@@ -20,23 +20,56 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.TextUtils;
 
+import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
+
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * A class that restrict the number of queries that can
- * be made to the application search system.
+ * A class that holds the terms of a query made to the application search system.
+ * There is no limit in the number of terms (slots) of a query.<br/>
+ * <br/>
+ * A query also holds the constraints (size, modification time, type and
+ * mime/type category) that must be satisfied by the matched objects. This constraints
+ * are evaluated by the find walkers, so non-matching entries are discarded
+ * before been materialized.
  */
 public class Query implements Serializable, Parcelable {
 
-    private static final long serialVersionUID = 638590514968634860L;
+    private static final long serialVersionUID = 638590514968634862L;
 
-    //IMP! This need to be sync which the command_list.xml resource
-    //to have the same slots as the filled for the find command
-    private static final int SLOTS_COUNT = 5;
+    /**
+     * An enumeration of the type of objects that the query can match.
+     */
+    public enum ObjectType {
+        /**
+         * Match any object (files, directories, ...)
+         */
+        ALL,
+        /**
+         * Match only non-directory objects
+         */
+        FILES_ONLY,
+        /**
+         * Match only directories
+         */
+        DIRECTORIES_ONLY
+    }
 
-    private final String[] mQUERIES = new String[SLOTS_COUNT];
+    /**
+     * Value that indicates that a numeric constraint is not defined.
+     */
+    public static final long NO_LIMIT = -1;
+
+    private final ArrayList<String> mQueries = new ArrayList<String>();
+
+    private long mMinSize = NO_LIMIT;
+    private long mMaxSize = NO_LIMIT;
+    private long mMinLastModified = NO_LIMIT;
+    private long mMaxLastModified = NO_LIMIT;
+    private ObjectType mObjectType = ObjectType.ALL;
+    private MimeTypeCategory mMimeTypeCategory;
 
     /**
      * Constructor of <code>Query</code>.
@@ -61,18 +94,24 @@ public class Query implements Serializable, Parcelable {
      * @return String The text of the query at the slot
      */
     public String getSlot(int slot) {
-        return this.mQUERIES[slot];
+        if (slot >= this.mQueries.size()) {
+            return null;
+        }
+        return this.mQueries.get(slot);
     }
 
     /**
-     * Method that sets the value of an slot.
+     * Method that sets the value of an slot. The number of slots grows as needed.
      *
      * @param query The text of the query at the slot
      * @param slot The slot number
      * @return Query The query reference
      */
     public Query setSlot(String query, int slot) {
-        this.mQUERIES[slot] = query;
+        while (slot >= this.mQueries.size()) {
+            this.mQueries.add(null);
+        }
+        this.mQueries.set(slot, query);
         return this;
     }
 
@@ -82,11 +121,11 @@ public class Query implements Serializable, Parcelable {
      * @return int The number of slots
      */
     public int getSlotsCount() {
-        return this.mQUERIES.length;
+        return this.mQueries.size();
     }
 
     /**
-     * Method that fill all the available slots (filled from the minimum
+     * Method that fill the slots with the queries (filled from the minimum
      * to the maximum slot).
      *
      * @param queries The queries which fill the slots
@@ -95,10 +134,7 @@ public class Query implements Serializable, Parcelable {
     public Query fillSlots(List<String> queries) {
         int cc = queries.size();
         for (int i = 0; i < cc; i++) {
-            if (i > this.mQUERIES.length) {
-                break;
-            }
-            this.mQUERIES[i] = queries.get(i);
+            setSlot(queries.get(i), i);
         }
         return this;
     }
@@ -110,10 +146,11 @@ public class Query implements Serializable, Parcelable {
      */
     public List<String> getQueries() {
         List<String> queries = new ArrayList<String>(getSlotsCount());
-        int cc = this.mQUERIES.length;
+        int cc = this.mQueries.size();
         for (int i = 0; i < cc; i++) {
-            if (this.mQUERIES[i] != null && this.mQUERIES[i].length() > 0) {
-                queries.add(this.mQUERIES[i]);
+            String query = this.mQueries.get(i);
+            if (query != null && query.length() > 0) {
+                queries.add(query);
             }
         }
         return queries;
@@ -132,6 +169,125 @@ public class Query implements Serializable, Parcelable {
         return terms;
     }
 
+    /**
+     * Method that returns the minimum size (inclusive) of the matched objects.
+     *
+     * @return long The minimum size in bytes, or {@link #NO_LIMIT}
+     */
+    public long getMinSize() {
+        return this.mMinSize;
+    }
+
+    /**
+     * Method that returns the maximum size (inclusive) of the matched objects.
+     *
+     * @return long The maximum size in bytes, or {@link #NO_LIMIT}
+     */
+    public long getMaxSize() {
+        return this.mMaxSize;
+    }
+
+    /**
+     * Method that sets the size range (inclusive) of the matched objects.
+     *
+     * @param minSize The minimum size in bytes, or {@link #NO_LIMIT}
+     * @param maxSize The maximum size in bytes, or {@link #NO_LIMIT}
+     * @return Query The query reference
+     */
+    public Query setSizeRange(long minSize, long maxSize) {
+        this.mMinSize = minSize < 0 ? NO_LIMIT : minSize;
+        this.mMaxSize = maxSize < 0 ? NO_LIMIT : maxSize;
+        return this;
+    }
+
+    /**
+     * Method that returns the minimum last modification time (inclusive) of
+     * the matched objects.
+     *
+     * @return long The time in milliseconds since epoch, or {@link #NO_LIMIT}
+     */
+    public long getMinLastModified() {
+        return this.mMinLastModified;
+    }
+
+    /**
+     * Method that returns the maximum last modification time (inclusive) of
+     * the matched objects.
+     *
+     * @return long The time in milliseconds since epoch, or {@link #NO_LIMIT}
+     */
+    public long getMaxLastModified() {
+        return this.mMaxLastModified;
+    }
+
+    /**
+     * Method that sets the last modification time range (inclusive) of the matched objects.
+     *
+     * @param minLastModified The minimum time in milliseconds since epoch,
+     * or {@link #NO_LIMIT}
+     * @param maxLastModified The maximum time in milliseconds since epoch,
+     * or {@link #NO_LIMIT}
+     * @return Query The query reference
+     */
+    public Query setLastModifiedRange(long minLastModified, long maxLastModified) {
+        this.mMinLastModified = minLastModified < 0 ? NO_LIMIT : minLastModified;
+        this.mMaxLastModified = maxLastModified < 0 ? NO_LIMIT : maxLastModified;
+        return this;
+    }
+
+    /**
+     * Method that returns the type of objects matched by the query.
+     *
+     * @return ObjectType The type of objects
+     */
+    public ObjectType getObjectType() {
+        return this.mObjectType;
+    }
+
+    /**
+     * Method that sets the type of objects matched by the query.
+     *
+     * @param objectType The type of objects
+     * @return Query The query reference
+     */
+    public Query setObjectType(ObjectType objectType) {
+        this.mObjectType = objectType == null ? ObjectType.ALL : objectType;
+        return this;
+    }
+
+    /**
+     * Method that returns the mime/type category of the matched objects.
+     *
+     * @return MimeTypeCategory The mime/type category, or null if the query
+     * is not restricted by category
+     */
+    public MimeTypeCategory getMimeTypeCategory() {
+        return this.mMimeTypeCategory;
+    }
+
+    /**
+     * Method that sets the mime/type category of the matched objects.
+     *
+     * @param category The mime/type category, or null to match any category
+     * @return Query The query reference
+     */
+    public Query setMimeTypeCategory(MimeTypeCategory category) {
+        this.mMimeTypeCategory = category;
+        return this;
+    }
+
+    /**
+     * Method that returns if the query has any constraint apart of the terms.
+     *
+     * @return boolean If the query has any constraint
+     */
+    public boolean hasConstraints() {
+        return this.mMinSize != NO_LIMIT || this.mMaxSize != NO_LIMIT ||
+                this.mMinLastModified != NO_LIMIT || this.mMaxLastModified != NO_LIMIT ||
+                this.mObjectType.compareTo(ObjectType.ALL) != 0 ||
+                this.mMimeTypeCategory != null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -145,11 +301,18 @@ public class Query implements Serializable, Parcelable {
      */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        int cc = this.mQUERIES.length;
+        int cc = this.mQueries.size();
         dest.writeInt(cc);
         for (int i = 0; i < cc; i++) {
-            dest.writeString(mQUERIES[i] != null ? mQUERIES[i] : "");
+            String query = this.mQueries.get(i);
+            dest.writeString(query != null ? query : "");
         }
+        dest.writeLong(mMinSize);
+        dest.writeLong(mMaxSize);
+        dest.writeLong(mMinLastModified);
+        dest.writeLong(mMaxLastModified);
+        dest.writeInt(mObjectType.ordinal());
+        dest.writeInt(mMimeTypeCategory != null ? mMimeTypeCategory.ordinal() : -1);
     }
 
     /**
@@ -158,17 +321,18 @@ public class Query implements Serializable, Parcelable {
      * @param in The parcel information to recreate the object
      */
     private void readFromParcel(Parcel in) {
-        int len = mQUERIES.length;
         int cc = in.readInt();
         for (int i = 0; i < cc; i++) {
             String query = in.readString();
-            if (i >= len) {
-                continue;
-            }
-            if (!TextUtils.isEmpty(query)) {
-                mQUERIES[i] = query;
-            }
+            mQueries.add(!TextUtils.isEmpty(query) ? query : null);
         }
+        mMinSize = in.readLong();
+        mMaxSize = in.readLong();
+        mMinLastModified = in.readLong();
+        mMaxLastModified = in.readLong();
+        mObjectType = ObjectType.values()[in.readInt()];
+        int category = in.readInt();
+        mMimeTypeCategory = category != -1 ? MimeTypeCategory.values()[category] : null;
     }
 
     /**
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.model;
+
+/**
+ * A class that holds the progress of a copy or move operation.
+ */
+public class TransferProgress extends ByteProgress {
+
+    private static final long serialVersionUID = -1962378127310367462L;
+
+    private final String mCurrentFile;
+    private final long mBytesPerSecond;
+
+    /**
+     * Constructor of <code>TransferProgress</code>.
+     *
+     * @param bytes The bytes transferred
+     * @param totalBytes The total bytes to transfer, or <code>-1</code> if unknown
+     * @param currentFile The file being transferred
+     * @param bytesPerSecond The current throughput, or <code>0</code> if unknown
+     */
+    public TransferProgress(
+            long bytes, long totalBytes, String currentFile, long bytesPerSecond) {
+        super(bytes, totalBytes);
+        this.mCurrentFile = currentFile;
+        this.mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Method that returns the file being transferred.
+     *
+     * @return String The file being transferred
+     */
+    public String getCurrentFile() {
+        return this.mCurrentFile;
+    }
+
+    /**
+     * Method that returns the current throughput.
+     *
+     * @return long The bytes transferred per second, or <code>0</code> if unknown
+     */
+    public long getBytesPerSecond() {
+        return this.mBytesPerSecond;
+    }
+
+    /**
+     * Method that returns the estimated time to complete the transfer.
+     *
+     * @return long The remaining seconds, or <code>-1</code> if unknown
+     */
+    public long getRemainingTime() {
+        if (getTotalBytes() <= 0 || this.mBytesPerSecond <= 0) {
+            return -1;
+        }
+        long remaining = Math.max(0, getTotalBytes() - getBytes());
+        return (remaining + this.mBytesPerSecond - 1) / this.mBytesPerSecond;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "TransferProgress [bytes=" + getBytes() + //$NON-NLS-1$
+                ", totalBytes=" + getTotalBytes() + //$NON-NLS-1$
+                ", currentFile=" + this.mCurrentFile + //$NON-NLS-1$
+                ", bytesPerSecond=" + this.mBytesPerSecond + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
@@ -136,6 +136,11 @@ public enum FileManagerSettings {
     SETTINGS_SORT_SEARCH_RESULTS_MODE(
             "cm_filemanager_sort_search_results_mode", //$NON-NLS-1$
             SearchSortResultMode.RELEVANCE),
+    /**
+     * When to keep in memory only the best results of a search
+     * @hide
+     */
+    SETTINGS_LIMIT_SEARCH_RESULTS("cm_filemanager_limit_search_results", Boolean.TRUE), //$NON-NLS-1$
     /**
      * When to save the search terms
      * @hide
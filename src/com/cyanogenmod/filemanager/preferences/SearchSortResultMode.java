@@ -32,7 +32,15 @@ public enum SearchSortResultMode implements ObjectStringIdentifier {
     /**
      * Sort results by relevance
      */
-    RELEVANCE("2"); //$NON-NLS-1$
+    RELEVANCE("2"), //$NON-NLS-1$
+    /**
+     * Sort results by modification date (newest first)
+     */
+    NEWEST("3"), //$NON-NLS-1$
+    /**
+     * Sort results by size (largest first)
+     */
+    LARGEST("4"); //$NON-NLS-1$
 
     private String mId;
 
@@ -17,9 +17,12 @@
 package com.cyanogenmod.filemanager.providers;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -29,6 +32,9 @@ import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.util.ArrayList;
+
 import static android.content.UriMatcher.NO_MATCH;
 
 /**
@@ -36,6 +42,9 @@ import static android.content.UriMatcher.NO_MATCH;
  * <pre>
  *     Provider for handling access of mime type indexes
  * </pre>
+ * The index holds one row per directory (its modification time and subdirectories) and one
+ * rollup row per directory and category (the size of the files directly contained in the
+ * directory). The usage of any subtree is the sum of the rollups of the directories under it.
  *
  * @see {@link android.content.ContentProvider}
  */
@@ -43,26 +52,48 @@ public class MimeTypeIndexProvider extends ContentProvider {
 
     // Constants
     private static final String TAG = MimeTypeIndexProvider.class.getSimpleName();
-    private static final String AUTHORITY = "com.cyanogenmod.filemanager.providers.index";
-    private static final int ID_INDEX = 1;
-    private static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY +
-            DatabaseHelper.INDEX_TABLE);
+    public static final String AUTHORITY = "com.cyanogenmod.filemanager.providers.index";
+    private static final int ID_DIRECTORIES = 1;
+    private static final int ID_ROLLUPS = 2;
+    private static final int ID_USAGE = 3;
+    private static final String USAGE_PATH = "usage";
 
     private static final UriMatcher sUriMatcher = new UriMatcher(NO_MATCH);
     public static final String COLUMN_FILE_ROOT = "file_root";
     public static final String COLUMN_CATEGORY = "category";
     public static final String COLUMN_SIZE = "size";
+    public static final String COLUMN_PATH = "path";
+    public static final String COLUMN_LAST_MODIFIED = "last_modified";
+    public static final String COLUMN_CHILDREN = "children";
 
-    public static Uri getContentUri() {
+    /**
+     * The separator of the names of the subdirectories (a name can't contain it)
+     */
+    public static final String CHILDREN_SEPARATOR = File.separator;
+
+    public static Uri getDirectoriesUri() {
         return new Uri.Builder().scheme("content").authority(AUTHORITY).path
-                (DatabaseHelper.INDEX_TABLE).build();
+                (DatabaseHelper.DIRECTORY_TABLE).build();
+    }
+
+    public static Uri getRollupsUri() {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).path
+                (DatabaseHelper.ROLLUP_TABLE).build();
+    }
+
+    public static Uri getUsageUri() {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).path
+                (USAGE_PATH).build();
     }
 
     static {
-        sUriMatcher.addURI(AUTHORITY, DatabaseHelper.INDEX_TABLE, ID_INDEX);
+        sUriMatcher.addURI(AUTHORITY, DatabaseHelper.DIRECTORY_TABLE, ID_DIRECTORIES);
+        sUriMatcher.addURI(AUTHORITY, DatabaseHelper.ROLLUP_TABLE, ID_ROLLUPS);
+        sUriMatcher.addURI(AUTHORITY, USAGE_PATH, ID_USAGE);
     }
 
     private SQLiteDatabase mSQLiteDatabase;
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
 
     @Override
     public boolean onCreate() {
@@ -74,16 +105,26 @@ public class MimeTypeIndexProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String sortOrder) {
-        String tableName = null;
+        Cursor cursor = null;
         switch (sUriMatcher.match(uri)) {
-            case ID_INDEX:
-                tableName = DatabaseHelper.INDEX_TABLE;
+            case ID_DIRECTORIES:
+            case ID_ROLLUPS:
+                cursor = mSQLiteDatabase.query(getTableName(uri), projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            case ID_USAGE:
+                // The first selection argument is the root of the subtree
+                if (selectionArgs == null || selectionArgs.length < 1) {
+                    throw new IllegalArgumentException("The root of the subtree is required!");
+                }
+                String root = selectionArgs[0];
+                String[] range = getSubtreeRange(root);
+                cursor = mSQLiteDatabase.rawQuery(DatabaseHelper.SUBTREE_USAGE_QUERY,
+                        new String[] { root, root, range[0], range[1] });
                 break;
             default:
                 throw new RuntimeException("URI not supported!");
         }
-
-        Cursor cursor = mSQLiteDatabase.query(tableName, projection, selection, selectionArgs, null, null, sortOrder);
         if (cursor != null) {
             cursor.setNotificationUri(getContext().getContentResolver(), uri);
         }
@@ -97,18 +138,13 @@ public class MimeTypeIndexProvider extends ContentProvider {
 
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
-        String tableName = null;
-        switch (sUriMatcher.match(uri)) {
-            case ID_INDEX:
-                tableName = DatabaseHelper.INDEX_TABLE;
-                break;
-            default:
-                throw new RuntimeException("URI not supported!");
-        }
-        long rowId = mSQLiteDatabase.insert(tableName, null, contentValues);
+        String tableName = getTableName(uri);
+        // A directory is replaced when is indexed again
+        long rowId = mSQLiteDatabase.insertWithOnConflict(tableName, null, contentValues,
+                SQLiteDatabase.CONFLICT_REPLACE);
         if (rowId > 0) {
-            Uri newUri = ContentUris.withAppendedId(CONTENT_URI, rowId);
-            getContext().getContentResolver().notifyChange(newUri, null);
+            Uri newUri = ContentUris.withAppendedId(uri, rowId);
+            notifyChange(newUri);
             return newUri;
         }
         throw new SQLException("Failed to add new record");
@@ -116,16 +152,9 @@ public class MimeTypeIndexProvider extends ContentProvider {
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        String tableName = null;
-        switch (sUriMatcher.match(uri)) {
-            case ID_INDEX:
-                tableName = DatabaseHelper.INDEX_TABLE;
-                break;
-            default:
-                throw new RuntimeException("URI not supported!");
-        }
+        String tableName = getTableName(uri);
         int count = mSQLiteDatabase.delete(tableName, selection, selectionArgs);
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return count;
     }
 
@@ -135,20 +164,112 @@ public class MimeTypeIndexProvider extends ContentProvider {
         throw new RuntimeException("MimeTypeIndexProvider::update(): Not implemented!");
     }
 
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // All the operations are applied in one transaction and notified once
+        mApplyingBatch.set(Boolean.TRUE);
+        mSQLiteDatabase.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            mSQLiteDatabase.setTransactionSuccessful();
+            return results;
+        } finally {
+            mSQLiteDatabase.endTransaction();
+            mApplyingBatch.remove();
+            notifyChange(getUsageUri());
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        if (mApplyingBatch.get() == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private static String getTableName(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case ID_DIRECTORIES:
+                return DatabaseHelper.DIRECTORY_TABLE;
+            case ID_ROLLUPS:
+                return DatabaseHelper.ROLLUP_TABLE;
+            default:
+                throw new RuntimeException("URI not supported!");
+        }
+    }
+
+    /**
+     * Get the bounds of the paths under a directory. Every descendant of the directory
+     * sorts between both bounds, so the path index can be used to find them.
+     *
+     * @param root {@link java.lang.String} The root of the subtree
+     *
+     * @return {@link java.lang.String}[] The lower (inclusive) and upper (exclusive) bounds
+     */
+    private static String[] getSubtreeRange(String root) {
+        String prefix = root.endsWith(File.separator) ? root : root + File.separator;
+        String upper = prefix.substring(0, prefix.length() - 1) +
+                (char) (File.separatorChar + 1);
+        return new String[] { prefix, upper };
+    }
+
+    /**
+     * Get the selection of a directory and all its descendants
+     *
+     * @return {@link java.lang.String} The selection
+     *
+     * @see #getSubtreeSelectionArgs(String)
+     */
+    public static String getSubtreeSelection() {
+        return COLUMN_PATH + " = ? OR (" + COLUMN_PATH + " >= ? AND " + COLUMN_PATH + " < ?)";
+    }
+
+    /**
+     * Get the arguments of the subtree selection
+     *
+     * @param root {@link java.lang.String} The root of the subtree
+     *
+     * @return {@link java.lang.String}[] The selection arguments
+     *
+     * @see #getSubtreeSelection()
+     */
+    public static String[] getSubtreeSelectionArgs(String root) {
+        String[] range = getSubtreeRange(root);
+        return new String[] { root, range[0], range[1] };
+    }
+
     private static class DatabaseHelper extends SQLiteOpenHelper {
 
         // Constants
-        static final int DATABASE_VERSION = 1;
+        static final int DATABASE_VERSION = 2;
         static final String DATABASE_NAME = "mime_type_index";
-        static final String INDEX_TABLE = "type_index";
-        static final String CREATE_INDEX_TABLE = "CREATE TABLE IF NOT EXISTS " +
-                INDEX_TABLE +
+        static final String LEGACY_INDEX_TABLE = "type_index";
+        static final String DIRECTORY_TABLE = "directory_index";
+        static final String ROLLUP_TABLE = "rollup_index";
+        static final String CREATE_DIRECTORY_TABLE = "CREATE TABLE IF NOT EXISTS " +
+                DIRECTORY_TABLE +
+                " ( " +
+                "`" + COLUMN_PATH + "` TEXT PRIMARY KEY, " +
+                "`" + COLUMN_LAST_MODIFIED + "` INTEGER, " +
+                "`" + COLUMN_CHILDREN + "` TEXT " +
+                ")";
+        static final String CREATE_ROLLUP_TABLE = "CREATE TABLE IF NOT EXISTS " +
+                ROLLUP_TABLE +
                 " ( " +
                 "`_id` INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                "`" + COLUMN_FILE_ROOT + "` TEXT, " +
+                "`" + COLUMN_PATH + "` TEXT, " +
                 "`" + COLUMN_CATEGORY + "` TEXT, " +
                 "`" + COLUMN_SIZE + "` INTEGER " +
                 ")";
+        static final String CREATE_ROLLUP_PATH_INDEX = "CREATE INDEX IF NOT EXISTS " +
+                ROLLUP_TABLE + "_" + COLUMN_PATH + " ON " + ROLLUP_TABLE +
+                " (`" + COLUMN_PATH + "`)";
+        static final String SUBTREE_USAGE_QUERY = "SELECT ? AS " + COLUMN_FILE_ROOT + ", " +
+                COLUMN_CATEGORY + ", SUM(" + COLUMN_SIZE + ") AS " + COLUMN_SIZE +
+                " FROM " + ROLLUP_TABLE +
+                " WHERE " + COLUMN_PATH + " = ? OR (" + COLUMN_PATH + " >= ? AND " +
+                COLUMN_PATH + " < ?)" +
+                " GROUP BY " + COLUMN_CATEGORY;
 
         /**
          * Constructor
@@ -161,12 +282,16 @@ public class MimeTypeIndexProvider extends ContentProvider {
 
         @Override
         public void onCreate(SQLiteDatabase sqLiteDatabase) {
-            sqLiteDatabase.execSQL(CREATE_INDEX_TABLE);
+            sqLiteDatabase.execSQL(CREATE_DIRECTORY_TABLE);
+            sqLiteDatabase.execSQL(CREATE_ROLLUP_TABLE);
+            sqLiteDatabase.execSQL(CREATE_ROLLUP_PATH_INDEX);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + INDEX_TABLE);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LEGACY_INDEX_TABLE);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DIRECTORY_TABLE);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ROLLUP_TABLE);
             onCreate(sqLiteDatabase);
         }
     }
@@ -183,16 +308,31 @@ public class MimeTypeIndexProvider extends ContentProvider {
      */
     public static Cursor getMountPointUsage(Context context, String fileRoot) throws
             IllegalArgumentException {
+        return getSubtreeUsage(context, fileRoot);
+    }
+
+    /**
+     * Get the usage data of any indexed directory and its descendants via sql cursor,
+     * in one query over the rollups
+     *
+     * @param context  {@link android.content.Context} not null
+     * @param path {@link java.lang.String} not null or empty
+     *
+     * @return {@link android.database.Cursor} with the file root, category and size columns
+     *
+     * @throws IllegalArgumentException {@link java.lang.IllegalArgumentException}
+     */
+    public static Cursor getSubtreeUsage(Context context, String path) throws
+            IllegalArgumentException {
         if (context == null) {
             throw new IllegalArgumentException("'context' cannot be null!");
         }
-        if (TextUtils.isEmpty(fileRoot)) {
-            throw new IllegalArgumentException("'fileRoot' cannot be null or empty!");
+        if (TextUtils.isEmpty(path)) {
+            throw new IllegalArgumentException("'path' cannot be null or empty!");
         }
-        String selection = COLUMN_FILE_ROOT + " = ?";
-        String[] selectionArgs = new String[] { fileRoot };
-        return context.getContentResolver().query(MimeTypeIndexProvider.getContentUri(),
-                null, selection, selectionArgs, null);
+        String[] selectionArgs = new String[] { path };
+        return context.getContentResolver().query(MimeTypeIndexProvider.getUsageUri(),
+                null, null, selectionArgs, null);
     }
 
     /**
@@ -213,9 +353,10 @@ public class MimeTypeIndexProvider extends ContentProvider {
         if (TextUtils.isEmpty(fileRoot)) {
             throw new IllegalArgumentException("'fileRoot' cannot be null or empty!");
         }
-                String selection = COLUMN_FILE_ROOT + " = ?";
-        String[] selectionArgs = new String[] { fileRoot };
-        return context.getContentResolver().delete(MimeTypeIndexProvider.getContentUri(), selection, selectionArgs);
+        String selection = getSubtreeSelection();
+        String[] selectionArgs = getSubtreeSelectionArgs(fileRoot);
+        context.getContentResolver().delete(getDirectoriesUri(), selection, selectionArgs);
+        return context.getContentResolver().delete(getRollupsUri(), selection, selectionArgs);
     }
 
 }
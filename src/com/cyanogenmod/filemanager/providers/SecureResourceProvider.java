@@ -25,6 +25,7 @@ import android.os.Binder;
 import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.Handler;
+import android.os.MemoryFile;
 import android.os.Message;
 import android.os.Handler.Callback;
 import android.os.ParcelFileDescriptor;
@@ -32,6 +33,10 @@ import android.provider.OpenableColumns;
 import android.util.Log;
 
 import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.console.VirtualMountPointConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureConsole;
+import com.cyanogenmod.filemanager.console.secure.SecureRandomReader;
+import com.cyanogenmod.filemanager.console.secure.SecureStorage;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.model.RegularFile;
 import com.cyanogenmod.filemanager.util.CommandHelper;
@@ -49,6 +54,11 @@ import java.util.concurrent.Executors;
 
 /**
  * A {@link ContentProvider} to allow access secure filesystems.
+ * <br/>
+ * Files are read from the storage through a {@link SecureRandomReader}, which only decrypts
+ * the chunks that are read. Files up to {@link #MAX_SEEKABLE_SIZE} bytes are served as a
+ * seekable shared memory descriptor (video players and document viewers need to seek), and
+ * bigger files are streamed through a pipe.
  */
 public final class SecureResourceProvider extends ContentProvider {
 
@@ -196,6 +206,12 @@ public final class SecureResourceProvider extends ContentProvider {
 
     private final ExecutorService mExecutorService = Executors.newFixedThreadPool(1);
 
+    /**
+     * The maximum size of the files served as a seekable descriptor. The whole file is
+     * held in shared memory while the descriptor is open.
+     */
+    public static final int MAX_SEEKABLE_SIZE = 32 * 1024 * 1024;
+
     /**
      * This method creates an authorization uri for a file, but this not grants
      * access to this file. Callers must explicitly call to grantAuthorization in
@@ -369,6 +385,22 @@ public final class SecureResourceProvider extends ContentProvider {
             throw new SecurityException("Authorization denied. Package mismatch");
         }
 
+        // Read the file straight from the storage if it's mounted
+        String path = authResource.mFile.getFullPath();
+        VirtualMountPointConsole vc = VirtualMountPointConsole.getVirtualConsoleForPath(path);
+        if (vc instanceof SecureConsole && vc.isMounted()) {
+            try {
+                SecureRandomReader reader = ((SecureConsole) vc).openRandomReader(path);
+                if (reader.length() > 0 && reader.length() <= MAX_SEEKABLE_SIZE) {
+                    return openSeekableFile(reader, authResource.mFile.getName(), signal);
+                }
+                return openPipe(reader, signal);
+            } catch (IOException ex) {
+                Log.w(TAG, "Failed to read the secure storage. ", ex);
+                return null;
+            }
+        }
+
         // Open a pipe between the package and this provider
         try {
             final ParcelFileDescriptor[] fds = ParcelFileDescriptor.createReliablePipe();
@@ -392,6 +424,80 @@ public final class SecureResourceProvider extends ContentProvider {
         return null;
     }
 
+    /**
+     * Method that copies a file to shared memory and returns a seekable descriptor of it.
+     * The memory is released when the consumer closes the descriptor.
+     *
+     * @param reader The reader of the file
+     * @param name The name of the file
+     * @param signal The cancellation signal
+     * @return ParcelFileDescriptor The descriptor of the file
+     * @throws IOException If the file can't be read
+     */
+    private static ParcelFileDescriptor openSeekableFile(SecureRandomReader reader,
+            String name, CancellationSignal signal) throws IOException {
+        MemoryFile memory = new MemoryFile(name, (int) reader.length());
+        try {
+            byte[] buffer = new byte[SecureStorage.CHUNK_SIZE];
+            long pos = 0;
+            int read;
+            while ((read = reader.read(pos, buffer, 0, buffer.length)) > 0) {
+                if (signal != null) {
+                    signal.throwIfCanceled();
+                }
+                memory.writeBytes(buffer, 0, (int) pos, read);
+                pos += read;
+            }
+            return ParcelFileDescriptor.dup(memory.getFileDescriptor());
+        } finally {
+            memory.close();
+            reader.close();
+        }
+    }
+
+    /**
+     * Method that streams a file through a pipe
+     *
+     * @param reader The reader of the file
+     * @param signal The cancellation signal
+     * @return ParcelFileDescriptor The read side of the pipe
+     * @throws IOException If the pipe can't be created
+     */
+    private ParcelFileDescriptor openPipe(final SecureRandomReader reader,
+            final CancellationSignal signal) throws IOException {
+        final ParcelFileDescriptor[] fds = ParcelFileDescriptor.createReliablePipe();
+        mExecutorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(fds[1]);
+                try {
+                    // The reader decrypts the next chunks while the pipe is written
+                    byte[] buffer = new byte[SecureStorage.CHUNK_SIZE];
+                    long pos = 0;
+                    int read;
+                    while ((read = reader.read(pos, buffer, 0, buffer.length)) > 0) {
+                        if (signal != null && signal.isCanceled()) {
+                            break;
+                        }
+                        out.write(buffer, 0, read);
+                        pos += read;
+                    }
+                    out.close();
+                } catch (IOException ex) {
+                    Log.w(TAG, "Failure writing pipe. ", ex);
+                    try {
+                        fds[1].closeWithError("Failure reading data: " + ex.getMessage());
+                    } catch (IOException ex2) {
+                        // Ignore
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        });
+        return fds[0];
+    }
+
     /**
      * Method that returns an authorization for the passed Uri.
      *
@@ -17,9 +17,10 @@
 package com.cyanogenmod.filemanager.service;
 
 import android.app.IntentService;
-import android.content.ContentValues;
+import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.text.TextUtils;
 import android.util.Log;
 import com.cyanogenmod.filemanager.providers.MimeTypeIndexProvider;
@@ -27,9 +28,14 @@ import com.cyanogenmod.filemanager.util.MimeTypeHelper;
 import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
 
 import java.io.File;
-import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * MimeTypeIndexService
@@ -46,6 +52,8 @@ public class MimeTypeIndexService extends IntentService {
     public static final String ACTION_START_INDEX = "com.cyanogenmod.filemanager" +
             ".ACTION_START_INDEX";
     public static final String EXTRA_FILE_ROOT = "extra_file_root";
+    private static final int MIN_THREADS = 2;
+    private static final int MAX_THREADS = 4;
 
     /**
      * Constructor
@@ -86,64 +94,240 @@ public class MimeTypeIndexService extends IntentService {
         Log.i(TAG, "Starting mime type usage indexing on '" + fileRoot + "'");
         fileRoot = fileRoot.trim();
         File rootFile = new File(fileRoot);
-        Map<MimeTypeCategory, Long> spaceCalculationMap =
-                new HashMap<MimeTypeCategory, Long>();
-        calculateUsageByType(rootFile, spaceCalculationMap);
-        ContentValues[] valuesList = new ContentValues[spaceCalculationMap.keySet().size()];
-        int i = 0;
-        for (MimeTypeCategory category : spaceCalculationMap.keySet()) {
-            Log.d(TAG, "" + category + " = " + spaceCalculationMap.get(category));
-            ContentValues values = new ContentValues();
-            values.put(MimeTypeIndexProvider.COLUMN_FILE_ROOT, fileRoot);
-            values.put(MimeTypeIndexProvider.COLUMN_CATEGORY, category.name());
-            values.put(MimeTypeIndexProvider.COLUMN_SIZE, spaceCalculationMap.get(category));
-            valuesList[i] = values;
-            i++;
-        }
-        MimeTypeIndexProvider.clearMountPointUsages(this, fileRoot); // Clear old data
-        getContentResolver().bulkInsert(MimeTypeIndexProvider.getContentUri(), valuesList);
+
+        // Ensure the mime types are loaded before the walk
+        MimeTypeHelper.getCategoryFromExt(this, null);
+
+        Map<String, IndexedDirectory> indexed = loadIndexedDirectories(fileRoot);
+        IndexWalker walker = new IndexWalker(indexed);
+        walker.walk(rootFile);
+        ArrayList<ContentProviderOperation> operations = walker.getOperations();
+        Log.d(TAG, walker.getChanged() + " directories changed under '" + fileRoot + "'");
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            getContentResolver().applyBatch(MimeTypeIndexProvider.AUTHORITY, operations);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to update the index of '" + fileRoot + "'", e);
+        }
     }
 
-    private class FileOnlyFileFilter implements FileFilter {
-        @Override
-        public boolean accept(File file) {
-            return file != null && !file.isDirectory() && file.isFile();
+    /**
+     * Load the state of the indexed directories under the file root
+     *
+     * @param fileRoot {@link java.lang.String}
+     *
+     * @return {@link java.util.Map} The indexed directories by path
+     */
+    private Map<String, IndexedDirectory> loadIndexedDirectories(String fileRoot) {
+        Map<String, IndexedDirectory> indexed = new HashMap<String, IndexedDirectory>();
+        Cursor cursor = null;
+        try {
+            cursor = getContentResolver().query(MimeTypeIndexProvider.getDirectoriesUri(),
+                    new String[] {
+                            MimeTypeIndexProvider.COLUMN_PATH,
+                            MimeTypeIndexProvider.COLUMN_LAST_MODIFIED,
+                            MimeTypeIndexProvider.COLUMN_CHILDREN },
+                    MimeTypeIndexProvider.getSubtreeSelection(),
+                    MimeTypeIndexProvider.getSubtreeSelectionArgs(fileRoot), null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    String children = cursor.getString(2);
+                    IndexedDirectory dir = new IndexedDirectory(cursor.getLong(1),
+                            TextUtils.isEmpty(children) ? new String[0] :
+                                    children.split(MimeTypeIndexProvider.CHILDREN_SEPARATOR));
+                    indexed.put(cursor.getString(0), dir);
+                }
+            }
+        } catch (Exception e) {
+            // Index everything again
+            Log.w(TAG, "Failed to load the index of '" + fileRoot + "'", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
+        return indexed;
     }
 
-    private class DirectoryOnlyFileFilter implements FileFilter {
-        @Override
-        public boolean accept(File file) {
-            return file != null && file.isDirectory();
+    /**
+     * The indexed state of a directory
+     */
+    private static class IndexedDirectory {
+        final long mLastModified;
+        final String[] mChildren;
+
+        IndexedDirectory(long lastModified, String[] children) {
+            mLastModified = lastModified;
+            mChildren = children;
         }
     }
 
-    private void calculateUsageByType(File root, Map<MimeTypeCategory, Long> groupUsageMap) {
-        File[] dirs = root.listFiles(new DirectoryOnlyFileFilter());
-        File[] files = root.listFiles(new FileOnlyFileFilter());
-        if (dirs != null) {
-            // Recurse directories
-            for (File dir : dirs) {
-                long size = dir.length();
-                if (!groupUsageMap.containsKey(MimeTypeCategory.NONE)) {
-                    groupUsageMap.put(MimeTypeCategory.NONE, size);
-                } else {
-                    long newSum = groupUsageMap.get(MimeTypeCategory.NONE) + size;
-                    groupUsageMap.put(MimeTypeCategory.NONE, newSum);
+    /**
+     * Walks a tree in parallel and collects the operations that bring the index up to date.
+     * Only the directories whose modification time changed are listed (once); the rest
+     * reuse the indexed subdirectories.
+     */
+    private class IndexWalker {
+        private final Map<String, IndexedDirectory> mIndexed;
+        private final ArrayList<ContentProviderOperation> mOperations =
+                new ArrayList<ContentProviderOperation>();
+        private final Object mPendingSync = new Object();
+        private ExecutorService mExecutor;
+        private int mPending;
+        private int mChanged;
+
+        IndexWalker(Map<String, IndexedDirectory> indexed) {
+            mIndexed = indexed;
+        }
+
+        ArrayList<ContentProviderOperation> getOperations() {
+            return mOperations;
+        }
+
+        int getChanged() {
+            return mChanged;
+        }
+
+        void walk(File root) {
+            int threads = Math.max(MIN_THREADS,
+                    Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            mExecutor = Executors.newFixedThreadPool(threads);
+            try {
+                submit(root);
+                synchronized (mPendingSync) {
+                    while (mPending > 0) {
+                        try {
+                            mPendingSync.wait();
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                mExecutor.shutdownNow();
+            }
+        }
+
+        private void submit(final File dir) {
+            synchronized (mPendingSync) {
+                mPending++;
+            }
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            indexDirectory(dir);
+                        } catch (Throwable t) {
+                            Log.w(TAG, "Failed to index " + dir, t);
+                        } finally {
+                            release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                release();
+            }
+        }
+
+        private void release() {
+            synchronized (mPendingSync) {
+                mPending--;
+                if (mPending <= 0) {
+                    mPendingSync.notifyAll();
                 }
-                calculateUsageByType(dir, groupUsageMap);
             }
         }
-        if (files != null) {
-            // Iterate every file
-            for (File file : files) {
-                MimeTypeCategory category = MimeTypeHelper.getCategory(this, file);
-                long size = file.length();
-                if (!groupUsageMap.containsKey(category)) {
-                    groupUsageMap.put(category, size);
-                } else {
-                    long newSum = groupUsageMap.get(category) + size;
-                    groupUsageMap.put(category, newSum);
+
+        private void indexDirectory(File dir) {
+            String path = dir.getAbsolutePath();
+            long lastModified = dir.lastModified();
+            IndexedDirectory old = mIndexed.get(path);
+            String[] children;
+            if (old != null && lastModified != 0 && old.mLastModified == lastModified) {
+                // Unchanged; only its subdirectories need to be checked
+                children = old.mChildren;
+            } else {
+                // One listing pass: every entry is stat-ed once
+                File[] files = dir.listFiles();
+                if (files == null) {
+                    return;
+                }
+                Map<MimeTypeCategory, Long> usage = new HashMap<MimeTypeCategory, Long>();
+                List<String> names = new ArrayList<String>();
+                for (File file : files) {
+                    MimeTypeCategory category;
+                    if (file.isDirectory()) {
+                        names.add(file.getName());
+                        category = MimeTypeCategory.NONE;
+                    } else if (file.isFile()) {
+                        category = MimeTypeHelper.getCategory(MimeTypeIndexService.this, file);
+                    } else {
+                        continue;
+                    }
+                    Long sum = usage.get(category);
+                    long size = file.length();
+                    usage.put(category, sum == null ? size : sum + size);
+                }
+                children = names.toArray(new String[names.size()]);
+                addOperations(dir, path, lastModified, usage, children, old);
+            }
+
+            for (String child : children) {
+                submit(new File(dir, child));
+            }
+        }
+
+        private void addOperations(File dir, String path, long lastModified,
+                Map<MimeTypeCategory, Long> usage, String[] children, IndexedDirectory old) {
+            synchronized (mOperations) {
+                mChanged++;
+
+                // Replace the rollups of the directory
+                mOperations.add(ContentProviderOperation
+                        .newDelete(MimeTypeIndexProvider.getRollupsUri())
+                        .withSelection(MimeTypeIndexProvider.COLUMN_PATH + " = ?",
+                                new String[] { path })
+                        .build());
+                for (MimeTypeCategory category : usage.keySet()) {
+                    mOperations.add(ContentProviderOperation
+                            .newInsert(MimeTypeIndexProvider.getRollupsUri())
+                            .withValue(MimeTypeIndexProvider.COLUMN_PATH, path)
+                            .withValue(MimeTypeIndexProvider.COLUMN_CATEGORY, category.name())
+                            .withValue(MimeTypeIndexProvider.COLUMN_SIZE, usage.get(category))
+                            .build());
+                }
+                mOperations.add(ContentProviderOperation
+                        .newInsert(MimeTypeIndexProvider.getDirectoriesUri())
+                        .withValue(MimeTypeIndexProvider.COLUMN_PATH, path)
+                        .withValue(MimeTypeIndexProvider.COLUMN_LAST_MODIFIED, lastModified)
+                        .withValue(MimeTypeIndexProvider.COLUMN_CHILDREN,
+                                TextUtils.join(MimeTypeIndexProvider.CHILDREN_SEPARATOR,
+                                        children))
+                        .build());
+
+                // Forget the subtrees that don't exist anymore
+                if (old != null) {
+                    List<String> current = Arrays.asList(children);
+                    for (String child : old.mChildren) {
+                        if (current.contains(child)) {
+                            continue;
+                        }
+                        String childPath = new File(dir, child).getAbsolutePath();
+                        String selection = MimeTypeIndexProvider.getSubtreeSelection();
+                        String[] selectionArgs =
+                                MimeTypeIndexProvider.getSubtreeSelectionArgs(childPath);
+                        mOperations.add(ContentProviderOperation
+                                .newDelete(MimeTypeIndexProvider.getDirectoriesUri())
+                                .withSelection(selection, selectionArgs)
+                                .build());
+                        mOperations.add(ContentProviderOperation
+                                .newDelete(MimeTypeIndexProvider.getRollupsUri())
+                                .withSelection(selection, selectionArgs)
+                                .build());
+                    }
                 }
             }
         }
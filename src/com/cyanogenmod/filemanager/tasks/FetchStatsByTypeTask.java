@@ -58,7 +58,7 @@ public class FetchStatsByTypeTask extends AsyncTask<String, Void, Cursor> {
             return null;
         }
         String fileRoot = strings[0];
-        return MimeTypeIndexProvider.getMountPointUsage(mContext, fileRoot);
+        return MimeTypeIndexProvider.getSubtreeUsage(mContext, fileRoot);
     }
 
     @Override
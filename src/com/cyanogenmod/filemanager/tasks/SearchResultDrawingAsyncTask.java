@@ -30,7 +30,6 @@ import com.cyanogenmod.filemanager.model.SearchResult;
 import com.cyanogenmod.filemanager.preferences.AccessMode;
 import com.cyanogenmod.filemanager.preferences.DisplayRestrictions;
 import com.cyanogenmod.filemanager.preferences.FileManagerSettings;
-import com.cyanogenmod.filemanager.preferences.NavigationSortMode;
 import com.cyanogenmod.filemanager.preferences.ObjectStringIdentifier;
 import com.cyanogenmod.filemanager.preferences.Preferences;
 import com.cyanogenmod.filemanager.preferences.SearchSortResultMode;
@@ -127,16 +126,9 @@ public class SearchResultDrawingAsyncTask extends AsyncTask<Object, Integer, Boo
                             FileHelper.applyUserPreferences(
                                     this.mFiles, restrictions, true, chRooted),
                             this.mQueries);
-            if (mode.compareTo(SearchSortResultMode.NAME) == 0) {
-                Collections.sort(result, new Comparator<SearchResult>() {
-                    @Override
-                    public int compare(SearchResult lhs, SearchResult rhs) {
-                        return FileHelper.doCompare(
-                                lhs.getFso(), rhs.getFso(), NavigationSortMode.NAME_ASC);
-                    }
-                });
-            } else if (mode.compareTo(SearchSortResultMode.RELEVANCE) == 0) {
-                Collections.sort(result);
+            Comparator<SearchResult> comparator = SearchHelper.getResultComparator(mode);
+            if (comparator != null) {
+                Collections.sort(result, comparator);
             }
 
             this.mSearchListView.post(new Runnable() {
@@ -37,6 +37,8 @@ import com.cyanogenmod.filemanager.R;
 import com.cyanogenmod.filemanager.activities.NavigationActivity;
 import com.cyanogenmod.filemanager.adapters.TwoColumnsMenuListAdapter;
 import com.cyanogenmod.filemanager.console.VirtualMountPointConsole;
+import com.cyanogenmod.filemanager.console.archive.ArchiveConsole;
+import com.cyanogenmod.filemanager.console.archive.ArchiveIndex;
 import com.cyanogenmod.filemanager.listeners.OnRequestRefreshListener;
 import com.cyanogenmod.filemanager.listeners.OnSelectionListener;
 import com.cyanogenmod.filemanager.model.Bookmark;
@@ -364,6 +366,13 @@ public class ActionsDialog implements OnItemClickListener, OnItemLongClickListen
                             this.mFso,
                             this.mOnRequestRefreshListener);
                 break;
+            //- Browse an archive
+            case R.id.mnu_actions_browse:
+                NavigationActionPolicy.browseArchive(
+                            this.mContext,
+                            this.mFso,
+                            this.mOnRequestRefreshListener);
+                break;
             //- Compress
             case R.id.mnu_actions_compress:
                 if (this.mOnSelectionListener != null) {
@@ -417,6 +426,11 @@ public class ActionsDialog implements OnItemClickListener, OnItemLongClickListen
                 InfoActionPolicy.showComputeChecksumDialog(this.mContext, this.mFso);
                 break;
 
+            //- Find duplicates
+            case R.id.mnu_actions_find_duplicates:
+                InfoActionPolicy.showDuplicates(this.mContext, this.mFso);
+                break;
+
             //- Print
             case R.id.mnu_actions_print:
                 PrintActionPolicy.printDocument(this.mContext, this.mFso);
@@ -669,6 +683,11 @@ public class ActionsDialog implements OnItemClickListener, OnItemLongClickListen
                 menu.removeItem(R.id.mnu_actions_compute_checksum);
             }
 
+            //- Duplicates (only supported for folders)
+            if (!FileHelper.isDirectory(this.mFso)) {
+                menu.removeItem(R.id.mnu_actions_find_duplicates);
+            }
+
             //- Print (only for text and image categories)
             if (!PrintActionPolicy.isPrintedAllowed(mContext, mFso)) {
                 menu.removeItem(R.id.mnu_actions_print);
@@ -742,6 +761,13 @@ public class ActionsDialog implements OnItemClickListener, OnItemLongClickListen
             if (!this.mGlobal && !FileHelper.isSupportedUncompressedFile(this.mFso)) {
                 menu.removeItem(R.id.mnu_actions_extract);
             }
+            //Browse (Only archives with random access, outside virtual filesystems)
+            if (this.mGlobal || FileHelper.isDirectory(this.mFso)
+                    || !ArchiveIndex.isSupported(this.mFso.getName())
+                    || VirtualMountPointConsole.isVirtualStorageResource(
+                            this.mFso.getFullPath())) {
+                menu.removeItem(R.id.mnu_actions_browse);
+            }
 
             // Send multiple (only regular files)
             if (this.mGlobal) {
@@ -828,24 +854,69 @@ public class ActionsDialog implements OnItemClickListener, OnItemLongClickListen
             }
         }
 
+        // Archives are mounted read-only
+        if (this.mFso != null && isArchiveResource(this.mFso)) {
+            menu.removeItem(R.id.mnu_actions_new_directory);
+            menu.removeItem(R.id.mnu_actions_new_file);
+            menu.removeItem(R.id.mnu_actions_paste_selection);
+            menu.removeItem(R.id.mnu_actions_move_selection);
+            menu.removeItem(R.id.mnu_actions_delete_selection);
+            menu.removeItem(R.id.mnu_actions_compress_selection);
+            menu.removeItem(R.id.mnu_actions_create_link_global);
+            menu.removeItem(R.id.mnu_actions_send_selection);
+            menu.removeItem(R.id.mnu_actions_add_to_bookmarks_current_folder);
+            menu.removeItem(R.id.mnu_actions_add_shortcut_current_folder);
+            menu.removeItem(R.id.mnu_actions_global_set_as_home);
+            menu.removeItem(R.id.mnu_actions_open_with);
+            menu.removeItem(R.id.mnu_actions_send);
+            menu.removeItem(R.id.mnu_actions_print);
+            menu.removeItem(R.id.mnu_actions_delete);
+            menu.removeItem(R.id.mnu_actions_rename);
+            menu.removeItem(R.id.mnu_actions_compress);
+            menu.removeItem(R.id.mnu_actions_extract);
+            menu.removeItem(R.id.mnu_actions_browse);
+            menu.removeItem(R.id.mnu_actions_create_copy);
+            menu.removeItem(R.id.mnu_actions_create_link);
+            menu.removeItem(R.id.mnu_actions_execute);
+            menu.removeItem(R.id.mnu_actions_add_to_bookmarks);
+            menu.removeItem(R.id.mnu_actions_add_shortcut);
+            menu.removeItem(R.id.mnu_actions_compute_checksum);
+            menu.removeItem(R.id.mnu_actions_find_duplicates);
+            menu.removeItem(R.id.mnu_actions_set_as_home);
+        } else if (mGlobal && selection != null) {
+            // The selected entries of an archive can only be copied out
+            for (FileSystemObject fso : selection) {
+                if (isArchiveResource(fso)) {
+                    menu.removeItem(R.id.mnu_actions_move_selection);
+                    menu.removeItem(R.id.mnu_actions_delete_selection);
+                    menu.removeItem(R.id.mnu_actions_compress_selection);
+                    menu.removeItem(R.id.mnu_actions_create_link_global);
+                    menu.removeItem(R.id.mnu_actions_send_selection);
+                    break;
+                }
+            }
+        }
+
         // Remove not-ChRooted actions (actions that can't be present when running in
         // unprivileged mode)
         if (this.mChRooted) {
             menu.removeItem(R.id.mnu_actions_create_link);
             menu.removeItem(R.id.mnu_actions_create_link_global);
             menu.removeItem(R.id.mnu_actions_execute);
-
-            // NOTE: This actions are not implemented in chrooted environments. The reason is
-            // that the main target of this application is CyanogenMod (a rooted environment).
-            // Adding this actions requires the use of commons-compress, an external Apache
-            // library that will add more size to the ending apk.
-            // For now, will maintain without implementation. Maybe, in the future.
-            menu.removeItem(R.id.mnu_actions_compress);
-            menu.removeItem(R.id.mnu_actions_compress_selection);
-            menu.removeItem(R.id.mnu_actions_extract);
         }
     }
 
+    /**
+     * Method that returns if a file system object belongs to a mounted archive
+     *
+     * @param fso The file system object to check
+     * @return boolean If the file system object belongs to a mounted archive
+     */
+    private static boolean isArchiveResource(FileSystemObject fso) {
+        return VirtualMountPointConsole.getVirtualConsoleForPath(fso.getFullPath())
+                instanceof ArchiveConsole;
+    }
+
     /**
      * Method that creates a {@link LinkedResource} for the list of object to the
      * destination directory
@@ -27,12 +27,15 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.cyanogenmod.filemanager.R;
 import com.cyanogenmod.filemanager.commands.AsyncResultExecutable;
 import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.commands.ChecksumExecutable.CHECKSUMS;
+import com.cyanogenmod.filemanager.model.ByteProgress;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.ui.ThemeManager;
 import com.cyanogenmod.filemanager.ui.ThemeManager.Theme;
@@ -45,6 +48,22 @@ import com.cyanogenmod.filemanager.util.ExceptionUtil;
 public class ComputeChecksumDialog implements
     DialogInterface.OnClickListener, View.OnClickListener, AsyncResultListener {
 
+    // The views of every checksum, in the order of CHECKSUMS
+    private static final int[] CHECKSUM_LABEL_IDS = {
+        R.id.checksum_md5_label, R.id.checksum_sha1_label,
+        R.id.checksum_sha256_label, R.id.checksum_crc32_label
+    };
+    private static final int[] CHECKSUM_IDS = {
+        R.id.checksum_md5, R.id.checksum_sha1, R.id.checksum_sha256, R.id.checksum_crc32
+    };
+    private static final int[] CLIPBOARD_IDS = {
+        R.id.bt_md5_clipboard, R.id.bt_sha1_clipboard,
+        R.id.bt_sha256_clipboard, R.id.bt_crc32_clipboard
+    };
+    private static final String[] CHECKSUM_NAMES = {
+        "MD5", "SHA-1", "SHA-256", "CRC32" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    };
+
     /**
      * @hide
      */
@@ -72,7 +91,12 @@ public class ComputeChecksumDialog implements
     /**
      * @hide
      */
-    EditText[] mChecksums = new EditText[2];
+    EditText[] mChecksums = new EditText[CHECKSUMS.values().length];
+
+    /**
+     * @hide
+     */
+    ProgressBar mProgress;
 
     /**
      * @hide
@@ -105,12 +129,12 @@ public class ComputeChecksumDialog implements
         ViewGroup layout = (ViewGroup)li.inflate(R.layout.compute_checksum_dialog, null);
         TextView tvFileName = (TextView)layout.findViewById(R.id.checksum_filename);
         tvFileName.setText(fso.getFullPath());
-        this.mChecksums[0] = (EditText)layout.findViewById(R.id.checksum_md5);
-        this.mChecksums[1] = (EditText)layout.findViewById(R.id.checksum_sha1);
-        View btMD5 = layout.findViewById(R.id.bt_md5_clipboard);
-        btMD5.setOnClickListener(this);
-        View btSHA1 = layout.findViewById(R.id.bt_sha1_clipboard);
-        btSHA1.setOnClickListener(this);
+        this.mProgress = (ProgressBar)layout.findViewById(R.id.checksum_progress);
+        int cc = this.mChecksums.length;
+        for (int i = 0; i < cc; i++) {
+            this.mChecksums[i] = (EditText)layout.findViewById(CHECKSUM_IDS[i]);
+            layout.findViewById(CLIPBOARD_IDS[i]).setOnClickListener(this);
+        }
 
         // Apply the theme
         applyTheme(context, layout);
@@ -177,18 +201,14 @@ public class ComputeChecksumDialog implements
     public void onClick(View v) {
         String digest = ""; //$NON-NLS-1$
         String label = ""; //$NON-NLS-1$
-        switch (v.getId()) {
-            case R.id.bt_md5_clipboard:
-                digest = this.mChecksums[0].getText().toString();
-                label = String.format("MD5 Checksum - %s", this.mFso.getFullPath()); //$NON-NLS-1$
-                break;
-            case R.id.bt_sha1_clipboard:
-                digest = this.mChecksums[1].getText().toString();
-                label = String.format("SHA-1 Checksum - %s", this.mFso.getFullPath()); //$NON-NLS-1$
-                break;
-
-            default:
+        int cc = CLIPBOARD_IDS.length;
+        for (int i = 0; i < cc; i++) {
+            if (v.getId() == CLIPBOARD_IDS[i]) {
+                digest = this.mChecksums[i].getText().toString();
+                label = String.format("%s Checksum - %s", //$NON-NLS-1$
+                        CHECKSUM_NAMES[i], this.mFso.getFullPath());
                 break;
+            }
         }
 
         // Copy text to clipboard
@@ -211,8 +231,21 @@ public class ComputeChecksumDialog implements
      * {@inheritDoc}
      */
     @Override
-    public void onAsyncEnd(boolean cancelled) {
-        /** NON BLOCK **/
+    public void onAsyncEnd(final boolean cancelled) {
+        this.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ComputeChecksumDialog.this.mProgress.setVisibility(View.GONE);
+                if (!cancelled) {
+                    // The checksums not returned are not supported by the console
+                    int cc = ComputeChecksumDialog.this.mChecksums.length;
+                    for (int i = ComputeChecksumDialog.this.mComputeStatus; i < cc; i++) {
+                        ComputeChecksumDialog.this.mChecksums[i].setText(
+                                R.string.compute_checksum_not_available_msg);
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -241,7 +274,11 @@ public class ComputeChecksumDialog implements
         this.mHandler.post(new Runnable() {
             @Override
             public void run() {
-                setChecksum(String.valueOf(result));
+                if (result instanceof ByteProgress) {
+                    setProgress((ByteProgress)result);
+                } else {
+                    setChecksum(String.valueOf(result));
+                }
             }
         });
     }
@@ -261,8 +298,24 @@ public class ComputeChecksumDialog implements
      * @hide
      */
     synchronized void setChecksum(String digest) {
-        this.mChecksums[this.mComputeStatus].setText(digest);
-        this.mComputeStatus++;
+        if (this.mComputeStatus < this.mChecksums.length) {
+            this.mChecksums[this.mComputeStatus].setText(digest);
+            this.mComputeStatus++;
+        }
+    }
+
+    /**
+     * Method that shows the progress of the read of the file
+     *
+     * @param progress The progress
+     * @hide
+     */
+    void setProgress(ByteProgress progress) {
+        int percentage = progress.getPercentage();
+        if (percentage >= 0) {
+            this.mProgress.setIndeterminate(false);
+            this.mProgress.setProgress(percentage);
+        }
     }
 
     /**
@@ -279,17 +332,14 @@ public class ComputeChecksumDialog implements
         theme.setTextColor(ctx, (TextView)v, "text_color"); //$NON-NLS-1$
         v = root.findViewById(R.id.checksum_filename);
         theme.setTextColor(ctx, (TextView)v, "text_color"); //$NON-NLS-1$
-        v = root.findViewById(R.id.checksum_md5_label);
-        theme.setTextColor(ctx, (TextView)v, "text_color"); //$NON-NLS-1$
-        theme.setBackgroundColor(ctx, this.mChecksums[0], "console_bg_color"); //$NON-NLS-1$
-        theme.setTextColor(ctx, this.mChecksums[0], "console_fg_color"); //$NON-NLS-1$
-        v = root.findViewById(R.id.checksum_sha1_label);
-        theme.setTextColor(ctx, (TextView)v, "text_color"); //$NON-NLS-1$
-        theme.setBackgroundColor(ctx, this.mChecksums[1], "console_bg_color"); //$NON-NLS-1$
-        theme.setTextColor(ctx, this.mChecksums[1], "console_fg_color"); //$NON-NLS-1$
-        v = root.findViewById(R.id.bt_md5_clipboard);
-        theme.setImageDrawable(ctx, (ImageView)v, "ic_copy_drawable"); //$NON-NLS-1$
-        v = root.findViewById(R.id.bt_sha1_clipboard);
-        theme.setImageDrawable(ctx, (ImageView)v, "ic_copy_drawable"); //$NON-NLS-1$
+        int cc = this.mChecksums.length;
+        for (int i = 0; i < cc; i++) {
+            v = root.findViewById(CHECKSUM_LABEL_IDS[i]);
+            theme.setTextColor(ctx, (TextView)v, "text_color"); //$NON-NLS-1$
+            theme.setBackgroundColor(ctx, this.mChecksums[i], "console_bg_color"); //$NON-NLS-1$
+            theme.setTextColor(ctx, this.mChecksums[i], "console_fg_color"); //$NON-NLS-1$
+            v = root.findViewById(CLIPBOARD_IDS[i]);
+            theme.setImageDrawable(ctx, (ImageView)v, "ic_copy_drawable"); //$NON-NLS-1$
+        }
     }
 }
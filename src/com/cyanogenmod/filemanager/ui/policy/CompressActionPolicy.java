@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.text.Html;
 import android.text.Spanned;
+import android.text.format.DateUtils;
 import android.widget.Toast;
 
 import com.cyanogenmod.filemanager.FileManagerApplication;
@@ -33,7 +34,10 @@ import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.RelaunchableException;
 import com.cyanogenmod.filemanager.listeners.OnRequestRefreshListener;
 import com.cyanogenmod.filemanager.listeners.OnSelectionListener;
+import com.cyanogenmod.filemanager.model.ByteProgress;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
+import com.cyanogenmod.filemanager.model.TransferProgress;
+import com.cyanogenmod.filemanager.preferences.AccessMode;
 import com.cyanogenmod.filemanager.preferences.CompressionMode;
 import com.cyanogenmod.filemanager.util.CommandHelper;
 import com.cyanogenmod.filemanager.util.DialogHelper;
@@ -57,6 +61,7 @@ public final class CompressActionPolicy extends ActionsPolicy {
     private static class CompressListener implements AsyncResultListener {
 
         final FixedQueue<String> mQueue;
+        volatile ByteProgress mProgress;
         boolean mEnd;
         Throwable mCause;
 
@@ -72,7 +77,12 @@ public final class CompressActionPolicy extends ActionsPolicy {
 
         @Override
         public void onPartialResult(Object result) {
-            this.mQueue.insert((String)result);
+            // The java console also returns the progress of the operation
+            if (result instanceof ByteProgress) {
+                this.mProgress = (ByteProgress)result;
+            } else {
+                this.mQueue.insert((String)result);
+            }
         }
 
         @Override
@@ -239,7 +249,7 @@ public final class CompressActionPolicy extends ActionsPolicy {
                           getString(
                               R.string.waiting_dialog_compressing_msg,
                               msg);
-                return Html.fromHtml(progress);
+                return Html.fromHtml(appendProgress(this.mCtx, progress, this.mListener));
             }
 
             @Override
@@ -345,6 +355,9 @@ public final class CompressActionPolicy extends ActionsPolicy {
                         if (msgs.size() > 0) {
                             this.mMsg = msgs.get(msgs.size()-1);
                             task.onRequestProgress();
+                        } else if (this.mListener.mProgress != null) {
+                            // The bytes of a big entry
+                            task.onRequestProgress();
                         }
                     }
 
@@ -541,7 +554,7 @@ public final class CompressActionPolicy extends ActionsPolicy {
                           getString(
                               R.string.waiting_dialog_extracting_msg,
                               msg);
-                return Html.fromHtml(progress);
+                return Html.fromHtml(appendProgress(this.mCtx, progress, this.mListener));
             }
 
             @Override
@@ -600,6 +613,9 @@ public final class CompressActionPolicy extends ActionsPolicy {
                         if (msgs.size() > 0) {
                             this.mMsg = msgs.get(msgs.size()-1);
                             task.onRequestProgress();
+                        } else if (this.mListener.mProgress != null) {
+                            // The bytes of a big entry
+                            task.onRequestProgress();
                         }
                     }
 
@@ -768,6 +784,52 @@ public final class CompressActionPolicy extends ActionsPolicy {
         }
     }
 
+    /**
+     * Method that appends the progress of the operation (if the console reports it) to the
+     * message of the dialog
+     *
+     * @param ctx The current context
+     * @param msg The message of the dialog
+     * @param listener The listener of the operation
+     * @return String The message with the progress
+     */
+    static String appendProgress(Context ctx, String msg, CompressListener listener) {
+        ByteProgress progress = listener.mProgress;
+        if (progress == null || progress.getPercentage() < 0) {
+            return msg;
+        }
+        StringBuilder sb = new StringBuilder(msg);
+        sb.append(ctx.getString(
+                R.string.waiting_dialog_transfer_progress_msg,
+                FileHelper.getHumanReadableSize(progress.getBytes()),
+                FileHelper.getHumanReadableSize(progress.getTotalBytes()),
+                Integer.valueOf(progress.getPercentage())));
+        if (progress instanceof TransferProgress) {
+            TransferProgress transfer = (TransferProgress)progress;
+            long remaining = transfer.getRemainingTime();
+            if (remaining >= 0) {
+                sb.append(ctx.getString(
+                        R.string.waiting_dialog_transfer_rate_msg,
+                        FileHelper.getHumanReadableSize(transfer.getBytesPerSecond()),
+                        DateUtils.formatElapsedTime(remaining)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Method that returns if a compression mode is supported by the current console
+     *
+     * @param mode The compression mode
+     * @return boolean If the compression mode is supported
+     */
+    private static boolean isCompressionModeSupported(CompressionMode mode) {
+        // The java console (safe mode) implements all the modes without external commands
+        return mode.mCommandId == null ||
+                FileManagerApplication.getAccessMode().compareTo(AccessMode.SAFE) == 0 ||
+                FileManagerApplication.hasOptionalCommand(mode.mCommandId);
+    }
+
     /**
      * Method that returns the supported compression modes
      *
@@ -785,11 +847,8 @@ public final class CompressActionPolicy extends ActionsPolicy {
             CompressionMode[] values = CompressionMode.values();
             int cc = values.length;
             for (int i = 0; i < cc; i++) {
-                if (values[i].mArchive) {
-                    if (values[i].mCommandId == null ||
-                        FileManagerApplication.hasOptionalCommand(values[i].mCommandId)) {
-                        validLabels.add(labels[i]);
-                    }
+                if (values[i].mArchive && isCompressionModeSupported(values[i])) {
+                    validLabels.add(labels[i]);
                 }
             }
             labels = validLabels.toArray(new String[]{});
@@ -799,8 +858,7 @@ public final class CompressActionPolicy extends ActionsPolicy {
             CompressionMode[] values = CompressionMode.values();
             int cc = values.length;
             for (int i = 0; i < cc; i++) {
-                if (values[i].mCommandId == null ||
-                    FileManagerApplication.hasOptionalCommand(values[i].mCommandId)) {
+                if (isCompressionModeSupported(values[i])) {
                     validLabels.add(labels[i]);
                 }
             }
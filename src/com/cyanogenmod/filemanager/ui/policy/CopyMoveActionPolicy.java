@@ -18,16 +18,18 @@ package com.cyanogenmod.filemanager.ui.policy;
 
 import android.app.AlertDialog;
 import android.content.Context;
-import android.content.DialogInterface;
 import android.text.Html;
 import android.text.Spanned;
+import android.text.format.DateUtils;
 
 import com.cyanogenmod.filemanager.R;
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
 import com.cyanogenmod.filemanager.console.RelaunchableException;
 import com.cyanogenmod.filemanager.listeners.OnRequestRefreshListener;
 import com.cyanogenmod.filemanager.listeners.OnSelectionListener;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
+import com.cyanogenmod.filemanager.model.TransferProgress;
 import com.cyanogenmod.filemanager.preferences.Bookmarks;
 import com.cyanogenmod.filemanager.util.CommandHelper;
 import com.cyanogenmod.filemanager.util.DialogHelper;
@@ -37,7 +39,10 @@ import com.cyanogenmod.filemanager.util.FileHelper;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A class with the convenience methods for resolve copy/move related actions
@@ -54,6 +59,16 @@ public final class CopyMoveActionPolicy extends ActionsPolicy {
         CREATE_COPY,
     }
 
+    /**
+     * The resolutions of a file that already exists in the destination folder
+     * @hide
+     */
+    private enum CONFLICT_RESOLUTION {
+        OVERWRITE,
+        SKIP,
+        KEEP_BOTH,
+    }
+
 
     /**
      * A class that holds a relationship between a source {@link File} and
@@ -255,18 +270,47 @@ public final class CopyMoveActionPolicy extends ActionsPolicy {
             }
         }
 
+        // The items to copy or move, once the conflicts are resolved
+        final List<LinkedResource> resolvedFiles = new ArrayList<LinkedResource>(files);
+
         // The callable interface
         final BackgroundCallable callable = new BackgroundCallable() {
             // The current items
             private int mCurrent = 0;
             final Context mCtx = ctx;
             final COPY_MOVE_OPERATION mOperation = operation;
-            final List<LinkedResource> mFiles = files;
+            final List<LinkedResource> mFiles = resolvedFiles;
             final OnRequestRefreshListener mOnRequestRefreshListener = onRequestRefreshListener;
 
             final Object mSync = new Object();
             Throwable mCause;
 
+            // The progress of the current item
+            BackgroundAsyncTask mTask;
+            volatile TransferProgress mProgress;
+            final AsyncResultListener mProgressListener = new AsyncResultListener() {
+                @Override
+                public void onAsyncStart() {/**NON BLOCK**/}
+
+                @Override
+                public void onAsyncEnd(boolean cancelled) {/**NON BLOCK**/}
+
+                @Override
+                public void onAsyncExitCode(int exitCode) {/**NON BLOCK**/}
+
+                @Override
+                @SuppressWarnings("unqualified-field-access")
+                public void onPartialResult(Object result) {
+                    if (result instanceof TransferProgress && mTask != null) {
+                        mProgress = (TransferProgress)result;
+                        mTask.onRequestProgress();
+                    }
+                }
+
+                @Override
+                public void onException(Exception cause) {/**NON BLOCK**/}
+            };
+
             @Override
             public int getDialogTitle() {
                 return this.mOperation.compareTo(COPY_MOVE_OPERATION.MOVE) == 0 ||
@@ -298,14 +342,40 @@ public final class CopyMoveActionPolicy extends ActionsPolicy {
                                    R.string.waiting_dialog_copying_msg,
                               src.getAbsolutePath(),
                               dst.getAbsolutePath());
+
+                // And the progress of the transfer
+                TransferProgress transfer = this.mProgress;
+                if (transfer != null) {
+                    StringBuilder sb = new StringBuilder(progress);
+                    if (transfer.getCurrentFile() != null) {
+                        sb.append(this.mCtx.getString(
+                                R.string.waiting_dialog_transfer_file_msg,
+                                transfer.getCurrentFile()));
+                    }
+                    if (transfer.getPercentage() >= 0) {
+                        sb.append(this.mCtx.getString(
+                                R.string.waiting_dialog_transfer_progress_msg,
+                                FileHelper.getHumanReadableSize(transfer.getBytes()),
+                                FileHelper.getHumanReadableSize(transfer.getTotalBytes()),
+                                Integer.valueOf(transfer.getPercentage())));
+                    }
+                    long remaining = transfer.getRemainingTime();
+                    if (remaining >= 0) {
+                        sb.append(this.mCtx.getString(
+                                R.string.waiting_dialog_transfer_rate_msg,
+                                FileHelper.getHumanReadableSize(transfer.getBytesPerSecond()),
+                                DateUtils.formatElapsedTime(remaining)));
+                    }
+                    progress = sb.toString();
+                }
                 return Html.fromHtml(progress);
             }
 
             @Override
             public void onSuccess() {
                 // Remove orphan bookmark paths
-                if (files != null) {
-                    for (LinkedResource linkedFiles : files) {
+                if (this.mFiles != null) {
+                    for (LinkedResource linkedFiles : this.mFiles) {
                         Bookmarks.deleteOrphanBookmarks(ctx, linkedFiles.mSrc.getAbsolutePath());
                     }
                 }
@@ -325,12 +395,14 @@ public final class CopyMoveActionPolicy extends ActionsPolicy {
                 // This method expect to receive
                 // 1.- BackgroundAsyncTask
                 BackgroundAsyncTask task = (BackgroundAsyncTask)params[0];
+                this.mTask = task;
 
                 int cc2 = this.mFiles.size();
                 for (int i = 0; i < cc2; i++) {
                     File src = this.mFiles.get(i).mSrc;
                     File dst = this.mFiles.get(i).mDst;
 
+                    this.mProgress = null;
                     doOperation(this.mCtx, src, dst, this.mOperation);
 
                     // Next file
@@ -368,12 +440,14 @@ public final class CopyMoveActionPolicy extends ActionsPolicy {
                                 ctx,
                                 source,
                                 dst.getAbsolutePath(),
+                                this.mProgressListener,
                                 null);
                     } else {
                         CommandHelper.copy(
                                 ctx,
                                 source,
                                 dst.getAbsolutePath(),
+                                this.mProgressListener,
                                 null);
                     }
                 } catch (Exception e) {
@@ -433,28 +507,45 @@ public final class CopyMoveActionPolicy extends ActionsPolicy {
         };
         final BackgroundAsyncTask task = new BackgroundAsyncTask(ctx, callable);
 
-        // Prior to execute, we need to check if some of the files will be overwritten
+        // Prior to execute, we need to check if some of the files will be overwritten. The
+        // current items are the listing of the destination directory
         List<FileSystemObject> curFiles = onSelectionListener.onRequestCurrentItems();
         if (curFiles != null) {
+            final Set<String> names = createNameIndex(curFiles);
+            final List<LinkedResource> conflicts = getConflicts(files, names);
+
             // Is necessary to ask the user?
-            if (isOverwriteNeeded(files, curFiles)) {
-                //Show a dialog asking the user for overwrite the files
+            if (!conflicts.isEmpty()) {
+                //Show a dialog asking the user how to resolve the conflicts. The options
+                //follow the order of CONFLICT_RESOLUTION
+                String[] options = {
+                        ctx.getString(R.string.overwrite),
+                        ctx.getString(R.string.skip),
+                        ctx.getString(R.string.keep_both)
+                };
                 AlertDialog dialog =
-                        DialogHelper.createTwoButtonsQuestionDialog(
+                        DialogHelper.createSingleChoiceDialog(
                                 ctx,
-                                android.R.string.cancel,
-                                R.string.overwrite,
-                                R.string.confirm_overwrite,
-                                ctx.getString(R.string.msgs_overwrite_files),
-                                new DialogInterface.OnClickListener() {
+                                ctx.getString(R.string.msgs_overwrite_conflicts,
+                                        Integer.valueOf(conflicts.size())),
+                                options,
+                                CONFLICT_RESOLUTION.KEEP_BOTH.ordinal(),
+                                new DialogHelper.OnSelectChoiceListener() {
                                     @Override
-                                    public void onClick(DialogInterface alertDialog, int which) {
-                                        // NEGATIVE (overwrite)  POSITIVE (cancel)
-                                        if (which == DialogInterface.BUTTON_NEGATIVE) {
-                                            // Execute background task
+                                    public void onSelectChoice(int choice) {
+                                        CONFLICT_RESOLUTION resolution =
+                                                CONFLICT_RESOLUTION.values()[choice];
+                                        resolveConflicts(ctx, resolvedFiles,
+                                                conflicts, names, resolution);
+
+                                        // Execute background task
+                                        if (!resolvedFiles.isEmpty()) {
                                             task.execute(task);
                                         }
                                     }
+
+                                    @Override
+                                    public void onNoSelectChoice() {/**NON BLOCK**/}
                                });
                 DialogHelper.delegateDialogShow(ctx, dialog);
                 return;
@@ -466,32 +557,113 @@ public final class CopyMoveActionPolicy extends ActionsPolicy {
     }
 
     /**
-     * Method that check if is needed to prompt the user for overwrite prior to do
-     * the operation.
+     * Method that creates an index of the names of the files of the destination directory.
      *
-     * @param files The list of source/destination files.
-     * @param currentFiles The list of the current files in the destination directory.
-     * @return boolean If is needed to prompt the user for overwrite
+     * @param currentFiles The list of the current files in the destination directory
+     * @return Set<String> The names of the current files
      */
-    private static boolean isOverwriteNeeded(
-            List<LinkedResource> files, List<FileSystemObject> currentFiles) {
-        boolean askUser = false;
+    private static Set<String> createNameIndex(List<FileSystemObject> currentFiles) {
         int cc = currentFiles.size();
+        Set<String> names = new HashSet<String>(Math.max(16, (cc * 4) / 3 + 1));
         for (int i = 0; i < cc; i++) {
-            int cc2 = files.size();
-            for (int j = 0; j < cc2; j++) {
-                FileSystemObject dst1 =  currentFiles.get(i);
-                File dst2 = files.get(j).mDst;
-
-                // The file exists in the destination directory
-                if (dst1.getFullPath().compareTo(dst2.getAbsolutePath()) == 0) {
-                    askUser = true;
-                    break;
-                }
+            names.add(currentFiles.get(i).getName());
+        }
+        return names;
+    }
+
+    /**
+     * Method that returns the files that will overwrite a file of the destination directory.
+     * All the destination files are children of the destination directory, so the lookup
+     * is done by name.
+     *
+     * @param files The list of source/destination files
+     * @param names The index of the names of the destination directory
+     * @return List<LinkedResource> The files that already exist in the destination
+     */
+    private static List<LinkedResource> getConflicts(
+            List<LinkedResource> files, Set<String> names) {
+        List<LinkedResource> conflicts = new ArrayList<LinkedResource>();
+        int cc = files.size();
+        for (int i = 0; i < cc; i++) {
+            LinkedResource linkedRes = files.get(i);
+            // The file is moved/copied over itself. Nothing to resolve
+            if (linkedRes.mSrc.compareTo(linkedRes.mDst) == 0) {
+                continue;
+            }
+            if (names.contains(linkedRes.mDst.getName())) {
+                conflicts.add(linkedRes);
             }
-            if (askUser) break;
         }
-        return askUser;
+        return conflicts;
+    }
+
+    /**
+     * Method that applies the resolution chosen by the user to every file in conflict.
+     * Skipped files are removed from the operation and the files to keep are redirected to
+     * a non-existing name.
+     *
+     * @param ctx The current context
+     * @param files The list of source/destination files (modified in place)
+     * @param conflicts The files that already exist in the destination
+     * @param names The index of the names of the destination directory
+     * @param resolution The resolution of the conflicts
+     */
+    private static void resolveConflicts(Context ctx, List<LinkedResource> files,
+            List<LinkedResource> conflicts, Set<String> names, CONFLICT_RESOLUTION resolution) {
+        if (resolution.compareTo(CONFLICT_RESOLUTION.OVERWRITE) == 0) {
+            return;
+        }
+
+        // The new names can't be used by other file of the operation
+        Set<String> usedNames = new HashSet<String>(names);
+        int cc = files.size();
+        for (int i = 0; i < cc; i++) {
+            usedNames.add(files.get(i).mDst.getName());
+        }
+
+        Set<LinkedResource> pending = new HashSet<LinkedResource>(conflicts);
+        for (int i = 0; i < cc; i++) {
+            LinkedResource linkedRes = files.get(i);
+            if (!pending.contains(linkedRes)) {
+                continue;
+            }
+            if (resolution.compareTo(CONFLICT_RESOLUTION.SKIP) == 0) {
+                files.set(i, null);
+            } else {
+                String newName = createNonExistingName(
+                        ctx, usedNames, linkedRes.mDst.getName());
+                usedNames.add(newName);
+                files.set(i, new LinkedResource(
+                        linkedRes.mSrc, new File(linkedRes.mDst.getParentFile(), newName)));
+            }
+        }
+        files.removeAll(Collections.singleton(null));
+    }
+
+    /**
+     * Method that creates a non-existing name in the same way as
+     * {@link FileHelper#createNonExistingName(Context, List, String, int)}, but looking up
+     * the names in an index.
+     *
+     * @param ctx The current context
+     * @param names The index of the used names
+     * @param attemptedName The attempted name
+     * @return String The non-existing name
+     */
+    private static String createNonExistingName(
+            Context ctx, Set<String> names, String attemptedName) {
+        String newName = attemptedName;
+        do {
+            String name = FileHelper.getName(newName);
+            String ext = FileHelper.getExtension(newName);
+            if (ext == null) {
+                ext = ""; //$NON-NLS-1$
+            } else {
+                ext = "." + ext; //$NON-NLS-1$
+            }
+            newName = ctx.getString(R.string.create_copy_regexp, name, ext);
+        } while (names.contains(newName));
+        return newName;
     }
 
 
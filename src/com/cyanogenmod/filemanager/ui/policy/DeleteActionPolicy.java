@@ -23,10 +23,12 @@ import android.text.Html;
 import android.text.Spanned;
 
 import com.cyanogenmod.filemanager.R;
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.RelaunchableException;
 import com.cyanogenmod.filemanager.listeners.OnRequestRefreshListener;
 import com.cyanogenmod.filemanager.listeners.OnSelectionListener;
+import com.cyanogenmod.filemanager.model.DeleteProgress;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.preferences.Bookmarks;
 import com.cyanogenmod.filemanager.ui.widgets.FlingerListView.OnItemFlingerResponder;
@@ -36,10 +38,15 @@ import com.cyanogenmod.filemanager.util.ExceptionUtil;
 import com.cyanogenmod.filemanager.util.ExceptionUtil.OnRelaunchCommandResult;
 import com.cyanogenmod.filemanager.util.FileHelper;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -158,6 +165,32 @@ public final class DeleteActionPolicy extends ActionsPolicy {
             final Object mSync = new Object();
             Throwable mCause;
 
+            // The progress of the current item
+            BackgroundAsyncTask mTask;
+            volatile DeleteProgress mProgress;
+            final AsyncResultListener mProgressListener = new AsyncResultListener() {
+                @Override
+                public void onAsyncStart() {/**NON BLOCK**/}
+
+                @Override
+                public void onAsyncEnd(boolean cancelled) {/**NON BLOCK**/}
+
+                @Override
+                public void onAsyncExitCode(int exitCode) {/**NON BLOCK**/}
+
+                @Override
+                @SuppressWarnings("unqualified-field-access")
+                public void onPartialResult(Object result) {
+                    if (result instanceof DeleteProgress && mTask != null) {
+                        mProgress = (DeleteProgress)result;
+                        mTask.onRequestProgress();
+                    }
+                }
+
+                @Override
+                public void onException(Exception cause) {/**NON BLOCK**/}
+            };
+
             @Override
             public int getDialogTitle() {
                 return R.string.waiting_dialog_deleting_title;
@@ -168,12 +201,13 @@ public final class DeleteActionPolicy extends ActionsPolicy {
             }
             @Override
             public boolean isDialogCancellable() {
-                return false;
+                return true;
             }
 
             @Override
             public Spanned requestProgress() {
-                FileSystemObject fso = this.mFiles.get(this.mCurrent);
+                FileSystemObject fso =
+                        this.mFiles.get(Math.min(this.mCurrent, this.mFiles.size() - 1));
 
                 // Return the current operation
                 String progress =
@@ -181,6 +215,17 @@ public final class DeleteActionPolicy extends ActionsPolicy {
                           getString(
                               R.string.waiting_dialog_deleting_msg,
                               fso.getFullPath());
+
+                // And the progress of the deletion of the folder
+                DeleteProgress deletion = this.mProgress;
+                if (deletion != null) {
+                    StringBuilder sb = new StringBuilder(progress);
+                    sb.append(this.mCtx.getString(
+                            R.string.waiting_dialog_delete_progress_msg,
+                            Integer.valueOf(deletion.getEntries()),
+                            Long.valueOf(deletion.getEntriesPerSecond())));
+                    progress = sb.toString();
+                }
                 return Html.fromHtml(progress);
             }
 
@@ -219,12 +264,17 @@ public final class DeleteActionPolicy extends ActionsPolicy {
                 // This method expect to receive
                 // 1.- BackgroundAsyncTask
                 BackgroundAsyncTask task = (BackgroundAsyncTask)params[0];
+                this.mTask = task;
 
                 int cc = this.mFiles.size();
                 for (int i = 0; i < cc; i++) {
                     FileSystemObject fso = this.mFiles.get(i);
 
+                    this.mProgress = null;
                     doOperation(this.mCtx, fso);
+                    if (task.isCancelled()) {
+                        return;
+                    }
 
                     // Next file
                     this.mCurrent++;
@@ -232,6 +282,9 @@ public final class DeleteActionPolicy extends ActionsPolicy {
                         task.onRequestProgress();
                     }
                 }
+
+                // Check that all the items were deleted
+                checkDeleted(this.mCtx);
             }
 
             /**
@@ -245,7 +298,8 @@ public final class DeleteActionPolicy extends ActionsPolicy {
                 try {
                     // Remove the item
                     if (FileHelper.isDirectory(fso)) {
-                        CommandHelper.deleteDirectory(ctx, fso.getFullPath(), null);
+                        CommandHelper.deleteDirectory(
+                                ctx, fso.getFullPath(), this.mProgressListener, null);
                     } else {
                         CommandHelper.deleteFile(ctx, fso.getFullPath(), null);
                     }
@@ -305,30 +359,54 @@ public final class DeleteActionPolicy extends ActionsPolicy {
                         throw e;
                     }
                 }
+            }
 
-                // Check that the operation was completed retrieving the deleted fso
-                boolean failed = false;
-                try {
-                    CommandHelper.getFileInfo(ctx, fso.getFullPath(), false, null);
-                    FileSystemObject fso2 =
-                            CommandHelper.getFileInfo(ctx, fso.getFullPath(), false, null);
-                    if (fso2 != null) {
-                        // Failed. The file still exists
-                        failed = true;
+            /**
+             * Method that checks that the operation was completed. Instead of retrieving
+             * every deleted fso, the items are grouped by its parent folder, and every
+             * parent folder is listed only once.
+             *
+             * @param ctx The current context
+             */
+            private void checkDeleted(final Context ctx) throws Throwable {
+                Map<String, List<FileSystemObject>> parents =
+                        new HashMap<String, List<FileSystemObject>>();
+                for (FileSystemObject fso : this.mFiles) {
+                    String parent = new File(fso.getFullPath()).getParent();
+                    List<FileSystemObject> children = parents.get(parent);
+                    if (children == null) {
+                        children = new ArrayList<FileSystemObject>();
+                        parents.put(parent, children);
                     }
-
-                } catch (Throwable e) {
-                    // Operation complete successfully
+                    children.add(fso);
                 }
-                if (failed) {
-                    // Cancels the flinger
-                    if (onItemFlingerResponder != null) {
-                        onItemFlingerResponder.cancel();
+
+                for (Map.Entry<String, List<FileSystemObject>> entry : parents.entrySet()) {
+                    Set<String> names = new HashSet<String>();
+                    try {
+                        List<FileSystemObject> listing =
+                                CommandHelper.listFiles(ctx, entry.getKey(), null);
+                        for (FileSystemObject fso : listing) {
+                            names.add(fso.getName());
+                        }
+                    } catch (Throwable e) {
+                        // The parent can't be checked. Assume that the items were deleted
+                        continue;
                     }
 
-                    throw new ExecutionException(
-                            String.format(
-                                    "Failed to delete file: %s", fso.getFullPath())); //$NON-NLS-1$
+                    for (FileSystemObject fso : entry.getValue()) {
+                        if (names.contains(fso.getName())) {
+                            // Failed. The file still exists. Cancels the flinger
+                            if (onItemFlingerResponder != null) {
+                                onItemFlingerResponder.cancel();
+                            }
+
+                            throw new ExecutionException(
+                                    String.format(
+                                            "Failed to delete file: %s", //$NON-NLS-1$
+                                            fso.getFullPath()));
+                        }
+                    }
                 }
             }
         };
@@ -18,8 +18,10 @@ package com.cyanogenmod.filemanager.ui.policy;
 
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.widget.Toast;
 
+import com.cyanogenmod.filemanager.activities.DuplicatesActivity;
 import com.cyanogenmod.filemanager.console.ConsoleBuilder;
 import com.cyanogenmod.filemanager.listeners.OnRequestRefreshListener;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
@@ -111,4 +113,16 @@ public final class InfoActionPolicy extends ActionsPolicy {
             });
         }
     }
+
+    /**
+     * Method that opens the screen that shows the duplicated files of a folder.
+     *
+     * @param ctx The current context
+     * @param fso The folder where to find the duplicated files
+     */
+    public static void showDuplicates(final Context ctx, final FileSystemObject fso) {
+        Intent intent = new Intent(ctx, DuplicatesActivity.class);
+        intent.putExtra(DuplicatesActivity.EXTRA_DUPLICATES_DIRECTORY, fso.getFullPath());
+        ctx.startActivity(intent);
+    }
 }
@@ -17,8 +17,11 @@
 package com.cyanogenmod.filemanager.ui.policy;
 
 import android.content.Context;
+import android.os.AsyncTask;
 
+import com.cyanogenmod.filemanager.R;
 import com.cyanogenmod.filemanager.console.NoSuchFileOrDirectory;
+import com.cyanogenmod.filemanager.console.archive.ArchiveConsole;
 import com.cyanogenmod.filemanager.listeners.OnRequestRefreshListener;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.util.CommandHelper;
@@ -55,4 +58,46 @@ public final class NavigationActionPolicy extends ActionsPolicy {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Method that mounts an archive as a read-only directory and navigates to it, so the
+     * archive can be browsed without extract it
+     *
+     * @param ctx The current context
+     * @param fso The archive to browse
+     * @param onRequestRefreshListener The request listener
+     */
+    public static void browseArchive(
+            final Context ctx, final FileSystemObject fso,
+            final OnRequestRefreshListener onRequestRefreshListener) {
+        // The archive is indexed the first time, so don't block the ui thread
+        AsyncTask<Void, Void, Object> task = new AsyncTask<Void, Void, Object>() {
+            @Override
+            protected Object doInBackground(Void... params) {
+                try {
+                    ArchiveConsole console = ArchiveConsole.getInstance(
+                            ctx, ctx.getResources().getInteger(R.integer.buffer_size));
+                    String root = console.mount(ctx, fso.getFullPath());
+                    FileSystemObject dir = CommandHelper.getFileInfo(ctx, root, null);
+                    if (dir == null) {
+                        throw new NoSuchFileOrDirectory(root);
+                    }
+                    return dir;
+                } catch (Exception e) {
+                    return e;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Object result) {
+                if (result instanceof FileSystemObject) {
+                    // Navigate to the root of the archive
+                    onRequestRefreshListener.onNavigateTo(result);
+                } else {
+                    ExceptionUtil.translateException(ctx, (Exception) result);
+                }
+            }
+        };
+        task.execute();
+    }
+
+}
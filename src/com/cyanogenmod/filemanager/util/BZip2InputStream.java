@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that reads a bzip2 stream (or several concatenated bzip2 streams, as
+ * written by the parallel implementations of bzip2).
+ * <br/>
+ * Every block is decoded (Huffman and move-to-front decoding, and the inverse Burrows-Wheeler
+ * transform) when the previous block was consumed, and its CRC is verified. The arrays of the
+ * block are reused.
+ */
+public class BZip2InputStream extends InputStream {
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+    private static final int GROUP_SIZE = 50;
+    private static final int MAX_GROUPS = 6;
+    private static final int MAX_ALPHA_SIZE = 258;
+    private static final int MAX_CODE_LENGTH = 20;
+
+    private static final int[] CRC_TABLE = new int[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i << 24;
+            for (int j = 0; j < 8; j++) {
+                c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+            }
+            CRC_TABLE[i] = c;
+        }
+    }
+
+    private final InputStream mIn;
+    private final byte[] mInput = new byte[8192];
+    private int mInputPos;
+    private int mInputLength;
+    private long mBits;
+    private int mBitCount;
+
+    private int mBlockSize;
+    private int[] mTt;
+    private final int[][] mLimit = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+    private final int[][] mBase = new int[MAX_GROUPS][MAX_CODE_LENGTH + 2];
+    private final int[][] mPerm = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+    private final int[] mMinLength = new int[MAX_GROUPS];
+    private final byte[] mSelectors = new byte[32768];
+
+    // The state of the output of the current block
+    private int mTPos;
+    private int mBlockRemaining;
+    private int mLastChar;
+    private int mRunLength;
+    private int mRepeat;
+    private int mBlockCrc;
+    private int mExpectedBlockCrc;
+    private int mCombinedCrc;
+    private boolean mInBlock;
+    private boolean mEof;
+    private boolean mStarted;
+
+    /**
+     * Constructor of <code>BZip2InputStream</code>.
+     *
+     * @param in The stream where to read the bzip2 stream
+     */
+    public BZip2InputStream(InputStream in) {
+        super();
+        this.mIn = in;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.mStarted) {
+            this.mStarted = true;
+            if (!readStreamHeader(true)) {
+                throw new IOException("Not a bzip2 stream"); //$NON-NLS-1$
+            }
+        }
+        int count = 0;
+        int[] tt = this.mTt;
+        int crc = this.mBlockCrc;
+        while (count < len) {
+            if (this.mRepeat > 0) {
+                int c = this.mLastChar;
+                b[off + count++] = (byte)c;
+                crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ c) & 0xff];
+                this.mRepeat--;
+                continue;
+            }
+            if (this.mBlockRemaining > 0) {
+                this.mTPos = tt[this.mTPos];
+                int c = this.mTPos & 0xff;
+                this.mTPos >>>= 8;
+                this.mBlockRemaining--;
+                if (this.mRunLength == 4) {
+                    // The length of a run
+                    this.mRepeat = c;
+                    this.mRunLength = 0;
+                    continue;
+                }
+                if (c == this.mLastChar) {
+                    this.mRunLength++;
+                } else {
+                    this.mRunLength = 1;
+                    this.mLastChar = c;
+                }
+                b[off + count++] = (byte)c;
+                crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ c) & 0xff];
+                continue;
+            }
+
+            // The block is complete
+            this.mBlockCrc = crc;
+            if (this.mEof || count > 0) {
+                break;
+            }
+            endBlock();
+            if (!nextBlock()) {
+                break;
+            }
+            tt = this.mTt;
+            crc = this.mBlockCrc;
+        }
+        this.mBlockCrc = crc;
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.mTt = null;
+        this.mIn.close();
+    }
+
+    /**
+     * Method that verifies the CRC of the consumed block
+     *
+     * @throws IOException If the CRC doesn't match
+     */
+    private void endBlock() throws IOException {
+        if (!this.mInBlock) {
+            return;
+        }
+        this.mInBlock = false;
+        int crc = ~this.mBlockCrc;
+        if (crc != this.mExpectedBlockCrc) {
+            throw new IOException("bzip2 block CRC error"); //$NON-NLS-1$
+        }
+        this.mCombinedCrc = ((this.mCombinedCrc << 1) | (this.mCombinedCrc >>> 31)) ^ crc;
+    }
+
+    /**
+     * Method that reads the next block
+     *
+     * @return boolean If a block was read, or <code>false</code> if the end of the stream
+     * was reached
+     * @throws IOException If an I/O error occurs or the stream is corrupted
+     */
+    private boolean nextBlock() throws IOException {
+        while (true) {
+            long magic = readBits(48);
+            if (magic == BLOCK_MAGIC) {
+                readBlock();
+                return true;
+            }
+            if (magic != END_MAGIC) {
+                throw new IOException("Corrupted bzip2 stream"); //$NON-NLS-1$
+            }
+            int crc = (int)readBits(32);
+            if (crc != this.mCombinedCrc) {
+                throw new IOException("bzip2 stream CRC error"); //$NON-NLS-1$
+            }
+            // A concatenated stream?
+            this.mBitCount -= this.mBitCount % 8;
+            if (!readStreamHeader(false)) {
+                this.mEof = true;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Method that reads the header of a stream
+     *
+     * @param first If it's the first stream
+     * @return boolean If a stream header was read
+     * @throws IOException If an I/O error occurs or the header is not valid
+     */
+    private boolean readStreamHeader(boolean first) throws IOException {
+        if (!first && !hasInput()) {
+            return false;
+        }
+        if (readBits(8) != 'B' || readBits(8) != 'Z' || readBits(8) != 'h') {
+            // Not a bzip2 stream (or trailing garbage after the last stream)
+            return false;
+        }
+        int level = (int)readBits(8) - '0';
+        if (level < 1 || level > 9) {
+            throw new IOException("Corrupted bzip2 stream"); //$NON-NLS-1$
+        }
+        int size = level * 100000;
+        if (this.mTt == null || this.mBlockSize < size) {
+            this.mTt = new int[size];
+        }
+        this.mBlockSize = size;
+        this.mCombinedCrc = 0;
+        return true;
+    }
+
+    /**
+     * Method that reads and decodes a block
+     *
+     * @throws IOException If an I/O error occurs or the block is corrupted
+     */
+    private void readBlock() throws IOException {
+        this.mExpectedBlockCrc = (int)readBits(32);
+        if (readBits(1) != 0) {
+            throw new IOException("Randomised bzip2 blocks are not supported"); //$NON-NLS-1$
+        }
+        int origPtr = (int)readBits(24);
+
+        // The symbols map
+        byte[] seqToUnseq = new byte[256];
+        int nInUse = 0;
+        int ranges = (int)readBits(16);
+        for (int i = 0; i < 16; i++) {
+            if ((ranges & (1 << (15 - i))) != 0) {
+                int bits = (int)readBits(16);
+                for (int j = 0; j < 16; j++) {
+                    if ((bits & (1 << (15 - j))) != 0) {
+                        seqToUnseq[nInUse++] = (byte)(i * 16 + j);
+                    }
+                }
+            }
+        }
+        if (nInUse == 0) {
+            throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+        }
+        int alphaSize = nInUse + 2;
+
+        // The selectors
+        int nGroups = (int)readBits(3);
+        int nSelectors = (int)readBits(15);
+        if (nGroups < 2 || nGroups > MAX_GROUPS || nSelectors < 1) {
+            throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+        }
+        byte[] list = new byte[MAX_GROUPS];
+        for (int i = 0; i < nGroups; i++) {
+            list[i] = (byte)i;
+        }
+        for (int i = 0; i < nSelectors; i++) {
+            int j = 0;
+            while (readBits(1) != 0) {
+                j++;
+                if (j >= nGroups) {
+                    throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+                }
+            }
+            byte sel = list[j];
+            System.arraycopy(list, 0, list, 1, j);
+            list[0] = sel;
+            this.mSelectors[i] = sel;
+        }
+
+        // The Huffman tables
+        int[] length = new int[MAX_ALPHA_SIZE];
+        for (int t = 0; t < nGroups; t++) {
+            int cur = (int)readBits(5);
+            for (int v = 0; v < alphaSize; v++) {
+                while (true) {
+                    if (cur < 1 || cur > MAX_CODE_LENGTH) {
+                        throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+                    }
+                    if (readBits(1) == 0) {
+                        break;
+                    }
+                    cur += readBits(1) == 0 ? 1 : -1;
+                }
+                length[v] = cur;
+            }
+            createDecodeTable(t, length, alphaSize);
+        }
+
+        // The symbols (with the inverse move-to-front)
+        int[] tt = this.mTt;
+        int limitSize = this.mBlockSize;
+        int[] counts = new int[256];
+        byte[] mtf = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            mtf[i] = (byte)i;
+        }
+        int eob = nInUse + 1;
+        int n = 0;
+        int selector = 0;
+        int groupRemaining = 0;
+        int[] limit = null;
+        int[] base = null;
+        int[] perm = null;
+        int minLength = 0;
+        int run = 0;
+        int runWeight = 1;
+        while (true) {
+            if (groupRemaining == 0) {
+                if (selector >= nSelectors) {
+                    throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+                }
+                int t = this.mSelectors[selector++];
+                limit = this.mLimit[t];
+                base = this.mBase[t];
+                perm = this.mPerm[t];
+                minLength = this.mMinLength[t];
+                groupRemaining = GROUP_SIZE;
+            }
+            groupRemaining--;
+
+            // Decode a symbol
+            int len = minLength;
+            int code = (int)readBits(len);
+            while (code > limit[len]) {
+                len++;
+                if (len > MAX_CODE_LENGTH) {
+                    throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+                }
+                code = (code << 1) | (int)readBits(1);
+            }
+            int index = code - base[len];
+            if (index < 0 || index >= alphaSize) {
+                throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+            }
+            int sym = perm[index];
+
+            if (sym == RUNA || sym == RUNB) {
+                run += (sym == RUNA ? 1 : 2) * runWeight;
+                runWeight <<= 1;
+                if (run > limitSize) {
+                    throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+                }
+                continue;
+            }
+            if (run > 0) {
+                int c = seqToUnseq[mtf[0] & 0xff] & 0xff;
+                if (n + run > limitSize) {
+                    throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+                }
+                counts[c] += run;
+                while (run-- > 0) {
+                    tt[n++] = c;
+                }
+                run = 0;
+                runWeight = 1;
+            }
+            if (sym == eob) {
+                break;
+            }
+            int j = sym - 1;
+            byte seq = mtf[j];
+            System.arraycopy(mtf, 0, mtf, 1, j);
+            mtf[0] = seq;
+            int c = seqToUnseq[seq & 0xff] & 0xff;
+            if (n >= limitSize) {
+                throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+            }
+            counts[c]++;
+            tt[n++] = c;
+        }
+        if (origPtr >= n) {
+            throw new IOException("Corrupted bzip2 block"); //$NON-NLS-1$
+        }
+
+        // Inverse Burrows-Wheeler transform: tt[i] holds the byte of the last column and the
+        // position of the next byte
+        int[] cftab = new int[256];
+        int sum = 0;
+        for (int i = 0; i < 256; i++) {
+            cftab[i] = sum;
+            sum += counts[i];
+        }
+        for (int i = 0; i < n; i++) {
+            int c = tt[i] & 0xff;
+            tt[cftab[c]++] |= i << 8;
+        }
+
+        this.mTPos = tt[origPtr] >>> 8;
+        this.mBlockRemaining = n;
+        this.mLastChar = -1;
+        this.mRunLength = 0;
+        this.mRepeat = 0;
+        this.mBlockCrc = 0xffffffff;
+        this.mInBlock = true;
+    }
+
+    /**
+     * Method that creates the canonical decode table of a Huffman table
+     *
+     * @param t The table
+     * @param length The code lengths of the symbols
+     * @param alphaSize The number of symbols
+     */
+    private void createDecodeTable(int t, int[] length, int alphaSize) {
+        int[] limit = this.mLimit[t];
+        int[] base = this.mBase[t];
+        int[] perm = this.mPerm[t];
+        int minLength = MAX_CODE_LENGTH;
+        for (int v = 0; v < alphaSize; v++) {
+            minLength = Math.min(minLength, length[v]);
+        }
+        int pp = 0;
+        int code = 0;
+        for (int len = minLength; len <= MAX_CODE_LENGTH; len++) {
+            // The first code of the length, minus its index in perm
+            base[len] = code - pp;
+            for (int v = 0; v < alphaSize; v++) {
+                if (length[v] == len) {
+                    perm[pp++] = v;
+                    code++;
+                }
+            }
+            limit[len] = code - 1;
+            code <<= 1;
+        }
+        this.mMinLength[t] = minLength;
+    }
+
+    /**
+     * Method that returns if there are more bytes in the input
+     *
+     * @return boolean If there are more bytes in the input
+     * @throws IOException If an I/O error occurs
+     */
+    private boolean hasInput() throws IOException {
+        if (this.mBitCount >= 8) {
+            return true;
+        }
+        if (this.mInputPos < this.mInputLength) {
+            return true;
+        }
+        this.mInputLength = this.mIn.read(this.mInput, 0, this.mInput.length);
+        this.mInputPos = 0;
+        return this.mInputLength > 0;
+    }
+
+    /**
+     * Method that reads bits from the input
+     *
+     * @param n The number of bits (up to 48)
+     * @return long The bits
+     * @throws IOException If an I/O error occurs or the input ends
+     */
+    private long readBits(int n) throws IOException {
+        if (n > 24) {
+            long high = readBits(n - 24);
+            return (high << 24) | readBits(24);
+        }
+        while (this.mBitCount < n) {
+            if (this.mInputPos == this.mInputLength) {
+                this.mInputLength = this.mIn.read(this.mInput, 0, this.mInput.length);
+                this.mInputPos = 0;
+                if (this.mInputLength <= 0) {
+                    this.mInputLength = 0;
+                    throw new EOFException("Unexpected end of the bzip2 stream"); //$NON-NLS-1$
+                }
+            }
+            this.mBits = (this.mBits << 8) | (this.mInput[this.mInputPos++] & 0xff);
+            this.mBitCount += 8;
+        }
+        this.mBitCount -= n;
+        return (this.mBits >>> this.mBitCount) & ((1L << n) - 1);
+    }
+}
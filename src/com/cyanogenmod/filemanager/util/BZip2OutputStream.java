@@ -0,0 +1,777 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An output stream that writes a bzip2 stream.
+ * <br/>
+ * The blocks of a bzip2 stream are independent, so every block is encoded (Burrows-Wheeler
+ * transform, move-to-front and Huffman coding) in a thread of a pool, and the encoded blocks
+ * are appended in order to the stream. The output is a standard single bzip2 stream. The
+ * number of blocks encoded at the same time is limited by the available memory.
+ */
+public class BZip2OutputStream extends OutputStream {
+
+    // The block size (the same as "bzip2 -9")
+    private static final int LEVEL = 9;
+    private static final int BLOCK_CAPACITY = LEVEL * 100000;
+    // bzip2 leaves some room to the last run of a block
+    private static final int BLOCK_LIMIT = BLOCK_CAPACITY - 19;
+
+    // The memory used to encode a block (the block, the rotations and the MTF values)
+    private static final long BLOCK_MEMORY = BLOCK_CAPACITY * 24L;
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+
+    // The MTF symbols
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+
+    private static final int GROUP_SIZE = 50;
+    private static final int MAX_GROUPS = 6;
+    private static final int MAX_CODE_LENGTH = 17;
+    private static final int ITERATIONS = 4;
+
+    private static final int[] CRC_TABLE = new int[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i << 24;
+            for (int j = 0; j < 8; j++) {
+                c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+            }
+            CRC_TABLE[i] = c;
+        }
+    }
+
+    private final BitWriter mOut;
+    private final ExecutorService mExecutor;
+    private final int mMaxInFlight;
+    private final ArrayDeque<Future<BitWriter>> mInFlight = new ArrayDeque<Future<BitWriter>>();
+    private final ArrayDeque<byte[]> mFreeBlocks = new ArrayDeque<byte[]>();
+    private final ThreadLocal<Encoder> mEncoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    private byte[] mBlock;
+    private int mBlockLength;
+    private int mBlockCrc = 0xffffffff;
+    private int mCombinedCrc;
+
+    // The run of the first run length encoding
+    private int mRunChar = -1;
+    private int mRunLength;
+
+    private boolean mHeader;
+    private boolean mFinished;
+
+    /**
+     * Constructor of <code>BZip2OutputStream</code>.
+     *
+     * @param out The stream where to write the bzip2 stream
+     */
+    public BZip2OutputStream(OutputStream out) {
+        super();
+        this.mOut = new BitWriter(out);
+        long memory = Runtime.getRuntime().maxMemory() / 4;
+        int threads = (int)Math.max(1, Math.min(
+                Math.min(4, Runtime.getRuntime().availableProcessors()),
+                memory / BLOCK_MEMORY));
+        this.mExecutor = Executors.newFixedThreadPool(threads);
+        this.mMaxInFlight = threads + 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.mFinished) {
+            throw new IOException("Stream finished"); //$NON-NLS-1$
+        }
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            int c = b[i] & 0xff;
+            if (c == this.mRunChar && this.mRunLength < 255) {
+                this.mRunLength++;
+            } else {
+                if (this.mRunChar != -1) {
+                    writeRun();
+                }
+                this.mRunChar = c;
+                this.mRunLength = 1;
+            }
+        }
+    }
+
+    /**
+     * Method that completes the bzip2 stream without closing the underlying stream.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (this.mFinished) {
+            return;
+        }
+        if (this.mRunChar != -1) {
+            writeRun();
+            this.mRunChar = -1;
+        }
+        if (this.mBlockLength > 0) {
+            endBlock();
+        }
+        writeHeader();
+        while (!this.mInFlight.isEmpty()) {
+            writeBlock(this.mInFlight.poll());
+        }
+        this.mOut.writeBits(24, (int)(END_MAGIC >>> 24));
+        this.mOut.writeBits(24, (int)END_MAGIC);
+        this.mOut.writeInt(this.mCombinedCrc);
+        this.mOut.flush();
+        this.mFinished = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        this.mOut.mOut.flush();
+    }
+
+    /**
+     * Method that releases the threads of the encoding. This method doesn't complete the
+     * stream nor closes the underlying stream.
+     */
+    public void release() {
+        this.mExecutor.shutdownNow();
+        this.mInFlight.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            this.mOut.mOut.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Method that writes the current run to the block. Runs of 4 or more bytes are written as
+     * 4 bytes and the number of remaining bytes.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeRun() throws IOException {
+        if (this.mBlock == null) {
+            synchronized (this.mFreeBlocks) {
+                this.mBlock = this.mFreeBlocks.poll();
+            }
+            if (this.mBlock == null) {
+                this.mBlock = new byte[BLOCK_CAPACITY];
+            }
+        }
+        byte c = (byte)this.mRunChar;
+        int crc = this.mBlockCrc;
+        for (int i = 0; i < this.mRunLength; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ this.mRunChar) & 0xff];
+        }
+        this.mBlockCrc = crc;
+
+        byte[] block = this.mBlock;
+        int len = this.mBlockLength;
+        if (this.mRunLength < 4) {
+            for (int i = 0; i < this.mRunLength; i++) {
+                block[len++] = c;
+            }
+        } else {
+            block[len++] = c;
+            block[len++] = c;
+            block[len++] = c;
+            block[len++] = c;
+            block[len++] = (byte)(this.mRunLength - 4);
+        }
+        this.mBlockLength = len;
+        if (len >= BLOCK_LIMIT) {
+            endBlock();
+        }
+    }
+
+    /**
+     * Method that enqueues the encoding of the current block
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void endBlock() throws IOException {
+        writeHeader();
+        final byte[] block = this.mBlock;
+        final int length = this.mBlockLength;
+        final int crc = ~this.mBlockCrc;
+        this.mCombinedCrc = ((this.mCombinedCrc << 1) | (this.mCombinedCrc >>> 31)) ^ crc;
+        this.mBlock = null;
+        this.mBlockLength = 0;
+        this.mBlockCrc = 0xffffffff;
+
+        while (this.mInFlight.size() >= this.mMaxInFlight) {
+            writeBlock(this.mInFlight.poll());
+        }
+        this.mInFlight.add(this.mExecutor.submit(new Callable<BitWriter>() {
+            @Override
+            public BitWriter call() {
+                BitWriter bits = new BitWriter(null);
+                BZip2OutputStream.this.mEncoders.get().encode(block, length, crc, bits);
+                synchronized (BZip2OutputStream.this.mFreeBlocks) {
+                    BZip2OutputStream.this.mFreeBlocks.add(block);
+                }
+                return bits;
+            }
+        }));
+    }
+
+    /**
+     * Method that waits for an encoded block and appends it to the stream
+     *
+     * @param future The block being encoded
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeBlock(Future<BitWriter> future) throws IOException {
+        BitWriter bits;
+        try {
+            bits = future.get();
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException ee) {
+            throw new IOException(ee.getCause());
+        }
+        this.mOut.append(bits);
+    }
+
+    /**
+     * Method that writes the header of the stream, if it wasn't written yet
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeHeader() throws IOException {
+        if (!this.mHeader) {
+            this.mOut.writeBits(8, 'B');
+            this.mOut.writeBits(8, 'Z');
+            this.mOut.writeBits(8, 'h');
+            this.mOut.writeBits(8, '0' + LEVEL);
+            this.mHeader = true;
+        }
+    }
+
+    /**
+     * A writer of bits, to a stream or to memory
+     */
+    private static class BitWriter {
+        final OutputStream mOut;
+        byte[] mBuffer;
+        int mLength;
+        private long mBits;
+        private int mCount;
+
+        BitWriter(OutputStream out) {
+            super();
+            this.mOut = out;
+            this.mBuffer = new byte[out != null ? 64 * 1024 : BLOCK_CAPACITY / 2];
+        }
+
+        void writeBits(int n, int value) throws IOException {
+            this.mBits = (this.mBits << n) | (value & ((1L << n) - 1));
+            this.mCount += n;
+            while (this.mCount >= 8) {
+                this.mCount -= 8;
+                put((byte)(this.mBits >>> this.mCount));
+            }
+        }
+
+        void writeInt(int value) throws IOException {
+            writeBits(16, value >>> 16);
+            writeBits(16, value);
+        }
+
+        void append(BitWriter bits) throws IOException {
+            byte[] buffer = bits.mBuffer;
+            int len = bits.mLength;
+            if (this.mCount == 0) {
+                for (int i = 0; i < len; i++) {
+                    put(buffer[i]);
+                }
+            } else {
+                for (int i = 0; i < len; i++) {
+                    writeBits(8, buffer[i]);
+                }
+            }
+            if (bits.mCount > 0) {
+                writeBits(bits.mCount, (int)bits.mBits);
+            }
+        }
+
+        void flush() throws IOException {
+            if (this.mCount > 0) {
+                put((byte)(this.mBits << (8 - this.mCount)));
+                this.mCount = 0;
+            }
+            if (this.mOut != null && this.mLength > 0) {
+                this.mOut.write(this.mBuffer, 0, this.mLength);
+                this.mLength = 0;
+            }
+        }
+
+        private void put(byte b) throws IOException {
+            if (this.mLength == this.mBuffer.length) {
+                if (this.mOut != null) {
+                    this.mOut.write(this.mBuffer, 0, this.mLength);
+                    this.mLength = 0;
+                } else {
+                    this.mBuffer = Arrays.copyOf(this.mBuffer, this.mBuffer.length * 2);
+                }
+            }
+            this.mBuffer[this.mLength++] = b;
+        }
+    }
+
+    /**
+     * The encoder of a block. Every thread has its own encoder, so the work arrays are reused.
+     */
+    private static class Encoder {
+        private final int[] mRotations = new int[BLOCK_CAPACITY];
+        private final int[] mClasses = new int[BLOCK_CAPACITY];
+        private final int[] mWork1 = new int[BLOCK_CAPACITY];
+        private final int[] mWork2 = new int[BLOCK_CAPACITY];
+        private final char[] mMtf = new char[BLOCK_CAPACITY + 1];
+        private final byte[] mSelectors = new byte[BLOCK_CAPACITY / GROUP_SIZE + 2];
+        private final int[][] mLengths = new int[MAX_GROUPS][258];
+        private final int[][] mCodes = new int[MAX_GROUPS][258];
+        private final int[][] mFrequencies = new int[MAX_GROUPS][258];
+        private final int[] mMtfFrequencies = new int[258];
+
+        void encode(byte[] block, int n, int crc, BitWriter out) {
+            try {
+                int origPtr = sortRotations(block, n);
+
+                // The symbols used in the block
+                boolean[] inUse = new boolean[256];
+                for (int i = 0; i < n; i++) {
+                    inUse[block[i] & 0xff] = true;
+                }
+                int nInUse = 0;
+                byte[] unseqToSeq = new byte[256];
+                for (int i = 0; i < 256; i++) {
+                    if (inUse[i]) {
+                        unseqToSeq[i] = (byte)nInUse++;
+                    }
+                }
+                int alphaSize = nInUse + 2;
+                int nMtf = moveToFront(block, n, unseqToSeq, nInUse);
+
+                // Block header
+                out.writeBits(24, (int)(BLOCK_MAGIC >>> 24));
+                out.writeBits(24, (int)BLOCK_MAGIC);
+                out.writeInt(crc);
+                out.writeBits(1, 0);
+                out.writeBits(24, origPtr);
+
+                // The symbols map
+                int ranges = 0;
+                for (int i = 0; i < 16; i++) {
+                    for (int j = 0; j < 16; j++) {
+                        if (inUse[i * 16 + j]) {
+                            ranges |= 1 << (15 - i);
+                            break;
+                        }
+                    }
+                }
+                out.writeBits(16, ranges);
+                for (int i = 0; i < 16; i++) {
+                    if ((ranges & (1 << (15 - i))) != 0) {
+                        int bits = 0;
+                        for (int j = 0; j < 16; j++) {
+                            if (inUse[i * 16 + j]) {
+                                bits |= 1 << (15 - j);
+                            }
+                        }
+                        out.writeBits(16, bits);
+                    }
+                }
+
+                writeHuffman(nMtf, alphaSize, out);
+            } catch (IOException e) {
+                // Never thrown by a memory writer
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Sorts the rotations of the block by prefix doubling, and returns the position of the
+         * original block (the rotation 0) in the sorted rotations
+         */
+        private int sortRotations(byte[] s, int n) {
+            int[] p = this.mRotations;
+            int[] c = this.mClasses;
+            int[] pn = this.mWork1;
+            int[] cn = this.mWork2;
+            // The counters are only needed before the new classes are computed
+            int[] cnt = cn;
+
+            Arrays.fill(cnt, 0, 256, 0);
+            for (int i = 0; i < n; i++) {
+                cnt[s[i] & 0xff]++;
+            }
+            for (int i = 1; i < 256; i++) {
+                cnt[i] += cnt[i - 1];
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                p[--cnt[s[i] & 0xff]] = i;
+            }
+            c[p[0]] = 0;
+            int classes = 1;
+            for (int i = 1; i < n; i++) {
+                if (s[p[i]] != s[p[i - 1]]) {
+                    classes++;
+                }
+                c[p[i]] = classes - 1;
+            }
+
+            for (int h = 1; h < n && classes < n; h <<= 1) {
+                for (int i = 0; i < n; i++) {
+                    int v = p[i] - h;
+                    pn[i] = v < 0 ? v + n : v;
+                }
+                cnt = cn;
+                Arrays.fill(cnt, 0, classes, 0);
+                for (int i = 0; i < n; i++) {
+                    cnt[c[pn[i]]]++;
+                }
+                for (int i = 1; i < classes; i++) {
+                    cnt[i] += cnt[i - 1];
+                }
+                for (int i = n - 1; i >= 0; i--) {
+                    p[--cnt[c[pn[i]]]] = pn[i];
+                }
+                cn[p[0]] = 0;
+                classes = 1;
+                int prev1 = c[p[0]];
+                int prev2 = c[p[0] + h < n ? p[0] + h : p[0] + h - n];
+                for (int i = 1; i < n; i++) {
+                    int cur1 = c[p[i]];
+                    int cur2 = c[p[i] + h < n ? p[i] + h : p[i] + h - n];
+                    if (cur1 != prev1 || cur2 != prev2) {
+                        classes++;
+                    }
+                    cn[p[i]] = classes - 1;
+                    prev1 = cur1;
+                    prev2 = cur2;
+                }
+                int[] tmp = c;
+                c = cn;
+                cn = tmp;
+            }
+
+            for (int i = 0; i < n; i++) {
+                if (p[i] == 0) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Applies the move-to-front transform to the last column of the sorted rotations,
+         * and encodes the runs of zeros with RUNA and RUNB. Returns the number of symbols.
+         */
+        private int moveToFront(byte[] s, int n, byte[] unseqToSeq, int nInUse) {
+            int[] p = this.mRotations;
+            char[] mtf = this.mMtf;
+            int[] freq = this.mMtfFrequencies;
+            Arrays.fill(freq, 0);
+            byte[] list = new byte[nInUse];
+            for (int i = 0; i < nInUse; i++) {
+                list[i] = (byte)i;
+            }
+
+            int count = 0;
+            int zeros = 0;
+            for (int i = 0; i < n; i++) {
+                int pos = p[i] - 1;
+                byte seq = unseqToSeq[s[pos < 0 ? pos + n : pos] & 0xff];
+                if (list[0] == seq) {
+                    zeros++;
+                    continue;
+                }
+                if (zeros > 0) {
+                    count = writeZeros(zeros, count);
+                    zeros = 0;
+                }
+                int j = 1;
+                while (list[j] != seq) {
+                    j++;
+                }
+                System.arraycopy(list, 0, list, 1, j);
+                list[0] = seq;
+                mtf[count++] = (char)(j + 1);
+                freq[j + 1]++;
+            }
+            if (zeros > 0) {
+                count = writeZeros(zeros, count);
+            }
+            mtf[count++] = (char)(nInUse + 1);
+            freq[nInUse + 1]++;
+            return count;
+        }
+
+        private int writeZeros(int zeros, int count) {
+            char[] mtf = this.mMtf;
+            int[] freq = this.mMtfFrequencies;
+            // Bijective base 2 with the digits RUNA (1) and RUNB (2)
+            zeros--;
+            while (true) {
+                if ((zeros & 1) == 0) {
+                    mtf[count++] = RUNA;
+                    freq[RUNA]++;
+                } else {
+                    mtf[count++] = RUNB;
+                    freq[RUNB]++;
+                }
+                if (zeros < 2) {
+                    break;
+                }
+                zeros = (zeros - 2) >> 1;
+            }
+            return count;
+        }
+
+        /**
+         * Selects the Huffman tables of every group of symbols, and writes the tables, the
+         * selectors and the symbols
+         */
+        private void writeHuffman(int nMtf, int alphaSize, BitWriter out) throws IOException {
+            char[] mtf = this.mMtf;
+            int nGroups = nMtf < 200 ? 2 : nMtf < 600 ? 3 : nMtf < 1200 ? 4
+                    : nMtf < 2400 ? 5 : 6;
+
+            // Initial tables: every table covers a range of symbols with similar frequency
+            int remaining = nMtf;
+            int start = 0;
+            for (int part = nGroups; part > 0; part--) {
+                int target = remaining / part;
+                int end = start - 1;
+                int acc = 0;
+                while (acc < target && end < alphaSize - 1) {
+                    end++;
+                    acc += this.mMtfFrequencies[end];
+                }
+                if (end > start && part != nGroups && part != 1
+                        && ((nGroups - part) % 2 == 1)) {
+                    acc -= this.mMtfFrequencies[end];
+                    end--;
+                }
+                int[] len = this.mLengths[part - 1];
+                for (int v = 0; v < alphaSize; v++) {
+                    len[v] = (v >= start && v <= end) ? 0 : 15;
+                }
+                start = end + 1;
+                remaining -= acc;
+            }
+
+            // Refine the tables
+            int nSelectors = 0;
+            int[] cost = new int[MAX_GROUPS];
+            for (int iter = 0; iter < ITERATIONS; iter++) {
+                for (int t = 0; t < nGroups; t++) {
+                    Arrays.fill(this.mFrequencies[t], 0);
+                }
+                nSelectors = 0;
+                for (int gs = 0; gs < nMtf; gs += GROUP_SIZE) {
+                    int ge = Math.min(gs + GROUP_SIZE, nMtf);
+                    Arrays.fill(cost, 0);
+                    for (int i = gs; i < ge; i++) {
+                        int v = mtf[i];
+                        for (int t = 0; t < nGroups; t++) {
+                            cost[t] += this.mLengths[t][v];
+                        }
+                    }
+                    int best = 0;
+                    for (int t = 1; t < nGroups; t++) {
+                        if (cost[t] < cost[best]) {
+                            best = t;
+                        }
+                    }
+                    this.mSelectors[nSelectors++] = (byte)best;
+                    int[] freq = this.mFrequencies[best];
+                    for (int i = gs; i < ge; i++) {
+                        freq[mtf[i]]++;
+                    }
+                }
+                for (int t = 0; t < nGroups; t++) {
+                    makeCodeLengths(this.mLengths[t], this.mFrequencies[t], alphaSize);
+                }
+            }
+
+            // Canonical codes
+            for (int t = 0; t < nGroups; t++) {
+                int[] len = this.mLengths[t];
+                int[] code = this.mCodes[t];
+                int next = 0;
+                for (int l = 1; l <= MAX_CODE_LENGTH; l++) {
+                    for (int v = 0; v < alphaSize; v++) {
+                        if (len[v] == l) {
+                            code[v] = next++;
+                        }
+                    }
+                    next <<= 1;
+                }
+            }
+
+            // The number of tables and the selectors (move-to-front coded, in unary)
+            out.writeBits(3, nGroups);
+            out.writeBits(15, nSelectors);
+            byte[] list = new byte[nGroups];
+            for (int t = 0; t < nGroups; t++) {
+                list[t] = (byte)t;
+            }
+            for (int i = 0; i < nSelectors; i++) {
+                byte sel = this.mSelectors[i];
+                int j = 0;
+                while (list[j] != sel) {
+                    j++;
+                }
+                System.arraycopy(list, 0, list, 1, j);
+                list[0] = sel;
+                for (int k = 0; k < j; k++) {
+                    out.writeBits(1, 1);
+                }
+                out.writeBits(1, 0);
+            }
+
+            // The code lengths of the tables (delta coded)
+            for (int t = 0; t < nGroups; t++) {
+                int[] len = this.mLengths[t];
+                int cur = len[0];
+                out.writeBits(5, cur);
+                for (int v = 0; v < alphaSize; v++) {
+                    while (cur < len[v]) {
+                        out.writeBits(2, 2);
+                        cur++;
+                    }
+                    while (cur > len[v]) {
+                        out.writeBits(2, 3);
+                        cur--;
+                    }
+                    out.writeBits(1, 0);
+                }
+            }
+
+            // The symbols
+            int sel = 0;
+            for (int gs = 0; gs < nMtf; gs += GROUP_SIZE) {
+                int ge = Math.min(gs + GROUP_SIZE, nMtf);
+                int t = this.mSelectors[sel++];
+                int[] len = this.mLengths[t];
+                int[] code = this.mCodes[t];
+                for (int i = gs; i < ge; i++) {
+                    int v = mtf[i];
+                    out.writeBits(len[v], code[v]);
+                }
+            }
+        }
+
+        /**
+         * Computes the lengths of a Huffman code limited to {@link #MAX_CODE_LENGTH} bits.
+         * All the symbols get a code, even if they aren't used.
+         */
+        private static void makeCodeLengths(int[] len, int[] freq, int alphaSize) {
+            long[] weight = new long[alphaSize];
+            for (int v = 0; v < alphaSize; v++) {
+                weight[v] = Math.max(1, freq[v]);
+            }
+            int[] parent = new int[alphaSize * 2];
+            while (true) {
+                // Nodes are sorted by weight and then by depth, to get shallow trees. The
+                // key holds the weight, the depth and the node
+                PriorityQueue<Long> heap = new PriorityQueue<Long>(alphaSize);
+                for (int v = 0; v < alphaSize; v++) {
+                    heap.add(Long.valueOf((weight[v] << 24) | v));
+                }
+                int nodes = alphaSize;
+                while (heap.size() > 1) {
+                    long a = heap.poll().longValue();
+                    long b = heap.poll().longValue();
+                    int na = (int)(a & 0xffff);
+                    int nb = (int)(b & 0xffff);
+                    long depth = Math.max((a >> 16) & 0xff, (b >> 16) & 0xff) + 1;
+                    long w = (a >>> 24) + (b >>> 24);
+                    parent[na] = nodes;
+                    parent[nb] = nodes;
+                    heap.add(Long.valueOf((w << 24) | (depth << 16) | nodes));
+                    nodes++;
+                }
+                int root = nodes - 1;
+
+                boolean tooLong = false;
+                for (int v = 0; v < alphaSize; v++) {
+                    int l = 0;
+                    int k = v;
+                    while (k != root) {
+                        k = parent[k];
+                        l++;
+                    }
+                    len[v] = l;
+                    if (l > MAX_CODE_LENGTH) {
+                        tooLong = true;
+                    }
+                }
+                if (!tooLong) {
+                    return;
+                }
+                for (int v = 0; v < alphaSize; v++) {
+                    weight[v] = 1 + (weight[v] / 2);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.util;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.model.FileSystemObject;
+import com.cyanogenmod.filemanager.model.Query;
+import com.cyanogenmod.filemanager.model.SearchResult;
+import com.cyanogenmod.filemanager.preferences.SearchSortResultMode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A class that holds only the best K results of a search in memory, while the rest
+ * of the results are spilled to disk.<br/>
+ * <br/>
+ * The best results are kept in a bounded heap. The results evicted from the heap are
+ * buffered, sorted and written to disk as sorted runs, which are merged while the search
+ * runs (in groups of {@link #MERGE_FACTOR} runs) and finally into a single sorted
+ * run when the search ends. That run acts as a cursor to load more results on demand.
+ * In any case, the memory used by the heap doesn't depend of the number of results
+ * of the search.
+ */
+public class BoundedSearchResultHeap {
+
+    private static final String TAG = "BoundedSearchResultHeap"; //$NON-NLS-1$
+
+    /**
+     * The default number of results kept in memory.
+     */
+    public static final int DEFAULT_CAPACITY = 500;
+
+    private static final int SPILL_BUFFER_SIZE = 512;
+    private static final int MERGE_FACTOR = 16;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * An entry of the heap. The sequence allows to keep the order of arrival of
+     * the results with the same sort key.
+     */
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = -4812233907245817721L;
+
+        Entry(long sequence, SearchResult result) {
+            super();
+            this.mSequence = sequence;
+            this.mResult = result;
+        }
+        final long mSequence;
+        final SearchResult mResult;
+    }
+
+    /**
+     * A sorted run of entries stored in disk.
+     */
+    private static class Run {
+        Run(File file, int level, int count) {
+            super();
+            this.mFile = file;
+            this.mLevel = level;
+            this.mCount = count;
+        }
+        final File mFile;
+        final int mLevel;
+        final int mCount;
+    }
+
+    /**
+     * A sequential reader of a sorted run.
+     */
+    private static class RunReader {
+        RunReader(Run run) throws IOException {
+            super();
+            this.mIn = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(run.mFile), IO_BUFFER_SIZE));
+            this.mRemaining = run.mCount;
+        }
+        Entry next() throws IOException {
+            if (this.mRemaining <= 0) {
+                return null;
+            }
+            try {
+                this.mRemaining--;
+                return (Entry)this.mIn.readObject();
+            } catch (ClassNotFoundException cnfe) {
+                throw new IOException(cnfe);
+            } catch (EOFException eofe) {
+                this.mRemaining = 0;
+                return null;
+            }
+        }
+        void close() {
+            try {
+                this.mIn.close();
+            } catch (Throwable ex) {/**NON BLOCK**/}
+        }
+        final ObjectInputStream mIn;
+        int mRemaining;
+    }
+
+    private final File mSpillDir;
+    private final Query mQuery;
+    private final int mCapacity;
+    private final Comparator<Entry> mComparator;
+    private final PriorityQueue<Entry> mHeap;
+    private final List<Entry> mSpillBuffer;
+    private final List<Run> mRuns;
+
+    private long mSequence;
+    // Read without the lock, so the count is shown while the results are merged
+    private volatile int mTotalCount;
+    private int mSpillCount;
+    private boolean mFinished;
+    private RunReader mCursor;
+
+    /**
+     * Constructor of <code>BoundedSearchResultHeap</code>.
+     *
+     * @param spillDir The directory where to write the spilled results
+     * @param query The query of the search (for calculate the relevance of the results)
+     * @param mode The sort mode of the results
+     * @param capacity The maximum number of results kept in memory
+     */
+    public BoundedSearchResultHeap(
+            File spillDir, Query query, SearchSortResultMode mode, int capacity) {
+        super();
+        this.mSpillDir = spillDir;
+        this.mQuery = query;
+        this.mCapacity = capacity;
+        final Comparator<SearchResult> resultComparator = SearchHelper.getResultComparator(mode);
+        this.mComparator = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                if (resultComparator != null) {
+                    int c = resultComparator.compare(lhs.mResult, rhs.mResult);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return Long.compare(lhs.mSequence, rhs.mSequence);
+            }
+        };
+        // The head of the heap is the worst result
+        this.mHeap = new PriorityQueue<Entry>(capacity + 1, Collections.reverseOrder(mComparator));
+        this.mSpillBuffer = new ArrayList<Entry>(SPILL_BUFFER_SIZE);
+        this.mRuns = new ArrayList<Run>();
+        this.mSequence = 0;
+        this.mTotalCount = 0;
+        this.mSpillCount = 0;
+        this.mFinished = false;
+        this.mCursor = null;
+    }
+
+    /**
+     * Method that adds a new result to the heap.
+     *
+     * @param fso The file system object found
+     */
+    public synchronized void add(FileSystemObject fso) {
+        if (this.mFinished) {
+            return;
+        }
+        this.mTotalCount++;
+        Entry entry = new Entry(this.mSequence++,
+                new SearchResult(SearchHelper.calculateRelevance(fso, this.mQuery), fso));
+        if (this.mHeap.size() < this.mCapacity) {
+            this.mHeap.add(entry);
+            return;
+        }
+
+        // Keep the best result in memory and spill the worst
+        Entry worst = this.mHeap.peek();
+        if (this.mComparator.compare(entry, worst) < 0) {
+            this.mHeap.poll();
+            this.mHeap.add(entry);
+            spill(worst);
+        } else {
+            spill(entry);
+        }
+    }
+
+    /**
+     * Method that adds a list of new results to the heap.
+     *
+     * @param files The file system objects found
+     */
+    public synchronized void addAll(List<FileSystemObject> files) {
+        int cc = files.size();
+        for (int i = 0; i < cc; i++) {
+            add(files.get(i));
+        }
+    }
+
+    /**
+     * Method that returns the total number of results added to the heap.
+     *
+     * @return int The total number of results
+     */
+    public int getTotalCount() {
+        return this.mTotalCount;
+    }
+
+    /**
+     * Method that notifies that the search has ended. The spilled results are merged
+     * in a single sorted run.
+     */
+    public synchronized void finish() {
+        if (this.mFinished) {
+            return;
+        }
+        this.mFinished = true;
+        try {
+            flushSpillBuffer();
+            if (this.mRuns.size() > 1) {
+                mergeRuns(new ArrayList<Run>(this.mRuns));
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Failed to merge the spilled results", ioe); //$NON-NLS-1$
+            deleteRuns();
+        }
+    }
+
+    /**
+     * Method that returns the best results of the search, sorted.
+     *
+     * @return List<SearchResult> The best results of the search
+     */
+    public synchronized List<SearchResult> getTopResults() {
+        List<Entry> entries = new ArrayList<Entry>(this.mHeap);
+        Collections.sort(entries, this.mComparator);
+        int cc = entries.size();
+        List<SearchResult> results = new ArrayList<SearchResult>(cc);
+        for (int i = 0; i < cc; i++) {
+            results.add(entries.get(i).mResult);
+        }
+        return results;
+    }
+
+    /**
+     * Method that returns if there are more results that the returned by
+     * {@link #getTopResults()} and {@link #loadMore(int)}.
+     *
+     * @return boolean If there are more results
+     */
+    public synchronized boolean hasMore() {
+        if (!this.mFinished || this.mRuns.isEmpty()) {
+            return false;
+        }
+        return this.mCursor == null || this.mCursor.mRemaining > 0;
+    }
+
+    /**
+     * Method that returns the next results of the search (the ones that are not
+     * in the heap), sorted. This method resumes from the last returned result.
+     *
+     * @param count The maximum number of results to return
+     * @return List<SearchResult> The next results
+     */
+    public synchronized List<SearchResult> loadMore(int count) {
+        List<SearchResult> results = new ArrayList<SearchResult>(count);
+        if (!hasMore()) {
+            return results;
+        }
+        try {
+            if (this.mCursor == null) {
+                this.mCursor = new RunReader(this.mRuns.get(0));
+            }
+            for (int i = 0; i < count; i++) {
+                Entry entry = this.mCursor.next();
+                if (entry == null) {
+                    break;
+                }
+                results.add(entry.mResult);
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Failed to read the spilled results", ioe); //$NON-NLS-1$
+            if (this.mCursor != null) {
+                this.mCursor.mRemaining = 0;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Method that releases the resources of the heap, removing the spilled results.
+     */
+    public synchronized void dispose() {
+        this.mFinished = true;
+        this.mHeap.clear();
+        this.mSpillBuffer.clear();
+        if (this.mCursor != null) {
+            this.mCursor.close();
+            this.mCursor = null;
+        }
+        deleteRuns();
+    }
+
+    /**
+     * Method that spills an entry to disk.
+     *
+     * @param entry The entry to spill
+     */
+    private void spill(Entry entry) {
+        this.mSpillBuffer.add(entry);
+        if (this.mSpillBuffer.size() >= SPILL_BUFFER_SIZE) {
+            try {
+                flushSpillBuffer();
+                compactRuns();
+            } catch (IOException ioe) {
+                // The spilled results are lost, but the best results are still in memory
+                Log.w(TAG, "Failed to spill results", ioe); //$NON-NLS-1$
+                this.mSpillBuffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Method that writes the spill buffer as a new sorted run.
+     *
+     * @throws IOException If the run couldn't be written
+     */
+    private void flushSpillBuffer() throws IOException {
+        if (this.mSpillBuffer.isEmpty()) {
+            return;
+        }
+        Collections.sort(this.mSpillBuffer, this.mComparator);
+        File file = createRunFile();
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), IO_BUFFER_SIZE));
+        try {
+            int cc = this.mSpillBuffer.size();
+            for (int i = 0; i < cc; i++) {
+                writeEntry(out, this.mSpillBuffer.get(i));
+            }
+        } finally {
+            out.close();
+        }
+        this.mRuns.add(new Run(file, 0, this.mSpillBuffer.size()));
+        this.mSpillBuffer.clear();
+    }
+
+    /**
+     * Method that merges the runs of the same level when they reach the merge factor,
+     * so the number of runs (and open files while merging) is kept small.
+     *
+     * @throws IOException If the runs couldn't be merged
+     */
+    private void compactRuns() throws IOException {
+        int level = 0;
+        while (this.mRuns.size() >= MERGE_FACTOR) {
+            List<Run> runs = new ArrayList<Run>();
+            boolean upperLevels = false;
+            int cc = this.mRuns.size();
+            for (int i = 0; i < cc; i++) {
+                Run run = this.mRuns.get(i);
+                if (run.mLevel == level) {
+                    runs.add(run);
+                } else if (run.mLevel > level) {
+                    upperLevels = true;
+                }
+            }
+            if (runs.size() >= MERGE_FACTOR) {
+                mergeRuns(runs);
+            } else if (!upperLevels) {
+                break;
+            }
+            level++;
+        }
+    }
+
+    /**
+     * Method that merges a set of sorted runs in a new sorted run.
+     *
+     * @param runs The runs to merge
+     * @throws IOException If the runs couldn't be merged
+     */
+    private void mergeRuns(List<Run> runs) throws IOException {
+        int cc = runs.size();
+        final List<RunReader> readers = new ArrayList<RunReader>(cc);
+        final List<Entry> heads = new ArrayList<Entry>(cc);
+        File file = createRunFile();
+        ObjectOutputStream out = null;
+        int count = 0;
+        int level = 0;
+        try {
+            // Open the runs
+            PriorityQueue<Integer> queue = new PriorityQueue<Integer>(cc,
+                    new Comparator<Integer>() {
+                        @Override
+                        public int compare(Integer lhs, Integer rhs) {
+                            return mComparator.compare(
+                                    heads.get(lhs.intValue()), heads.get(rhs.intValue()));
+                        }
+                    });
+            for (int i = 0; i < cc; i++) {
+                Run run = runs.get(i);
+                level = Math.max(level, run.mLevel + 1);
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                heads.add(reader.next());
+                if (heads.get(i) != null) {
+                    queue.add(Integer.valueOf(i));
+                }
+            }
+
+            // k-way merge
+            out = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), IO_BUFFER_SIZE));
+            while (!queue.isEmpty()) {
+                Integer index = queue.poll();
+                int i = index.intValue();
+                writeEntry(out, heads.get(i));
+                count++;
+                heads.set(i, readers.get(i).next());
+                if (heads.get(i) != null) {
+                    queue.add(index);
+                }
+            }
+        } finally {
+            for (int i = 0; i < readers.size(); i++) {
+                readers.get(i).close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+
+        // Replace the merged runs
+        for (int i = 0; i < cc; i++) {
+            Run run = runs.get(i);
+            this.mRuns.remove(run);
+            if (!run.mFile.delete()) {
+                Log.w(TAG, "Failed to delete run " + run.mFile); //$NON-NLS-1$
+            }
+        }
+        this.mRuns.add(new Run(file, level, count));
+    }
+
+    /**
+     * Method that writes an entry to a run.
+     *
+     * @param out The output stream of the run
+     * @param entry The entry to write
+     * @throws IOException If the entry couldn't be written
+     */
+    private static void writeEntry(ObjectOutputStream out, Entry entry) throws IOException {
+        out.writeObject(entry);
+        // Entries are never shared, so don't retain the references in the stream
+        out.reset();
+    }
+
+    /**
+     * Method that creates a new file for a run.
+     *
+     * @return File The file of the run
+     * @throws IOException If the file couldn't be created
+     */
+    private File createRunFile() throws IOException {
+        if (!this.mSpillDir.exists() && !this.mSpillDir.mkdirs()) {
+            throw new IOException("Can't create " + this.mSpillDir); //$NON-NLS-1$
+        }
+        return File.createTempFile(
+                String.format("search-%d-", Integer.valueOf(this.mSpillCount++)), //$NON-NLS-1$
+                ".run", this.mSpillDir); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that deletes all the runs.
+     */
+    private void deleteRuns() {
+        int cc = this.mRuns.size();
+        for (int i = 0; i < cc; i++) {
+            this.mRuns.get(i).mFile.delete();
+        }
+        this.mRuns.clear();
+    }
+}
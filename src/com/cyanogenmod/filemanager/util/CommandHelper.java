@@ -22,6 +22,7 @@ import android.media.MediaScannerConnection;
 import android.provider.MediaStore.Files;
 
 import android.provider.MediaStore;
+import com.cyanogenmod.filemanager.commands.AsyncResultExecutable;
 import com.cyanogenmod.filemanager.commands.AsyncResultListener;
 import com.cyanogenmod.filemanager.commands.ChangeOwnerExecutable;
 import com.cyanogenmod.filemanager.commands.ChangePermissionsExecutable;
@@ -34,6 +35,7 @@ import com.cyanogenmod.filemanager.commands.CreateFileExecutable;
 import com.cyanogenmod.filemanager.commands.DeleteDirExecutable;
 import com.cyanogenmod.filemanager.commands.DeleteFileExecutable;
 import com.cyanogenmod.filemanager.commands.DiskUsageExecutable;
+import com.cyanogenmod.filemanager.commands.DuplicatesExecutable;
 import com.cyanogenmod.filemanager.commands.EchoExecutable;
 import com.cyanogenmod.filemanager.commands.ExecExecutable;
 import com.cyanogenmod.filemanager.commands.Executable;
@@ -72,6 +74,7 @@ import com.cyanogenmod.filemanager.console.ReadOnlyFilesystemException;
 import com.cyanogenmod.filemanager.console.VirtualMountPointConsole;
 import com.cyanogenmod.filemanager.console.secure.SecureConsole;
 import com.cyanogenmod.filemanager.model.DiskUsage;
+import com.cyanogenmod.filemanager.model.DuplicateGroup;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.model.FolderUsage;
 import com.cyanogenmod.filemanager.model.Group;
@@ -195,6 +198,172 @@ public final class CommandHelper {
         }
     }
 
+    /**
+     * A wrapper class for asynchronous operations that must be completed before return, like
+     * the writable operations that report its progress (copy, move and delete). The wrapper
+     * forwards the progress to the caller listener and captures the result, so the operation
+     * is seen as a synchronous operation.
+     */
+    private static class BlockingAsyncResultListener implements AsyncResultListener {
+
+        // The time to wait for the cause of a failed operation, after its exit code
+        private static final long CAUSE_TIMEOUT = 5000L;
+
+        final AsyncResultListener mRef;
+        private final Object mSync = new Object();
+        private boolean mEnd;
+        private boolean mCancelled;
+        private Exception mCause;
+        private long mFailedTime;
+
+        /**
+         * Constructor of <code>BlockingAsyncResultListener</code>
+         *
+         * @param ref The listener that receives the progress of the operation (can be null)
+         */
+        public BlockingAsyncResultListener(AsyncResultListener ref) {
+            super();
+            this.mRef = ref;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onAsyncStart() {
+            if (this.mRef != null) {
+                this.mRef.onAsyncStart();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onAsyncEnd(boolean cancelled) {
+            synchronized (this.mSync) {
+                this.mCancelled = cancelled;
+            }
+            if (this.mRef != null) {
+                this.mRef.onAsyncEnd(cancelled);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onAsyncExitCode(int exitCode) {
+            if (this.mRef != null) {
+                this.mRef.onAsyncExitCode(exitCode);
+            }
+            synchronized (this.mSync) {
+                // A failed operation notifies its cause after the exit code. If no cause
+                // follows, the operation ends anyway (see waitForEnd)
+                if (exitCode == 0 || this.mCancelled) {
+                    this.mEnd = true;
+                } else {
+                    this.mFailedTime = System.currentTimeMillis();
+                }
+                this.mSync.notifyAll();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onPartialResult(Object result) {
+            if (this.mRef != null) {
+                this.mRef.onPartialResult(result);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void onException(Exception cause) {
+            // The cause is thrown to the caller of the operation
+            synchronized (this.mSync) {
+                this.mCause = cause;
+                this.mEnd = true;
+                this.mSync.notifyAll();
+            }
+        }
+
+        /**
+         * Method that prepares the listener for a new execution
+         */
+        void reset() {
+            synchronized (this.mSync) {
+                this.mEnd = false;
+                this.mCancelled = false;
+                this.mCause = null;
+                this.mFailedTime = 0;
+            }
+        }
+
+        /**
+         * Method that waits for the end of the operation
+         *
+         * @throws Exception The cause of the failure of the operation
+         */
+        void await() throws Exception {
+            synchronized (this.mSync) {
+                while (!this.mEnd) {
+                    try {
+                        waitForEnd();
+                    } catch (InterruptedException ie) {
+                        throw new CancelledOperationException();
+                    }
+                }
+                if (this.mCause != null) {
+                    throw this.mCause;
+                }
+            }
+        }
+
+        /**
+         * Method that waits for the end of the operation, ignoring interruptions
+         */
+        void awaitEnd() {
+            boolean interrupted = false;
+            synchronized (this.mSync) {
+                while (!this.mEnd) {
+                    try {
+                        waitForEnd();
+                    } catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Method that waits for a notification of the operation. An operation that
+         * returned a non-zero exit code and didn't notify any cause after
+         * {@link #CAUSE_TIMEOUT} is ended, so the caller never waits forever.
+         *
+         * @throws InterruptedException If the thread was interrupted
+         */
+        private void waitForEnd() throws InterruptedException {
+            if (this.mFailedTime == 0) {
+                this.mSync.wait();
+                return;
+            }
+            long remaining = this.mFailedTime + CAUSE_TIMEOUT - System.currentTimeMillis();
+            if (remaining > 0) {
+                this.mSync.wait(remaining);
+            } else {
+                this.mEnd = true;
+            }
+        }
+    }
+
     /**
      * Constructor of <code>CommandHelper</code>.
      */
@@ -377,9 +546,44 @@ public final class CommandHelper {
             CommandNotFoundException, OperationTimeoutException,
             ExecutionException, InvalidCommandDefinitionException, ReadOnlyFilesystemException,
             CancelledOperationException {
+        return deleteDirectory(context, directory, null, console);
+    }
+
+    /**
+     * Method that deletes a directory.
+     *
+     * @param context The current context (needed if console == null)
+     * @param directory The directory to delete
+     * @param asyncResultListener The listener of the progress of the operation
+     * (as {@link com.cyanogenmod.filemanager.model.DeleteProgress} partial results, if the
+     * console reports it)
+     * @param console The console in which execute the program. <code>null</code>
+     * to attach to the default console
+     * @return boolean The operation result
+     * @throws FileNotFoundException If the initial directory not exists
+     * @throws IOException If initial directory couldn't be checked
+     * @throws InvalidCommandDefinitionException If the command has an invalid definition
+     * @throws NoSuchFileOrDirectory If the file or directory was not found
+     * @throws ConsoleAllocException If the console can't be allocated
+     * @throws InsufficientPermissionsException If an operation requires elevated permissions
+     * @throws CommandNotFoundException If the command was not found
+     * @throws OperationTimeoutException If the operation exceeded the maximum time of wait
+     * @throws ExecutionException If the operation returns a invalid exit code
+     * @throws ReadOnlyFilesystemException If the operation writes in a read-only filesystem
+     * @throws CancelledOperationException If the operation was cancelled
+     * @see DeleteDirExecutable
+     */
+    public static boolean deleteDirectory(Context context, String directory,
+            AsyncResultListener asyncResultListener, Console console)
+            throws FileNotFoundException, IOException, ConsoleAllocException,
+            NoSuchFileOrDirectory, InsufficientPermissionsException,
+            CommandNotFoundException, OperationTimeoutException,
+            ExecutionException, InvalidCommandDefinitionException, ReadOnlyFilesystemException,
+            CancelledOperationException {
         Console c = ensureConsoleForFile(context, console, directory);
         DeleteDirExecutable executable =
-                c.getExecutableFactory().newCreator().createDeleteDirExecutable(directory);
+                c.getExecutableFactory().newCreator().createDeleteDirExecutable(
+                        directory, new BlockingAsyncResultListener(asyncResultListener));
         writableExecute(context, executable, c);
 
         // Do media scan
@@ -766,13 +970,48 @@ public final class CommandHelper {
             CommandNotFoundException, OperationTimeoutException,
             ExecutionException, InvalidCommandDefinitionException, ReadOnlyFilesystemException,
             CancelledOperationException {
+        return move(context, src, dst, null, console);
+    }
+
+    /**
+     * Method that moves a file system object.
+     *
+     * @param context The current context (needed if console == null)
+     * @param src The file system object to move
+     * @param dst The destination file system object
+     * @param asyncResultListener The listener of the progress of the operation
+     * (as {@link com.cyanogenmod.filemanager.model.TransferProgress} partial results)
+     * @param console The console in which execute the program. <code>null</code>
+     * to attach to the default console
+     * @return boolean The operation result
+     * @throws FileNotFoundException If the initial directory not exists
+     * @throws IOException If initial directory couldn't be checked
+     * @throws InvalidCommandDefinitionException If the command has an invalid definition
+     * @throws NoSuchFileOrDirectory If the file or directory was not found
+     * @throws ConsoleAllocException If the console can't be allocated
+     * @throws InsufficientPermissionsException If an operation requires elevated permissions
+     * @throws CommandNotFoundException If the command was not found
+     * @throws OperationTimeoutException If the operation exceeded the maximum time of wait
+     * @throws ExecutionException If the operation returns a invalid exit code
+     * @throws ReadOnlyFilesystemException If the operation writes in a read-only filesystem
+     * @throws CancelledOperationException If the operation was cancelled
+     * @see MoveExecutable
+     */
+    public static boolean move(Context context, String src, String dst,
+            AsyncResultListener asyncResultListener, Console console)
+            throws FileNotFoundException, IOException, ConsoleAllocException,
+            NoSuchFileOrDirectory, InsufficientPermissionsException,
+            CommandNotFoundException, OperationTimeoutException,
+            ExecutionException, InvalidCommandDefinitionException, ReadOnlyFilesystemException,
+            CancelledOperationException {
         Console cSrc = ensureConsoleForFile(context, console, src);
         Console cDst = ensureConsoleForFile(context, console, dst);
         boolean ret = true;
         if (cSrc.equals(cDst)) {
             // Is safe to use the same console
             MoveExecutable executable =
-                    cSrc.getExecutableFactory().newCreator().createMoveExecutable(src, dst);
+                    cSrc.getExecutableFactory().newCreator().createMoveExecutable(
+                            src, dst, new BlockingAsyncResultListener(asyncResultListener));
             writableExecute(context, executable, cSrc);
             ret = executable.getResult().booleanValue();
         } else {
@@ -785,7 +1024,8 @@ public final class CommandHelper {
             try {
                 MoveExecutable moveExecutable =
                         cSrc.getExecutableFactory().newCreator().createMoveExecutable(
-                                src, tmp.getAbsolutePath());
+                                src, tmp.getAbsolutePath(),
+                                new BlockingAsyncResultListener(asyncResultListener));
                 writableExecute(context, moveExecutable, cSrc);
                 if (!moveExecutable.getResult().booleanValue()) {
                     ret = false;
@@ -795,7 +1035,8 @@ public final class CommandHelper {
                 if (ret) {
                     moveExecutable =
                             cDst.getExecutableFactory().newCreator().createMoveExecutable(
-                                    tmp.getAbsolutePath(), dst);
+                                    tmp.getAbsolutePath(), dst,
+                                    new BlockingAsyncResultListener(null));
                     writableExecute(context, moveExecutable, cDst);
                     if (!moveExecutable.getResult().booleanValue()) {
                         ret = false;
@@ -858,13 +1099,48 @@ public final class CommandHelper {
             CommandNotFoundException, OperationTimeoutException,
             ExecutionException, InvalidCommandDefinitionException, ReadOnlyFilesystemException,
             CancelledOperationException {
+        return copy(context, src, dst, null, console);
+    }
+
+    /**
+     * Method that copies a file system object.
+     *
+     * @param context The current context (needed if console == null)
+     * @param src The file system object to copy
+     * @param dst The destination file system object
+     * @param asyncResultListener The listener of the progress of the operation
+     * (as {@link com.cyanogenmod.filemanager.model.TransferProgress} partial results)
+     * @param console The console in which execute the program. <code>null</code>
+     * to attach to the default console
+     * @return boolean The operation result
+     * @throws FileNotFoundException If the initial directory not exists
+     * @throws IOException If initial directory couldn't be checked
+     * @throws InvalidCommandDefinitionException If the command has an invalid definition
+     * @throws NoSuchFileOrDirectory If the file or directory was not found
+     * @throws ConsoleAllocException If the console can't be allocated
+     * @throws InsufficientPermissionsException If an operation requires elevated permissions
+     * @throws CommandNotFoundException If the command was not found
+     * @throws OperationTimeoutException If the operation exceeded the maximum time of wait
+     * @throws ExecutionException If the operation returns a invalid exit code
+     * @throws ReadOnlyFilesystemException If the operation writes in a read-only filesystem
+     * @throws CancelledOperationException If the operation was cancelled
+     * @see CopyExecutable
+     */
+    public static boolean copy(Context context, String src, String dst,
+            AsyncResultListener asyncResultListener, Console console)
+            throws FileNotFoundException, IOException, ConsoleAllocException,
+            NoSuchFileOrDirectory, InsufficientPermissionsException,
+            CommandNotFoundException, OperationTimeoutException,
+            ExecutionException, InvalidCommandDefinitionException, ReadOnlyFilesystemException,
+            CancelledOperationException {
         Console cSrc = ensureConsoleForFile(context, console, src);
         Console cDst = ensureConsoleForFile(context, console, dst);
         boolean ret = true;
         if (cSrc.equals(cDst)) {
             // Is safe to use the same console
             CopyExecutable executable =
-                    cSrc.getExecutableFactory().newCreator().createCopyExecutable(src, dst);
+                    cSrc.getExecutableFactory().newCreator().createCopyExecutable(
+                            src, dst, new BlockingAsyncResultListener(asyncResultListener));
             writableExecute(context, executable, cSrc);
             ret = executable.getResult().booleanValue();
         } else {
@@ -877,7 +1153,8 @@ public final class CommandHelper {
             try {
                 CopyExecutable copyExecutable =
                         cSrc.getExecutableFactory().newCreator().createCopyExecutable(
-                                src, tmp.getAbsolutePath());
+                                src, tmp.getAbsolutePath(),
+                                new BlockingAsyncResultListener(asyncResultListener));
                 writableExecute(context, copyExecutable, cSrc);
                 if (!copyExecutable.getResult().booleanValue()) {
                     ret = false;
@@ -887,7 +1164,8 @@ public final class CommandHelper {
                 if (ret) {
                     MoveExecutable moveExecutable =
                             cDst.getExecutableFactory().newCreator().createMoveExecutable(
-                                    tmp.getAbsolutePath(), dst);
+                                    tmp.getAbsolutePath(), dst,
+                                    new BlockingAsyncResultListener(null));
                     writableExecute(context, moveExecutable, cDst);
                     if (!moveExecutable.getResult().booleanValue()) {
                         ret = false;
@@ -1045,6 +1323,43 @@ public final class CommandHelper {
         return executable;
     }
 
+    /**
+     * Method that finds the duplicated files of a directory tree.
+     *
+     * @param context The current context (needed if console == null)
+     * @param directory The "absolute" directory where start the search
+     * @param asyncResultListener The partial result listener
+     * @param console The console in which execute the program.
+     * <code>null</code> to attach to the default console
+     * @return DuplicatesExecutable The command executed in background
+     * @throws FileNotFoundException If the initial directory not exists
+     * @throws IOException If initial directory couldn't be checked
+     * @throws InvalidCommandDefinitionException If the command has an invalid definition
+     * @throws NoSuchFileOrDirectory If the file or directory was not found
+     * @throws ConsoleAllocException If the console can't be allocated
+     * @throws InsufficientPermissionsException If an operation requires elevated permissions
+     * @throws CommandNotFoundException If the command was not found
+     * @throws OperationTimeoutException If the operation exceeded the maximum time of wait
+     * @throws ExecutionException If the operation returns a invalid exit code
+     * @throws CancelledOperationException If the operation was cancelled
+     * @see DuplicateGroup
+     * @see DuplicatesExecutable
+     */
+    public static DuplicatesExecutable findDuplicates(
+            Context context, String directory,
+            AsyncResultListener asyncResultListener, Console console)
+            throws FileNotFoundException, IOException, ConsoleAllocException,
+            NoSuchFileOrDirectory, InsufficientPermissionsException,
+            CommandNotFoundException, OperationTimeoutException,
+            ExecutionException, InvalidCommandDefinitionException, CancelledOperationException {
+        Console c = ensureConsoleForFile(context, console, directory);
+        DuplicatesExecutable executable =
+                c.getExecutableFactory().newCreator().
+                    createDuplicatesExecutable(directory, asyncResultListener);
+        execute(context, executable, c);
+        return executable;
+    }
+
     /**
      * Method that retrieves the disk usage of all the mount points.
      *
@@ -1762,7 +2077,7 @@ public final class CommandHelper {
             FileNotFoundException, IOException, InvalidCommandDefinitionException,
             CancelledOperationException {
         Console c = ensureConsole(context, console);
-        c.execute(executable, context);
+        blockingExecute(context, executable, c);
         return executable.getResult();
     }
 
@@ -1797,6 +2112,79 @@ public final class CommandHelper {
         }
     }
 
+    /**
+     * Method that execute a program and, if the program runs in background but must be
+     * completed before return (see {@link BlockingAsyncResultListener}), waits for its end.
+     *
+     * @param context The current context (needed if console == null)
+     * @param executable The executable program to execute
+     * @param console The console in which execute the program
+     * @throws NoSuchFileOrDirectory If the file or directory was not found
+     * @throws ConsoleAllocException If the console can't be allocated
+     * @throws InsufficientPermissionsException If an operation requires elevated permissions
+     * @throws CommandNotFoundException If the command was not found
+     * @throws OperationTimeoutException If the operation exceeded the maximum time of wait
+     * @throws ExecutionException If the operation returns a invalid exit code
+     * @throws ReadOnlyFilesystemException If the operation writes in a read-only filesystem
+     * @throws CancelledOperationException If the operation was cancelled
+     * @throws AuthenticationFailedException If the operation failed caused by an
+     * authentication failure
+     */
+    private static void blockingExecute(Context context, Executable executable,
+            Console console) throws ConsoleAllocException, InsufficientPermissionsException,
+            NoSuchFileOrDirectory, OperationTimeoutException, ExecutionException,
+            CommandNotFoundException, ReadOnlyFilesystemException, CancelledOperationException,
+            AuthenticationFailedException {
+        BlockingAsyncResultListener listener = null;
+        if (executable instanceof AsyncResultExecutable &&
+                ((AsyncResultExecutable)executable).getAsyncResultListener()
+                    instanceof BlockingAsyncResultListener) {
+            listener = (BlockingAsyncResultListener)
+                    ((AsyncResultExecutable)executable).getAsyncResultListener();
+            listener.reset();
+        }
+
+        console.execute(executable, context);
+        if (listener == null) {
+            return;
+        }
+
+        try {
+            try {
+                listener.await();
+            } catch (CancelledOperationException ex) {
+                // The caller was interrupted. Stop the operation and wait for it, so it
+                // doesn't write anymore when the filesystem is remounted
+                AsyncResultExecutable async = (AsyncResultExecutable)executable;
+                if (async.isCancellable()) {
+                    async.cancel();
+                    listener.awaitEnd();
+                }
+                throw ex;
+            }
+        } catch (ConsoleAllocException ex) {
+            throw ex;
+        } catch (InsufficientPermissionsException ex) {
+            throw ex;
+        } catch (NoSuchFileOrDirectory ex) {
+            throw ex;
+        } catch (OperationTimeoutException ex) {
+            throw ex;
+        } catch (ExecutionException ex) {
+            throw ex;
+        } catch (CommandNotFoundException ex) {
+            throw ex;
+        } catch (ReadOnlyFilesystemException ex) {
+            throw ex;
+        } catch (CancelledOperationException ex) {
+            throw ex;
+        } catch (AuthenticationFailedException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ExecutionException(ex.getMessage(), ex);
+        }
+    }
+
     /**
      * Method that execute a program that requires write permissions over the filesystem. This
      * method ensure mount/unmount the filesystem before/after executing the operation.
@@ -1931,7 +2319,7 @@ public final class CommandHelper {
             }
 
             //Execute the command
-            console.execute(executable, context);
+            blockingExecute(context, executable, console);
 
         } catch (InsufficientPermissionsException ipEx) {
             //Configure the commands to execute
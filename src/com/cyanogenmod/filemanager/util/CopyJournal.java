@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.android.internal.util.HexDump;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A checkpoint journal of a copy operation, so an interrupted copy (the process was killed,
+ * the storage was unmounted, ...) can be resumed close to where it stopped.
+ * <br/>
+ * The journal is an append-only file of records: the start of the copy of a file, its
+ * checkpoints, the checkpoint where it was resumed and its completion. Every checkpoint holds
+ * an offset of the file, and it's only written after the data up to it was flushed to the
+ * destination device. When the copy is resumed, the completed files are skipped, and the
+ * copied prefix of the file in progress is compared chunk by chunk with the source, so the
+ * copy continues from the last checkpoint that matches. A record that was being written when
+ * the process died is discarded.
+ * <br/>
+ * There is one journal for every source and destination, stored in the private files of the
+ * application. The journal is deleted when the copy completes. The methods of this class
+ * are thread safe.
+ *
+ * @see FileCopier
+ * @see CopyScheduler
+ */
+public class CopyJournal {
+
+    private static final String TAG = "CopyJournal"; //$NON-NLS-1$
+
+    /**
+     * The minimum amount of data copied between two checkpoints.
+     */
+    public static final long CHECKPOINT_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * The minimum size of a copy to be journaled. Smaller copies are just restarted.
+     */
+    public static final long MIN_JOURNAL_SIZE = 64L * 1024 * 1024;
+
+    private static final String JOURNALS_DIR = "copy-journals"; //$NON-NLS-1$
+    private static final String JOURNAL_EXTENSION = ".journal"; //$NON-NLS-1$
+
+    // Journals not used for a week are abandoned copies
+    private static final long MAX_JOURNAL_AGE = 7L * 24 * 60 * 60 * 1000;
+
+    private static final int MAGIC = 0x434d464a;
+    private static final int VERSION = 2;
+
+    private static final byte RECORD_START = 'S';
+    private static final byte RECORD_CHECKPOINT = 'C';
+    private static final byte RECORD_RESUME = 'R';
+    private static final byte RECORD_COMPLETED = 'F';
+
+    /**
+     * The journaled state of a file
+     */
+    private static class FileState {
+        long mSize;
+        long mLastModified;
+        boolean mCompleted;
+        final List<Long> mCheckpoints = new ArrayList<Long>();
+
+        void dropCheckpoints(long offset) {
+            for (int i = this.mCheckpoints.size() - 1; i >= 0; i--) {
+                if (this.mCheckpoints.get(i).longValue() > offset) {
+                    this.mCheckpoints.remove(i);
+                }
+            }
+        }
+    }
+
+    private final File mFile;
+    private final Map<String, FileState> mStates;
+    private DataOutputStream mOut;
+    private boolean mResumed;
+
+    /**
+     * Constructor of <code>CopyJournal</code>.
+     *
+     * @param file The journal file
+     */
+    private CopyJournal(File file) {
+        super();
+        this.mFile = file;
+        this.mStates = new HashMap<String, FileState>();
+    }
+
+    /**
+     * Method that returns the folder of the journals.
+     *
+     * @param ctx The current context
+     * @return File The folder of the journals
+     */
+    public static File getJournalsDir(Context ctx) {
+        return new File(ctx.getFilesDir(), JOURNALS_DIR);
+    }
+
+    /**
+     * Method that opens the journal of a copy. If a journal of a previous attempt exists
+     * and the destination wasn't removed, the journal is loaded to resume the copy. Otherwise
+     * a new journal is started.
+     *
+     * @param dir The folder of the journals
+     * @param src The source file or folder of the copy
+     * @param dst The destination file or folder of the copy
+     * @return CopyJournal The journal
+     * @throws IOException If the journal couldn't be opened
+     */
+    public static CopyJournal open(File dir, File src, File dst) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir); //$NON-NLS-1$
+        }
+        purge(dir);
+
+        String srcPath = src.getAbsolutePath();
+        String dstPath = dst.getAbsolutePath();
+        CopyJournal journal = new CopyJournal(new File(dir, getName(srcPath, dstPath)));
+        long valid = 0;
+        if (journal.mFile.exists() && dst.exists()) {
+            valid = journal.load(srcPath, dstPath);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(journal.mFile, "rw"); //$NON-NLS-1$
+        try {
+            // Discard a partial record, or the whole journal if it's not valid
+            raf.setLength(valid);
+        } finally {
+            raf.close();
+        }
+        journal.mOut = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(journal.mFile, true)));
+        if (valid == 0) {
+            journal.mStates.clear();
+            journal.mResumed = false;
+            journal.mOut.writeInt(MAGIC);
+            journal.mOut.writeInt(VERSION);
+            journal.mOut.writeUTF(srcPath);
+            journal.mOut.writeUTF(dstPath);
+            journal.mOut.flush();
+        }
+        return journal;
+    }
+
+    /**
+     * Method that returns if the journal was loaded from a previous attempt of the copy.
+     *
+     * @return boolean If the copy is being resumed
+     */
+    public synchronized boolean isResumed() {
+        return this.mResumed;
+    }
+
+    /**
+     * Method that returns if a file was completely copied in a previous attempt, and neither
+     * the source nor the destination changed since then.
+     *
+     * @param src The source file
+     * @param dst The destination file
+     * @return boolean If the file doesn't need to be copied
+     */
+    public synchronized boolean isCompleted(File src, File dst) {
+        FileState state = this.mStates.get(src.getAbsolutePath());
+        return state != null && state.mCompleted && isUnchanged(state, src) &&
+                dst.length() == state.mSize;
+    }
+
+    /**
+     * Method that returns the offsets of the checkpoints of a file copied partially in a
+     * previous attempt, in ascending order.
+     *
+     * @param src The source file
+     * @return List<Long> The offsets of the checkpoints. Empty if the copy of the file must
+     * start from the beginning.
+     */
+    synchronized List<Long> getCheckpoints(File src) {
+        FileState state = this.mStates.get(src.getAbsolutePath());
+        if (state == null || state.mCompleted || !isUnchanged(state, src)) {
+            return new ArrayList<Long>();
+        }
+        return new ArrayList<Long>(state.mCheckpoints);
+    }
+
+    /**
+     * Method that records the start of the copy of a file from its beginning.
+     *
+     * @param src The source file
+     */
+    public synchronized void onFileStarted(File src) {
+        FileState state = new FileState();
+        state.mSize = src.length();
+        state.mLastModified = src.lastModified();
+        String path = src.getAbsolutePath();
+        this.mStates.put(path, state);
+        if (this.mOut == null) {
+            return;
+        }
+        try {
+            this.mOut.writeByte(RECORD_START);
+            this.mOut.writeUTF(path);
+            this.mOut.writeLong(state.mSize);
+            this.mOut.writeLong(state.mLastModified);
+            this.mOut.flush();
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * Method that records that the copy of a file continues from a verified checkpoint. The
+     * checkpoints after it are discarded.
+     *
+     * @param src The source file
+     * @param offset The offset of the verified checkpoint
+     */
+    public synchronized void onFileResumed(File src, long offset) {
+        String path = src.getAbsolutePath();
+        FileState state = this.mStates.get(path);
+        if (state == null) {
+            return;
+        }
+        state.dropCheckpoints(offset);
+        if (this.mOut == null) {
+            return;
+        }
+        try {
+            this.mOut.writeByte(RECORD_RESUME);
+            this.mOut.writeUTF(path);
+            this.mOut.writeLong(offset);
+            this.mOut.flush();
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * Method that records a checkpoint of the copy of a file. The data up to the offset must
+     * be already flushed to the destination device.
+     *
+     * @param src The source file
+     * @param offset The offset of the file copied
+     */
+    public synchronized void onCheckpoint(File src, long offset) {
+        String path = src.getAbsolutePath();
+        FileState state = this.mStates.get(path);
+        if (state == null) {
+            return;
+        }
+        state.mCheckpoints.add(Long.valueOf(offset));
+        if (this.mOut == null) {
+            return;
+        }
+        try {
+            this.mOut.writeByte(RECORD_CHECKPOINT);
+            this.mOut.writeUTF(path);
+            this.mOut.writeLong(offset);
+            this.mOut.flush();
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * Method that records the completion of the copy of a file.
+     *
+     * @param src The source file
+     */
+    public synchronized void onFileCompleted(File src) {
+        FileState state = new FileState();
+        state.mSize = src.length();
+        state.mLastModified = src.lastModified();
+        state.mCompleted = true;
+        String path = src.getAbsolutePath();
+        this.mStates.put(path, state);
+        if (this.mOut == null) {
+            return;
+        }
+        try {
+            this.mOut.writeByte(RECORD_COMPLETED);
+            this.mOut.writeUTF(path);
+            this.mOut.writeLong(state.mSize);
+            this.mOut.writeLong(state.mLastModified);
+            this.mOut.flush();
+        } catch (IOException e) {
+            onWriteError(e);
+        }
+    }
+
+    /**
+     * Method that closes the journal, keeping it to resume the copy later.
+     */
+    public synchronized void close() {
+        if (this.mOut != null) {
+            try {
+                this.mOut.close();
+            } catch (IOException e) {/**NON BLOCK**/}
+            this.mOut = null;
+        }
+    }
+
+    /**
+     * Method that closes and deletes the journal, once the copy completed.
+     */
+    public synchronized void delete() {
+        close();
+        if (!this.mFile.delete()) {
+            Log.w(TAG, String.format("Failed to delete the journal %s", //$NON-NLS-1$
+                    this.mFile));
+        }
+    }
+
+    /**
+     * Method that loads the records of the journal
+     *
+     * @param srcPath The source of the copy
+     * @param dstPath The destination of the copy
+     * @return long The length of the valid records. 0 if the journal is not valid.
+     */
+    private long load(String srcPath, String dstPath) {
+        byte[] data;
+        try {
+            data = readFully(this.mFile);
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Failed to read the journal %s", this.mFile), e); //$NON-NLS-1$
+            return 0;
+        }
+
+        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        DataInputStream dis = new DataInputStream(bais);
+        long valid = 0;
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION ||
+                    !srcPath.equals(dis.readUTF()) || !dstPath.equals(dis.readUTF())) {
+                return 0;
+            }
+            valid = data.length - bais.available();
+            while (bais.available() > 0) {
+                byte type = dis.readByte();
+                String path = dis.readUTF();
+                if (type == RECORD_START || type == RECORD_COMPLETED) {
+                    FileState state = new FileState();
+                    state.mSize = dis.readLong();
+                    state.mLastModified = dis.readLong();
+                    state.mCompleted = type == RECORD_COMPLETED;
+                    this.mStates.put(path, state);
+                } else if (type == RECORD_RESUME) {
+                    long offset = dis.readLong();
+                    FileState state = this.mStates.get(path);
+                    if (state != null) {
+                        state.dropCheckpoints(offset);
+                    }
+                } else if (type == RECORD_CHECKPOINT) {
+                    long offset = dis.readLong();
+                    FileState state = this.mStates.get(path);
+                    if (state != null && !state.mCompleted) {
+                        state.mCheckpoints.add(Long.valueOf(offset));
+                    }
+                } else {
+                    // Garbage. Discard from here
+                    break;
+                }
+                valid = data.length - bais.available();
+            }
+        } catch (EOFException e) {
+            // The last record is incomplete
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Invalid journal %s", this.mFile), e); //$NON-NLS-1$
+        }
+        this.mResumed = valid > 0;
+        return valid;
+    }
+
+    /**
+     * Method that stops journaling after a write error. The copy continues, but it
+     * won't be resumable.
+     *
+     * @param e The cause
+     */
+    private void onWriteError(IOException e) {
+        Log.w(TAG, String.format("Failed to write the journal %s", this.mFile), e); //$NON-NLS-1$
+        close();
+        if (!this.mFile.delete()) {
+            Log.w(TAG, String.format("Failed to delete the journal %s", //$NON-NLS-1$
+                    this.mFile));
+        }
+    }
+
+    /**
+     * Method that returns if a file didn't change since it was journaled
+     *
+     * @param state The journaled state of the file
+     * @param src The file
+     * @return boolean If the file didn't change
+     */
+    private static boolean isUnchanged(FileState state, File src) {
+        return src.length() == state.mSize && src.lastModified() == state.mLastModified;
+    }
+
+    /**
+     * Method that returns the name of the journal of a copy
+     *
+     * @param srcPath The source of the copy
+     * @param dstPath The destination of the copy
+     * @return String The name of the journal
+     */
+    private static String getName(String srcPath, String dstPath) {
+        String key = srcPath + '\0' + dstPath;
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+            byte[] digest = md.digest(key.getBytes("UTF-8")); //$NON-NLS-1$
+            return HexDump.toHexString(digest).toLowerCase(Locale.ROOT) + JOURNAL_EXTENSION;
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode()) + JOURNAL_EXTENSION;
+        } catch (IOException e) {
+            return Integer.toHexString(key.hashCode()) + JOURNAL_EXTENSION;
+        }
+    }
+
+    /**
+     * Method that deletes the journals of the copies abandoned long time ago
+     *
+     * @param dir The folder of the journals
+     */
+    private static void purge(File dir) {
+        File[] journals = dir.listFiles();
+        if (journals == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File journal : journals) {
+            if (now - journal.lastModified() > MAX_JOURNAL_AGE) {
+                if (!journal.delete()) {
+                    Log.w(TAG, String.format("Failed to delete the journal %s", //$NON-NLS-1$
+                            journal));
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that reads a whole file
+     *
+     * @param file The file
+     * @return byte[] The content of the file
+     * @throws IOException If the file couldn't be read
+     */
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int)file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = fis.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+            if (offset < data.length) {
+                byte[] truncated = new byte[offset];
+                System.arraycopy(data, 0, truncated, 0, offset);
+                return truncated;
+            }
+            return data;
+        } finally {
+            try {
+                fis.close();
+            } catch (Throwable e) {/**NON BLOCK**/}
+        }
+    }
+}
@@ -0,0 +1,574 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.content.Context;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.console.ExecutionException;
+import com.cyanogenmod.filemanager.model.MountPoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A class that copies a directory tree with a pool of workers.
+ * <br/>
+ * The source tree is walked only once, in the calling thread. The destination folders are
+ * created in walk order, so a folder always exists before its files are copied, and every file
+ * is enqueued in a bounded pool as soon as it's found. The concurrency of every storage device
+ * is limited with its own permits (removable devices, like SD cards, allow less concurrent
+ * operations than the internal storage). Small files are read completely in memory while
+ * holding a permit of the source device, and then written while holding a permit of the
+ * destination device, so both devices keep busy with different files. Bigger files are copied
+ * with {@link FileCopier} holding a permit of both devices.
+ * <br/>
+ * The modification time of the folders is restored after all the files were copied.
+ * <br/>
+ * If a {@link CopyJournal} is set, the files completed in a previous attempt of the copy are
+ * skipped, and the file that was being copied is resumed from its last checkpoint.
+ */
+public class CopyScheduler {
+
+    private static final String TAG = "CopyScheduler"; //$NON-NLS-1$
+
+    /**
+     * An interface to communicate the aggregated progress of the copy.
+     */
+    public interface OnCopyProgressListener {
+        /**
+         * Invoked when a file or a chunk of a big file was copied. The method is invoked from
+         * the threads of the pool, but never concurrently.
+         *
+         * @param file The source file that progressed
+         * @param files The number of files copied
+         * @param bytes The number of bytes copied
+         */
+        void onCopyProgress(File file, int files, long bytes);
+    }
+
+    // The concurrency limits of the storage devices
+    private static final int MAX_INTERNAL_CONCURRENCY = 4;
+    private static final int REMOVABLE_CONCURRENCY = 2;
+
+    // The maximum number of files enqueued before the walk waits for the workers
+    private static final int MAX_PENDING = 256;
+
+    // The files copied in two steps through memory
+    private static final long SMALL_FILE_SIZE = 256 * 1024;
+
+    private static final String[] REMOVABLE_FILESYSTEMS = {
+        "vfat", //$NON-NLS-1$
+        "exfat", //$NON-NLS-1$
+        "texfat", //$NON-NLS-1$
+        "sdfat", //$NON-NLS-1$
+        "fuseblk" //$NON-NLS-1$
+    };
+    private static final String[] REMOVABLE_DEVICE_PREFIXES =
+            {"/dev/block/vold/", "/mnt/media_rw/"}; //$NON-NLS-1$ //$NON-NLS-2$
+
+    private final int mBufferSize;
+    private final OnCopyProgressListener mListener;
+    private CopyJournal mJournal;
+
+    private ExecutorService mExecutor;
+    private Semaphore mSrcPermits;
+    private Semaphore mDstPermits;
+    private ThreadLocal<FileCopier> mCopiers;
+    private final List<FileCopier> mActiveCopiers = new ArrayList<FileCopier>();
+    private final FileCopier.OnCopyProgressListener mCopierListener;
+
+    private final Object mPendingSync = new Object();
+    private int mPending;
+
+    private final Object mProgressSync = new Object();
+    private int mFiles;
+    private long mBytes;
+
+    private volatile boolean mFailed;
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructor of <code>CopyScheduler</code>.
+     *
+     * @param bufferSize The buffer size for the operation
+     * @param listener The listener of the progress of the copy (can be null)
+     */
+    public CopyScheduler(int bufferSize, OnCopyProgressListener listener) {
+        super();
+        this.mBufferSize = bufferSize;
+        this.mListener = listener;
+        this.mCopierListener = new FileCopier.OnCopyProgressListener() {
+            @Override
+            public void onCopyProgress(File src, long bytes) {
+                onBytesCopied(src, 0, bytes);
+            }
+        };
+    }
+
+    /**
+     * Method that sets the journal of the copy, to resume a previous attempt of the copy and
+     * to make this copy resumable.
+     *
+     * @param journal The journal (can be null)
+     */
+    public void setJournal(CopyJournal journal) {
+        this.mJournal = journal;
+    }
+
+    /**
+     * Method that returns the size of all the files of a directory tree.
+     *
+     * @param src The source file or folder
+     * @return long The size of all the files
+     */
+    public static long getTotalBytes(File src) {
+        if (!src.isDirectory()) {
+            return src.length();
+        }
+        long total = 0;
+        File[] files = src.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                total += getTotalBytes(files[i]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Method that copies recursively the source to the destination with a scheduler. Big
+     * copies are journaled, so they can be resumed if they are interrupted. The journal is
+     * deleted when the copy completes, and kept otherwise.
+     *
+     * @param ctx The current context
+     * @param scheduler The scheduler of the copy
+     * @param src The source file or folder
+     * @param dst The destination file or folder
+     * @param total The size of the source
+     * @return boolean If the operation complete successfully (or was cancelled)
+     * @throws ExecutionException If a problem was detected in the operation
+     */
+    public static boolean journaledCopy(Context ctx, CopyScheduler scheduler, File src,
+            File dst, long total) throws ExecutionException {
+        CopyJournal journal = null;
+        if (total >= CopyJournal.MIN_JOURNAL_SIZE) {
+            try {
+                journal = CopyJournal.open(CopyJournal.getJournalsDir(ctx), src, dst);
+                if (journal.isResumed()) {
+                    Log.i(TAG, String.format(
+                            "Resuming a previous copy of %s", src)); //$NON-NLS-1$
+                }
+            } catch (IOException e) {
+                // The copy is not resumable, but it can continue
+                Log.w(TAG, "Failed to open the journal of the copy", e); //$NON-NLS-1$
+            }
+        }
+        scheduler.setJournal(journal);
+
+        boolean ret = false;
+        try {
+            ret = scheduler.copy(src, dst);
+        } finally {
+            if (journal != null) {
+                if (ret) {
+                    journal.delete();
+                } else {
+                    // Keep the journal to resume the copy
+                    journal.close();
+                }
+            }
+        }
+        return ret || scheduler.isCancelled();
+    }
+
+    /**
+     * Method that copies recursively to the destination. This method blocks until all the
+     * files are copied, a file fails or the copy is cancelled.
+     *
+     * @param src The source file or folder
+     * @param dst The destination file or folder
+     * @return boolean If the operation complete successfully
+     * @throws ExecutionException If a problem was detected in the operation
+     */
+    public boolean copy(final File src, final File dst) throws ExecutionException {
+        if (!src.isDirectory()) {
+            // Nothing to schedule
+            if (isCompleted(src, dst)) {
+                return true;
+            }
+            FileCopier copier = newCopier();
+            if (!copier.copyFile(src, dst)) {
+                return false;
+            }
+            onFileCompleted(src, 0);
+            return true;
+        }
+
+        // The permits of the devices. A copy inside the same device shares the permits
+        int srcConcurrency = getConcurrency(src);
+        int dstConcurrency = getConcurrency(dst);
+        int threads;
+        if (isSameDevice(src, dst)) {
+            this.mSrcPermits = new Semaphore(Math.min(srcConcurrency, dstConcurrency));
+            this.mDstPermits = this.mSrcPermits;
+            threads = Math.min(srcConcurrency, dstConcurrency);
+        } else {
+            this.mSrcPermits = new Semaphore(srcConcurrency);
+            this.mDstPermits = new Semaphore(dstConcurrency);
+            threads = srcConcurrency + dstConcurrency;
+        }
+        this.mCopiers = new ThreadLocal<FileCopier>() {
+            @Override
+            protected FileCopier initialValue() {
+                return newCopier();
+            }
+        };
+
+        List<File[]> directories = new ArrayList<File[]>();
+        this.mExecutor = Executors.newFixedThreadPool(threads);
+        try {
+            walk(src, dst, directories);
+            waitForPending();
+        } finally {
+            this.mExecutor.shutdownNow();
+            this.mCopiers = null;
+        }
+        if (this.mFailed || this.mCancelled) {
+            return false;
+        }
+
+        // The content of the folders changed their modification time. Children first
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            File[] pair = directories.get(i);
+            FileCopier.preserveLastModified(pair[0], pair[1]);
+        }
+        return true;
+    }
+
+    /**
+     * Method that cancels the copy. The method {@link #copy(File, File)} returns as soon as
+     * the files being copied are done.
+     */
+    public void cancel() {
+        this.mCancelled = true;
+        synchronized (this.mActiveCopiers) {
+            for (FileCopier copier : this.mActiveCopiers) {
+                copier.cancel();
+            }
+        }
+    }
+
+    /**
+     * Method that returns if the copy was cancelled.
+     *
+     * @return boolean If the copy was cancelled
+     */
+    public boolean isCancelled() {
+        return this.mCancelled;
+    }
+
+    /**
+     * Method that walks a source folder, creates its destination folder and enqueues the
+     * copy of its files
+     *
+     * @param src The source folder
+     * @param dst The destination folder
+     * @param directories The created folders
+     * @throws ExecutionException If a problem was detected in the operation
+     */
+    private void walk(File src, File dst, List<File[]> directories) throws ExecutionException {
+        // Create the directory
+        if (dst.exists() && !dst.isDirectory()) {
+            Log.e(TAG,
+                    String.format("Failed to check destionation dir: %s", dst)); //$NON-NLS-1$
+            throw new ExecutionException("the path exists but is not a folder"); //$NON-NLS-1$
+        }
+        if (!dst.exists()) {
+            if (!dst.mkdir()) {
+                Log.e(TAG, String.format("Failed to create directory: %s", dst)); //$NON-NLS-1$
+                this.mFailed = true;
+                return;
+            }
+        }
+        directories.add(new File[]{src, dst});
+
+        File[] files = src.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            if (this.mFailed || this.mCancelled) {
+                return;
+            }
+            File child = new File(dst, files[i].getName());
+            if (files[i].isDirectory()) {
+                walk(files[i], child, directories);
+            } else {
+                submit(files[i], child);
+            }
+        }
+    }
+
+    /**
+     * Method that enqueues the copy of a file in the pool. The method waits if there are too
+     * many files enqueued.
+     *
+     * @param src The source file
+     * @param dst The destination file
+     */
+    private void submit(final File src, final File dst) {
+        synchronized (this.mPendingSync) {
+            while (this.mPending >= MAX_PENDING) {
+                try {
+                    this.mPendingSync.wait();
+                } catch (InterruptedException ie) {
+                    this.mCancelled = true;
+                    return;
+                }
+            }
+            this.mPending++;
+        }
+        try {
+            this.mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!CopyScheduler.this.mFailed && !CopyScheduler.this.mCancelled) {
+                            copyFile(src, dst);
+                        }
+                    } catch (Throwable t) {
+                        Log.e(TAG, String.format(
+                                "Failed to copy from %s to %s", src, dst), t); //$NON-NLS-1$
+                        CopyScheduler.this.mFailed = true;
+                    } finally {
+                        releasePending();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // The pool was shutdown
+            releasePending();
+        }
+    }
+
+    /**
+     * Method that copies a file holding the permits of the devices
+     *
+     * @param src The source file
+     * @param dst The destination file
+     * @throws Exception If the file couldn't be copied
+     */
+    void copyFile(File src, File dst) throws Exception {
+        if (isCompleted(src, dst)) {
+            return;
+        }
+        FileCopier copier = this.mCopiers.get();
+        if (src.length() <= SMALL_FILE_SIZE) {
+            ByteBuffer data;
+            this.mSrcPermits.acquire();
+            try {
+                data = copier.read(src);
+            } finally {
+                this.mSrcPermits.release();
+            }
+            if (data != null) {
+                this.mDstPermits.acquire();
+                try {
+                    FileCopier.write(data, dst);
+                } finally {
+                    this.mDstPermits.release();
+                }
+                FileCopier.preserveLastModified(src, dst);
+                onFileCompleted(src, data.limit());
+                return;
+            }
+        }
+
+        // Always acquire the source first, so two workers never wait for each other
+        this.mSrcPermits.acquire();
+        try {
+            if (this.mDstPermits != this.mSrcPermits) {
+                this.mDstPermits.acquire();
+            }
+            try {
+                if (!copier.copyFile(src, dst)) {
+                    if (!copier.isCancelled()) {
+                        this.mFailed = true;
+                    }
+                    return;
+                }
+            } finally {
+                if (this.mDstPermits != this.mSrcPermits) {
+                    this.mDstPermits.release();
+                }
+            }
+        } finally {
+            this.mSrcPermits.release();
+        }
+        onFileCompleted(src, 0);
+    }
+
+    /**
+     * Method that creates a copier that reports to this scheduler
+     *
+     * @return FileCopier The copier
+     */
+    FileCopier newCopier() {
+        FileCopier copier = new FileCopier(this.mBufferSize, this.mCopierListener);
+        copier.setJournal(this.mJournal);
+        synchronized (this.mActiveCopiers) {
+            this.mActiveCopiers.add(copier);
+            if (this.mCancelled) {
+                copier.cancel();
+            }
+        }
+        return copier;
+    }
+
+    /**
+     * Method that checks if a file was completed in a previous attempt of the copy. In that
+     * case, the file is accounted as copied.
+     *
+     * @param src The source file
+     * @param dst The destination file
+     * @return boolean If the file doesn't need to be copied
+     */
+    private boolean isCompleted(File src, File dst) {
+        if (this.mJournal == null || !this.mJournal.isCompleted(src, dst)) {
+            return false;
+        }
+        onBytesCopied(src, 1, src.length());
+        return true;
+    }
+
+    /**
+     * Method that records a completed file and notifies the progress
+     *
+     * @param src The source file
+     * @param bytes The number of bytes copied not notified yet
+     */
+    private void onFileCompleted(File src, long bytes) {
+        if (this.mJournal != null) {
+            this.mJournal.onFileCompleted(src);
+        }
+        onBytesCopied(src, 1, bytes);
+    }
+
+    /**
+     * Method that accounts copied data and notifies the progress
+     *
+     * @param file The source file that progressed
+     * @param files The number of files completed
+     * @param bytes The number of bytes copied
+     */
+    void onBytesCopied(File file, int files, long bytes) {
+        synchronized (this.mProgressSync) {
+            this.mFiles += files;
+            this.mBytes += bytes;
+            if (this.mListener != null) {
+                this.mListener.onCopyProgress(file, this.mFiles, this.mBytes);
+            }
+        }
+    }
+
+    /**
+     * Method that marks a pending file as done
+     */
+    void releasePending() {
+        synchronized (this.mPendingSync) {
+            this.mPending--;
+            this.mPendingSync.notifyAll();
+        }
+    }
+
+    /**
+     * Method that waits until all the pending files are done
+     */
+    private void waitForPending() {
+        synchronized (this.mPendingSync) {
+            while (this.mPending > 0) {
+                try {
+                    this.mPendingSync.wait();
+                } catch (InterruptedException ie) {
+                    this.mCancelled = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that returns the number of concurrent operations allowed in the storage device
+     * of a file. Removable devices are slower with concurrent operations.
+     *
+     * @param file The file
+     * @return int The number of concurrent operations
+     */
+    static int getConcurrency(File file) {
+        MountPoint mp = MountPointHelper.getMountPointFromDirectory(file.getAbsolutePath());
+        if (mp != null) {
+            for (String fs : REMOVABLE_FILESYSTEMS) {
+                if (fs.equals(mp.getType())) {
+                    return REMOVABLE_CONCURRENCY;
+                }
+            }
+            String device = mp.getDevice();
+            for (String prefix : REMOVABLE_DEVICE_PREFIXES) {
+                if (device != null && device.startsWith(prefix)) {
+                    return REMOVABLE_CONCURRENCY;
+                }
+            }
+        }
+        return Math.max(REMOVABLE_CONCURRENCY,
+                Math.min(MAX_INTERNAL_CONCURRENCY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Method that returns if two files are in the same storage device. The destination
+     * doesn't need to exist.
+     *
+     * @param src The source file
+     * @param dst The destination file
+     * @return boolean If both files are in the same device
+     */
+    private static boolean isSameDevice(File src, File dst) {
+        File existing = dst.getAbsoluteFile();
+        while (existing != null && !existing.exists()) {
+            existing = existing.getParentFile();
+        }
+        if (existing == null) {
+            return false;
+        }
+        try {
+            return Os.stat(src.getAbsolutePath()).st_dev ==
+                    Os.stat(existing.getAbsolutePath()).st_dev;
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.model.DeleteProgress;
+
+import java.io.File;
+
+/**
+ * A class that accumulates the progress of a delete operation and notifies it as
+ * {@link DeleteProgress} partial results.
+ * <br/>
+ * The updates are throttled in the same way as {@link TransferProgressTracker}. The methods of
+ * this class are thread safe.
+ */
+public class DeleteProgressTracker implements DeleteScheduler.OnDeleteProgressListener {
+
+    // The weight of the last interval in the moving average of the throughput
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final AsyncResultListener mListener;
+
+    private int mEntries;
+    private String mCurrentFile;
+
+    private long mLastTime;
+    private int mLastEntries;
+    private double mRate;
+
+    /**
+     * Constructor of <code>DeleteProgressTracker</code>.
+     *
+     * @param listener The listener where to notify the progress (can be null)
+     */
+    public DeleteProgressTracker(AsyncResultListener listener) {
+        super();
+        this.mListener = listener;
+        this.mLastTime = System.currentTimeMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onDeleteProgress(File file, int entries) {
+        this.mCurrentFile = file.getAbsolutePath();
+        this.mEntries = entries;
+        notifyProgress(false);
+    }
+
+    /**
+     * Method that notifies the current progress, even if the interval has not elapsed.
+     */
+    public synchronized void flush() {
+        notifyProgress(true);
+    }
+
+    /**
+     * Method that notifies the progress, at most once per
+     * {@link TransferProgressTracker#PROGRESS_INTERVAL}
+     *
+     * @param force If the progress must be notified now
+     */
+    private void notifyProgress(boolean force) {
+        long now = System.currentTimeMillis();
+        long elapsed = now - this.mLastTime;
+        if (!force && elapsed < TransferProgressTracker.PROGRESS_INTERVAL) {
+            return;
+        }
+        if (elapsed > 0) {
+            double rate = ((this.mEntries - this.mLastEntries) * 1000d) / elapsed;
+            if (this.mLastEntries == 0 || this.mRate == 0) {
+                this.mRate = rate;
+            } else {
+                this.mRate = (RATE_SMOOTHING * rate) + ((1 - RATE_SMOOTHING) * this.mRate);
+            }
+            this.mLastTime = now;
+            this.mLastEntries = this.mEntries;
+        }
+        if (this.mListener != null) {
+            this.mListener.onPartialResult(new DeleteProgress(
+                    this.mEntries, this.mCurrentFile, Math.max(0, (long)this.mRate)));
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A class that deletes a directory tree with a pool of workers.
+ * <br/>
+ * Every folder is listed by a worker, which enqueues its subfolders and its files (in batches
+ * of {@link #FILE_BATCH_SIZE}), so different subtrees and big folders are deleted
+ * concurrently. Every folder counts its pending children, and it's deleted by the worker that
+ * completes its last child, so a folder is never deleted before its content. The concurrency
+ * is limited in the same way as the copies (see {@link CopyScheduler}).
+ * <br/>
+ * Symlinks are deleted, but never followed.
+ */
+public class DeleteScheduler {
+
+    private static final String TAG = "DeleteScheduler"; //$NON-NLS-1$
+
+    /**
+     * An interface to communicate the aggregated progress of the deletion.
+     */
+    public interface OnDeleteProgressListener {
+        /**
+         * Invoked when a file, a batch of files or a folder was deleted. The method is invoked
+         * from the threads of the pool, but never concurrently.
+         *
+         * @param file The last deleted file
+         * @param entries The number of files and folders deleted
+         */
+        void onDeleteProgress(File file, int entries);
+    }
+
+    // The maximum number of files deleted by a task
+    private static final int FILE_BATCH_SIZE = 64;
+
+    private final OnDeleteProgressListener mListener;
+
+    private ExecutorService mExecutor;
+
+    private final Object mPendingSync = new Object();
+    private int mPending;
+
+    private final Object mProgressSync = new Object();
+    private int mEntries;
+
+    private volatile boolean mFailed;
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructor of <code>DeleteScheduler</code>.
+     *
+     * @param listener The listener of the progress of the deletion (can be null)
+     */
+    public DeleteScheduler(OnDeleteProgressListener listener) {
+        super();
+        this.mListener = listener;
+    }
+
+    /**
+     * Method that deletes recursively a file or folder. This method blocks until all the
+     * files are deleted, a file fails or the deletion is cancelled.
+     *
+     * @param file The file or folder to delete
+     * @return boolean If the operation complete successfully
+     */
+    public boolean delete(File file) {
+        if (!isDirectory(file)) {
+            // Nothing to schedule
+            if (!file.delete()) {
+                return false;
+            }
+            onDeleted(file, 1);
+            return true;
+        }
+
+        this.mExecutor = Executors.newFixedThreadPool(CopyScheduler.getConcurrency(file));
+        try {
+            submitFolder(new Folder(file, null));
+            waitForPending();
+        } finally {
+            this.mExecutor.shutdownNow();
+        }
+        return !this.mFailed && !this.mCancelled;
+    }
+
+    /**
+     * Method that cancels the deletion. The method {@link #delete(File)} returns as soon as
+     * the tasks being executed are done.
+     */
+    public void cancel() {
+        this.mCancelled = true;
+    }
+
+    /**
+     * Method that returns if the deletion was cancelled.
+     *
+     * @return boolean If the deletion was cancelled
+     */
+    public boolean isCancelled() {
+        return this.mCancelled;
+    }
+
+    /**
+     * Method that lists a folder, enqueues its subfolders and batches of files, and deletes
+     * the remaining files
+     *
+     * @param folder The folder
+     */
+    void list(Folder folder) {
+        String[] names = folder.mFile.list();
+        if (names != null) {
+            List<File> files = new ArrayList<File>(FILE_BATCH_SIZE);
+            for (int i = 0; i < names.length; i++) {
+                if (this.mFailed || this.mCancelled) {
+                    return;
+                }
+                File child = new File(folder.mFile, names[i]);
+                if (isDirectory(child)) {
+                    folder.acquire();
+                    submitFolder(new Folder(child, folder));
+                } else {
+                    files.add(child);
+                    if (files.size() == FILE_BATCH_SIZE) {
+                        folder.acquire();
+                        submitFiles(folder, files);
+                        files = new ArrayList<File>(FILE_BATCH_SIZE);
+                    }
+                }
+            }
+            if (!deleteFiles(files)) {
+                return;
+            }
+        }
+        folder.release();
+    }
+
+    /**
+     * Method that deletes a batch of files
+     *
+     * @param files The files to delete
+     * @return boolean If all the files were deleted
+     */
+    boolean deleteFiles(List<File> files) {
+        int cc = files.size();
+        for (int i = 0; i < cc; i++) {
+            if (this.mFailed || this.mCancelled) {
+                return false;
+            }
+            File file = files.get(i);
+            if (!file.delete()) {
+                Log.e(TAG, String.format("Failed to delete file: %s", file)); //$NON-NLS-1$
+                this.mFailed = true;
+                return false;
+            }
+        }
+        if (cc > 0) {
+            onDeleted(files.get(cc - 1), cc);
+        }
+        return true;
+    }
+
+    /**
+     * Method that deletes a folder whose content was deleted, and releases its parent
+     *
+     * @param folder The folder
+     */
+    void deleteFolder(Folder folder) {
+        if (this.mFailed || this.mCancelled) {
+            return;
+        }
+        if (!folder.mFile.delete()) {
+            Log.e(TAG, String.format("Failed to delete folder: %s", folder.mFile)); //$NON-NLS-1$
+            this.mFailed = true;
+            return;
+        }
+        onDeleted(folder.mFile, 1);
+        if (folder.mParent != null) {
+            folder.mParent.release();
+        }
+    }
+
+    /**
+     * Method that enqueues the listing of a folder in the pool
+     *
+     * @param folder The folder
+     */
+    private void submitFolder(final Folder folder) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                list(folder);
+            }
+        });
+    }
+
+    /**
+     * Method that enqueues the deletion of a batch of files of a folder in the pool
+     *
+     * @param folder The folder of the files
+     * @param files The files
+     */
+    private void submitFiles(final Folder folder, final List<File> files) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                if (deleteFiles(files)) {
+                    folder.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Method that enqueues a task in the pool
+     *
+     * @param task The task
+     */
+    private void submit(final Runnable task) {
+        synchronized (this.mPendingSync) {
+            this.mPending++;
+        }
+        try {
+            this.mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!DeleteScheduler.this.mFailed && !DeleteScheduler.this.mCancelled) {
+                            task.run();
+                        }
+                    } catch (Throwable t) {
+                        Log.e(TAG, "Failed to delete", t); //$NON-NLS-1$
+                        DeleteScheduler.this.mFailed = true;
+                    } finally {
+                        releasePending();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // The pool was shutdown
+            releasePending();
+        }
+    }
+
+    /**
+     * Method that accounts deleted entries and notifies the progress
+     *
+     * @param file The last deleted file
+     * @param entries The number of entries deleted
+     */
+    private void onDeleted(File file, int entries) {
+        synchronized (this.mProgressSync) {
+            this.mEntries += entries;
+            if (this.mListener != null) {
+                this.mListener.onDeleteProgress(file, this.mEntries);
+            }
+        }
+    }
+
+    /**
+     * Method that marks a pending task as done
+     */
+    void releasePending() {
+        synchronized (this.mPendingSync) {
+            this.mPending--;
+            this.mPendingSync.notifyAll();
+        }
+    }
+
+    /**
+     * Method that waits until all the pending tasks are done
+     */
+    private void waitForPending() {
+        synchronized (this.mPendingSync) {
+            while (this.mPending > 0) {
+                try {
+                    this.mPendingSync.wait();
+                } catch (InterruptedException ie) {
+                    this.mCancelled = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that returns if a file is a folder, without following symlinks
+     *
+     * @param file The file
+     * @return boolean If the file is a folder
+     */
+    private static boolean isDirectory(File file) {
+        try {
+            return OsConstants.S_ISDIR(Os.lstat(file.getAbsolutePath()).st_mode);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A folder being deleted. The folder is deleted when its listing and all its children
+     * are done.
+     */
+    private class Folder {
+        final File mFile;
+        final Folder mParent;
+        // The listing of the folder is pending since its creation
+        private int mChildren = 1;
+
+        Folder(File file, Folder parent) {
+            super();
+            this.mFile = file;
+            this.mParent = parent;
+        }
+
+        synchronized void acquire() {
+            this.mChildren++;
+        }
+
+        void release() {
+            synchronized (this) {
+                this.mChildren--;
+                if (this.mChildren > 0) {
+                    return;
+                }
+            }
+            deleteFolder(this);
+        }
+    }
+}
@@ -177,10 +177,28 @@ public final class DialogHelper {
             Context context, int title,
             String[] options, int defOption,
             final OnSelectChoiceListener onSelectChoiceListener) {
+        return createSingleChoiceDialog(context, context.getString(title),
+                options, defOption, onSelectChoiceListener);
+    }
+
+    /**
+     * Method that creates a new {@link AlertDialog} for choice between single options.
+     *
+     * @param context The current context
+     * @param title The title of the alert dialog
+     * @param options An array with the options
+     * @param defOption The default option
+     * @param onSelectChoiceListener The listener for user choice
+     * @return AlertDialog The alert dialog reference
+     */
+    public static AlertDialog createSingleChoiceDialog(
+            Context context, String title,
+            String[] options, int defOption,
+            final OnSelectChoiceListener onSelectChoiceListener) {
         //Create the alert dialog
         final StringBuffer item = new StringBuffer().append(defOption);
         AlertDialog.Builder builder = new AlertDialog.Builder(context);
-        builder.setCustomTitle(createTitle(context, 0, context.getString(title), false));
+        builder.setCustomTitle(createTitle(context, 0, title, false));
 
         // Create the adapter
         List<CheckableListAdapter.CheckableItem> items =
@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.util;
+
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.ChecksumExecutable.CHECKSUMS;
+import com.cyanogenmod.filemanager.model.DuplicateGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A class that finds the duplicated files of a directory tree.
+ * <br/>
+ * The files are compared in three stages, every one more expensive than the previous one but
+ * applied over less files:
+ * <ol>
+ * <li>The tree is walked in parallel and the files are grouped by size.</li>
+ * <li>The files that share the size are grouped by a checksum of their first and last
+ * {@link #PARTIAL_SIZE} bytes.</li>
+ * <li>The files that share the partial checksum are grouped by the checksum of their whole
+ * content.</li>
+ * </ol>
+ * A file alone in its group can't be duplicated, so most of the files are never read. Every
+ * group of duplicated files is notified as soon as it's found, from the threads of the finder.
+ * <br/>
+ * Subclasses provide the access to the content of the files, so the same pipeline is used by
+ * every console.
+ */
+public abstract class DuplicateFinder {
+
+    /**
+     * An interface to communicate the groups of duplicated files.
+     */
+    public interface OnDuplicatesListener {
+        /**
+         * Invoked when a new group of duplicated files is found.
+         *
+         * @param group The group of duplicated files
+         */
+        void onDuplicates(DuplicateGroup group);
+    }
+
+    private static final String TAG = "DuplicateFinder"; //$NON-NLS-1$
+
+    /**
+     * The bytes read from the start and from the end of the files to compute the
+     * partial checksum.
+     */
+    public static final int PARTIAL_SIZE = 64 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final int MIN_THREADS = 2;
+    private static final int MAX_THREADS = 4;
+
+    private static final CHECKSUMS[] CHECKSUM = {CHECKSUMS.MD5};
+
+    private final OnDuplicatesListener mListener;
+    private final Map<Long, List<File>> mFilesBySize;
+
+    private ExecutorService mExecutor;
+    private int mPending;
+    private final Object mPendingSync = new Object();
+    private volatile boolean mCancelled;
+
+    private final ThreadLocal<byte[]> mBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * Constructor of <code>DuplicateFinder</code>.
+     *
+     * @param listener The listener where to notify the groups of duplicated files
+     */
+    public DuplicateFinder(OnDuplicatesListener listener) {
+        super();
+        this.mListener = listener;
+        this.mFilesBySize = new HashMap<Long, List<File>>();
+        this.mCancelled = false;
+    }
+
+    /**
+     * Method that opens a file to read its content.
+     *
+     * @param file The file to read
+     * @return InputStream The content of the file
+     * @throws IOException If the file can't be opened
+     */
+    protected abstract InputStream openFile(File file) throws IOException;
+
+    /**
+     * Method that returns the path of a file as it must be notified.
+     *
+     * @param file The file
+     * @return String The path of the file
+     */
+    protected String getPath(File file) {
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Method that returns if a file is a symbolic link. Symbolic links are ignored, so
+     * the same content isn't reported twice and the walk never loops.
+     *
+     * @param file The file to check
+     * @return boolean If the file is a symbolic link
+     */
+    protected boolean isSymlink(File file) {
+        File parent = file.getParentFile();
+        if (parent == null) {
+            return false;
+        }
+        try {
+            // Only the last segment of the path can be a link here (the parent is resolved)
+            File unresolved = new File(parent.getCanonicalFile(), file.getName());
+            return unresolved.getAbsolutePath().compareTo(file.getCanonicalPath()) != 0;
+        } catch (IOException ioex) {
+            return true;
+        }
+    }
+
+    /**
+     * Method that finds the duplicated files of a directory tree. This method blocks
+     * until the tree is fully analyzed or the finder is cancelled.
+     *
+     * @param root The directory where to start the search
+     */
+    public void find(final File root) {
+        int threads = Math.max(MIN_THREADS,
+                Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        this.mExecutor = Executors.newFixedThreadPool(threads);
+        try {
+            // Stage 1: group by size
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    walk(root);
+                }
+            });
+            waitForPending();
+
+            // Stage 2 and 3: only the sizes shared by several files. Bigger files first, because
+            // are the ones that waste more space
+            List<Long> sizes = new ArrayList<Long>();
+            for (Map.Entry<Long, List<File>> entry : this.mFilesBySize.entrySet()) {
+                if (entry.getValue().size() > 1) {
+                    sizes.add(entry.getKey());
+                }
+            }
+            Collections.sort(sizes, Collections.reverseOrder());
+            for (Long size : sizes) {
+                if (this.mCancelled) {
+                    break;
+                }
+                final long groupSize = size.longValue();
+                final List<File> files = this.mFilesBySize.get(size);
+                submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkGroup(groupSize, files);
+                    }
+                });
+            }
+            waitForPending();
+
+        } finally {
+            this.mExecutor.shutdownNow();
+            this.mFilesBySize.clear();
+        }
+    }
+
+    /**
+     * Method that cancels the search. The method {@link #find(File)} returns as soon as the
+     * running tasks notice the cancellation.
+     */
+    public void cancel() {
+        this.mCancelled = true;
+    }
+
+    /**
+     * Method that returns if the search was cancelled.
+     *
+     * @return boolean If the search was cancelled
+     */
+    public boolean isCancelled() {
+        return this.mCancelled;
+    }
+
+    /**
+     * Method that enqueues a task in the pool
+     *
+     * @param task The task to execute
+     */
+    private void submit(final Runnable task) {
+        synchronized (this.mPendingSync) {
+            this.mPending++;
+        }
+        try {
+            this.mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!DuplicateFinder.this.mCancelled) {
+                            task.run();
+                        }
+                    } catch (Throwable t) {
+                        Log.w(TAG, "Duplicates task failed", t); //$NON-NLS-1$
+                    } finally {
+                        releasePending();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // The pool was shutdown
+            releasePending();
+        }
+    }
+
+    /**
+     * Method that marks a pending task as done
+     */
+    void releasePending() {
+        synchronized (this.mPendingSync) {
+            this.mPending--;
+            if (this.mPending <= 0) {
+                this.mPendingSync.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Method that waits until all the pending tasks are done
+     */
+    private void waitForPending() {
+        synchronized (this.mPendingSync) {
+            while (this.mPending > 0) {
+                try {
+                    this.mPendingSync.wait();
+                } catch (InterruptedException ie) {
+                    this.mCancelled = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that groups the files of a directory by size and enqueues its subdirectories
+     *
+     * @param folder The directory to walk
+     */
+    void walk(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        int cc = files.length;
+        for (int i = 0; i < cc; i++) {
+            if (this.mCancelled) {
+                return;
+            }
+            final File file = files[i];
+            if (file.isDirectory()) {
+                if (!isSymlink(file)) {
+                    submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            walk(file);
+                        }
+                    });
+                }
+            } else if (file.isFile()) {
+                // Empty files are all equal; they aren't worth to report
+                long size = file.length();
+                if (size > 0) {
+                    Long key = Long.valueOf(size);
+                    synchronized (this.mFilesBySize) {
+                        List<File> group = this.mFilesBySize.get(key);
+                        if (group == null) {
+                            group = new ArrayList<File>(2);
+                            this.mFilesBySize.put(key, group);
+                        }
+                        group.add(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that finds the duplicated files of a group of files of the same size
+     *
+     * @param size The size of the files
+     * @param files The files of the group
+     */
+    void checkGroup(long size, List<File> files) {
+        List<File> candidates = new ArrayList<File>(files.size());
+        for (File file : files) {
+            if (!isSymlink(file)) {
+                candidates.add(file);
+            }
+        }
+        if (candidates.size() < 2) {
+            return;
+        }
+
+        // When the head and the tail cover the whole file, the partial checksum is already
+        // a checksum of all the content
+        boolean partialIsFull = size <= PARTIAL_SIZE * 2L;
+        Map<String, List<File>> partial = groupByChecksum(candidates, size, true);
+        for (Map.Entry<String, List<File>> entry : partial.entrySet()) {
+            if (entry.getValue().size() < 2 || this.mCancelled) {
+                continue;
+            }
+            if (partialIsFull) {
+                notifyDuplicates(size, entry.getKey(), entry.getValue());
+                continue;
+            }
+            Map<String, List<File>> full = groupByChecksum(entry.getValue(), size, false);
+            for (Map.Entry<String, List<File>> fullEntry : full.entrySet()) {
+                if (fullEntry.getValue().size() > 1 && !this.mCancelled) {
+                    notifyDuplicates(size, fullEntry.getKey(), fullEntry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Method that groups files by the checksum of their content. The files that can't
+     * be read are discarded.
+     *
+     * @param files The files to group
+     * @param size The size of the files
+     * @param partial If only the head and the tail of the files must be read
+     * @return Map<String, List<File>> The files grouped by checksum
+     */
+    private Map<String, List<File>> groupByChecksum(List<File> files, long size, boolean partial) {
+        Map<String, List<File>> groups = new LinkedHashMap<String, List<File>>();
+        for (File file : files) {
+            if (this.mCancelled) {
+                break;
+            }
+            try {
+                String checksum = computeChecksum(file, size, partial);
+                List<File> group = groups.get(checksum);
+                if (group == null) {
+                    group = new ArrayList<File>(2);
+                    groups.put(checksum, group);
+                }
+                group.add(file);
+            } catch (Exception ex) {
+                Log.w(TAG, "Failed to read " + file, ex); //$NON-NLS-1$
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Method that computes the checksum of a file
+     *
+     * @param file The file
+     * @param size The size of the file
+     * @param partial If only the head and the tail of the file must be read
+     * @return String The checksum
+     * @throws IOException If the file can't be read
+     * @throws NoSuchAlgorithmException If the digest algorithm isn't supported
+     * @throws InterruptedException If the thread was interrupted
+     */
+    private String computeChecksum(File file, long size, boolean partial)
+            throws IOException, NoSuchAlgorithmException, InterruptedException {
+        MultiDigest digest = new MultiDigest(CHECKSUM, false);
+        byte[] buffer = this.mBuffer.get();
+        InputStream is = openFile(file);
+        try {
+            if (!partial || size <= PARTIAL_SIZE * 2L) {
+                digest(is, digest, buffer, size);
+            } else {
+                digest(is, digest, buffer, PARTIAL_SIZE);
+                skip(is, size - (PARTIAL_SIZE * 2L));
+                digest(is, digest, buffer, PARTIAL_SIZE);
+            }
+        } finally {
+            try {
+                is.close();
+            } catch (Exception e) {/**NON BLOCK**/}
+        }
+        return digest.digest()[0];
+    }
+
+    /**
+     * Method that digests the next bytes of a stream
+     *
+     * @param is The stream
+     * @param digest The digest
+     * @param buffer The read buffer
+     * @param len The number of bytes to digest
+     * @throws IOException If the stream can't be read
+     * @throws InterruptedException If the thread was interrupted
+     */
+    private void digest(InputStream is, MultiDigest digest, byte[] buffer, long len)
+            throws IOException, InterruptedException {
+        long remaining = len;
+        while (remaining > 0 && !this.mCancelled) {
+            int read = is.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+            if (read == -1) {
+                // The file was truncated while reading
+                break;
+            }
+            digest.update(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Method that skips the next bytes of a stream
+     *
+     * @param is The stream
+     * @param len The number of bytes to skip
+     * @throws IOException If the stream can't be read
+     */
+    private static void skip(InputStream is, long len) throws IOException {
+        long remaining = len;
+        while (remaining > 0) {
+            long skipped = is.skip(remaining);
+            if (skipped <= 0) {
+                // Skip is allowed to do nothing; read a byte to check the end of the stream
+                if (is.read() == -1) {
+                    break;
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Method that notifies a group of duplicated files
+     *
+     * @param size The size of the files
+     * @param checksum The checksum of the content of the files
+     * @param files The files
+     */
+    private void notifyDuplicates(long size, String checksum, List<File> files) {
+        List<String> paths = new ArrayList<String>(files.size());
+        for (File file : files) {
+            paths.add(getPath(file));
+        }
+        synchronized (this.mListener) {
+            this.mListener.onDuplicates(new DuplicateGroup(size, checksum, paths));
+        }
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A class that copies files through {@link FileChannel}s.
+ * <br/>
+ * The data of regular files is copied with {@link FileChannel#transferTo}, so the kernel moves
+ * it between the files without copying it to user space. If the zero-copy transfer isn't
+ * possible, or the source file is sparse, the data is copied through a large direct buffer
+ * that is reused by all the files copied by the instance. Sparse files are copied block by
+ * block, and the blocks of zeros are skipped, so the holes are preserved in the destination.
+ * The modification time of the files is preserved.
+ * <br/>
+ * If a {@link CopyJournal} is set, the destination of the big files is flushed to the device
+ * at every checkpoint, and the copy of a file that was interrupted is resumed from its last
+ * checkpoint whose data still matches the source.
+ * <br/>
+ * An instance is not thread safe, except for {@link #cancel()}.
+ *
+ * @see CopyScheduler
+ */
+public class FileCopier {
+
+    private static final String TAG = "FileCopier"; //$NON-NLS-1$
+
+    /**
+     * An interface to communicate the progress of the copy of a file.
+     */
+    public interface OnCopyProgressListener {
+        /**
+         * Invoked when a chunk of a file was copied.
+         *
+         * @param src The file being copied
+         * @param bytes The bytes copied since the last invocation
+         */
+        void onCopyProgress(File src, long bytes);
+    }
+
+    // The maximum amount of data of every zero-copy transfer
+    private static final long TRANSFER_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    // The minimum size of the direct buffer
+    private static final int MIN_BUFFER_SIZE = 1024 * 1024;
+
+    // The granularity of the holes of the sparse files
+    private static final int SPARSE_BLOCK_SIZE = 4096;
+
+    // The unit of st_blocks
+    private static final long STAT_BLOCK_SIZE = 512;
+
+    private final int mBufferSize;
+    private final OnCopyProgressListener mListener;
+    private ByteBuffer mBuffer;
+    private byte[] mHeapBuffer;
+    private CopyJournal mJournal;
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructor of <code>FileCopier</code>.
+     *
+     * @param bufferSize The buffer size for the operation. The direct buffer is never smaller
+     * than 1MB.
+     * @param listener The listener of the progress of the copy (can be null)
+     */
+    public FileCopier(int bufferSize, OnCopyProgressListener listener) {
+        super();
+        this.mListener = listener;
+        int size = Math.max(MIN_BUFFER_SIZE, bufferSize);
+        // Round up to the sparse block size
+        this.mBufferSize =
+                ((size + SPARSE_BLOCK_SIZE - 1) / SPARSE_BLOCK_SIZE) * SPARSE_BLOCK_SIZE;
+    }
+
+    /**
+     * Method that sets the journal of the copy. The copies of the files bigger than a
+     * checkpoint are journaled and can be resumed.
+     *
+     * @param journal The journal (can be null)
+     */
+    public void setJournal(CopyJournal journal) {
+        this.mJournal = journal;
+    }
+
+    /**
+     * Method that copies a file
+     *
+     * @param src The source file
+     * @param dst The destination file
+     * @return boolean If the operation complete successfully
+     */
+    public boolean copyFile(final File src, final File dst) {
+        FileInputStream fis = null;
+        RandomAccessFile raf = null;
+        try {
+            fis = new FileInputStream(src);
+            raf = new RandomAccessFile(dst, "rw"); //$NON-NLS-1$
+
+            FileChannel in = fis.getChannel();
+            FileChannel out = raf.getChannel();
+            long size = in.size();
+            long copied = 0;
+            boolean sparse = isSparse(src, size);
+            boolean journaled = this.mJournal != null && size >= CopyJournal.CHECKPOINT_SIZE;
+            if (journaled) {
+                // Resume from the verified prefix of the destination
+                copied = verifyCheckpoints(src, in, out, this.mJournal.getCheckpoints(src));
+                raf.setLength(copied);
+                if (copied == 0) {
+                    this.mJournal.onFileStarted(src);
+                } else {
+                    Log.i(TAG, String.format("Resuming the copy of %s at %d", //$NON-NLS-1$
+                            src, Long.valueOf(copied)));
+                    this.mJournal.onFileResumed(src, copied);
+                    onProgress(src, copied);
+                }
+            } else {
+                // Discard the previous content of the destination
+                raf.setLength(0);
+            }
+
+            if (!sparse) {
+                copied = transfer(src, in, out, copied, size, journaled);
+            }
+            checkCancelled();
+            if (sparse || copied < size) {
+                // The transfer only stops early if zero-copy is not supported between the
+                // files, or if the source was truncated. Continue from there
+                copied = bufferedTransfer(src, in, out, copied, sparse, journaled);
+                // Extend the file over a trailing hole
+                if (raf.length() < copied) {
+                    raf.setLength(copied);
+                }
+            }
+            if (journaled) {
+                out.force(false);
+            }
+
+        } catch (Throwable e) {
+            if (!this.mCancelled) {
+                Log.e(TAG, String.format(
+                        "Failed to copy from %s to %s", src, dst), e); //$NON-NLS-1$
+            }
+            return false;
+        } finally {
+            try {
+                if (fis != null) {
+                    fis.close();
+                }
+            } catch (Throwable e) {/**NON BLOCK**/}
+            try {
+                if (raf != null) {
+                    raf.close();
+                }
+            } catch (Throwable e) {/**NON BLOCK**/}
+        }
+
+        preserveLastModified(src, dst);
+        return true;
+    }
+
+    /**
+     * Method that cancels the copy. The file being copied is left incomplete.
+     */
+    public void cancel() {
+        this.mCancelled = true;
+    }
+
+    /**
+     * Method that returns if the copy was cancelled.
+     *
+     * @return boolean If the copy was cancelled
+     */
+    public boolean isCancelled() {
+        return this.mCancelled;
+    }
+
+    /**
+     * Method that reads a whole file into the direct buffer. Used to copy small files in two
+     * steps, so the source and the destination devices are only busy for their own step.
+     *
+     * @param src The source file
+     * @return ByteBuffer The buffer with the content of the file, ready to be written, or
+     * <code>null</code> if the file doesn't fit in the buffer
+     * @throws IOException If the file couldn't be read
+     */
+    ByteBuffer read(final File src) throws IOException {
+        FileInputStream fis = new FileInputStream(src);
+        try {
+            FileChannel in = fis.getChannel();
+            ByteBuffer buffer = getBuffer();
+            buffer.clear();
+            if (in.size() >= buffer.capacity()) {
+                return null;
+            }
+            while (in.read(buffer) != -1) {
+                if (!buffer.hasRemaining()) {
+                    // The file grew while reading it
+                    return null;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            try {
+                fis.close();
+            } catch (Throwable e) {/**NON BLOCK**/}
+        }
+    }
+
+    /**
+     * Method that writes the content read by {@link #read(File)} to a file
+     *
+     * @param data The content of the file
+     * @param dst The destination file
+     * @throws IOException If the file couldn't be written
+     */
+    static void write(ByteBuffer data, final File dst) throws IOException {
+        FileOutputStream fos = new FileOutputStream(dst);
+        try {
+            FileChannel out = fos.getChannel();
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Method that copies the data with zero-copy transfers
+     *
+     * @param src The source file
+     * @param in The source channel
+     * @param out The destination channel
+     * @param position The position where to start the copy
+     * @param size The size of the source
+     * @param journaled If the checkpoints of the copy should be recorded in the journal
+     * @return long The position of the end of the copied data. It's less than the size if
+     * the transfer can't continue.
+     * @throws IOException If a checkpoint couldn't be flushed
+     */
+    private long transfer(File src, FileChannel in, FileChannel out, long position,
+            long size, boolean journaled) throws IOException {
+        // The transfers write at the position of the destination channel
+        out.position(position);
+        long checkpoint = position;
+        while (position < size && !this.mCancelled) {
+            long count;
+            try {
+                count = in.transferTo(
+                        position, Math.min(TRANSFER_CHUNK_SIZE, size - position), out);
+            } catch (IOException e) {
+                Log.w(TAG, "Zero-copy transfer failed. Fallback to buffered copy", e); //$NON-NLS-1$
+                break;
+            }
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+            onProgress(src, count);
+            if (journaled && position - checkpoint >= CopyJournal.CHECKPOINT_SIZE) {
+                checkpoint(src, out, position);
+                checkpoint = position;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Method that copies the data through the direct buffer, up to the end of the source
+     *
+     * @param src The source file
+     * @param in The source channel
+     * @param out The destination channel
+     * @param position The position where to start the copy
+     * @param sparse If the blocks of zeros should be skipped
+     * @param journaled If the checkpoints of the copy should be recorded in the journal
+     * @return long The position of the end of the copied data
+     * @throws IOException If the data couldn't be copied
+     */
+    private long bufferedTransfer(File src, FileChannel in, FileChannel out, long position,
+            boolean sparse, boolean journaled) throws IOException {
+        ByteBuffer buffer = getBuffer();
+        long checkpoint = position;
+        while (true) {
+            checkCancelled();
+            buffer.clear();
+            int read = in.read(buffer, position);
+            if (read == -1) {
+                break;
+            }
+            buffer.flip();
+            write(out, buffer, position, sparse);
+            position += read;
+            onProgress(src, read);
+            if (journaled && position - checkpoint >= CopyJournal.CHECKPOINT_SIZE) {
+                checkpoint(src, out, position);
+                checkpoint = position;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Method that records a checkpoint of the copy of a file in the journal
+     *
+     * @param src The source file
+     * @param out The destination channel
+     * @param position The position of the end of the copied data
+     * @throws IOException If the destination couldn't be flushed
+     */
+    private void checkpoint(File src, FileChannel out, long position) throws IOException {
+        // The checkpoint is only valid if the data reached the device
+        out.force(false);
+        this.mJournal.onCheckpoint(src, position);
+    }
+
+    /**
+     * Method that verifies the checkpoints of a previous attempt of the copy of a file,
+     * comparing the data of the destination with the source chunk by chunk
+     *
+     * @param src The source file
+     * @param in The source channel
+     * @param out The destination channel
+     * @param checkpoints The offsets of the checkpoints, in ascending order
+     * @return long The offset of the last checkpoint whose data matches the source
+     * @throws IOException If the files couldn't be read
+     */
+    long verifyCheckpoints(File src, FileChannel in, FileChannel out, List<Long> checkpoints)
+            throws IOException {
+        if (checkpoints.isEmpty()) {
+            return 0;
+        }
+        ByteBuffer source = getBuffer();
+        ByteBuffer copy = ByteBuffer.wrap(getHeapBuffer());
+        long size = out.size();
+        long verified = 0;
+        long position = 0;
+        for (Long checkpoint : checkpoints) {
+            long offset = checkpoint.longValue();
+            if (offset > size || offset <= verified) {
+                break;
+            }
+            while (position < offset) {
+                checkCancelled();
+                int len = (int)Math.min(this.mBufferSize, offset - position);
+                if (!read(in, source, position, len) || !read(out, copy, position, len) ||
+                        !source.equals(copy)) {
+                    Log.w(TAG, String.format("The copy of %s doesn't match at %d", //$NON-NLS-1$
+                            src, Long.valueOf(verified)));
+                    return verified;
+                }
+                position += len;
+            }
+            verified = offset;
+        }
+        return verified;
+    }
+
+    /**
+     * Method that notifies the progress of the copy
+     *
+     * @param src The file being copied
+     * @param bytes The bytes copied
+     */
+    private void onProgress(File src, long bytes) {
+        if (this.mListener != null) {
+            this.mListener.onCopyProgress(src, bytes);
+        }
+    }
+
+    /**
+     * Method that checks if the copy was cancelled
+     *
+     * @throws InterruptedIOException If the copy was cancelled
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if (this.mCancelled) {
+            throw new InterruptedIOException("cancelled"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method that writes all the remaining data of a buffer at a position of a channel,
+     * skipping the blocks of zeros of the sparse files
+     *
+     * @param out The channel
+     * @param buffer The data
+     * @param position The position of the channel
+     * @param sparse If the blocks of zeros should be skipped
+     * @throws IOException If the data couldn't be written
+     */
+    private static void write(FileChannel out, ByteBuffer buffer, long position, boolean sparse)
+            throws IOException {
+        if (!sparse) {
+            write(out, buffer, position);
+            return;
+        }
+
+        // Write the runs of blocks with data, and skip the blocks of zeros
+        int limit = buffer.limit();
+        int start = 0;
+        for (int block = 0; block < limit; block += SPARSE_BLOCK_SIZE) {
+            int end = Math.min(limit, block + SPARSE_BLOCK_SIZE);
+            if (isZero(buffer, block, end)) {
+                if (start < block) {
+                    write(out, slice(buffer, start, block), position + start);
+                }
+                start = end;
+            }
+        }
+        if (start < limit) {
+            write(out, slice(buffer, start, limit), position + start);
+        }
+    }
+
+    /**
+     * Method that writes all the remaining data of a buffer at a position of a channel
+     *
+     * @param out The channel
+     * @param buffer The data
+     * @param position The position of the channel
+     * @throws IOException If the data couldn't be written
+     */
+    private static void write(FileChannel out, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+
+    /**
+     * Method that fills a buffer with the data at a position of a channel. The buffer is
+     * flipped, ready to be read.
+     *
+     * @param in The channel
+     * @param buffer The buffer
+     * @param position The position of the channel
+     * @param len The amount of data to read
+     * @return boolean If all the data was read. False if the end of the channel was reached.
+     * @throws IOException If the data couldn't be read
+     */
+    private static boolean read(FileChannel in, ByteBuffer buffer, long position, int len)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(len);
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position + buffer.position());
+            if (read == -1) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Method that returns a view over a region of a buffer
+     *
+     * @param buffer The buffer
+     * @param start The start of the region
+     * @param end The end of the region
+     * @return ByteBuffer The view
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return slice;
+    }
+
+    /**
+     * Method that checks if a region of a buffer only contains zeros
+     *
+     * @param buffer The buffer
+     * @param start The start of the region
+     * @param end The end of the region
+     * @return boolean If the region only contains zeros
+     */
+    private static boolean isZero(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        for (; i + 8 <= end; i += 8) {
+            if (buffer.getLong(i) != 0) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method that returns the direct buffer, allocating it on first use
+     *
+     * @return ByteBuffer The direct buffer
+     */
+    private ByteBuffer getBuffer() {
+        if (this.mBuffer == null) {
+            this.mBuffer = ByteBuffer.allocateDirect(this.mBufferSize);
+        }
+        return this.mBuffer;
+    }
+
+    /**
+     * Method that returns the heap buffer where the destination is read to verify the
+     * checkpoints, allocating it on first use
+     *
+     * @return byte[] The heap buffer
+     */
+    private byte[] getHeapBuffer() {
+        if (this.mHeapBuffer == null) {
+            this.mHeapBuffer = new byte[this.mBufferSize];
+        }
+        return this.mHeapBuffer;
+    }
+
+    /**
+     * Method that returns if a file has holes, this is, if it has less blocks allocated
+     * than the needed for its size
+     *
+     * @param file The file
+     * @param size The size of the file
+     * @return boolean If the file is sparse
+     */
+    private static boolean isSparse(File file, long size) {
+        if (size < SPARSE_BLOCK_SIZE) {
+            return false;
+        }
+        try {
+            StructStat st = Os.stat(file.getAbsolutePath());
+            return st.st_blocks * STAT_BLOCK_SIZE < size;
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Method that copies the modification time of the source to the destination
+     *
+     * @param src The source file or folder
+     * @param dst The destination file or folder
+     */
+    static void preserveLastModified(File src, File dst) {
+        long lastModified = src.lastModified();
+        if (lastModified > 0 && !dst.setLastModified(lastModified)) {
+            // Some filesystems (fuse, vfat) doesn't allow to change the modification time
+            Log.w(TAG, String.format(
+                    "Failed to preserve the modification time of %s", dst)); //$NON-NLS-1$
+        }
+    }
+}
@@ -26,7 +26,6 @@ import com.cyanogenmod.filemanager.R;
 import com.cyanogenmod.filemanager.commands.SyncResultExecutable;
 import com.cyanogenmod.filemanager.commands.shell.ResolveLinkCommand;
 import com.cyanogenmod.filemanager.console.Console;
-import com.cyanogenmod.filemanager.console.ExecutionException;
 import com.cyanogenmod.filemanager.console.InsufficientPermissionsException;
 import com.cyanogenmod.filemanager.console.java.JavaConsole;
 import com.cyanogenmod.filemanager.model.AID;
@@ -44,6 +43,7 @@ import com.cyanogenmod.filemanager.model.RegularFile;
 import com.cyanogenmod.filemanager.model.Symlink;
 import com.cyanogenmod.filemanager.model.SystemFile;
 import com.cyanogenmod.filemanager.model.User;
+import com.cyanogenmod.filemanager.preferences.AccessMode;
 import com.cyanogenmod.filemanager.preferences.DisplayRestrictions;
 import com.cyanogenmod.filemanager.preferences.FileManagerSettings;
 import com.cyanogenmod.filemanager.preferences.FileTimeFormatMode;
@@ -53,11 +53,7 @@ import com.cyanogenmod.filemanager.preferences.ObjectStringIdentifier;
 import com.cyanogenmod.filemanager.preferences.Preferences;
 import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -895,6 +891,12 @@ public final class FileHelper {
                     null, null, null, null, null,
                     "unzip", null, null, "unlzma", "unxz", "uncompress", "unrar"
                 };
+        // Formats extracted by the java console
+        final boolean[] JAVA =
+                {
+                    true, true, true, true, true,
+                    true, true, true, true, true, false, false
+                };
 
         // Check that have a valid file
         if (fso == null) return false;
@@ -912,18 +914,44 @@ public final class FileHelper {
             int cc = VALID.length;
             for (int i = 0; i < cc; i++) {
                 if (VALID[i].compareToIgnoreCase(ext) == 0) {
-                    // Is the command present
-                    if (OPT_KEYS[i] != null &&
-                        FileManagerApplication.hasOptionalCommand(OPT_KEYS[i])) {
-                        return true;
+                    // The java console (safe mode) doesn't use external commands
+                    if (FileManagerApplication.getAccessMode().compareTo(AccessMode.SAFE) == 0) {
+                        return JAVA[i];
                     }
-                    return false;
+                    // Is the command present
+                    return OPT_KEYS[i] == null ||
+                            FileManagerApplication.hasOptionalCommand(OPT_KEYS[i]);
                 }
             }
         }
         return false;
     }
 
+    /**
+     * Method that converts the name of an archive entry to a path relative to the
+     * extraction directory. The leading separators and the <code>.</code> and
+     * <code>..</code> components are removed (in the same way as <code>unzip</code>), so
+     * an entry can't be extracted outside the extraction directory.
+     *
+     * @param name The name of the entry
+     * @return String The relative path (empty if the name has no valid components)
+     */
+    public static String toSafeArchivePath(String name) {
+        StringBuilder path = new StringBuilder(name.length());
+        String[] components = name.split("/"); //$NON-NLS-1$
+        for (String component : components) {
+            if (component.length() == 0 || component.equals(".") //$NON-NLS-1$
+                    || component.equals("..")) { //$NON-NLS-1$
+                continue;
+            }
+            if (path.length() > 0) {
+                path.append(File.separator);
+            }
+            path.append(component);
+        }
+        return path.toString();
+    }
+
     /**
      * Method that converts an absolute path to a relative path
      *
@@ -1004,86 +1032,6 @@ public final class FileHelper {
         return null;
     }
 
-    /**
-     * Method that copies recursively to the destination
-     *
-     * @param src The source file or folder
-     * @param dst The destination file or folder
-     * @param bufferSize The buffer size for the operation
-     * @return boolean If the operation complete successfully
-     * @throws ExecutionException If a problem was detected in the operation
-     */
-    public static boolean copyRecursive(
-            final File src, final File dst, int bufferSize) throws ExecutionException {
-        if (src.isDirectory()) {
-            // Create the directory
-            if (dst.exists() && !dst.isDirectory()) {
-                Log.e(TAG,
-                        String.format("Failed to check destionation dir: %s", dst)); //$NON-NLS-1$
-                throw new ExecutionException("the path exists but is not a folder"); //$NON-NLS-1$
-            }
-            if (!dst.exists()) {
-                if (!dst.mkdir()) {
-                    Log.e(TAG, String.format("Failed to create directory: %s", dst)); //$NON-NLS-1$
-                    return false;
-                }
-            }
-            File[] files = src.listFiles();
-            if (files != null) {
-                for (int i = 0; i < files.length; i++) {
-                    if (!copyRecursive(files[i], new File(dst, files[i].getName()), bufferSize)) {
-                        return false;
-                    }
-                }
-            }
-        } else {
-            // Copy the directory
-            if (!bufferedCopy(src, dst,bufferSize)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    /**
-     * Method that copies a file
-     *
-     * @param src The source file
-     * @param dst The destination file
-     * @param bufferSize The buffer size for the operation
-     * @return boolean If the operation complete successfully
-     */
-    public static boolean bufferedCopy(final File src, final File dst, int bufferSize) {
-        BufferedInputStream bis = null;
-        BufferedOutputStream bos = null;
-        try {
-            bis = new BufferedInputStream(new FileInputStream(src), bufferSize);
-            bos = new BufferedOutputStream(new FileOutputStream(dst), bufferSize);
-            int read = 0;
-            byte[] data = new byte[bufferSize];
-            while ((read = bis.read(data, 0, bufferSize)) != -1) {
-                bos.write(data, 0, read);
-            }
-            return true;
-
-        } catch (Throwable e) {
-            Log.e(TAG,
-                    String.format(TAG, "Failed to copy from %s to %d", src, dst), e); //$NON-NLS-1$
-            return false;
-        } finally {
-            try {
-                if (bis != null) {
-                    bis.close();
-                }
-            } catch (Throwable e) {/**NON BLOCK**/}
-            try {
-                if (bos != null) {
-                    bos.close();
-                }
-            } catch (Throwable e) {/**NON BLOCK**/}
-        }
-    }
-
     /**
      * Method that deletes a folder recursively
      *
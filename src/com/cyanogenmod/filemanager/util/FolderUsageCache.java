@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.util;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.model.FolderUsage;
+import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent cache of the usage of every directory walked by the folder usage command.
+ * <br/>
+ * Every row holds the <b>direct</b> content of a directory (the files it contains and the names
+ * of its subdirectories), keyed by the directory path and its last modification time. A
+ * directory whose modification time did not change doesn't need to be listed again; only its
+ * subdirectories need to be checked.
+ */
+public final class FolderUsageCache {
+
+    private static final String TAG = "FolderUsageCache"; //$NON-NLS-1$
+
+    private static final String COLUMN_PATH = "path"; //$NON-NLS-1$
+    private static final String COLUMN_LAST_MODIFIED = "last_modified"; //$NON-NLS-1$
+    private static final String COLUMN_FOLDERS = "folders"; //$NON-NLS-1$
+    private static final String COLUMN_FILES = "files"; //$NON-NLS-1$
+    private static final String COLUMN_SIZE = "size"; //$NON-NLS-1$
+    private static final String COLUMN_STATISTICS = "statistics"; //$NON-NLS-1$
+    private static final String COLUMN_CHILDREN = "children"; //$NON-NLS-1$
+
+    private static final String[] PROJECTION = {
+        COLUMN_PATH, COLUMN_LAST_MODIFIED, COLUMN_FOLDERS, COLUMN_FILES,
+        COLUMN_SIZE, COLUMN_STATISTICS, COLUMN_CHILDREN
+    };
+
+    // A file name can't contain a path separator, so it's safe to use it to join the children
+    private static final String CHILDREN_SEPARATOR = File.separator;
+    private static final String STATISTICS_SEPARATOR = ";"; //$NON-NLS-1$
+    private static final String STATISTICS_FIELD_SEPARATOR = ":"; //$NON-NLS-1$
+
+    /**
+     * The cached content of a directory.
+     */
+    public static class Entry {
+        /**
+         * The absolute path of the directory
+         */
+        public final String mPath;
+        /**
+         * The last modification time of the directory when it was listed
+         */
+        public final long mLastModified;
+        /**
+         * The usage of the files directly contained in the directory. The number of folders
+         * is the number of direct subdirectories.
+         */
+        public final FolderUsage mUsage;
+        /**
+         * The names of the direct subdirectories
+         */
+        public final String[] mChildren;
+
+        /**
+         * Constructor of <code>Entry</code>.
+         *
+         * @param path The absolute path of the directory
+         * @param lastModified The last modification time of the directory
+         * @param usage The usage of the files directly contained in the directory
+         * @param children The names of the direct subdirectories
+         */
+        public Entry(String path, long lastModified, FolderUsage usage, String[] children) {
+            super();
+            this.mPath = path;
+            this.mLastModified = lastModified;
+            this.mUsage = usage;
+            this.mChildren = children;
+        }
+    }
+
+    private static FolderUsageCache sInstance;
+
+    private final DatabaseHelper mDatabaseHelper;
+
+    /**
+     * Constructor of <code>FolderUsageCache</code>.
+     *
+     * @param context The current context
+     */
+    private FolderUsageCache(Context context) {
+        super();
+        this.mDatabaseHelper = new DatabaseHelper(context);
+    }
+
+    /**
+     * Method that returns the shared instance of the cache
+     *
+     * @param context The current context
+     * @return FolderUsageCache The cache
+     */
+    public static synchronized FolderUsageCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FolderUsageCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Method that loads the cached entries of a directory and all its descendants
+     *
+     * @param directory The absolute path of the root directory
+     * @return Map<String, Entry> The cached entries, keyed by path
+     */
+    public Map<String, Entry> load(String directory) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = this.mDatabaseHelper.getReadableDatabase();
+            String prefix = getSubtreePrefix(directory);
+            cursor = db.query(DatabaseHelper.USAGE_TABLE, PROJECTION,
+                    COLUMN_PATH + " = ? OR substr(" + COLUMN_PATH + //$NON-NLS-1$
+                    ", 1, " + prefix.length() + ") = ?", //$NON-NLS-1$ //$NON-NLS-2$
+                    new String[]{directory, prefix}, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    Entry entry = readEntry(cursor);
+                    entries.put(entry.mPath, entry);
+                }
+            }
+        } catch (Exception ex) {
+            // The cache is only an optimization. Walk the whole tree
+            Log.w(TAG, "Failed to load the folder usage cache", ex); //$NON-NLS-1$
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Method that stores the changed entries and removes the directories that don't exist
+     * anymore (and all its descendants), all in one transaction
+     *
+     * @param changed The new or changed entries
+     * @param removed The absolute path of the removed directories
+     */
+    public void save(List<Entry> changed, List<String> removed) {
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = this.mDatabaseHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (String path : removed) {
+                    String prefix = getSubtreePrefix(path);
+                    db.delete(DatabaseHelper.USAGE_TABLE,
+                            COLUMN_PATH + " = ? OR substr(" + COLUMN_PATH + //$NON-NLS-1$
+                            ", 1, " + prefix.length() + ") = ?", //$NON-NLS-1$ //$NON-NLS-2$
+                            new String[]{path, prefix});
+                }
+                ContentValues values = new ContentValues(PROJECTION.length);
+                for (Entry entry : changed) {
+                    values.clear();
+                    writeEntry(entry, values);
+                    db.replace(DatabaseHelper.USAGE_TABLE, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to save the folder usage cache", ex); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method that returns the prefix shared by all the descendants of a directory
+     *
+     * @param directory The absolute path of the directory
+     * @return String The prefix of the descendants
+     */
+    private static String getSubtreePrefix(String directory) {
+        if (directory.endsWith(File.separator)) {
+            return directory;
+        }
+        return directory + File.separator;
+    }
+
+    /**
+     * Method that reads an entry from the current row of a cursor
+     *
+     * @param cursor The cursor
+     * @return Entry The entry
+     */
+    private static Entry readEntry(Cursor cursor) {
+        String path = cursor.getString(0);
+        FolderUsage usage = new FolderUsage(path);
+        usage.setNumberOfFolders(cursor.getInt(2));
+        usage.setNumberOfFiles(cursor.getInt(3));
+        usage.setTotalSize(cursor.getLong(4));
+
+        // ordinal:count:size;ordinal:count:size;...
+        String statistics = cursor.getString(5);
+        if (!TextUtils.isEmpty(statistics)) {
+            MimeTypeCategory[] categories = MimeTypeCategory.values();
+            for (String stat : statistics.split(STATISTICS_SEPARATOR)) {
+                String[] fields = stat.split(STATISTICS_FIELD_SEPARATOR);
+                int ordinal = Integer.parseInt(fields[0]);
+                if (ordinal >= 0 && ordinal < categories.length) {
+                    usage.setStatisticsForCategory(categories[ordinal],
+                            Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+                }
+            }
+        }
+
+        String children = cursor.getString(6);
+        String[] names = TextUtils.isEmpty(children)
+                ? new String[0]
+                : children.split(CHILDREN_SEPARATOR);
+        return new Entry(path, cursor.getLong(1), usage, names);
+    }
+
+    /**
+     * Method that writes an entry to a set of values
+     *
+     * @param entry The entry
+     * @param values The values where to write the entry
+     */
+    private static void writeEntry(Entry entry, ContentValues values) {
+        FolderUsage usage = entry.mUsage;
+        values.put(COLUMN_PATH, entry.mPath);
+        values.put(COLUMN_LAST_MODIFIED, Long.valueOf(entry.mLastModified));
+        values.put(COLUMN_FOLDERS, Integer.valueOf(usage.getNumberOfFolders()));
+        values.put(COLUMN_FILES, Integer.valueOf(usage.getNumberOfFiles()));
+        values.put(COLUMN_SIZE, Long.valueOf(usage.getTotalSize()));
+
+        // Only store the categories with files
+        StringBuilder statistics = new StringBuilder();
+        MimeTypeCategory[] categories = MimeTypeCategory.values();
+        for (int i = 0; i < categories.length; i++) {
+            long count = usage.getStatisticsForCategory(categories[i]);
+            if (count == 0) {
+                continue;
+            }
+            if (statistics.length() > 0) {
+                statistics.append(STATISTICS_SEPARATOR);
+            }
+            statistics.append(categories[i].ordinal())
+                    .append(STATISTICS_FIELD_SEPARATOR)
+                    .append(count)
+                    .append(STATISTICS_FIELD_SEPARATOR)
+                    .append(usage.getSizeForCategory(categories[i]));
+        }
+        values.put(COLUMN_STATISTICS, statistics.toString());
+        values.put(COLUMN_CHILDREN, TextUtils.join(CHILDREN_SEPARATOR, entry.mChildren));
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        // Constants
+        static final int DATABASE_VERSION = 1;
+        static final String DATABASE_NAME = "folder_usage"; //$NON-NLS-1$
+        static final String USAGE_TABLE = "folder_usage"; //$NON-NLS-1$
+        static final String CREATE_USAGE_TABLE = "CREATE TABLE IF NOT EXISTS " + //$NON-NLS-1$
+                USAGE_TABLE +
+                " ( " + //$NON-NLS-1$
+                "`" + COLUMN_PATH + "` TEXT PRIMARY KEY, " + //$NON-NLS-1$ //$NON-NLS-2$
+                "`" + COLUMN_LAST_MODIFIED + "` INTEGER, " + //$NON-NLS-1$ //$NON-NLS-2$
+                "`" + COLUMN_FOLDERS + "` INTEGER, " + //$NON-NLS-1$ //$NON-NLS-2$
+                "`" + COLUMN_FILES + "` INTEGER, " + //$NON-NLS-1$ //$NON-NLS-2$
+                "`" + COLUMN_SIZE + "` INTEGER, " + //$NON-NLS-1$ //$NON-NLS-2$
+                "`" + COLUMN_STATISTICS + "` TEXT, " + //$NON-NLS-1$ //$NON-NLS-2$
+                "`" + COLUMN_CHILDREN + "` TEXT " + //$NON-NLS-1$ //$NON-NLS-2$
+                ")"; //$NON-NLS-1$
+
+        /**
+         * Constructor
+         *
+         * @param context {@link android.content.Context}
+         */
+        public DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase sqLiteDatabase) {
+            sqLiteDatabase.execSQL(CREATE_USAGE_TABLE);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + USAGE_TABLE); //$NON-NLS-1$
+            onCreate(sqLiteDatabase);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The LZMA decoder shared by {@link XZInputStream} (LZMA2) and {@link LzmaInputStream}.
+ * <br/>
+ * The decoder writes the decoded data to a circular dictionary. The data is decoded up to a
+ * limit (the end of the dictionary buffer, or the end of the current chunk), so the caller can
+ * copy the new data before it's overwritten. A match that crosses the limit is completed in the
+ * next call.
+ */
+class LzmaDecoder {
+
+    private static final int STATES = 12;
+    private static final int POS_STATES_MAX = 1 << 4;
+    private static final int MATCH_LEN_MIN = 2;
+    private static final int END_POS_MODEL_INDEX = 14;
+    private static final int FULL_DISTANCES = 1 << (END_POS_MODEL_INDEX >>> 1);
+    private static final int ALIGN_BITS = 4;
+    private static final int LEN_TO_POS_STATES = 4;
+
+    private static final int PROB_BITS = 11;
+    private static final short PROB_INIT = (short)(1 << (PROB_BITS - 1));
+    private static final int MOVE_BITS = 5;
+
+    // Dictionary
+    final byte[] mDict;
+    int mPos;
+    int mFull;
+    private int mLimit;
+    private int mPendingLength;
+
+    // Range decoder
+    private byte[] mInput;
+    private int mInputPos;
+    private int mInputLimit;
+    private InputStream mIn;
+    private int mRange;
+    private int mCode;
+
+    // Properties
+    private int mLc;
+    private int mLp;
+    private int mPb;
+
+    // State
+    private int mState;
+    private int mRep0;
+    private int mRep1;
+    private int mRep2;
+    private int mRep3;
+    private boolean mEndMarker;
+
+    private final short[] mIsMatch = new short[STATES * POS_STATES_MAX];
+    private final short[] mIsRep = new short[STATES];
+    private final short[] mIsRepG0 = new short[STATES];
+    private final short[] mIsRepG1 = new short[STATES];
+    private final short[] mIsRepG2 = new short[STATES];
+    private final short[] mIsRep0Long = new short[STATES * POS_STATES_MAX];
+    private final short[] mPosSlot = new short[LEN_TO_POS_STATES * (1 << 6)];
+    private final short[] mPosDecoders = new short[1 + FULL_DISTANCES - END_POS_MODEL_INDEX];
+    private final short[] mAlign = new short[1 << ALIGN_BITS];
+    private final short[] mLen = new short[2 + (POS_STATES_MAX << 4) + 256];
+    private final short[] mRepLen = new short[2 + (POS_STATES_MAX << 4) + 256];
+    private short[] mLiterals = new short[0];
+
+    /**
+     * Constructor of <code>LzmaDecoder</code>.
+     *
+     * @param dictSize The size of the dictionary
+     */
+    LzmaDecoder(int dictSize) {
+        super();
+        this.mDict = new byte[Math.max(4096, dictSize)];
+    }
+
+    /**
+     * Method that sets the properties of the decoder and resets its state
+     *
+     * @param lc The number of literal context bits
+     * @param lp The number of literal position bits
+     * @param pb The number of position bits
+     * @throws IOException If the properties are not valid
+     */
+    void setProperties(int lc, int lp, int pb) throws IOException {
+        if (lc > 8 || lp > 4 || pb > 4) {
+            throw new IOException("Invalid LZMA properties"); //$NON-NLS-1$
+        }
+        this.mLc = lc;
+        this.mLp = lp;
+        this.mPb = pb;
+        int size = 0x300 << (lc + lp);
+        if (this.mLiterals.length != size) {
+            this.mLiterals = new short[size];
+        }
+        resetState();
+    }
+
+    /**
+     * Method that resets the state of the decoder (the probabilities and the distances)
+     */
+    void resetState() {
+        this.mState = 0;
+        this.mRep0 = 0;
+        this.mRep1 = 0;
+        this.mRep2 = 0;
+        this.mRep3 = 0;
+        this.mPendingLength = 0;
+        Arrays.fill(this.mIsMatch, PROB_INIT);
+        Arrays.fill(this.mIsRep, PROB_INIT);
+        Arrays.fill(this.mIsRepG0, PROB_INIT);
+        Arrays.fill(this.mIsRepG1, PROB_INIT);
+        Arrays.fill(this.mIsRepG2, PROB_INIT);
+        Arrays.fill(this.mIsRep0Long, PROB_INIT);
+        Arrays.fill(this.mPosSlot, PROB_INIT);
+        Arrays.fill(this.mPosDecoders, PROB_INIT);
+        Arrays.fill(this.mAlign, PROB_INIT);
+        Arrays.fill(this.mLen, PROB_INIT);
+        Arrays.fill(this.mRepLen, PROB_INIT);
+        Arrays.fill(this.mLiterals, PROB_INIT);
+    }
+
+    /**
+     * Method that resets the dictionary
+     */
+    void resetDictionary() {
+        this.mPos = 0;
+        this.mFull = 0;
+        this.mPendingLength = 0;
+    }
+
+    /**
+     * Method that sets the input of the range decoder to a buffer (a LZMA2 chunk)
+     *
+     * @param input The buffer
+     * @param length The length of the data in the buffer
+     * @throws IOException If the data is not valid
+     */
+    void setInput(byte[] input, int length) throws IOException {
+        this.mInput = input;
+        this.mInputPos = 0;
+        this.mInputLimit = length;
+        this.mIn = null;
+        initRange();
+    }
+
+    /**
+     * Method that sets the input of the range decoder to a stream
+     *
+     * @param in The stream
+     * @throws IOException If an I/O error occurs or the data is not valid
+     */
+    void setInput(InputStream in) throws IOException {
+        this.mInput = new byte[8192];
+        this.mInputPos = 0;
+        this.mInputLimit = 0;
+        this.mIn = in;
+        initRange();
+    }
+
+    /**
+     * Method that returns if all the input of a chunk was consumed
+     *
+     * @return boolean If all the input was consumed
+     */
+    boolean isInputFinished() {
+        return this.mInputPos == this.mInputLimit && this.mCode == 0;
+    }
+
+    /**
+     * Method that returns if the end marker was found
+     *
+     * @return boolean If the end marker was found
+     */
+    boolean isEndMarker() {
+        return this.mEndMarker;
+    }
+
+    /**
+     * Method that returns if there is a match pending to complete
+     *
+     * @return boolean If there is a match pending
+     */
+    boolean hasPending() {
+        return this.mPendingLength > 0;
+    }
+
+    /**
+     * Method that copies uncompressed data (a LZMA2 uncompressed chunk) to the dictionary
+     *
+     * @param b The data
+     * @param off The offset of the data
+     * @param len The length of the data (up to the free space until the end of the buffer)
+     */
+    void copyUncompressed(byte[] b, int off, int len) {
+        System.arraycopy(b, off, this.mDict, this.mPos, len);
+        this.mPos += len;
+        this.mFull = Math.min(this.mDict.length, this.mFull + len);
+    }
+
+    /**
+     * Method that decodes data until the dictionary position reaches a limit, the end
+     * marker is found, or the input ends.
+     *
+     * @param limit The limit of the dictionary position
+     * @throws IOException If an I/O error occurs or the data is corrupted
+     */
+    void decode(int limit) throws IOException {
+        this.mLimit = limit;
+        if (this.mPendingLength > 0) {
+            copyMatch(this.mRep0, this.mPendingLength);
+        }
+        int pbMask = (1 << this.mPb) - 1;
+        while (this.mPos < this.mLimit && !this.mEndMarker) {
+            int posState = this.mPos & pbMask;
+            int state = this.mState;
+            if (decodeBit(this.mIsMatch, (state << 4) + posState) == 0) {
+                decodeLiteral();
+                continue;
+            }
+
+            int len;
+            if (decodeBit(this.mIsRep, state) == 0) {
+                // Simple match
+                this.mRep3 = this.mRep2;
+                this.mRep2 = this.mRep1;
+                this.mRep1 = this.mRep0;
+                len = decodeLength(this.mLen, posState);
+                this.mState = state < 7 ? 7 : 10;
+                this.mRep0 = decodeDistance(len);
+                if (this.mRep0 == -1) {
+                    this.mEndMarker = true;
+                    break;
+                }
+                if (this.mRep0 >= this.mFull || this.mRep0 >= this.mDict.length) {
+                    throw new IOException("Corrupted LZMA data"); //$NON-NLS-1$
+                }
+            } else {
+                // Repeated match
+                if (this.mFull == 0) {
+                    throw new IOException("Corrupted LZMA data"); //$NON-NLS-1$
+                }
+                if (decodeBit(this.mIsRepG0, state) == 0) {
+                    if (decodeBit(this.mIsRep0Long, (state << 4) + posState) == 0) {
+                        // Short rep (one byte)
+                        this.mState = state < 7 ? 9 : 11;
+                        putByte(getByte(this.mRep0));
+                        continue;
+                    }
+                } else {
+                    int dist;
+                    if (decodeBit(this.mIsRepG1, state) == 0) {
+                        dist = this.mRep1;
+                    } else {
+                        if (decodeBit(this.mIsRepG2, state) == 0) {
+                            dist = this.mRep2;
+                        } else {
+                            dist = this.mRep3;
+                            this.mRep3 = this.mRep2;
+                        }
+                        this.mRep2 = this.mRep1;
+                    }
+                    this.mRep1 = this.mRep0;
+                    this.mRep0 = dist;
+                }
+                len = decodeLength(this.mRepLen, posState);
+                this.mState = state < 7 ? 8 : 11;
+            }
+            copyMatch(this.mRep0, len + MATCH_LEN_MIN);
+        }
+    }
+
+    /**
+     * Method that decodes a literal
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void decodeLiteral() throws IOException {
+        int prev = this.mFull > 0 ? getByte(0) & 0xff : 0;
+        int lpMask = (1 << this.mLp) - 1;
+        int base = 0x300 * (((this.mPos & lpMask) << this.mLc) + (prev >>> (8 - this.mLc)));
+        short[] probs = this.mLiterals;
+        int symbol = 1;
+        if (this.mState < 7) {
+            do {
+                symbol = (symbol << 1) | decodeBit(probs, base + symbol);
+            } while (symbol < 0x100);
+        } else {
+            int matchByte = getByte(this.mRep0) & 0xff;
+            do {
+                int matchBit = (matchByte >>> 7) & 1;
+                matchByte <<= 1;
+                int bit = decodeBit(probs, base + ((1 + matchBit) << 8) + symbol);
+                symbol = (symbol << 1) | bit;
+                if (matchBit != bit) {
+                    while (symbol < 0x100) {
+                        symbol = (symbol << 1) | decodeBit(probs, base + symbol);
+                    }
+                    break;
+                }
+            } while (symbol < 0x100);
+        }
+        putByte((byte)symbol);
+        int state = this.mState;
+        this.mState = state < 4 ? 0 : (state < 10 ? state - 3 : state - 6);
+    }
+
+    /**
+     * Method that decodes the length of a match
+     *
+     * @param probs The probabilities of the length decoder
+     * @param posState The position state
+     * @return int The length (minus the minimum length)
+     * @throws IOException If an I/O error occurs
+     */
+    private int decodeLength(short[] probs, int posState) throws IOException {
+        // [choice, choice2, low (16 x 8), mid (16 x 8), high (256)]
+        if (decodeBit(probs, 0) == 0) {
+            return decodeBitTree(probs, 2 + (posState << 3), 3);
+        }
+        if (decodeBit(probs, 1) == 0) {
+            return 8 + decodeBitTree(probs, 2 + (POS_STATES_MAX << 3) + (posState << 3), 3);
+        }
+        return 16 + decodeBitTree(probs, 2 + (POS_STATES_MAX << 4), 8);
+    }
+
+    /**
+     * Method that decodes the distance of a match
+     *
+     * @param len The length of the match (minus the minimum length)
+     * @return int The distance (minus one), or <code>-1</code> for the end marker
+     * @throws IOException If an I/O error occurs
+     */
+    private int decodeDistance(int len) throws IOException {
+        int lenState = Math.min(len, LEN_TO_POS_STATES - 1);
+        int posSlot = decodeBitTree(this.mPosSlot, lenState << 6, 6);
+        if (posSlot < 4) {
+            return posSlot;
+        }
+        int directBits = (posSlot >>> 1) - 1;
+        int dist = (2 | (posSlot & 1)) << directBits;
+        if (posSlot < END_POS_MODEL_INDEX) {
+            dist += decodeReverseBitTree(this.mPosDecoders, dist - posSlot, directBits);
+        } else {
+            dist += decodeDirectBits(directBits - ALIGN_BITS) << ALIGN_BITS;
+            dist += decodeReverseBitTree(this.mAlign, 0, ALIGN_BITS);
+        }
+        return dist;
+    }
+
+    /**
+     * Method that copies a match in the dictionary, up to the limit
+     *
+     * @param dist The distance of the match (minus one)
+     * @param len The length of the match
+     */
+    private void copyMatch(int dist, int len) {
+        byte[] dict = this.mDict;
+        int size = dict.length;
+        int count = Math.min(len, this.mLimit - this.mPos);
+        this.mPendingLength = len - count;
+        int src = this.mPos - dist - 1;
+        if (src < 0) {
+            src += size;
+        }
+        for (int i = 0; i < count; i++) {
+            dict[this.mPos++] = dict[src++];
+            if (src == size) {
+                src = 0;
+            }
+        }
+        this.mFull = Math.min(size, this.mFull + count);
+    }
+
+    private byte getByte(int dist) {
+        int i = this.mPos - dist - 1;
+        if (i < 0) {
+            i += this.mDict.length;
+        }
+        return this.mDict[i];
+    }
+
+    private void putByte(byte b) {
+        this.mDict[this.mPos++] = b;
+        if (this.mFull < this.mDict.length) {
+            this.mFull++;
+        }
+    }
+
+    // Range decoder
+
+    private void initRange() throws IOException {
+        if (nextByte() != 0) {
+            throw new IOException("Corrupted LZMA data"); //$NON-NLS-1$
+        }
+        this.mCode = 0;
+        this.mRange = 0xffffffff;
+        for (int i = 0; i < 4; i++) {
+            this.mCode = (this.mCode << 8) | nextByte();
+        }
+        if (this.mCode == this.mRange) {
+            throw new IOException("Corrupted LZMA data"); //$NON-NLS-1$
+        }
+        this.mEndMarker = false;
+    }
+
+    private int nextByte() throws IOException {
+        if (this.mInputPos == this.mInputLimit) {
+            if (this.mIn == null) {
+                throw new IOException("Corrupted LZMA data"); //$NON-NLS-1$
+            }
+            this.mInputLimit = this.mIn.read(this.mInput, 0, this.mInput.length);
+            this.mInputPos = 0;
+            if (this.mInputLimit <= 0) {
+                this.mInputLimit = 0;
+                throw new EOFException("Unexpected end of the LZMA data"); //$NON-NLS-1$
+            }
+        }
+        return this.mInput[this.mInputPos++] & 0xff;
+    }
+
+    private void normalize() throws IOException {
+        if ((this.mRange & 0xff000000) == 0) {
+            this.mRange <<= 8;
+            this.mCode = (this.mCode << 8) | nextByte();
+        }
+    }
+
+    private int decodeBit(short[] probs, int index) throws IOException {
+        int prob = probs[index];
+        int bound = (this.mRange >>> PROB_BITS) * prob;
+        int bit;
+        // Unsigned comparison
+        if ((this.mCode ^ 0x80000000) < (bound ^ 0x80000000)) {
+            this.mRange = bound;
+            probs[index] = (short)(prob + (((1 << PROB_BITS) - prob) >>> MOVE_BITS));
+            bit = 0;
+        } else {
+            this.mRange -= bound;
+            this.mCode -= bound;
+            probs[index] = (short)(prob - (prob >>> MOVE_BITS));
+            bit = 1;
+        }
+        normalize();
+        return bit;
+    }
+
+    private int decodeBitTree(short[] probs, int offset, int bits) throws IOException {
+        int m = 1;
+        for (int i = 0; i < bits; i++) {
+            m = (m << 1) | decodeBit(probs, offset + m);
+        }
+        return m - (1 << bits);
+    }
+
+    private int decodeReverseBitTree(short[] probs, int offset, int bits) throws IOException {
+        int m = 1;
+        int symbol = 0;
+        for (int i = 0; i < bits; i++) {
+            int bit = decodeBit(probs, offset + m);
+            m = (m << 1) | bit;
+            symbol |= bit << i;
+        }
+        return symbol;
+    }
+
+    private int decodeDirectBits(int bits) throws IOException {
+        int result = 0;
+        for (int i = 0; i < bits; i++) {
+            this.mRange >>>= 1;
+            int t = (this.mCode - this.mRange) >>> 31;
+            this.mCode -= this.mRange & (t - 1);
+            result = (result << 1) | (1 - t);
+            normalize();
+        }
+        return result;
+    }
+}
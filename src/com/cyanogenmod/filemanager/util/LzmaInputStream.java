@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that reads a lzma stream (the legacy format of <code>lzma</code>, with a 13
+ * bytes header and a single LZMA stream).
+ */
+public class LzmaInputStream extends InputStream {
+
+    // The maximum dictionary allocated when the uncompressed size is unknown
+    private static final int MAX_DICTIONARY_SIZE = 256 * 1024 * 1024;
+
+    private final InputStream mIn;
+    private LzmaDecoder mDecoder;
+    private long mRemaining;
+    private boolean mEof;
+
+    /**
+     * Constructor of <code>LzmaInputStream</code>.
+     *
+     * @param in The stream where to read the lzma stream
+     */
+    public LzmaInputStream(InputStream in) {
+        super();
+        this.mIn = in;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.mDecoder == null) {
+            readHeader();
+        }
+        LzmaDecoder decoder = this.mDecoder;
+        while (!this.mEof) {
+            if (this.mRemaining == 0 || (decoder.isEndMarker() && !decoder.hasPending())) {
+                this.mEof = true;
+                break;
+            }
+            if (decoder.mPos == decoder.mDict.length) {
+                decoder.mPos = 0;
+            }
+            int start = decoder.mPos;
+            int count = Math.min(len, decoder.mDict.length - start);
+            if (this.mRemaining > 0) {
+                count = (int)Math.min(count, this.mRemaining);
+            }
+            decoder.decode(start + count);
+            count = decoder.mPos - start;
+            if (count == 0) {
+                continue;
+            }
+            if (this.mRemaining > 0) {
+                this.mRemaining -= count;
+            }
+            System.arraycopy(decoder.mDict, start, b, off, count);
+            return count;
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.mDecoder = null;
+        this.mIn.close();
+    }
+
+    /**
+     * Method that reads the header of the stream and creates the decoder
+     *
+     * @throws IOException If an I/O error occurs or the header is not valid
+     */
+    private void readHeader() throws IOException {
+        byte[] header = new byte[13];
+        int read = 0;
+        while (read < header.length) {
+            int count = this.mIn.read(header, read, header.length - read);
+            if (count <= 0) {
+                throw new EOFException("Unexpected end of the lzma stream"); //$NON-NLS-1$
+            }
+            read += count;
+        }
+        int props = header[0] & 0xff;
+        if (props >= 9 * 5 * 5) {
+            throw new IOException("Not a lzma stream"); //$NON-NLS-1$
+        }
+        long dictSize = 0;
+        for (int i = 0; i < 4; i++) {
+            dictSize |= (header[1 + i] & 0xffL) << (i * 8);
+        }
+        long size = 0;
+        for (int i = 0; i < 8; i++) {
+            size |= (header[5 + i] & 0xffL) << (i * 8);
+        }
+        // -1 is an unknown size (the stream ends with the end marker)
+        this.mRemaining = size;
+        if (size >= 0) {
+            dictSize = Math.min(dictSize, size);
+        }
+        if (dictSize > MAX_DICTIONARY_SIZE) {
+            throw new IOException("The lzma dictionary is too big"); //$NON-NLS-1$
+        }
+
+        LzmaDecoder decoder = new LzmaDecoder((int)dictSize);
+        int pb = props / (9 * 5);
+        props -= pb * 9 * 5;
+        int lp = props / 9;
+        int lc = props - lp * 9;
+        decoder.setProperties(lc, lp, pb);
+        decoder.resetDictionary();
+        decoder.setInput(this.mIn);
+        this.mDecoder = decoder;
+    }
+}
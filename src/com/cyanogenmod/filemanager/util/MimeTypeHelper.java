@@ -33,8 +33,11 @@ import com.cyanogenmod.filemanager.model.Symlink;
 import com.cyanogenmod.filemanager.model.SystemFile;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
@@ -442,6 +445,34 @@ public final class MimeTypeHelper {
         return MimeTypeCategory.NONE;
     }
 
+    /**
+     * Method that returns the extensions registered for a mime/type category.
+     *
+     * @param context The current context
+     * @param category The mime/type category
+     * @return List<String> The extensions (in lower case) of the category
+     */
+    public static final List<String> getExtensionsOfCategory(
+            Context context, MimeTypeCategory category) {
+        List<String> extensions = new ArrayList<String>();
+        // Ensure that have a context
+        if (context == null && sMimeTypes == null) {
+            return extensions;
+        }
+        //Ensure that mime types are loaded
+        if (sMimeTypes == null) {
+            loadMimeTypes(context);
+        }
+        Iterator<String> it = sMimeTypes.keySet().iterator();
+        while (it.hasNext()) {
+            String ext = it.next();
+            if (sMimeTypes.get(ext).mCategory.compareTo(category) == 0) {
+                extensions.add(ext.toLowerCase(Locale.ROOT));
+            }
+        }
+        return extensions;
+    }
+
     /**
      * Method that returns the mime/type category of the file.
      *
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.util;
+
+import com.android.internal.util.HexDump;
+import com.cyanogenmod.filemanager.commands.ChecksumExecutable.CHECKSUMS;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * A class that computes several checksums of the same data in one pass.
+ * <br/>
+ * Every buffer passed to {@link #update(ByteBuffer)} feeds all the checksums, so the data
+ * only needs to be read once. The buffers can be heap, direct or memory mapped buffers. In
+ * parallel mode, every checksum consumes the buffer in its own thread and the method returns
+ * when all of them are done with it, so the caller can reuse the buffer.
+ */
+public class MultiDigest {
+
+    // The size of the chunks copied from a direct buffer to feed the CRC32
+    private static final int CRC_CHUNK_SIZE = 64 * 1024;
+
+    // The minimum size of the data to compute the checksums in parallel
+    private static final long PARALLEL_THRESHOLD = 8L * 1024 * 1024;
+
+    private final CHECKSUMS[] mChecksums;
+    private final DigestTask[] mTasks;
+    private final List<DigestTask> mTaskList;
+    private ExecutorService mExecutor;
+
+    /**
+     * Constructor of <code>MultiDigest</code>.
+     *
+     * @param checksums The checksums to compute
+     * @param parallel If every checksum should be computed in its own thread
+     * @throws NoSuchAlgorithmException If a digest algorithm is not supported
+     */
+    public MultiDigest(CHECKSUMS[] checksums, boolean parallel)
+            throws NoSuchAlgorithmException {
+        super();
+        this.mChecksums = checksums;
+        this.mTasks = new DigestTask[checksums.length];
+        this.mTaskList = new ArrayList<DigestTask>(checksums.length);
+        for (int i = 0; i < checksums.length; i++) {
+            this.mTasks[i] = new DigestTask(checksums[i]);
+            this.mTaskList.add(this.mTasks[i]);
+        }
+        if (parallel && checksums.length > 1) {
+            this.mExecutor = Executors.newFixedThreadPool(checksums.length);
+        }
+    }
+
+    /**
+     * Method that returns if is worth to compute the checksums of an amount of data
+     * in parallel.
+     *
+     * @param size The size of the data
+     * @return boolean If the checksums should be computed in parallel
+     */
+    public static boolean isParallelWorth(long size) {
+        return size >= PARALLEL_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    /**
+     * Method that returns if the digests are computed in parallel.
+     *
+     * @return boolean If the digests are computed in parallel
+     */
+    public boolean isParallel() {
+        return this.mExecutor != null;
+    }
+
+    /**
+     * Method that feeds all the checksums with the remaining bytes of a buffer. The
+     * position of the buffer is moved to its limit.
+     *
+     * @param buffer The data
+     * @throws InterruptedException If the thread was interrupted while waiting
+     * for the digests
+     */
+    public void update(ByteBuffer buffer) throws InterruptedException {
+        if (this.mExecutor == null) {
+            int cc = this.mTasks.length;
+            for (int i = 0; i < cc; i++) {
+                this.mTasks[i].update(buffer.duplicate());
+            }
+        } else {
+            int cc = this.mTasks.length;
+            for (int i = 0; i < cc; i++) {
+                this.mTasks[i].mBuffer = buffer.duplicate();
+            }
+            List<Future<Void>> futures = this.mExecutor.invokeAll(this.mTaskList);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+        }
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Method that feeds all the checksums with a region of an array.
+     *
+     * @param data The data
+     * @param offset The offset of the region
+     * @param len The length of the region
+     * @throws InterruptedException If the thread was interrupted while waiting
+     * for the digests
+     */
+    public void update(byte[] data, int offset, int len) throws InterruptedException {
+        update(ByteBuffer.wrap(data, offset, len));
+    }
+
+    /**
+     * Method that completes the checksums and returns them as lower case hex strings, in the
+     * same order as the checksums passed in the constructor.
+     *
+     * @return String[] The checksums
+     */
+    public String[] digest() {
+        String[] digests = new String[this.mTasks.length];
+        int cc = this.mTasks.length;
+        for (int i = 0; i < cc; i++) {
+            digests[i] = this.mTasks[i].digest();
+        }
+        return digests;
+    }
+
+    /**
+     * Method that returns the checksums computed by this instance.
+     *
+     * @return CHECKSUMS[] The checksums
+     */
+    public CHECKSUMS[] getChecksums() {
+        return this.mChecksums;
+    }
+
+    /**
+     * Method that releases the threads of the parallel mode
+     */
+    public void release() {
+        if (this.mExecutor != null) {
+            this.mExecutor.shutdownNow();
+            this.mExecutor = null;
+        }
+    }
+
+    /**
+     * The computation of one checksum
+     */
+    private static class DigestTask implements Callable<Void> {
+        private final MessageDigest mDigest;
+        private final CRC32 mCrc32;
+        private byte[] mChunk;
+        ByteBuffer mBuffer;
+
+        DigestTask(CHECKSUMS checksum) throws NoSuchAlgorithmException {
+            super();
+            if (checksum.getAlgorithm() != null) {
+                this.mDigest = MessageDigest.getInstance(checksum.getAlgorithm());
+                this.mCrc32 = null;
+            } else {
+                this.mDigest = null;
+                this.mCrc32 = new CRC32();
+            }
+        }
+
+        @Override
+        public Void call() {
+            update(this.mBuffer);
+            this.mBuffer = null;
+            return null;
+        }
+
+        void update(ByteBuffer buffer) {
+            if (this.mDigest != null) {
+                this.mDigest.update(buffer);
+                return;
+            }
+
+            // CRC32 only accepts arrays
+            if (buffer.hasArray()) {
+                this.mCrc32.update(buffer.array(),
+                        buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+            if (this.mChunk == null) {
+                this.mChunk = new byte[CRC_CHUNK_SIZE];
+            }
+            while (buffer.hasRemaining()) {
+                int len = Math.min(this.mChunk.length, buffer.remaining());
+                buffer.get(this.mChunk, 0, len);
+                this.mCrc32.update(this.mChunk, 0, len);
+            }
+        }
+
+        String digest() {
+            if (this.mDigest != null) {
+                return HexDump.toHexString(this.mDigest.digest()).toLowerCase(Locale.ROOT);
+            }
+            return String.format(Locale.ROOT, "%08x", //$NON-NLS-1$
+                    Long.valueOf(this.mCrc32.getValue()));
+        }
+    }
+}
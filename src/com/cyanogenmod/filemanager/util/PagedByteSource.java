@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import com.cyanogenmod.filemanager.console.secure.SecureRandomReader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only source of bytes that can be read at any position.
+ * <br/>
+ * Files accessible by the app are memory mapped by pages of {@link #PAGE_SIZE} bytes, and
+ * only the most recently used pages are kept mapped, so the cost of reading a region is
+ * independent of the size of the file. Files of the secure storage are read through a
+ * {@link SecureRandomReader}, and files that are only accessible through a console can be
+ * wrapped once read into memory.
+ */
+public abstract class PagedByteSource implements Closeable {
+
+    /**
+     * The size of the pages of the mapped files
+     */
+    public static final int PAGE_SIZE = 1024 * 1024;
+
+    // The maximum pages of a file mapped at the same time
+    private static final int MAX_MAPPED_PAGES = 32;
+
+    // The size of the buffer used to transfer the sources that aren't files
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    // The size of the windows of the source scanned by a search
+    private static final int SEARCH_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Method that returns the size of the source
+     *
+     * @return long The size of the source
+     */
+    public abstract long length();
+
+    /**
+     * Method that reads bytes of the source at a position
+     *
+     * @param position The position of the source
+     * @param b The buffer where to read the bytes
+     * @param off The offset of the buffer
+     * @param len The maximum bytes to read
+     * @return int The bytes read, or <code>-1</code> if the position is at the end of
+     * the source
+     * @throws IOException If the source can't be read
+     */
+    public abstract int read(long position, byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Method that reads bytes of the source at a position until the buffer is full or
+     * the end of the source is reached
+     *
+     * @param position The position of the source
+     * @param b The buffer where to read the bytes
+     * @param off The offset of the buffer
+     * @param len The bytes to read
+     * @return int The bytes read
+     * @throws IOException If the source can't be read
+     */
+    public int readFully(long position, byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int n = read(position + read, b, off + read, len - read);
+            if (n <= 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Method that writes a region of the source to a channel. By default the region is
+     * copied through a small buffer. File sources transfer the region straight from the
+     * file to the channel, without copy it through the heap.
+     *
+     * @param position The start of the region
+     * @param count The length of the region
+     * @param target The channel where to write the region
+     * @return long The bytes written (less than <code>count</code> only if the end of the
+     * source is reached)
+     * @throws IOException If the source can't be read or the channel can't be written
+     */
+    public long transferTo(long position, long count, WritableByteChannel target)
+            throws IOException {
+        byte[] buffer = new byte[(int) Math.min(TRANSFER_BUFFER_SIZE, Math.max(1, count))];
+        long written = 0;
+        while (written < count) {
+            int n = readFully(position + written, buffer, 0,
+                    (int) Math.min(buffer.length, count - written));
+            if (n <= 0) {
+                break;
+            }
+            ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+            while (bb.hasRemaining()) {
+                target.write(bb);
+            }
+            written += n;
+        }
+        return written;
+    }
+
+    /**
+     * Method that searches a sequence of bytes in the source. The source is scanned in
+     * windows (with the Boyer-Moore-Horspool algorithm), so the search never loads the
+     * whole source. The search can be cancelled by interrupting its thread.
+     *
+     * @param pattern The bytes to search
+     * @param from The position where to start the search
+     * @return long The position of the first occurrence at or after <code>from</code>, or
+     * <code>-1</code> if the bytes weren't found
+     * @throws InterruptedIOException If the thread was interrupted
+     * @throws IOException If the source can't be read
+     */
+    public long indexOf(byte[] pattern, long from) throws IOException {
+        int m = pattern.length;
+        long length = length();
+        if (m == 0 || from < 0 || from + m > length) {
+            return -1;
+        }
+
+        // The shift of every byte when it's the last byte of a mismatched window
+        int[] shift = new int[256];
+        for (int i = 0; i < shift.length; i++) {
+            shift[i] = m;
+        }
+        for (int i = 0; i < m - 1; i++) {
+            shift[pattern[i] & 0xff] = m - 1 - i;
+        }
+
+        byte[] buffer = new byte[Math.max(SEARCH_BUFFER_SIZE, m * 2)];
+        long start = from;
+        while (start + m <= length) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+            int n = readFully(start, buffer, 0, (int)Math.min(buffer.length, length - start));
+            if (n < m) {
+                break;
+            }
+            int i = 0;
+            while (i <= n - m) {
+                int j = m - 1;
+                while (j >= 0 && buffer[i + j] == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return start + i;
+                }
+                i += shift[buffer[i + m - 1] & 0xff];
+            }
+
+            // The next window overlaps the bytes that could start an occurrence
+            start += i;
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        // Nothing to release by default
+    }
+
+    /**
+     * Method that opens a file as a memory mapped source
+     *
+     * @param file The file
+     * @return PagedByteSource The source
+     * @throws IOException If the file can't be opened
+     */
+    public static PagedByteSource open(File file) throws IOException {
+        return new MappedFileSource(file);
+    }
+
+    /**
+     * Method that wraps a reader of the secure storage
+     *
+     * @param reader The reader
+     * @return PagedByteSource The source
+     */
+    public static PagedByteSource wrap(final SecureRandomReader reader) {
+        return new PagedByteSource() {
+            @Override
+            public long length() {
+                return reader.length();
+            }
+
+            @Override
+            public int read(long position, byte[] b, int off, int len) throws IOException {
+                return reader.read(position, b, off, len);
+            }
+
+            @Override
+            public void close() {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Method that wraps an array
+     *
+     * @param data The array
+     * @return PagedByteSource The source
+     */
+    public static PagedByteSource wrap(final byte[] data) {
+        return new PagedByteSource() {
+            @Override
+            public long length() {
+                return data.length;
+            }
+
+            @Override
+            public int read(long position, byte[] b, int off, int len) {
+                if (position >= data.length) {
+                    return -1;
+                }
+                int n = (int) Math.min(len, data.length - position);
+                System.arraycopy(data, (int) position, b, off, n);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * A source of a file mapped in memory by pages
+     */
+    private static class MappedFileSource extends PagedByteSource {
+        private final RandomAccessFile mFile;
+        private final FileChannel mChannel;
+        private final long mLength;
+        private final LinkedHashMap<Long, MappedByteBuffer> mPages;
+
+        MappedFileSource(File file) throws IOException {
+            super();
+            this.mFile = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+            this.mChannel = this.mFile.getChannel();
+            this.mLength = this.mChannel.size();
+            this.mPages = new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true);
+        }
+
+        @Override
+        public long length() {
+            return this.mLength;
+        }
+
+        @Override
+        public synchronized int read(long position, byte[] b, int off, int len)
+                throws IOException {
+            if (position >= this.mLength) {
+                return -1;
+            }
+            long page = position / PAGE_SIZE;
+            ByteBuffer buffer = getPage(page).duplicate();
+            buffer.position((int) (position - page * PAGE_SIZE));
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target)
+                throws IOException {
+            // The position of the channel isn't used, so this doesn't need to be synchronized
+            count = Math.max(0, Math.min(count, this.mLength - position));
+            long written = 0;
+            while (written < count) {
+                long n = this.mChannel.transferTo(position + written, count - written, target);
+                if (n <= 0) {
+                    break;
+                }
+                written += n;
+            }
+            return written;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            this.mPages.clear();
+            this.mFile.close();
+        }
+
+        /**
+         * Method that returns a mapped page, mapping it if needed
+         *
+         * @param page The index of the page
+         * @return MappedByteBuffer The mapped page
+         * @throws IOException If the page can't be mapped
+         */
+        private MappedByteBuffer getPage(long page) throws IOException {
+            Long key = Long.valueOf(page);
+            MappedByteBuffer buffer = this.mPages.get(key);
+            if (buffer == null) {
+                long start = page * PAGE_SIZE;
+                buffer = this.mChannel.map(FileChannel.MapMode.READ_ONLY,
+                        start, Math.min(PAGE_SIZE, this.mLength - start));
+                this.mPages.put(key, buffer);
+
+                // The evicted pages are unmapped by the gc
+                Iterator<Map.Entry<Long, MappedByteBuffer>> it =
+                        this.mPages.entrySet().iterator();
+                while (this.mPages.size() > MAX_MAPPED_PAGES) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that writes a raw deflate stream (without zlib or gzip wrappers), compressing
+ * blocks of the data in parallel (in the same way as pigz).
+ * <br/>
+ * The data is split in blocks of {@link #BLOCK_SIZE} bytes. Every block is compressed in a
+ * thread of a pool, using the last 32KB of the previous block as the dictionary, so the
+ * compression ratio is almost the same as a sequential compression. Every block ends with a
+ * sync flush (an empty stored block), so the compressed blocks are byte aligned and are just
+ * concatenated in order. Only the last block is marked as final.
+ * <br/>
+ * A stream can compress several independent deflate streams in sequence (for example, the
+ * entries of a zip archive): {@link #finish()} completes the current deflate stream and the next
+ * write starts a new one. The CRC32 and the sizes of the current deflate stream are computed
+ * while writing. The blocks are reused.
+ */
+public class ParallelDeflateOutputStream extends OutputStream {
+
+    /**
+     * The size of the blocks compressed in parallel.
+     */
+    public static final int BLOCK_SIZE = 128 * 1024;
+
+    // The size of the deflate dictionary
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final OutputStream mOut;
+    private final int mLevel;
+    private final ExecutorService mExecutor;
+    private final int mMaxInFlight;
+
+    private final ArrayDeque<Future<Block>> mInFlight = new ArrayDeque<Future<Block>>();
+    private final ArrayDeque<Block> mFreeBlocks = new ArrayDeque<Block>();
+    private final List<Deflater> mDeflaters = new ArrayList<Deflater>();
+    private final ThreadLocal<Deflater> mDeflater;
+
+    private Block mCurrent;
+    private byte[] mDictionary;
+    private int mDictionaryLength;
+
+    private final CRC32 mCrc = new CRC32();
+    private long mBytesIn;
+    private long mBytesOut;
+    private boolean mClosed;
+
+    /**
+     * Constructor of <code>ParallelDeflateOutputStream</code>.
+     *
+     * @param out The stream where to write the compressed data
+     * @param level The compression level (see {@link Deflater})
+     */
+    public ParallelDeflateOutputStream(OutputStream out, int level) {
+        super();
+        this.mOut = out;
+        this.mLevel = level;
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        this.mExecutor = Executors.newFixedThreadPool(threads);
+        this.mMaxInFlight = threads * 2;
+        this.mDeflater = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                Deflater deflater = new Deflater(ParallelDeflateOutputStream.this.mLevel, true);
+                synchronized (ParallelDeflateOutputStream.this.mDeflaters) {
+                    ParallelDeflateOutputStream.this.mDeflaters.add(deflater);
+                }
+                return deflater;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.mClosed) {
+            throw new IOException("Stream closed"); //$NON-NLS-1$
+        }
+        this.mCrc.update(b, off, len);
+        this.mBytesIn += len;
+        while (len > 0) {
+            if (this.mCurrent == null) {
+                this.mCurrent = obtainBlock();
+            }
+            int count = Math.min(len, BLOCK_SIZE - this.mCurrent.mInputLength);
+            System.arraycopy(b, off, this.mCurrent.mInput, this.mCurrent.mInputLength, count);
+            this.mCurrent.mInputLength += count;
+            off += count;
+            len -= count;
+            if (this.mCurrent.mInputLength == BLOCK_SIZE) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Method that completes the current deflate stream and writes all its compressed data.
+     * The next write starts a new deflate stream.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (this.mCurrent == null) {
+            this.mCurrent = obtainBlock();
+        }
+        submit(true);
+        while (!this.mInFlight.isEmpty()) {
+            writeBlock(this.mInFlight.poll());
+        }
+        this.mDictionaryLength = 0;
+    }
+
+    /**
+     * Method that resets the CRC32 and the sizes, to start a new deflate stream.
+     */
+    public void resetCounters() {
+        this.mCrc.reset();
+        this.mBytesIn = 0;
+        this.mBytesOut = 0;
+    }
+
+    /**
+     * Method that returns the CRC32 of the data written since the last reset.
+     *
+     * @return long The CRC32 of the uncompressed data
+     */
+    public long getCrc() {
+        return this.mCrc.getValue();
+    }
+
+    /**
+     * Method that returns the number of bytes written since the last reset.
+     *
+     * @return long The number of uncompressed bytes
+     */
+    public long getBytesIn() {
+        return this.mBytesIn;
+    }
+
+    /**
+     * Method that returns the number of compressed bytes written since the last reset (only
+     * of the completed blocks).
+     *
+     * @return long The number of compressed bytes
+     */
+    public long getBytesOut() {
+        return this.mBytesOut;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        this.mOut.flush();
+    }
+
+    /**
+     * Method that releases the threads and the deflaters. This method doesn't complete the
+     * current deflate stream nor closes the underlying stream.
+     */
+    public void release() {
+        if (this.mClosed) {
+            return;
+        }
+        this.mClosed = true;
+        this.mExecutor.shutdownNow();
+        synchronized (this.mDeflaters) {
+            for (Deflater deflater : this.mDeflaters) {
+                deflater.end();
+            }
+            this.mDeflaters.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.mClosed) {
+            return;
+        }
+        try {
+            finish();
+            this.mOut.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Method that enqueues the compression of the current block
+     *
+     * @param last If the block is the last of the deflate stream
+     * @throws IOException If an I/O error occurs
+     */
+    private void submit(boolean last) throws IOException {
+        final Block block = this.mCurrent;
+        this.mCurrent = null;
+        block.mLast = last;
+
+        // The dictionary is the end of the previous block
+        block.mDictionaryLength = this.mDictionaryLength;
+        if (this.mDictionaryLength > 0) {
+            System.arraycopy(this.mDictionary, 0, block.mDictionary, 0, this.mDictionaryLength);
+        }
+        if (!last) {
+            if (this.mDictionary == null) {
+                this.mDictionary = new byte[DICTIONARY_SIZE];
+            }
+            this.mDictionaryLength = Math.min(DICTIONARY_SIZE, block.mInputLength);
+            System.arraycopy(block.mInput, block.mInputLength - this.mDictionaryLength,
+                    this.mDictionary, 0, this.mDictionaryLength);
+        }
+
+        // Wait for the oldest block if there are too many blocks in flight
+        while (this.mInFlight.size() >= this.mMaxInFlight) {
+            writeBlock(this.mInFlight.poll());
+        }
+        this.mInFlight.add(this.mExecutor.submit(new Callable<Block>() {
+            @Override
+            public Block call() {
+                block.compress(ParallelDeflateOutputStream.this.mDeflater.get());
+                return block;
+            }
+        }));
+    }
+
+    /**
+     * Method that waits for a block and writes its compressed data
+     *
+     * @param future The block being compressed
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeBlock(Future<Block> future) throws IOException {
+        Block block;
+        try {
+            block = future.get();
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException ee) {
+            throw new IOException(ee.getCause());
+        }
+        this.mOut.write(block.mOutput, 0, block.mOutputLength);
+        this.mBytesOut += block.mOutputLength;
+        block.mInputLength = 0;
+        block.mOutputLength = 0;
+        this.mFreeBlocks.add(block);
+    }
+
+    /**
+     * Method that returns a free block
+     *
+     * @return Block The block
+     */
+    private Block obtainBlock() {
+        Block block = this.mFreeBlocks.poll();
+        return block != null ? block : new Block();
+    }
+
+    /**
+     * A block of data and its compressed data
+     */
+    private static class Block {
+        final byte[] mInput = new byte[BLOCK_SIZE];
+        int mInputLength;
+        final byte[] mDictionary = new byte[DICTIONARY_SIZE];
+        int mDictionaryLength;
+        boolean mLast;
+        // Deflate can expand the data a bit
+        byte[] mOutput = new byte[BLOCK_SIZE + (BLOCK_SIZE >> 3)];
+        int mOutputLength;
+
+        void compress(Deflater deflater) {
+            deflater.reset();
+            if (this.mDictionaryLength > 0) {
+                deflater.setDictionary(this.mDictionary, 0, this.mDictionaryLength);
+            }
+            deflater.setInput(this.mInput, 0, this.mInputLength);
+            if (this.mLast) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    ensureOutput();
+                    this.mOutputLength += deflater.deflate(this.mOutput,
+                            this.mOutputLength, this.mOutput.length - this.mOutputLength);
+                }
+            } else {
+                // The sync flush completes when the output is not full
+                while (true) {
+                    ensureOutput();
+                    int free = this.mOutput.length - this.mOutputLength;
+                    int count = deflater.deflate(this.mOutput,
+                            this.mOutputLength, free, Deflater.SYNC_FLUSH);
+                    this.mOutputLength += count;
+                    if (count < free) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void ensureOutput() {
+            if (this.mOutput.length - this.mOutputLength < 64) {
+                byte[] output = new byte[this.mOutput.length * 2];
+                System.arraycopy(this.mOutput, 0, output, 0, this.mOutputLength);
+                this.mOutput = output;
+            }
+        }
+    }
+}
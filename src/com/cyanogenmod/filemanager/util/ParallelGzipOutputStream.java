@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that writes a gzip stream, compressing the data in parallel with a
+ * {@link ParallelDeflateOutputStream}.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final byte[] HEADER = {
+        0x1f, (byte)0x8b,   // Magic
+        Deflater.DEFLATED,  // Method
+        0,                  // Flags
+        0, 0, 0, 0,         // Modification time
+        0,                  // Extra flags
+        3                   // OS (Unix)
+    };
+
+    private final OutputStream mOut;
+    private final ParallelDeflateOutputStream mDeflater;
+    private boolean mHeader;
+    private boolean mFinished;
+
+    /**
+     * Constructor of <code>ParallelGzipOutputStream</code>.
+     *
+     * @param out The stream where to write the gzip stream
+     */
+    public ParallelGzipOutputStream(OutputStream out) {
+        super();
+        this.mOut = out;
+        this.mDeflater = new ParallelDeflateOutputStream(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeHeader();
+        this.mDeflater.write(b, off, len);
+    }
+
+    /**
+     * Method that completes the gzip stream without closing the underlying stream.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (this.mFinished) {
+            return;
+        }
+        writeHeader();
+        this.mDeflater.finish();
+        byte[] trailer = new byte[8];
+        writeInt(trailer, 0, this.mDeflater.getCrc());
+        writeInt(trailer, 4, this.mDeflater.getBytesIn());
+        this.mOut.write(trailer);
+        this.mFinished = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        this.mOut.flush();
+    }
+
+    /**
+     * Method that releases the threads of the compression. This method doesn't complete the
+     * stream nor closes the underlying stream.
+     */
+    public void release() {
+        this.mDeflater.release();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            this.mOut.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Method that writes the gzip header, if it wasn't written yet
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeHeader() throws IOException {
+        if (!this.mHeader) {
+            this.mOut.write(HEADER);
+            this.mHeader = true;
+        }
+    }
+
+    /**
+     * Method that writes the low 32 bits of a value in little endian
+     *
+     * @param buffer The buffer
+     * @param offset The offset in the buffer
+     * @param value The value
+     */
+    private static void writeInt(byte[] buffer, int offset, long value) {
+        buffer[offset] = (byte)value;
+        buffer[offset + 1] = (byte)(value >> 8);
+        buffer[offset + 2] = (byte)(value >> 16);
+        buffer[offset + 3] = (byte)(value >> 24);
+    }
+}
@@ -0,0 +1,817 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.console.CancelledOperationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A class that extracts a zip archive inflating its entries in parallel.
+ * <br/>
+ * The central directory is read once when the archive is opened. The entries are independent
+ * streams of the archive, so every file is inflated in its own task (reading the archive with
+ * positional reads of a shared channel) straight into its output file, which is preallocated
+ * with the uncompressed size before being written. The directories are created before the
+ * files, and the symbolic links, permissions and modification times are applied after them.
+ */
+public class ParallelZipExtractor {
+
+    private static final String TAG = "ParallelZipExtractor"; //$NON-NLS-1$
+
+    /**
+     * An interface to communicate the events of the extraction. The methods are called from
+     * the threads of the extraction.
+     */
+    public interface OnExtractListener {
+        /**
+         * Invoked when an entry is going to be extracted
+         *
+         * @param name The name of the entry
+         * @param file The output file of the entry
+         */
+        void onEntry(String name, File file);
+
+        /**
+         * Invoked when a chunk of an entry was extracted
+         *
+         * @param bytes The uncompressed bytes extracted
+         */
+        void onBytes(long bytes);
+
+        /**
+         * Method that returns if the extraction was cancelled
+         *
+         * @return boolean If the extraction was cancelled
+         */
+        boolean isCancelled();
+    }
+
+    private static final int SIG_LOCAL_HEADER = 0x04034b50;
+    private static final int SIG_CENTRAL_HEADER = 0x02014b50;
+    private static final int SIG_END = 0x06054b50;
+    private static final int SIG_ZIP64_END = 0x06064b50;
+    private static final int SIG_ZIP64_LOCATOR = 0x07064b50;
+
+    /**
+     * The size of the fixed part of the local header of an entry
+     */
+    public static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    /**
+     * The data of the entry is stored without compression
+     */
+    public static final int METHOD_STORED = 0;
+    /**
+     * The data of the entry is compressed with deflate
+     */
+    public static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int HOST_UNIX = 3;
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFLNK = 0120000;
+    private static final int S_IFDIR = 0040000;
+
+    // The size of the buffers of every task
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // The maximum size of the target of a symbolic link
+    private static final int MAX_LINK_SIZE = 4096;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final File mFile;
+    private final RandomAccessFile mRaf;
+    private final FileChannel mChannel;
+    private final List<Entry> mEntries;
+    private long mUncompressedSize;
+    private volatile boolean mAborted;
+
+    /**
+     * Constructor of <code>ParallelZipExtractor</code>. The central directory of the archive is
+     * read here.
+     *
+     * @param file The zip archive
+     * @throws IOException If the archive can't be read or it is not a valid zip archive
+     */
+    public ParallelZipExtractor(File file) throws IOException {
+        super();
+        this.mFile = file;
+        this.mRaf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        this.mChannel = this.mRaf.getChannel();
+        this.mEntries = new ArrayList<Entry>();
+        try {
+            readCentralDirectory();
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Method that returns the number of entries of the archive
+     *
+     * @return int The number of entries
+     */
+    public int getEntriesCount() {
+        return this.mEntries.size();
+    }
+
+    /**
+     * Method that returns the entries of the central directory
+     *
+     * @return List<Entry> The entries, in the order of the central directory
+     */
+    public List<Entry> getEntries() {
+        return this.mEntries;
+    }
+
+    /**
+     * Method that returns the uncompressed size of the files of the archive
+     *
+     * @return long The uncompressed size
+     */
+    public long getUncompressedSize() {
+        return this.mUncompressedSize;
+    }
+
+    /**
+     * Method that extracts the archive into a directory. The number of entries inflated in
+     * parallel depends on the processors and on the storage of the directory.
+     *
+     * @param dst The directory where to extract the archive
+     * @param listener The listener of the extraction events
+     * @throws IOException If an I/O error occurs, the archive is corrupted or the
+     * extraction was cancelled ({@link CancelledOperationException})
+     */
+    public void extract(File dst, final OnExtractListener listener) throws IOException {
+        // Resolve the output files. When an entry is duplicated, the last one wins (in the
+        // same way as unzip), so two tasks never write the same file
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        for (Entry entry : this.mEntries) {
+            String path = FileHelper.toSafeArchivePath(entry.mName);
+            if (path.length() == 0) {
+                continue;
+            }
+            entry.mOutput = new File(dst, path);
+            entries.remove(path);
+            entries.put(path, entry);
+        }
+
+        // Directories first
+        List<Entry> files = new ArrayList<Entry>();
+        List<Entry> links = new ArrayList<Entry>();
+        List<Entry> dirs = new ArrayList<Entry>();
+        if (!dst.isDirectory() && !dst.mkdirs()) {
+            throw new IOException("Can't create the directory " + dst); //$NON-NLS-1$
+        }
+        for (Entry entry : entries.values()) {
+            checkCancelled(listener);
+            File parent = entry.mDirectory ? entry.mOutput : entry.mOutput.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Can't create the directory " + parent); //$NON-NLS-1$
+            }
+            if (entry.mDirectory) {
+                listener.onEntry(entry.mName, entry.mOutput);
+                dirs.add(entry);
+            } else if (entry.mSymlink) {
+                links.add(entry);
+            } else {
+                files.add(entry);
+            }
+        }
+
+        // Inflate the files in parallel
+        int threads = Math.min(CopyScheduler.getConcurrency(dst),
+                Runtime.getRuntime().availableProcessors());
+        if (threads <= 1 || files.size() <= 1) {
+            FileExtractor extractor = new FileExtractor();
+            for (Entry entry : files) {
+                checkCancelled(listener);
+                extractor.extract(entry, listener);
+            }
+            extractor.release();
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            final List<FileExtractor> created = new ArrayList<FileExtractor>();
+            final ThreadLocal<FileExtractor> extractors = new ThreadLocal<FileExtractor>() {
+                @Override
+                protected FileExtractor initialValue() {
+                    FileExtractor extractor = new FileExtractor();
+                    synchronized (created) {
+                        created.add(extractor);
+                    }
+                    return extractor;
+                }
+            };
+            try {
+                List<Future<Void>> futures = new ArrayList<Future<Void>>(files.size());
+                for (final Entry entry : files) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            checkCancelled(listener);
+                            extractors.get().extract(entry, listener);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ex) {
+                        // Stop the pending tasks and report the first error
+                        this.mAborted = true;
+                        Throwable cause = ex.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException)cause;
+                        }
+                        throw new IOException(cause);
+                    } catch (InterruptedException ex) {
+                        this.mAborted = true;
+                        throw new CancelledOperationException();
+                    }
+                }
+            } finally {
+                // The tasks are not interrupted, because an interrupted read closes the
+                // channel shared by all of them
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {/**NON BLOCK**/}
+                for (FileExtractor extractor : created) {
+                    extractor.release();
+                }
+            }
+        }
+
+        // The symbolic links
+        FileExtractor extractor = new FileExtractor();
+        for (Entry entry : links) {
+            checkCancelled(listener);
+            listener.onEntry(entry.mName, entry.mOutput);
+            if (entry.mSize > MAX_LINK_SIZE) {
+                throw new IOException("Invalid symbolic link: " + entry.mName); //$NON-NLS-1$
+            }
+            ByteArrayOutputStream target = new ByteArrayOutputStream((int)entry.mSize);
+            extractor.inflate(entry, target, null);
+            entry.mOutput.delete();
+            try {
+                Os.symlink(new String(target.toByteArray(), UTF8),
+                        entry.mOutput.getAbsolutePath());
+            } catch (ErrnoException ex) {
+                // The file system may not support symbolic links
+                Log.w(TAG, String.format("Fail to create the symbolic link %s", //$NON-NLS-1$
+                        entry.mOutput), ex);
+            }
+        }
+        extractor.release();
+
+        // The modification time of the directories is applied at the end, because the
+        // extraction of their children changes it
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            Entry entry = dirs.get(i);
+            applyAttributes(entry);
+        }
+    }
+
+    /**
+     * Method that closes the archive
+     */
+    public void close() {
+        try {
+            this.mRaf.close();
+        } catch (Throwable _throw) {/**NON BLOCK**/}
+    }
+
+    /**
+     * Method that reads the central directory of the archive
+     *
+     * @throws IOException If the archive is not a valid zip archive
+     */
+    private void readCentralDirectory() throws IOException {
+        long length = this.mChannel.size();
+        if (length < END_SIZE) {
+            throw new IOException("Not a zip archive: " + this.mFile); //$NON-NLS-1$
+        }
+
+        // Look for the end of central directory record (backwards, it can be followed
+        // by a comment)
+        int tailSize = (int)Math.min(length, END_SIZE + MAX_COMMENT_SIZE);
+        long tailStart = length - tailSize;
+        ByteBuffer tail = read(tailStart, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == SIG_END) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new IOException("Not a zip archive: " + this.mFile); //$NON-NLS-1$
+        }
+        long count = tail.getShort(end + 10) & 0xffff;
+        long cdSize = tail.getInt(end + 12) & 0xffffffffL;
+        long cdOffset = tail.getInt(end + 16) & 0xffffffffL;
+
+        // Zip64
+        long locator = tailStart + end - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0) {
+            ByteBuffer loc = read(locator, ZIP64_LOCATOR_SIZE);
+            if (loc.getInt(0) == SIG_ZIP64_LOCATOR) {
+                long zip64End = loc.getLong(8);
+                ByteBuffer rec = read(zip64End, ZIP64_END_SIZE);
+                if (rec.getInt(0) != SIG_ZIP64_END) {
+                    throw new IOException("Corrupted zip archive"); //$NON-NLS-1$
+                }
+                count = rec.getLong(32);
+                cdSize = rec.getLong(40);
+                cdOffset = rec.getLong(48);
+            }
+        }
+        if (cdOffset < 0 || cdSize < 0 || cdOffset + cdSize > length
+                || cdSize > Integer.MAX_VALUE) {
+            throw new IOException("Corrupted zip archive"); //$NON-NLS-1$
+        }
+
+        // The central directory is read at once
+        ByteBuffer cd = read(cdOffset, (int)cdSize);
+        Calendar calendar = Calendar.getInstance();
+        int pos = 0;
+        for (long i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > cdSize || cd.getInt(pos) != SIG_CENTRAL_HEADER) {
+                throw new IOException("Corrupted zip archive"); //$NON-NLS-1$
+            }
+            Entry entry = new Entry();
+            int madeBy = cd.getShort(pos + 4) & 0xffff;
+            int flags = cd.getShort(pos + 8) & 0xffff;
+            entry.mMethod = cd.getShort(pos + 10) & 0xffff;
+            entry.mTime = fromDosTime(calendar, cd.getInt(pos + 12));
+            entry.mCrc = cd.getInt(pos + 16) & 0xffffffffL;
+            entry.mCompressedSize = cd.getInt(pos + 20) & 0xffffffffL;
+            entry.mSize = cd.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = cd.getShort(pos + 28) & 0xffff;
+            int extraLength = cd.getShort(pos + 30) & 0xffff;
+            int commentLength = cd.getShort(pos + 32) & 0xffff;
+            int attributes = cd.getInt(pos + 38);
+            entry.mOffset = cd.getInt(pos + 42) & 0xffffffffL;
+            int next = pos + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (next > cdSize) {
+                throw new IOException("Corrupted zip archive"); //$NON-NLS-1$
+            }
+            byte[] name = new byte[nameLength];
+            cd.position(pos + CENTRAL_HEADER_SIZE);
+            cd.get(name);
+            entry.mName = new String(name, UTF8);
+            readZip64Extra(cd, pos + CENTRAL_HEADER_SIZE + nameLength, extraLength, entry);
+            pos = next;
+
+            if ((flags & FLAG_ENCRYPTED) != 0) {
+                throw new IOException(
+                        "Encrypted entries are not supported: " + entry.mName); //$NON-NLS-1$
+            }
+            if (entry.mMethod != METHOD_STORED && entry.mMethod != METHOD_DEFLATED) {
+                throw new IOException(
+                        "Unsupported compression method: " + entry.mName); //$NON-NLS-1$
+            }
+            int mode = (madeBy >> 8) == HOST_UNIX ? (attributes >>> 16) : 0;
+            entry.mMode = mode & 07777;
+            entry.mSymlink = (mode & S_IFMT) == S_IFLNK;
+            entry.mDirectory = entry.mName.endsWith("/") //$NON-NLS-1$
+                    || (mode & S_IFMT) == S_IFDIR;
+            if (!entry.mDirectory && !entry.mSymlink) {
+                this.mUncompressedSize += entry.mSize;
+            }
+            this.mEntries.add(entry);
+        }
+    }
+
+    /**
+     * Method that reads the 64-bit values of an entry from its zip64 extra field
+     *
+     * @param cd The central directory
+     * @param offset The offset of the extra fields
+     * @param length The length of the extra fields
+     * @param entry The entry
+     * @throws IOException If the extra field is corrupted
+     */
+    private static void readZip64Extra(ByteBuffer cd, int offset, int length, Entry entry)
+            throws IOException {
+        int pos = offset;
+        int end = offset + length;
+        while (pos + 4 <= end) {
+            int id = cd.getShort(pos) & 0xffff;
+            int size = cd.getShort(pos + 2) & 0xffff;
+            pos += 4;
+            if (id == 0x0001) {
+                // Only the values that doesn't fit are present, in this order
+                int p = pos;
+                if (entry.mSize == 0xffffffffL) {
+                    entry.mSize = readExtraLong(cd, p, pos + size);
+                    p += 8;
+                }
+                if (entry.mCompressedSize == 0xffffffffL) {
+                    entry.mCompressedSize = readExtraLong(cd, p, pos + size);
+                    p += 8;
+                }
+                if (entry.mOffset == 0xffffffffL) {
+                    entry.mOffset = readExtraLong(cd, p, pos + size);
+                }
+                return;
+            }
+            pos += size;
+        }
+    }
+
+    private static long readExtraLong(ByteBuffer cd, int pos, int end) throws IOException {
+        if (pos + 8 > end) {
+            throw new IOException("Corrupted zip archive"); //$NON-NLS-1$
+        }
+        long value = cd.getLong(pos);
+        if (value < 0) {
+            throw new IOException("Corrupted zip archive"); //$NON-NLS-1$
+        }
+        return value;
+    }
+
+    /**
+     * Method that reads a region of the archive
+     *
+     * @param position The position of the region
+     * @param length The length of the region
+     * @return ByteBuffer The region (little endian)
+     * @throws IOException If an I/O error occurs or the region is out of the archive
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Method that fills a buffer with the data of the archive at a position (the channel
+     * is shared by all the threads, so only positional reads are used)
+     *
+     * @param buffer The buffer
+     * @param position The position in the archive
+     * @throws IOException If an I/O error occurs or the archive ends
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = this.mChannel.read(buffer, pos);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of the zip archive"); //$NON-NLS-1$
+            }
+            pos += read;
+        }
+    }
+
+    /**
+     * Method that applies the permissions and the modification time of an entry
+     *
+     * @param entry The entry
+     */
+    private static void applyAttributes(Entry entry) {
+        if (entry.mMode != 0) {
+            try {
+                Os.chmod(entry.mOutput.getAbsolutePath(), entry.mMode);
+            } catch (ErrnoException ex) {
+                // Some file systems doesn't support permissions
+            }
+        }
+        entry.mOutput.setLastModified(entry.mTime);
+    }
+
+    /**
+     * Method that throws a {@link CancelledOperationException} if the extraction
+     * was cancelled or aborted by an error of other task
+     *
+     * @param listener The listener of the extraction
+     * @throws CancelledOperationException If the extraction was cancelled
+     */
+    private void checkCancelled(OnExtractListener listener)
+            throws CancelledOperationException {
+        if (listener.isCancelled() || this.mAborted) {
+            throw new CancelledOperationException();
+        }
+    }
+
+    /**
+     * Method that converts a time in MS-DOS format (local time) to milliseconds
+     *
+     * @param calendar The calendar used for the conversion
+     * @param time The time in MS-DOS format
+     * @return long The time in milliseconds
+     */
+    private static long fromDosTime(Calendar calendar, int time) {
+        calendar.clear();
+        calendar.set(((time >> 25) & 0x7f) + 1980, ((time >> 21) & 0x0f) - 1,
+                (time >> 16) & 0x1f, (time >> 11) & 0x1f, (time >> 5) & 0x3f,
+                (time & 0x1f) << 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * The inflation of the entries (one per thread)
+     */
+    private class FileExtractor {
+        private final Inflater mInflater = new Inflater(true);
+        private final CRC32 mCrc = new CRC32();
+        private final ByteBuffer mIn = ByteBuffer.allocate(BUFFER_SIZE);
+        private final byte[] mOut = new byte[BUFFER_SIZE];
+
+        /**
+         * Method that extracts a file entry to its output file
+         *
+         * @param entry The entry
+         * @param listener The listener of the extraction
+         * @throws IOException If an I/O error occurs or the entry is corrupted
+         */
+        void extract(Entry entry, OnExtractListener listener) throws IOException {
+            listener.onEntry(entry.mName, entry.mOutput);
+            RandomAccessFile raf = new RandomAccessFile(entry.mOutput, "rw"); //$NON-NLS-1$
+            boolean done = false;
+            try {
+                preallocate(raf, entry.mSize);
+                // A stream over the descriptor writes from the start without truncating
+                OutputStream os = new FileOutputStream(raf.getFD());
+                inflate(entry, os, listener);
+                done = true;
+            } finally {
+                raf.close();
+                if (!done) {
+                    // Don't leave a preallocated file that looks complete
+                    entry.mOutput.delete();
+                }
+            }
+            applyAttributes(entry);
+        }
+
+        /**
+         * Method that inflates the data of an entry
+         *
+         * @param entry The entry
+         * @param os The stream where to write the data
+         * @param listener The listener of the extraction (can be null)
+         * @throws IOException If an I/O error occurs or the entry is corrupted
+         */
+        void inflate(Entry entry, OutputStream os, OnExtractListener listener)
+                throws IOException {
+            // The local header can have its own extra fields
+            ByteBuffer header = read(entry.mOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != SIG_LOCAL_HEADER) {
+                throw new IOException("Corrupted zip archive: " + entry.mName); //$NON-NLS-1$
+            }
+            long pos = entry.mOffset + LOCAL_HEADER_SIZE
+                    + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+            long remaining = entry.mCompressedSize;
+            long written = 0;
+
+            Inflater inflater = this.mInflater;
+            CRC32 crc = this.mCrc;
+            ByteBuffer in = this.mIn;
+            byte[] out = this.mOut;
+            inflater.reset();
+            crc.reset();
+            try {
+                boolean finished = false;
+                while (!finished) {
+                    if (listener != null) {
+                        checkCancelled(listener);
+                    }
+                    if (remaining == 0 && (entry.mMethod == METHOD_STORED
+                            || inflater.needsInput())) {
+                        if (entry.mMethod == METHOD_STORED) {
+                            break;
+                        }
+                        throw new EOFException(
+                                "Unexpected end of the zip entry: " + entry.mName); //$NON-NLS-1$
+                    }
+                    int count;
+                    if (remaining > 0 && (entry.mMethod == METHOD_STORED
+                            || inflater.needsInput())) {
+                        in.clear();
+                        in.limit((int)Math.min(in.capacity(), remaining));
+                        readFully(in, pos);
+                        pos += in.limit();
+                        remaining -= in.limit();
+                        if (entry.mMethod == METHOD_STORED) {
+                            count = in.limit();
+                            crc.update(in.array(), 0, count);
+                            os.write(in.array(), 0, count);
+                            written += count;
+                            if (listener != null) {
+                                listener.onBytes(count);
+                            }
+                            continue;
+                        }
+                        inflater.setInput(in.array(), 0, in.limit());
+                    }
+                    count = inflater.inflate(out);
+                    if (count > 0) {
+                        crc.update(out, 0, count);
+                        os.write(out, 0, count);
+                        written += count;
+                        if (listener != null) {
+                            listener.onBytes(count);
+                        }
+                    }
+                    finished = inflater.finished();
+                    if (count == 0 && !finished && inflater.needsDictionary()) {
+                        throw new IOException(
+                                "Corrupted zip entry: " + entry.mName); //$NON-NLS-1$
+                    }
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupted zip entry: " + entry.mName, ex); //$NON-NLS-1$
+            }
+            if (written != entry.mSize || crc.getValue() != entry.mCrc) {
+                throw new IOException("CRC error in the zip entry: " + entry.mName); //$NON-NLS-1$
+            }
+        }
+
+        /**
+         * Method that releases the resources of the inflater
+         */
+        void release() {
+            this.mInflater.end();
+        }
+    }
+
+    /**
+     * Method that preallocates the space of a file. If the file system doesn't support
+     * the allocation, the file is only resized.
+     *
+     * @param raf The file
+     * @param size The size of the file
+     * @throws IOException If an I/O error occurs
+     */
+    private static void preallocate(RandomAccessFile raf, long size) throws IOException {
+        if (size > 0) {
+            try {
+                Os.posix_fallocate(raf.getFD(), 0, size);
+            } catch (ErrnoException ex) {
+                // Not supported (vfat, fuse, ...)
+            }
+        }
+        raf.setLength(size);
+    }
+
+    /**
+     * An entry of the central directory
+     */
+    public static class Entry {
+        String mName;
+        int mMethod;
+        long mCrc;
+        long mCompressedSize;
+        long mSize;
+        long mOffset;
+        long mTime;
+        int mMode;
+        boolean mDirectory;
+        boolean mSymlink;
+        File mOutput;
+
+        /**
+         * Method that returns the name of the entry
+         *
+         * @return String The name of the entry
+         */
+        public String getName() {
+            return this.mName;
+        }
+
+        /**
+         * Method that returns the compression method of the entry (stored or deflated)
+         *
+         * @return int The compression method
+         */
+        public int getMethod() {
+            return this.mMethod;
+        }
+
+        /**
+         * Method that returns the CRC32 of the uncompressed data
+         *
+         * @return long The CRC32
+         */
+        public long getCrc() {
+            return this.mCrc;
+        }
+
+        /**
+         * Method that returns the size of the compressed data
+         *
+         * @return long The compressed size
+         */
+        public long getCompressedSize() {
+            return this.mCompressedSize;
+        }
+
+        /**
+         * Method that returns the size of the uncompressed data
+         *
+         * @return long The uncompressed size
+         */
+        public long getSize() {
+            return this.mSize;
+        }
+
+        /**
+         * Method that returns the position of the local header of the entry
+         *
+         * @return long The position of the local header
+         */
+        public long getOffset() {
+            return this.mOffset;
+        }
+
+        /**
+         * Method that returns the modification time of the entry
+         *
+         * @return long The modification time, in milliseconds
+         */
+        public long getTime() {
+            return this.mTime;
+        }
+
+        /**
+         * Method that returns the permissions of the entry
+         *
+         * @return int The permissions, or <code>0</code> if the archive doesn't have them
+         */
+        public int getMode() {
+            return this.mMode;
+        }
+
+        /**
+         * Method that returns if the entry is a directory
+         *
+         * @return boolean If the entry is a directory
+         */
+        public boolean isDirectory() {
+            return this.mDirectory;
+        }
+
+        /**
+         * Method that returns if the entry is a symbolic link
+         *
+         * @return boolean If the entry is a symbolic link
+         */
+        public boolean isSymlink() {
+            return this.mSymlink;
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that writes a zip archive, compressing the content of the files in
+ * parallel with a {@link ParallelDeflateOutputStream}.
+ * <br/>
+ * The files are written in a single pass: the CRC32 and the compressed size of every file are
+ * written in a data descriptor after its content. Directories, empty files and symbolic links
+ * (whose content is the target of the link, in the same way as <code>zip -y</code>) are stored.
+ * The names are encoded in UTF-8, the unix permissions are stored in the external attributes,
+ * and the zip64 extensions are used for files of 4GB or more and for big archives.
+ */
+public class ParallelZipOutputStream extends OutputStream {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    // Unix
+    private static final int VERSION_MADE_BY = (3 << 8) | VERSION_ZIP64;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final long ZIP64_LIMIT = 0xffffffffL;
+    private static final int ZIP64_ENTRIES_LIMIT = 0xffff;
+    // The compressed data can be a bit bigger than the file, so files over this size are
+    // written with the zip64 extensions
+    private static final long ZIP64_SIZE_THRESHOLD = 0xf0000000L;
+
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFREG = 0100000;
+    private static final int S_IFLNK = 0120000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final CountingOutputStream mOut;
+    private final ParallelDeflateOutputStream mDeflater;
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final byte[] mBuffer = new byte[64];
+    private Entry mCurrent;
+    private boolean mFinished;
+
+    /**
+     * Constructor of <code>ParallelZipOutputStream</code>.
+     *
+     * @param out The stream where to write the archive
+     */
+    public ParallelZipOutputStream(OutputStream out) {
+        super();
+        this.mOut = new CountingOutputStream(out);
+        this.mDeflater = new ParallelDeflateOutputStream(this.mOut, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Method that adds a directory to the archive.
+     *
+     * @param name The name of the directory (relative, with a trailing slash)
+     * @param mode The permissions of the directory
+     * @param mtime The modification time of the directory, in milliseconds
+     * @throws IOException If an I/O error occurs
+     */
+    public void putDirectory(String name, int mode, long mtime) throws IOException {
+        putStored(name, S_IFDIR | (mode & 07777), mtime, new byte[0]);
+    }
+
+    /**
+     * Method that adds a symbolic link to the archive.
+     *
+     * @param name The name of the link
+     * @param target The target of the link
+     * @param mtime The modification time of the link, in milliseconds
+     * @throws IOException If an I/O error occurs
+     */
+    public void putSymlink(String name, String target, long mtime) throws IOException {
+        putStored(name, S_IFLNK | 0777, mtime, target.getBytes(UTF8));
+    }
+
+    /**
+     * Method that starts a file of the archive. The content of the file is written with the
+     * <code>write</code> methods, and the file is completed with {@link #closeEntry()}.
+     *
+     * @param name The name of the file
+     * @param mode The permissions of the file
+     * @param mtime The modification time of the file, in milliseconds
+     * @param size The size of the file
+     * @throws IOException If an I/O error occurs
+     */
+    public void putFile(String name, int mode, long mtime, long size) throws IOException {
+        closeEntry();
+        if (size == 0) {
+            putStored(name, S_IFREG | (mode & 07777), mtime, new byte[0]);
+            return;
+        }
+        Entry entry = new Entry(name, S_IFREG | (mode & 07777), mtime);
+        entry.mMethod = Deflater.DEFLATED;
+        entry.mFlags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+        entry.mZip64 = size >= ZIP64_SIZE_THRESHOLD;
+        writeLocalHeader(entry);
+        this.mDeflater.resetCounters();
+        entry.mDataOffset = this.mOut.mCount;
+        this.mCurrent = entry;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // An empty file has no open entry (it's stored), but the copy loop can still
+        // write nothing
+        if (len == 0) {
+            return;
+        }
+        if (this.mCurrent == null) {
+            throw new IOException("No file entry"); //$NON-NLS-1$
+        }
+        this.mDeflater.write(b, off, len);
+    }
+
+    /**
+     * Method that completes the current file, writing its data descriptor.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    public void closeEntry() throws IOException {
+        Entry entry = this.mCurrent;
+        if (entry == null) {
+            return;
+        }
+        this.mCurrent = null;
+        this.mDeflater.finish();
+        entry.mCrc = this.mDeflater.getCrc();
+        entry.mSize = this.mDeflater.getBytesIn();
+        entry.mCompressedSize = this.mOut.mCount - entry.mDataOffset;
+        if (!entry.mZip64
+                && (entry.mSize >= ZIP64_LIMIT || entry.mCompressedSize >= ZIP64_LIMIT)) {
+            throw new IOException("The file grew while it was compressed"); //$NON-NLS-1$
+        }
+
+        byte[] b = this.mBuffer;
+        int pos = putInt(b, 0, DATA_DESCRIPTOR_SIGNATURE);
+        pos = putInt(b, pos, entry.mCrc);
+        if (entry.mZip64) {
+            pos = putLong(b, pos, entry.mCompressedSize);
+            pos = putLong(b, pos, entry.mSize);
+        } else {
+            pos = putInt(b, pos, entry.mCompressedSize);
+            pos = putInt(b, pos, entry.mSize);
+        }
+        this.mOut.write(b, 0, pos);
+    }
+
+    /**
+     * Method that completes the archive, writing the central directory, without closing the
+     * underlying stream.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (this.mFinished) {
+            return;
+        }
+        closeEntry();
+
+        long centralOffset = this.mOut.mCount;
+        for (Entry entry : this.mEntries) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = this.mOut.mCount - centralOffset;
+        int entries = this.mEntries.size();
+
+        byte[] b = this.mBuffer;
+        int pos;
+        boolean zip64 = entries >= ZIP64_ENTRIES_LIMIT
+                || centralOffset >= ZIP64_LIMIT || centralSize >= ZIP64_LIMIT;
+        if (zip64) {
+            long zip64Offset = this.mOut.mCount;
+            pos = putInt(b, 0, ZIP64_END_SIGNATURE);
+            pos = putLong(b, pos, 44);
+            pos = putShort(b, pos, VERSION_MADE_BY);
+            pos = putShort(b, pos, VERSION_ZIP64);
+            pos = putInt(b, pos, 0);
+            pos = putInt(b, pos, 0);
+            pos = putLong(b, pos, entries);
+            pos = putLong(b, pos, entries);
+            pos = putLong(b, pos, centralSize);
+            pos = putLong(b, pos, centralOffset);
+            this.mOut.write(b, 0, pos);
+
+            pos = putInt(b, 0, ZIP64_LOCATOR_SIGNATURE);
+            pos = putInt(b, pos, 0);
+            pos = putLong(b, pos, zip64Offset);
+            pos = putInt(b, pos, 1);
+            this.mOut.write(b, 0, pos);
+        }
+
+        pos = putInt(b, 0, END_SIGNATURE);
+        pos = putShort(b, pos, 0);
+        pos = putShort(b, pos, 0);
+        pos = putShort(b, pos, Math.min(entries, ZIP64_ENTRIES_LIMIT));
+        pos = putShort(b, pos, Math.min(entries, ZIP64_ENTRIES_LIMIT));
+        pos = putInt(b, pos, Math.min(centralSize, ZIP64_LIMIT));
+        pos = putInt(b, pos, Math.min(centralOffset, ZIP64_LIMIT));
+        pos = putShort(b, pos, 0);
+        this.mOut.write(b, 0, pos);
+        this.mFinished = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        this.mOut.flush();
+    }
+
+    /**
+     * Method that releases the threads of the compression. This method doesn't complete the
+     * archive nor closes the underlying stream.
+     */
+    public void release() {
+        this.mDeflater.release();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            this.mOut.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Method that writes an entry with a known content, without compression
+     *
+     * @param name The name of the entry
+     * @param mode The unix mode of the entry
+     * @param mtime The modification time of the entry, in milliseconds
+     * @param data The content of the entry
+     * @throws IOException If an I/O error occurs
+     */
+    private void putStored(String name, int mode, long mtime, byte[] data) throws IOException {
+        closeEntry();
+        Entry entry = new Entry(name, mode, mtime);
+        entry.mMethod = METHOD_STORED;
+        entry.mFlags = FLAG_UTF8;
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.mCrc = crc.getValue();
+        entry.mSize = data.length;
+        entry.mCompressedSize = data.length;
+        writeLocalHeader(entry);
+        this.mOut.write(data);
+    }
+
+    /**
+     * Method that writes the local header of an entry
+     *
+     * @param entry The entry
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeLocalHeader(Entry entry) throws IOException {
+        entry.mOffset = this.mOut.mCount;
+        this.mEntries.add(entry);
+
+        boolean descriptor = (entry.mFlags & FLAG_DATA_DESCRIPTOR) != 0;
+        byte[] b = this.mBuffer;
+        int pos = putInt(b, 0, LOCAL_HEADER_SIGNATURE);
+        pos = putShort(b, pos, entry.mZip64 ? VERSION_ZIP64 : VERSION);
+        pos = putShort(b, pos, entry.mFlags);
+        pos = putShort(b, pos, entry.mMethod);
+        pos = putInt(b, pos, entry.mDosTime);
+        pos = putInt(b, pos, descriptor ? 0 : entry.mCrc);
+        if (entry.mZip64) {
+            pos = putInt(b, pos, ZIP64_LIMIT);
+            pos = putInt(b, pos, ZIP64_LIMIT);
+        } else {
+            pos = putInt(b, pos, descriptor ? 0 : entry.mCompressedSize);
+            pos = putInt(b, pos, descriptor ? 0 : entry.mSize);
+        }
+        pos = putShort(b, pos, entry.mName.length);
+        pos = putShort(b, pos, entry.mZip64 ? 20 : 0);
+        this.mOut.write(b, 0, pos);
+        this.mOut.write(entry.mName);
+        if (entry.mZip64) {
+            // The sizes are in the data descriptor
+            pos = putShort(b, 0, ZIP64_EXTRA_ID);
+            pos = putShort(b, pos, 16);
+            pos = putLong(b, pos, 0);
+            pos = putLong(b, pos, 0);
+            this.mOut.write(b, 0, pos);
+        }
+    }
+
+    /**
+     * Method that writes the central header of an entry
+     *
+     * @param entry The entry
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeCentralHeader(Entry entry) throws IOException {
+        // The zip64 extra field only contains the values that doesn't fit
+        ByteArrayOutputStream extra = new ByteArrayOutputStream();
+        byte[] b = this.mBuffer;
+        if (entry.mSize >= ZIP64_LIMIT) {
+            extra.write(b, 0, putLong(b, 0, entry.mSize));
+        }
+        if (entry.mCompressedSize >= ZIP64_LIMIT) {
+            extra.write(b, 0, putLong(b, 0, entry.mCompressedSize));
+        }
+        if (entry.mOffset >= ZIP64_LIMIT) {
+            extra.write(b, 0, putLong(b, 0, entry.mOffset));
+        }
+        boolean zip64 = entry.mZip64 || extra.size() > 0;
+
+        int pos = putInt(b, 0, CENTRAL_HEADER_SIGNATURE);
+        pos = putShort(b, pos, VERSION_MADE_BY);
+        pos = putShort(b, pos, zip64 ? VERSION_ZIP64 : VERSION);
+        pos = putShort(b, pos, entry.mFlags);
+        pos = putShort(b, pos, entry.mMethod);
+        pos = putInt(b, pos, entry.mDosTime);
+        pos = putInt(b, pos, entry.mCrc);
+        pos = putInt(b, pos, Math.min(entry.mCompressedSize, ZIP64_LIMIT));
+        pos = putInt(b, pos, Math.min(entry.mSize, ZIP64_LIMIT));
+        pos = putShort(b, pos, entry.mName.length);
+        pos = putShort(b, pos, extra.size() > 0 ? extra.size() + 4 : 0);
+        pos = putShort(b, pos, 0);
+        pos = putShort(b, pos, 0);
+        pos = putShort(b, pos, 0);
+        pos = putInt(b, pos, ((long)entry.mMode) << 16);
+        pos = putInt(b, pos, Math.min(entry.mOffset, ZIP64_LIMIT));
+        this.mOut.write(b, 0, pos);
+        this.mOut.write(entry.mName);
+        if (extra.size() > 0) {
+            pos = putShort(b, 0, ZIP64_EXTRA_ID);
+            pos = putShort(b, pos, extra.size());
+            this.mOut.write(b, 0, pos);
+            extra.writeTo(this.mOut);
+        }
+    }
+
+    /**
+     * Method that converts a time to the MS-DOS format
+     *
+     * @param time The time, in milliseconds
+     * @return long The time in MS-DOS format
+     */
+    private long toDosTime(long time) {
+        Calendar c = this.mCalendar;
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((year - 1980) << 25)
+                | ((c.get(Calendar.MONTH) + 1) << 21)
+                | (c.get(Calendar.DAY_OF_MONTH) << 16)
+                | (c.get(Calendar.HOUR_OF_DAY) << 11)
+                | (c.get(Calendar.MINUTE) << 5)
+                | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    private static int putShort(byte[] b, int pos, int value) {
+        b[pos] = (byte)value;
+        b[pos + 1] = (byte)(value >> 8);
+        return pos + 2;
+    }
+
+    private static int putInt(byte[] b, int pos, long value) {
+        b[pos] = (byte)value;
+        b[pos + 1] = (byte)(value >> 8);
+        b[pos + 2] = (byte)(value >> 16);
+        b[pos + 3] = (byte)(value >> 24);
+        return pos + 4;
+    }
+
+    private static int putLong(byte[] b, int pos, long value) {
+        pos = putInt(b, pos, value);
+        return putInt(b, pos, value >>> 32);
+    }
+
+    /**
+     * An entry of the archive
+     */
+    private class Entry {
+        final byte[] mName;
+        final int mMode;
+        final long mDosTime;
+        int mMethod;
+        int mFlags;
+        boolean mZip64;
+        long mCrc;
+        long mSize;
+        long mCompressedSize;
+        long mOffset;
+        long mDataOffset;
+
+        Entry(String name, int mode, long mtime) {
+            super();
+            this.mName = name.getBytes(UTF8);
+            this.mMode = mode;
+            this.mDosTime = toDosTime(mtime);
+        }
+    }
+
+    /**
+     * A stream that counts the bytes written
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream mTarget;
+        long mCount;
+
+        CountingOutputStream(OutputStream target) {
+            super();
+            this.mTarget = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.mTarget.write(b);
+            this.mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.mTarget.write(b, off, len);
+            this.mCount += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.mTarget.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.mTarget.close();
+        }
+    }
+}
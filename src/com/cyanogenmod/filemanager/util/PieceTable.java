@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A document made of pieces of an original source and of a buffer of added bytes.
+ * <br/>
+ * The original source is never modified nor loaded: an edit only splits the pieces around
+ * the edited region and appends the new bytes to the added buffer, so the memory used by
+ * the document is proportional to the edits, not to the size of the source.
+ * <pre>
+ * original: The quick fox
+ * replace(10, 0, "brown ")
+ * pieces:   [original 0-10] [added 0-6] [original 10-13]
+ * </pre>
+ * The positions are byte positions. The helpers to find line boundaries allow to split
+ * the document in pages of text that never split a line (or, for too long lines, an UTF-8
+ * sequence).
+ */
+public class PieceTable {
+
+    /**
+     * A piece of the document
+     */
+    private static final class Piece {
+        final boolean mAdded;
+        final long mStart;
+        final long mLength;
+
+        Piece(boolean added, long start, long length) {
+            super();
+            this.mAdded = added;
+            this.mStart = start;
+            this.mLength = length;
+        }
+    }
+
+    private static final int SCAN_BUFFER_SIZE = 4096;
+
+    private final PagedByteSource mOriginal;
+    private final List<Piece> mPieces;
+    private byte[] mAdded;
+    private int mAddedLength;
+    private long mLength;
+    private boolean mModified;
+
+    /**
+     * Constructor of <code>PieceTable</code>.
+     *
+     * @param original The original source
+     */
+    public PieceTable(PagedByteSource original) {
+        super();
+        this.mOriginal = original;
+        this.mPieces = new ArrayList<Piece>();
+        this.mLength = original.length();
+        if (this.mLength > 0) {
+            this.mPieces.add(new Piece(false, 0, this.mLength));
+        }
+        this.mAdded = new byte[0];
+    }
+
+    /**
+     * Method that returns the original source of the document
+     *
+     * @return PagedByteSource The original source
+     */
+    public PagedByteSource getOriginal() {
+        return this.mOriginal;
+    }
+
+    /**
+     * Method that returns the length of the document
+     *
+     * @return long The length of the document
+     */
+    public long length() {
+        return this.mLength;
+    }
+
+    /**
+     * Method that returns if the document was modified
+     *
+     * @return boolean If the document was modified
+     */
+    public boolean isModified() {
+        return this.mModified;
+    }
+
+    /**
+     * Method that reads bytes of the document at a position
+     *
+     * @param position The position of the document
+     * @param b The buffer where to read the bytes
+     * @param off The offset of the buffer
+     * @param len The bytes to read
+     * @return int The bytes read (less than requested only at the end of the document)
+     * @throws IOException If the original source can't be read
+     */
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        int read = 0;
+        long start = 0;
+        int cc = this.mPieces.size();
+        for (int i = 0; i < cc && read < len; i++) {
+            Piece piece = this.mPieces.get(i);
+            long end = start + piece.mLength;
+            long pos = position + read;
+            if (pos < end) {
+                long offset = pos - start;
+                int n = (int) Math.min(len - read, piece.mLength - offset);
+                if (piece.mAdded) {
+                    System.arraycopy(this.mAdded, (int) (piece.mStart + offset),
+                            b, off + read, n);
+                } else if (this.mOriginal.readFully(
+                        piece.mStart + offset, b, off + read, n) != n) {
+                    throw new IOException("the original source was truncated"); //$NON-NLS-1$
+                }
+                read += n;
+            }
+            start = end;
+        }
+        return read;
+    }
+
+    /**
+     * Method that replaces a region of the document
+     *
+     * @param position The start of the region
+     * @param len The length of the region
+     * @param data The new bytes of the region
+     */
+    public void replace(long position, long len, byte[] data) {
+        if (position < 0 || len < 0 || position + len > this.mLength) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        // Append the new data to the added buffer
+        int addedStart = this.mAddedLength;
+        if (data.length > 0) {
+            if (this.mAddedLength + data.length > this.mAdded.length) {
+                int capacity = Math.max(this.mAddedLength + data.length, this.mAdded.length * 2);
+                byte[] added = new byte[capacity];
+                System.arraycopy(this.mAdded, 0, added, 0, this.mAddedLength);
+                this.mAdded = added;
+            }
+            System.arraycopy(data, 0, this.mAdded, this.mAddedLength, data.length);
+            this.mAddedLength += data.length;
+        }
+
+        // Split the pieces around the region and put the new piece between them
+        List<Piece> pieces = new ArrayList<Piece>(this.mPieces.size() + 2);
+        long end = position + len;
+        long start = 0;
+        boolean inserted = false;
+        for (Piece piece : this.mPieces) {
+            long pieceEnd = start + piece.mLength;
+            if (pieceEnd <= position) {
+                pieces.add(piece);
+            } else {
+                if (start < position) {
+                    pieces.add(new Piece(piece.mAdded, piece.mStart, position - start));
+                }
+                if (!inserted) {
+                    addPiece(pieces, addedStart, data.length);
+                    inserted = true;
+                }
+                if (pieceEnd > end) {
+                    long skip = Math.max(0, end - start);
+                    pieces.add(new Piece(piece.mAdded, piece.mStart + skip,
+                            piece.mLength - skip));
+                }
+            }
+            start = pieceEnd;
+        }
+        if (!inserted) {
+            addPiece(pieces, addedStart, data.length);
+        }
+        this.mPieces.clear();
+        this.mPieces.addAll(pieces);
+        this.mLength += data.length - len;
+        this.mModified = true;
+    }
+
+    /**
+     * Method that writes the whole document to a stream
+     *
+     * @param out The stream
+     * @param buffer The buffer used to copy the original source
+     * @throws IOException If the document can't be written
+     */
+    public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+        for (Piece piece : this.mPieces) {
+            if (piece.mAdded) {
+                out.write(this.mAdded, (int) piece.mStart, (int) piece.mLength);
+                continue;
+            }
+            long pos = piece.mStart;
+            long end = piece.mStart + piece.mLength;
+            while (pos < end) {
+                int n = this.mOriginal.readFully(
+                        pos, buffer, 0, (int) Math.min(buffer.length, end - pos));
+                if (n <= 0) {
+                    throw new IOException("the original source was truncated"); //$NON-NLS-1$
+                }
+                out.write(buffer, 0, n);
+                pos += n;
+            }
+        }
+    }
+
+    /**
+     * Method that writes the whole document to a channel. The pieces of the original source
+     * are transferred with {@link PagedByteSource#transferTo(long, long, WritableByteChannel)}
+     * (without copy them through the heap if the source is a file), so the cost of the write
+     * only depends on the size of the document, not on the edits.
+     *
+     * @param target The channel
+     * @throws IOException If the document can't be written
+     */
+    public void writeTo(WritableByteChannel target) throws IOException {
+        for (Piece piece : this.mPieces) {
+            if (piece.mAdded) {
+                ByteBuffer buffer =
+                        ByteBuffer.wrap(this.mAdded, (int) piece.mStart, (int) piece.mLength);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                continue;
+            }
+            if (this.mOriginal.transferTo(piece.mStart, piece.mLength, target)
+                    != piece.mLength) {
+                throw new IOException("the original source was truncated"); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Method that returns the end of the page of text that starts at a position. The page
+     * ends after the last line break found before <code>position + max</code> bytes, or at
+     * an UTF-8 boundary if the page is a part of a long line.
+     *
+     * @param position The start of the page
+     * @param max The maximum length of the page
+     * @return long The end of the page
+     * @throws IOException If the original source can't be read
+     */
+    public long findPageEnd(long position, int max) throws IOException {
+        long limit = Math.min(this.mLength, position + max);
+        if (limit == this.mLength) {
+            return limit;
+        }
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        long pos = limit;
+        while (pos > position) {
+            int n = (int) Math.min(buffer.length, pos - position);
+            read(pos - n, buffer, 0, n);
+            for (int i = n - 1; i >= 0; i--) {
+                if (buffer[i] == '\n') {
+                    return pos - n + i + 1;
+                }
+            }
+            pos -= n;
+        }
+        return alignToCharacter(limit);
+    }
+
+    /**
+     * Method that returns the start of the page of text that ends at a position. The page
+     * starts after the first line break found after <code>position - max</code> bytes, or at
+     * an UTF-8 boundary if the page is a part of a long line.
+     *
+     * @param position The end of the page
+     * @param max The maximum length of the page
+     * @return long The start of the page
+     * @throws IOException If the original source can't be read
+     */
+    public long findPageStart(long position, int max) throws IOException {
+        long limit = position - max;
+        if (limit <= 0) {
+            return 0;
+        }
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        long pos = limit;
+        while (pos < position - 1) {
+            int n = (int) Math.min(buffer.length, position - 1 - pos);
+            read(pos, buffer, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return alignToCharacter(limit);
+    }
+
+    /**
+     * Method that moves a position back to the start of an UTF-8 sequence
+     *
+     * @param position The position
+     * @return long The start of the UTF-8 sequence that contains the position
+     * @throws IOException If the original source can't be read
+     */
+    private long alignToCharacter(long position) throws IOException {
+        byte[] b = new byte[1];
+        long pos = position;
+        // An UTF-8 sequence has at most 4 bytes; continuation bytes are 10xxxxxx
+        while (pos > 0 && position - pos < 3 && pos < this.mLength) {
+            read(pos, b, 0, 1);
+            if ((b[0] & 0xc0) != 0x80) {
+                break;
+            }
+            pos--;
+        }
+        return pos;
+    }
+
+    /**
+     * Method that adds a piece of the added buffer, if it isn't empty
+     *
+     * @param pieces The pieces
+     * @param start The start of the piece in the added buffer
+     * @param len The length of the piece
+     */
+    private static void addPiece(List<Piece> pieces, long start, long len) {
+        if (len > 0) {
+            pieces.add(new Piece(true, start, len));
+        }
+    }
+}
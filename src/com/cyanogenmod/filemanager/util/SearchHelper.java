@@ -25,8 +25,13 @@ import android.text.style.StyleSpan;
 import com.cyanogenmod.filemanager.model.FileSystemObject;
 import com.cyanogenmod.filemanager.model.Query;
 import com.cyanogenmod.filemanager.model.SearchResult;
+import com.cyanogenmod.filemanager.preferences.NavigationSortMode;
+import com.cyanogenmod.filemanager.preferences.SearchSortResultMode;
+import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.regex.Matcher;
@@ -183,6 +188,54 @@ public final class SearchHelper {
         return results;
     }
 
+    /**
+     * Method that returns the comparator that sorts the search results for a sort mode. The
+     * best results are sorted first.
+     *
+     * @param mode The sort mode of the search results
+     * @return Comparator<SearchResult> The comparator, or null if the results are not sorted
+     */
+    public static Comparator<SearchResult> getResultComparator(SearchSortResultMode mode) {
+        if (mode == null) {
+            return null;
+        }
+        switch (mode) {
+            case NAME:
+                return new Comparator<SearchResult>() {
+                    @Override
+                    public int compare(SearchResult lhs, SearchResult rhs) {
+                        return FileHelper.doCompare(
+                                lhs.getFso(), rhs.getFso(), NavigationSortMode.NAME_ASC);
+                    }
+                };
+            case RELEVANCE:
+                return new Comparator<SearchResult>() {
+                    @Override
+                    public int compare(SearchResult lhs, SearchResult rhs) {
+                        return lhs.compareTo(rhs);
+                    }
+                };
+            case NEWEST:
+                return new Comparator<SearchResult>() {
+                    @Override
+                    public int compare(SearchResult lhs, SearchResult rhs) {
+                        return FileHelper.doCompare(
+                                lhs.getFso(), rhs.getFso(), NavigationSortMode.DATE_DESC);
+                    }
+                };
+            case LARGEST:
+                return new Comparator<SearchResult>() {
+                    @Override
+                    public int compare(SearchResult lhs, SearchResult rhs) {
+                        return FileHelper.doCompare(
+                                lhs.getFso(), rhs.getFso(), NavigationSortMode.SIZE_DESC);
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
     /**
      * Method that calculates the relevance of a file system object for the terms
      * of a query.<br/>
@@ -247,4 +300,125 @@ public final class SearchHelper {
 
     }
 
+    /**
+     * Method that checks if a file satisfies the constraints of a query (size, modification
+     * time, type and mime/type category). The name of the file is not checked.<br/>
+     * <br/>
+     * This method is intended to be used by the find walkers, prior to create the
+     * {@link FileSystemObject} of the file, so only the needed attributes are retrieved.
+     *
+     * @param query The query
+     * @param file The file to check
+     * @param isDirectory If the file is a directory
+     * @return boolean If the file satisfies the constraints of the query
+     */
+    public static boolean matchesConstraints(Query query, File file, boolean isDirectory) {
+        if (!query.hasConstraints()) {
+            return true;
+        }
+        if (!matchesObjectType(query, isDirectory)) {
+            return false;
+        }
+        MimeTypeCategory category = query.getMimeTypeCategory();
+        if (category != null) {
+            // NOTE: We don't need the context here, because mime-type
+            // database should be loaded prior to this call
+            MimeTypeCategory fileCategory = MimeTypeCategory.NONE;
+            if (!isDirectory) {
+                fileCategory = MimeTypeHelper.getCategoryFromExt(
+                        null, FileHelper.getExtension(file.getName()));
+                if (fileCategory.compareTo(MimeTypeCategory.NONE) == 0 && !file.isFile()) {
+                    fileCategory = MimeTypeCategory.SYSTEM;
+                }
+            }
+            if (category.compareTo(fileCategory) != 0) {
+                return false;
+            }
+        }
+        if (query.getMinSize() != Query.NO_LIMIT || query.getMaxSize() != Query.NO_LIMIT) {
+            if (!matchesRange(file.length(), query.getMinSize(), query.getMaxSize())) {
+                return false;
+            }
+        }
+        if (query.getMinLastModified() != Query.NO_LIMIT
+                || query.getMaxLastModified() != Query.NO_LIMIT) {
+            if (!matchesRange(file.lastModified(),
+                    query.getMinLastModified(), query.getMaxLastModified())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method that checks if a file system object satisfies the constraints of a query (size,
+     * modification time, type and mime/type category). The name of the file system object
+     * is not checked.
+     *
+     * @param query The query
+     * @param fso The file system object to check
+     * @return boolean If the file system object satisfies the constraints of the query
+     */
+    public static boolean matchesConstraints(Query query, FileSystemObject fso) {
+        if (!query.hasConstraints()) {
+            return true;
+        }
+        if (!matchesObjectType(query, FileHelper.isDirectory(fso))) {
+            return false;
+        }
+        MimeTypeCategory category = query.getMimeTypeCategory();
+        if (category != null) {
+            // NOTE: We don't need the context here, because mime-type
+            // database should be loaded prior to this call
+            if (category.compareTo(MimeTypeHelper.getCategory(null, fso)) != 0) {
+                return false;
+            }
+        }
+        if (!matchesRange(fso.getSize(), query.getMinSize(), query.getMaxSize())) {
+            return false;
+        }
+        if (fso.getLastModifiedTime() != null
+                && !matchesRange(fso.getLastModifiedTime().getTime(),
+                        query.getMinLastModified(), query.getMaxLastModified())) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method that checks the object type constraint of a query.
+     *
+     * @param query The query
+     * @param isDirectory If the object is a directory
+     * @return boolean If the object satisfies the object type constraint
+     */
+    private static boolean matchesObjectType(Query query, boolean isDirectory) {
+        switch (query.getObjectType()) {
+            case FILES_ONLY:
+                return !isDirectory;
+            case DIRECTORIES_ONLY:
+                return isDirectory;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Method that checks if a value is in the range (inclusive) of a constraint.
+     *
+     * @param value The value to check
+     * @param min The minimum value, or {@link Query#NO_LIMIT}
+     * @param max The maximum value, or {@link Query#NO_LIMIT}
+     * @return boolean If the value is in the range
+     */
+    private static boolean matchesRange(long value, long min, long max) {
+        if (min != Query.NO_LIMIT && value < min) {
+            return false;
+        }
+        if (max != Query.NO_LIMIT && value > max) {
+            return false;
+        }
+        return true;
+    }
+
 }
@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * An input stream that reads a tar archive (ustar, GNU and pax formats).
+ * <br/>
+ * Every entry is returned by {@link #getNextEntry()}, and the <code>read</code> methods read
+ * the content of the current entry. The unread content of an entry is skipped when the next
+ * entry is requested.
+ */
+public class TarInputStream extends InputStream {
+
+    /**
+     * An entry of a tar archive
+     */
+    public static class Entry {
+        String mName;
+        char mType;
+        int mMode;
+        long mSize;
+        long mTime;
+        String mLinkName;
+        long mOffset;
+
+        /**
+         * Method that returns the name of the entry
+         *
+         * @return String The name of the entry
+         */
+        public String getName() {
+            return this.mName;
+        }
+
+        /**
+         * Method that returns the type of the entry (see the types of
+         * {@link TarOutputStream})
+         *
+         * @return char The type of the entry
+         */
+        public char getType() {
+            return this.mType;
+        }
+
+        /**
+         * Method that returns if the entry is a regular file
+         *
+         * @return boolean If the entry is a regular file
+         */
+        public boolean isFile() {
+            return this.mType == TarOutputStream.TYPE_FILE || this.mType == 0
+                    || this.mType == TYPE_CONTIGUOUS;
+        }
+
+        /**
+         * Method that returns if the entry is a directory
+         *
+         * @return boolean If the entry is a directory
+         */
+        public boolean isDirectory() {
+            return this.mType == TarOutputStream.TYPE_DIRECTORY
+                    || (this.mType != TYPE_HARD_LINK && this.mName.endsWith("/")); //$NON-NLS-1$
+        }
+
+        /**
+         * Method that returns if the entry is a symbolic link
+         *
+         * @return boolean If the entry is a symbolic link
+         */
+        public boolean isSymlink() {
+            return this.mType == TarOutputStream.TYPE_SYMLINK;
+        }
+
+        /**
+         * Method that returns if the entry is a hard link
+         *
+         * @return boolean If the entry is a hard link
+         */
+        public boolean isHardLink() {
+            return this.mType == TYPE_HARD_LINK;
+        }
+
+        /**
+         * Method that returns the permissions of the entry
+         *
+         * @return int The permissions of the entry
+         */
+        public int getMode() {
+            return this.mMode;
+        }
+
+        /**
+         * Method that returns the size of the content of the entry
+         *
+         * @return long The size of the content
+         */
+        public long getSize() {
+            return this.mSize;
+        }
+
+        /**
+         * Method that returns the modification time of the entry
+         *
+         * @return long The modification time, in milliseconds
+         */
+        public long getTime() {
+            return this.mTime;
+        }
+
+        /**
+         * Method that returns the position of the content of the entry in the archive
+         *
+         * @return long The position of the content
+         */
+        public long getOffset() {
+            return this.mOffset;
+        }
+
+        /**
+         * Method that returns the target of a link
+         *
+         * @return String The target of the link, or <code>null</code> if it isn't a link
+         */
+        public String getLinkName() {
+            return this.mLinkName;
+        }
+    }
+
+    private static final char TYPE_HARD_LINK = '1';
+    private static final char TYPE_CONTIGUOUS = '7';
+    private static final char TYPE_LONG_NAME = 'L';
+    private static final char TYPE_LONG_LINK = 'K';
+    private static final char TYPE_PAX = 'x';
+    private static final char TYPE_PAX_GLOBAL = 'g';
+
+    private static final int BLOCK_SIZE = 512;
+    // The maximum size of the metadata entries (long names and pax headers)
+    private static final int MAX_METADATA_SIZE = 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final InputStream mIn;
+    private final byte[] mHeader = new byte[BLOCK_SIZE];
+    private long mRemaining;
+    private long mPadding;
+    private long mPosition;
+    private boolean mEof;
+
+    /**
+     * Constructor of <code>TarInputStream</code>.
+     *
+     * @param in The stream where to read the archive
+     */
+    public TarInputStream(InputStream in) {
+        super();
+        this.mIn = in;
+    }
+
+    /**
+     * Method that returns the next entry of the archive
+     *
+     * @return Entry The next entry, or <code>null</code> at the end of the archive
+     * @throws IOException If an I/O error occurs or the archive is corrupted
+     */
+    public Entry getNextEntry() throws IOException {
+        if (this.mEof) {
+            return null;
+        }
+        skipFully(this.mRemaining + this.mPadding);
+        this.mRemaining = 0;
+        this.mPadding = 0;
+
+        String longName = null;
+        String longLink = null;
+        long paxSize = -1;
+        while (true) {
+            if (!readHeader()) {
+                this.mEof = true;
+                return null;
+            }
+            byte[] h = this.mHeader;
+            char type = (char)(h[156] & 0xff);
+            long size = readNumber(h, 124, 12);
+            if (type == TYPE_LONG_NAME || type == TYPE_LONG_LINK) {
+                String value = trimNull(new String(readMetadata(size), UTF8));
+                if (type == TYPE_LONG_NAME) {
+                    longName = value;
+                } else {
+                    longLink = value;
+                }
+                continue;
+            }
+            if (type == TYPE_PAX || type == TYPE_PAX_GLOBAL) {
+                byte[] data = readMetadata(size);
+                if (type == TYPE_PAX) {
+                    // Records: "<length> <key>=<value>\n"
+                    int pos = 0;
+                    while (pos < data.length) {
+                        int sp = pos;
+                        while (sp < data.length && data[sp] != ' ') {
+                            sp++;
+                        }
+                        int len;
+                        try {
+                            len = Integer.parseInt(new String(data, pos, sp - pos, UTF8));
+                        } catch (NumberFormatException ex) {
+                            break;
+                        }
+                        if (len <= 0 || pos + len > data.length) {
+                            break;
+                        }
+                        String record = new String(data, sp + 1, pos + len - sp - 2, UTF8);
+                        int eq = record.indexOf('=');
+                        if (eq > 0) {
+                            String key = record.substring(0, eq);
+                            String value = record.substring(eq + 1);
+                            if (key.equals("path")) { //$NON-NLS-1$
+                                longName = value;
+                            } else if (key.equals("linkpath")) { //$NON-NLS-1$
+                                longLink = value;
+                            } else if (key.equals("size")) { //$NON-NLS-1$
+                                try {
+                                    paxSize = Long.parseLong(value);
+                                } catch (NumberFormatException ex) {
+                                    throw new IOException("Corrupted tar archive"); //$NON-NLS-1$
+                                }
+                            }
+                        }
+                        pos += len;
+                    }
+                }
+                continue;
+            }
+
+            Entry entry = new Entry();
+            entry.mType = type;
+            if (longName != null) {
+                entry.mName = longName;
+            } else {
+                entry.mName = readString(h, 0, 100);
+                // ustar prefix
+                if (h[257] == 'u' && h[262] == 0 && h[345] != 0) {
+                    entry.mName = readString(h, 345, 155) + "/" + entry.mName; //$NON-NLS-1$
+                }
+            }
+            entry.mLinkName = longLink != null ? longLink : readString(h, 157, 100);
+            if (entry.mLinkName.length() == 0) {
+                entry.mLinkName = null;
+            }
+            entry.mMode = (int)readNumber(h, 100, 8) & 07777;
+            entry.mTime = readNumber(h, 136, 12) * 1000L;
+            entry.mSize = paxSize >= 0 ? paxSize : size;
+            if (entry.isDirectory() || entry.isSymlink() || entry.isHardLink()) {
+                // No content
+                entry.mSize = 0;
+            }
+            if (entry.mSize < 0) {
+                throw new IOException("Corrupted tar archive"); //$NON-NLS-1$
+            }
+            entry.mOffset = this.mPosition;
+            this.mRemaining = entry.mSize;
+            this.mPadding = (BLOCK_SIZE - (entry.mSize % BLOCK_SIZE)) % BLOCK_SIZE;
+            return entry;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.mRemaining == 0) {
+            return -1;
+        }
+        int read = this.mIn.read(b, off, (int)Math.min(len, this.mRemaining));
+        if (read <= 0) {
+            throw new EOFException("Unexpected end of the tar archive"); //$NON-NLS-1$
+        }
+        this.mRemaining -= read;
+        this.mPosition += read;
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.mIn.close();
+    }
+
+    /**
+     * Method that reads a header block
+     *
+     * @return boolean If a header was read, or <code>false</code> at the end of the archive
+     * @throws IOException If an I/O error occurs or the header is corrupted
+     */
+    private boolean readHeader() throws IOException {
+        byte[] h = this.mHeader;
+        int read = 0;
+        while (read < BLOCK_SIZE) {
+            int count = this.mIn.read(h, read, BLOCK_SIZE - read);
+            if (count <= 0) {
+                if (read == 0) {
+                    // Archive without the end blocks
+                    return false;
+                }
+                throw new EOFException("Unexpected end of the tar archive"); //$NON-NLS-1$
+            }
+            read += count;
+        }
+        this.mPosition += BLOCK_SIZE;
+
+        // A zero block is the end of the archive
+        long sum = 0;
+        long signedSum = 0;
+        boolean zero = true;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            int b = (i >= 148 && i < 156) ? ' ' : h[i];
+            sum += b & 0xff;
+            signedSum += (byte)b;
+            if (h[i] != 0) {
+                zero = false;
+            }
+        }
+        if (zero) {
+            return false;
+        }
+        long checksum = readNumber(h, 148, 8);
+        if (checksum != sum && checksum != signedSum) {
+            throw new IOException("Corrupted tar archive"); //$NON-NLS-1$
+        }
+        return true;
+    }
+
+    /**
+     * Method that reads the content of a metadata entry
+     *
+     * @param size The size of the content
+     * @return byte[] The content
+     * @throws IOException If an I/O error occurs or the entry is not valid
+     */
+    private byte[] readMetadata(long size) throws IOException {
+        if (size < 0 || size > MAX_METADATA_SIZE) {
+            throw new IOException("Corrupted tar archive"); //$NON-NLS-1$
+        }
+        byte[] data = new byte[(int)size];
+        int read = 0;
+        while (read < data.length) {
+            int count = this.mIn.read(data, read, data.length - read);
+            if (count <= 0) {
+                throw new EOFException("Unexpected end of the tar archive"); //$NON-NLS-1$
+            }
+            read += count;
+        }
+        this.mPosition += size;
+        skipFully((BLOCK_SIZE - (size % BLOCK_SIZE)) % BLOCK_SIZE);
+        return data;
+    }
+
+    /**
+     * Method that skips bytes of the input
+     *
+     * @param count The number of bytes to skip
+     * @throws IOException If an I/O error occurs or the input ends
+     */
+    private void skipFully(long count) throws IOException {
+        byte[] buffer = null;
+        while (count > 0) {
+            long skipped = this.mIn.skip(count);
+            if (skipped <= 0) {
+                // Some streams can't skip
+                if (buffer == null) {
+                    buffer = new byte[(int)Math.min(count, 8192)];
+                }
+                skipped = this.mIn.read(buffer, 0, (int)Math.min(count, buffer.length));
+                if (skipped <= 0) {
+                    throw new EOFException("Unexpected end of the tar archive"); //$NON-NLS-1$
+                }
+            }
+            count -= skipped;
+            this.mPosition += skipped;
+        }
+    }
+
+    /**
+     * Method that reads a number of a header (octal, or base-256 for big numbers)
+     *
+     * @param h The header
+     * @param offset The offset of the field
+     * @param length The length of the field
+     * @return long The number
+     * @throws IOException If the number is not valid
+     */
+    private static long readNumber(byte[] h, int offset, int length) throws IOException {
+        if ((h[offset] & 0x80) != 0) {
+            long value = h[offset] & 0x7f;
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (h[offset + i] & 0xff);
+            }
+            return value;
+        }
+        long value = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end && (h[i] == ' ' || h[i] == 0)) {
+            i++;
+        }
+        for (; i < end; i++) {
+            byte c = h[i];
+            if (c == 0 || c == ' ') {
+                break;
+            }
+            if (c < '0' || c > '7') {
+                throw new IOException("Corrupted tar archive"); //$NON-NLS-1$
+            }
+            value = (value << 3) | (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Method that reads a zero terminated string of a header
+     *
+     * @param h The header
+     * @param offset The offset of the field
+     * @param length The length of the field
+     * @return String The string
+     */
+    private static String readString(byte[] h, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && h[end] != 0) {
+            end++;
+        }
+        return new String(h, offset, end - offset, UTF8);
+    }
+
+    private static String trimNull(String s) {
+        int end = s.indexOf('\0');
+        return end == -1 ? s : s.substring(0, end);
+    }
+}
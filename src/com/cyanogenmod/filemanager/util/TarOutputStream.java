@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An output stream that writes a tar archive (in GNU format, the format written by the
+ * <code>tar</code> of the shell).
+ * <br/>
+ * Every entry is started with {@link #putEntry(String, char, int, long, long, String)}, its
+ * content (only for regular files) is written with the <code>write</code> methods and the
+ * entry is completed with {@link #closeEntry()}. Names and link targets longer than 100 bytes
+ * are written as GNU long name entries, and sizes that doesn't fit in the octal field are
+ * written in base-256.
+ */
+public class TarOutputStream extends OutputStream {
+
+    /**
+     * The type of a regular file
+     */
+    public static final char TYPE_FILE = '0';
+    /**
+     * The type of a symbolic link
+     */
+    public static final char TYPE_SYMLINK = '2';
+    /**
+     * The type of a directory
+     */
+    public static final char TYPE_DIRECTORY = '5';
+
+    private static final char TYPE_LONG_NAME = 'L';
+    private static final char TYPE_LONG_LINK = 'K';
+    private static final String LONG_LINK_NAME = "././@LongLink"; //$NON-NLS-1$
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int RECORD_SIZE = 20 * BLOCK_SIZE;
+    private static final int NAME_LENGTH = 100;
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final OutputStream mOut;
+    private final byte[] mHeader = new byte[BLOCK_SIZE];
+    private long mWritten;
+    private long mRemaining;
+    private boolean mFinished;
+
+    /**
+     * Constructor of <code>TarOutputStream</code>.
+     *
+     * @param out The stream where to write the archive
+     */
+    public TarOutputStream(OutputStream out) {
+        super();
+        this.mOut = out;
+    }
+
+    /**
+     * Method that starts a new entry of the archive.
+     *
+     * @param name The name of the entry (relative, with a trailing slash for directories)
+     * @param type The type of the entry ({@link #TYPE_FILE}, {@link #TYPE_SYMLINK} or
+     * {@link #TYPE_DIRECTORY})
+     * @param mode The permissions of the entry
+     * @param size The size of the content of the entry (only for regular files)
+     * @param mtime The modification time of the entry, in milliseconds
+     * @param linkName The target of the link, or <code>null</code> if it isn't a link
+     * @throws IOException If an I/O error occurs
+     */
+    public void putEntry(String name, char type, int mode, long size, long mtime,
+            String linkName) throws IOException {
+        if (this.mRemaining != 0) {
+            throw new IOException("The content of the entry is incomplete"); //$NON-NLS-1$
+        }
+        byte[] nameBytes = name.getBytes(UTF8);
+        byte[] linkBytes = linkName == null ? new byte[0] : linkName.getBytes(UTF8);
+        if (linkBytes.length > NAME_LENGTH) {
+            writeLongName(TYPE_LONG_LINK, linkBytes);
+        }
+        if (nameBytes.length > NAME_LENGTH) {
+            writeLongName(TYPE_LONG_NAME, nameBytes);
+        }
+        writeHeader(nameBytes, type, mode, type == TYPE_FILE ? size : 0, mtime, linkBytes);
+        this.mRemaining = type == TYPE_FILE ? size : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > this.mRemaining) {
+            throw new IOException("The content exceeds the size of the entry"); //$NON-NLS-1$
+        }
+        this.mOut.write(b, off, len);
+        this.mWritten += len;
+        this.mRemaining -= len;
+    }
+
+    /**
+     * Method that completes the current entry, padding its content to the block size.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    public void closeEntry() throws IOException {
+        if (this.mRemaining != 0) {
+            throw new IOException("The content of the entry is incomplete"); //$NON-NLS-1$
+        }
+        pad(BLOCK_SIZE);
+    }
+
+    /**
+     * Method that completes the archive without closing the underlying stream.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (this.mFinished) {
+            return;
+        }
+        closeEntry();
+        // Two zero blocks, and the rest of the record
+        this.mOut.write(new byte[BLOCK_SIZE * 2]);
+        this.mWritten += BLOCK_SIZE * 2;
+        pad(RECORD_SIZE);
+        this.mFinished = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        this.mOut.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        this.mOut.close();
+    }
+
+    /**
+     * Method that writes a GNU long name entry
+     *
+     * @param type The type of the long name entry
+     * @param name The long name
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeLongName(char type, byte[] name) throws IOException {
+        writeHeader(LONG_LINK_NAME.getBytes(UTF8), type, 0, name.length + 1, 0, new byte[0]);
+        this.mOut.write(name);
+        this.mOut.write(0);
+        this.mWritten += name.length + 1;
+        pad(BLOCK_SIZE);
+    }
+
+    /**
+     * Method that writes the header block of an entry
+     *
+     * @param name The name of the entry
+     * @param type The type of the entry
+     * @param mode The permissions of the entry
+     * @param size The size of the content of the entry
+     * @param mtime The modification time of the entry, in milliseconds
+     * @param linkName The target of the link
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeHeader(byte[] name, char type, int mode, long size, long mtime,
+            byte[] linkName) throws IOException {
+        byte[] h = this.mHeader;
+        Arrays.fill(h, (byte)0);
+        System.arraycopy(name, 0, h, 0, Math.min(name.length, NAME_LENGTH));
+        writeOctal(h, 100, 8, mode & 07777);
+        writeOctal(h, 108, 8, 0);
+        writeOctal(h, 116, 8, 0);
+        if (size > MAX_OCTAL_SIZE) {
+            // Base-256 (GNU extension)
+            h[124] = (byte)0x80;
+            for (int i = 135; i > 124; i--) {
+                h[i] = (byte)size;
+                size >>>= 8;
+            }
+        } else {
+            writeOctal(h, 124, 12, size);
+        }
+        writeOctal(h, 136, 12, Math.max(0, mtime / 1000L));
+        h[156] = (byte)type;
+        System.arraycopy(linkName, 0, h, 157, Math.min(linkName.length, NAME_LENGTH));
+        // GNU magic and version
+        h[257] = 'u';
+        h[258] = 's';
+        h[259] = 't';
+        h[260] = 'a';
+        h[261] = 'r';
+        h[262] = ' ';
+        h[263] = ' ';
+
+        // The checksum is computed with the checksum field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            h[i] = ' ';
+        }
+        long checksum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            checksum += h[i] & 0xff;
+        }
+        writeOctal(h, 148, 7, checksum);
+
+        this.mOut.write(h);
+        this.mWritten += BLOCK_SIZE;
+    }
+
+    /**
+     * Method that pads the written data with zeros to a multiple of a size
+     *
+     * @param size The size
+     * @throws IOException If an I/O error occurs
+     */
+    private void pad(int size) throws IOException {
+        int padding = (int)((size - (this.mWritten % size)) % size);
+        if (padding > 0) {
+            this.mOut.write(new byte[padding]);
+            this.mWritten += padding;
+        }
+    }
+
+    /**
+     * Method that writes a zero terminated octal number in a field of a header
+     *
+     * @param h The header
+     * @param offset The offset of the field
+     * @param length The length of the field (including the terminator)
+     * @param value The value
+     */
+    private static void writeOctal(byte[] h, int offset, int length, long value) {
+        int pos = offset + length - 1;
+        h[pos--] = 0;
+        while (pos >= offset) {
+            h[pos--] = (byte)('0' + (value & 07));
+            value >>>= 3;
+        }
+    }
+}
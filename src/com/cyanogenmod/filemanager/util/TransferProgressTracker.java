@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.model.TransferProgress;
+
+import java.io.File;
+
+/**
+ * A class that accumulates the progress of a copy or move operation and notifies it as
+ * {@link TransferProgress} partial results.
+ * <br/>
+ * The updates are throttled: the listener receives at most one partial result every
+ * {@link #PROGRESS_INTERVAL} milliseconds, no matter how often the progress is updated, so the
+ * UI is refreshed at a fixed rate. The throughput is a moving average of the throughput of
+ * every interval. The methods of this class are thread safe.
+ */
+public class TransferProgressTracker implements CopyScheduler.OnCopyProgressListener {
+
+    /**
+     * The minimum time between two notifications.
+     */
+    public static final long PROGRESS_INTERVAL = 250L;
+
+    // The weight of the last interval in the moving average of the throughput
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final AsyncResultListener mListener;
+
+    private long mTotalBytes;
+    private long mBytes;
+    private String mCurrentFile;
+
+    private long mLastTime;
+    private long mLastBytes;
+    private double mRate;
+
+    /**
+     * Constructor of <code>TransferProgressTracker</code>.
+     *
+     * @param listener The listener where to notify the progress (can be null)
+     * @param totalBytes The total bytes to transfer, or <code>-1</code> if unknown
+     */
+    public TransferProgressTracker(AsyncResultListener listener, long totalBytes) {
+        super();
+        this.mListener = listener;
+        this.mTotalBytes = totalBytes;
+        this.mLastTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Method that sets the total bytes to transfer.
+     *
+     * @param totalBytes The total bytes to transfer, or <code>-1</code> if unknown
+     */
+    public synchronized void setTotalBytes(long totalBytes) {
+        this.mTotalBytes = totalBytes;
+    }
+
+    /**
+     * Method that sets the file being transferred.
+     *
+     * @param currentFile The file being transferred
+     */
+    public synchronized void setCurrentFile(String currentFile) {
+        this.mCurrentFile = currentFile;
+    }
+
+    /**
+     * Method that sets the bytes transferred and notifies the progress if the interval
+     * has elapsed.
+     *
+     * @param bytes The bytes transferred
+     */
+    public synchronized void setBytes(long bytes) {
+        this.mBytes = bytes;
+        notifyProgress(false);
+    }
+
+    /**
+     * Method that adds bytes to the bytes transferred and notifies the progress if the
+     * interval has elapsed.
+     *
+     * @param bytes The bytes transferred since the last update
+     */
+    public synchronized void addBytes(long bytes) {
+        this.mBytes += bytes;
+        notifyProgress(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onCopyProgress(File file, int files, long bytes) {
+        this.mCurrentFile = file.getAbsolutePath();
+        setBytes(bytes);
+    }
+
+    /**
+     * Method that notifies the current progress, even if the interval has not elapsed.
+     */
+    public synchronized void flush() {
+        notifyProgress(true);
+    }
+
+    /**
+     * Method that notifies the progress, at most once per {@link #PROGRESS_INTERVAL}
+     *
+     * @param force If the progress must be notified now
+     */
+    private void notifyProgress(boolean force) {
+        long now = System.currentTimeMillis();
+        long elapsed = now - this.mLastTime;
+        if (!force && elapsed < PROGRESS_INTERVAL) {
+            return;
+        }
+        if (elapsed > 0) {
+            double rate = ((this.mBytes - this.mLastBytes) * 1000d) / elapsed;
+            if (this.mLastBytes == 0 || this.mRate == 0) {
+                this.mRate = rate;
+            } else {
+                this.mRate = (RATE_SMOOTHING * rate) + ((1 - RATE_SMOOTHING) * this.mRate);
+            }
+            this.mLastTime = now;
+            this.mLastBytes = this.mBytes;
+        }
+        if (this.mListener != null) {
+            // The estimations of the shell can go beyond the total
+            long bytes = this.mBytes;
+            if (this.mTotalBytes > 0) {
+                bytes = Math.min(bytes, this.mTotalBytes);
+            }
+            this.mListener.onPartialResult(new TransferProgress(
+                    bytes, this.mTotalBytes, this.mCurrentFile, Math.max(0, (long)this.mRate)));
+        }
+    }
+}
@@ -0,0 +1,581 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * An input stream that reads a xz stream (or several concatenated xz streams).
+ * <br/>
+ * Only the LZMA2 filter is supported (the filter used by <code>xz</code> by default). The
+ * integrity check of every block (CRC32, CRC64 or SHA-256) is verified.
+ */
+public class XZInputStream extends InputStream {
+
+    private static final byte[] HEADER_MAGIC = {
+        (byte)0xfd, '7', 'z', 'X', 'Z', 0
+    };
+    private static final int FILTER_LZMA2 = 0x21;
+
+    private static final int CHECK_NONE = 0;
+    private static final int CHECK_CRC32 = 1;
+    private static final int CHECK_CRC64 = 4;
+    private static final int CHECK_SHA256 = 10;
+
+    private static final long[] CRC64_TABLE = new long[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            long c = i;
+            for (int j = 0; j < 8; j++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ 0xc96c5795d7870f42L : c >>> 1;
+            }
+            CRC64_TABLE[i] = c;
+        }
+    }
+
+    private final InputStream mIn;
+    private final byte[] mInput = new byte[8192];
+    private int mInputPos;
+    private int mInputLength;
+    private long mInputCount;
+
+    private int mCheckType;
+    private LzmaDecoder mDecoder;
+    private byte[] mChunk;
+
+    // The state of the current block
+    private boolean mInBlock;
+    private long mBlockStart;
+    private boolean mNeedDictionaryReset;
+    private boolean mNeedProperties;
+    private int mChunkRemaining;
+    private boolean mChunkCompressed;
+
+    // The integrity check of the current block
+    private final CRC32 mCrc32 = new CRC32();
+    private long mCrc64;
+    private MessageDigest mSha256;
+
+    private boolean mStarted;
+    private boolean mEof;
+
+    /**
+     * Constructor of <code>XZInputStream</code>.
+     *
+     * @param in The stream where to read the xz stream
+     */
+    public XZInputStream(InputStream in) {
+        super();
+        this.mIn = in;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.mStarted) {
+            this.mStarted = true;
+            if (!readStreamHeader()) {
+                throw new IOException("Not a xz stream"); //$NON-NLS-1$
+            }
+        }
+        while (!this.mEof) {
+            if (!this.mInBlock) {
+                nextBlock();
+                continue;
+            }
+            if (this.mChunkRemaining == 0) {
+                nextChunk();
+                continue;
+            }
+
+            // Decode up to the end of the chunk, the end of the dictionary or the requested
+            // length
+            LzmaDecoder decoder = this.mDecoder;
+            if (decoder.mPos == decoder.mDict.length) {
+                decoder.mPos = 0;
+            }
+            int start = decoder.mPos;
+            int limit = start + Math.min(Math.min(this.mChunkRemaining, len),
+                    decoder.mDict.length - start);
+            if (this.mChunkCompressed) {
+                decoder.decode(limit);
+            } else {
+                int count = limit - start;
+                readFully(decoder.mDict, start, count);
+                decoder.mPos += count;
+                decoder.mFull = Math.min(decoder.mDict.length, decoder.mFull + count);
+            }
+            int count = decoder.mPos - start;
+            if (count == 0) {
+                throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+            }
+            this.mChunkRemaining -= count;
+            if (this.mChunkRemaining == 0 && this.mChunkCompressed
+                    && (!decoder.isInputFinished() || decoder.hasPending())) {
+                throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+            }
+            System.arraycopy(decoder.mDict, start, b, off, count);
+            updateCheck(b, off, count);
+            return count;
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        this.mDecoder = null;
+        this.mIn.close();
+    }
+
+    /**
+     * Method that reads the header of a stream
+     *
+     * @return boolean If a stream header was read
+     * @throws IOException If an I/O error occurs or the header is not valid
+     */
+    private boolean readStreamHeader() throws IOException {
+        // Skip the stream padding (a multiple of 4 bytes)
+        int b;
+        int padding = -1;
+        do {
+            b = readByte(true);
+            padding++;
+        } while (b == 0);
+        if (padding % 4 != 0) {
+            throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+        }
+        if (b == -1) {
+            return false;
+        }
+        byte[] header = new byte[12];
+        header[0] = (byte)b;
+        readFully(header, 1, 11);
+        for (int i = 0; i < HEADER_MAGIC.length; i++) {
+            if (header[i] != HEADER_MAGIC[i]) {
+                throw new IOException("Not a xz stream"); //$NON-NLS-1$
+            }
+        }
+        checkCrc32(header, 6, 2, getInt(header, 8));
+        if (header[6] != 0 || (header[7] & 0xf0) != 0) {
+            throw new IOException("Unsupported xz stream flags"); //$NON-NLS-1$
+        }
+        this.mCheckType = header[7] & 0x0f;
+        if (this.mCheckType == CHECK_SHA256 && this.mSha256 == null) {
+            try {
+                this.mSha256 = MessageDigest.getInstance("SHA-256"); //$NON-NLS-1$
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IOException(ex);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method that reads the header of the next block, or the index and the footer of the
+     * stream
+     *
+     * @throws IOException If an I/O error occurs or the stream is corrupted
+     */
+    private void nextBlock() throws IOException {
+        this.mBlockStart = this.mInputCount;
+        int size = readByte(false);
+        if (size == 0) {
+            readIndex();
+            if (!readStreamHeader()) {
+                this.mEof = true;
+            }
+            return;
+        }
+
+        // Block header
+        size = (size + 1) * 4;
+        byte[] header = new byte[size];
+        header[0] = (byte)((size / 4) - 1);
+        readFully(header, 1, size - 1);
+        checkCrc32(header, 0, size - 4, getInt(header, size - 4));
+        int flags = header[1] & 0xff;
+        if ((flags & 0x03) != 0 || (flags & 0x3c) != 0) {
+            throw new IOException("Unsupported xz filters"); //$NON-NLS-1$
+        }
+        long[] pos = {2};
+        long uncompressedSize = -1;
+        if ((flags & 0x40) != 0) {
+            readVarInt(header, pos);
+        }
+        if ((flags & 0x80) != 0) {
+            uncompressedSize = readVarInt(header, pos);
+        }
+        long filter = readVarInt(header, pos);
+        long propsSize = readVarInt(header, pos);
+        if (filter != FILTER_LZMA2 || propsSize != 1) {
+            throw new IOException("Unsupported xz filters"); //$NON-NLS-1$
+        }
+        if (pos[0] >= size - 4) {
+            throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+        }
+        int props = header[(int)pos[0]] & 0xff;
+        if (props > 40) {
+            throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+        }
+        long dictSize = props == 40
+                ? 0xffffffffL : ((long)(2 | (props & 1))) << ((props >>> 1) + 11);
+        if (uncompressedSize >= 0) {
+            dictSize = Math.min(dictSize, uncompressedSize);
+        }
+        if (dictSize > Integer.MAX_VALUE - 8) {
+            throw new IOException("The xz dictionary is too big"); //$NON-NLS-1$
+        }
+        if (this.mDecoder == null || this.mDecoder.mDict.length < dictSize) {
+            this.mDecoder = null;
+            this.mDecoder = new LzmaDecoder((int)dictSize);
+        }
+        this.mDecoder.resetDictionary();
+
+        this.mInBlock = true;
+        this.mNeedDictionaryReset = true;
+        this.mNeedProperties = true;
+        this.mChunkRemaining = 0;
+        this.mCrc32.reset();
+        this.mCrc64 = -1;
+        if (this.mSha256 != null) {
+            this.mSha256.reset();
+        }
+    }
+
+    /**
+     * Method that reads the header of the next LZMA2 chunk (and its compressed data), or the
+     * end of the block
+     *
+     * @throws IOException If an I/O error occurs or the stream is corrupted
+     */
+    private void nextChunk() throws IOException {
+        int control = readByte(false);
+        if (control == 0) {
+            endBlock();
+            return;
+        }
+        if (control >= 0xe0 || control == 0x01) {
+            this.mNeedProperties = true;
+            this.mNeedDictionaryReset = false;
+            this.mDecoder.resetDictionary();
+        } else if (this.mNeedDictionaryReset) {
+            throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+        }
+
+        if (control < 0x80) {
+            if (control > 0x02) {
+                throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+            }
+            this.mChunkCompressed = false;
+            this.mChunkRemaining = ((readByte(false) << 8) | readByte(false)) + 1;
+            return;
+        }
+
+        this.mChunkCompressed = true;
+        this.mChunkRemaining = ((control & 0x1f) << 16)
+                + ((readByte(false) << 8) | readByte(false)) + 1;
+        int compressed = ((readByte(false) << 8) | readByte(false)) + 1;
+        int reset = (control >>> 5) & 0x03;
+        if (reset >= 2) {
+            int props = readByte(false);
+            if (props > (4 * 5 + 4) * 9 + 8) {
+                throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+            }
+            int pb = props / (9 * 5);
+            props -= pb * 9 * 5;
+            int lp = props / 9;
+            int lc = props - lp * 9;
+            if (lc + lp > 4) {
+                throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+            }
+            this.mDecoder.setProperties(lc, lp, pb);
+            this.mNeedProperties = false;
+        } else if (this.mNeedProperties) {
+            throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+        } else if (reset == 1) {
+            this.mDecoder.resetState();
+        }
+
+        if (this.mChunk == null) {
+            this.mChunk = new byte[1 << 16];
+        }
+        readFully(this.mChunk, 0, compressed);
+        this.mDecoder.setInput(this.mChunk, compressed);
+    }
+
+    /**
+     * Method that reads the padding and the integrity check of the current block
+     *
+     * @throws IOException If an I/O error occurs or the check doesn't match
+     */
+    private void endBlock() throws IOException {
+        this.mInBlock = false;
+        while ((this.mInputCount - this.mBlockStart) % 4 != 0) {
+            if (readByte(false) != 0) {
+                throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+            }
+        }
+        byte[] check;
+        switch (this.mCheckType) {
+            case CHECK_NONE:
+                return;
+            case CHECK_CRC32:
+                check = new byte[4];
+                readFully(check, 0, check.length);
+                if (getInt(check, 0) != (int)this.mCrc32.getValue()) {
+                    throw new IOException("xz CRC32 error"); //$NON-NLS-1$
+                }
+                return;
+            case CHECK_CRC64:
+                check = new byte[8];
+                readFully(check, 0, check.length);
+                long crc = (getInt(check, 0) & 0xffffffffL) | ((long)getInt(check, 4) << 32);
+                if (crc != ~this.mCrc64) {
+                    throw new IOException("xz CRC64 error"); //$NON-NLS-1$
+                }
+                return;
+            case CHECK_SHA256:
+                check = new byte[32];
+                readFully(check, 0, check.length);
+                if (!Arrays.equals(check, this.mSha256.digest())) {
+                    throw new IOException("xz SHA-256 error"); //$NON-NLS-1$
+                }
+                return;
+            default:
+                // Unsupported checks are skipped (their size is defined by the type)
+                int size = this.mCheckType == 0 ? 0 : 4 << ((this.mCheckType - 1) / 3);
+                check = new byte[size];
+                readFully(check, 0, size);
+                return;
+        }
+    }
+
+    /**
+     * Method that reads the index and the footer of a stream
+     *
+     * @throws IOException If an I/O error occurs or the stream is corrupted
+     */
+    private void readIndex() throws IOException {
+        // The indicator was already read
+        CRC32 crc = new CRC32();
+        crc.update(0);
+        long start = this.mInputCount - 1;
+        long records = readVarInt(crc);
+        for (long i = 0; i < records * 2; i++) {
+            readVarInt(crc);
+        }
+        while ((this.mInputCount - start) % 4 != 0) {
+            int b = readByte(false);
+            if (b != 0) {
+                throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+            }
+            crc.update(b);
+        }
+        byte[] check = new byte[4];
+        readFully(check, 0, 4);
+        if (getInt(check, 0) != (int)crc.getValue()) {
+            throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+        }
+
+        // The footer
+        byte[] footer = new byte[12];
+        readFully(footer, 0, footer.length);
+        if (footer[10] != 'Y' || footer[11] != 'Z') {
+            throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+        }
+        checkCrc32(footer, 4, 6, getInt(footer, 0));
+    }
+
+    /**
+     * Method that updates the integrity check with decoded data
+     *
+     * @param b The data
+     * @param off The offset of the data
+     * @param len The length of the data
+     */
+    private void updateCheck(byte[] b, int off, int len) {
+        switch (this.mCheckType) {
+            case CHECK_CRC32:
+                this.mCrc32.update(b, off, len);
+                break;
+            case CHECK_CRC64:
+                long crc = this.mCrc64;
+                int end = off + len;
+                for (int i = off; i < end; i++) {
+                    crc = CRC64_TABLE[((int)crc ^ b[i]) & 0xff] ^ (crc >>> 8);
+                }
+                this.mCrc64 = crc;
+                break;
+            case CHECK_SHA256:
+                this.mSha256.update(b, off, len);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Method that reads a variable length integer of the header of a block
+     *
+     * @param b The header
+     * @param pos The position in the header (updated)
+     * @return long The integer
+     * @throws IOException If the integer is not valid
+     */
+    private static long readVarInt(byte[] b, long[] pos) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 9; i++) {
+            if (pos[0] >= b.length - 4) {
+                throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+            }
+            int c = b[(int)pos[0]++] & 0xff;
+            value |= ((long)(c & 0x7f)) << (i * 7);
+            if ((c & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that reads a variable length integer of the index
+     *
+     * @param crc The CRC32 of the index (updated)
+     * @return long The integer
+     * @throws IOException If an I/O error occurs or the integer is not valid
+     */
+    private long readVarInt(CRC32 crc) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 9; i++) {
+            int c = readByte(false);
+            crc.update(c);
+            value |= ((long)(c & 0x7f)) << (i * 7);
+            if ((c & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks the CRC32 of a region of a buffer
+     *
+     * @param b The buffer
+     * @param off The offset of the region
+     * @param len The length of the region
+     * @param expected The expected CRC32
+     * @throws IOException If the CRC32 doesn't match
+     */
+    private static void checkCrc32(byte[] b, int off, int len, int expected)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(b, off, len);
+        if ((int)crc.getValue() != expected) {
+            throw new IOException("Corrupted xz stream"); //$NON-NLS-1$
+        }
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8)
+                | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Method that reads a byte of the input
+     *
+     * @param eofAllowed If the end of the input is allowed
+     * @return int The byte, or <code>-1</code> at the end of the input (if allowed)
+     * @throws IOException If an I/O error occurs
+     */
+    private int readByte(boolean eofAllowed) throws IOException {
+        if (this.mInputPos == this.mInputLength) {
+            this.mInputLength = this.mIn.read(this.mInput, 0, this.mInput.length);
+            this.mInputPos = 0;
+            if (this.mInputLength <= 0) {
+                this.mInputLength = 0;
+                if (eofAllowed) {
+                    return -1;
+                }
+                throw new EOFException("Unexpected end of the xz stream"); //$NON-NLS-1$
+            }
+        }
+        this.mInputCount++;
+        return this.mInput[this.mInputPos++] & 0xff;
+    }
+
+    /**
+     * Method that reads bytes of the input
+     *
+     * @param b The buffer
+     * @param off The offset in the buffer
+     * @param len The number of bytes to read
+     * @throws IOException If an I/O error occurs or the input ends
+     */
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.mInputPos == this.mInputLength) {
+                // Read big regions straight from the input
+                if (len >= this.mInput.length) {
+                    int read = this.mIn.read(b, off, len);
+                    if (read <= 0) {
+                        throw new EOFException("Unexpected end of the xz stream"); //$NON-NLS-1$
+                    }
+                    this.mInputCount += read;
+                    off += read;
+                    len -= read;
+                    continue;
+                }
+                this.mInputLength = this.mIn.read(this.mInput, 0, this.mInput.length);
+                this.mInputPos = 0;
+                if (this.mInputLength <= 0) {
+                    this.mInputLength = 0;
+                    throw new EOFException("Unexpected end of the xz stream"); //$NON-NLS-1$
+                }
+            }
+            int count = Math.min(len, this.mInputLength - this.mInputPos);
+            System.arraycopy(this.mInput, this.mInputPos, b, off, count);
+            this.mInputPos += count;
+            this.mInputCount += count;
+            off += count;
+            len -= count;
+        }
+    }
+}
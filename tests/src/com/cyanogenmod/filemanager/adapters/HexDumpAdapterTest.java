@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.adapters;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.util.PagedByteSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A class for testing the on demand hex dump of the editor and the search of bytes.
+ *
+ * @see HexDumpAdapter
+ * @see PagedByteSource#indexOf(byte[], long)
+ */
+public class HexDumpAdapterTest extends android.test.AndroidTestCase {
+
+    private static final String TAG = "HexDumpAdapterTest"; //$NON-NLS-1$
+
+    private static final int BENCHMARK_FILE_SIZE = 64 * 1024 * 1024;
+
+    private File mFile;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mFile = new File(getContext().getCacheDir(), "hex-dump-test"); //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        this.mFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks the format of full and partial lines.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testFormatLine() throws Exception {
+        char[] out = new char[128];
+        byte[] data = "0123456789ABCDE\n".getBytes(); //$NON-NLS-1$
+        int len = HexDumpAdapter.formatLine(0x10, 8, data, data.length, out);
+        assertEquals("00000010 303132333435363738394142434445" + //$NON-NLS-1$
+                "0A 0123456789ABCDE.", new String(out, 0, len)); //$NON-NLS-1$
+
+        data = new byte[] {(byte)0xff, 0x00, 0x41};
+        len = HexDumpAdapter.formatLine(0x123456789L, 16, data, data.length, out);
+        assertEquals("0000000123456789 FF0041" + //$NON-NLS-1$
+                "                          " + //$NON-NLS-1$
+                " ..A", new String(out, 0, len)); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks the parse of the offsets and the patterns typed by the user.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testParse() throws Exception {
+        assertEquals(0x1f0, HexDumpAdapter.parseOffset("0x1F0")); //$NON-NLS-1$
+        assertEquals(0x1f0, HexDumpAdapter.parseOffset(" 1f0 ")); //$NON-NLS-1$
+        assertEquals(-1, HexDumpAdapter.parseOffset("xyz")); //$NON-NLS-1$
+        assertEquals(-1, HexDumpAdapter.parseOffset("")); //$NON-NLS-1$
+
+        assertTrue(Arrays.equals(new byte[] {(byte)0xca, (byte)0xfe, (byte)0xba, (byte)0xbe},
+                HexDumpAdapter.parsePattern("CA FE babe"))); //$NON-NLS-1$
+        assertTrue(Arrays.equals("PK\u0003".getBytes("UTF-8"), //$NON-NLS-1$ //$NON-NLS-2$
+                HexDumpAdapter.parsePattern("PK\u0003"))); //$NON-NLS-1$
+        assertTrue(Arrays.equals("cafe!".getBytes("UTF-8"), //$NON-NLS-1$ //$NON-NLS-2$
+                HexDumpAdapter.parsePattern("cafe!"))); //$NON-NLS-1$
+        assertNull(HexDumpAdapter.parsePattern("")); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks the search of bytes against a naive search, with repetitive data
+     * and occurrences across the windows of the search.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testFindBytes() throws Exception {
+        Random random = new Random(1);
+        byte[] data = new byte[600000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)random.nextInt(3);
+        }
+        PagedByteSource source = PagedByteSource.wrap(data);
+        for (int i = 0; i < 50; i++) {
+            byte[] pattern = new byte[1 + random.nextInt(12)];
+            for (int j = 0; j < pattern.length; j++) {
+                pattern[j] = (byte)random.nextInt(3);
+            }
+            long from = random.nextInt(data.length);
+            assertEquals(indexOf(data, pattern, from), source.indexOf(pattern, from));
+        }
+        assertEquals(-1, source.indexOf(new byte[] {5}, 0));
+    }
+
+    /**
+     * Method that measures the throughput of the search of bytes in a mapped file.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testFindBytesBenchmark() throws Exception {
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(1).nextBytes(chunk);
+        byte[] pattern = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};
+        FileOutputStream fos = new FileOutputStream(this.mFile);
+        try {
+            for (int i = 0; i < BENCHMARK_FILE_SIZE / chunk.length - 1; i++) {
+                fos.write(chunk);
+            }
+            System.arraycopy(pattern, 0, chunk, chunk.length - 100, pattern.length);
+            fos.write(chunk);
+        } finally {
+            fos.close();
+        }
+
+        PagedByteSource source = PagedByteSource.open(this.mFile);
+        try {
+            long start = System.nanoTime();
+            long match = source.indexOf(pattern, 0);
+            long elapsed = System.nanoTime() - start;
+            Log.i(TAG, String.format("Searched %d MB in %d ms (%d MB/s)", //$NON-NLS-1$
+                    Integer.valueOf(BENCHMARK_FILE_SIZE >> 20),
+                    Long.valueOf(elapsed / 1000000L),
+                    Long.valueOf((BENCHMARK_FILE_SIZE >> 20) * 1000000000L
+                            / Math.max(1, elapsed))));
+            assertEquals(BENCHMARK_FILE_SIZE - 100, match);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Method that searches bytes in an array, naively
+     *
+     * @param data The array
+     * @param pattern The bytes to search
+     * @param from The position where to start the search
+     * @return long The position of the bytes, or <code>-1</code>
+     */
+    private static long indexOf(byte[] data, byte[] pattern, long from) {
+        for (int i = (int)from; i + pattern.length <= data.length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.ash;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.ash.spi.PropertiesSyntaxHighlightProcessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * A class for testing the incremental highlight of the editor.
+ *
+ * @see IncrementalHighlighter
+ * @see LineStateCache
+ */
+public class IncrementalHighlighterTest extends android.test.AndroidTestCase {
+
+    private static final String TAG = "IncrementalHighlighterTest"; //$NON-NLS-1$
+
+    private static final String[] PIECES = {
+        "key", "=", "value", "#", " ", "\\", "{", "0", "12", "}", //$NON-NLS-1$ //$NON-NLS-2$
+        "\n", "\n", "a.b", "\t" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    };
+
+    private static final int BENCHMARK_KEYSTROKES = 500;
+
+    // Runs the jobs in the caller thread, so the tests don't need a looper
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private SyntaxHighlightProcessor mProcessor;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mProcessor = new PropertiesSyntaxHighlightProcessor(null);
+    }
+
+    /**
+     * Method that checks the lines and the convergence of the states of the cache.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testLineStateCache() throws Exception {
+        SpannableStringBuilder text = new SpannableStringBuilder("a\nb\nc\nd"); //$NON-NLS-1$
+        LineStateCache cache = new LineStateCache();
+        cache.reset(text);
+        assertEquals(4, cache.getLineCount());
+        assertEquals(6, cache.getLineStart(3));
+        assertEquals(1, cache.getLineOf(3));
+        assertEquals(1, cache.getExactLines());
+        cache.setStates(0, new int[]{0, 1, 0, 1}, 4);
+        assertEquals(4, cache.getExactLines());
+
+        // Insert a line in the second line
+        text.replace(2, 2, "x\n"); //$NON-NLS-1$
+        cache.onTextChanged(text, 2, 0, 2);
+        assertEquals(5, cache.getLineCount());
+        assertEquals(4, cache.getLineStart(2));
+        assertEquals(8, cache.getLineStart(4));
+        assertEquals(2, cache.getExactLines());
+        assertFalse(cache.isHint(2));
+        assertTrue(cache.isHint(3));
+        assertEquals(0, cache.getState(3));
+
+        // The state of the line after the edit is the same as before, so all converged
+        cache.setStates(1, new int[]{1, 0, 0}, 3);
+        assertEquals(5, cache.getExactLines());
+        assertFalse(cache.isHint(4));
+
+        // Join the last lines
+        text.replace(5, 7, ""); //$NON-NLS-1$
+        cache.onTextChanged(text, 5, 2, 0);
+        assertEquals(4, cache.getLineCount());
+        assertEquals(6, cache.getLineStart(3));
+        assertEquals(3, cache.getExactLines());
+    }
+
+    /**
+     * Method that checks the visible lines after random edits and scrolls against a full
+     * highlight of the document.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testHighlight() throws Exception {
+        Random random = new Random(1);
+        for (int doc = 0; doc < 20; doc++) {
+            SpannableStringBuilder text =
+                    new SpannableStringBuilder(createText(random, 2000 + random.nextInt(2000)));
+            IncrementalHighlighter highlighter = new IncrementalHighlighter(
+                    this.mProcessor, DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+            highlighter.setText(text);
+            for (int i = 0; i < 50; i++) {
+                int pos = random.nextInt(text.length() + 1);
+                int len = Math.min(text.length() - pos, random.nextInt(4) == 0 ? 20 : 0);
+                String data = createText(random, random.nextInt(4));
+                text.replace(pos, pos + len, data);
+                highlighter.onTextChanged(pos, len, data.length());
+
+                int start = random.nextInt(text.length() + 1);
+                int end = Math.min(text.length(), start + random.nextInt(500));
+                highlighter.setVisibleRange(start, end);
+                checkVisibleSpans(text, start, end);
+            }
+            highlighter.release();
+        }
+    }
+
+    /**
+     * Method that checks that a continued value changes the highlight of the next line.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testMultiLine() throws Exception {
+        SpannableStringBuilder text =
+                new SpannableStringBuilder("a=1\nb=2\nc=3"); //$NON-NLS-1$
+        IncrementalHighlighter highlighter = new IncrementalHighlighter(
+                this.mProcessor, DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+        highlighter.setText(text);
+        highlighter.setVisibleRange(0, text.length());
+        checkVisibleSpans(text, 0, text.length());
+
+        text.replace(3, 3, "\\"); //$NON-NLS-1$
+        highlighter.onTextChanged(3, 0, 1);
+        checkVisibleSpans(text, 0, text.length());
+
+        text.replace(3, 4, ""); //$NON-NLS-1$
+        highlighter.onTextChanged(3, 1, 0);
+        checkVisibleSpans(text, 0, text.length());
+        highlighter.release();
+    }
+
+    /**
+     * Method that measures the cost of a keystroke in the middle of a 1k lines and a 10k
+     * lines document. The lines lexed by a keystroke must not depend on the size of the
+     * document. The time is only logged.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testKeystrokeBenchmark() throws Exception {
+        CountingProcessor smallProcessor = new CountingProcessor();
+        long small = measureKeystroke(1000, smallProcessor);
+        CountingProcessor bigProcessor = new CountingProcessor();
+        long big = measureKeystroke(10000, bigProcessor);
+        long smallLines = smallProcessor.mLines / BENCHMARK_KEYSTROKES;
+        long bigLines = bigProcessor.mLines / BENCHMARK_KEYSTROKES;
+        Log.i(TAG, String.format(
+                "Keystroke: %d us, %d lines (1k lines), %d us, %d lines (10k lines)", //$NON-NLS-1$
+                Long.valueOf(small / 1000L), Long.valueOf(smallLines),
+                Long.valueOf(big / 1000L), Long.valueOf(bigLines)));
+        // Only the painted lines are lexed again, whatever the size of the document. The
+        // visible range of 2000 characters holds less than 100 lines
+        int painted = 2 * IncrementalHighlighter.MARGIN_LINES + 100;
+        assertTrue(smallLines > 0);
+        assertTrue(smallLines <= painted);
+        assertTrue(bigLines <= painted);
+    }
+
+    /**
+     * Method that measures the average cost of a keystroke in the middle of a
+     * configuration file. The lines lexed by the keystrokes are counted by the processor.
+     *
+     * @param lines The lines of the file
+     * @param processor The processor
+     * @return long The average cost in nanoseconds
+     */
+    private static long measureKeystroke(int lines, CountingProcessor processor) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            if (i % 10 == 0) {
+                sb.append("# comment ").append(i); //$NON-NLS-1$
+            } else {
+                sb.append("ro.property.key").append(i) //$NON-NLS-1$
+                  .append("=value {").append(i % 7).append('}'); //$NON-NLS-1$
+                if (i % 3 == 0) {
+                    sb.append(" \\"); //$NON-NLS-1$
+                }
+            }
+            sb.append('\n');
+        }
+        SpannableStringBuilder text = new SpannableStringBuilder(sb);
+        IncrementalHighlighter highlighter = new IncrementalHighlighter(
+                processor, DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+        highlighter.setText(text);
+        int pos = text.length() / 2;
+        highlighter.setVisibleRange(pos, pos + 2000);
+
+        processor.mLines = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_KEYSTROKES; i++) {
+            text.replace(pos + i, pos + i, "x"); //$NON-NLS-1$
+            highlighter.onTextChanged(pos + i, 0, 1);
+        }
+        long elapsed = System.nanoTime() - start;
+        highlighter.release();
+        return elapsed / BENCHMARK_KEYSTROKES;
+    }
+
+    /**
+     * Method that checks the spans of the visible lines against a full highlight
+     *
+     * @param text The highlighted text
+     * @param start The first visible char
+     * @param end The last visible char
+     */
+    private void checkVisibleSpans(Spanned text, int start, int end) {
+        String s = text.toString();
+        SpannableStringBuilder expected = new SpannableStringBuilder(s);
+        this.mProcessor.process(expected);
+        int lineStart = start == 0 ? 0 : s.lastIndexOf('\n', start - 1) + 1;
+        int lineEnd = s.indexOf('\n', end);
+        if (lineEnd == -1) {
+            lineEnd = s.length();
+        }
+        assertEquals(getSpans(expected, lineStart, lineEnd), getSpans(text, lineStart, lineEnd));
+    }
+
+    /**
+     * Method that returns the spans inside a range of a text, sorted
+     *
+     * @param text The text
+     * @param start The start of the range
+     * @param end The end of the range
+     * @return List<String> The spans (start:end:color)
+     */
+    private static List<String> getSpans(Spanned text, int start, int end) {
+        ForegroundColorSpan[] spans = text.getSpans(start, end, ForegroundColorSpan.class);
+        List<String> result = new ArrayList<String>(spans.length);
+        for (ForegroundColorSpan span : spans) {
+            int s = text.getSpanStart(span);
+            int e = text.getSpanEnd(span);
+            if (s >= start && e <= end) {
+                result.add(s + ":" + e + ":" //$NON-NLS-1$ //$NON-NLS-2$
+                        + span.getForegroundColor());
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Method that creates a random properties text
+     *
+     * @param random The random generator
+     * @param pieces The number of pieces of the text
+     * @return String The text
+     */
+    private static String createText(Random random, int pieces) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            sb.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A properties processor that counts the lines lexed.
+     */
+    private static class CountingProcessor extends PropertiesSyntaxHighlightProcessor {
+        long mLines;
+
+        CountingProcessor() {
+            super(null);
+        }
+
+        @Override
+        public int processLine(
+                CharSequence text, int start, int end, int state,
+                SyntaxHighlightProcessor.TokenListener listener) {
+            this.mLines++;
+            return super.processLine(text, start, end, state, listener);
+        }
+    }
+}
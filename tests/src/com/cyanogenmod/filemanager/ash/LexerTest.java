@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.ash;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.ash.lexer.Lexer;
+import com.cyanogenmod.filemanager.ash.lexer.LexerBuilder;
+import com.cyanogenmod.filemanager.ash.spi.IniSyntaxHighlightProcessor;
+import com.cyanogenmod.filemanager.ash.spi.JavaSyntaxHighlightProcessor;
+import com.cyanogenmod.filemanager.ash.spi.JsonSyntaxHighlightProcessor;
+import com.cyanogenmod.filemanager.ash.spi.ShellSyntaxHighlightProcessor;
+import com.cyanogenmod.filemanager.ash.spi.XmlSyntaxHighlightProcessor;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A class for testing the table driven lexer and the grammars of the syntax highlight
+ * processors.
+ *
+ * @see Lexer
+ * @see LexerBuilder
+ */
+public class LexerTest extends android.test.AndroidTestCase {
+
+    private static final String TAG = "LexerTest"; //$NON-NLS-1$
+
+    private static final int BENCHMARK_SIZE = 4 * 1024 * 1024;
+
+    // The colors are the ordinals of the HighlightColors, to check the tokens
+    private static final ISyntaxHighlightResourcesResolver RESOLVER =
+            new ISyntaxHighlightResourcesResolver() {
+        @Override
+        public CharSequence getString(String id, String resid) {
+            return null;
+        }
+
+        @Override
+        public int getInteger(String id, String resid, int def) {
+            return def;
+        }
+
+        @Override
+        public int getColor(String id, String resid, int def) {
+            for (HighlightColors color : HighlightColors.values()) {
+                if (color.getId().equals(id)) {
+                    return color.ordinal();
+                }
+            }
+            return def;
+        }
+    };
+
+    private static final String JAVA_SAMPLE =
+            "package com.example;\n" + //$NON-NLS-1$
+            "\n" + //$NON-NLS-1$
+            "/**\n" + //$NON-NLS-1$
+            " * A sample class.\n" + //$NON-NLS-1$
+            " */\n" + //$NON-NLS-1$
+            "public class Sample implements Runnable {\n" + //$NON-NLS-1$
+            "    private static final String NAME = \"sample \\\"name\\\"\";\n" + //$NON-NLS-1$
+            "    private int mCount; // The count\n" + //$NON-NLS-1$
+            "\n" + //$NON-NLS-1$
+            "    @Override\n" + //$NON-NLS-1$
+            "    public void run() {\n" + //$NON-NLS-1$
+            "        for (int i = 0; i < 100; i++) {\n" + //$NON-NLS-1$
+            "            if (NAME.charAt(i % NAME.length()) == 'a') {\n" + //$NON-NLS-1$
+            "                this.mCount++;\n" + //$NON-NLS-1$
+            "            }\n" + //$NON-NLS-1$
+            "        }\n" + //$NON-NLS-1$
+            "    }\n" + //$NON-NLS-1$
+            "}\n"; //$NON-NLS-1$
+
+    // The regular expressions approach: one alternation of the tokens, matched line by line
+    private static final Pattern JAVA_PATTERN = Pattern.compile(
+            "(//.*)|(/\\*.*?(?:\\*/|$))|(\"(?:\\\\.|[^\"\\\\])*\"?)|" + //$NON-NLS-1$
+            "('(?:\\\\.|[^'\\\\])*'?)|(@[A-Za-z_$][\\w$]*)|" + //$NON-NLS-1$
+            "\\b(abstract|assert|boolean|break|byte|case|catch|char|class|const|" + //$NON-NLS-1$
+            "continue|default|do|double|else|enum|extends|final|finally|float|" + //$NON-NLS-1$
+            "for|goto|if|implements|import|instanceof|int|interface|long|native|" + //$NON-NLS-1$
+            "new|package|private|protected|public|return|short|static|strictfp|" + //$NON-NLS-1$
+            "super|switch|synchronized|this|throw|throws|transient|try|void|" + //$NON-NLS-1$
+            "volatile|while|true|false|null)\\b"); //$NON-NLS-1$
+    private static final Pattern COMMENT_END_PATTERN = Pattern.compile("\\*/"); //$NON-NLS-1$
+
+    /**
+     * Method that checks the longest match, the priority of the rules, the states and the
+     * trailing chars of the compiled rules.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testLexer() throws Exception {
+        Lexer lexer = new LexerBuilder()
+                .state("code") //$NON-NLS-1$
+                .rule("if|in", HighlightColors.KEYWORD) //$NON-NLS-1$
+                .rule("[a-z]+", HighlightColors.TEXT) //$NON-NLS-1$
+                .rule("[a-z]+:", HighlightColors.VARIABLE).trailing(":") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("#.*", HighlightColors.SINGLE_LINE_COMMENT).atLineStart() //$NON-NLS-1$
+                .rule("\"", HighlightColors.QUOTED_STRING, "string") //$NON-NLS-1$ //$NON-NLS-2$
+                .state("string", "code") //$NON-NLS-1$ //$NON-NLS-2$
+                .rule("[^\"]+", HighlightColors.QUOTED_STRING) //$NON-NLS-1$
+                .rule("\"", HighlightColors.QUOTED_STRING, "code") //$NON-NLS-1$ //$NON-NLS-2$
+                .build();
+        assertEquals(2, lexer.getStateCount());
+
+        assertEquals("if:K in:K inside:T", //$NON-NLS-1$
+                lex(lexer, "if in inside", 0)); //$NON-NLS-1$
+        assertEquals("key:V a:T", lex(lexer, "key: a", 0)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("#c:S", lex(lexer, "#c", 0)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("a:T c:T", lex(lexer, "a #c", 0)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("\":Q x y:Q \":Q if:K", //$NON-NLS-1$
+                lex(lexer, "\"x y\" if", 0)); //$NON-NLS-1$
+
+        // The string state ends with the line
+        final int[] state = new int[1];
+        String text = "\"open"; //$NON-NLS-1$
+        state[0] = lexer.lex(text, 0, text.length(), 0, getColors(), new CountListener());
+        assertEquals(0, state[0]);
+
+        // Invalid grammars
+        try {
+            new LexerBuilder().state("a").rule("(a", null).build(); //$NON-NLS-1$ //$NON-NLS-2$
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+        try {
+            new LexerBuilder().state("a") //$NON-NLS-1$
+                    .rule("a", null, "b").build(); //$NON-NLS-1$ //$NON-NLS-2$
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Method that checks the tokens of the grammars of the syntax highlight processors.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testGrammars() throws Exception {
+        SyntaxHighlightProcessor java = new JavaSyntaxHighlightProcessor(RESOLVER);
+        assertEquals("@Override:V public:K int:K 'c':Q // x:S", //$NON-NLS-1$
+                processLines(java, "@Override public int interfaces = 'c'; // x")); //$NON-NLS-1$
+        assertEquals("/*:M  a:M |  b :M */:M \"s\":Q", //$NON-NLS-1$
+                processLines(java, "/* a\n b */ \"s\"")); //$NON-NLS-1$
+
+        SyntaxHighlightProcessor xml = new XmlSyntaxHighlightProcessor(RESOLVER);
+        assertEquals("<a:K b:V =:A \"x:Q | y\":Q >:K &amp;:V </a:K >:K", //$NON-NLS-1$
+                processLines(xml, "<a b=\"x\ny\">&amp;</a>")); //$NON-NLS-1$
+        assertEquals("<!--:M  c:M |  :M -->:M", //$NON-NLS-1$
+                processLines(xml, "<!-- c\n -->")); //$NON-NLS-1$
+
+        SyntaxHighlightProcessor json = new JsonSyntaxHighlightProcessor(RESOLVER);
+        assertEquals("\"k\":V ::A \"v\":Q \"n\":V ::A -1.5e3:K true:K", //$NON-NLS-1$
+                processLines(json,
+                        "{\"k\" : \"v\", \"n\": [-1.5e3, true, nullish]}")); //$NON-NLS-1$
+
+        SyntaxHighlightProcessor shell = new ShellSyntaxHighlightProcessor(RESOLVER);
+        assertEquals("A:V =:A | if:K \":Q $A:V \":Q # c:S", //$NON-NLS-1$
+                processLines(shell, "A=b\nif [ \"$A\" ] # c")); //$NON-NLS-1$
+        assertEquals("'a:Q |  b':Q then:K", //$NON-NLS-1$
+                processLines(shell, "'a\n b' then")); //$NON-NLS-1$
+
+        SyntaxHighlightProcessor ini = new IniSyntaxHighlightProcessor(RESOLVER);
+        assertEquals("[main]:K |  ; c:S | ro.a:T =:A b=1:V | k :T", //$NON-NLS-1$
+                processLines(ini, "[main]\n ; c\nro.a=b=1\nk ")); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that measures the throughput of the table driven lexers, and compares the
+     * java lexer with the regular expressions approach over the same text.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testThroughputBenchmark() throws Exception {
+        String java = repeat(JAVA_SAMPLE);
+        long tokens = benchmark(
+                "java", new JavaSyntaxHighlightProcessor(RESOLVER), java); //$NON-NLS-1$
+        benchmark("xml", new XmlSyntaxHighlightProcessor(RESOLVER), repeat( //$NON-NLS-1$
+                "<item name=\"a\" value='1'>text &amp; more<!-- c --></item>\n")); //$NON-NLS-1$
+        benchmark("json", new JsonSyntaxHighlightProcessor(RESOLVER), repeat( //$NON-NLS-1$
+                "{\"name\": \"value\", \"count\": 12.5, \"valid\": true},\n")); //$NON-NLS-1$
+        benchmark("shell", new ShellSyntaxHighlightProcessor(RESOLVER), repeat( //$NON-NLS-1$
+                "if [ \"$VAR\" = 'a' ]; then echo ${PATH} # comment\n")); //$NON-NLS-1$
+        benchmark("ini", new IniSyntaxHighlightProcessor(RESOLVER), repeat( //$NON-NLS-1$
+                "# comment\n[section]\nro.build.display.id=value\n")); //$NON-NLS-1$
+
+        // The regular expressions approach
+        long start = System.nanoTime();
+        long regexTokens = 0;
+        boolean comment = false;
+        Matcher matcher = JAVA_PATTERN.matcher(java);
+        Matcher commentEnd = COMMENT_END_PATTERN.matcher(java);
+        int len = java.length();
+        int lineStart = 0;
+        while (lineStart < len) {
+            int lineEnd = java.indexOf('\n', lineStart);
+            if (lineEnd == -1) {
+                lineEnd = len;
+            }
+            int pos = lineStart;
+            if (comment) {
+                commentEnd.region(lineStart, lineEnd);
+                if (commentEnd.find()) {
+                    pos = commentEnd.end();
+                    comment = false;
+                } else {
+                    pos = lineEnd;
+                }
+                regexTokens++;
+            }
+            matcher.region(pos, lineEnd);
+            while (matcher.find()) {
+                regexTokens++;
+                String block = matcher.group(2);
+                comment = block != null && !block.endsWith("*/"); //$NON-NLS-1$
+            }
+            lineStart = lineEnd + 1;
+        }
+        long elapsed = System.nanoTime() - start;
+        Log.i(TAG, String.format("java (regex): %d tokens, %.1f MB/s", //$NON-NLS-1$
+                Long.valueOf(regexTokens), Double.valueOf(getThroughput(len, elapsed))));
+        assertTrue(tokens > 0 && regexTokens > 0);
+    }
+
+    /**
+     * Method that measures the throughput of a processor over a text
+     *
+     * @param name The name of the grammar
+     * @param processor The processor
+     * @param text The text
+     * @return long The number of highlighted tokens
+     */
+    private static long benchmark(String name, SyntaxHighlightProcessor processor, String text) {
+        // Warm up (and compile the lexer)
+        processor.processLine(text, 0, text.indexOf('\n'), 0, new CountListener());
+
+        CountListener listener = new CountListener();
+        long start = System.nanoTime();
+        int state = SyntaxHighlightProcessor.STATE_INITIAL;
+        int len = text.length();
+        int lineStart = 0;
+        while (lineStart < len) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd == -1) {
+                lineEnd = len;
+            }
+            state = processor.processLine(text, lineStart, lineEnd, state, listener);
+            lineStart = lineEnd + 1;
+        }
+        long elapsed = System.nanoTime() - start;
+        Log.i(TAG, String.format("%s (table): %d tokens, %.1f MB/s", //$NON-NLS-1$
+                name, Long.valueOf(listener.mTokens),
+                Double.valueOf(getThroughput(len, elapsed))));
+        return listener.mTokens;
+    }
+
+    /**
+     * Method that returns the throughput of a lexer
+     *
+     * @param chars The lexed chars
+     * @param elapsed The elapsed nanoseconds
+     * @return double The throughput, in MB (of chars) per second
+     */
+    private static double getThroughput(long chars, long elapsed) {
+        return (chars / (1024.0 * 1024.0)) / (Math.max(1, elapsed) / 1000000000.0);
+    }
+
+    /**
+     * Method that repeats a sample up to the size of the benchmark
+     *
+     * @param sample The sample
+     * @return String The text
+     */
+    private static String repeat(String sample) {
+        StringBuilder sb = new StringBuilder(BENCHMARK_SIZE + sample.length());
+        while (sb.length() < BENCHMARK_SIZE) {
+            sb.append(sample);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Method that lexes a line and returns its tokens
+     *
+     * @param lexer The lexer
+     * @param line The line
+     * @param state The state at the start of the line
+     * @return String The tokens (text:first letter of the color)
+     */
+    private static String lex(Lexer lexer, String line, int state) {
+        TokenPrinter printer = new TokenPrinter(line);
+        lexer.lex(line, 0, line.length(), state, getColors(), printer);
+        return printer.toString();
+    }
+
+    /**
+     * Method that processes all the lines of a text and returns its tokens
+     *
+     * @param processor The processor
+     * @param text The text
+     * @return String The tokens (text:first letter of the color), with the lines separated
+     * by <code>|</code>
+     */
+    private static String processLines(SyntaxHighlightProcessor processor, String text) {
+        TokenPrinter printer = new TokenPrinter(text);
+        int state = SyntaxHighlightProcessor.STATE_INITIAL;
+        int lineStart = 0;
+        while (true) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            state = processor.processLine(text, lineStart,
+                    lineEnd == -1 ? text.length() : lineEnd, state, printer);
+            if (lineEnd == -1) {
+                break;
+            }
+            printer.newLine();
+            lineStart = lineEnd + 1;
+        }
+        return printer.toString();
+    }
+
+    /**
+     * Method that returns the colors of the lexer (the ordinals of the HighlightColors)
+     *
+     * @return int[] The colors
+     */
+    private static int[] getColors() {
+        int[] colors = new int[HighlightColors.values().length];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = i;
+        }
+        return colors;
+    }
+
+    /**
+     * A listener that counts the tokens
+     */
+    private static class CountListener implements SyntaxHighlightProcessor.TokenListener {
+        long mTokens;
+
+        CountListener() {
+            super();
+        }
+
+        @Override
+        public void onToken(int start, int end, int color) {
+            this.mTokens++;
+        }
+    }
+
+    /**
+     * A listener that prints the tokens
+     */
+    private static class TokenPrinter implements SyntaxHighlightProcessor.TokenListener {
+        private final String mText;
+        private final StringBuilder mTokens;
+        private boolean mPendingLine;
+
+        TokenPrinter(String text) {
+            super();
+            this.mText = text;
+            this.mTokens = new StringBuilder();
+        }
+
+        void newLine() {
+            this.mPendingLine = this.mTokens.length() > 0;
+        }
+
+        @Override
+        public void onToken(int start, int end, int color) {
+            if (this.mTokens.length() > 0) {
+                this.mTokens.append(this.mPendingLine ? " | " : " "); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            this.mPendingLine = false;
+            this.mTokens.append(this.mText, start, end)
+                        .append(':')
+                        .append(HighlightColors.values()[color].name().charAt(0));
+        }
+
+        @Override
+        public String toString() {
+            return this.mTokens.toString();
+        }
+    }
+}
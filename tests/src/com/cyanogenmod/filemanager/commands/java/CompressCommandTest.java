@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.commands.java;
+
+import android.system.Os;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.preferences.CompressionMode;
+import com.cyanogenmod.filemanager.util.BZip2InputStream;
+import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.ParallelZipExtractor;
+import com.cyanogenmod.filemanager.util.TarInputStream;
+import com.cyanogenmod.filemanager.util.TestFileHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A class for testing the java compression of file system objects.
+ *
+ * @see CompressCommand
+ */
+public class CompressCommandTest extends android.test.AndroidTestCase {
+
+    private static final String TAG = "CompressCommandTest"; //$NON-NLS-1$
+
+    private static final int LARGE_SIZE = 2 * 1024 * 1024 + 5;
+
+    private static final String LONG_NAME =
+            "a-directory-with-a-name-longer-than-the-one-hundred-bytes-" //$NON-NLS-1$
+            + "of-the-name-field-of-the-header-of-a-tar-archive"; //$NON-NLS-1$
+
+    private File mRoot;
+    private File mSrc;
+    private byte[] mLarge;
+
+    /**
+     * @hide
+     */
+    final List<String> mPartials = new ArrayList<String>();
+    /**
+     * @hide
+     */
+    Exception mCause;
+    /**
+     * @hide
+     */
+    boolean mEnded;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mRoot = TestFileHelper.createTestFolder(
+                getContext(), "compress-command-test"); //$NON-NLS-1$
+        this.mSrc = new File(this.mRoot, "src"); //$NON-NLS-1$
+        File dir = new File(this.mSrc, LONG_NAME);
+        assertTrue(dir.mkdirs());
+
+        this.mLarge = new byte[LARGE_SIZE];
+        new Random(1).nextBytes(this.mLarge);
+        TestFileHelper.writeFile(new File(this.mSrc, "large"), this.mLarge); //$NON-NLS-1$
+        TestFileHelper.writeFile(new File(this.mSrc, "empty"), new byte[0]); //$NON-NLS-1$
+        TestFileHelper.writeFile(new File(dir, "one"), new byte[]{'x'}); //$NON-NLS-1$
+        File link = new File(this.mSrc, "link"); //$NON-NLS-1$
+        Os.symlink("large", link.getAbsolutePath()); //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileHelper.deleteFolder(this.mRoot);
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks a tar archive.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testArchiveTar() throws Exception {
+        File out = archive(CompressionMode.A_TAR, "test.tar"); //$NON-NLS-1$
+        assertTar(new FileInputStream(out));
+    }
+
+    /**
+     * Method that checks a tar archive compressed with gzip.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testArchiveCompressGzip() throws Exception {
+        File out = archive(CompressionMode.AC_GZIP, "test.tar.gz"); //$NON-NLS-1$
+        assertTar(new GZIPInputStream(new FileInputStream(out)));
+    }
+
+    /**
+     * Method that checks a tar archive compressed with bzip2.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testArchiveCompressBzip() throws Exception {
+        File out = archive(CompressionMode.AC_BZIP, "test.tar.bz2"); //$NON-NLS-1$
+        assertTar(new BZip2InputStream(new FileInputStream(out)));
+    }
+
+    /**
+     * Method that checks a zip archive.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testArchiveZip() throws Exception {
+        File out = archive(CompressionMode.A_ZIP, "test.zip"); //$NON-NLS-1$
+        ZipFile zip = new ZipFile(out);
+        try {
+            assertEquals(6, zip.size());
+            ZipEntry dir = zip.getEntry("src/" + LONG_NAME + "/"); //$NON-NLS-1$ //$NON-NLS-2$
+            assertTrue(dir.isDirectory());
+            assertTrue(Arrays.equals(this.mLarge,
+                    TestFileHelper.readEntry(zip, "src/large"))); //$NON-NLS-1$
+            assertEquals(0, TestFileHelper.readEntry(zip, "src/empty").length); //$NON-NLS-1$
+            assertTrue(Arrays.equals(new byte[]{'x'}, TestFileHelper.readEntry(
+                    zip, "src/" + LONG_NAME + "/one"))); //$NON-NLS-1$ //$NON-NLS-2$
+            byte[] link = TestFileHelper.readEntry(zip, "src/link"); //$NON-NLS-1$
+            assertEquals("large", new String(link, "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+        } finally {
+            zip.close();
+        }
+
+        ParallelZipExtractor extractor = new ParallelZipExtractor(out);
+        try {
+            for (ParallelZipExtractor.Entry entry : extractor.getEntries()) {
+                assertEquals(entry.getName().equals("src/link"), //$NON-NLS-1$
+                        entry.isSymlink());
+            }
+        } finally {
+            extractor.close();
+        }
+    }
+
+    /**
+     * Method that checks the compression of a file with gzip.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testCompressGzip() throws Exception {
+        File src = new File(this.mSrc, "large"); //$NON-NLS-1$
+        File out = compress(CompressionMode.C_GZIP, src);
+        assertEquals(src.getAbsolutePath() + ".gz", out.getAbsolutePath()); //$NON-NLS-1$
+        InputStream in = new GZIPInputStream(new FileInputStream(out));
+        try {
+            assertTrue(Arrays.equals(this.mLarge, TestFileHelper.readFully(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method that checks the compression of empty and 1-byte files with bzip2.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testCompressBzip() throws Exception {
+        File empty = compress(CompressionMode.C_BZIP, new File(this.mSrc, "empty")); //$NON-NLS-1$
+        InputStream in = new BZip2InputStream(new FileInputStream(empty));
+        try {
+            assertEquals(0, TestFileHelper.readFully(in).length);
+        } finally {
+            in.close();
+        }
+        File one = compress(CompressionMode.C_BZIP,
+                new File(new File(this.mSrc, LONG_NAME), "one")); //$NON-NLS-1$
+        in = new BZip2InputStream(new FileInputStream(one));
+        try {
+            assertTrue(Arrays.equals(new byte[]{'x'}, TestFileHelper.readFully(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method that checks that a directory can't be compressed without an archive.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testCompressDirectory() throws Exception {
+        CompressCommand cmd = new CompressCommand(
+                CompressionMode.C_GZIP, this.mSrc.getAbsolutePath(), createListener());
+        cmd.execute();
+        assertFalse(cmd.getResult().booleanValue());
+        assertNotNull(this.mCause);
+        assertFalse(new File(cmd.getOutCompressedFile()).exists());
+    }
+
+    /**
+     * Method that archives the source tree.
+     *
+     * @param mode The compression mode
+     * @param name The name of the archive
+     * @return File The archive
+     * @throws Exception If the archive failed
+     */
+    private File archive(CompressionMode mode, String name) throws Exception {
+        File out = new File(this.mRoot, name);
+        CompressCommand cmd = new CompressCommand(
+                mode, out.getAbsolutePath(), new String[]{this.mSrc.getAbsolutePath()},
+                createListener());
+        long start = System.currentTimeMillis();
+        cmd.execute();
+        Log.i(TAG, String.format("%s: %d bytes in %d ms", //$NON-NLS-1$
+                mode, Long.valueOf(out.length()),
+                Long.valueOf(System.currentTimeMillis() - start)));
+        assertNull(this.mCause);
+        assertTrue(this.mEnded);
+        assertTrue(cmd.getResult().booleanValue());
+        assertEquals(6, this.mPartials.size());
+        assertTrue(this.mPartials.contains("src/large")); //$NON-NLS-1$
+        return out;
+    }
+
+    /**
+     * Method that compresses a file, which is replaced by the compressed file.
+     *
+     * @param mode The compression mode
+     * @param src The file
+     * @return File The compressed file
+     * @throws Exception If the compression failed
+     */
+    private File compress(CompressionMode mode, File src) throws Exception {
+        CompressCommand cmd = new CompressCommand(mode, src.getAbsolutePath(), createListener());
+        cmd.execute();
+        assertNull(this.mCause);
+        assertTrue(cmd.getResult().booleanValue());
+        assertFalse(src.exists());
+        return new File(cmd.getOutCompressedFile());
+    }
+
+    /**
+     * Method that checks the entries of a tar archive.
+     *
+     * @param is The stream of the archive
+     * @throws IOException If an I/O error occurs
+     */
+    private void assertTar(InputStream is) throws IOException {
+        Map<String, TarInputStream.Entry> entries = new HashMap<String, TarInputStream.Entry>();
+        Map<String, byte[]> contents = new HashMap<String, byte[]>();
+        TarInputStream tar = new TarInputStream(is);
+        try {
+            TarInputStream.Entry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                entries.put(entry.getName(), entry);
+                contents.put(entry.getName(), TestFileHelper.readFully(tar));
+            }
+        } finally {
+            tar.close();
+        }
+
+        assertEquals(6, entries.size());
+        assertTrue(entries.get("src/").isDirectory()); //$NON-NLS-1$
+        assertTrue(entries.get("src/" + LONG_NAME + "/").isDirectory()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Arrays.equals(this.mLarge, contents.get("src/large"))); //$NON-NLS-1$
+        assertEquals(0, contents.get("src/empty").length); //$NON-NLS-1$
+        assertTrue(Arrays.equals(new byte[]{'x'},
+                contents.get("src/" + LONG_NAME + "/one"))); //$NON-NLS-1$ //$NON-NLS-2$
+        TarInputStream.Entry link = entries.get("src/link"); //$NON-NLS-1$
+        assertTrue(link.isSymlink());
+        assertEquals("large", link.getLinkName()); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that creates the listener of the command.
+     *
+     * @return AsyncResultListener The listener
+     */
+    private AsyncResultListener createListener() {
+        this.mPartials.clear();
+        this.mCause = null;
+        this.mEnded = false;
+        return new AsyncResultListener() {
+            @Override
+            public void onAsyncStart() {
+                /**NON BLOCK**/
+            }
+            @Override
+            public void onAsyncEnd(boolean cancelled) {
+                CompressCommandTest.this.mEnded = !cancelled;
+            }
+            @Override
+            public void onAsyncExitCode(int exitCode) {
+                /**NON BLOCK**/
+            }
+            @Override
+            public void onPartialResult(Object result) {
+                if (result instanceof String) {
+                    CompressCommandTest.this.mPartials.add((String)result);
+                }
+            }
+            @Override
+            public void onException(Exception cause) {
+                CompressCommandTest.this.mCause = cause;
+            }
+        };
+    }
+}
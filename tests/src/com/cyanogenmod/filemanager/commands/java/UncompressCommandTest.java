@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.commands.java;
+
+import android.system.Os;
+import android.system.OsConstants;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.util.BZip2OutputStream;
+import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.ParallelGzipOutputStream;
+import com.cyanogenmod.filemanager.util.ParallelZipOutputStream;
+import com.cyanogenmod.filemanager.util.TarOutputStream;
+import com.cyanogenmod.filemanager.util.TestFileHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A class for testing the java uncompression of archives and compressed files.
+ *
+ * @see UncompressCommand
+ */
+public class UncompressCommandTest extends android.test.AndroidTestCase {
+
+    private static final byte[] HELLO = {'h', 'e', 'l', 'l', 'o', '\n'};
+
+    // xz of "hello\n"
+    private static final byte[] XZ_HELLO = {
+        (byte)0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00, 0x00, 0x04, (byte)0xe6, (byte)0xd6,
+        (byte)0xb4, 0x46, 0x02, 0x00, 0x21, 0x01, 0x16, 0x00, 0x00, 0x00, 0x74, 0x2f,
+        (byte)0xe5, (byte)0xa3, 0x01, 0x00, 0x05, 0x68, 0x65, 0x6c, 0x6c, 0x6f, 0x0a, 0x00,
+        0x00, 0x00, (byte)0xa5, 0x60, (byte)0x97, (byte)0xf1, (byte)0x94, (byte)0xf6,
+        (byte)0xfd, (byte)0xe0, 0x00, 0x01, 0x1e, 0x06, (byte)0xc1, 0x2f, (byte)0xa4, 0x1d,
+        0x1f, (byte)0xb6, (byte)0xf3, 0x7d, 0x01, 0x00, 0x00, 0x00, 0x00, 0x04, 0x59, 0x5a
+    };
+
+    private static final long MTIME = 1400000000000L;
+
+    private static final char TYPE_HARD_LINK = '1';
+
+    private File mRoot;
+    private byte[] mData;
+
+    /**
+     * @hide
+     */
+    Exception mCause;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mRoot = TestFileHelper.createTestFolder(
+                getContext(), "uncompress-command-test"); //$NON-NLS-1$
+        this.mData = new byte[300000];
+        new Random(1).nextBytes(this.mData);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileHelper.deleteFolder(this.mRoot);
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks the extraction of a tar archive compressed with gzip, with
+     * links and entries that point outside the extraction directory.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testUntarGzip() throws Exception {
+        File src = new File(this.mRoot, "test.tar.gz"); //$NON-NLS-1$
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(new FileOutputStream(src));
+        try {
+            writeTar(gzip);
+        } finally {
+            gzip.release();
+        }
+
+        File dst = new File(this.mRoot, "test"); //$NON-NLS-1$
+        UncompressCommand cmd = uncompress(src, null);
+        assertEquals(dst.getAbsolutePath(), cmd.getOutUncompressedFile());
+        assertTrue(cmd.getResult().booleanValue());
+        assertTrue(src.exists());
+
+        TestFileHelper.assertFileContent(this.mData, new File(dst, "dir/file")); //$NON-NLS-1$
+        TestFileHelper.assertFileContent(this.mData, new File(dst, "dir/hard")); //$NON-NLS-1$
+        assertEquals(MTIME, new File(dst, "dir/file").lastModified()); //$NON-NLS-1$
+        assertTrue(OsConstants.S_ISLNK(
+                Os.lstat(new File(dst, "dir/sym").getAbsolutePath()).st_mode)); //$NON-NLS-1$
+        assertEquals("file", //$NON-NLS-1$
+                Os.readlink(new File(dst, "dir/sym").getAbsolutePath())); //$NON-NLS-1$
+
+        // The unsafe names are extracted inside the extraction directory
+        TestFileHelper.assertFileContent(HELLO, new File(dst, "escape")); //$NON-NLS-1$
+        TestFileHelper.assertFileContent(HELLO, new File(dst, "abs/file")); //$NON-NLS-1$
+        assertEquals(2, this.mRoot.list().length);
+    }
+
+    /**
+     * Method that checks the extraction of a zip archive, with links and entries that
+     * point outside the extraction directory.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testUnzip() throws Exception {
+        File src = new File(this.mRoot, "test.zip"); //$NON-NLS-1$
+        ParallelZipOutputStream zip = new ParallelZipOutputStream(new FileOutputStream(src));
+        try {
+            zip.putDirectory("dir/", 0755, MTIME); //$NON-NLS-1$
+            zip.putFile("dir/file", 0644, MTIME, this.mData.length); //$NON-NLS-1$
+            zip.write(this.mData);
+            zip.putSymlink("dir/sym", "file", MTIME); //$NON-NLS-1$ //$NON-NLS-2$
+            zip.putFile("../escape", 0644, MTIME, HELLO.length); //$NON-NLS-1$
+            zip.write(HELLO);
+            zip.putFile("dir/empty", 0644, MTIME, 0); //$NON-NLS-1$
+            zip.finish();
+        } finally {
+            zip.close();
+        }
+
+        File dst = new File(this.mRoot, "out"); //$NON-NLS-1$
+        UncompressCommand cmd = uncompress(src, dst);
+        assertTrue(cmd.getResult().booleanValue());
+        TestFileHelper.assertFileContent(this.mData, new File(dst, "dir/file")); //$NON-NLS-1$
+        assertEquals(0, new File(dst, "dir/empty").length()); //$NON-NLS-1$
+        assertEquals("file", //$NON-NLS-1$
+                Os.readlink(new File(dst, "dir/sym").getAbsolutePath())); //$NON-NLS-1$
+        TestFileHelper.assertFileContent(HELLO, new File(dst, "escape")); //$NON-NLS-1$
+        assertEquals(2, this.mRoot.list().length);
+    }
+
+    /**
+     * Method that checks the uncompression of compressed files, which are replaced by the
+     * uncompressed files.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testUncompress() throws Exception {
+        File bz2 = new File(this.mRoot, "data.bz2"); //$NON-NLS-1$
+        BZip2OutputStream bzip2 = new BZip2OutputStream(new FileOutputStream(bz2));
+        bzip2.write(this.mData);
+        bzip2.close();
+        assertTrue(uncompress(bz2, null).getResult().booleanValue());
+        assertFalse(bz2.exists());
+        TestFileHelper.assertFileContent(this.mData, new File(this.mRoot, "data")); //$NON-NLS-1$
+
+        File xz = new File(this.mRoot, "hello.xz"); //$NON-NLS-1$
+        TestFileHelper.writeFile(xz, XZ_HELLO);
+        assertTrue(uncompress(xz, null).getResult().booleanValue());
+        TestFileHelper.assertFileContent(HELLO, new File(this.mRoot, "hello")); //$NON-NLS-1$
+
+        // Some tools write xz streams with the lzma extension
+        File lzma = new File(this.mRoot, "xz.lzma"); //$NON-NLS-1$
+        TestFileHelper.writeFile(lzma, XZ_HELLO);
+        assertTrue(uncompress(lzma, null).getResult().booleanValue());
+        TestFileHelper.assertFileContent(HELLO, new File(this.mRoot, "xz")); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks that a corrupted compressed file fails, without leaving a partial
+     * file or deleting the compressed file.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testCorrupted() throws Exception {
+        File xz = new File(this.mRoot, "hello.xz"); //$NON-NLS-1$
+        byte[] data = XZ_HELLO.clone();
+        data[30] ^= 0x55;
+        TestFileHelper.writeFile(xz, data);
+        UncompressCommand cmd = uncompress(xz, null);
+        assertFalse(cmd.getResult().booleanValue());
+        assertNotNull(this.mCause);
+        assertTrue(xz.exists());
+        assertFalse(new File(this.mRoot, "hello").exists()); //$NON-NLS-1$
+
+        File tar = new File(this.mRoot, "test.tar.bz2"); //$NON-NLS-1$
+        BZip2OutputStream bzip2 = new BZip2OutputStream(new FileOutputStream(tar));
+        try {
+            writeTar(bzip2);
+        } finally {
+            bzip2.release();
+        }
+        data = TestFileHelper.readFile(tar);
+        TestFileHelper.writeFile(tar, Arrays.copyOf(data, data.length / 2));
+        cmd = uncompress(tar, null);
+        assertFalse(cmd.getResult().booleanValue());
+        assertNotNull(this.mCause);
+    }
+
+    /**
+     * Method that writes the test tar archive.
+     *
+     * @param os The stream where to write the archive
+     * @throws IOException If an I/O error occurs
+     */
+    private void writeTar(OutputStream os) throws IOException {
+        TarOutputStream tar = new TarOutputStream(os);
+        tar.putEntry("dir/", TarOutputStream.TYPE_DIRECTORY, //$NON-NLS-1$
+                0755, 0, MTIME, null);
+        tar.closeEntry();
+        tar.putEntry("dir/file", TarOutputStream.TYPE_FILE, //$NON-NLS-1$
+                0640, this.mData.length, MTIME, null);
+        tar.write(this.mData);
+        tar.closeEntry();
+        // The writer doesn't archive hard links, but it writes any type of header
+        tar.putEntry("dir/hard", TYPE_HARD_LINK, //$NON-NLS-1$
+                0640, 0, MTIME, "dir/file"); //$NON-NLS-1$
+        tar.closeEntry();
+        tar.putEntry("dir/sym", TarOutputStream.TYPE_SYMLINK, //$NON-NLS-1$
+                0777, 0, MTIME, "file"); //$NON-NLS-1$
+        tar.closeEntry();
+        tar.putEntry("../escape", TarOutputStream.TYPE_FILE, //$NON-NLS-1$
+                0644, HELLO.length, MTIME, null);
+        tar.write(HELLO);
+        tar.closeEntry();
+        tar.putEntry("/abs/file", TarOutputStream.TYPE_FILE, //$NON-NLS-1$
+                0644, HELLO.length, MTIME, null);
+        tar.write(HELLO);
+        tar.closeEntry();
+        tar.close();
+    }
+
+    /**
+     * Method that uncompresses a file.
+     *
+     * @param src The compressed file
+     * @param dst The destination, or <code>null</code> to resolve it from the file
+     * @return UncompressCommand The executed command
+     * @throws Exception If the command can't be created
+     */
+    private UncompressCommand uncompress(File src, File dst) throws Exception {
+        this.mCause = null;
+        UncompressCommand cmd = new UncompressCommand(src.getAbsolutePath(),
+                dst != null ? dst.getAbsolutePath() : null, new AsyncResultListener() {
+                    @Override
+                    public void onAsyncStart() {
+                        /**NON BLOCK**/
+                    }
+                    @Override
+                    public void onAsyncEnd(boolean cancelled) {
+                        /**NON BLOCK**/
+                    }
+                    @Override
+                    public void onAsyncExitCode(int exitCode) {
+                        /**NON BLOCK**/
+                    }
+                    @Override
+                    public void onPartialResult(Object result) {
+                        /**NON BLOCK**/
+                    }
+                    @Override
+                    public void onException(Exception cause) {
+                        UncompressCommandTest.this.mCause = cause;
+                    }
+                });
+        cmd.execute();
+        return cmd;
+    }
+}
@@ -100,6 +100,7 @@ public class ChecksumCommandTest extends AbstractConsoleTest {
         } catch (Exception e) {/**NON BLOCK**/}
         assertNotNull("md5==null", cmd.getChecksum(CHECKSUMS.MD5)); //$NON-NLS-1$
         assertNotNull("sha1==null", cmd.getChecksum(CHECKSUMS.SHA1)); //$NON-NLS-1$
+        assertNotNull("sha256==null", cmd.getChecksum(CHECKSUMS.SHA256)); //$NON-NLS-1$
         assertEquals("md5sum fails", MD5_SUM, cmd.getChecksum(CHECKSUMS.MD5)); //$NON-NLS-1$
         assertEquals("sha1sum fails", SHA1_SUM, cmd.getChecksum(CHECKSUMS.SHA1)); //$NON-NLS-1$
     }
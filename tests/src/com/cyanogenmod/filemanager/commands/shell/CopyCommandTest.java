@@ -19,8 +19,13 @@ package com.cyanogenmod.filemanager.commands.shell;
 import android.os.Environment;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.model.TransferProgress;
 import com.cyanogenmod.filemanager.util.CommandHelper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A class for testing the {@link CopyCommand} command.
  *
@@ -67,5 +72,48 @@ public class CopyCommandTest extends AbstractConsoleTest {
         }
     }
 
-
+    /**
+     * Method that performs a test to copy a file receiving its progress.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testCopyWithProgress() throws Exception {
+        try {
+            final List<TransferProgress> progress = new ArrayList<TransferProgress>();
+            AsyncResultListener listener = new AsyncResultListener() {
+                @Override
+                public void onAsyncStart() {/**NON BLOCK**/}
+                @Override
+                public void onAsyncEnd(boolean cancelled) {/**NON BLOCK**/}
+                @Override
+                public void onAsyncExitCode(int exitCode) {/**NON BLOCK**/}
+                @Override
+                public void onException(Exception cause) {/**NON BLOCK**/}
+                @Override
+                public void onPartialResult(Object result) {
+                    progress.add((TransferProgress)result);
+                }
+            };
+            CommandHelper.createFile(getContext(), PATH_FILE_SRC, getConsole());
+            boolean ret = CommandHelper.copy(
+                    getContext(), PATH_FILE_SRC, PATH_FILE_DST, listener, getConsole());
+            assertTrue("response==false", ret); //$NON-NLS-1$
+            assertFalse("progress.isEmpty", progress.isEmpty()); //$NON-NLS-1$
+            TransferProgress last = progress.get(progress.size() - 1);
+            assertTrue("bytes > total", //$NON-NLS-1$
+                    last.getTotalBytes() < 0 || last.getBytes() <= last.getTotalBytes());
+        } finally {
+            try {
+                CommandHelper.deleteFile(getContext(), PATH_FILE_SRC, getConsole());
+            } catch (Throwable ex) {
+                /**NON BLOCK**/
+            }
+            try {
+                CommandHelper.deleteFile(getContext(), PATH_FILE_DST, getConsole());
+            } catch (Throwable ex) {
+                /**NON BLOCK**/
+            }
+        }
+    }
 }
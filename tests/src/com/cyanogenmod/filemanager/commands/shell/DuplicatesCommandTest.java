@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.shell;
+
+import android.os.Environment;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.cyanogenmod.filemanager.commands.AsyncResultExecutable;
+import com.cyanogenmod.filemanager.commands.AsyncResultListener;
+import com.cyanogenmod.filemanager.model.DuplicateGroup;
+import com.cyanogenmod.filemanager.util.CommandHelper;
+import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.TestFileHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A class for testing duplicates command.
+ *
+ * @see DuplicatesCommand
+ */
+public class DuplicatesCommandTest extends AbstractConsoleTest {
+
+    private static final String PATH =
+            Environment.getExternalStorageDirectory().getAbsolutePath() +
+            "/duplicates-test"; //$NON-NLS-1$
+
+    // Bigger than the head and the tail of the partial checksum
+    private static final int FILE_SIZE = 300 * 1024;
+
+    /**
+     * @hide
+     */
+    final Object mSync = new Object();
+    /**
+     * @hide
+     */
+    boolean mNormalEnd;
+    /**
+     * @hide
+     */
+    final List<DuplicateGroup> mGroups = new ArrayList<DuplicateGroup>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRootConsoleNeeded() {
+        return true;
+    }
+
+    /**
+     * Method that performs a test over a known tree with two duplicated files, a file that
+     * only differs in the middle of the content and a file of other size.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testDuplicates() throws Exception {
+        File root = new File(PATH);
+        try {
+            byte[] data = new byte[FILE_SIZE];
+            new Random(1).nextBytes(data);
+            new File(root, "a").mkdirs(); //$NON-NLS-1$
+            TestFileHelper.writeFile(new File(root, "file1"), data, FILE_SIZE); //$NON-NLS-1$
+            TestFileHelper.writeFile(new File(root, "a/file 2"), data, FILE_SIZE); //$NON-NLS-1$
+            TestFileHelper.writeFile(new File(root, "other"), data, FILE_SIZE - 1); //$NON-NLS-1$
+            data[FILE_SIZE / 2] ^= 1;
+            TestFileHelper.writeFile(new File(root, "a/middle"), data, FILE_SIZE); //$NON-NLS-1$
+
+            this.mNormalEnd = false;
+            this.mGroups.clear();
+            AsyncResultExecutable cmd =
+                    CommandHelper.findDuplicates(getContext(), PATH, new AsyncResultListener() {
+                            @Override
+                            public void onAsyncStart() {
+                                /**NON BLOCK**/
+                            }
+                            @Override
+                            public void onAsyncEnd(boolean cancelled) {
+                                synchronized (DuplicatesCommandTest.this.mSync) {
+                                    DuplicatesCommandTest.this.mNormalEnd = true;
+                                    DuplicatesCommandTest.this.mSync.notify();
+                                }
+                            }
+                            @Override
+                            public void onAsyncExitCode(int exitCode) {
+                                /**NON BLOCK**/
+                            }
+                            @Override
+                            public void onException(Exception cause) {
+                                fail(String.valueOf(cause));
+                            }
+                            @Override
+                            public void onPartialResult(Object result) {
+                                DuplicatesCommandTest.this.mGroups.add((DuplicateGroup)result);
+                            }
+                       }, getConsole());
+            synchronized (DuplicatesCommandTest.this.mSync) {
+                DuplicatesCommandTest.this.mSync.wait(15000L);
+            }
+            try {
+                if (!this.mNormalEnd && cmd != null && cmd.isCancellable()
+                        && !cmd.isCancelled()) {
+                    cmd.cancel();
+                }
+            } catch (Exception e) {/**NON BLOCK**/}
+
+            assertTrue("the command didn't end", this.mNormalEnd); //$NON-NLS-1$
+            assertEquals("groups!=1", 1, this.mGroups.size()); //$NON-NLS-1$
+            DuplicateGroup group = this.mGroups.get(0);
+            assertEquals(FILE_SIZE, group.getSize());
+            assertEquals(2, group.getFiles().size());
+            assertTrue(group.getFiles().get(0).endsWith("/a/file 2")); //$NON-NLS-1$
+            assertTrue(group.getFiles().get(1).endsWith("/file1")); //$NON-NLS-1$
+
+        } finally {
+            FileHelper.deleteFolder(root);
+        }
+    }
+
+}
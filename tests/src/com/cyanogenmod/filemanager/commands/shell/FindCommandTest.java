@@ -39,6 +39,10 @@ public class FindCommandTest extends AbstractConsoleTest {
     private static final String FIND_PATH =
                 Environment.getRootDirectory().getAbsolutePath();
     private static final String FIND_TERM_PARTIAL = "build"; //$NON-NLS-1$
+    private static final String[] FIND_TERMS_NOT_FOUND = {
+        "cmfm_nf_1", "cmfm_nf_2", "cmfm_nf_3", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "cmfm_nf_4", "cmfm_nf_5", "cmfm_nf_6"  //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    };
 
     private static final File TEST_FILE =
             new File (Environment.getRootDirectory(),
@@ -72,9 +76,35 @@ public class FindCommandTest extends AbstractConsoleTest {
      */
     @LargeTest
     public void testFindWithPartialResult() throws Exception {
+        Query query = new Query().setSlot(FIND_TERM_PARTIAL, 0);
+        doFind(query);
+    }
+
+    /**
+     * Method that performs a test with more terms than the old fixed find slots.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testFindWithManyTerms() throws Exception {
+        Query query = new Query();
+        int cc = FIND_TERMS_NOT_FOUND.length;
+        for (int i = 0; i < cc; i++) {
+            query.setSlot(FIND_TERMS_NOT_FOUND[i], i);
+        }
+        query.setSlot(FIND_TERM_PARTIAL, cc);
+        doFind(query);
+    }
+
+    /**
+     * Method that performs a search and checks that the test file is found.
+     *
+     * @param query The query of the search
+     * @throws Exception If test failed
+     */
+    private void doFind(Query query) throws Exception {
         this.mNewPartialData = false;
         this.mNormalEnd = false;
-        Query query = new Query().setSlot(FIND_TERM_PARTIAL, 0);
         final List<FileSystemObject> files = new ArrayList<FileSystemObject>();
         AsyncResultExecutable cmd =
                 CommandHelper.findFiles(getContext(), FIND_PATH,
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.filemanager.commands.shell;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.model.FolderUsage;
+import com.cyanogenmod.filemanager.util.MimeTypeHelper;
+import com.cyanogenmod.filemanager.util.MimeTypeHelper.MimeTypeCategory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class for testing the streaming parser of the folder usage command.
+ *
+ * @see FolderUsageParser
+ */
+public class FolderUsageParserTest extends android.test.AndroidTestCase {
+
+    private static final String TAG = "FolderUsageParserTest"; //$NON-NLS-1$
+
+    private static final String OUTPUT =
+            "/sdcard:\n" + //$NON-NLS-1$
+            "total 24\n" + //$NON-NLS-1$
+            "drwxrwx---    4 root     sdcard_r      4096 Dec 30 00:49 .\n" + //$NON-NLS-1$
+            "drwxr-xr-x    5 root     root          4096 Dec 30 00:49 ..\n" + //$NON-NLS-1$
+            "drwxrwx---    2 root     sdcard_r      4096 Dec 30 00:49 Music\n" + //$NON-NLS-1$
+            "-rw-rw----    1 root     sdcard_r      1000 Dec 30 00:49 a.txt\n" + //$NON-NLS-1$
+            "-rw-rw----    1 root     sdcard_r      2000 Dec 30 00:49 my song.mp3\n" + //$NON-NLS-1$
+            "-rw-rw----    1 root     sdcard_r       300 Dec 30 00:49 backup.tar.gz\n" + //$NON-NLS-1$
+            "-rw-rw----    1 root     sdcard_r        40 Dec 30 00:49 .hidden\n" + //$NON-NLS-1$
+            "lrwxrwxrwx    1 root     root             7 Dec 30 00:49 link -> a.txt\n" + //$NON-NLS-1$
+            "\n" + //$NON-NLS-1$
+            "/sdcard/Music:\n" + //$NON-NLS-1$
+            "total 8\n" + //$NON-NLS-1$
+            "drwxrwx---    2 root     sdcard_r      4096 Dec 30 00:49 .\n" + //$NON-NLS-1$
+            "drwxrwx---    4 root     sdcard_r      4096 Dec 30 00:49 ..\n" + //$NON-NLS-1$
+            "-rw-rw----    1 root     sdcard_r      5000 Dec 30 00:49 b.MP3\n"; //$NON-NLS-1$
+
+    private static final int BENCHMARK_LINES = 1000000;
+    private static final int BENCHMARK_CHUNK = 4096;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Ensure the mime types are loaded (the parser doesn't have a context)
+        MimeTypeHelper.getCategoryFromExt(getContext(), "txt"); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that performs a test over a known output parsed in one chunk.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testParse() throws Exception {
+        FolderUsageParser parser = new FolderUsageParser(new FolderUsage("/sdcard")); //$NON-NLS-1$
+        parser.parse(OUTPUT);
+        checkUsage(parser.getFolderUsage());
+    }
+
+    /**
+     * Method that performs a test over a known output parsed in chunks that split
+     * lines, fields and names.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testParseChunks() throws Exception {
+        for (int chunk = 1; chunk < 16; chunk++) {
+            FolderUsageParser parser =
+                    new FolderUsageParser(new FolderUsage("/sdcard")); //$NON-NLS-1$
+            for (int i = 0; i < OUTPUT.length(); i += chunk) {
+                parser.parse(OUTPUT.substring(i, Math.min(OUTPUT.length(), i + chunk)));
+            }
+            checkUsage(parser.getFolderUsage());
+        }
+    }
+
+    /**
+     * Method that measures the throughput of the parser over a synthetic output
+     * of 1M lines.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testParseBenchmark() throws Exception {
+        // Build the fixture in chunks, in the same way the console delivers the output
+        List<String> chunks = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder(BENCHMARK_CHUNK * 2);
+        long bytes = 0;
+        int files = 0;
+        for (int i = 0; i < BENCHMARK_LINES; i++) {
+            if (i % 100 == 0) {
+                sb.append("\n/sdcard/dir").append(i).append(":\n"); //$NON-NLS-1$ //$NON-NLS-2$
+                sb.append("total 400\n"); //$NON-NLS-1$
+            } else {
+                sb.append("-rw-rw----    1 root     sdcard_r    ") //$NON-NLS-1$
+                  .append(i)
+                  .append(" Dec 30 00:49 file") //$NON-NLS-1$
+                  .append(i)
+                  .append(i % 3 == 0 ? ".jpg\n" : ".txt\n"); //$NON-NLS-1$ //$NON-NLS-2$
+                bytes += i;
+                files++;
+            }
+            if (sb.length() >= BENCHMARK_CHUNK) {
+                chunks.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        chunks.add(sb.toString());
+
+        FolderUsageParser parser = new FolderUsageParser(new FolderUsage("/sdcard")); //$NON-NLS-1$
+        long start = System.nanoTime();
+        int cc = chunks.size();
+        for (int i = 0; i < cc; i++) {
+            parser.parse(chunks.get(i));
+        }
+        long elapsed = System.nanoTime() - start;
+        Log.i(TAG, String.format("Parsed %d lines in %d ms (%d lines/s)", //$NON-NLS-1$
+                Integer.valueOf(BENCHMARK_LINES), Long.valueOf(elapsed / 1000000L),
+                Long.valueOf(BENCHMARK_LINES * 1000000000L / Math.max(1, elapsed))));
+
+        FolderUsage usage = parser.getFolderUsage();
+        assertEquals(files, usage.getNumberOfFiles());
+        assertEquals(bytes, usage.getTotalSize());
+    }
+
+    /**
+     * Method that checks the usage of the known output
+     *
+     * @param usage The parsed usage
+     */
+    private static void checkUsage(FolderUsage usage) {
+        assertEquals(1, usage.getNumberOfFolders());
+        assertEquals(6, usage.getNumberOfFiles());
+        assertEquals(8340, usage.getTotalSize());
+        assertEquals(1, usage.getStatisticsForCategory(MimeTypeCategory.TEXT));
+        assertEquals(2, usage.getStatisticsForCategory(MimeTypeCategory.AUDIO));
+        assertEquals(7000, usage.getSizeForCategory(MimeTypeCategory.AUDIO));
+        assertEquals(1, usage.getStatisticsForCategory(MimeTypeCategory.COMPRESS));
+    }
+}
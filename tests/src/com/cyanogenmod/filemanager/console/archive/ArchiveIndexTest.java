@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.archive;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.cyanogenmod.filemanager.util.FileHelper;
+import com.cyanogenmod.filemanager.util.ParallelZipExtractor;
+import com.cyanogenmod.filemanager.util.ParallelZipOutputStream;
+import com.cyanogenmod.filemanager.util.TarOutputStream;
+import com.cyanogenmod.filemanager.util.TestFileHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A class for testing the index of the archives and its disk cache.
+ *
+ * @see ArchiveIndex
+ */
+public class ArchiveIndexTest extends android.test.AndroidTestCase {
+
+    private static final long MTIME = 1400000000000L;
+
+    private static final char TYPE_HARD_LINK = '1';
+
+    private File mRoot;
+    private File mCacheDir;
+    private byte[] mData;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mRoot = TestFileHelper.createTestFolder(
+                getContext(), "archive-index-test"); //$NON-NLS-1$
+        this.mCacheDir = new File(this.mRoot, "cache"); //$NON-NLS-1$
+        assertTrue(this.mCacheDir.mkdirs());
+        this.mData = new byte[100000];
+        new Random(1).nextBytes(this.mData);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileHelper.deleteFolder(this.mRoot);
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks the index of a zip archive, with implicit parent directories and
+     * symbolic links.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testZip() throws Exception {
+        File zip = createZip();
+        ArchiveIndex index = ArchiveIndex.open(zip, this.mCacheDir);
+        assertEquals(ArchiveIndex.FORMAT_ZIP, index.getFormat());
+        assertZipIndex(index);
+    }
+
+    /**
+     * Method that checks the index of a tar archive, with hard links.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testTar() throws Exception {
+        File tar = createTar("file"); //$NON-NLS-1$
+        ArchiveIndex index = ArchiveIndex.open(tar, this.mCacheDir);
+        assertEquals(ArchiveIndex.FORMAT_TAR, index.getFormat());
+        // The root, dir, dir/file, dir/hard, dir/link and dir/sub
+        assertEquals(6, index.getCount());
+
+        int file = index.lookup("dir/file"); //$NON-NLS-1$
+        assertEquals(ArchiveIndex.TYPE_FILE, index.getType(file));
+        assertEquals(0640, index.getMode(file));
+        assertEquals(MTIME, index.getTime(file));
+        assertTrue(Arrays.equals(this.mData, read(index, file)));
+
+        // A hard link is a file with the content of its target
+        int hard = index.lookup("dir/hard"); //$NON-NLS-1$
+        assertEquals(ArchiveIndex.TYPE_FILE, index.getType(hard));
+        assertEquals(this.mData.length, index.getSize(hard));
+        assertTrue(Arrays.equals(this.mData, read(index, hard)));
+
+        int link = index.lookup("dir/link"); //$NON-NLS-1$
+        assertEquals(ArchiveIndex.TYPE_SYMLINK, index.getType(link));
+        assertEquals(file, index.resolveLink(link));
+        assertTrue(index.isDirectory(index.lookup("dir/sub"))); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks that an index is saved in the cache and loaded back, while the
+     * archive doesn't change.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testCache() throws Exception {
+        File zip = createZip();
+        ArchiveIndex built = ArchiveIndex.open(zip, this.mCacheDir);
+        File[] caches = new File(this.mCacheDir, "archives").listFiles(); //$NON-NLS-1$
+        assertEquals(1, caches.length);
+
+        ArchiveIndex loaded = ArchiveIndex.open(zip, this.mCacheDir);
+        assertNotSame(built, loaded);
+        assertZipIndex(loaded);
+        assertEquals(built.getCount(), loaded.getCount());
+        for (int i = 0; i < built.getCount(); i++) {
+            assertEquals(built.getPath(i), loaded.getPath(i));
+            assertEquals(built.getParent(i), loaded.getParent(i));
+            assertEquals(built.getFirstChild(i), loaded.getFirstChild(i));
+            assertEquals(built.getChildCount(i), loaded.getChildCount(i));
+            assertEquals(built.getType(i), loaded.getType(i));
+            assertEquals(built.getMode(i), loaded.getMode(i));
+            assertEquals(built.getSize(i), loaded.getSize(i));
+            assertEquals(built.getTime(i), loaded.getTime(i));
+            assertEquals(built.getLink(i), loaded.getLink(i));
+        }
+
+        // A corrupted cache file is rebuilt
+        TestFileHelper.writeFile(caches[0], new byte[]{1, 2, 3});
+        assertZipIndex(ArchiveIndex.open(zip, this.mCacheDir));
+        assertTrue(caches[0].length() > 3);
+    }
+
+    /**
+     * Method that checks that the cached index is only used while the modification time and
+     * the length of the archive don't change.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testStaleCache() throws Exception {
+        File tar = createTar("file"); //$NON-NLS-1$
+        ArchiveIndex index = ArchiveIndex.open(tar, this.mCacheDir);
+        assertFalse(index.isStale());
+
+        // Same length and modification time: the cached index is used, without reading the
+        // archive
+        createTar("data"); //$NON-NLS-1$
+        assertTrue(tar.setLastModified(MTIME));
+        assertFalse(index.isStale());
+        assertTrue(ArchiveIndex.open(tar, this.mCacheDir).lookup("dir/file") != -1); //$NON-NLS-1$
+
+        // Other modification time
+        assertTrue(tar.setLastModified(MTIME + 10000));
+        assertTrue(index.isStale());
+        index = ArchiveIndex.open(tar, this.mCacheDir);
+        assertEquals(-1, index.lookup("dir/file")); //$NON-NLS-1$
+        assertTrue(index.lookup("dir/data") != -1); //$NON-NLS-1$
+
+        // Other length, with the same modification time
+        createTar("last"); //$NON-NLS-1$
+        RandomAccessFile raf = new RandomAccessFile(tar, "rw"); //$NON-NLS-1$
+        try {
+            raf.setLength(tar.length() + 512);
+        } finally {
+            raf.close();
+        }
+        assertTrue(tar.setLastModified(MTIME + 10000));
+        assertTrue(index.isStale());
+        index = ArchiveIndex.open(tar, this.mCacheDir);
+        assertFalse(index.isStale());
+        assertTrue(index.lookup("dir/last") != -1); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks that the content of an entry is read from its region of the
+     * archive only.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testOpenEntryRegion() throws Exception {
+        File zip = createZip();
+        ArchiveIndex index = ArchiveIndex.open(zip, this.mCacheDir);
+        long otherOffset = -1;
+        ParallelZipExtractor extractor = new ParallelZipExtractor(zip);
+        try {
+            for (ParallelZipExtractor.Entry entry : extractor.getEntries()) {
+                if (entry.getName().equals("a/other")) { //$NON-NLS-1$
+                    otherOffset = entry.getOffset();
+                }
+            }
+        } finally {
+            extractor.close();
+        }
+        assertTrue(otherOffset > 0);
+
+        // Corrupt the data of the other entry and the central directory
+        RandomAccessFile raf = new RandomAccessFile(zip, "rw"); //$NON-NLS-1$
+        try {
+            byte[] garbage = new byte[(int)(raf.length() - otherOffset - 100)];
+            Arrays.fill(garbage, (byte)0x55);
+            raf.seek(otherOffset + 100);
+            raf.write(garbage);
+        } finally {
+            raf.close();
+        }
+
+        assertTrue(Arrays.equals(this.mData,
+                read(index, index.lookup("a/b/file")))); //$NON-NLS-1$
+        try {
+            read(index, index.lookup("a/other")); //$NON-NLS-1$
+            fail("Read a corrupted entry"); //$NON-NLS-1$
+        } catch (IOException ex) {
+            // Expected
+        }
+
+        // The stream ends with the entry
+        InputStream in = index.openEntry(index.lookup("a/b/file")); //$NON-NLS-1$
+        try {
+            assertEquals(this.mData.length - 10, in.skip(this.mData.length - 10));
+            byte[] tail = new byte[100];
+            int read = 0;
+            int count;
+            while ((count = in.read(tail, read, tail.length - read)) > 0) {
+                read += count;
+            }
+            assertEquals(10, read);
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+
+        try {
+            index.openEntry(index.lookup("a")).close(); //$NON-NLS-1$
+            fail("Opened a directory"); //$NON-NLS-1$
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Method that checks the index of the test zip archive.
+     *
+     * @param index The index
+     * @throws IOException If an I/O error occurs
+     */
+    private void assertZipIndex(ArchiveIndex index) throws IOException {
+        // The root, a, a/b, a/other, a/up, a/out, a/loop, a/b/file and a/b/empty
+        assertEquals(9, index.getCount());
+        assertEquals(0, index.lookup("")); //$NON-NLS-1$
+        assertEquals(0, index.lookup("/")); //$NON-NLS-1$
+        assertEquals(-1, index.lookup("a/missing")); //$NON-NLS-1$
+
+        // The parent directories without entries are created, and the children are sorted
+        int a = index.lookup("a"); //$NON-NLS-1$
+        assertTrue(index.isDirectory(a));
+        assertEquals(5, index.getChildCount(a));
+        String[] names = {
+            "b", "loop", "other", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            "out", "up" //$NON-NLS-1$ //$NON-NLS-2$
+        };
+        for (int i = 0; i < names.length; i++) {
+            int child = index.getFirstChild(a) + i;
+            assertEquals(names[i], index.getName(child));
+            assertEquals(a, index.getParent(child));
+        }
+
+        int file = index.lookup("/a/b/file"); //$NON-NLS-1$
+        assertEquals("a/b/file", index.getPath(file)); //$NON-NLS-1$
+        assertEquals(ArchiveIndex.TYPE_FILE, index.getType(file));
+        assertEquals(0640, index.getMode(file));
+        assertEquals(this.mData.length, index.getSize(file));
+        assertEquals(MTIME, index.getTime(file));
+        assertEquals(0, index.getSize(index.lookup("a/b/empty"))); //$NON-NLS-1$
+
+        // The links are resolved inside the archive only
+        int up = index.lookup("a/up"); //$NON-NLS-1$
+        assertEquals(ArchiveIndex.TYPE_SYMLINK, index.getType(up));
+        assertEquals("b/../b/file", index.getLink(up)); //$NON-NLS-1$
+        assertEquals(file, index.resolveLink(up));
+        assertEquals(-1, index.resolveLink(index.lookup("a/out"))); //$NON-NLS-1$
+        assertEquals(-1, index.resolveLink(index.lookup("a/loop"))); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that creates the test zip archive.
+     *
+     * @return File The archive
+     * @throws IOException If an I/O error occurs
+     */
+    private File createZip() throws IOException {
+        File zip = new File(this.mRoot, "test.zip"); //$NON-NLS-1$
+        ParallelZipOutputStream out = new ParallelZipOutputStream(new FileOutputStream(zip));
+        try {
+            out.putFile("a/b/file", 0640, MTIME, this.mData.length); //$NON-NLS-1$
+            out.write(this.mData);
+            out.putFile("a/b/empty", 0640, MTIME, 0); //$NON-NLS-1$
+            out.putSymlink("a/up", "b/../b/file", MTIME); //$NON-NLS-1$ //$NON-NLS-2$
+            out.putSymlink("a/out", "../../etc/passwd", MTIME); //$NON-NLS-1$ //$NON-NLS-2$
+            out.putSymlink("a/loop", "loop", MTIME); //$NON-NLS-1$ //$NON-NLS-2$
+            out.putFile("a/other", 0640, MTIME, this.mData.length); //$NON-NLS-1$
+            out.write(this.mData);
+            out.finish();
+        } finally {
+            out.close();
+        }
+        return zip;
+    }
+
+    /**
+     * Method that creates the test tar archive, with a fixed modification time.
+     *
+     * @param name The name of the file of the archive (4 characters, so the length of the
+     * archive doesn't change)
+     * @return File The archive
+     * @throws IOException If an I/O error occurs
+     */
+    private File createTar(String name) throws IOException {
+        File tar = new File(this.mRoot, "test.tar"); //$NON-NLS-1$
+        TarOutputStream out = new TarOutputStream(new FileOutputStream(tar));
+        try {
+            out.putEntry("dir/" + name, TarOutputStream.TYPE_FILE, //$NON-NLS-1$
+                    0640, this.mData.length, MTIME, null);
+            out.write(this.mData);
+            out.closeEntry();
+            out.putEntry("dir/hard", TYPE_HARD_LINK, //$NON-NLS-1$
+                    0640, 0, MTIME, "dir/" + name); //$NON-NLS-1$
+            out.closeEntry();
+            out.putEntry("dir/link", TarOutputStream.TYPE_SYMLINK, //$NON-NLS-1$
+                    0777, 0, MTIME, name);
+            out.closeEntry();
+            out.putEntry("dir/sub/", TarOutputStream.TYPE_DIRECTORY, //$NON-NLS-1$
+                    0755, 0, MTIME, null);
+            out.closeEntry();
+            out.finish();
+        } finally {
+            out.close();
+        }
+        assertTrue(tar.setLastModified(MTIME));
+        return tar;
+    }
+
+    /**
+     * Method that reads the content of an entry.
+     *
+     * @param index The index
+     * @param entry The entry
+     * @return byte[] The content of the entry
+     * @throws IOException If an I/O error occurs
+     */
+    private static byte[] read(ArchiveIndex index, int entry) throws IOException {
+        InputStream in = index.openEntry(entry);
+        try {
+            return TestFileHelper.readFully(in);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.console.secure;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import com.cyanogenmod.filemanager.util.FileHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A class for testing the chunked encrypted storage of the secure console.
+ *
+ * @see SecureStorage
+ */
+public class SecureStorageTest extends android.test.AndroidTestCase {
+
+    private static final String TAG = "SecureStorageTest"; //$NON-NLS-1$
+
+    private static final char[] PASSWORD = "password".toCharArray(); //$NON-NLS-1$
+    private static final char[] NEW_PASSWORD = "new password".toCharArray(); //$NON-NLS-1$
+
+    private static final int BENCHMARK_FILES = 64;
+    private static final int BENCHMARK_FILE_SIZE = 1024 * 1024;
+    private static final int BENCHMARK_SEEK_FILE_SIZE = 256 * 1024 * 1024;
+    private static final int BENCHMARK_SEEKS = 100;
+
+    private File mRoot;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mRoot = new File(getContext().getCacheDir(), "secure-storage-test"); //$NON-NLS-1$
+        FileHelper.deleteFolder(this.mRoot);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileHelper.deleteFolder(this.mRoot);
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks that the files are read back after reopen the storage, with
+     * sizes around the chunk boundaries.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testReadWrite() throws Exception {
+        int[] sizes = {0, 1, SecureStorage.CHUNK_SIZE - 1, SecureStorage.CHUNK_SIZE,
+                SecureStorage.CHUNK_SIZE + 1, 3 * SecureStorage.CHUNK_SIZE + 17};
+        byte[][] data = new byte[sizes.length][];
+        Random random = new Random(1);
+
+        SecureStorage storage = SecureStorage.create(this.mRoot, PASSWORD);
+        assertTrue(storage.mkdir("dir")); //$NON-NLS-1$
+        assertFalse(storage.mkdir("dir")); //$NON-NLS-1$
+        assertFalse(storage.mkdir("none/dir")); //$NON-NLS-1$
+        for (int i = 0; i < sizes.length; i++) {
+            data[i] = new byte[sizes[i]];
+            random.nextBytes(data[i]);
+            write(storage, "dir/file" + i, data[i]); //$NON-NLS-1$
+        }
+        assertTrue(storage.rename("dir/file0", "file0")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertFalse(storage.rename("dir", "dir/sub")); //$NON-NLS-1$ //$NON-NLS-2$
+        storage.sync();
+
+        storage = SecureStorage.open(this.mRoot, PASSWORD);
+        assertTrue(Arrays.equals(data[0], read(storage, "file0"))); //$NON-NLS-1$
+        for (int i = 1; i < sizes.length; i++) {
+            assertEquals(sizes[i], storage.length("dir/file" + i)); //$NON-NLS-1$
+            assertTrue(Arrays.equals(data[i], read(storage, "dir/file" + i))); //$NON-NLS-1$
+        }
+        assertEquals(sizes.length - 1, storage.list("dir").length); //$NON-NLS-1$
+        assertFalse(storage.delete("dir")); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks that a synced storage is opened after move its directory, as a
+     * migration of the legacy storage does once it's complete.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testMovedStorage() throws Exception {
+        byte[] data = new byte[2 * SecureStorage.CHUNK_SIZE + 1];
+        new Random(3).nextBytes(data);
+        File tmp = new File(this.mRoot, "tmp"); //$NON-NLS-1$
+        SecureStorage storage = SecureStorage.create(tmp, PASSWORD);
+        write(storage, "file", data); //$NON-NLS-1$
+        storage.sync();
+        storage.close();
+
+        File dst = new File(this.mRoot, "dst"); //$NON-NLS-1$
+        assertTrue(tmp.renameTo(dst));
+        assertFalse(SecureStorage.exists(tmp));
+        storage = SecureStorage.open(dst, PASSWORD);
+        assertTrue(Arrays.equals(data, read(storage, "file"))); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks that a wrong password is rejected, and that changing the
+     * password keeps the content.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testPassword() throws Exception {
+        byte[] data = new byte[1000];
+        SecureStorage storage = SecureStorage.create(this.mRoot, PASSWORD);
+        write(storage, "file", data); //$NON-NLS-1$
+        storage.sync();
+        try {
+            SecureStorage.open(this.mRoot, NEW_PASSWORD);
+            fail("storage opened with a wrong password"); //$NON-NLS-1$
+        } catch (SecureStorage.AuthenticationException ex) {
+            // Expected
+        }
+
+        storage.setPassword(NEW_PASSWORD);
+        storage.sync();
+        try {
+            SecureStorage.open(this.mRoot, PASSWORD);
+            fail("storage opened with the old password"); //$NON-NLS-1$
+        } catch (SecureStorage.AuthenticationException ex) {
+            // Expected
+        }
+        storage = SecureStorage.open(this.mRoot, NEW_PASSWORD);
+        assertTrue(Arrays.equals(data, read(storage, "file"))); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks that a modified chunk is detected.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testTamperedChunk() throws Exception {
+        SecureStorage storage = SecureStorage.create(this.mRoot, PASSWORD);
+        write(storage, "file", new byte[1000]); //$NON-NLS-1$
+        storage.sync();
+
+        File chunk = new File(this.mRoot, "chunks").listFiles()[0].listFiles()[0]; //$NON-NLS-1$
+        RandomAccessFile raf = new RandomAccessFile(chunk, "rw"); //$NON-NLS-1$
+        try {
+            raf.seek(100);
+            int b = raf.read();
+            raf.seek(100);
+            raf.write(b ^ 1);
+        } finally {
+            raf.close();
+        }
+
+        storage = SecureStorage.open(this.mRoot, PASSWORD);
+        try {
+            read(storage, "file"); //$NON-NLS-1$
+            fail("modified chunk not detected"); //$NON-NLS-1$
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Method that checks that the random reader returns the same data as the file, for
+     * reads that cross the chunk boundaries, in any order.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testRandomReader() throws Exception {
+        byte[] data = new byte[3 * SecureStorage.CHUNK_SIZE + 17];
+        Random random = new Random(1);
+        random.nextBytes(data);
+        SecureStorage storage = SecureStorage.create(this.mRoot, PASSWORD);
+        write(storage, "file", data); //$NON-NLS-1$
+
+        SecureRandomReader reader = storage.openRandomReader("file"); //$NON-NLS-1$
+        assertEquals(data.length, reader.length());
+        byte[] buffer = new byte[SecureStorage.CHUNK_SIZE + 100];
+        for (int i = 0; i < 200; i++) {
+            int pos = random.nextInt(data.length);
+            int len = 1 + random.nextInt(buffer.length - 1);
+            int read = reader.read(pos, buffer, 0, len);
+            assertEquals(Math.min(len, data.length - pos), read);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(data, pos, pos + read),
+                    Arrays.copyOf(buffer, read)));
+        }
+        assertEquals(-1, reader.read(data.length, buffer, 0, 1));
+        reader.close();
+    }
+
+    /**
+     * Method that checks that an open reader keeps reading the content of a file replaced
+     * and synced meanwhile, and that its chunks are deleted once it's closed.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testPinnedReader() throws Exception {
+        byte[] data = new byte[2 * SecureStorage.CHUNK_SIZE];
+        new Random(1).nextBytes(data);
+        SecureStorage storage = SecureStorage.create(this.mRoot, PASSWORD);
+        write(storage, "file", data); //$NON-NLS-1$
+        storage.sync();
+
+        SecureRandomReader reader = storage.openRandomReader("file"); //$NON-NLS-1$
+        write(storage, "file", new byte[10]); //$NON-NLS-1$
+        storage.sync();
+        byte[] buffer = new byte[data.length];
+        assertEquals(data.length, reader.read(0, buffer, 0, buffer.length));
+        assertTrue(Arrays.equals(data, buffer));
+
+        reader.close();
+        storage.sync();
+        File chunks = new File(this.mRoot, "chunks"); //$NON-NLS-1$
+        int count = 0;
+        for (File dir : chunks.listFiles()) {
+            count += dir.list().length;
+        }
+        assertEquals(1, count);
+
+        // Streams pin their chunks too
+        InputStream is = storage.openInputStream("file"); //$NON-NLS-1$
+        assertTrue(storage.delete("file")); //$NON-NLS-1$
+        storage.sync();
+        byte[] small = new byte[20];
+        assertEquals(10, is.read(small));
+        is.close();
+        storage.sync();
+        count = 0;
+        for (File dir : chunks.listFiles()) {
+            count += dir.list().length;
+        }
+        assertEquals(0, count);
+    }
+
+    /**
+     * Method that checks that the changes of the storage take the write lock, while the
+     * data of a file is written without it.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testChangeLock() throws Exception {
+        final SecureStorage storage = SecureStorage.create(this.mRoot, PASSWORD);
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        storage.setChangeLock(lock);
+        final OutputStream os = storage.openOutputStream("file"); //$NON-NLS-1$
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch committed = new CountDownLatch(1);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    os.write(new byte[SecureStorage.CHUNK_SIZE + 1]);
+                    written.countDown();
+                    os.close();
+                    committed.countDown();
+                } catch (IOException ex) {
+                    // The test fails by timeout
+                }
+            }
+        };
+
+        lock.readLock().lock();
+        try {
+            writer.start();
+            assertTrue(written.await(10, TimeUnit.SECONDS));
+            assertFalse(committed.await(200, TimeUnit.MILLISECONDS));
+            assertFalse(storage.exists("file")); //$NON-NLS-1$
+        } finally {
+            lock.readLock().unlock();
+        }
+        assertTrue(committed.await(10, TimeUnit.SECONDS));
+        assertEquals(SecureStorage.CHUNK_SIZE + 1, storage.length("file")); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that measures the cost of random reads in a big file. Only the chunks read
+     * are decrypted, so it must be far from the cost of reading the whole file.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testRandomReaderBenchmark() throws Exception {
+        byte[] data = new byte[BENCHMARK_FILE_SIZE];
+        new Random(1).nextBytes(data);
+        SecureStorage storage = SecureStorage.create(this.mRoot, PASSWORD);
+        OutputStream os = storage.openOutputStream("file"); //$NON-NLS-1$
+        try {
+            for (int i = 0; i < BENCHMARK_SEEK_FILE_SIZE / BENCHMARK_FILE_SIZE; i++) {
+                os.write(data);
+            }
+        } finally {
+            os.close();
+        }
+
+        SecureRandomReader reader = storage.openRandomReader("file"); //$NON-NLS-1$
+        Random random = new Random(2);
+        byte[] buffer = new byte[4096];
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_SEEKS; i++) {
+            long pos = (long) random.nextInt(BENCHMARK_SEEK_FILE_SIZE - buffer.length);
+            assertEquals(buffer.length, reader.read(pos, buffer, 0, buffer.length));
+        }
+        long seeks = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long pos = 0;
+        int read;
+        while ((read = reader.read(pos, data, 0, data.length)) > 0) {
+            pos += read;
+        }
+        long sequential = System.nanoTime() - start;
+        reader.close();
+
+        Log.i(TAG, String.format(
+                "%d random reads in %d ms, sequential read of %d MB in %d ms", //$NON-NLS-1$
+                Integer.valueOf(BENCHMARK_SEEKS), Long.valueOf(seeks / 1000000L),
+                Integer.valueOf(BENCHMARK_SEEK_FILE_SIZE >> 20),
+                Long.valueOf(sequential / 1000000L)));
+        assertEquals(BENCHMARK_SEEK_FILE_SIZE, pos);
+        assertTrue(seeks < sequential);
+    }
+
+    /**
+     * Method that measures the cost of a sync after adding files to a big storage. The bytes
+     * written by the sync must be proportional to the data added, not to the storage size.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testSyncBenchmark() throws Exception {
+        byte[] data = new byte[BENCHMARK_FILE_SIZE];
+        new Random(1).nextBytes(data);
+        SecureStorage storage = SecureStorage.create(this.mRoot, PASSWORD);
+        for (int i = 0; i < BENCHMARK_FILES; i++) {
+            write(storage, "file" + i, data); //$NON-NLS-1$
+        }
+        storage.sync();
+        long storageSize = getSize(this.mRoot);
+
+        for (int files = 1; files <= 16; files *= 4) {
+            long before = getSize(this.mRoot);
+            long start = System.nanoTime();
+            for (int i = 0; i < files; i++) {
+                write(storage, "new" + files + "-" + i, data); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            storage.sync();
+            long elapsed = System.nanoTime() - start;
+
+            // Chunks are never rewritten, so the written data is the growth of the storage
+            // plus the index, that is always written again
+            long written = getSize(this.mRoot) - before
+                    + new File(this.mRoot, "index").length(); //$NON-NLS-1$
+            Log.i(TAG, String.format(
+                    "Added %d MB to a %d MB storage in %d ms, %d KB written", //$NON-NLS-1$
+                    Integer.valueOf(files * BENCHMARK_FILE_SIZE >> 20),
+                    Long.valueOf(storageSize >> 20),
+                    Long.valueOf(elapsed / 1000000L),
+                    Long.valueOf(written >> 10)));
+
+            // Far from the size of the storage
+            assertTrue(written < (long) files * BENCHMARK_FILE_SIZE + 64 * 1024);
+        }
+    }
+
+    /**
+     * Method that writes a file to the storage
+     *
+     * @param storage The storage
+     * @param path The path of the file
+     * @param data The content of the file
+     * @throws IOException If the file can't be written
+     */
+    private static void write(SecureStorage storage, String path, byte[] data)
+            throws IOException {
+        OutputStream os = storage.openOutputStream(path);
+        try {
+            // Write in small buffers, as the commands do
+            for (int i = 0; i < data.length; i += 4096) {
+                os.write(data, i, Math.min(4096, data.length - i));
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Method that reads a file from the storage
+     *
+     * @param storage The storage
+     * @param path The path of the file
+     * @return byte[] The content of the file
+     * @throws IOException If the file can't be read
+     */
+    private static byte[] read(SecureStorage storage, String path) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        InputStream is = storage.openInputStream(path);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Method that returns the size of the files of a directory
+     *
+     * @param file The directory
+     * @return long The size in bytes
+     */
+    private static long getSize(File file) {
+        File[] files = file.listFiles();
+        if (files == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File f : files) {
+            size += getSize(f);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipFile;
+
+/**
+ * A class for testing the round trip of the streams used to compress file system objects.
+ *
+ * @see BZip2OutputStream
+ * @see ParallelDeflateOutputStream
+ * @see ParallelGzipOutputStream
+ * @see ParallelZipOutputStream
+ * @see TarOutputStream
+ */
+public class CompressStreamsTest extends android.test.AndroidTestCase {
+
+    private static final String TAG = "CompressStreamsTest"; //$NON-NLS-1$
+
+    // Spans several parallel blocks (and bzip2 blocks of 900k)
+    private static final int LARGE_SIZE = 3 * 1024 * 1024 + 17;
+
+    private static final long MTIME = 1400000000000L;
+
+    private File mFile;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mFile = new File(getContext().getCacheDir(), "compress-test.zip"); //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        this.mFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks the round trip of empty and 1-byte gzip files.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testGzipSmall() throws Exception {
+        assertGzip(new byte[0]);
+        assertGzip(new byte[]{42});
+    }
+
+    /**
+     * Method that checks the round trip of a gzip file of several blocks.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testGzipLarge() throws Exception {
+        assertGzip(createData(new Random(1), LARGE_SIZE));
+    }
+
+    /**
+     * Method that checks the counters and the crc of the parallel deflater.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testDeflateCounters() throws Exception {
+        byte[] data = createData(new Random(2), ParallelDeflateOutputStream.BLOCK_SIZE * 2 + 1);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ParallelDeflateOutputStream out = new ParallelDeflateOutputStream(baos, 6);
+        try {
+            out.write(data, 0, 0);
+            out.write(data);
+            out.finish();
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            assertEquals(crc.getValue(), out.getCrc());
+            assertEquals(data.length, out.getBytesIn());
+            assertEquals(baos.size(), out.getBytesOut());
+
+            out.resetCounters();
+            assertEquals(0, out.getBytesIn());
+            assertEquals(0, out.getBytesOut());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Method that checks the round trip of empty and 1-byte bzip2 files.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testBZip2Small() throws Exception {
+        assertBZip2(new byte[0]);
+        assertBZip2(new byte[]{42});
+    }
+
+    /**
+     * Method that checks the round trip of a bzip2 file of several blocks, with long runs
+     * of the same byte.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testBZip2Large() throws Exception {
+        byte[] data = createData(new Random(3), LARGE_SIZE);
+        Arrays.fill(data, 1000, 300000, (byte)'a');
+        long start = System.currentTimeMillis();
+        assertBZip2(data);
+        Log.i(TAG, String.format("bzip2 round trip of %d bytes in %d ms", //$NON-NLS-1$
+                Integer.valueOf(data.length),
+                Long.valueOf(System.currentTimeMillis() - start)));
+    }
+
+    /**
+     * Method that checks the round trip of a tar archive with long names, long link
+     * targets, symbolic links, directories and empty files.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testTar() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 300) {
+            sb.append("long-directory-name/"); //$NON-NLS-1$
+        }
+        String dir = sb.toString();
+        String longName = dir + "file.txt"; //$NON-NLS-1$
+        byte[] data = createData(new Random(4), 1000);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TarOutputStream out = new TarOutputStream(baos);
+        out.putEntry(dir, TarOutputStream.TYPE_DIRECTORY, 0755, 0, MTIME, null);
+        out.putEntry(longName, TarOutputStream.TYPE_FILE, 0644, data.length, MTIME, null);
+        out.write(data);
+        out.closeEntry();
+        out.putEntry("empty", TarOutputStream.TYPE_FILE, 0600, 0, MTIME, null); //$NON-NLS-1$
+        out.closeEntry();
+        out.putEntry("one", TarOutputStream.TYPE_FILE, 0600, 1, MTIME, null); //$NON-NLS-1$
+        out.write('x');
+        out.closeEntry();
+        out.putEntry("link", TarOutputStream.TYPE_SYMLINK, //$NON-NLS-1$
+                0777, 0, MTIME, longName);
+        out.close();
+        assertEquals(0, baos.size() % 512);
+
+        TarInputStream in = new TarInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        try {
+            TarInputStream.Entry entry = in.getNextEntry();
+            assertTrue(entry.isDirectory());
+            assertEquals(dir, entry.getName());
+            assertEquals(0755, entry.getMode());
+
+            entry = in.getNextEntry();
+            assertTrue(entry.isFile());
+            assertEquals(longName, entry.getName());
+            assertEquals(data.length, entry.getSize());
+            assertEquals(MTIME, entry.getTime());
+            assertTrue(Arrays.equals(data, TestFileHelper.readFully(in)));
+
+            entry = in.getNextEntry();
+            assertEquals("empty", entry.getName()); //$NON-NLS-1$
+            assertEquals(0, TestFileHelper.readFully(in).length);
+
+            entry = in.getNextEntry();
+            assertEquals("one", entry.getName()); //$NON-NLS-1$
+            assertTrue(Arrays.equals(new byte[]{'x'}, TestFileHelper.readFully(in)));
+
+            entry = in.getNextEntry();
+            assertTrue(entry.isSymlink());
+            assertEquals("link", entry.getName()); //$NON-NLS-1$
+            assertEquals(longName, entry.getLinkName());
+
+            assertNull(in.getNextEntry());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method that checks that a tar entry can't be written past its declared size.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testTarOverflow() throws Exception {
+        TarOutputStream out = new TarOutputStream(new ByteArrayOutputStream());
+        out.putEntry("one", TarOutputStream.TYPE_FILE, 0600, 1, MTIME, null); //$NON-NLS-1$
+        try {
+            out.write(new byte[2]);
+            fail("Wrote past the size of the entry"); //$NON-NLS-1$
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Method that checks the round trip of a zip archive with directories, symbolic links,
+     * and empty, 1-byte and large files.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testZip() throws Exception {
+        byte[] large = createData(new Random(5), LARGE_SIZE);
+        OutputStream os = new FileOutputStream(this.mFile);
+        ParallelZipOutputStream out = new ParallelZipOutputStream(os);
+        try {
+            out.putDirectory("dir/", 0755, MTIME); //$NON-NLS-1$
+            out.putFile("dir/empty", 0644, MTIME, 0); //$NON-NLS-1$
+            // The copy loop writes nothing for an empty file
+            out.write(large, 0, 0);
+            out.putFile("dir/one", 0644, MTIME, 1); //$NON-NLS-1$
+            out.write('x');
+            out.putSymlink("dir/link", "one", MTIME); //$NON-NLS-1$ //$NON-NLS-2$
+            out.putFile("large", 0600, MTIME, large.length); //$NON-NLS-1$
+            for (int i = 0; i < large.length; i += 65536) {
+                out.write(large, i, Math.min(65536, large.length - i));
+            }
+            out.closeEntry();
+            out.finish();
+        } finally {
+            out.close();
+        }
+
+        ZipFile zip = new ZipFile(this.mFile);
+        try {
+            assertEquals(5, zip.size());
+            assertTrue(zip.getEntry("dir/").isDirectory()); //$NON-NLS-1$
+            assertEquals(0, TestFileHelper.readEntry(zip, "dir/empty").length); //$NON-NLS-1$
+            assertTrue(Arrays.equals(new byte[]{'x'},
+                    TestFileHelper.readEntry(zip, "dir/one"))); //$NON-NLS-1$
+            byte[] link = TestFileHelper.readEntry(zip, "dir/link"); //$NON-NLS-1$
+            assertEquals("one", new String(link, "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+            assertTrue(Arrays.equals(large, TestFileHelper.readEntry(zip, "large"))); //$NON-NLS-1$
+        } finally {
+            zip.close();
+        }
+
+        // The modes are only read back by our extractor
+        ParallelZipExtractor extractor = new ParallelZipExtractor(this.mFile);
+        try {
+            List<ParallelZipExtractor.Entry> entries = extractor.getEntries();
+            assertEquals(5, entries.size());
+            for (ParallelZipExtractor.Entry entry : entries) {
+                assertEquals(entry.getName().equals("dir/link"), //$NON-NLS-1$
+                        entry.isSymlink());
+                assertEquals(entry.getName().equals("dir/"), //$NON-NLS-1$
+                        entry.isDirectory());
+            }
+            assertEquals(large.length + 1, extractor.getUncompressedSize());
+        } finally {
+            extractor.close();
+        }
+    }
+
+    /**
+     * Method that checks that a zip file can't be written without an entry.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testZipWithoutEntry() throws Exception {
+        ParallelZipOutputStream out = new ParallelZipOutputStream(new ByteArrayOutputStream());
+        try {
+            out.write(new byte[1]);
+            fail("Wrote without an entry"); //$NON-NLS-1$
+        } catch (IOException ex) {
+            // Expected
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Method that compresses data with gzip and checks it with the platform decoder.
+     *
+     * @param data The data
+     * @throws IOException If an I/O error occurs
+     */
+    private static void assertGzip(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ParallelGzipOutputStream out = new ParallelGzipOutputStream(baos);
+        out.write(data);
+        out.close();
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        try {
+            assertTrue(Arrays.equals(data, TestFileHelper.readFully(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method that compresses data with bzip2 and checks it with our decoder.
+     *
+     * @param data The data
+     * @throws IOException If an I/O error occurs
+     */
+    private static void assertBZip2(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BZip2OutputStream out = new BZip2OutputStream(baos);
+        out.write(data);
+        out.close();
+        InputStream in = new BZip2InputStream(new ByteArrayInputStream(baos.toByteArray()));
+        try {
+            assertTrue(Arrays.equals(data, TestFileHelper.readFully(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method that creates compressible data.
+     *
+     * @param random The random generator
+     * @param size The size of the data
+     * @return byte[] The data
+     */
+    private static byte[] createData(Random random, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte)('a' + random.nextInt(16));
+        }
+        return data;
+    }
+}
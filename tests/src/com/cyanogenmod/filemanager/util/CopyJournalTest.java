@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A class for testing the journal of the copies and the resume of the interrupted copies.
+ *
+ * @see CopyJournal
+ * @see FileCopier
+ */
+public class CopyJournalTest extends android.test.AndroidTestCase {
+
+    // Three checkpoints and a tail
+    private static final long SIZE = 3 * CopyJournal.CHECKPOINT_SIZE + 123;
+
+    // The copier uses its minimum buffer (1MB)
+    private static final int BUFFER_SIZE = 0;
+
+    private File mDir;
+    private File mJournals;
+    private File mSrc;
+    private File mDst;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mDir = TestFileHelper.createTestFolder(
+                getContext(), "copy-journal-test"); //$NON-NLS-1$
+        this.mJournals = new File(this.mDir, "journals"); //$NON-NLS-1$
+        this.mSrc = new File(this.mDir, "src"); //$NON-NLS-1$
+        this.mDst = new File(this.mDir, "dst"); //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileHelper.deleteFolder(this.mDir);
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks that a journal truncated in the middle of a record is loaded up to
+     * its last complete record, and that the new records are appended after it.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testTruncatedRecord() throws Exception {
+        createFile(this.mSrc, new Random(1), 16);
+        createFile(this.mDst, new Random(1), 16);
+
+        CopyJournal journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertFalse(journal.isResumed());
+        journal.onFileStarted(this.mSrc);
+        journal.onCheckpoint(this.mSrc, CopyJournal.CHECKPOINT_SIZE);
+        File file = getJournalFile();
+        long complete = file.length();
+        journal.onCheckpoint(this.mSrc, 2 * CopyJournal.CHECKPOINT_SIZE);
+        journal.close();
+
+        // The process died while writing the second checkpoint
+        truncate(file, complete + 5);
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertTrue(journal.isResumed());
+        assertEquals(complete, file.length());
+        List<Long> checkpoints = journal.getCheckpoints(this.mSrc);
+        assertEquals(1, checkpoints.size());
+        assertEquals(CopyJournal.CHECKPOINT_SIZE, checkpoints.get(0).longValue());
+        journal.onCheckpoint(this.mSrc, 3 * CopyJournal.CHECKPOINT_SIZE);
+        journal.close();
+
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        checkpoints = journal.getCheckpoints(this.mSrc);
+        assertEquals(2, checkpoints.size());
+        assertEquals(3 * CopyJournal.CHECKPOINT_SIZE, checkpoints.get(1).longValue());
+        journal.close();
+
+        // A journal truncated in its header is restarted
+        truncate(file, 6);
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertFalse(journal.isResumed());
+        assertTrue(journal.getCheckpoints(this.mSrc).isEmpty());
+        journal.close();
+
+        // And so is the journal of a removed destination
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        journal.onFileStarted(this.mSrc);
+        journal.onCheckpoint(this.mSrc, CopyJournal.CHECKPOINT_SIZE);
+        journal.close();
+        assertTrue(this.mDst.delete());
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertFalse(journal.isResumed());
+        assertTrue(journal.getCheckpoints(this.mSrc).isEmpty());
+        journal.delete();
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Method that checks that an interrupted copy is resumed from the last checkpoint whose
+     * data matches the source, and from the beginning if none matches.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testResumeCorruptedPrefix() throws Exception {
+        createFile(this.mSrc, new Random(2), SIZE);
+        interruptCopy(CopyJournal.CHECKPOINT_SIZE);
+
+        // The second chunk of the destination is corrupted
+        corrupt(this.mDst, CopyJournal.CHECKPOINT_SIZE + 1000);
+        CopyJournal journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertTrue(journal.isResumed());
+        assertEquals(2, journal.getCheckpoints(this.mSrc).size());
+        assertEquals(CopyJournal.CHECKPOINT_SIZE, verify(journal));
+        ProgressListener listener = copy(journal);
+        assertEquals(CopyJournal.CHECKPOINT_SIZE, listener.mFirst);
+        assertEquals(SIZE, listener.mTotal);
+        assertSameContent(this.mSrc, this.mDst);
+        // The checkpoints after the resumed one were replaced
+        assertEquals(3, journal.getCheckpoints(this.mSrc).size());
+        journal.close();
+
+        // The first chunk is corrupted, so nothing can be reused
+        corrupt(this.mDst, 10);
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertTrue(journal.isResumed());
+        assertEquals(0, verify(journal));
+        listener = copy(journal);
+        assertEquals(SIZE, listener.mTotal);
+        assertSameContent(this.mSrc, this.mDst);
+        journal.close();
+
+        // The destination was truncated before the first checkpoint
+        truncate(this.mDst, CopyJournal.CHECKPOINT_SIZE - 1);
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertEquals(0, verify(journal));
+        listener = copy(journal);
+        assertEquals(SIZE, listener.mTotal);
+        assertSameContent(this.mSrc, this.mDst);
+        journal.delete();
+    }
+
+    /**
+     * Method that checks that the checkpoints and the completion of a file are discarded
+     * if the source changed between two attempts of the copy.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testChangedSource() throws Exception {
+        createFile(this.mSrc, new Random(3), SIZE);
+        long lastModified = this.mSrc.lastModified();
+        interruptCopy(CopyJournal.CHECKPOINT_SIZE);
+
+        // Same size, different content and modification time
+        createFile(this.mSrc, new Random(4), SIZE);
+        assertTrue(this.mSrc.setLastModified(lastModified - 60000));
+        CopyJournal journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertTrue(journal.isResumed());
+        assertTrue(journal.getCheckpoints(this.mSrc).isEmpty());
+        ProgressListener listener = copy(journal);
+        assertEquals(SIZE, listener.mTotal);
+        assertSameContent(this.mSrc, this.mDst);
+        journal.onFileCompleted(this.mSrc);
+        journal.close();
+
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertTrue(journal.isCompleted(this.mSrc, this.mDst));
+        journal.close();
+
+        // The source changed after its copy completed
+        assertTrue(this.mSrc.setLastModified(lastModified - 120000));
+        journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertFalse(journal.isCompleted(this.mSrc, this.mDst));
+        assertTrue(journal.getCheckpoints(this.mSrc).isEmpty());
+        journal.delete();
+    }
+
+    /**
+     * Method that starts a journaled copy of the source and cancels it once an amount of
+     * data was copied. The journal is kept.
+     *
+     * @param limit The amount of data to copy
+     * @throws IOException If the journal couldn't be opened
+     */
+    private void interruptCopy(long limit) throws IOException {
+        CopyJournal journal = CopyJournal.open(this.mJournals, this.mSrc, this.mDst);
+        assertFalse(journal.isResumed());
+        ProgressListener listener = new ProgressListener(limit);
+        FileCopier copier = new FileCopier(BUFFER_SIZE, listener);
+        listener.mCopier = copier;
+        copier.setJournal(journal);
+        assertFalse(copier.copyFile(this.mSrc, this.mDst));
+        assertTrue(copier.isCancelled());
+        assertTrue(this.mDst.length() > limit);
+        assertTrue(this.mDst.length() < SIZE);
+        journal.close();
+    }
+
+    /**
+     * Method that copies the source to the destination with a journal.
+     *
+     * @param journal The journal
+     * @return ProgressListener The listener of the copy
+     */
+    private ProgressListener copy(CopyJournal journal) {
+        ProgressListener listener = new ProgressListener(Long.MAX_VALUE);
+        FileCopier copier = new FileCopier(BUFFER_SIZE, listener);
+        copier.setJournal(journal);
+        assertTrue(copier.copyFile(this.mSrc, this.mDst));
+        return listener;
+    }
+
+    /**
+     * Method that verifies the checkpoints of the journal against the source and the
+     * destination, as the copier does before resuming a copy.
+     *
+     * @param journal The journal
+     * @return long The offset where the copy would be resumed
+     * @throws IOException If the files couldn't be read
+     */
+    private long verify(CopyJournal journal) throws IOException {
+        FileInputStream in = new FileInputStream(this.mSrc);
+        RandomAccessFile out = new RandomAccessFile(this.mDst, "r"); //$NON-NLS-1$
+        try {
+            FileChannel src = in.getChannel();
+            FileChannel dst = out.getChannel();
+            return new FileCopier(BUFFER_SIZE, null).verifyCheckpoints(
+                    this.mSrc, src, dst, journal.getCheckpoints(this.mSrc));
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Method that returns the only journal of the test
+     *
+     * @return File The journal
+     */
+    private File getJournalFile() {
+        File[] files = this.mJournals.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    /**
+     * Method that creates a file of random data
+     *
+     * @param file The file
+     * @param random The source of the data
+     * @param size The size of the file
+     * @throws IOException If the file couldn't be written
+     */
+    private static void createFile(File file, Random random, long size) throws IOException {
+        byte[] data = new byte[1024 * 1024];
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            long written = 0;
+            while (written < size) {
+                random.nextBytes(data);
+                int count = (int)Math.min(data.length, size - written);
+                fos.write(data, 0, count);
+                written += count;
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Method that flips the bits of a byte of a file
+     *
+     * @param file The file
+     * @param offset The offset of the byte
+     * @throws IOException If the file couldn't be written
+     */
+    private static void corrupt(File file, long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(~b);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Method that truncates a file
+     *
+     * @param file The file
+     * @param length The new length of the file
+     * @throws IOException If the file couldn't be truncated
+     */
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Method that checks that two files have the same content
+     *
+     * @param expected The expected file
+     * @param actual The actual file
+     * @throws IOException If the files couldn't be read
+     */
+    private static void assertSameContent(File expected, File actual) throws IOException {
+        assertEquals(expected.length(), actual.length());
+        InputStream in1 = new FileInputStream(expected);
+        InputStream in2 = new FileInputStream(actual);
+        try {
+            byte[] data1 = new byte[64 * 1024];
+            byte[] data2 = new byte[data1.length];
+            int read;
+            while ((read = TestFileHelper.readFully(in1, data1)) > 0) {
+                assertEquals(read, TestFileHelper.readFully(in2, data2));
+                assertTrue(Arrays.equals(data1, data2));
+            }
+        } finally {
+            in1.close();
+            in2.close();
+        }
+    }
+
+    /**
+     * A listener that records the progress of a copy, and cancels it once an amount of data
+     * was copied.
+     */
+    private static class ProgressListener implements FileCopier.OnCopyProgressListener {
+        private final long mLimit;
+        FileCopier mCopier;
+        long mFirst = -1;
+        long mTotal;
+
+        ProgressListener(long limit) {
+            super();
+            this.mLimit = limit;
+        }
+
+        @Override
+        public void onCopyProgress(File src, long bytes) {
+            if (this.mFirst == -1) {
+                this.mFirst = bytes;
+            }
+            this.mTotal += bytes;
+            if (this.mTotal > this.mLimit && this.mCopier != null) {
+                this.mCopier.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A class for testing the decoders of compressed files and archives, with valid, corrupted
+ * and truncated inputs.
+ *
+ * @see BZip2InputStream
+ * @see XZInputStream
+ * @see LzmaInputStream
+ * @see TarInputStream
+ * @see ParallelZipExtractor
+ */
+public class DecompressStreamsTest extends android.test.AndroidTestCase {
+
+    private static final String[] WORDS = {
+        "file", "manager", //$NON-NLS-1$ //$NON-NLS-2$
+        "archive", "stream", //$NON-NLS-1$ //$NON-NLS-2$
+        "block", "entry", //$NON-NLS-1$ //$NON-NLS-2$
+        "link", "folder" //$NON-NLS-1$ //$NON-NLS-2$
+    };
+
+    private static final byte[] HELLO = {'h', 'e', 'l', 'l', 'o', '\n'};
+
+    private static final long MTIME = 1400000000000L;
+
+    // xz -6 (CRC64) of createText(new Random(1), 4096)
+    private static final byte[] XZ_TEXT = fromHex(
+            "fd377a585a000004e6d6b4460200210116000000742fe5a3e00fff029a5d0032" //$NON-NLS-1$
+            + "9b8aeff21abc807919d7c693d6e1c7a113c073b3120139d05a33454525b875f2" //$NON-NLS-1$
+            + "b0675d02d0f046727c998ca00c292186f091dd288b2e26b89aafbbef5dc81f97" //$NON-NLS-1$
+            + "d1b0739e77baf0426cedb7af910818a0ea5bc18e7e1d0e62a0af0d9e14d796ce" //$NON-NLS-1$
+            + "2326cfa1235a92c881e65016f71681e5d80d7c91d4d2f015ac50231f898bff9a" //$NON-NLS-1$
+            + "a6e0fa02331b9cf9841ae6699042d4a1b52bd6de3af8e845ce8214c8a1919e58" //$NON-NLS-1$
+            + "6b976f22f6411c36e7e016861b97fbf807d4da93dbc4fb554b773371b91efe69" //$NON-NLS-1$
+            + "0b1cfb0efa28aefa26490fe8d8e0cfbe5bd36ba4c7af948e0f6399db97f1073a" //$NON-NLS-1$
+            + "fd58e65e797ded1ec59dece28d9df8028e3d410ebdc478dc6995bc370f574ce5" //$NON-NLS-1$
+            + "86358eae8a3514e943ce4f61f9054895fb470a83adcb1ac05d2b85ed0c0006b2" //$NON-NLS-1$
+            + "e1bf72b06826b2b6e4e34c3690c823b1cceb0dd6f9943ecd29efa2d9e3537890" //$NON-NLS-1$
+            + "12de3f7781f06d52c8795ef5180ae432bf3b59a5cfc909b098a2cb63da153cf3" //$NON-NLS-1$
+            + "2f220dbca08c0239996f458c02b0d69ad9b3fc2e6be817989a06b8e3618cb655" //$NON-NLS-1$
+            + "b7229d2696e3e21abfff8847bbfd3401af8ca8b38f09f0eddbc167188d683ad2" //$NON-NLS-1$
+            + "6b883b57cfb55791edd18d00b38fbbb32fff76c4a33c08b2d226a33534822bf9" //$NON-NLS-1$
+            + "088a8c395b22aae30d89f44c07e858b5bc56b0891cb9dbc389a4f9cbfee42a83" //$NON-NLS-1$
+            + "5f8959ad2e41a77a4749ea4b51c47cdd12ae754fe2220247763454c8b1fc0fd2" //$NON-NLS-1$
+            + "4e657b15be8c46cf0e3b1e6e6b8ede61c24fcfc7f4da12b9aff67459c4cb4fd3" //$NON-NLS-1$
+            + "3ef3635915c55ef021ae226efdc6430fd60e46cbe0c7710732e230cf1b2615ed" //$NON-NLS-1$
+            + "3130d711d724520bdacdfaadf746da9d556561d6cb76f61edb676556c6179bc1" //$NON-NLS-1$
+            + "bb3223fbb0fb0a6d704206705294a21b424b92b912e3f2d600112e7606b7aa8e" //$NON-NLS-1$
+            + "02687a51ba1127ae3b182c073b972175dc895b763a893c9a7e0000001049bf32" //$NON-NLS-1$
+            + "93faa5f20001b605802000001e5b3212b1c467fb020000000004595a"); //$NON-NLS-1$
+
+    // lzma -6 (.lzma, unknown size with end marker) of the same text
+    private static final byte[] LZMA_TEXT = fromHex(
+            "5d00008000ffffffffffffffff00329b8aeff21abc807919d7c693d6e1c7a113" //$NON-NLS-1$
+            + "c073b3120139d05a33454525b875f2b0675d02d0f046727c998ca00c292186f0" //$NON-NLS-1$
+            + "91dd288b2e26b89aafbbef5dc81f97d1b0739e77baf0426cedb7af910818a0ea" //$NON-NLS-1$
+            + "5bc18e7e1d0e62a0af0d9e14d796ce2326cfa1235a92c881e65016f71681e5d8" //$NON-NLS-1$
+            + "0d7c91d4d2f015ac50231f898bff9aa6e0fa02331b9cf9841ae6699042d4a1b5" //$NON-NLS-1$
+            + "2bd6de3af8e845ce8214c8a1919e586b976f22f6411c36e7e016861b97fbf807" //$NON-NLS-1$
+            + "d4da93dbc4fb554b773371b91efe690b1cfb0efa28aefa26490fe8d8e0cfbe5b" //$NON-NLS-1$
+            + "d36ba4c7af948e0f6399db97f1073afd58e65e797ded1ec59dece28d9df8028e" //$NON-NLS-1$
+            + "3d410ebdc478dc6995bc370f574ce586358eae8a3514e943ce4f61f9054895fb" //$NON-NLS-1$
+            + "470a83adcb1ac05d2b85ed0c0006b2e1bf72b06826b2b6e4e34c3690c823b1cc" //$NON-NLS-1$
+            + "eb0dd6f9943ecd29efa2d9e353789012de3f7781f06d52c8795ef5180ae432bf" //$NON-NLS-1$
+            + "3b59a5cfc909b098a2cb63da153cf32f220dbca08c0239996f458c02b0d69ad9" //$NON-NLS-1$
+            + "b3fc2e6be817989a06b8e3618cb655b7229d2696e3e21abfff8847bbfd3401af" //$NON-NLS-1$
+            + "8ca8b38f09f0eddbc167188d683ad26b883b57cfb55791edd18d00b38fbbb32f" //$NON-NLS-1$
+            + "ff76c4a33c08b2d226a33534822bf9088a8c395b22aae30d89f44c07e858b5bc" //$NON-NLS-1$
+            + "56b0891cb9dbc389a4f9cbfee42a835f8959ad2e41a77a4749ea4b51c47cdd12" //$NON-NLS-1$
+            + "ae754fe2220247763454c8b1fc0fd24e657b15be8c46cf0e3b1e6e6b8ede61c2" //$NON-NLS-1$
+            + "4fcfc7f4da12b9aff67459c4cb4fd33ef3635915c55ef021ae226efdc6430fd6" //$NON-NLS-1$
+            + "0e46cbe0c7710732e230cf1b2615ed3130d711d724520bdacdfaadf746da9d55" //$NON-NLS-1$
+            + "6561d6cb76f61edb676556c6179bc1bb3223fbb0fb0a6d704206705294a21b42" //$NON-NLS-1$
+            + "4b92b912e3f2d600112e7606b7aa8e02687a51ba1127ae3b182c073b972175dc" //$NON-NLS-1$
+            + "895b763a8953231dffffcba24e5d"); //$NON-NLS-1$
+
+    // xz -C crc32 of "hello\n"
+    private static final byte[] XZ_HELLO_CRC32 = fromHex(
+            "fd377a585a0000016922de360200210116000000742fe5a301000568656c6c6f" //$NON-NLS-1$
+            + "0a00000020303a3600011a06c5eac8799042990d010000000001595a"); //$NON-NLS-1$
+
+    // xz -C crc64 of "hello\n"
+    private static final byte[] XZ_HELLO_CRC64 = fromHex(
+            "fd377a585a000004e6d6b4460200210116000000742fe5a301000568656c6c6f" //$NON-NLS-1$
+            + "0a000000a56097f194f6fde000011e06c12fa41d1fb6f37d010000000004595a"); //$NON-NLS-1$
+
+    // xz -C sha256 of "hello\n"
+    private static final byte[] XZ_HELLO_SHA256 = fromHex(
+            "fd377a585a00000ae1fb0ca10200210116000000742fe5a301000568656c6c6f" //$NON-NLS-1$
+            + "0a0000005891b5b522d5df086d0ff0b110fbd9d21bb4fc7163af34d08286a2e8" //$NON-NLS-1$
+            + "46f6be03000136066b81f940189b4b9a01000000000a595a"); //$NON-NLS-1$
+
+    // xz -C none of "hello\n"
+    private static final byte[] XZ_HELLO_NONE = fromHex(
+            "fd377a585a000000ff12d9410200210116000000742fe5a301000568656c6c6f" //$NON-NLS-1$
+            + "0a00000000011606c9a57dd506729e7a010000000000595a"); //$NON-NLS-1$
+
+    // GNU tar --format=ustar: a path split in the prefix field, a hard link and a
+    // symbolic link
+    private static final byte[] USTAR_TGZ = fromHex(
+            "1f8b0800000000000203edd54b6e83301405508fbb8a6ce0a906ffd66395478c" //$NON-NLS-1$
+            + "4470e51035d97d8d67454aa428851671cf84cf00d9be5cdb53d325fe1863bad1" //$NON-NLS-1$
+            + "573706f234f813531f8723f1102fc74063a481b9a131307d266ebb2bc5b63c5d" //$NON-NLS-1$
+            + "cea34f14d8379cdec53d3273c6946b36bf96fbaa564a6bedcafbda54468b8311" //$NON-NLS-1$
+            + "2b2853c84379f53bf3c96d84ff8ff96b252bb9f1fc7f6f61179dfe349ca59778" //$NON-NLS-1$
+            + "5a0fabf583fccd3c7f6b8d3848e45f8ab5e4af347de34dc05eb55dcfebf45f3e" //$NON-NLS-1$
+            + "e8bffdd9ff2a9f176ae3fddf88c07d1fb101ec56f0a9f9fbfecb79ff5d9dcfff" //$NON-NLS-1$
+            + "6a8dcd69e7fd3fdf4e628dfc9d73cfe46f55deff6be40f000000000000000000" //$NON-NLS-1$
+            + "0000f0b46f19c31ac800280000"); //$NON-NLS-1$
+
+    // GNU tar --format=pax: a path longer than 100 bytes, and a hard link and a
+    // symbolic link to it
+    private static final byte[] PAX_TGZ = fromHex(
+            "1f8b0800000000000203edd7416e83301005d059f7143e41f078ec8cbae8becb" //$NON-NLS-1$
+            + "5ec152881235ad10a412bd7d49b34948a20aa93642fe6f036203c8fc6f6655bd" //$NON-NLS-1$
+            + "c5feb58e9bbaedaa260d3b587b4ff66c7cb4ce0ab113f1deebef7511b14aa6a7" //$NON-NLS-1$
+            + "0cbeba636c8747a132b1b069e271f7d2cca47a22984f8e253e655c437898ffd3" //$NON-NLS-1$
+            + "f975fe037b26139694fff1cb61fd27f4bf8ed6df5b76e8ff3cfd1f66eeffedfe" //$NON-NLS-1$
+            + "50630f2839ffd6fa9bfe9740c62e29ff4bedffd8237c055b5dce7fbbd86e12dc" //$NON-NLS-1$
+            + "e3cffd9f47f31f333bcc7f99f6ff6773d87fbee31fa04c89223f29ff77e63fd5" //$NON-NLS-1$
+            + "61fee31cdf5ee1fbff55ff77df1f73acff9dfe1faea1ffd1ff905aa2c8dfe45f" //$NON-NLS-1$
+            + "55a7f4ff5a858c43ff03000000000000fc8b1f812e76e800280000"); //$NON-NLS-1$
+
+    private File mRoot;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mRoot = TestFileHelper.createTestFolder(getContext(), "decompress-test"); //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileHelper.deleteFolder(this.mRoot);
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks that the concatenated bzip2 streams (as written by pbzip2) are
+     * read as a single stream.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testBZip2Multistream() throws Exception {
+        byte[] text = createText(new Random(1), 4096);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(bzip2(text));
+        baos.write(bzip2(new byte[0]));
+        baos.write(bzip2(HELLO));
+        byte[] expected = concat(text, HELLO);
+        InputStream in = new BZip2InputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertTrue(Arrays.equals(expected, TestFileHelper.readFully(in)));
+    }
+
+    /**
+     * Method that checks that a corrupted or truncated bzip2 stream fails.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testBZip2Corrupted() throws Exception {
+        byte[] data = bzip2(createText(new Random(1), 4096));
+        assertFails(new BZip2InputStream(new ByteArrayInputStream(corrupt(data, 200))));
+        assertFails(new BZip2InputStream(
+                new ByteArrayInputStream(Arrays.copyOf(data, data.length / 2))));
+        assertFails(new BZip2InputStream(
+                new ByteArrayInputStream(Arrays.copyOf(data, data.length - 4))));
+        assertFails(new BZip2InputStream(new ByteArrayInputStream(XZ_HELLO_CRC64)));
+    }
+
+    /**
+     * Method that checks the xz streams, with all the types of integrity checks.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testXZ() throws Exception {
+        assertTrue(Arrays.equals(createText(new Random(1), 4096),
+                TestFileHelper.readFully(new XZInputStream(new ByteArrayInputStream(XZ_TEXT)))));
+        byte[][] hellos = {XZ_HELLO_CRC32, XZ_HELLO_CRC64, XZ_HELLO_SHA256, XZ_HELLO_NONE};
+        for (byte[] hello : hellos) {
+            assertTrue(Arrays.equals(HELLO,
+                    TestFileHelper.readFully(new XZInputStream(new ByteArrayInputStream(hello)))));
+        }
+    }
+
+    /**
+     * Method that checks that the concatenated xz streams, with stream padding between them,
+     * are read as a single stream.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testXZMultistream() throws Exception {
+        byte[] data = concat(XZ_HELLO_CRC32, new byte[4]);
+        data = concat(data, XZ_TEXT);
+        data = concat(data, XZ_HELLO_SHA256);
+        byte[] expected = concat(HELLO, createText(new Random(1), 4096));
+        expected = concat(expected, HELLO);
+        assertTrue(Arrays.equals(expected,
+                TestFileHelper.readFully(new XZInputStream(new ByteArrayInputStream(data)))));
+
+        // The stream padding must be a multiple of 4 bytes
+        data = concat(XZ_HELLO_CRC32, new byte[8]);
+        assertTrue(Arrays.equals(HELLO,
+                TestFileHelper.readFully(new XZInputStream(new ByteArrayInputStream(data)))));
+        data = concat(XZ_HELLO_CRC32, new byte[3]);
+        data = concat(data, XZ_HELLO_CRC32);
+        assertFails(new XZInputStream(new ByteArrayInputStream(data)));
+        assertFails(new XZInputStream(
+                new ByteArrayInputStream(concat(XZ_HELLO_CRC32, new byte[2]))));
+    }
+
+    /**
+     * Method that checks that a corrupted or truncated xz stream fails.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testXZCorrupted() throws Exception {
+        assertFails(new XZInputStream(new ByteArrayInputStream(corrupt(XZ_TEXT, 200))));
+        // The SHA-256 check precedes the index (12 bytes) and the footer (12 bytes)
+        assertFails(new XZInputStream(new ByteArrayInputStream(
+                corrupt(XZ_HELLO_SHA256, XZ_HELLO_SHA256.length - 25))));
+        assertFails(new XZInputStream(
+                new ByteArrayInputStream(Arrays.copyOf(XZ_TEXT, XZ_TEXT.length / 2))));
+        assertFails(new XZInputStream(
+                new ByteArrayInputStream(Arrays.copyOf(XZ_TEXT, XZ_TEXT.length - 1))));
+        assertFails(new XZInputStream(new ByteArrayInputStream(LZMA_TEXT)));
+    }
+
+    /**
+     * Method that checks the lzma streams (without and with a known size).
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testLzma() throws Exception {
+        byte[] text = createText(new Random(1), 4096);
+        InputStream in = new LzmaInputStream(new ByteArrayInputStream(LZMA_TEXT));
+        assertTrue(Arrays.equals(text, TestFileHelper.readFully(in)));
+
+        // A known size stops the decoder before the end marker
+        byte[] sized = LZMA_TEXT.clone();
+        Arrays.fill(sized, 5, 13, (byte)0);
+        sized[5] = 100;
+        assertTrue(Arrays.equals(Arrays.copyOf(text, 100),
+                TestFileHelper.readFully(new LzmaInputStream(new ByteArrayInputStream(sized)))));
+    }
+
+    /**
+     * Method that checks that a truncated or invalid lzma stream fails.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testLzmaCorrupted() throws Exception {
+        assertFails(new LzmaInputStream(
+                new ByteArrayInputStream(Arrays.copyOf(LZMA_TEXT, LZMA_TEXT.length / 2))));
+        assertFails(new LzmaInputStream(
+                new ByteArrayInputStream(Arrays.copyOf(LZMA_TEXT, 10))));
+        byte[] data = LZMA_TEXT.clone();
+        data[0] = (byte)0xff;
+        assertFails(new LzmaInputStream(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Method that checks a ustar archive, with a name split in the prefix field, a hard
+     * link and a symbolic link.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testTarUstar() throws Exception {
+        String dir = "a-directory-with-a-name-long-enough-to-need-" //$NON-NLS-1$
+                + "the-prefix-of-the-ustar-header"; //$NON-NLS-1$
+        Map<String, TarInputStream.Entry> entries = new HashMap<String, TarInputStream.Entry>();
+        Map<String, byte[]> contents = new HashMap<String, byte[]>();
+        readTar(USTAR_TGZ, entries, contents);
+        assertEquals(6, entries.size());
+        assertTrue(entries.get(dir + "/").isDirectory()); //$NON-NLS-1$
+        assertTrue(entries.get(dir + "/" + dir + "/").isDirectory()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Arrays.equals("long\n".getBytes(), //$NON-NLS-1$
+                contents.get(dir + "/" + dir + "/long"))); //$NON-NLS-1$ //$NON-NLS-2$
+
+        TarInputStream.Entry file = entries.get("file"); //$NON-NLS-1$
+        assertTrue(file.isFile());
+        assertEquals(0640, file.getMode());
+        assertEquals(MTIME, file.getTime());
+        assertTrue(Arrays.equals(HELLO, contents.get("file"))); //$NON-NLS-1$
+
+        TarInputStream.Entry hard = entries.get("hard"); //$NON-NLS-1$
+        assertTrue(hard.isHardLink());
+        assertEquals(0, hard.getSize());
+        assertEquals("file", hard.getLinkName()); //$NON-NLS-1$
+
+        TarInputStream.Entry sym = entries.get("sym"); //$NON-NLS-1$
+        assertTrue(sym.isSymlink());
+        assertEquals("file", sym.getLinkName()); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks a pax archive, with a name and link targets longer than 100 bytes.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testTarPax() throws Exception {
+        char[] p = new char[120];
+        Arrays.fill(p, 'p');
+        String dir = new String(p);
+        Map<String, TarInputStream.Entry> entries = new HashMap<String, TarInputStream.Entry>();
+        Map<String, byte[]> contents = new HashMap<String, byte[]>();
+        readTar(PAX_TGZ, entries, contents);
+        assertEquals(4, entries.size());
+        assertTrue(entries.get(dir + "/").isDirectory()); //$NON-NLS-1$
+        assertTrue(Arrays.equals("pax\n".getBytes(), //$NON-NLS-1$
+                contents.get(dir + "/file"))); //$NON-NLS-1$
+        assertTrue(entries.get("hard").isHardLink()); //$NON-NLS-1$
+        assertEquals(dir + "/file", entries.get("hard").getLinkName()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(entries.get("sym").isSymlink()); //$NON-NLS-1$
+        assertEquals(dir + "/file", entries.get("sym").getLinkName()); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Method that checks that a tar archive with a corrupted header or truncated fails.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testTarCorrupted() throws Exception {
+        byte[] tar = TestFileHelper.readFully(
+                new GZIPInputStream(new ByteArrayInputStream(USTAR_TGZ)));
+        // The name of the first entry is covered by the header checksum
+        assertFails(new TarInputStream(new ByteArrayInputStream(corrupt(tar, 10))));
+        // In the middle of the header of the second entry
+        assertFails(new TarInputStream(new ByteArrayInputStream(Arrays.copyOf(tar, 700))));
+        // In the content of the third entry (after its header at 1024)
+        assertFails(new TarInputStream(new ByteArrayInputStream(Arrays.copyOf(tar, 1538))));
+    }
+
+    /**
+     * Method that checks the names of the archive entries converted to extraction paths.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testSafeArchivePath() throws Exception {
+        assertEquals("a/b", FileHelper.toSafeArchivePath("a/b")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("a/b", FileHelper.toSafeArchivePath("a/b/")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("etc/passwd", //$NON-NLS-1$
+                FileHelper.toSafeArchivePath("/etc/passwd")); //$NON-NLS-1$
+        assertEquals("etc/passwd", //$NON-NLS-1$
+                FileHelper.toSafeArchivePath("../../etc/passwd")); //$NON-NLS-1$
+        assertEquals("a/b", FileHelper.toSafeArchivePath("a/../b")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("a/b", FileHelper.toSafeArchivePath("./a//./b")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("..a", FileHelper.toSafeArchivePath("..a")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("", FileHelper.toSafeArchivePath("/../.")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("", FileHelper.toSafeArchivePath("")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Method that checks that the zip entries are extracted inside the extraction
+     * directory, whatever their names.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testZipExtract() throws Exception {
+        byte[] text = createText(new Random(1), 200000);
+        File zip = new File(this.mRoot, "test.zip"); //$NON-NLS-1$
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            putEntry(zos, "../../evil", HELLO, ZipEntry.DEFLATED); //$NON-NLS-1$
+            putEntry(zos, "/absolute", HELLO, ZipEntry.DEFLATED); //$NON-NLS-1$
+            putEntry(zos, "dir/../stored", HELLO, ZipEntry.STORED); //$NON-NLS-1$
+            putEntry(zos, "dir/text", text, ZipEntry.DEFLATED); //$NON-NLS-1$
+            putEntry(zos, "dir/empty", new byte[0], ZipEntry.DEFLATED); //$NON-NLS-1$
+        } finally {
+            zos.close();
+        }
+
+        File dst = new File(new File(this.mRoot, "out"), "dst"); //$NON-NLS-1$ //$NON-NLS-2$
+        ParallelZipExtractor extractor = new ParallelZipExtractor(zip);
+        try {
+            assertEquals(5, extractor.getEntriesCount());
+            assertEquals(text.length + 3 * HELLO.length, extractor.getUncompressedSize());
+            extractor.extract(dst, createListener());
+        } finally {
+            extractor.close();
+        }
+        TestFileHelper.assertFileContent(HELLO, new File(dst, "evil")); //$NON-NLS-1$
+        TestFileHelper.assertFileContent(HELLO, new File(dst, "absolute")); //$NON-NLS-1$
+        TestFileHelper.assertFileContent(HELLO, new File(dst, "dir/stored")); //$NON-NLS-1$
+        TestFileHelper.assertFileContent(text, new File(dst, "dir/text")); //$NON-NLS-1$
+        assertEquals(0, new File(dst, "dir/empty").length()); //$NON-NLS-1$
+        // Nothing was extracted outside the extraction directory
+        assertEquals(1, dst.getParentFile().list().length);
+        assertFalse(new File(this.mRoot, "evil").exists()); //$NON-NLS-1$
+    }
+
+    /**
+     * Method that checks that a corrupted or truncated zip archive fails.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testZipCorrupted() throws Exception {
+        byte[] text = createText(new Random(1), 200000);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(baos);
+        putEntry(zos, "text", text, ZipEntry.DEFLATED); //$NON-NLS-1$
+        zos.close();
+        byte[] data = baos.toByteArray();
+
+        // The compressed data
+        File zip = new File(this.mRoot, "corrupted.zip"); //$NON-NLS-1$
+        TestFileHelper.writeFile(zip, corrupt(data, data.length / 2));
+        ParallelZipExtractor extractor = new ParallelZipExtractor(zip);
+        try {
+            extractor.extract(new File(this.mRoot, "dst"), createListener()); //$NON-NLS-1$
+            fail("Extracted a corrupted archive"); //$NON-NLS-1$
+        } catch (IOException ex) {
+            // Expected
+        } finally {
+            extractor.close();
+        }
+
+        // Without the central directory
+        TestFileHelper.writeFile(zip, Arrays.copyOf(data, data.length - 30));
+        try {
+            new ParallelZipExtractor(zip).close();
+            fail("Opened a truncated archive"); //$NON-NLS-1$
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Method that reads a gzipped tar archive.
+     *
+     * @param tgz The archive
+     * @param entries The map where to return the entries
+     * @param contents The map where to return the contents of the entries
+     * @throws IOException If an I/O error occurs
+     */
+    private static void readTar(byte[] tgz, Map<String, TarInputStream.Entry> entries,
+            Map<String, byte[]> contents) throws IOException {
+        TarInputStream tar =
+                new TarInputStream(new GZIPInputStream(new ByteArrayInputStream(tgz)));
+        try {
+            TarInputStream.Entry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                entries.put(entry.getName(), entry);
+                contents.put(entry.getName(), TestFileHelper.readFully(tar));
+            }
+        } finally {
+            tar.close();
+        }
+    }
+
+    /**
+     * Method that adds an entry to a zip archive.
+     *
+     * @param zos The zip archive
+     * @param name The name of the entry
+     * @param data The content of the entry
+     * @param method The compression method
+     * @throws IOException If an I/O error occurs
+     */
+    private static void putEntry(ZipOutputStream zos, String name, byte[] data, int method)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setCrc(crc.getValue());
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+        }
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+
+    /**
+     * Method that creates a listener of the extraction.
+     *
+     * @return ParallelZipExtractor.OnExtractListener The listener
+     */
+    private static ParallelZipExtractor.OnExtractListener createListener() {
+        return new ParallelZipExtractor.OnExtractListener() {
+            @Override
+            public void onEntry(String name, File file) {
+                /**NON BLOCK**/
+            }
+            @Override
+            public void onBytes(long bytes) {
+                /**NON BLOCK**/
+            }
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Method that checks that a decoder fails before the end of its stream.
+     *
+     * @param in The decoder
+     */
+    private static void assertFails(InputStream in) {
+        try {
+            try {
+                if (in instanceof TarInputStream) {
+                    TarInputStream tar = (TarInputStream)in;
+                    while (tar.getNextEntry() != null) {
+                        TestFileHelper.readFully(tar);
+                    }
+                } else {
+                    TestFileHelper.readFully(in);
+                }
+            } finally {
+                in.close();
+            }
+            fail("Decoded an invalid stream"); //$NON-NLS-1$
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Method that compresses data with bzip2.
+     *
+     * @param data The data
+     * @return byte[] The compressed data
+     * @throws IOException If an I/O error occurs
+     */
+    private static byte[] bzip2(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BZip2OutputStream out = new BZip2OutputStream(baos);
+        out.write(data);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Method that returns a copy of data with a byte changed.
+     *
+     * @param data The data
+     * @param pos The position of the byte to change
+     * @return byte[] The corrupted data
+     */
+    private static byte[] corrupt(byte[] data, int pos) {
+        byte[] copy = data.clone();
+        copy[pos] ^= 0x55;
+        return copy;
+    }
+
+    /**
+     * Method that concatenates two arrays.
+     *
+     * @param a The first array
+     * @param b The second array
+     * @return byte[] The concatenated array
+     */
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    /**
+     * Method that creates text (the content of the test streams).
+     *
+     * @param random The random generator
+     * @param size The size of the text
+     * @return byte[] The text
+     */
+    private static byte[] createText(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 16);
+        while (sb.length() < size) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        sb.setLength(size);
+        return sb.toString().getBytes();
+    }
+
+    /**
+     * Method that converts a hexadecimal string to bytes.
+     *
+     * @param hex The hexadecimal string
+     * @return byte[] The bytes
+     */
+    private static byte[] fromHex(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return data;
+    }
+}
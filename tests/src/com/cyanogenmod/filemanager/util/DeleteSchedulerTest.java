@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.system.Os;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A class for testing the concurrent deletion of directory trees.
+ *
+ * @see DeleteScheduler
+ */
+public class DeleteSchedulerTest extends android.test.AndroidTestCase {
+
+    private File mDir;
+    private File mRoot;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mDir = TestFileHelper.createTestFolder(
+                getContext(), "delete-scheduler-test"); //$NON-NLS-1$
+        this.mRoot = new File(this.mDir, "root"); //$NON-NLS-1$
+        assertTrue(this.mRoot.mkdir());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        FileHelper.deleteFolder(this.mDir);
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks the deletion of a single file.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testFile() throws Exception {
+        File file = createFile(this.mRoot, "file"); //$NON-NLS-1$
+        ProgressListener listener = new ProgressListener(-1);
+        assertTrue(new DeleteScheduler(listener).delete(file));
+        assertFalse(file.exists());
+        assertEquals(1, listener.mEntries);
+
+        assertFalse(new DeleteScheduler(null).delete(file));
+    }
+
+    /**
+     * Method that checks the deletion of a deep tree, where every folder must wait for
+     * its only subfolder.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testDeepTree() throws Exception {
+        final int depth = 100;
+        File folder = this.mRoot;
+        createFile(folder, "file"); //$NON-NLS-1$
+        for (int i = 0; i < depth; i++) {
+            folder = new File(folder, "d"); //$NON-NLS-1$
+            assertTrue(folder.mkdir());
+            createFile(folder, "file"); //$NON-NLS-1$
+        }
+
+        ProgressListener listener = new ProgressListener(-1);
+        DeleteScheduler scheduler = new DeleteScheduler(listener);
+        assertTrue(scheduler.delete(this.mRoot));
+        assertFalse(this.mRoot.exists());
+        assertEquals((depth + 1) * 2, listener.mEntries);
+        assertTrue(listener.mOrdered);
+    }
+
+    /**
+     * Method that checks the deletion of a wide tree, whose files are deleted in several
+     * batches.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testWideTree() throws Exception {
+        final int files = 1000;
+        final int folders = 10;
+        final int subfiles = 130;
+        for (int i = 0; i < files; i++) {
+            createFile(this.mRoot, "file" + i); //$NON-NLS-1$
+        }
+        for (int i = 0; i < folders; i++) {
+            File folder = new File(this.mRoot, "folder" + i); //$NON-NLS-1$
+            assertTrue(folder.mkdir());
+            for (int j = 0; j < subfiles; j++) {
+                createFile(folder, "file" + j); //$NON-NLS-1$
+            }
+        }
+        // An empty folder
+        assertTrue(new File(this.mRoot, "empty").mkdir()); //$NON-NLS-1$
+
+        ProgressListener listener = new ProgressListener(-1);
+        DeleteScheduler scheduler = new DeleteScheduler(listener);
+        assertTrue(scheduler.delete(this.mRoot));
+        assertFalse(this.mRoot.exists());
+        assertEquals(1 + files + folders * (1 + subfiles) + 1, listener.mEntries);
+        assertTrue(listener.mOrdered);
+    }
+
+    /**
+     * Method that checks that the symlinks to folders are deleted, but never followed.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testSymlinkToFolder() throws Exception {
+        File target = new File(this.mDir, "target"); //$NON-NLS-1$
+        assertTrue(target.mkdir());
+        File keep = createFile(target, "keep"); //$NON-NLS-1$
+        File sub = new File(this.mRoot, "sub"); //$NON-NLS-1$
+        assertTrue(sub.mkdir());
+        symlink(target, new File(this.mRoot, "link")); //$NON-NLS-1$
+        symlink(target, new File(sub, "link")); //$NON-NLS-1$
+        symlink(keep, new File(sub, "file-link")); //$NON-NLS-1$
+        symlink(new File("missing"), new File(sub, "dangling")); //$NON-NLS-1$ //$NON-NLS-2$
+
+        assertTrue(new DeleteScheduler(null).delete(this.mRoot));
+        assertFalse(this.mRoot.exists());
+        assertTrue(target.isDirectory());
+        assertTrue(keep.isFile());
+
+        // The symlink to delete is itself a symlink to a folder
+        File link = new File(this.mDir, "link"); //$NON-NLS-1$
+        symlink(target, link);
+        assertTrue(new DeleteScheduler(null).delete(link));
+        assertFalse(link.exists());
+        assertTrue(keep.isFile());
+    }
+
+    /**
+     * Method that checks that a deletion cancelled in progress stops and fails, leaving
+     * the rest of the tree.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testCancel() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            File folder = new File(this.mRoot, "folder" + i); //$NON-NLS-1$
+            assertTrue(folder.mkdir());
+            for (int j = 0; j < 200; j++) {
+                createFile(folder, "file" + j); //$NON-NLS-1$
+            }
+        }
+
+        ProgressListener listener = new ProgressListener(100);
+        DeleteScheduler scheduler = new DeleteScheduler(listener);
+        listener.mScheduler = scheduler;
+        assertFalse(scheduler.delete(this.mRoot));
+        assertTrue(scheduler.isCancelled());
+        assertTrue(this.mRoot.isDirectory());
+        String[] names = this.mRoot.list();
+        assertNotNull(names);
+        assertTrue(names.length > 0);
+        assertTrue(listener.mEntries < 20 * 201);
+    }
+
+    /**
+     * Method that checks that a child that can't be deleted fails the deletion, and that
+     * its parents are kept.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testFailedChild() throws Exception {
+        File ok = new File(this.mRoot, "ok"); //$NON-NLS-1$
+        assertTrue(ok.mkdir());
+        createFile(ok, "file"); //$NON-NLS-1$
+        File locked = new File(this.mRoot, "locked"); //$NON-NLS-1$
+        assertTrue(locked.mkdir());
+        File file = createFile(locked, "file"); //$NON-NLS-1$
+        // The files of a read-only folder can't be deleted
+        Os.chmod(locked.getAbsolutePath(), 0555);
+        try {
+            assertFalse(new DeleteScheduler(null).delete(this.mRoot));
+            assertTrue(this.mRoot.isDirectory());
+            assertTrue(locked.isDirectory());
+            assertTrue(file.isFile());
+        } finally {
+            Os.chmod(locked.getAbsolutePath(), 0755);
+        }
+    }
+
+    /**
+     * Method that creates a symlink
+     *
+     * @param target The target of the symlink
+     * @param link The symlink
+     * @throws Exception If the symlink couldn't be created
+     */
+    private static void symlink(File target, File link) throws Exception {
+        Os.symlink(target.getPath(), link.getAbsolutePath());
+    }
+
+    /**
+     * Method that creates an empty file
+     *
+     * @param folder The folder of the file
+     * @param name The name of the file
+     * @return File The file
+     * @throws IOException If the file couldn't be created
+     */
+    private static File createFile(File folder, String name) throws IOException {
+        File file = new File(folder, name);
+        TestFileHelper.writeFile(file, new byte[0]);
+        return file;
+    }
+
+    /**
+     * A listener that records the progress of a deletion, and cancels it once a number of
+     * entries were deleted.
+     */
+    private static class ProgressListener implements DeleteScheduler.OnDeleteProgressListener {
+        private final int mLimit;
+        DeleteScheduler mScheduler;
+        int mEntries;
+        boolean mOrdered = true;
+
+        ProgressListener(int limit) {
+            super();
+            this.mLimit = limit;
+        }
+
+        @Override
+        public void onDeleteProgress(File file, int entries) {
+            if (entries <= this.mEntries) {
+                this.mOrdered = false;
+            }
+            this.mEntries = entries;
+            if (this.mLimit >= 0 && entries >= this.mLimit && this.mScheduler != null) {
+                this.mScheduler.cancel();
+            }
+        }
+    }
+}
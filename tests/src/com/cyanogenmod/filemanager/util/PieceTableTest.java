@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A class for testing the document model of the editor.
+ *
+ * @see PieceTable
+ */
+public class PieceTableTest extends android.test.AndroidTestCase {
+
+    private static final String TAG = "PieceTableTest"; //$NON-NLS-1$
+
+    private static final int BENCHMARK_FILE_SIZE = 256 * 1024 * 1024;
+    private static final int BENCHMARK_PAGE_SIZE = 64 * 1024;
+
+    private File mFile;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.mFile = new File(getContext().getCacheDir(), "piece-table-test"); //$NON-NLS-1$
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        this.mFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Method that checks the document after random edits against a plain array, over a
+     * mapped file.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testReplace() throws Exception {
+        Random random = new Random(1);
+        byte[] expected = createText(random, 100000);
+        write(expected);
+
+        PagedByteSource source = PagedByteSource.open(this.mFile);
+        try {
+            PieceTable document = new PieceTable(source);
+            for (int i = 0; i < 200; i++) {
+                int pos = random.nextInt(expected.length + 1);
+                int len = random.nextInt(Math.min(1000, expected.length - pos) + 1);
+                byte[] data = createText(random, random.nextInt(500));
+                document.replace(pos, len, data);
+
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                baos.write(expected, 0, pos);
+                baos.write(data);
+                baos.write(expected, pos + len, expected.length - pos - len);
+                expected = baos.toByteArray();
+                assertEquals(expected.length, document.length());
+            }
+            assertTrue(document.isModified());
+
+            byte[] read = new byte[expected.length];
+            assertEquals(read.length, document.read(0, read, 0, read.length));
+            assertTrue(Arrays.equals(expected, read));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            document.writeTo(baos, new byte[4096]);
+            assertTrue(Arrays.equals(expected, baos.toByteArray()));
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Method that checks that the pages never split a line, and split long lines at
+     * UTF-8 boundaries.
+     *
+     * @throws Exception If test failed
+     */
+    @SmallTest
+    public void testPages() throws Exception {
+        byte[] text = "line 1\nline 2\náéíóú\n".getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+        PieceTable document = new PieceTable(PagedByteSource.wrap(text));
+        assertEquals(7, document.findPageEnd(0, 10));
+        assertEquals(14, document.findPageEnd(7, 10));
+        assertEquals(text.length, document.findPageEnd(14, 100));
+        assertEquals(7, document.findPageStart(14, 10));
+
+        // A long line is split at the start of a character
+        assertEquals(18, document.findPageEnd(14, 5));
+        assertEquals(0, document.findPageStart(7, 100));
+    }
+
+    /**
+     * Method that measures the time to show the first page of a big file. The file is
+     * mapped, so only its first page must be read, whatever the size of the file. The
+     * time is only logged.
+     *
+     * @throws Exception If test failed
+     */
+    @LargeTest
+    public void testFirstPageBenchmark() throws Exception {
+        byte[] chunk = createText(new Random(1), 1024 * 1024);
+        FileOutputStream fos = new FileOutputStream(this.mFile);
+        try {
+            for (int i = 0; i < BENCHMARK_FILE_SIZE / chunk.length; i++) {
+                fos.write(chunk);
+            }
+        } finally {
+            fos.close();
+        }
+
+        long start = System.nanoTime();
+        CountingSource source = new CountingSource(PagedByteSource.open(this.mFile));
+        try {
+            PieceTable document = new PieceTable(source);
+            long end = document.findPageEnd(0, BENCHMARK_PAGE_SIZE);
+            byte[] page = new byte[(int) end];
+            document.read(0, page, 0, page.length);
+            String text = new String(page);
+            long elapsed = System.nanoTime() - start;
+            Log.i(TAG, String.format("First page of a %d MB file in %d ms", //$NON-NLS-1$
+                    Integer.valueOf(BENCHMARK_FILE_SIZE >> 20),
+                    Long.valueOf(elapsed / 1000000L)));
+            assertTrue(text.length() > 0);
+            // Only the first mapped page was touched
+            assertTrue(source.mBytes < PagedByteSource.PAGE_SIZE);
+            assertTrue(source.mEnd <= PagedByteSource.PAGE_SIZE);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Method that creates random text with short lines
+     *
+     * @param random The random generator
+     * @param len The length of the text
+     * @return byte[] The text
+     */
+    private static byte[] createText(Random random, int len) {
+        byte[] text = new byte[len];
+        for (int i = 0; i < len; i++) {
+            text[i] = (byte) (random.nextInt(40) == 0 ? '\n' : 'a' + random.nextInt(26));
+        }
+        return text;
+    }
+
+    /**
+     * Method that writes the test file
+     *
+     * @param data The content of the file
+     * @throws Exception If the file can't be written
+     */
+    private void write(byte[] data) throws Exception {
+        FileOutputStream fos = new FileOutputStream(this.mFile);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * A source that counts the bytes read from other source.
+     */
+    private static class CountingSource extends PagedByteSource {
+        private final PagedByteSource mSource;
+        long mBytes;
+        long mEnd;
+
+        CountingSource(PagedByteSource source) {
+            super();
+            this.mSource = source;
+        }
+
+        @Override
+        public long length() {
+            return this.mSource.length();
+        }
+
+        @Override
+        public int read(long position, byte[] b, int off, int len) throws IOException {
+            int read = this.mSource.read(position, b, off, len);
+            if (read > 0) {
+                this.mBytes += read;
+                this.mEnd = Math.max(this.mEnd, position + read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.mSource.close();
+        }
+    }
+}
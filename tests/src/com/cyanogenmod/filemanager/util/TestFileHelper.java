@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cyanogenmod.filemanager.util;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import junit.framework.Assert;
+
+/**
+ * A helper class with the file and stream utilities shared by the tests.
+ */
+public final class TestFileHelper {
+
+    /**
+     * Constructor of <code>TestFileHelper</code>. Not instantiable.
+     */
+    private TestFileHelper() {
+        super();
+    }
+
+    /**
+     * Method that creates an empty folder for the files of a test in the cache folder of
+     * the application. The files of a previous run are deleted.
+     *
+     * @param ctx The current context
+     * @param name The name of the folder
+     * @return File The folder
+     */
+    public static File createTestFolder(Context ctx, String name) {
+        File folder = new File(ctx.getCacheDir(), name);
+        FileHelper.deleteFolder(folder);
+        Assert.assertTrue(folder.mkdirs());
+        return folder;
+    }
+
+    /**
+     * Method that reads a stream to its end. The stream is not closed.
+     *
+     * @param in The stream
+     * @return byte[] The content of the stream
+     * @throws IOException If an I/O error occurs
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Method that fills a buffer from a stream. The rest of the buffer is cleared at the end
+     * of the stream.
+     *
+     * @param in The stream
+     * @param data The buffer
+     * @return int The bytes read
+     * @throws IOException If an I/O error occurs
+     */
+    public static int readFully(InputStream in, byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int read = in.read(data, offset, data.length - offset);
+            if (read == -1) {
+                break;
+            }
+            offset += read;
+        }
+        for (int i = offset; i < data.length; i++) {
+            data[i] = 0;
+        }
+        return offset;
+    }
+
+    /**
+     * Method that reads a file.
+     *
+     * @param file The file
+     * @return byte[] The content of the file
+     * @throws IOException If an I/O error occurs
+     */
+    public static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return readFully(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method that checks the content of a file.
+     *
+     * @param expected The expected content
+     * @param file The file
+     * @throws IOException If an I/O error occurs
+     */
+    public static void assertFileContent(byte[] expected, File file) throws IOException {
+        Assert.assertTrue(file.getPath(), Arrays.equals(expected, readFile(file)));
+    }
+
+    /**
+     * Method that reads an entry of a zip file.
+     *
+     * @param zip The zip file
+     * @param name The name of the entry
+     * @return byte[] The content of the entry
+     * @throws IOException If an I/O error occurs
+     */
+    public static byte[] readEntry(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        Assert.assertNotNull(name, entry);
+        InputStream in = zip.getInputStream(entry);
+        try {
+            return readFully(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method that writes a file.
+     *
+     * @param file The file
+     * @param data The content of the file
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeFile(File file, byte[] data) throws IOException {
+        writeFile(file, data, data.length);
+    }
+
+    /**
+     * Method that writes the head of a buffer to a file.
+     *
+     * @param file The file
+     * @param data The buffer
+     * @param len The bytes of the buffer to write
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeFile(File file, byte[] data, int len) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(data, 0, len);
+        } finally {
+            fos.close();
+        }
+    }
+}